@@ -0,0 +1,154 @@
+package com.zaren.hdhomerunsignalmeterlib;
+
+import java.util.HashSet;
+
+import junit.framework.TestCase;
+
+import com.zaren.HdhomerunSignalMeterLib.data.DiscoverTask;
+import com.zaren.HdhomerunSignalMeterLib.data.DiscoveryTargets;
+import com.zaren.HdhomerunSignalMeterLib.data.DiscoveryService;
+import com.zaren.HdhomerunSignalMeterLib.data.HdhomerunDiscoverDevice;
+import com.zaren.HdhomerunSignalMeterLib.data.HdhomerunDiscoverDeviceArray;
+import com.zaren.hdhomerunsignalmeterlib.emulator.EmulatorConfig;
+import com.zaren.hdhomerunsignalmeterlib.emulator.HdhomerunEmulator;
+import com.zaren.hdhomerunsignalmeterlib.emulator.VirtualDevice;
+
+/**
+ * Discovers a simulated subnet of 200 devices on 127.0.0.2 - 127.0.0.201, far more than the ten
+ * discovery used to be limited to.
+ */
+public class DiscoveryScaleTest extends TestCase
+{
+    private static final int DEVICE_COUNT = 200;
+    private static final int TUNER_COUNT = 2;
+
+    private HdhomerunEmulator mEmulator;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        EmulatorConfig theConfig = new EmulatorConfig();
+        theConfig.deviceCount = DEVICE_COUNT;
+        theConfig.tunerCount = TUNER_COUNT;
+
+        mEmulator = new HdhomerunEmulator( theConfig );
+        mEmulator.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        mEmulator.stop();
+        super.tearDown();
+    }
+
+    public void testDiscoverFindsEveryDevice()
+    {
+        HdhomerunDiscoverDeviceArray theDevices = new ImmediateDiscoverTask().discoverNow();
+
+        assertEquals( HdhomerunDiscoverDeviceArray.NO_ERROR, theDevices.getError() );
+        assertAllDevicesFound( theDevices );
+    }
+
+    public void testExpectedDevicesEndDiscoveryEarly()
+    {
+        HdhomerunDiscoverDeviceArray thePrevious = new ImmediateDiscoverTask().discoverNow();
+
+        ImmediateDiscoverTask theTask = new ImmediateDiscoverTask();
+        theTask.setExpectedDevices( thePrevious );
+
+        long theStart = System.nanoTime();
+        HdhomerunDiscoverDeviceArray theDevices = theTask.discoverNow();
+        long theElapsedMs = ( System.nanoTime() - theStart ) / 1000000;
+
+        assertAllDevicesFound( theDevices );
+        //without the expected devices discovery always waits out two 200ms attempts
+        assertTrue( "took " + theElapsedMs + "ms", theElapsedMs < 400 );
+    }
+
+    public void testTargetedDiscoveryFindsEveryDevice() throws Exception
+    {
+        //the wildcard listener would answer the probes of the unused addresses like broadcasts
+        mEmulator.stop();
+        EmulatorConfig theConfig = new EmulatorConfig();
+        theConfig.deviceCount = DEVICE_COUNT;
+        theConfig.tunerCount = TUNER_COUNT;
+        theConfig.broadcastDiscovery = false;
+        mEmulator = new HdhomerunEmulator( theConfig );
+        mEmulator.start();
+
+        ImmediateDiscoverTask theTask = new ImmediateDiscoverTask();
+        theTask.setBroadcast( false );
+        theTask.setTargets( DiscoveryTargets.parse( "127.0.0.0/24" ), 500 );
+
+        long theStart = System.nanoTime();
+        HdhomerunDiscoverDeviceArray theDevices = theTask.discoverNow();
+        long theElapsedMs = ( System.nanoTime() - theStart ) / 1000000;
+
+        assertEquals( HdhomerunDiscoverDeviceArray.NO_ERROR, theDevices.getError() );
+        assertAllDevicesFound( theDevices );
+        //254 addresses probed 64 at a time, the 54 that never answer time out together
+        assertTrue( "took " + theElapsedMs + "ms", theElapsedMs < 2000 );
+    }
+
+    public void testDiscoveryServiceFindsEveryDevice() throws Exception
+    {
+        DiscoveryService theService = new DiscoveryService();
+        theService.start();
+
+        try
+        {
+            HdhomerunDiscoverDeviceArray theDevices = theService.awaitDevices( 2000 );
+            assertAllDevicesFound( theDevices );
+
+            VirtualDevice theLast = mEmulator.getDevices().get( DEVICE_COUNT - 1 );
+            String theName = Long.toHexString( theLast.getDeviceId() & 0xFFFFFFFFL ) + "-" + ( TUNER_COUNT - 1 );
+            HdhomerunDiscoverDevice theTuner = theService.findTuner( theName );
+            assertNotNull( theName, theTuner );
+            assertEquals( toInt( theLast.getAddress().getAddress() ), theTuner.ip_addr );
+        }
+        finally
+        {
+            theService.stop();
+        }
+    }
+
+    private void assertAllDevicesFound( HdhomerunDiscoverDeviceArray aDevices )
+    {
+        assertEquals( DEVICE_COUNT * TUNER_COUNT, aDevices.getCount() );
+
+        HashSet< Long > theIds = new HashSet< Long >();
+        for( int i = 0; i < aDevices.getCount(); i++ )
+        {
+            theIds.add( aDevices.get( i ).id );
+        }
+
+        for( VirtualDevice theDevice : mEmulator.getDevices() )
+        {
+            assertTrue( theDevice.getDeviceIdString(), theIds.contains( theDevice.getDeviceId() & 0xFFFFFFFFL ) );
+        }
+    }
+
+    private static int toInt( byte[] aAddress )
+    {
+        return ( ( aAddress[ 0 ] & 0xFF ) << 24 ) | ( ( aAddress[ 1 ] & 0xFF ) << 16 ) | ( ( aAddress[ 2 ] & 0xFF ) << 8 ) | ( aAddress[ 3 ] & 0xFF );
+    }
+
+    /**
+     * Runs the discovery of a DiscoverTask on the calling thread
+     */
+    private static class ImmediateDiscoverTask extends DiscoverTask
+    {
+        ImmediateDiscoverTask()
+        {
+            super( null, null );
+        }
+
+        HdhomerunDiscoverDeviceArray discoverNow()
+        {
+            return doInBackground();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.zaren.hdhomerunsignalmeterlib;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import com.zaren.HdhomerunSignalMeterLib.data.GuideTable;
+import com.zaren.HdhomerunSignalMeterLib.data.HdhomerunDevice;
+import com.zaren.HdhomerunSignalMeterLib.data.StreamInfoParser;
+import com.zaren.hdhomerunsignalmeterlib.emulator.EmulatorConfig;
+import com.zaren.hdhomerunsignalmeterlib.emulator.HdhomerunEmulator;
+import com.zaren.hdhomerunsignalmeterlib.emulator.TransportStreamGenerator;
+import com.zaren.hdhomerunsignalmeterlib.emulator.VirtualDevice;
+
+/**
+ * Collects the program guide of an emulated channel from the EIT and ETT of its stream
+ */
+public class GuideTest extends TestCase
+{
+    private static final int PROGRAM = 2;
+    private static final int TIMEOUT_MS = 3000;
+
+    private HdhomerunEmulator mEmulator;
+    private VirtualDevice mVirtual;
+    private HdhomerunDevice mDevice;
+    private int mIpAddr;
+    private long mTuneTime;
+    private final byte[] mBuffer = new byte[ 1316 * 100 ];
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        EmulatorConfig theConfig = new EmulatorConfig();
+        theConfig.tunerCount = 1;
+        theConfig.programsPerChannel = 6;
+        theConfig.guide = true;
+        theConfig.broadcastDiscovery = false;
+
+        mEmulator = new HdhomerunEmulator( theConfig );
+        mEmulator.start();
+
+        mVirtual = mEmulator.getDevices().get( 0 );
+        byte[] theAddress = mVirtual.getAddress().getAddress();
+        mIpAddr = ( ( theAddress[ 0 ] & 0xFF ) << 24 ) | ( ( theAddress[ 1 ] & 0xFF ) << 16 ) | ( ( theAddress[ 2 ] & 0xFF ) << 8 ) | ( theAddress[ 3 ] & 0xFF );
+        mDevice = new HdhomerunDevice( mVirtual.getDeviceId() & 0xFFFFFFFFL, mIpAddr, 0 );
+        assertEquals( 1, mDevice.enableGuide() );
+        tune( "auto:3" );
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        mDevice.stopStreaming();
+        mDevice.destroy();
+        mEmulator.stop();
+        super.tearDown();
+    }
+
+    public void testGuideFromTheStream() throws Exception
+    {
+        GuideTable theTable = waitForGuide( PROGRAM, 0 );
+
+        assertEquals( 0x0803, theTable.getTsid() );
+        assertEquals( PROGRAM, theTable.getSourceId() );
+        long theStart = theTable.getStartTime( 0 );
+        assertTrue( "start " + theStart + ", tuned " + mTuneTime, Math.abs( theStart - mTuneTime / 1000 ) <= 2 );
+        for( int i = 0; i < TransportStreamGenerator.GUIDE_EVENTS; i++ )
+        {
+            assertEquals( i + 1, theTable.getEventId( i ) );
+            assertEquals( theStart + i * TransportStreamGenerator.GUIDE_EVENT_SECONDS, theTable.getStartTime( i ) );
+            assertEquals( TransportStreamGenerator.GUIDE_EVENT_SECONDS, theTable.getDuration( i ) );
+            assertEquals( TransportStreamGenerator.eventTitle( PROGRAM, i, 0 ), theTable.getTitle( i ) );
+            assertEquals( TransportStreamGenerator.eventText( PROGRAM, i ), theTable.getText( i ) );
+        }
+
+        //the same channel by its tsid and source_id, from a time
+        GuideTable theLater = new GuideTable();
+        assertEquals( 2, mDevice.getGuideEvents( theTable.getTsid(), theTable.getSourceId(), theStart + 4 * TransportStreamGenerator.GUIDE_EVENT_SECONDS + 1, theLater ) );
+        assertEquals( 5, theLater.getEventId( 0 ) );
+
+        //a program the stream doesn't have
+        GuideTable theMissing = new GuideTable();
+        assertEquals( 0, mDevice.getGuideEvents( 99, 0, theMissing ) );
+        assertEquals( StreamInfoParser.TSID_NONE, theMissing.getTsid() );
+    }
+
+    public void testGuideFollowsANewVersion() throws Exception
+    {
+        GuideTable theTable = waitForGuide( PROGRAM, 0 );
+
+        mVirtual.getTuner( 0 ).getStreamGenerator().setGuide( theTable.getStartTime( 0 ), 1 );
+
+        long theEnd = System.currentTimeMillis() + TIMEOUT_MS;
+        while( System.currentTimeMillis() < theEnd )
+        {
+            drain();
+            mDevice.getGuideEvents( PROGRAM, 0, theTable );
+            if( theTable.getEventCount() > 0 && theTable.getTitle( 0 ).equals( TransportStreamGenerator.eventTitle( PROGRAM, 0, 1 ) ) )
+            {
+                break;
+            }
+            Thread.sleep( 20 );
+        }
+
+        assertEquals( TransportStreamGenerator.GUIDE_EVENTS, theTable.getEventCount() );
+        for( int i = 0; i < TransportStreamGenerator.GUIDE_EVENTS; i++ )
+        {
+            assertEquals( TransportStreamGenerator.eventTitle( PROGRAM, i, 1 ), theTable.getTitle( i ) );
+            assertEquals( TransportStreamGenerator.eventText( PROGRAM, i ), theTable.getText( i ) );
+        }
+    }
+
+    public void testGuideKeptOverAChannelChangeAndSaved() throws Exception
+    {
+        GuideTable theTable = waitForGuide( PROGRAM, 0 );
+        int theTsid = theTable.getTsid();
+        long theStart = theTable.getStartTime( 0 );
+
+        mDevice.stopStreaming();
+        tune( "auto:6" );
+        GuideTable theOther = waitForGuide( PROGRAM, 0 );
+        assertEquals( 0x0806, theOther.getTsid() );
+
+        GuideTable theCached = new GuideTable();
+        assertEquals( TransportStreamGenerator.GUIDE_EVENTS, mDevice.getGuideEvents( theTsid, PROGRAM, 0, theCached ) );
+
+        File theFile = File.createTempFile( "guide", ".bin" );
+        try
+        {
+            assertTrue( mDevice.saveGuide( theFile.getPath() ) );
+            //every program of two channels, with titles and texts, in a few bytes an event
+            assertTrue( "saved " + theFile.length(), theFile.length() < 2 * 6 * TransportStreamGenerator.GUIDE_EVENTS * 64 );
+
+            HdhomerunDevice theDevice = new HdhomerunDevice( mVirtual.getDeviceId() & 0xFFFFFFFFL, mIpAddr, 0 );
+            try
+            {
+                assertTrue( theDevice.loadGuide( theFile.getPath() ) );
+                GuideTable theLoaded = new GuideTable();
+                assertEquals( TransportStreamGenerator.GUIDE_EVENTS, theDevice.getGuideEvents( theTsid, PROGRAM, 0, theLoaded ) );
+                for( int i = 0; i < TransportStreamGenerator.GUIDE_EVENTS; i++ )
+                {
+                    assertEquals( theCached.getStartTime( i ), theLoaded.getStartTime( i ) );
+                    assertEquals( theCached.getTitle( i ), theLoaded.getTitle( i ) );
+                    assertEquals( theCached.getText( i ), theLoaded.getText( i ) );
+                }
+
+                theDevice.expireGuide( theStart + 3 * TransportStreamGenerator.GUIDE_EVENT_SECONDS + 1 );
+                assertEquals( 3, theDevice.getGuideEvents( theTsid, PROGRAM, 0, theLoaded ) );
+            }
+            finally
+            {
+                theDevice.destroy();
+            }
+
+            assertTrue( theFile.delete() );
+            assertFalse( mDevice.loadGuide( theFile.getPath() ) );
+        }
+        finally
+        {
+            theFile.delete();
+        }
+    }
+
+    private void tune( String aChannel )
+    {
+        mTuneTime = System.currentTimeMillis();
+        assertEquals( 1, mDevice.setTunerChannel( aChannel ) );
+        assertEquals( 1, mDevice.startStreaming() );
+    }
+
+    /**
+     * @return the guide of aProgram once it has every event and their texts
+     */
+    private GuideTable waitForGuide( int aProgram, long aFromTime ) throws InterruptedException
+    {
+        GuideTable theTable = new GuideTable();
+        long theEnd = System.currentTimeMillis() + TIMEOUT_MS;
+        while( System.currentTimeMillis() < theEnd )
+        {
+            drain();
+            if( mDevice.getGuideEvents( aProgram, aFromTime, theTable ) == TransportStreamGenerator.GUIDE_EVENTS
+                && theTable.getText( TransportStreamGenerator.GUIDE_EVENTS - 1 ).length() > 0 )
+            {
+                return theTable;
+            }
+            Thread.sleep( 20 );
+        }
+        fail( "guide of " + aProgram + ": " + theTable.getEventCount() + " events" );
+        return null;
+    }
+
+    private void drain()
+    {
+        while( mDevice.streamRecv( mBuffer, 0, mBuffer.length, 0 ) > 0 )
+        {
+        }
+    }
+}
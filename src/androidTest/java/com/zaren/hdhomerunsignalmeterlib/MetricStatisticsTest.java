@@ -0,0 +1,99 @@
+package com.zaren.hdhomerunsignalmeterlib;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.zaren.HdhomerunSignalMeterLib.data.MetricStatistics;
+
+/**
+ * Checks the histogram buckets through the percentiles at the edges of the exact range and of
+ * every power of two
+ */
+public class MetricStatisticsTest extends TestCase
+{
+    //a percentile is at most 1/64 of the value above it
+    private static final int SUB_BUCKET_HALF = 64;
+
+    public void testSmallValuesAreExact()
+    {
+        for( int theValue = 0; theValue < 128; theValue++ )
+        {
+            assertEquals( theValue, median( theValue ) );
+        }
+    }
+
+    public void testFirstSplitPowerOfTwo()
+    {
+        //128 to 255 is split into buckets of two
+        assertEquals( 129, median( 128 ) );
+        assertEquals( 129, median( 129 ) );
+        assertEquals( 131, median( 130 ) );
+        assertEquals( 255, median( 254 ) );
+        assertEquals( 255, median( 255 ) );
+        assertEquals( 259, median( 256 ) );
+    }
+
+    public void testPowerOfTwoBoundaries()
+    {
+        for( int theBit = 8; theBit < 31; theBit++ )
+        {
+            long thePower = 1L << theBit;
+            long theWidth = thePower / SUB_BUCKET_HALF;
+
+            //the last value below a power of two tops its bucket, the power starts a wider one
+            assertEquals( thePower - 1, median( thePower - 1 ) );
+            assertEquals( thePower + theWidth - 1, median( thePower ) );
+            assertEquals( thePower + theWidth - 1, median( thePower + theWidth - 1 ) );
+            assertEquals( thePower + 2 * theWidth - 1, median( thePower + theWidth ) );
+        }
+        assertEquals( Integer.MAX_VALUE, median( Integer.MAX_VALUE - 1 ) );
+    }
+
+    public void testPercentilesStayWithinBucketPrecision()
+    {
+        Random theRandom = new Random( 38 );
+        for( int i = 0; i < 100000; i++ )
+        {
+            long theValue = theRandom.nextInt( Integer.MAX_VALUE ) >>> theRandom.nextInt( 31 );
+            long thePercentile = median( theValue );
+            assertTrue( theValue + " read as " + thePercentile, thePercentile >= theValue );
+            assertTrue( theValue + " read as " + thePercentile, thePercentile - theValue <= theValue / SUB_BUCKET_HALF );
+        }
+    }
+
+    public void testPercentilesOfARange()
+    {
+        MetricStatistics theStatistics = new MetricStatistics( 0.1f );
+        assertEquals( 0, theStatistics.getPercentile( 50 ) );
+
+        for( int theValue = 1; theValue <= 1000; theValue++ )
+        {
+            theStatistics.record( theValue );
+        }
+        assertEquals( 1, theStatistics.getPercentile( 0 ) );
+        assertEquals( 100, theStatistics.getPercentile( 10 ) );
+        assertEquals( 503, theStatistics.getPercentile( 50 ) );
+        assertEquals( 1000, theStatistics.getPercentile( 100 ) );
+        assertEquals( 1000, theStatistics.getMax() );
+
+        //out of range values are clamped
+        theStatistics.record( -5 );
+        theStatistics.record( 1L << 40 );
+        assertEquals( 0, theStatistics.getMin() );
+        assertEquals( Integer.MAX_VALUE, theStatistics.getMax() );
+    }
+
+    /**
+     * @return the median of 0, aValue and Integer.MAX_VALUE, the top of aValue's bucket without
+     *         the min and max clamping it
+     */
+    private static long median( long aValue )
+    {
+        MetricStatistics theStatistics = new MetricStatistics( 0.1f );
+        theStatistics.record( 0 );
+        theStatistics.record( aValue );
+        theStatistics.record( Integer.MAX_VALUE );
+        return theStatistics.getPercentile( 50 );
+    }
+}
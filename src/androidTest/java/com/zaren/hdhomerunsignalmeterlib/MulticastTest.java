@@ -0,0 +1,213 @@
+package com.zaren.hdhomerunsignalmeterlib;
+
+import junit.framework.TestCase;
+
+import com.zaren.HdhomerunSignalMeterLib.data.HdhomerunCommErrorException;
+import com.zaren.HdhomerunSignalMeterLib.data.HdhomerunDevice;
+import com.zaren.HdhomerunSignalMeterLib.data.StreamStats;
+import com.zaren.hdhomerunsignalmeterlib.emulator.EmulatorConfig;
+import com.zaren.hdhomerunsignalmeterlib.emulator.HdhomerunEmulator;
+import com.zaren.hdhomerunsignalmeterlib.emulator.VirtualDevice;
+
+/**
+ * Receives emulated tuners sending to multicast groups with several multicast devices
+ */
+public class MulticastTest extends TestCase
+{
+    private static final int PACKET_SIZE = 1316;
+
+    //239.255.42.1 and .2, the organization local scope
+    private static final int GROUP_A = ( 239 << 24 ) | ( 255 << 16 ) | ( 42 << 8 ) | 1;
+    private static final int GROUP_B = ( 239 << 24 ) | ( 255 << 16 ) | ( 42 << 8 ) | 2;
+
+    private HdhomerunEmulator mEmulator;
+    private HdhomerunDevice[] mTuners;
+    private int mPort;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        EmulatorConfig theConfig = new EmulatorConfig();
+        theConfig.tunerCount = 2;
+        theConfig.broadcastDiscovery = false;
+
+        mEmulator = new HdhomerunEmulator( theConfig );
+        mEmulator.start();
+
+        VirtualDevice theVirtual = mEmulator.getDevices().get( 0 );
+        byte[] theAddress = theVirtual.getAddress().getAddress();
+        int theIpAddr = ( ( theAddress[ 0 ] & 0xFF ) << 24 ) | ( ( theAddress[ 1 ] & 0xFF ) << 16 ) | ( ( theAddress[ 2 ] & 0xFF ) << 8 ) | ( theAddress[ 3 ] & 0xFF );
+        mTuners = new HdhomerunDevice[ 2 ];
+        for( int i = 0; i < mTuners.length; i++ )
+        {
+            mTuners[ i ] = new HdhomerunDevice( theVirtual.getDeviceId() & 0xFFFFFFFFL, theIpAddr, i );
+        }
+
+        //a port other runs won't be sending to
+        mPort = 20000 + (int) ( System.nanoTime() % 20000 );
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        for( HdhomerunDevice theTuner : mTuners )
+        {
+            theTuner.setTargetIP( "none" );
+            theTuner.destroy();
+        }
+        mEmulator.stop();
+        super.tearDown();
+    }
+
+    public void testManyReceiversOfOneGroup() throws Exception
+    {
+        send( 0, "auto:3", GROUP_A );
+
+        HdhomerunDevice[] theReceivers = new HdhomerunDevice[ 3 ];
+        try
+        {
+            for( int i = 0; i < theReceivers.length; i++ )
+            {
+                theReceivers[ i ] = HdhomerunDevice.createMulticast( GROUP_A, mPort );
+                assertTrue( theReceivers[ i ].isMulticast() );
+                assertEquals( "239.255.42.1:" + mPort, theReceivers[ i ].getDeviceName() );
+                assertEquals( 1, theReceivers[ i ].startStreaming() );
+            }
+
+            for( HdhomerunDevice theReceiver : theReceivers )
+            {
+                assertEquals( PACKET_SIZE * 500, receive( theReceiver, PACKET_SIZE * 500 ) );
+
+                StreamStats theStats = new StreamStats();
+                theReceiver.getStreamStats( theStats );
+                assertTrue( theStats.getByteCount() >= PACKET_SIZE * 500 );
+                assertEquals( theStats.getByteCount(), theStats.getPacketCount() * PACKET_SIZE );
+                assertEquals( 0, theStats.getNetworkErrorCount() );
+                assertEquals( 0, theStats.getSequenceErrorCount() );
+                assertEquals( 0, theStats.getOverflowErrorCount() );
+            }
+
+            //after leaving the group nothing more arrives
+            theReceivers[ 0 ].stopStreaming();
+            Thread.sleep( 100 );
+            StreamStats theBefore = new StreamStats();
+            theReceivers[ 0 ].getStreamStats( theBefore );
+            Thread.sleep( 300 );
+            StreamStats theAfter = new StreamStats();
+            theReceivers[ 0 ].getStreamStats( theAfter );
+            assertEquals( theBefore.getByteCount(), theAfter.getByteCount() );
+
+            theReceivers[ 1 ].getStreamStats( theAfter );
+            assertTrue( theAfter.getByteCount() > PACKET_SIZE * 500 );
+        }
+        finally
+        {
+            for( HdhomerunDevice theReceiver : theReceivers )
+            {
+                if( theReceiver != null )
+                {
+                    theReceiver.stopStreaming();
+                    theReceiver.destroy();
+                }
+            }
+        }
+    }
+
+    public void testGroupsOnOnePortAreCountedApart() throws Exception
+    {
+        send( 0, "auto:3", GROUP_A );
+
+        HdhomerunDevice theA = HdhomerunDevice.createMulticast( GROUP_A, mPort );
+        HdhomerunDevice theB = HdhomerunDevice.createMulticast( GROUP_B, mPort );
+        try
+        {
+            assertEquals( 1, theA.startStreaming() );
+            assertEquals( 1, theB.startStreaming() );
+            assertEquals( PACKET_SIZE * 300, receive( theA, PACKET_SIZE * 300 ) );
+
+            //nobody sends to B yet, it doesn't get A's datagrams although they share the port
+            StreamStats theStats = new StreamStats();
+            theB.getStreamStats( theStats );
+            assertEquals( 0, theStats.getPacketCount() );
+
+            send( 1, "auto:6", GROUP_B );
+            assertEquals( PACKET_SIZE * 300, receive( theB, PACKET_SIZE * 300 ) );
+            theB.getStreamStats( theStats );
+            assertEquals( 0, theStats.getSequenceErrorCount() );
+            assertEquals( 0, theStats.getNetworkErrorCount() );
+        }
+        finally
+        {
+            theA.stopStreaming();
+            theB.stopStreaming();
+            theA.destroy();
+            theB.destroy();
+        }
+    }
+
+    public void testAnotherGroupOnTheSameSocket() throws Exception
+    {
+        send( 1, "auto:6", GROUP_B );
+
+        HdhomerunDevice theA = HdhomerunDevice.createMulticast( GROUP_A, mPort );
+        try
+        {
+            assertEquals( 1, theA.startStreaming() );
+            assertEquals( 1, theA.joinMulticastGroup( GROUP_B, 0 ) );
+            assertEquals( PACKET_SIZE * 300, receive( theA, PACKET_SIZE * 300 ) );
+
+            theA.leaveMulticastGroup( GROUP_B, 0 );
+        }
+        finally
+        {
+            theA.stopStreaming();
+            theA.destroy();
+        }
+    }
+
+    public void testOnlyMulticastGroups() throws Exception
+    {
+        try
+        {
+            HdhomerunDevice.createMulticast( ( 192 << 24 ) | ( 168 << 16 ) | 1, mPort );
+            fail( "a unicast address is not a group" );
+        }
+        catch( HdhomerunCommErrorException e )
+        {
+            //expected
+        }
+    }
+
+    /**
+     * Tunes tuner aTuner and has it send to aGroup
+     */
+    private void send( int aTuner, String aChannel, int aGroup )
+    {
+        assertEquals( 1, mTuners[ aTuner ].setTunerChannel( aChannel ) );
+        String theTarget = "rtp://" + ( ( aGroup >> 24 ) & 0xFF ) + "." + ( ( aGroup >> 16 ) & 0xFF ) + "." + ( ( aGroup >> 8 ) & 0xFF ) + "." + ( aGroup & 0xFF ) + ":" + mPort;
+        assertEquals( 1, mTuners[ aTuner ].setTargetIP( theTarget ) );
+    }
+
+    /**
+     * @return the bytes read from aReceiver, aBytes unless it timed out
+     */
+    private int receive( HdhomerunDevice aReceiver, int aBytes )
+    {
+        byte[] theBuffer = new byte[ PACKET_SIZE * 100 ];
+        int theTotal = 0;
+        long theEnd = System.currentTimeMillis() + 3000;
+        while( theTotal < aBytes && System.currentTimeMillis() < theEnd )
+        {
+            int theRead = aReceiver.streamRecv( theBuffer, 0, Math.min( theBuffer.length, aBytes - theTotal ), 200 );
+            assertTrue( theRead >= 0 );
+            if( theRead > 0 )
+            {
+                assertEquals( 0x47, theBuffer[ 0 ] );
+            }
+            theTotal += theRead;
+        }
+        return theTotal;
+    }
+}
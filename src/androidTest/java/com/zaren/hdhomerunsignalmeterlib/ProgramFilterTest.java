@@ -0,0 +1,186 @@
+package com.zaren.hdhomerunsignalmeterlib;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.zaren.HdhomerunSignalMeterLib.data.HdhomerunDevice;
+import com.zaren.HdhomerunSignalMeterLib.data.JniString;
+import com.zaren.hdhomerunsignalmeterlib.emulator.EmulatorConfig;
+import com.zaren.hdhomerunsignalmeterlib.emulator.HdhomerunEmulator;
+import com.zaren.hdhomerunsignalmeterlib.emulator.TransportStreamGenerator;
+import com.zaren.hdhomerunsignalmeterlib.emulator.VirtualDevice;
+
+/**
+ * Filters one program out of an emulated six program multiplex from its PAT and PMT
+ */
+public class ProgramFilterTest extends TestCase
+{
+    private static final int PACKET_SIZE = 188;
+    private static final int PROGRAM = 2;
+    private static final int MEASURE_MS = 1000;
+    private static final int PSIP_PID = 0x1FFB;
+
+    private HdhomerunEmulator mEmulator;
+    private VirtualDevice mVirtual;
+    private HdhomerunDevice mDevice;
+    private final byte[] mBuffer = new byte[ 1316 * 100 ];
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        EmulatorConfig theConfig = new EmulatorConfig();
+        theConfig.tunerCount = 1;
+        theConfig.programsPerChannel = 6;
+        theConfig.broadcastDiscovery = false;
+
+        mEmulator = new HdhomerunEmulator( theConfig );
+        mEmulator.start();
+
+        mVirtual = mEmulator.getDevices().get( 0 );
+        byte[] theAddress = mVirtual.getAddress().getAddress();
+        int theIpAddr = ( ( theAddress[ 0 ] & 0xFF ) << 24 ) | ( ( theAddress[ 1 ] & 0xFF ) << 16 ) | ( ( theAddress[ 2 ] & 0xFF ) << 8 ) | ( theAddress[ 3 ] & 0xFF );
+        mDevice = new HdhomerunDevice( mVirtual.getDeviceId() & 0xFFFFFFFFL, theIpAddr, 0 );
+        mDevice.setTunerChannel( "auto:3" );
+        assertEquals( 1, mDevice.startStreaming() );
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        mDevice.stopStreaming();
+        mDevice.destroy();
+        mEmulator.stop();
+        super.tearDown();
+    }
+
+    public void testFilterCutsTheOtherPrograms() throws Exception
+    {
+        long theUnfiltered = measure( null );
+        assertNull( mDevice.getProgramFilterPids() );
+
+        assertEquals( 1, mDevice.setProgramFilter( new int[] { PROGRAM } ) );
+        int[] theExpected = new int[] { 0x0000, TransportStreamGenerator.pmtPid( PROGRAM ), TransportStreamGenerator.videoPid( PROGRAM ),
+                                        TransportStreamGenerator.audioPid( PROGRAM ), PSIP_PID };
+        waitForPids( theExpected );
+
+        boolean[] theAllowed = new boolean[ 0x2000 ];
+        for( int thePid : theExpected )
+        {
+            theAllowed[ thePid ] = true;
+        }
+        drain();
+        long theFiltered = measure( theAllowed );
+
+        //one program of six, the PSI packets are next to nothing
+        assertTrue( "filtered " + theFiltered + " of " + theUnfiltered, theFiltered < theUnfiltered * 30 / 100 );
+        assertTrue( "filtered " + theFiltered, theFiltered > theUnfiltered * 10 / 100 );
+
+        mDevice.clearProgramFilter();
+        assertNull( mDevice.getProgramFilterPids() );
+        JniString theValue = new JniString();
+        assertEquals( 1, mDevice.getVar( "/tuner0/filter", theValue, new JniString() ) );
+        assertEquals( "0x0000-0x1FFF", theValue.getString() );
+    }
+
+    public void testFilterFollowsAPmtChange() throws Exception
+    {
+        assertEquals( 1, mDevice.setProgramFilter( new int[] { PROGRAM } ) );
+        waitForPids( new int[] { 0x0000, TransportStreamGenerator.pmtPid( PROGRAM ), TransportStreamGenerator.videoPid( PROGRAM ),
+                                 TransportStreamGenerator.audioPid( PROGRAM ), PSIP_PID } );
+
+        int theNewAudio = TransportStreamGenerator.audioPid( PROGRAM ) + 2;
+        mVirtual.getTuner( 0 ).getStreamGenerator().changeAudioPid( PROGRAM, theNewAudio );
+
+        waitForPids( new int[] { 0x0000, TransportStreamGenerator.pmtPid( PROGRAM ), TransportStreamGenerator.videoPid( PROGRAM ),
+                                 theNewAudio, PSIP_PID } );
+
+        drain();
+        int[] theCounts = new int[ 0x2000 ];
+        measure( null, theCounts );
+        assertTrue( "audio packets " + theCounts[ theNewAudio ], theCounts[ theNewAudio ] > 0 );
+        assertEquals( 0, theCounts[ TransportStreamGenerator.audioPid( PROGRAM ) ] );
+    }
+
+    public void testProgramWithTooManyStreamsPassesEverything() throws Exception
+    {
+        assertEquals( 1, mDevice.setProgramFilter( new int[] { PROGRAM } ) );
+        waitForPids( new int[] { 0x0000, TransportStreamGenerator.pmtPid( PROGRAM ), TransportStreamGenerator.videoPid( PROGRAM ),
+                                 TransportStreamGenerator.audioPid( PROGRAM ), PSIP_PID } );
+
+        //18 streams in all, more than the library keeps of a program
+        mVirtual.getTuner( 0 ).getStreamGenerator().addStreams( PROGRAM, 16 );
+
+        int[] thePids = null;
+        long theEnd = System.currentTimeMillis() + 3000;
+        while( System.currentTimeMillis() < theEnd )
+        {
+            thePids = mDevice.getProgramFilterPids();
+            if( thePids != null && thePids.length == 0x2000 )
+            {
+                break;
+            }
+            drain();
+            Thread.sleep( 50 );
+        }
+        assertEquals( 0x2000, thePids.length );
+
+        JniString theValue = new JniString();
+        assertEquals( 1, mDevice.getVar( "/tuner0/filter", theValue, new JniString() ) );
+        assertEquals( "0x0000-0x1fff", theValue.getString().toLowerCase() );
+    }
+
+    private void waitForPids( int[] aExpected ) throws InterruptedException
+    {
+        int[] thePids = null;
+        long theEnd = System.currentTimeMillis() + 3000;
+        while( System.currentTimeMillis() < theEnd )
+        {
+            thePids = mDevice.getProgramFilterPids();
+            if( Arrays.equals( aExpected, thePids ) )
+            {
+                return;
+            }
+            drain();
+            Thread.sleep( 50 );
+        }
+        fail( "filter " + Arrays.toString( thePids ) );
+    }
+
+    private void drain()
+    {
+        while( mDevice.streamRecv( mBuffer, 0, mBuffer.length, 0 ) > 0 )
+        {
+        }
+    }
+
+    private long measure( boolean[] aAllowed )
+    {
+        return measure( aAllowed, new int[ 0x2000 ] );
+    }
+
+    /**
+     * @return bytes received in MEASURE_MS, every packet's PID must be in aAllowed unless it is null
+     */
+    private long measure( boolean[] aAllowed, int[] aCounts )
+    {
+        long theTotal = 0;
+        long theEnd = System.currentTimeMillis() + MEASURE_MS;
+        while( System.currentTimeMillis() < theEnd )
+        {
+            int theRead = mDevice.streamRecv( mBuffer, 0, mBuffer.length, 100 );
+            assertTrue( theRead >= 0 );
+            for( int theOffset = 0; theOffset < theRead; theOffset += PACKET_SIZE )
+            {
+                assertEquals( 0x47, mBuffer[ theOffset ] );
+                int thePid = ( ( mBuffer[ theOffset + 1 ] & 0x1F ) << 8 ) | ( mBuffer[ theOffset + 2 ] & 0xFF );
+                assertTrue( "pid " + thePid, aAllowed == null || aAllowed[ thePid ] );
+                aCounts[ thePid ]++;
+            }
+            theTotal += theRead;
+        }
+        return theTotal;
+    }
+}
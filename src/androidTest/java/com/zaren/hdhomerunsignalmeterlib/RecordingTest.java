@@ -0,0 +1,182 @@
+package com.zaren.hdhomerunsignalmeterlib;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.zaren.HdhomerunSignalMeterLib.data.HdhomerunDevice;
+import com.zaren.HdhomerunSignalMeterLib.data.RecordingStats;
+import com.zaren.hdhomerunsignalmeterlib.emulator.EmulatorConfig;
+import com.zaren.hdhomerunsignalmeterlib.emulator.HdhomerunEmulator;
+import com.zaren.hdhomerunsignalmeterlib.emulator.VirtualDevice;
+
+/**
+ * Records the streams of three emulated devices with two tuners each at once
+ */
+public class RecordingTest extends TestCase
+{
+    private static final int DEVICE_COUNT = 3;
+    private static final int TUNER_COUNT = 2;
+    private static final int RECORD_MS = 3000;
+
+    private HdhomerunEmulator mEmulator;
+    private List< HdhomerunDevice > mTuners;
+    private File mDirectory;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        EmulatorConfig theConfig = new EmulatorConfig();
+        theConfig.deviceCount = DEVICE_COUNT;
+        theConfig.tunerCount = TUNER_COUNT;
+        theConfig.broadcastDiscovery = false;
+
+        mEmulator = new HdhomerunEmulator( theConfig );
+        mEmulator.start();
+
+        mTuners = new ArrayList< HdhomerunDevice >();
+        for( VirtualDevice theDevice : mEmulator.getDevices() )
+        {
+            byte[] theAddress = theDevice.getAddress().getAddress();
+            int theIpAddr = ( ( theAddress[ 0 ] & 0xFF ) << 24 ) | ( ( theAddress[ 1 ] & 0xFF ) << 16 ) | ( ( theAddress[ 2 ] & 0xFF ) << 8 ) | ( theAddress[ 3 ] & 0xFF );
+            for( int theTuner = 0; theTuner < TUNER_COUNT; theTuner++ )
+            {
+                HdhomerunDevice theHdhomerun = new HdhomerunDevice( theDevice.getDeviceId() & 0xFFFFFFFFL, theIpAddr, theTuner );
+                theHdhomerun.setTunerChannel( "auto:" + ( 3 + theTuner * 3 ) );
+                mTuners.add( theHdhomerun );
+            }
+        }
+
+        mDirectory = File.createTempFile( "recordings", "" );
+        mDirectory.delete();
+        mDirectory.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        for( HdhomerunDevice theTuner : mTuners )
+        {
+            theTuner.destroy();
+        }
+        mEmulator.stop();
+
+        for( File theFile : mDirectory.listFiles() )
+        {
+            theFile.delete();
+        }
+        mDirectory.delete();
+        super.tearDown();
+    }
+
+    public void testSimultaneousRecordingsKeepUp() throws Exception
+    {
+        recordAll( false );
+    }
+
+    public void testSimultaneousRecordingsThroughIoUring() throws Exception
+    {
+        boolean theSupported = HdhomerunDevice.setRecordingIoUring( true );
+        try
+        {
+            //a sandbox that refuses io_uring falls back, the recordings must come out the same either way
+            recordAll( theSupported );
+        }
+        finally
+        {
+            HdhomerunDevice.setRecordingIoUring( false );
+        }
+    }
+
+    private void recordAll( boolean aIoUring ) throws Exception
+    {
+        for( int i = 0; i < mTuners.size(); i++ )
+        {
+            assertEquals( 1, mTuners.get( i ).startRecording( new File( mDirectory, "tuner" + i + ".ts" ).getPath() ) );
+        }
+        assertEquals( 0, mTuners.get( 0 ).startRecording( new File( mDirectory, "again.ts" ).getPath() ) );
+
+        Thread.sleep( RECORD_MS );
+
+        RecordingStats[] theStats = new RecordingStats[ mTuners.size() ];
+        for( int i = 0; i < mTuners.size(); i++ )
+        {
+            theStats[ i ] = new RecordingStats();
+            assertTrue( mTuners.get( i ).getRecordingStats( theStats[ i ] ) );
+            assertTrue( "backlog " + theStats[ i ].getMaxBacklogBlocks(), theStats[ i ].getMaxBacklogBlocks() < theStats[ i ].getBlockCount() );
+            assertTrue( mTuners.get( i ).isRecording() );
+            assertEquals( aIoUring, theStats[ i ].isIoUring() );
+            assertEquals( theStats[ 0 ].isIoUring(), theStats[ i ].isIoUring() );
+        }
+
+        long theExpected = mEmulator.getConfig().streamBitsPerSecond / 8L * ( RECORD_MS - mEmulator.getConfig().lockLatencyMs ) / 1000;
+        for( int i = 0; i < mTuners.size(); i++ )
+        {
+            HdhomerunDevice theTuner = mTuners.get( i );
+            theTuner.stopRecording();
+            assertFalse( theTuner.isRecording() );
+            assertFalse( theTuner.getRecordingStats( new RecordingStats() ) );
+
+            File theFile = new File( mDirectory, "tuner" + i + ".ts" );
+            assertEquals( 0, theStats[ i ].getOverflowErrorCount() );
+            assertEquals( 0, theStats[ i ].getWriteErrorCount() );
+            assertEquals( 1, theStats[ i ].getSegmentCount() );
+            assertTrue( "recorded " + theFile.length() + " of " + theExpected, theFile.length() > theExpected * 8 / 10 );
+            assertTrue( theFile.length() >= theStats[ i ].getBytesWritten() );
+            assertEquals( 0, theFile.length() % 188 );
+            assertPackets( theFile );
+        }
+    }
+
+    public void testSegmentsSplitOnBlocks() throws Exception
+    {
+        HdhomerunDevice theTuner = mTuners.get( 0 );
+        assertEquals( 1, theTuner.startRecording( new File( mDirectory, "segmented.ts" ).getPath(), RecordingStats.BLOCK_SIZE, 0 ) );
+
+        Thread.sleep( RECORD_MS );
+        theTuner.stopRecording();
+
+        File[] theFiles = mDirectory.listFiles();
+        assertTrue( "segments " + theFiles.length, theFiles.length >= 3 );
+
+        long theTotal = 0;
+        for( int i = 0; i < theFiles.length; i++ )
+        {
+            File theFile = new File( mDirectory, String.format( "segmented-%04d.ts", i ) );
+            assertTrue( theFile.getName(), theFile.exists() );
+            if( i < theFiles.length - 1 )
+            {
+                assertEquals( RecordingStats.BLOCK_SIZE, theFile.length() );
+            }
+            assertPackets( theFile );
+            theTotal += theFile.length();
+        }
+        assertTrue( theTotal > RecordingStats.BLOCK_SIZE * 2 );
+    }
+
+    private static void assertPackets( File aFile ) throws IOException
+    {
+        byte[] thePacket = new byte[ 188 ];
+        FileInputStream theStream = new FileInputStream( aFile );
+        try
+        {
+            int thePackets = 0;
+            while( theStream.read( thePacket ) == thePacket.length )
+            {
+                assertEquals( "packet " + thePackets + " of " + aFile.getName(), 0x47, thePacket[ 0 ] );
+                thePackets++;
+            }
+            assertTrue( thePackets > 0 );
+        }
+        finally
+        {
+            theStream.close();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.zaren.hdhomerunsignalmeterlib;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import com.zaren.HdhomerunSignalMeterLib.data.DeviceResponse;
+import com.zaren.HdhomerunSignalMeterLib.data.SignalMetricsFile;
+import com.zaren.HdhomerunSignalMeterLib.data.SignalMetricsSeries;
+import com.zaren.HdhomerunSignalMeterLib.data.SignalMetricsStore;
+import com.zaren.HdhomerunSignalMeterLib.data.TunerStatus;
+
+/**
+ * Records signal history into small rings and reads it back: wrapping, rollups, reopening and
+ * the lock codes
+ */
+public class SignalMetricsStoreTest extends TestCase
+{
+    //on the hour so every bucket starts with the test
+    private static final long START = 400000L * 60 * 60 * 1000;
+
+    private static final int[] CAPACITIES = { 10, 4, 4, 4 };
+
+    private File mDirectory;
+    private SignalMetricsSeries mSeries;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        mDirectory = File.createTempFile( "metrics", "" );
+        mDirectory.delete();
+        mDirectory.mkdirs();
+        mSeries = new SignalMetricsSeries();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        for( File theFile : mDirectory.listFiles() )
+        {
+            theFile.delete();
+        }
+        mDirectory.delete();
+        super.tearDown();
+    }
+
+    public void testLockCode()
+    {
+        assertEquals( SignalMetricsStore.LOCK_UNKNOWN, SignalMetricsStore.lockCode( null ) );
+        assertEquals( SignalMetricsStore.LOCK_NONE, SignalMetricsStore.lockCode( "none" ) );
+        assertEquals( SignalMetricsStore.LOCK_NONE, SignalMetricsStore.lockCode( "" ) );
+        assertEquals( SignalMetricsStore.LOCK_8VSB, SignalMetricsStore.lockCode( "8vsb" ) );
+        assertEquals( SignalMetricsStore.LOCK_QAM64, SignalMetricsStore.lockCode( "qam64" ) );
+        assertEquals( SignalMetricsStore.LOCK_QAM256, SignalMetricsStore.lockCode( "qam256" ) );
+        assertEquals( SignalMetricsStore.LOCK_DVBT, SignalMetricsStore.lockCode( "t8qam64" ) );
+        assertEquals( SignalMetricsStore.LOCK_DVBT, SignalMetricsStore.lockCode( "t7qam16" ) );
+        assertEquals( SignalMetricsStore.LOCK_DVBT, SignalMetricsStore.lockCode( "t6qam256" ) );
+        assertEquals( SignalMetricsStore.LOCK_OTHER, SignalMetricsStore.lockCode( "qpsk" ) );
+    }
+
+    public void testRingsWrap() throws Exception
+    {
+        SignalMetricsFile theFile = new SignalMetricsFile( new File( mDirectory, "wrap.ring" ), CAPACITIES );
+        try
+        {
+            //a sample a second, every one closes the second before
+            for( int i = 0; i < 25; i++ )
+            {
+                theFile.append( START + i * 1000L, i, 90, 100, 1000, 10, SignalMetricsStore.LOCK_8VSB );
+            }
+
+            assertEquals( 10, theFile.getCount( SignalMetricsFile.RESOLUTION_SAMPLE ) );
+            assertEquals( 10, theFile.query( SignalMetricsFile.RESOLUTION_SAMPLE, 0, Long.MAX_VALUE, mSeries ) );
+            for( int i = 0; i < 10; i++ )
+            {
+                assertEquals( START + ( 15 + i ) * 1000L, mSeries.time[ i ] );
+                assertEquals( 15 + i, SignalMetricsSeries.unsigned( mSeries.signalStrengthAvg[ i ] ) );
+            }
+
+            assertEquals( 4, theFile.query( SignalMetricsFile.RESOLUTION_SECOND, 0, Long.MAX_VALUE, mSeries ) );
+            assertEquals( START + 20000, mSeries.time[ 0 ] );
+            assertEquals( START + 23000, mSeries.time[ 3 ] );
+
+            //a range inside the ring
+            assertEquals( 3, theFile.query( SignalMetricsFile.RESOLUTION_SAMPLE, START + 17000, START + 19500, mSeries ) );
+            assertEquals( START + 17000, mSeries.time[ 0 ] );
+            assertEquals( 0, theFile.query( SignalMetricsFile.RESOLUTION_SAMPLE, 0, START + 14000, mSeries ) );
+        }
+        finally
+        {
+            theFile.close();
+        }
+    }
+
+    public void testRollups() throws Exception
+    {
+        SignalMetricsFile theFile = new SignalMetricsFile( new File( mDirectory, "rollups.ring" ), CAPACITIES );
+        try
+        {
+            //20 samples a second, the first four of the first second unlocked
+            for( int i = 0; i < 20; i++ )
+            {
+                theFile.append( START + i * 50L, 60 + i, 90, 100, 1000 + i, 10, i < 4 ? SignalMetricsStore.LOCK_NONE : SignalMetricsStore.LOCK_QAM256 );
+            }
+            for( int i = 0; i < 20; i++ )
+            {
+                theFile.append( START + 1000 + i * 50L, 50, 80, 100, 2000, 10, SignalMetricsStore.LOCK_QAM256 );
+            }
+            theFile.append( START + 2000, 40, 70, 100, 3000, 10, SignalMetricsStore.LOCK_QAM256 );
+
+            assertEquals( 2, theFile.query( SignalMetricsFile.RESOLUTION_SECOND, 0, Long.MAX_VALUE, mSeries ) );
+            assertEquals( START, mSeries.time[ 0 ] );
+            assertEquals( 20, mSeries.samples[ 0 ] );
+            assertEquals( 16, mSeries.lockedSamples[ 0 ] );
+            assertEquals( 60, SignalMetricsSeries.unsigned( mSeries.signalStrengthMin[ 0 ] ) );
+            assertEquals( 70, SignalMetricsSeries.unsigned( mSeries.signalStrengthAvg[ 0 ] ) );
+            assertEquals( 79, SignalMetricsSeries.unsigned( mSeries.signalStrengthMax[ 0 ] ) );
+            assertEquals( 90, SignalMetricsSeries.unsigned( mSeries.snrQualityAvg[ 0 ] ) );
+            assertEquals( 1009, mSeries.bitsPerSecond[ 0 ] );
+            assertEquals( SignalMetricsStore.LOCK_QAM256, mSeries.lockCode[ 0 ] );
+            assertEquals( START + 1000, mSeries.time[ 1 ] );
+            assertEquals( 50, SignalMetricsSeries.unsigned( mSeries.signalStrengthMin[ 1 ] ) );
+            assertEquals( 50, SignalMetricsSeries.unsigned( mSeries.signalStrengthMax[ 1 ] ) );
+
+            //the minute and hour are still open
+            assertEquals( 0, theFile.query( SignalMetricsFile.RESOLUTION_MINUTE, 0, Long.MAX_VALUE, mSeries ) );
+            theFile.flushRollups();
+            assertEquals( 3, theFile.query( SignalMetricsFile.RESOLUTION_SECOND, 0, Long.MAX_VALUE, mSeries ) );
+            for( int theResolution = SignalMetricsFile.RESOLUTION_MINUTE; theResolution <= SignalMetricsFile.RESOLUTION_HOUR; theResolution++ )
+            {
+                assertEquals( 1, theFile.query( theResolution, 0, Long.MAX_VALUE, mSeries ) );
+                assertEquals( START, mSeries.time[ 0 ] );
+                assertEquals( 41, mSeries.samples[ 0 ] );
+                assertEquals( 37, mSeries.lockedSamples[ 0 ] );
+                assertEquals( 40, SignalMetricsSeries.unsigned( mSeries.signalStrengthMin[ 0 ] ) );
+                assertEquals( 79, SignalMetricsSeries.unsigned( mSeries.signalStrengthMax[ 0 ] ) );
+                assertEquals( 70, SignalMetricsSeries.unsigned( mSeries.snrQualityMin[ 0 ] ) );
+            }
+        }
+        finally
+        {
+            theFile.close();
+        }
+    }
+
+    public void testReopen() throws Exception
+    {
+        File theRing = new File( mDirectory, "reopen.ring" );
+        SignalMetricsFile theFile = new SignalMetricsFile( theRing, CAPACITIES );
+        for( int i = 0; i < 25; i++ )
+        {
+            theFile.append( START + i * 1000L, i, 90, 100, 1000, 10, SignalMetricsStore.LOCK_8VSB );
+        }
+        theFile.close();
+
+        theFile = new SignalMetricsFile( theRing, CAPACITIES );
+        try
+        {
+            assertEquals( 10, theFile.query( SignalMetricsFile.RESOLUTION_SAMPLE, 0, Long.MAX_VALUE, mSeries ) );
+            assertEquals( START + 15000, mSeries.time[ 0 ] );
+            assertEquals( START + 24000, mSeries.time[ 9 ] );
+            //closing wrote the open second
+            assertEquals( 4, theFile.query( SignalMetricsFile.RESOLUTION_SECOND, 0, Long.MAX_VALUE, mSeries ) );
+            assertEquals( START + 24000, mSeries.time[ 3 ] );
+
+            //an earlier time carries on from the newest record so the ring stays sorted
+            theFile.append( START, 99, 90, 100, 1000, 10, SignalMetricsStore.LOCK_8VSB );
+            assertEquals( 10, theFile.query( SignalMetricsFile.RESOLUTION_SAMPLE, 0, Long.MAX_VALUE, mSeries ) );
+            assertEquals( START + 16000, mSeries.time[ 0 ] );
+            assertEquals( START + 24000, mSeries.time[ 9 ] );
+            assertEquals( 99, SignalMetricsSeries.unsigned( mSeries.signalStrengthAvg[ 9 ] ) );
+        }
+        finally
+        {
+            theFile.close();
+        }
+
+        //other capacities start over
+        theFile = new SignalMetricsFile( theRing, new int[] { 20, 4, 4, 4 } );
+        try
+        {
+            assertEquals( 0, theFile.getCount( SignalMetricsFile.RESOLUTION_SAMPLE ) );
+            assertEquals( 0, theFile.getCount( SignalMetricsFile.RESOLUTION_SECOND ) );
+        }
+        finally
+        {
+            theFile.close();
+        }
+    }
+
+    public void testStoreRecordsStatus() throws Exception
+    {
+        SignalMetricsStore theStore = new SignalMetricsStore( mDirectory, CAPACITIES );
+        try
+        {
+            TunerStatus theStatus = new TunerStatus( "auto6t:45", "t8qam64", true, true, false, 80, 70, 100, 19000000, 1800, DeviceResponse.FAILURE );
+            assertTrue( theStore.record( "1013ABCD-0", START, theStatus ) );
+            assertEquals( 0, theStore.query( "1013ABCD-0", SignalMetricsFile.RESOLUTION_SAMPLE, 0, Long.MAX_VALUE, mSeries ) );
+            assertFalse( new File( mDirectory, "1013ABCD-0.ring" ).exists() );
+
+            theStatus.returnStatus = DeviceResponse.SUCCESS;
+            assertTrue( theStore.record( "1013ABCD-0", START, theStatus ) );
+            theStatus.signalPresent = false;
+            assertTrue( theStore.record( "1013ABCD-0", START + 50, theStatus ) );
+
+            assertEquals( 2, theStore.query( "1013ABCD-0", SignalMetricsFile.RESOLUTION_SAMPLE, 0, Long.MAX_VALUE, mSeries ) );
+            assertEquals( SignalMetricsStore.LOCK_DVBT, mSeries.lockCode[ 0 ] );
+            assertEquals( 80, SignalMetricsSeries.unsigned( mSeries.signalStrengthAvg[ 0 ] ) );
+            assertEquals( 19000000, mSeries.bitsPerSecond[ 0 ] );
+            assertEquals( SignalMetricsStore.LOCK_NONE, mSeries.lockCode[ 1 ] );
+            assertTrue( new File( mDirectory, "1013ABCD-0.ring" ).exists() );
+        }
+        finally
+        {
+            theStore.close();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.zaren.hdhomerunsignalmeterlib;
+
+import junit.framework.TestCase;
+
+import com.zaren.HdhomerunSignalMeterLib.data.ChannelScanProgram;
+import com.zaren.HdhomerunSignalMeterLib.data.ProgramsList;
+import com.zaren.HdhomerunSignalMeterLib.data.StreamInfoParser;
+
+/**
+ * Parses streaminfo text the way the devices send it, and the lines they shouldn't
+ */
+public class StreamInfoParserTest extends TestCase
+{
+    private ProgramsList mPrograms;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        mPrograms = new ProgramsList();
+    }
+
+    public void testNone()
+    {
+        assertEquals( StreamInfoParser.TSID_NONE, StreamInfoParser.convertStreamInfoToPrograms( "none\n", mPrograms ) );
+        assertEquals( 0, mPrograms.size() );
+
+        assertEquals( StreamInfoParser.TSID_NONE, StreamInfoParser.convertStreamInfoToPrograms( "", mPrograms ) );
+        assertEquals( 0, mPrograms.size() );
+    }
+
+    public void testProgramsAndTsid()
+    {
+        int theTsid = StreamInfoParser.convertStreamInfoToPrograms( "1: 2.1 KCBS-HD\n2: 2.2 KCBS-SD\ntsid=0x0F3A\n", mPrograms );
+
+        assertEquals( 0x0F3A, theTsid );
+        assertEquals( 2, mPrograms.size() );
+
+        ChannelScanProgram theProgram = mPrograms.get( 1 );
+        assertEquals( "1: 2.1 KCBS-HD", theProgram.programString );
+        assertEquals( 1, theProgram.programNumber );
+        assertEquals( 2, theProgram.virtualMajor );
+        assertEquals( 1, theProgram.virtualMinor );
+        assertEquals( ChannelScanProgram.PROGRAM_NORMAL, theProgram.type );
+        assertEquals( "KCBS-HD", theProgram.name );
+
+        assertEquals( 2, mPrograms.get( 2 ).virtualMinor );
+        assertEquals( "KCBS-SD", mPrograms.get( 2 ).name );
+    }
+
+    public void testTypes()
+    {
+        StreamInfoParser.convertStreamInfoToPrograms( "1: 4.1 KNBC (control)\n"
+                                                      + "2: 4.2 KNBC2 (encrypted)\n"
+                                                      + "3: 4.3 KNBC3 (no data)\n"
+                                                      + "4: 4.4 KNBC4 (internet)\n"
+                                                      + "5: 4.5 KNBC5  (encrypted)  \n", mPrograms );
+
+        assertEquals( 5, mPrograms.size() );
+        assertEquals( ChannelScanProgram.PROGRAM_CONTROL, mPrograms.get( 1 ).type );
+        assertEquals( ChannelScanProgram.PROGRAM_ENCRYPTED, mPrograms.get( 2 ).type );
+        assertEquals( ChannelScanProgram.PROGRAM_NODATA, mPrograms.get( 3 ).type );
+        assertEquals( ChannelScanProgram.PROGRAM_INTERNET, mPrograms.get( 4 ).type );
+        assertEquals( "KNBC3", mPrograms.get( 3 ).name );
+
+        //the spaces around the type aren't part of the name
+        assertEquals( ChannelScanProgram.PROGRAM_ENCRYPTED, mPrograms.get( 5 ).type );
+        assertEquals( "KNBC5", mPrograms.get( 5 ).name );
+    }
+
+    public void testParenthesisThatIsntATypeStaysInTheName()
+    {
+        StreamInfoParser.convertStreamInfoToPrograms( "1: 7.2 KABC (HD)\n2: 7.3 KABC (no da\n", mPrograms );
+
+        assertEquals( ChannelScanProgram.PROGRAM_NORMAL, mPrograms.get( 1 ).type );
+        assertEquals( "KABC (HD)", mPrograms.get( 1 ).name );
+        assertEquals( ChannelScanProgram.PROGRAM_NORMAL, mPrograms.get( 2 ).type );
+        assertEquals( "KABC (no da", mPrograms.get( 2 ).name );
+    }
+
+    public void testProgramWithoutName()
+    {
+        StreamInfoParser.convertStreamInfoToPrograms( "3: 0 (encrypted)\n4: 9.4\n5: 9\n", mPrograms );
+
+        assertEquals( 3, mPrograms.size() );
+
+        ChannelScanProgram theProgram = mPrograms.get( 3 );
+        assertEquals( 0, theProgram.virtualMajor );
+        assertEquals( 0, theProgram.virtualMinor );
+        assertEquals( ChannelScanProgram.PROGRAM_ENCRYPTED, theProgram.type );
+        assertEquals( "", theProgram.name );
+
+        assertEquals( 9, mPrograms.get( 4 ).virtualMajor );
+        assertEquals( 4, mPrograms.get( 4 ).virtualMinor );
+        assertEquals( "", mPrograms.get( 4 ).name );
+        assertEquals( 9, mPrograms.get( 5 ).virtualMajor );
+        assertEquals( "", mPrograms.get( 5 ).name );
+    }
+
+    public void testMalformedLinesAreSkipped()
+    {
+        StreamInfoParser.convertStreamInfoToPrograms( "garbage\n"
+                                                      + "6 2.1 NOCOLON\n"
+                                                      + ": 2.1 NONUMBER\n"
+                                                      + "7:\n"
+                                                      + "8: KNOCHANNEL\n"
+                                                      + "9: .1 NOMAJOR\n"
+                                                      + "10: 2. NOMINOR\n"
+                                                      + "1234567890: 2.1 TOOLONG\n"
+                                                      + "11: 1234567890.1 TOOLONG\n"
+                                                      + "\n"
+                                                      + "12: 5.1 GOOD\n", mPrograms );
+
+        assertEquals( 1, mPrograms.size() );
+        assertEquals( "GOOD", mPrograms.get( 12 ).name );
+    }
+
+    public void testTruncatedText()
+    {
+        //the last line has no newline, wherever the text was cut
+        assertEquals( StreamInfoParser.TSID_NONE, StreamInfoParser.convertStreamInfoToPrograms( "1: 2.1 KCBS\n2: 2.2 KC", mPrograms ) );
+        assertEquals( 2, mPrograms.size() );
+        assertEquals( "KC", mPrograms.get( 2 ).name );
+
+        mPrograms.clear();
+        StreamInfoParser.convertStreamInfoToPrograms( "1: 2.1 KCBS\n2: 2.", mPrograms );
+        assertEquals( 1, mPrograms.size() );
+
+        mPrograms.clear();
+        StreamInfoParser.convertStreamInfoToPrograms( "1: 2.1 KCBS\n2", mPrograms );
+        assertEquals( 1, mPrograms.size() );
+
+        assertEquals( StreamInfoParser.TSID_NONE, StreamInfoParser.convertStreamInfoToPrograms( "tsid=0x", mPrograms ) );
+        assertEquals( StreamInfoParser.TSID_NONE, StreamInfoParser.convertStreamInfoToPrograms( "tsid=0xZZ\n", mPrograms ) );
+        assertEquals( 0x1F, StreamInfoParser.convertStreamInfoToPrograms( "tsid=0x1F", mPrograms ) );
+    }
+
+    public void testProcessProgramName()
+    {
+        ChannelScanProgram theProgram = new ChannelScanProgram();
+        StreamInfoParser.processProgramName( " 45.3 KCAL-HD (encrypted)", theProgram );
+
+        assertEquals( 45, theProgram.virtualMajor );
+        assertEquals( 3, theProgram.virtualMinor );
+        assertEquals( ChannelScanProgram.PROGRAM_ENCRYPTED, theProgram.type );
+        assertEquals( "KCAL-HD", theProgram.name );
+
+        //nothing is filled in without a virtual channel
+        theProgram = new ChannelScanProgram();
+        StreamInfoParser.processProgramName( " KCAL-HD", theProgram );
+        assertEquals( 0, theProgram.virtualMajor );
+        assertEquals( "", theProgram.name );
+    }
+}
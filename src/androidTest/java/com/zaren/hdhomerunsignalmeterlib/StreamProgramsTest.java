@@ -0,0 +1,159 @@
+package com.zaren.hdhomerunsignalmeterlib;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.zaren.HdhomerunSignalMeterLib.data.ChannelScanProgram;
+import com.zaren.HdhomerunSignalMeterLib.data.HdhomerunDevice;
+import com.zaren.HdhomerunSignalMeterLib.data.ProgramsList;
+import com.zaren.HdhomerunSignalMeterLib.data.StreamInfoTable;
+import com.zaren.HdhomerunSignalMeterLib.data.StreamProgramsListener;
+import com.zaren.HdhomerunSignalMeterLib.data.TunerStatus;
+import com.zaren.hdhomerunsignalmeterlib.emulator.EmulatorConfig;
+import com.zaren.hdhomerunsignalmeterlib.emulator.HdhomerunEmulator;
+import com.zaren.hdhomerunsignalmeterlib.emulator.VirtualDevice;
+
+/**
+ * Detects the programs of an emulated channel from the PAT, PMTs and TVCT of its stream
+ */
+public class StreamProgramsTest extends TestCase
+{
+    private static final String CHANNEL = "auto:3";
+    private static final int TIMEOUT_MS = 3000;
+
+    private HdhomerunEmulator mEmulator;
+    private HdhomerunDevice mDevice;
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        if( mDevice != null )
+        {
+            mDevice.stopStreaming();
+            mDevice.destroy();
+        }
+        if( mEmulator != null )
+        {
+            mEmulator.stop();
+        }
+        super.tearDown();
+    }
+
+    public void testProgramsMatchStreaminfo() throws Exception
+    {
+        start( true );
+
+        final List< Boolean > theCalls = new ArrayList< Boolean >();
+        StreamInfoTable theTable = new StreamInfoTable();
+        tune();
+        assertEquals( 1, mDevice.startStreaming() );
+        int theStatus = mDevice.detectStreamPrograms( theTable, new StreamProgramsListener()
+        {
+            @Override
+            public void streamProgramsChanged( StreamInfoTable aTable, boolean aComplete )
+            {
+                theCalls.add( aComplete );
+            }
+        }, TIMEOUT_MS );
+
+        assertEquals( 1, theStatus );
+        assertFalse( theCalls.isEmpty() );
+        assertTrue( "the last call is complete", theCalls.get( theCalls.size() - 1 ) );
+        assertFalse( "only the last call is complete", theCalls.subList( 0, theCalls.size() - 1 ).contains( Boolean.TRUE ) );
+
+        StreamInfoTable theStreamInfo = new StreamInfoTable();
+        assertEquals( 1, mDevice.getTunerStreamPrograms( theStreamInfo ) );
+        assertEquals( theStreamInfo.getTsid(), theTable.getTsid() );
+        assertEquals( theStreamInfo.getProgramCount(), theTable.getProgramCount() );
+        for( int i = 0; i < theTable.getProgramCount(); i++ )
+        {
+            assertEquals( theStreamInfo.getProgramString( i ), theTable.getProgramString( i ) );
+        }
+
+        ProgramsList theExpected = new ProgramsList();
+        ProgramsList theDetected = new ProgramsList();
+        theStreamInfo.toPrograms( theExpected );
+        theTable.toPrograms( theDetected );
+        assertEquals( 6, theDetected.size() );
+        for( ChannelScanProgram theProgram : theExpected )
+        {
+            assertEquals( theProgram, theDetected.get( theProgram.programNumber ) );
+        }
+        assertEquals( ChannelScanProgram.PROGRAM_ENCRYPTED, theDetected.get( 4 ).type );
+    }
+
+    public void testDetectionBeatsPollingStreaminfo() throws Exception
+    {
+        start( true );
+        TunerStatus theStatus = new TunerStatus();
+
+        tune();
+        long theStart = System.currentTimeMillis();
+        assertEquals( 1, mDevice.waitForLock( theStatus, true ) );
+        long thePolled = System.currentTimeMillis() - theStart;
+
+        tune();
+        theStart = System.currentTimeMillis();
+        assertEquals( 1, mDevice.waitForLock( theStatus, false ) );
+        assertEquals( 1, mDevice.startStreaming() );
+        ProgramsList thePrograms = new ProgramsList();
+        assertEquals( 1, mDevice.detectStreamPrograms( thePrograms, TIMEOUT_MS ) );
+        mDevice.stopStreaming();
+        long theDetected = System.currentTimeMillis() - theStart;
+
+        assertEquals( 6, thePrograms.size() );
+        assertTrue( "detected in " + theDetected + "ms, polled in " + thePolled + "ms", theDetected < thePolled );
+    }
+
+    public void testStreamWithoutVctCompletes() throws Exception
+    {
+        start( false );
+
+        tune();
+        assertEquals( 1, mDevice.startStreaming() );
+        StreamInfoTable theTable = new StreamInfoTable();
+        assertEquals( 1, mDevice.detectStreamPrograms( theTable, null, TIMEOUT_MS ) );
+
+        assertEquals( 6, theTable.getProgramCount() );
+        for( int i = 0; i < theTable.getProgramCount(); i++ )
+        {
+            assertEquals( i + 1, theTable.getProgramNumber( i ) );
+            assertEquals( 0, theTable.getVirtualMajor( i ) );
+            assertEquals( "", theTable.getName( i ) );
+        }
+    }
+
+    public void testTimesOutWithoutAStream() throws Exception
+    {
+        start( true );
+
+        tune();
+        StreamInfoTable theTable = new StreamInfoTable();
+        assertEquals( 0, mDevice.detectStreamPrograms( theTable, null, 300 ) );
+        assertEquals( 0, theTable.getProgramCount() );
+    }
+
+    private void start( boolean aPsip ) throws Exception
+    {
+        EmulatorConfig theConfig = new EmulatorConfig();
+        theConfig.tunerCount = 1;
+        theConfig.programsPerChannel = 6;
+        theConfig.psip = aPsip;
+        theConfig.broadcastDiscovery = false;
+
+        mEmulator = new HdhomerunEmulator( theConfig );
+        mEmulator.start();
+
+        VirtualDevice theVirtual = mEmulator.getDevices().get( 0 );
+        byte[] theAddress = theVirtual.getAddress().getAddress();
+        int theIpAddr = ( ( theAddress[ 0 ] & 0xFF ) << 24 ) | ( ( theAddress[ 1 ] & 0xFF ) << 16 ) | ( ( theAddress[ 2 ] & 0xFF ) << 8 ) | ( theAddress[ 3 ] & 0xFF );
+        mDevice = new HdhomerunDevice( theVirtual.getDeviceId() & 0xFFFFFFFFL, theIpAddr, 0 );
+    }
+
+    private void tune()
+    {
+        assertEquals( 1, mDevice.setTunerChannel( CHANNEL ) );
+    }
+}
@@ -0,0 +1,128 @@
+package com.zaren.hdhomerunsignalmeterlib;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.zaren.HdhomerunSignalMeterLib.data.HdhomerunDevice;
+import com.zaren.hdhomerunsignalmeterlib.emulator.EmulatorConfig;
+import com.zaren.hdhomerunsignalmeterlib.emulator.HdhomerunEmulator;
+import com.zaren.hdhomerunsignalmeterlib.emulator.VirtualDevice;
+
+/**
+ * Reads an emulated tuner's stream with the blocking streamRecv
+ */
+public class StreamRecvTest extends TestCase
+{
+    private static final int PACKET_SIZE = 1316;
+
+    private HdhomerunEmulator mEmulator;
+    private HdhomerunDevice mDevice;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        EmulatorConfig theConfig = new EmulatorConfig();
+        theConfig.tunerCount = 1;
+        theConfig.broadcastDiscovery = false;
+
+        mEmulator = new HdhomerunEmulator( theConfig );
+        mEmulator.start();
+
+        VirtualDevice theVirtual = mEmulator.getDevices().get( 0 );
+        byte[] theAddress = theVirtual.getAddress().getAddress();
+        int theIpAddr = ( ( theAddress[ 0 ] & 0xFF ) << 24 ) | ( ( theAddress[ 1 ] & 0xFF ) << 16 ) | ( ( theAddress[ 2 ] & 0xFF ) << 8 ) | ( theAddress[ 3 ] & 0xFF );
+        mDevice = new HdhomerunDevice( theVirtual.getDeviceId() & 0xFFFFFFFFL, theIpAddr, 0 );
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        mDevice.stopStreaming();
+        mDevice.destroy();
+        mEmulator.stop();
+        super.tearDown();
+    }
+
+    public void testRecvWaitsForTheThreshold() throws Exception
+    {
+        mDevice.setTunerChannel( "auto:3" );
+        mDevice.setStreamNotifyThreshold( PACKET_SIZE * 10 );
+        assertEquals( 1, mDevice.startStreaming() );
+
+        byte[] theBuffer = new byte[ PACKET_SIZE * 100 ];
+        long theTotal = 0;
+        long theEnd = System.currentTimeMillis() + 2000;
+        while( theTotal < PACKET_SIZE * 1000 && System.currentTimeMillis() < theEnd )
+        {
+            int theRead = mDevice.streamRecv( theBuffer, 0, theBuffer.length, 1000 );
+            assertTrue( theRead >= 0 );
+            if( theRead > 0 )
+            {
+                assertEquals( 0, theRead % PACKET_SIZE );
+                assertTrue( theRead >= PACKET_SIZE * 10 );
+                assertEquals( 0x47, theBuffer[ 0 ] );
+                assertEquals( 0x47, theBuffer[ 188 ] );
+            }
+            theTotal += theRead;
+        }
+        assertTrue( "received " + theTotal, theTotal >= PACKET_SIZE * 1000 );
+    }
+
+    public void testRecvIntoDirectBuffer() throws Exception
+    {
+        mDevice.setTunerChannel( "auto:3" );
+        assertEquals( 1, mDevice.startStreaming() );
+
+        ByteBuffer theBuffer = ByteBuffer.allocateDirect( PACKET_SIZE * 20 );
+        theBuffer.position( 7 );
+        int theRead = mDevice.streamRecv( theBuffer, 2000 );
+        assertTrue( theRead > 0 );
+        assertEquals( 7 + theRead, theBuffer.position() );
+        assertEquals( 0x47, theBuffer.get( 7 ) );
+    }
+
+    public void testRecvTimesOutWithoutData() throws Exception
+    {
+        //never started, nothing arrives
+        byte[] theBuffer = new byte[ PACKET_SIZE * 10 ];
+        long theStart = System.nanoTime();
+        assertEquals( 0, mDevice.streamRecv( theBuffer, 0, theBuffer.length, 200 ) );
+        long theWaited = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - theStart );
+        assertTrue( "waited " + theWaited, theWaited >= 150 && theWaited < 1000 );
+    }
+
+    public void testStopWakesBlockedReader() throws Exception
+    {
+        mDevice.setStreamNotifyThreshold( PACKET_SIZE );
+
+        final CountDownLatch theBlocked = new CountDownLatch( 1 );
+        final long[] theReturned = new long[ 2 ];
+        Thread theReader = new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                byte[] theBuffer = new byte[ PACKET_SIZE * 10 ];
+                theBlocked.countDown();
+                theReturned[ 0 ] = mDevice.streamRecv( theBuffer, 0, theBuffer.length, 10000 );
+                theReturned[ 1 ] = System.nanoTime();
+            }
+        } );
+        theReader.start();
+        theBlocked.await();
+        Thread.sleep( 200 );
+
+        long theStop = System.nanoTime();
+        mDevice.stopStreaming();
+        theReader.join( 2000 );
+
+        assertFalse( theReader.isAlive() );
+        assertEquals( 0, theReturned[ 0 ] );
+        assertTrue( TimeUnit.NANOSECONDS.toMillis( theReturned[ 1 ] - theStop ) < 500 );
+    }
+}
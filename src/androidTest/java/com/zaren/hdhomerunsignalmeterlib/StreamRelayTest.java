@@ -0,0 +1,408 @@
+package com.zaren.hdhomerunsignalmeterlib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.zaren.HdhomerunSignalMeterLib.data.HdhomerunDevice;
+import com.zaren.HdhomerunSignalMeterLib.data.StreamRelay;
+import com.zaren.hdhomerunsignalmeterlib.emulator.EmulatorConfig;
+import com.zaren.hdhomerunsignalmeterlib.emulator.HdhomerunEmulator;
+import com.zaren.hdhomerunsignalmeterlib.emulator.TransportStreamGenerator;
+import com.zaren.hdhomerunsignalmeterlib.emulator.VirtualDevice;
+
+/**
+ * Relays one emulated tuner's stream to several HTTP and UDP clients at once
+ */
+public class StreamRelayTest extends TestCase
+{
+    private static final int HTTP_CLIENTS = 4;
+    private static final int UDP_CLIENTS = 2;
+    private static final int PACKETS = 20000;
+
+    private HdhomerunEmulator mEmulator;
+    private HdhomerunDevice mDevice;
+    private StreamRelay mRelay;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        EmulatorConfig theConfig = new EmulatorConfig();
+        theConfig.tunerCount = 1;
+        theConfig.broadcastDiscovery = false;
+
+        mEmulator = new HdhomerunEmulator( theConfig );
+        mEmulator.start();
+
+        VirtualDevice theVirtual = mEmulator.getDevices().get( 0 );
+        byte[] theAddress = theVirtual.getAddress().getAddress();
+        int theIpAddr = ( ( theAddress[ 0 ] & 0xFF ) << 24 ) | ( ( theAddress[ 1 ] & 0xFF ) << 16 ) | ( ( theAddress[ 2 ] & 0xFF ) << 8 ) | ( theAddress[ 3 ] & 0xFF );
+        mDevice = new HdhomerunDevice( theVirtual.getDeviceId() & 0xFFFFFFFFL, theIpAddr, 0 );
+        mDevice.setTunerChannel( "auto:3" );
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        if( mRelay != null )
+        {
+            mRelay.stop();
+        }
+        mDevice.destroy();
+        mEmulator.stop();
+        super.tearDown();
+    }
+
+    public void testEveryClientGetsTheWholeStream() throws Exception
+    {
+        mRelay = new StreamRelay( mDevice );
+        mRelay.start();
+        final int thePort = mRelay.listenHttp( new InetSocketAddress( InetAddress.getByName( "127.0.0.1" ), 0 ) );
+
+        List< Thread > theThreads = new ArrayList< Thread >();
+        final List< ContinuityChecker > theCheckers = new ArrayList< ContinuityChecker >();
+        final List< Throwable > theErrors = new ArrayList< Throwable >();
+
+        for( int i = 0; i < HTTP_CLIENTS + UDP_CLIENTS; i++ )
+        {
+            final boolean theHttp = i < HTTP_CLIENTS;
+            final ContinuityChecker theChecker = new ContinuityChecker();
+            final DatagramSocket theUdpSocket = theHttp ? null : new DatagramSocket( 0, InetAddress.getByName( "127.0.0.1" ) );
+            if( theUdpSocket != null )
+            {
+                theUdpSocket.setReceiveBufferSize( 4 * 1024 * 1024 );
+                mRelay.addUdpClient( (InetSocketAddress) theUdpSocket.getLocalSocketAddress() );
+            }
+            theCheckers.add( theChecker );
+            theThreads.add( new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        if( theHttp )
+                        {
+                            readHttp( thePort, "HTTP/1.1", theChecker, PACKETS );
+                        }
+                        else
+                        {
+                            readUdp( theUdpSocket, theChecker, PACKETS );
+                        }
+                    }
+                    catch( Throwable e )
+                    {
+                        synchronized( theErrors )
+                        {
+                            theErrors.add( e );
+                        }
+                    }
+                }
+            } ) );
+        }
+
+        for( Thread theThread : theThreads )
+        {
+            theThread.start();
+        }
+        for( Thread theThread : theThreads )
+        {
+            theThread.join( 20000 );
+        }
+
+        assertTrue( theErrors.toString(), theErrors.isEmpty() );
+        for( ContinuityChecker theChecker : theCheckers )
+        {
+            assertTrue( "received " + theChecker.mPackets, theChecker.mPackets >= PACKETS );
+            assertEquals( 0, theChecker.mLostSync );
+        }
+        //UDP on loopback can still drop a datagram under load, HTTP can't lose anything
+        for( int i = 0; i < HTTP_CLIENTS; i++ )
+        {
+            assertEquals( 0, theCheckers.get( i ).mDiscontinuities );
+        }
+        assertEquals( 0, mRelay.getEvictedCount() );
+    }
+
+    public void testHttp10GetsTheStreamUnchunked() throws Exception
+    {
+        mRelay = new StreamRelay( mDevice );
+        mRelay.start();
+        int thePort = mRelay.listenHttp( new InetSocketAddress( InetAddress.getByName( "127.0.0.1" ), 0 ) );
+
+        ContinuityChecker theChecker = new ContinuityChecker();
+        readHttp( thePort, "HTTP/1.0", theChecker, 2000 );
+        assertEquals( 0, theChecker.mLostSync );
+        assertEquals( 0, theChecker.mDiscontinuities );
+    }
+
+    public void testRequestsOtherThanGetAreRefused() throws Exception
+    {
+        mRelay = new StreamRelay( mDevice );
+        mRelay.start();
+        int thePort = mRelay.listenHttp( new InetSocketAddress( InetAddress.getByName( "127.0.0.1" ), 0 ) );
+
+        Socket theSocket = new Socket( "127.0.0.1", thePort );
+        try
+        {
+            theSocket.setSoTimeout( 5000 );
+            theSocket.getOutputStream().write( "POST / HTTP/1.1\r\nHost: relay\r\n\r\n".getBytes( "US-ASCII" ) );
+            assertEquals( "HTTP/1.1 405 Method Not Allowed", readLine( theSocket.getInputStream() ) );
+        }
+        finally
+        {
+            theSocket.close();
+        }
+    }
+
+    public void testSlowClientIsEvicted() throws Exception
+    {
+        mRelay = new StreamRelay( mDevice );
+        mRelay.start();
+        final int thePort = mRelay.listenHttp( new InetSocketAddress( InetAddress.getByName( "127.0.0.1" ), 0 ) );
+
+        final ContinuityChecker theChecker = new ContinuityChecker();
+        final List< Throwable > theErrors = new ArrayList< Throwable >();
+        Thread theReader = new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    readHttp( thePort, "HTTP/1.1", theChecker, Integer.MAX_VALUE );
+                }
+                catch( Throwable e )
+                {
+                    theErrors.add( e );
+                }
+            }
+        } );
+        theReader.start();
+
+        Socket theSlow = new Socket();
+        theSlow.setReceiveBufferSize( 4096 );
+        theSlow.connect( new InetSocketAddress( "127.0.0.1", thePort ) );
+        theSlow.getOutputStream().write( "GET / HTTP/1.1\r\nHost: relay\r\n\r\n".getBytes( "US-ASCII" ) );
+
+        //the socket buffers and most of the device's buffer fill before the slow one is evicted
+        long theEnd = System.currentTimeMillis() + 15000;
+        while( mRelay.getEvictedCount() == 0 && System.currentTimeMillis() < theEnd )
+        {
+            Thread.sleep( 50 );
+        }
+        assertEquals( 1, mRelay.getEvictedCount() );
+
+        //the one that keeps up carries on
+        long thePackets = theChecker.mPackets;
+        theEnd = System.currentTimeMillis() + 5000;
+        while( theChecker.mPackets < thePackets + 2000 && System.currentTimeMillis() < theEnd )
+        {
+            Thread.sleep( 20 );
+        }
+        theChecker.mStop = true;
+        theReader.join( 5000 );
+        assertTrue( theErrors.toString(), theErrors.isEmpty() );
+        assertTrue( "received " + theChecker.mPackets + " then " + thePackets, theChecker.mPackets >= thePackets + 2000 );
+        assertEquals( 0, theChecker.mLostSync );
+        assertEquals( 0, theChecker.mDiscontinuities );
+        assertEquals( 1, mRelay.getEvictedCount() );
+
+        //the slow one gets what it was sent, then the end of the stream
+        theSlow.setSoTimeout( 5000 );
+        InputStream theInput = theSlow.getInputStream();
+        byte[] theBuffer = new byte[ 65536 ];
+        long theTotal = 0;
+        int theRead;
+        while( ( theRead = theInput.read( theBuffer ) ) >= 0 )
+        {
+            theTotal += theRead;
+        }
+        assertTrue( "slow client read " + theTotal, theTotal < mRelay.getBytesReceived() );
+        theSlow.close();
+    }
+
+    public void testStopClosesTheClients() throws Exception
+    {
+        mRelay = new StreamRelay( mDevice );
+        mRelay.start();
+        int thePort = mRelay.listenHttp( new InetSocketAddress( InetAddress.getByName( "127.0.0.1" ), 0 ) );
+
+        Socket theSocket = new Socket( "127.0.0.1", thePort );
+        theSocket.setSoTimeout( 5000 );
+        theSocket.getOutputStream().write( "GET / HTTP/1.1\r\nHost: relay\r\n\r\n".getBytes( "US-ASCII" ) );
+        assertEquals( "HTTP/1.1 200 OK", readLine( theSocket.getInputStream() ) );
+
+        mRelay.stop();
+        assertFalse( mRelay.isRunning() );
+        assertEquals( 0, mRelay.getClientCount() );
+
+        InputStream theInput = theSocket.getInputStream();
+        byte[] theBuffer = new byte[ 65536 ];
+        while( theInput.read( theBuffer ) >= 0 )
+        {
+        }
+        theSocket.close();
+    }
+
+    /**
+     * Requests the stream and checks aPackets TS packets of it, decoding the chunks of HTTP/1.1
+     */
+    static void readHttp( int aPort, String aVersion, ContinuityChecker aChecker, int aPackets ) throws IOException
+    {
+        readHttp( aPort, "/", aVersion, aChecker, aPackets );
+    }
+
+    static void readHttp( int aPort, String aPath, String aVersion, ContinuityChecker aChecker, int aPackets ) throws IOException
+    {
+        Socket theSocket = new Socket( "127.0.0.1", aPort );
+        try
+        {
+            theSocket.setSoTimeout( 5000 );
+            OutputStream theOutput = theSocket.getOutputStream();
+            theOutput.write( ( "GET " + aPath + " " + aVersion + "\r\nHost: relay\r\n\r\n" ).getBytes( "US-ASCII" ) );
+
+            DataInputStream theInput = new DataInputStream( theSocket.getInputStream() );
+            assertEquals( "HTTP/1.1 200 OK", readLine( theInput ) );
+            boolean theChunked = false;
+            String theLine;
+            while( ( theLine = readLine( theInput ) ).length() > 0 )
+            {
+                theChunked |= theLine.equalsIgnoreCase( "Transfer-Encoding: chunked" );
+            }
+            assertEquals( aVersion.equals( "HTTP/1.1" ), theChunked );
+
+            byte[] theBuffer = new byte[ 65536 ];
+            while( aChecker.mPackets < aPackets && !aChecker.mStop )
+            {
+                if( theChunked )
+                {
+                    int theLength = Integer.parseInt( readLine( theInput ), 16 );
+                    assertTrue( theLength > 0 && theLength <= theBuffer.length );
+                    theInput.readFully( theBuffer, 0, theLength );
+                    aChecker.add( theBuffer, theLength );
+                    assertEquals( "", readLine( theInput ) );
+                }
+                else
+                {
+                    int theRead = theInput.read( theBuffer );
+                    assertTrue( theRead > 0 );
+                    aChecker.add( theBuffer, theRead );
+                }
+            }
+        }
+        finally
+        {
+            theSocket.close();
+        }
+    }
+
+    static void readUdp( DatagramSocket aSocket, ContinuityChecker aChecker, int aPackets ) throws IOException
+    {
+        try
+        {
+            aSocket.setSoTimeout( 5000 );
+            DatagramPacket theDatagram = new DatagramPacket( new byte[ 2048 ], 2048 );
+            while( aChecker.mPackets < aPackets )
+            {
+                try
+                {
+                    aSocket.receive( theDatagram );
+                }
+                catch( SocketTimeoutException e )
+                {
+                    fail( "UDP client got " + aChecker.mPackets + " packets" );
+                }
+                assertEquals( StreamRelay.PACKET_SIZE, theDatagram.getLength() );
+                aChecker.add( theDatagram.getData(), theDatagram.getLength() );
+            }
+        }
+        finally
+        {
+            aSocket.close();
+        }
+    }
+
+    static String readLine( InputStream aInput ) throws IOException
+    {
+        ByteArrayOutputStream theLine = new ByteArrayOutputStream();
+        int theByte;
+        while( ( theByte = aInput.read() ) != '\n' )
+        {
+            if( theByte < 0 )
+            {
+                throw new IOException( "connection closed after " + theLine );
+            }
+            theLine.write( theByte );
+        }
+        String theString = theLine.toString( "US-ASCII" );
+        return theString.endsWith( "\r" ) ? theString.substring( 0, theString.length() - 1 ) : theString;
+    }
+
+    /**
+     * Follows the continuity counter of every PID of the TS packets it is given
+     */
+    static class ContinuityChecker
+    {
+        final int[] mLastCounter = new int[ 0x2000 ];
+        final byte[] mPartial = new byte[ TransportStreamGenerator.PACKET_SIZE ];
+        int mPartialLength = 0;
+        long mPackets = 0;
+        long mDiscontinuities = 0;
+        long mLostSync = 0;
+        volatile boolean mStop = false;
+
+        ContinuityChecker()
+        {
+            for( int i = 0; i < mLastCounter.length; i++ )
+            {
+                mLastCounter[ i ] = -1;
+            }
+        }
+
+        void add( byte[] aData, int aLength )
+        {
+            for( int i = 0; i < aLength; i++ )
+            {
+                mPartial[ mPartialLength++ ] = aData[ i ];
+                if( mPartialLength == mPartial.length )
+                {
+                    packet();
+                    mPartialLength = 0;
+                }
+            }
+        }
+
+        private void packet()
+        {
+            mPackets++;
+            if( mPartial[ 0 ] != 0x47 )
+            {
+                mLostSync++;
+                return;
+            }
+
+            int thePid = ( ( mPartial[ 1 ] & 0x1F ) << 8 ) | ( mPartial[ 2 ] & 0xFF );
+            int theCounter = mPartial[ 3 ] & 0x0F;
+            if( thePid != 0x1FFF && mLastCounter[ thePid ] >= 0 && theCounter != ( ( mLastCounter[ thePid ] + 1 ) & 0x0F ) )
+            {
+                mDiscontinuities++;
+            }
+            mLastCounter[ thePid ] = theCounter;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.zaren.hdhomerunsignalmeterlib;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.zaren.HdhomerunSignalMeterLib.data.HdhomerunDiscoverDeviceArray;
+import com.zaren.HdhomerunSignalMeterLib.data.TunerHttpServer;
+import com.zaren.HdhomerunSignalMeterLib.data.TunerPool;
+import com.zaren.hdhomerunsignalmeterlib.StreamRelayTest.ContinuityChecker;
+import com.zaren.hdhomerunsignalmeterlib.emulator.EmulatorConfig;
+import com.zaren.hdhomerunsignalmeterlib.emulator.HdhomerunEmulator;
+import com.zaren.hdhomerunsignalmeterlib.emulator.VirtualDevice;
+
+/**
+ * Streams the channels of an emulated device with two tuners to many concurrent HTTP clients
+ */
+public class TunerHttpServerTest extends TestCase
+{
+    private static final int TUNER_COUNT = 2;
+    private static final int CLIENTS_PER_CHANNEL = 24;
+    private static final int PACKETS = 20000;
+    private static final long IDLE_MS = 300;
+
+    private HdhomerunEmulator mEmulator;
+    private VirtualDevice mVirtual;
+    private TunerPool mPool;
+    private TunerHttpServer mServer;
+    private int mPort;
+    private String mDeviceId;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        EmulatorConfig theConfig = new EmulatorConfig();
+        theConfig.tunerCount = TUNER_COUNT;
+        theConfig.broadcastDiscovery = false;
+
+        mEmulator = new HdhomerunEmulator( theConfig );
+        mEmulator.start();
+
+        mVirtual = mEmulator.getDevices().get( 0 );
+        byte[] theAddress = mVirtual.getAddress().getAddress();
+        int theIpAddr = ( ( theAddress[ 0 ] & 0xFF ) << 24 ) | ( ( theAddress[ 1 ] & 0xFF ) << 16 ) | ( ( theAddress[ 2 ] & 0xFF ) << 8 ) | ( theAddress[ 3 ] & 0xFF );
+        HdhomerunDiscoverDeviceArray theDevices = new HdhomerunDiscoverDeviceArray();
+        for( int theTuner = 0; theTuner < TUNER_COUNT; theTuner++ )
+        {
+            theDevices.insert( theIpAddr, 0, mVirtual.getDeviceId() & 0xFFFFFFFFL, theTuner );
+        }
+        mDeviceId = Long.toHexString( mVirtual.getDeviceId() & 0xFFFFFFFFL ).toUpperCase();
+
+        mPool = new TunerPool();
+        mPool.setDevices( theDevices );
+
+        mServer = new TunerHttpServer( mPool );
+        mServer.setIdleTime( IDLE_MS );
+        mPort = mServer.start( new InetSocketAddress( InetAddress.getByName( "127.0.0.1" ), 0 ) );
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        mServer.stop();
+        mPool.close();
+        mEmulator.stop();
+        super.tearDown();
+    }
+
+    public void testManyClientsShareTwoTuners() throws Exception
+    {
+        final List< Throwable > theErrors = Collections.synchronizedList( new ArrayList< Throwable >() );
+        final ArrayList< ContinuityChecker > theCheckers = new ArrayList< ContinuityChecker >();
+        ArrayList< Thread > theClients = new ArrayList< Thread >();
+
+        for( int i = 0; i < CLIENTS_PER_CHANNEL * 2; i++ )
+        {
+            final String thePath = "/tuner/" + mDeviceId + "/auto/" + ( i % 2 == 0 ? 3 : 6 );
+            final ContinuityChecker theChecker = new ContinuityChecker();
+            theCheckers.add( theChecker );
+            Thread theClient = new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        StreamRelayTest.readHttp( mPort, thePath, "HTTP/1.1", theChecker, PACKETS );
+                    }
+                    catch( Throwable e )
+                    {
+                        theErrors.add( e );
+                    }
+                }
+            } );
+            theClients.add( theClient );
+            theClient.start();
+        }
+
+        //every tuner is busy while they read, a third channel has to wait
+        long theEnd = System.currentTimeMillis() + 10000;
+        while( mServer.getClientCount() < CLIENTS_PER_CHANNEL * 2 && System.currentTimeMillis() < theEnd )
+        {
+            Thread.sleep( 20 );
+        }
+        assertEquals( 2, mServer.getSessionCount() );
+        assertEquals( "HTTP/1.1 503 Service Unavailable", status( "GET /tuner/" + mDeviceId + "/auto/9 HTTP/1.1" ) );
+
+        HashSet< Integer > theTsids = new HashSet< Integer >();
+        for( int theTuner = 0; theTuner < TUNER_COUNT; theTuner++ )
+        {
+            theTsids.add( mVirtual.getTuner( theTuner ).tsid() );
+        }
+        assertTrue( theTsids.toString(), theTsids.contains( 0x0803 ) && theTsids.contains( 0x0806 ) );
+
+        for( Thread theClient : theClients )
+        {
+            theClient.join( 60000 );
+        }
+        assertTrue( theErrors.toString(), theErrors.isEmpty() );
+        for( ContinuityChecker theChecker : theCheckers )
+        {
+            assertTrue( theChecker.mPackets >= PACKETS );
+            assertEquals( 0, theChecker.mLostSync );
+            assertEquals( 0, theChecker.mDiscontinuities );
+        }
+
+        //the tuners are released once nobody has listened for the idle time
+        theEnd = System.currentTimeMillis() + 10000;
+        while( mPool.getFreeCount() < TUNER_COUNT && System.currentTimeMillis() < theEnd )
+        {
+            Thread.sleep( 20 );
+        }
+        assertEquals( 0, mServer.getSessionCount() );
+        for( int theTuner = 0; theTuner < TUNER_COUNT; theTuner++ )
+        {
+            assertFalse( mVirtual.getTuner( theTuner ).isLockkeyHeld() );
+        }
+        assertEquals( TUNER_COUNT, mPool.getFreeCount() );
+    }
+
+    public void testATunerByName() throws Exception
+    {
+        ContinuityChecker theChecker = new ContinuityChecker();
+        StreamRelayTest.readHttp( mPort, "/tuner/" + mDeviceId + "-1/auto/9", "HTTP/1.0", theChecker, 500 );
+        assertEquals( 0, theChecker.mDiscontinuities );
+        assertEquals( 0x0809, mVirtual.getTuner( 1 ).tsid() );
+        assertTrue( mVirtual.getTuner( 1 ).isLockkeyHeld() );
+        assertFalse( mVirtual.getTuner( 0 ).isLockkeyHeld() );
+    }
+
+    public void testBadRequests() throws Exception
+    {
+        assertEquals( "HTTP/1.1 404 Not Found", status( "GET /tuner/" + mDeviceId + "/auto/ HTTP/1.1" ) );
+        assertEquals( "HTTP/1.1 404 Not Found", status( "GET /lineup.json HTTP/1.1" ) );
+        assertEquals( "HTTP/1.1 405 Method Not Allowed", status( "POST /tuner/" + mDeviceId + "/auto/3 HTTP/1.1" ) );
+        assertEquals( "HTTP/1.1 400 Bad Request", status( "GET" ) );
+
+        //a device the pool doesn't have
+        assertEquals( "HTTP/1.1 503 Service Unavailable", status( "GET /tuner/12345678/auto/3 HTTP/1.1" ) );
+        assertEquals( 0, mServer.getSessionCount() );
+    }
+
+    /**
+     * @return the status line of the response to aRequestLine
+     */
+    private String status( String aRequestLine ) throws IOException
+    {
+        Socket theSocket = new Socket( "127.0.0.1", mPort );
+        try
+        {
+            theSocket.setSoTimeout( 5000 );
+            theSocket.getOutputStream().write( ( aRequestLine + "\r\nHost: server\r\n\r\n" ).getBytes( "US-ASCII" ) );
+            return StreamRelayTest.readLine( theSocket.getInputStream() );
+        }
+        finally
+        {
+            theSocket.close();
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.zaren.hdhomerunsignalmeterlib;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+import com.zaren.HdhomerunSignalMeterLib.data.HdhomerunDiscoverDeviceArray;
+import com.zaren.HdhomerunSignalMeterLib.data.PooledTuner;
+import com.zaren.HdhomerunSignalMeterLib.data.SignalQualityHistory;
+import com.zaren.HdhomerunSignalMeterLib.data.TunerPool;
+import com.zaren.hdhomerunsignalmeterlib.emulator.EmulatorConfig;
+import com.zaren.hdhomerunsignalmeterlib.emulator.HdhomerunEmulator;
+import com.zaren.hdhomerunsignalmeterlib.emulator.VirtualDevice;
+
+/**
+ * Hands out the tuners of four emulated devices with two tuners each
+ */
+public class TunerPoolTest extends TestCase
+{
+    private static final int DEVICE_COUNT = 4;
+    private static final int TUNER_COUNT = 2;
+
+    private HdhomerunEmulator mEmulator;
+    private HdhomerunDiscoverDeviceArray mDevices;
+    private TunerPool mPool;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        EmulatorConfig theConfig = new EmulatorConfig();
+        theConfig.deviceCount = DEVICE_COUNT;
+        theConfig.tunerCount = TUNER_COUNT;
+        theConfig.broadcastDiscovery = false;
+
+        mEmulator = new HdhomerunEmulator( theConfig );
+        mEmulator.start();
+
+        mDevices = new HdhomerunDiscoverDeviceArray();
+        for( VirtualDevice theDevice : mEmulator.getDevices() )
+        {
+            byte[] theAddress = theDevice.getAddress().getAddress();
+            int theIpAddr = ( ( theAddress[ 0 ] & 0xFF ) << 24 ) | ( ( theAddress[ 1 ] & 0xFF ) << 16 ) | ( ( theAddress[ 2 ] & 0xFF ) << 8 ) | ( theAddress[ 3 ] & 0xFF );
+            for( int theTuner = 0; theTuner < TUNER_COUNT; theTuner++ )
+            {
+                mDevices.insert( theIpAddr, 0, theDevice.getDeviceId() & 0xFFFFFFFFL, theTuner );
+            }
+        }
+
+        mPool = new TunerPool();
+        mPool.setDevices( mDevices );
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        mPool.close();
+        mEmulator.stop();
+        super.tearDown();
+    }
+
+    public void testConcurrentAcquiresGetDifferentTuners() throws Exception
+    {
+        final int theCount = DEVICE_COUNT * TUNER_COUNT;
+        final List< PooledTuner > theTuners = Collections.synchronizedList( new ArrayList< PooledTuner >() );
+        final CountDownLatch theStart = new CountDownLatch( 1 );
+        Thread[] theThreads = new Thread[ theCount ];
+
+        for( int i = 0; i < theCount; i++ )
+        {
+            final String theOwner = "job" + i;
+            theThreads[ i ] = new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        theStart.await();
+                    }
+                    catch( InterruptedException e )
+                    {
+                        return;
+                    }
+                    theTuners.add( mPool.acquire( theOwner ) );
+                }
+            } );
+            theThreads[ i ].start();
+        }
+
+        theStart.countDown();
+        for( Thread theThread : theThreads )
+        {
+            theThread.join();
+        }
+
+        HashSet< String > theNames = new HashSet< String >();
+        for( PooledTuner theTuner : theTuners )
+        {
+            assertNotNull( theTuner );
+            assertEquals( theTuner.getOwner(), mPool.getOwner( theTuner.getName() ) );
+            theNames.add( theTuner.getName() );
+        }
+        assertEquals( theCount, theNames.size() );
+        assertEquals( 0, mPool.getFreeCount() );
+        assertNull( mPool.acquire( "one too many" ) );
+
+        for( PooledTuner theTuner : theTuners )
+        {
+            theTuner.release();
+            assertTrue( theTuner.isReleased() );
+        }
+        assertEquals( theCount, mPool.getFreeCount() );
+        assertEquals( 0, mPool.getOwnedCount() );
+    }
+
+    public void testBestQualityTunerIsChosen()
+    {
+        String theGood = mDevices.get( 5 ).getName();
+        String theBad = mDevices.get( 2 ).getName();
+        mPool.updateQuality( theGood, 90 );
+        mPool.updateQuality( theBad, 10 );
+
+        PooledTuner theFirst = mPool.acquire( "first" );
+        assertEquals( theGood, theFirst.getName() );
+
+        //the rest are unknown, which ranks them above the bad tuner
+        ArrayList< PooledTuner > theTuners = new ArrayList< PooledTuner >();
+        for( int i = 0; i < DEVICE_COUNT * TUNER_COUNT - 2; i++ )
+        {
+            PooledTuner theTuner = mPool.acquire( "other" );
+            assertFalse( theBad.equals( theTuner.getName() ) );
+            theTuners.add( theTuner );
+        }
+        assertEquals( theBad, mPool.acquire( "last" ).getName() );
+
+        //released tuners come back in their quality's place
+        theFirst.release();
+        assertEquals( theGood, mPool.acquire( "again" ).getName() );
+    }
+
+    public void testTunerLockedElsewhereIsProbedWhenNothingIsFree()
+    {
+        String theBest = mDevices.get( 0 ).getName();
+        mPool.updateQuality( theBest, 100 );
+
+        TunerPool theOtherClient = new TunerPool();
+        try
+        {
+            theOtherClient.setDevices( mDevices );
+            theOtherClient.updateQuality( theBest, 100 );
+            PooledTuner theTaken = theOtherClient.acquire( "elsewhere" );
+            assertEquals( theBest, theTaken.getName() );
+
+            //the locked tuner costs one request and is skipped
+            ArrayList< PooledTuner > theTuners = new ArrayList< PooledTuner >();
+            for( int i = 0; i < DEVICE_COUNT * TUNER_COUNT - 1; i++ )
+            {
+                PooledTuner theTuner = mPool.acquire( "job" );
+                assertFalse( theBest.equals( theTuner.getName() ) );
+                theTuners.add( theTuner );
+            }
+            assertNull( mPool.acquire( "job" ) );
+
+            //once it is released elsewhere the probe finds it
+            theTaken.release();
+            PooledTuner theProbed = mPool.acquire( "job" );
+            assertNotNull( theProbed );
+            assertEquals( theBest, theProbed.getName() );
+        }
+        finally
+        {
+            theOtherClient.close();
+        }
+    }
+
+    public void testHistoryAndLoadRankTunersForAFrequency() throws Exception
+    {
+        final int theFrequency = 575000000;
+        SignalQualityHistory theHistory = new SignalQualityHistory();
+        mPool.setQualityHistory( theHistory );
+
+        //device 0 receives the frequency best on both tuners, device 1 nearly as well
+        record( theHistory, 0, 0, theFrequency, 95 );
+        record( theHistory, 0, 1, theFrequency, 92 );
+        record( theHistory, 1, 0, theFrequency, 88 );
+        record( theHistory, 2, 0, theFrequency, 20 );
+        //and device 3 is great, but on another frequency
+        record( theHistory, 3, 0, 617000000, 100 );
+
+        assertEquals( name( 0, 0 ), mPool.rankFreeTuners( theFrequency ).get( 0 ) );
+        assertEquals( name( 0, 0 ), mPool.acquire( "first", theFrequency ).getName() );
+
+        //92 less the load of the tuner in use on device 0 loses to 88
+        assertEquals( name( 1, 0 ), mPool.acquire( "second", theFrequency ).getName() );
+        assertEquals( name( 0, 1 ), mPool.acquire( "third", theFrequency ).getName() );
+
+        //readings fade towards unknown, unknown beats the bad tuner
+        List< String > theRanking = mPool.rankFreeTuners( theFrequency );
+        assertEquals( name( 2, 0 ), theRanking.get( theRanking.size() - 1 ) );
+
+        theHistory.setHalfLife( 1 );
+        Thread.sleep( 50 );
+        assertEquals( TunerPool.UNKNOWN_QUALITY, theHistory.getQuality( mDevices.get( 4 ).id, 0, theFrequency ) );
+        assertEquals( 20, theHistory.getSnrQuality( mDevices.get( 4 ).id, 0, theFrequency ) );
+    }
+
+    private void record( SignalQualityHistory aHistory, int aDevice, int aTuner, int aFrequency, int aQuality )
+    {
+        aHistory.record( mDevices.get( aDevice * TUNER_COUNT + aTuner ).id, aTuner, aFrequency, aQuality, aQuality, true );
+    }
+
+    private String name( int aDevice, int aTuner )
+    {
+        return mDevices.get( aDevice * TUNER_COUNT + aTuner ).getName();
+    }
+}
@@ -0,0 +1,148 @@
+package com.zaren.hdhomerunsignalmeterlib;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.zaren.HdhomerunSignalMeterLib.data.HdhomerunDevice;
+import com.zaren.hdhomerunsignalmeterlib.emulator.EmulatorConfig;
+import com.zaren.hdhomerunsignalmeterlib.emulator.HdhomerunEmulator;
+import com.zaren.hdhomerunsignalmeterlib.emulator.VirtualDevice;
+
+/**
+ * Streams six emulated tuners at once through two shared reactor threads
+ */
+public class VideoReactorTest extends TestCase
+{
+    private static final int DEVICE_COUNT = 3;
+    private static final int TUNER_COUNT = 2;
+    private static final int PACKET_SIZE = 1316;
+    private static final int STREAM_MS = 2000;
+
+    private HdhomerunEmulator mEmulator;
+    private List< HdhomerunDevice > mTuners;
+    private boolean mSupported;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        mSupported = HdhomerunDevice.setVideoReactor( 2, new int[] { 0 } );
+
+        EmulatorConfig theConfig = new EmulatorConfig();
+        theConfig.deviceCount = DEVICE_COUNT;
+        theConfig.tunerCount = TUNER_COUNT;
+        theConfig.broadcastDiscovery = false;
+
+        mEmulator = new HdhomerunEmulator( theConfig );
+        mEmulator.start();
+
+        mTuners = new ArrayList< HdhomerunDevice >();
+        for( VirtualDevice theDevice : mEmulator.getDevices() )
+        {
+            byte[] theAddress = theDevice.getAddress().getAddress();
+            int theIpAddr = ( ( theAddress[ 0 ] & 0xFF ) << 24 ) | ( ( theAddress[ 1 ] & 0xFF ) << 16 ) | ( ( theAddress[ 2 ] & 0xFF ) << 8 ) | ( theAddress[ 3 ] & 0xFF );
+            for( int theTuner = 0; theTuner < TUNER_COUNT; theTuner++ )
+            {
+                HdhomerunDevice theHdhomerun = new HdhomerunDevice( theDevice.getDeviceId() & 0xFFFFFFFFL, theIpAddr, theTuner );
+                theHdhomerun.setTunerChannel( "auto:" + ( 3 + theTuner * 3 ) );
+                mTuners.add( theHdhomerun );
+            }
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        for( HdhomerunDevice theTuner : mTuners )
+        {
+            theTuner.stopStreaming();
+            theTuner.destroy();
+        }
+        mEmulator.stop();
+        HdhomerunDevice.setVideoReactor( 0, null );
+        super.tearDown();
+    }
+
+    public void testEveryStreamArrives() throws Exception
+    {
+        assertTrue( mSupported );
+        for( HdhomerunDevice theTuner : mTuners )
+        {
+            assertEquals( 1, theTuner.startStreaming() );
+        }
+
+        long[] theTotals = readAll( mTuners, STREAM_MS );
+
+        long theExpected = mEmulator.getConfig().streamBitsPerSecond / 8L * ( STREAM_MS - mEmulator.getConfig().lockLatencyMs ) / 1000;
+        for( int i = 0; i < theTotals.length; i++ )
+        {
+            assertTrue( "tuner " + i + " received " + theTotals[ i ] + " of " + theExpected, theTotals[ i ] > theExpected * 8 / 10 );
+        }
+    }
+
+    public void testDestroyedStreamsLeaveTheOthersRunning() throws Exception
+    {
+        for( HdhomerunDevice theTuner : mTuners )
+        {
+            assertEquals( 1, theTuner.startStreaming() );
+        }
+        readAll( mTuners, STREAM_MS / 2 );
+
+        //every other stream goes, the rest stay on the same reactor threads
+        List< HdhomerunDevice > theRemaining = new ArrayList< HdhomerunDevice >();
+        for( int i = mTuners.size() - 1; i >= 0; i-- )
+        {
+            if( i % 2 == 0 )
+            {
+                theRemaining.add( 0, mTuners.get( i ) );
+            }
+            else
+            {
+                HdhomerunDevice theTuner = mTuners.remove( i );
+                theTuner.stopStreaming();
+                theTuner.destroy();
+            }
+        }
+
+        long[] theTotals = readAll( theRemaining, STREAM_MS / 2 );
+        long theExpected = mEmulator.getConfig().streamBitsPerSecond / 8L * ( STREAM_MS / 2 ) / 1000;
+        for( int i = 0; i < theTotals.length; i++ )
+        {
+            assertTrue( "tuner " + i + " received " + theTotals[ i ] + " of " + theExpected, theTotals[ i ] > theExpected * 7 / 10 );
+        }
+    }
+
+    private static long[] readAll( List< HdhomerunDevice > aTuners, int aMillis )
+    {
+        byte[] theBuffer = new byte[ PACKET_SIZE * 100 ];
+        long[] theTotals = new long[ aTuners.size() ];
+        long theEnd = System.currentTimeMillis() + aMillis;
+        while( System.currentTimeMillis() < theEnd )
+        {
+            for( int i = 0; i < aTuners.size(); i++ )
+            {
+                int theRead;
+                while( ( theRead = aTuners.get( i ).streamRecv( theBuffer, 0, theBuffer.length, 0 ) ) > 0 )
+                {
+                    assertEquals( 0, theRead % PACKET_SIZE );
+                    assertEquals( 0x47, theBuffer[ 0 ] );
+                    assertEquals( 0x47, theBuffer[ theRead - 188 ] );
+                    theTotals[ i ] += theRead;
+                }
+                assertTrue( theRead == 0 );
+            }
+            try
+            {
+                Thread.sleep( 50 );
+            }
+            catch( InterruptedException e )
+            {
+                break;
+            }
+        }
+        return theTotals;
+    }
+}
@@ -0,0 +1,93 @@
+package com.zaren.hdhomerunsignalmeterlib.emulator;
+
+/**
+ * The channel map ranges the emulator understands, copied from hdhomerun_channels.c so that the
+ * ChannelList the library builds matches the frequencies the virtual tuners report.
+ */
+public final class ChannelMaps
+{
+    /** channel range start, end, frequency of the first channel and spacing */
+    private static final int[][] US_BCAST = {
+        { 2, 4, 57000000, 6000000 },
+        { 5, 6, 79000000, 6000000 },
+        { 7, 13, 177000000, 6000000 },
+        { 14, 69, 473000000, 6000000 } };
+
+    private static final int[][] US_CABLE = {
+        { 2, 4, 57000000, 6000000 },
+        { 5, 6, 79000000, 6000000 },
+        { 7, 13, 177000000, 6000000 },
+        { 14, 22, 123000000, 6000000 },
+        { 23, 94, 219000000, 6000000 },
+        { 95, 99, 93000000, 6000000 },
+        { 100, 158, 651000000, 6000000 } };
+
+    private ChannelMaps()
+    {
+    }
+
+    /**
+     * @return the ranges of the channel map, null if it isn't supported
+     */
+    public static int[][] channelRanges( String aChannelMap )
+    {
+        if( aChannelMap.equals( "us-bcast" ) )
+        {
+            return US_BCAST;
+        }
+        else if( aChannelMap.equals( "us-cable" ) )
+        {
+            return US_CABLE;
+        }
+        return null;
+    }
+
+    public static int numberToFrequency( String aChannelMap, int aNumber )
+    {
+        int[][] theRanges = channelRanges( aChannelMap );
+        if( theRanges == null )
+        {
+            return 0;
+        }
+
+        for( int[] theRange : theRanges )
+        {
+            if( aNumber >= theRange[ 0 ] && aNumber <= theRange[ 1 ] )
+            {
+                return theRange[ 2 ] + ( aNumber - theRange[ 0 ] ) * theRange[ 3 ];
+            }
+        }
+        return 0;
+    }
+
+    public static int frequencyToNumber( String aChannelMap, int aFrequency )
+    {
+        int[][] theRanges = channelRanges( aChannelMap );
+        if( theRanges == null )
+        {
+            return 0;
+        }
+
+        for( int[] theRange : theRanges )
+        {
+            int theOffset = aFrequency - theRange[ 2 ];
+            if( theOffset >= 0 && theOffset % theRange[ 3 ] == 0 )
+            {
+                int theNumber = theRange[ 0 ] + theOffset / theRange[ 3 ];
+                if( theNumber <= theRange[ 1 ] )
+                {
+                    return theNumber;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the features reported by /sys/features, parsed by HdhomerunDevice for the channel maps
+     */
+    public static String features()
+    {
+        return "channelmap: us-bcast us-cable\nmodulation: 8vsb qam256 qam64\nauto-modulation: auto auto6t auto6c qam\n";
+    }
+}
@@ -0,0 +1,62 @@
+package com.zaren.hdhomerunsignalmeterlib.emulator;
+
+/**
+ * Settings shared by all virtual devices of an HdhomerunEmulator
+ */
+public class EmulatorConfig
+{
+    /** number of virtual devices, each gets its own loopback address starting at firstAddress */
+    public int deviceCount = 1;
+
+    /** 127.0.0.2 by default, 127.0.0.1 is left for the clients */
+    public int firstAddress = 0x7F000002;
+
+    /** device ids are generated from this prefix (the top 12 bits), 0x131 is an HDHR4-2US */
+    public int deviceIdPrefix = 0x131;
+
+    public int tunerCount = 2;
+
+    public String model = "hdhomerun4_atsc";
+
+    public String firmwareVersion = "20150826";
+
+    public String defaultChannelMap = "us-bcast";
+
+    /** time from setting the channel to the tuner reporting lock */
+    public long lockLatencyMs = 150;
+
+    public int signalStrength = 85;
+    public int snrQuality = 90;
+    public int symbolErrorQuality = 100;
+
+    /** random +- jitter applied to the signal values on every status read */
+    public int signalJitter = 3;
+
+    /** one in this many channels of the map carries a signal, 1 means every channel */
+    public int activeChannelEvery = 3;
+
+    public int programsPerChannel = 6;
+
+    /** one in this many programs is reported as encrypted, 0 for none */
+    public int encryptedEvery = 4;
+
+    /** the stream carries a TVCT with the virtual channels and names streaminfo lists */
+    public boolean psip = true;
+
+    /** with psip, the stream also carries the MGT, STT, EIT-0 and ETT-0 of a program guide from the tune on */
+    public boolean guide = false;
+
+    /** bitrate of the synthetic stream sent to the tuner target, 19.39Mbps is a full 8vsb multiplex */
+    public int streamBitsPerSecond = 19392658;
+
+    /** probability of dropping each 1316 byte datagram of the stream, 0 to 1 */
+    public double packetLoss = 0.0;
+
+    /** threads shared by all streaming tuners */
+    public int streamThreads = 2;
+
+    /** answer broadcast discovery on the wildcard address, needs the discover port to be free */
+    public boolean broadcastDiscovery = true;
+
+    public long randomSeed = 0x48444852L;
+}
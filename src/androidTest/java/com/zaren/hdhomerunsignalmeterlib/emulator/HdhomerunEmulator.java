@@ -0,0 +1,434 @@
+package com.zaren.hdhomerunsignalmeterlib.emulator;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Emulates any number of HDHomeRun devices on loopback addresses so the library can be load and
+ * latency tested without hardware. A single selector thread serves discovery and the control
+ * connections of every device, streams are sent from a small shared thread pool.
+ *
+ * Broadcast discovery sent by the library on the loopback interface (127.255.255.255) is answered
+ * by every device, each reply coming from the device's own address.
+ */
+public class HdhomerunEmulator
+{
+    private static final int MAX_FRAME_SIZE = 3074;
+
+    private final EmulatorConfig mConfig;
+    private final List< VirtualDevice > mDevices = new ArrayList< VirtualDevice >();
+
+    private Selector mSelector;
+    private DatagramChannel mBroadcastChannel;
+    private ScheduledExecutorService mStreamExecutor;
+    private Thread mSelectorThread;
+    private volatile boolean mRunning = false;
+
+    private final ByteBuffer mDatagramBuffer = ByteBuffer.allocate( MAX_FRAME_SIZE );
+
+    public HdhomerunEmulator( EmulatorConfig aConfig )
+    {
+        mConfig = aConfig;
+    }
+
+    public EmulatorConfig getConfig()
+    {
+        return mConfig;
+    }
+
+    public List< VirtualDevice > getDevices()
+    {
+        return Collections.unmodifiableList( mDevices );
+    }
+
+    ScheduledExecutorService getStreamExecutor()
+    {
+        return mStreamExecutor;
+    }
+
+    public synchronized void start() throws IOException
+    {
+        if( mRunning )
+        {
+            return;
+        }
+
+        mSelector = Selector.open();
+        mStreamExecutor = Executors.newScheduledThreadPool( Math.max( 1, mConfig.streamThreads ) );
+
+        try
+        {
+            if( mConfig.broadcastDiscovery )
+            {
+                mBroadcastChannel = DatagramChannel.open();
+                mBroadcastChannel.socket().setReuseAddress( true );
+                mBroadcastChannel.socket().setBroadcast( true );
+                mBroadcastChannel.socket().bind( new InetSocketAddress( VirtualDevice.HDHOMERUN_PORT ) );
+                mBroadcastChannel.configureBlocking( false );
+                mBroadcastChannel.register( mSelector, SelectionKey.OP_READ, null );
+            }
+
+            for( int i = 0; i < mConfig.deviceCount; i++ )
+            {
+                VirtualDevice theDevice = new VirtualDevice( this, mConfig, i, addressOf( mConfig.firstAddress + i ) );
+                theDevice.open( mSelector );
+                mDevices.add( theDevice );
+            }
+        }
+        catch( IOException e )
+        {
+            stop();
+            throw e;
+        }
+
+        mRunning = true;
+        mSelectorThread = new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                selectLoop();
+            }
+        }, "HdhomerunEmulator" );
+        mSelectorThread.start();
+    }
+
+    public void stop()
+    {
+        Thread theThread;
+        synchronized( this )
+        {
+            mRunning = false;
+            theThread = mSelectorThread;
+            mSelectorThread = null;
+            if( mSelector != null )
+            {
+                mSelector.wakeup();
+            }
+        }
+
+        if( theThread != null )
+        {
+            try
+            {
+                theThread.join();
+            }
+            catch( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized( this )
+        {
+            for( VirtualDevice theDevice : mDevices )
+            {
+                theDevice.close();
+            }
+            mDevices.clear();
+
+            if( mStreamExecutor != null )
+            {
+                mStreamExecutor.shutdownNow();
+                mStreamExecutor = null;
+            }
+
+            try
+            {
+                if( mBroadcastChannel != null )
+                {
+                    mBroadcastChannel.close();
+                }
+                if( mSelector != null )
+                {
+                    for( SelectionKey theKey : mSelector.keys() )
+                    {
+                        theKey.channel().close();
+                    }
+                    mSelector.close();
+                }
+            }
+            catch( IOException e )
+            {
+                //nothing to do
+            }
+            mBroadcastChannel = null;
+            mSelector = null;
+        }
+    }
+
+    private static InetAddress addressOf( int aAddress ) throws IOException
+    {
+        byte[] theBytes = { (byte) ( aAddress >> 24 ), (byte) ( aAddress >> 16 ), (byte) ( aAddress >> 8 ), (byte) aAddress };
+        return InetAddress.getByAddress( theBytes );
+    }
+
+    private void selectLoop()
+    {
+        while( mRunning )
+        {
+            try
+            {
+                mSelector.select();
+            }
+            catch( IOException e )
+            {
+                break;
+            }
+
+            Iterator< SelectionKey > theKeys = mSelector.selectedKeys().iterator();
+            while( theKeys.hasNext() )
+            {
+                SelectionKey theKey = theKeys.next();
+                theKeys.remove();
+
+                if( !theKey.isValid() )
+                {
+                    continue;
+                }
+
+                try
+                {
+                    if( theKey.isAcceptable() )
+                    {
+                        accept( theKey );
+                    }
+                    else if( theKey.channel() instanceof DatagramChannel )
+                    {
+                        receiveDiscover( (DatagramChannel) theKey.channel(), (VirtualDevice) theKey.attachment() );
+                    }
+                    else if( theKey.isReadable() )
+                    {
+                        ( (ControlConnection) theKey.attachment() ).read( theKey );
+                    }
+                }
+                catch( IOException e )
+                {
+                    if( theKey.channel() instanceof SocketChannel )
+                    {
+                        theKey.cancel();
+                        try
+                        {
+                            theKey.channel().close();
+                        }
+                        catch( IOException e1 )
+                        {
+                            //nothing to do
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void accept( SelectionKey aKey ) throws IOException
+    {
+        SocketChannel theChannel = ( (ServerSocketChannel) aKey.channel() ).accept();
+        if( theChannel == null )
+        {
+            return;
+        }
+        theChannel.configureBlocking( false );
+        theChannel.socket().setTcpNoDelay( true );
+        theChannel.register( mSelector, SelectionKey.OP_READ, new ControlConnection( (VirtualDevice) aKey.attachment(), theChannel ) );
+    }
+
+    /**
+     * @param aDevice the device the request was sent to, null for a broadcast
+     */
+    private void receiveDiscover( DatagramChannel aChannel, VirtualDevice aDevice ) throws IOException
+    {
+        mDatagramBuffer.clear();
+        SocketAddress theSender = aChannel.receive( mDatagramBuffer );
+        if( theSender == null )
+        {
+            return;
+        }
+
+        HdhomerunFrame.Reader theReader = new HdhomerunFrame.Reader( mDatagramBuffer.array(), mDatagramBuffer.position() );
+        if( !theReader.isValid() || theReader.getType() != HdhomerunFrame.TYPE_DISCOVER_REQ )
+        {
+            return;
+        }
+
+        long theType = HdhomerunFrame.DEVICE_TYPE_WILDCARD;
+        long theId = HdhomerunFrame.DEVICE_ID_WILDCARD;
+        while( theReader.next() )
+        {
+            if( theReader.tag == HdhomerunFrame.TAG_DEVICE_TYPE )
+            {
+                theType = theReader.readU32();
+            }
+            else if( theReader.tag == HdhomerunFrame.TAG_DEVICE_ID )
+            {
+                theId = theReader.readU32();
+            }
+        }
+
+        if( aDevice != null )
+        {
+            reply( aDevice, theType, theId, theSender );
+            return;
+        }
+
+        for( VirtualDevice theDevice : mDevices )
+        {
+            reply( theDevice, theType, theId, theSender );
+        }
+    }
+
+    private static void reply( VirtualDevice aDevice, long aType, long aId, SocketAddress aSender ) throws IOException
+    {
+        if( aDevice.matchesDiscover( aType, aId ) )
+        {
+            aDevice.getDiscoverChannel().send( ByteBuffer.wrap( aDevice.discoverReply() ), aSender );
+        }
+    }
+
+    /**
+     * A control connection from the library, the hdhomerun_control_sock_t side of things
+     */
+    private static class ControlConnection
+    {
+        private final VirtualDevice mDevice;
+        private final InetAddress mClient;
+        private final ByteBuffer mBuffer = ByteBuffer.allocate( MAX_FRAME_SIZE * 2 );
+
+        ControlConnection( VirtualDevice aDevice, SocketChannel aChannel )
+        {
+            mDevice = aDevice;
+            mClient = aChannel.socket().getInetAddress();
+        }
+
+        void read( SelectionKey aKey ) throws IOException
+        {
+            SocketChannel theChannel = (SocketChannel) aKey.channel();
+            if( theChannel.read( mBuffer ) < 0 )
+            {
+                throw new IOException( "closed" );
+            }
+
+            mBuffer.flip();
+            int theLength;
+            while( ( theLength = HdhomerunFrame.frameLength( mBuffer ) ) > 0 )
+            {
+                byte[] theFrame = new byte[ theLength ];
+                mBuffer.get( theFrame );
+                handle( theChannel, theFrame );
+            }
+            mBuffer.compact();
+
+            if( !mBuffer.hasRemaining() )
+            {
+                throw new IOException( "frame too large" );
+            }
+        }
+
+        private void handle( SocketChannel aChannel, byte[] aFrame ) throws IOException
+        {
+            HdhomerunFrame.Reader theReader = new HdhomerunFrame.Reader( aFrame, aFrame.length );
+            if( !theReader.isValid() || theReader.getType() != HdhomerunFrame.TYPE_GETSET_REQ )
+            {
+                throw new IOException( "bad frame" );
+            }
+
+            String theName = null;
+            String theValue = null;
+            long theLockkey = 0;
+            while( theReader.next() )
+            {
+                switch( theReader.tag )
+                {
+                    case HdhomerunFrame.TAG_GETSET_NAME:
+                        theName = theReader.readString();
+                        break;
+                    case HdhomerunFrame.TAG_GETSET_VALUE:
+                        theValue = theReader.readString();
+                        break;
+                    case HdhomerunFrame.TAG_GETSET_LOCKKEY:
+                        theLockkey = theReader.readU32();
+                        break;
+                }
+            }
+
+            if( theName == null )
+            {
+                throw new IOException( "missing name" );
+            }
+
+            ByteBuffer theReply = ByteBuffer.wrap( mDevice.getSet( theName, theValue, theLockkey, mClient ) );
+            while( theReply.hasRemaining() )
+            {
+                //replies are a few kB at most so this doesn't spin on loopback
+                aChannel.write( theReply );
+            }
+        }
+    }
+
+    /**
+     * Runs the emulator standalone, e.g. -devices 200 -tuners 4 -latency 300 -loss 0.001
+     */
+    public static void main( String[] aArgs ) throws Exception
+    {
+        EmulatorConfig theConfig = new EmulatorConfig();
+
+        for( int i = 0; i + 1 < aArgs.length; i += 2 )
+        {
+            String theOption = aArgs[ i ];
+            String theValue = aArgs[ i + 1 ];
+
+            if( theOption.equals( "-devices" ) )
+            {
+                theConfig.deviceCount = Integer.parseInt( theValue );
+            }
+            else if( theOption.equals( "-tuners" ) )
+            {
+                theConfig.tunerCount = Integer.parseInt( theValue );
+            }
+            else if( theOption.equals( "-latency" ) )
+            {
+                theConfig.lockLatencyMs = Long.parseLong( theValue );
+            }
+            else if( theOption.equals( "-loss" ) )
+            {
+                theConfig.packetLoss = Double.parseDouble( theValue );
+            }
+            else if( theOption.equals( "-bitrate" ) )
+            {
+                theConfig.streamBitsPerSecond = Integer.parseInt( theValue );
+            }
+            else if( theOption.equals( "-snq" ) )
+            {
+                theConfig.snrQuality = Integer.parseInt( theValue );
+            }
+            else if( theOption.equals( "-channelmap" ) )
+            {
+                theConfig.defaultChannelMap = theValue;
+            }
+        }
+
+        HdhomerunEmulator theEmulator = new HdhomerunEmulator( theConfig );
+        theEmulator.start();
+
+        for( VirtualDevice theDevice : theEmulator.getDevices() )
+        {
+            System.out.println( theDevice.getDeviceIdString() + " " + theDevice.getAddress().getHostAddress() + " tuners " + theDevice.getTunerCount() );
+        }
+
+        Thread.currentThread().join();
+    }
+}
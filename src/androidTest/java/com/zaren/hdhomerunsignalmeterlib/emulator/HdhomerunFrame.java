@@ -0,0 +1,242 @@
+package com.zaren.hdhomerunsignalmeterlib.emulator;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * The packet format shared by the discover (UDP) and control (TCP) protocols, see hdhomerun_pkt.h:
+ * u16 type, u16 payload length, tag-length-value payload and a little endian ethernet style CRC.
+ */
+public class HdhomerunFrame
+{
+    public static final int TYPE_DISCOVER_REQ = 0x0002;
+    public static final int TYPE_DISCOVER_RPY = 0x0003;
+    public static final int TYPE_GETSET_REQ = 0x0004;
+    public static final int TYPE_GETSET_RPY = 0x0005;
+
+    public static final int TAG_DEVICE_TYPE = 0x01;
+    public static final int TAG_DEVICE_ID = 0x02;
+    public static final int TAG_GETSET_NAME = 0x03;
+    public static final int TAG_GETSET_VALUE = 0x04;
+    public static final int TAG_ERROR_MESSAGE = 0x05;
+    public static final int TAG_TUNER_COUNT = 0x10;
+    public static final int TAG_GETSET_LOCKKEY = 0x15;
+
+    public static final long DEVICE_TYPE_WILDCARD = 0xFFFFFFFFL;
+    public static final long DEVICE_TYPE_TUNER = 0x00000001L;
+    public static final long DEVICE_ID_WILDCARD = 0xFFFFFFFFL;
+
+    public static final int HEADER_LENGTH = 4;
+    public static final int CRC_LENGTH = 4;
+
+    private static final Charset US_ASCII = Charset.forName( "US-ASCII" );
+
+    private final int mType;
+    private final ByteArrayOutputStream mPayload = new ByteArrayOutputStream( 256 );
+
+    public HdhomerunFrame( int aType )
+    {
+        mType = aType;
+    }
+
+    public int getType()
+    {
+        return mType;
+    }
+
+    public HdhomerunFrame writeU8( int aTag, int aValue )
+    {
+        writeTag( aTag, 1 );
+        mPayload.write( aValue );
+        return this;
+    }
+
+    public HdhomerunFrame writeU32( int aTag, long aValue )
+    {
+        writeTag( aTag, 4 );
+        mPayload.write( (int) ( aValue >> 24 ) );
+        mPayload.write( (int) ( aValue >> 16 ) );
+        mPayload.write( (int) ( aValue >> 8 ) );
+        mPayload.write( (int) aValue );
+        return this;
+    }
+
+    /**
+     * Strings are sent including their terminating NULL
+     */
+    public HdhomerunFrame writeString( int aTag, String aValue )
+    {
+        byte[] theBytes = aValue.getBytes( US_ASCII );
+        writeTag( aTag, theBytes.length + 1 );
+        mPayload.write( theBytes, 0, theBytes.length );
+        mPayload.write( 0 );
+        return this;
+    }
+
+    private void writeTag( int aTag, int aLength )
+    {
+        mPayload.write( aTag );
+        if( aLength <= 127 )
+        {
+            mPayload.write( aLength );
+        }
+        else
+        {
+            mPayload.write( ( aLength & 0x7F ) | 0x80 );
+            mPayload.write( aLength >> 7 );
+        }
+    }
+
+    /**
+     * @return the complete frame, header, payload and crc
+     */
+    public byte[] seal()
+    {
+        byte[] thePayload = mPayload.toByteArray();
+        byte[] theFrame = new byte[ HEADER_LENGTH + thePayload.length + CRC_LENGTH ];
+
+        theFrame[ 0 ] = (byte) ( mType >> 8 );
+        theFrame[ 1 ] = (byte) mType;
+        theFrame[ 2 ] = (byte) ( thePayload.length >> 8 );
+        theFrame[ 3 ] = (byte) thePayload.length;
+        System.arraycopy( thePayload, 0, theFrame, HEADER_LENGTH, thePayload.length );
+
+        long theCrc = crc( theFrame, 0, HEADER_LENGTH + thePayload.length );
+        int theCrcPos = HEADER_LENGTH + thePayload.length;
+        theFrame[ theCrcPos ] = (byte) theCrc;
+        theFrame[ theCrcPos + 1 ] = (byte) ( theCrc >> 8 );
+        theFrame[ theCrcPos + 2 ] = (byte) ( theCrc >> 16 );
+        theFrame[ theCrcPos + 3 ] = (byte) ( theCrc >> 24 );
+
+        return theFrame;
+    }
+
+    static long crc( byte[] aBuffer, int aOffset, int aLength )
+    {
+        CRC32 theCrc = new CRC32();
+        theCrc.update( aBuffer, aOffset, aLength );
+        return theCrc.getValue();
+    }
+
+    /**
+     * @return the length of the complete frame at the start of aBuffer (position to limit), or -1 if
+     *         more data is needed
+     */
+    public static int frameLength( ByteBuffer aBuffer )
+    {
+        if( aBuffer.remaining() < HEADER_LENGTH )
+        {
+            return -1;
+        }
+
+        int thePayloadLength = aBuffer.getShort( aBuffer.position() + 2 ) & 0xFFFF;
+        int theFrameLength = HEADER_LENGTH + thePayloadLength + CRC_LENGTH;
+
+        return aBuffer.remaining() >= theFrameLength ? theFrameLength : -1;
+    }
+
+    /**
+     * Reads the tag-length-value entries of a received frame after checking its crc
+     */
+    public static class Reader
+    {
+        private final byte[] mFrame;
+        private final int mType;
+        private final int mEnd;
+        private final boolean mValid;
+        private int mPos;
+
+        public int tag;
+        public int valueOffset;
+        public int valueLength;
+
+        public Reader( byte[] aFrame, int aLength )
+        {
+            mFrame = aFrame;
+
+            int thePayloadLength = aLength >= HEADER_LENGTH ? ( ( aFrame[ 2 ] & 0xFF ) << 8 ) | ( aFrame[ 3 ] & 0xFF ) : -1;
+            mEnd = HEADER_LENGTH + thePayloadLength;
+            mPos = HEADER_LENGTH;
+
+            if( thePayloadLength < 0 || mEnd + CRC_LENGTH > aLength )
+            {
+                mType = -1;
+                mValid = false;
+                return;
+            }
+
+            mType = ( ( aFrame[ 0 ] & 0xFF ) << 8 ) | ( aFrame[ 1 ] & 0xFF );
+
+            long theCrc = ( aFrame[ mEnd ] & 0xFFL ) | ( ( aFrame[ mEnd + 1 ] & 0xFFL ) << 8 )
+                          | ( ( aFrame[ mEnd + 2 ] & 0xFFL ) << 16 ) | ( ( aFrame[ mEnd + 3 ] & 0xFFL ) << 24 );
+            mValid = theCrc == crc( aFrame, 0, mEnd );
+        }
+
+        public boolean isValid()
+        {
+            return mValid;
+        }
+
+        public int getType()
+        {
+            return mType;
+        }
+
+        /**
+         * Moves to the next tag, unknown tags are left to the caller to skip
+         */
+        public boolean next()
+        {
+            if( !mValid || mPos + 2 > mEnd )
+            {
+                return false;
+            }
+
+            tag = mFrame[ mPos++ ] & 0xFF;
+            int theLength = mFrame[ mPos++ ] & 0xFF;
+            if( ( theLength & 0x80 ) != 0 )
+            {
+                if( mPos + 1 > mEnd )
+                {
+                    return false;
+                }
+                theLength = ( theLength & 0x7F ) | ( ( mFrame[ mPos++ ] & 0xFF ) << 7 );
+            }
+
+            if( mPos + theLength > mEnd )
+            {
+                return false;
+            }
+
+            valueOffset = mPos;
+            valueLength = theLength;
+            mPos += theLength;
+            return true;
+        }
+
+        public long readU32()
+        {
+            if( valueLength != 4 )
+            {
+                return -1;
+            }
+            return ( ( mFrame[ valueOffset ] & 0xFFL ) << 24 ) | ( ( mFrame[ valueOffset + 1 ] & 0xFFL ) << 16 )
+                   | ( ( mFrame[ valueOffset + 2 ] & 0xFFL ) << 8 ) | ( mFrame[ valueOffset + 3 ] & 0xFFL );
+        }
+
+        /**
+         * Does not rely on the NULL being present, see the security note in hdhomerun_pkt.h
+         */
+        public String readString()
+        {
+            int theLength = valueLength;
+            while( theLength > 0 && mFrame[ valueOffset + theLength - 1 ] == 0 )
+            {
+                theLength--;
+            }
+            return new String( mFrame, valueOffset, theLength, US_ASCII );
+        }
+    }
+}
@@ -0,0 +1,576 @@
+package com.zaren.hdhomerunsignalmeterlib.emulator;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Produces a synthetic MPEG transport stream for one tuned channel: a PAT, one PMT per program,
+ * optionally an ATSC TVCT and program guide, and video/audio payload packets with valid continuity counters, 7
+ * packets per datagram like the device sends. A PID filter drops packets from the datagrams as
+ * /tunerN/filter does.
+ */
+public class TransportStreamGenerator
+{
+    public static final int PACKET_SIZE = 188;
+    public static final int PACKETS_PER_DATAGRAM = 7;
+    public static final int DATAGRAM_SIZE = PACKET_SIZE * PACKETS_PER_DATAGRAM;
+
+    public static final int PAT_PID = 0x0000;
+    public static final int PSIP_PID = 0x1FFB;
+    public static final int EIT0_PID = 0x1D00;
+    public static final int ETT0_PID = 0x1E00;
+
+    public static final int GUIDE_EVENTS = 6;
+    public static final int GUIDE_EVENT_SECONDS = 1800;
+
+    /** GPS time starts 1980-01-06, and is 18 seconds ahead of UTC since 2017 */
+    private static final long GPS_EPOCH_SECONDS = 315964800L;
+    private static final int GPS_UTC_OFFSET = 18;
+
+    /** PSI tables are repeated every this many packets, roughly every 100ms at 8vsb rates */
+    private static final int PSI_INTERVAL = 1024;
+
+    private final int mTsid;
+    private final int[] mProgramNumbers;
+    private final int mProgramFilter;
+
+    private final byte[] mContinuity = new byte[ 0x2000 ];
+    //the PAT, the PMTs in program order, then the TVCT if there is one
+    private byte[][] mPsiPackets;
+    //the MGT, STT, EIT-0 and ETT-0, sent after the PSI
+    private byte[][] mGuidePackets = new byte[ 0 ][];
+    private final int[] mPayloadPids;
+    private final int[] mPmtVersions;
+    private final int[] mExtraStreams;
+
+    private long mPacketCount = 0;
+    private int mPayloadIndex = 0;
+
+    private boolean[] mPidFilter;
+    private int mDatagramPackets = 0;
+
+    /**
+     * @param aProgramFilter only this program is sent, as the device does when /tunerN/program is
+     *                       set, 0 for the whole multiplex
+     */
+    public TransportStreamGenerator( int aTsid, int[] aProgramNumbers, int aProgramFilter )
+    {
+        mTsid = aTsid;
+        mProgramFilter = aProgramFilter;
+
+        if( aProgramFilter != 0 )
+        {
+            mProgramNumbers = new int[]{ aProgramFilter };
+        }
+        else
+        {
+            mProgramNumbers = Arrays.copyOf( aProgramNumbers, aProgramNumbers.length );
+        }
+
+        mPsiPackets = new byte[ 1 + mProgramNumbers.length ][];
+        mPsiPackets[ 0 ] = sectionPacket( PAT_PID, buildPat() );
+
+        mPayloadPids = new int[ mProgramNumbers.length * 2 ];
+        mPmtVersions = new int[ mProgramNumbers.length ];
+        mExtraStreams = new int[ mProgramNumbers.length ];
+        for( int i = 0; i < mProgramNumbers.length; i++ )
+        {
+            int thePmtPid = pmtPid( mProgramNumbers[ i ] );
+            mPayloadPids[ i * 2 ] = videoPid( mProgramNumbers[ i ] );
+            mPayloadPids[ i * 2 + 1 ] = audioPid( mProgramNumbers[ i ] );
+            mPsiPackets[ 1 + i ] = sectionPacket( thePmtPid, buildPmt( mProgramNumbers[ i ], mPayloadPids[ i * 2 + 1 ], 0, 0 ) );
+        }
+    }
+
+    public int getProgramFilter()
+    {
+        return mProgramFilter;
+    }
+
+    /**
+     * The VCT short_name of a program, which is at most 7 characters
+     */
+    public static String shortName( int aChannelNumber, int aProgramNumber )
+    {
+        String theName = "EMU" + aChannelNumber + "-" + aProgramNumber;
+        return theName.length() > 7 ? theName.substring( 0, 7 ) : theName;
+    }
+
+    /**
+     * Adds a terrestrial VCT on the PSIP PID listing every program as aChannelNumber.program with
+     * its shortName, access controlled as streaminfo reports them encrypted
+     *
+     * @param aEncryptedEvery one in this many programs is access controlled, 0 for none
+     */
+    public synchronized void setVirtualChannels( int aChannelNumber, int aEncryptedEvery )
+    {
+        byte[][] theTvct = sectionPackets( PSIP_PID, buildTvct( aChannelNumber, aEncryptedEvery ) );
+        byte[][] thePsiPackets = Arrays.copyOf( mPsiPackets, 1 + mProgramNumbers.length + theTvct.length );
+        System.arraycopy( theTvct, 0, thePsiPackets, 1 + mProgramNumbers.length, theTvct.length );
+        mPsiPackets = thePsiPackets;
+    }
+
+    public static String eventTitle( int aProgramNumber, int aEvent, int aVersion )
+    {
+        return "Show " + aProgramNumber + "." + aEvent + ( aVersion > 0 ? " v" + aVersion : "" );
+    }
+
+    public static String eventText( int aProgramNumber, int aEvent )
+    {
+        return "Episode " + aEvent + " on program " + aProgramNumber;
+    }
+
+    /**
+     * Adds a program guide: an MGT listing EIT-0 and ETT-0, an STT, and for every program, as
+     * source_id the program number, GUIDE_EVENTS events of GUIDE_EVENT_SECONDS each from
+     * aStartTime titled by eventTitle, every one with an ETT of its eventText. Replaces the guide
+     * set before, a new aVersion is what a broadcaster's guide change looks like.
+     *
+     * @param aStartTime UTC seconds since 1970 of the first event
+     */
+    public synchronized void setGuide( long aStartTime, int aVersion )
+    {
+        long theGpsStart = aStartTime - GPS_EPOCH_SECONDS + GPS_UTC_OFFSET;
+        List< byte[] > thePackets = new ArrayList< byte[] >();
+        thePackets.addAll( Arrays.asList( sectionPackets( PSIP_PID, buildMgt( aVersion ) ) ) );
+        thePackets.add( sectionPacket( PSIP_PID, buildStt( theGpsStart ) ) );
+        for( int theProgram : mProgramNumbers )
+        {
+            thePackets.addAll( Arrays.asList( sectionPackets( EIT0_PID, buildEit( theProgram, theGpsStart, aVersion ) ) ) );
+            for( int theEvent = 0; theEvent < GUIDE_EVENTS; theEvent++ )
+            {
+                thePackets.addAll( Arrays.asList( sectionPackets( ETT0_PID, buildEtt( theProgram, theEvent, aVersion ) ) ) );
+            }
+        }
+        mGuidePackets = thePackets.toArray( new byte[ thePackets.size() ][] );
+    }
+
+    public static int pmtPid( int aProgramNumber )
+    {
+        return 0x0030 + aProgramNumber * 0x10;
+    }
+
+    public static int videoPid( int aProgramNumber )
+    {
+        return pmtPid( aProgramNumber ) + 1;
+    }
+
+    public static int audioPid( int aProgramNumber )
+    {
+        return pmtPid( aProgramNumber ) + 4;
+    }
+
+    /**
+     * The first PID of the streams addStreams lists, clear of every program's own PIDs
+     */
+    public static int extraStreamPid( int aProgramNumber )
+    {
+        return 0x1000 + aProgramNumber * 0x40;
+    }
+
+    /**
+     * @param aPidFilter the PIDs to send, null for all of them
+     */
+    public synchronized void setPidFilter( boolean[] aPidFilter )
+    {
+        mPidFilter = aPidFilter;
+    }
+
+    /**
+     * Moves a program's audio to aPid and sends its PMT with the next version, as a broadcaster
+     * changing the program's streams does
+     */
+    public synchronized void changeAudioPid( int aProgramNumber, int aPid )
+    {
+        for( int i = 0; i < mProgramNumbers.length; i++ )
+        {
+            if( mProgramNumbers[ i ] == aProgramNumber )
+            {
+                mPayloadPids[ i * 2 + 1 ] = aPid;
+                mPmtVersions[ i ] = ( mPmtVersions[ i ] + 1 ) & 0x1F;
+                mPsiPackets[ 1 + i ] = sectionPacket( pmtPid( aProgramNumber ), buildPmt( aProgramNumber, aPid, mExtraStreams[ i ], mPmtVersions[ i ] ) );
+            }
+        }
+    }
+
+    /**
+     * Lists aCount more audio streams in a program's PMT, from extraStreamPid, with the next
+     * version. Only the PMT lists them, no packets are sent on them.
+     */
+    public synchronized void addStreams( int aProgramNumber, int aCount )
+    {
+        for( int i = 0; i < mProgramNumbers.length; i++ )
+        {
+            if( mProgramNumbers[ i ] == aProgramNumber )
+            {
+                mExtraStreams[ i ] += aCount;
+                mPmtVersions[ i ] = ( mPmtVersions[ i ] + 1 ) & 0x1F;
+                mPsiPackets[ 1 + i ] = sectionPacket( pmtPid( aProgramNumber ), buildPmt( aProgramNumber, mPayloadPids[ i * 2 + 1 ], mExtraStreams[ i ], mPmtVersions[ i ] ) );
+            }
+        }
+    }
+
+    /**
+     * Writes the next DATAGRAM_SIZE bytes of the stream, skipping what the PID filter drops
+     */
+    public synchronized void fill( byte[] aDatagram, int aOffset )
+    {
+        while( !nextPacket( aDatagram, aOffset ) )
+        {
+        }
+    }
+
+    /**
+     * Runs the multiplex on by one packet, adding it to the datagram at aOffset if the PID filter passes it
+     *
+     * @return true when that completes the datagram, the next call starts another
+     */
+    public synchronized boolean nextPacket( byte[] aDatagram, int aOffset )
+    {
+        int thePacketOffset = aOffset + mDatagramPackets * PACKET_SIZE;
+        int thePsiSlot = (int) ( mPacketCount % PSI_INTERVAL );
+        int thePid;
+
+        if( thePsiSlot < mPsiPackets.length + mGuidePackets.length )
+        {
+            byte[] thePsi = thePsiSlot < mPsiPackets.length ? mPsiPackets[ thePsiSlot ] : mGuidePackets[ thePsiSlot - mPsiPackets.length ];
+            System.arraycopy( thePsi, 0, aDatagram, thePacketOffset, PACKET_SIZE );
+            setContinuity( aDatagram, thePacketOffset );
+            thePid = ( ( thePsi[ 1 ] & 0x1F ) << 8 ) | ( thePsi[ 2 ] & 0xFF );
+        }
+        else
+        {
+            thePid = mPayloadPids[ mPayloadIndex ];
+            mPayloadIndex = ( mPayloadIndex + 1 ) % mPayloadPids.length;
+            writePayloadPacket( aDatagram, thePacketOffset, thePid );
+        }
+
+        mPacketCount++;
+
+        //a dropped packet is overwritten by the next one
+        if( mPidFilter != null && !mPidFilter[ thePid ] )
+        {
+            return false;
+        }
+
+        mDatagramPackets++;
+        if( mDatagramPackets < PACKETS_PER_DATAGRAM )
+        {
+            return false;
+        }
+        mDatagramPackets = 0;
+        return true;
+    }
+
+    private void writePayloadPacket( byte[] aBuffer, int aOffset, int aPid )
+    {
+        aBuffer[ aOffset ] = 0x47;
+        aBuffer[ aOffset + 1 ] = (byte) ( ( aPid >> 8 ) & 0x1F );
+        aBuffer[ aOffset + 2 ] = (byte) aPid;
+        aBuffer[ aOffset + 3 ] = 0x10;
+        setContinuity( aBuffer, aOffset );
+
+        byte theFill = (byte) mPacketCount;
+        Arrays.fill( aBuffer, aOffset + 4, aOffset + PACKET_SIZE, theFill );
+    }
+
+    private void setContinuity( byte[] aBuffer, int aOffset )
+    {
+        int thePid = ( ( aBuffer[ aOffset + 1 ] & 0x1F ) << 8 ) | ( aBuffer[ aOffset + 2 ] & 0xFF );
+        byte theCounter = mContinuity[ thePid ];
+        aBuffer[ aOffset + 3 ] = (byte) ( ( aBuffer[ aOffset + 3 ] & 0xF0 ) | theCounter );
+        mContinuity[ thePid ] = (byte) ( ( theCounter + 1 ) & 0x0F );
+    }
+
+    private byte[] buildPat()
+    {
+        byte[] theSection = new byte[ 8 + mProgramNumbers.length * 4 + 4 ];
+        int thePos = writeLongSectionHeader( theSection, 0x00, mTsid, 0 );
+
+        for( int theProgram : mProgramNumbers )
+        {
+            int thePid = pmtPid( theProgram );
+            theSection[ thePos++ ] = (byte) ( theProgram >> 8 );
+            theSection[ thePos++ ] = (byte) theProgram;
+            theSection[ thePos++ ] = (byte) ( 0xE0 | ( thePid >> 8 ) );
+            theSection[ thePos++ ] = (byte) thePid;
+        }
+
+        return finishSection( theSection, thePos );
+    }
+
+    private byte[] buildPmt( int aProgramNumber, int aAudioPid, int aExtraStreams, int aVersion )
+    {
+        byte[] theSection = new byte[ 12 + ( 2 + aExtraStreams ) * 5 + 4 ];
+        int thePos = writeLongSectionHeader( theSection, 0x02, aProgramNumber, aVersion );
+
+        int theVideoPid = videoPid( aProgramNumber );
+        theSection[ thePos++ ] = (byte) ( 0xE0 | ( theVideoPid >> 8 ) ); //PCR pid
+        theSection[ thePos++ ] = (byte) theVideoPid;
+        theSection[ thePos++ ] = (byte) 0xF0; //no program descriptors
+        theSection[ thePos++ ] = 0x00;
+
+        thePos = writeStream( theSection, thePos, 0x02, theVideoPid ); //MPEG-2 video
+        thePos = writeStream( theSection, thePos, 0x81, aAudioPid ); //AC-3 audio
+        for( int i = 0; i < aExtraStreams; i++ )
+        {
+            thePos = writeStream( theSection, thePos, 0x81, extraStreamPid( aProgramNumber ) + i );
+        }
+
+        return finishSection( theSection, thePos );
+    }
+
+    private byte[] buildTvct( int aChannelNumber, int aEncryptedEvery )
+    {
+        byte[] theSection = new byte[ 10 + mProgramNumbers.length * 32 + 2 + 4 ];
+        int thePos = writeLongSectionHeader( theSection, 0xC8, mTsid, 0 );
+        theSection[ thePos++ ] = 0x00; //protocol version
+        theSection[ thePos++ ] = (byte) mProgramNumbers.length;
+
+        for( int theProgram : mProgramNumbers )
+        {
+            String theName = shortName( aChannelNumber, theProgram );
+            for( int i = 0; i < 7; i++ )
+            {
+                char theChar = i < theName.length() ? theName.charAt( i ) : 0;
+                theSection[ thePos++ ] = (byte) ( theChar >> 8 );
+                theSection[ thePos++ ] = (byte) theChar;
+            }
+
+            boolean theEncrypted = aEncryptedEvery > 0 && theProgram % aEncryptedEvery == 0;
+            theSection[ thePos++ ] = (byte) ( 0xF0 | ( aChannelNumber >> 6 ) ); //major
+            theSection[ thePos++ ] = (byte) ( ( aChannelNumber << 2 ) | ( theProgram >> 8 ) ); //minor
+            theSection[ thePos++ ] = (byte) theProgram;
+            theSection[ thePos++ ] = 0x04; //8vsb
+            thePos += 4; //carrier frequency, 0 as A/65 recommends
+            theSection[ thePos++ ] = (byte) ( mTsid >> 8 );
+            theSection[ thePos++ ] = (byte) mTsid;
+            theSection[ thePos++ ] = (byte) ( theProgram >> 8 );
+            theSection[ thePos++ ] = (byte) theProgram;
+            theSection[ thePos++ ] = (byte) ( 0x0D | ( theEncrypted ? 0x20 : 0x00 ) ); //ETM location 0, hide_guide 0
+            theSection[ thePos++ ] = (byte) 0xC2; //digital television
+            theSection[ thePos++ ] = (byte) ( theProgram >> 8 ); //source id
+            theSection[ thePos++ ] = (byte) theProgram;
+            theSection[ thePos++ ] = (byte) 0xFC; //no descriptors
+            theSection[ thePos++ ] = 0x00;
+        }
+
+        theSection[ thePos++ ] = (byte) 0xFC; //no additional descriptors
+        theSection[ thePos++ ] = 0x00;
+
+        return finishSection( theSection, thePos );
+    }
+
+    private byte[] buildMgt( int aVersion )
+    {
+        byte[] theSection = new byte[ 11 + 3 * 11 + 2 + 4 ];
+        int thePos = writeLongSectionHeader( theSection, 0xC7, 0x0000, aVersion );
+        theSection[ thePos++ ] = 0x00; //protocol version
+        theSection[ thePos++ ] = 0x00;
+        theSection[ thePos++ ] = 3; //tables defined
+
+        thePos = writeMgtTable( theSection, thePos, 0x0000, PSIP_PID, 0 ); //the TVCT
+        thePos = writeMgtTable( theSection, thePos, 0x0100, EIT0_PID, aVersion );
+        thePos = writeMgtTable( theSection, thePos, 0x0200, ETT0_PID, aVersion );
+
+        theSection[ thePos++ ] = (byte) 0xF0; //no descriptors
+        theSection[ thePos++ ] = 0x00;
+
+        return finishSection( theSection, thePos );
+    }
+
+    private static int writeMgtTable( byte[] aSection, int aPos, int aTableType, int aPid, int aVersion )
+    {
+        aSection[ aPos++ ] = (byte) ( aTableType >> 8 );
+        aSection[ aPos++ ] = (byte) aTableType;
+        aSection[ aPos++ ] = (byte) ( 0xE0 | ( aPid >> 8 ) );
+        aSection[ aPos++ ] = (byte) aPid;
+        aSection[ aPos++ ] = (byte) ( 0xE0 | aVersion );
+        aPos += 4; //number_bytes, nothing uses it
+        aSection[ aPos++ ] = (byte) 0xF0; //no descriptors
+        aSection[ aPos++ ] = 0x00;
+        return aPos;
+    }
+
+    private byte[] buildStt( long aGpsTime )
+    {
+        byte[] theSection = new byte[ 8 + 1 + 4 + 1 + 2 + 2 + 4 ];
+        int thePos = writeLongSectionHeader( theSection, 0xCD, 0x0000, 0 );
+        theSection[ thePos++ ] = 0x00; //protocol version
+        thePos = writeInt( theSection, thePos, (int) aGpsTime );
+        theSection[ thePos++ ] = GPS_UTC_OFFSET;
+        theSection[ thePos++ ] = 0x00; //daylight saving
+        theSection[ thePos++ ] = 0x00;
+        theSection[ thePos++ ] = (byte) 0xF0; //no descriptors
+        theSection[ thePos++ ] = 0x00;
+        return finishSection( theSection, thePos );
+    }
+
+    private byte[] buildEit( int aProgramNumber, long aGpsStart, int aVersion )
+    {
+        byte[] theSection = new byte[ 10 + GUIDE_EVENTS * ( 12 + 8 + 32 ) + 4 ];
+        int thePos = writeLongSectionHeader( theSection, 0xCB, aProgramNumber, aVersion );
+        theSection[ thePos++ ] = 0x00; //protocol version
+        theSection[ thePos++ ] = GUIDE_EVENTS;
+
+        for( int theEvent = 0; theEvent < GUIDE_EVENTS; theEvent++ )
+        {
+            int theEventId = theEvent + 1;
+            theSection[ thePos++ ] = (byte) ( 0xC0 | ( theEventId >> 8 ) );
+            theSection[ thePos++ ] = (byte) theEventId;
+            thePos = writeInt( theSection, thePos, (int) ( aGpsStart + theEvent * GUIDE_EVENT_SECONDS ) );
+            theSection[ thePos++ ] = (byte) ( 0xD0 | ( GUIDE_EVENT_SECONDS >> 16 ) ); //ETM in the ETT PID
+            theSection[ thePos++ ] = (byte) ( GUIDE_EVENT_SECONDS >> 8 );
+            theSection[ thePos++ ] = (byte) GUIDE_EVENT_SECONDS;
+
+            byte[] theTitle = multipleString( eventTitle( aProgramNumber, theEvent, aVersion ) );
+            theSection[ thePos++ ] = (byte) theTitle.length;
+            System.arraycopy( theTitle, 0, theSection, thePos, theTitle.length );
+            thePos += theTitle.length;
+
+            theSection[ thePos++ ] = (byte) 0xF0; //no descriptors
+            theSection[ thePos++ ] = 0x00;
+        }
+
+        return finishSection( theSection, thePos );
+    }
+
+    private byte[] buildEtt( int aProgramNumber, int aEvent, int aVersion )
+    {
+        byte[] theText = multipleString( eventText( aProgramNumber, aEvent ) );
+        byte[] theSection = new byte[ 8 + 1 + 4 + theText.length + 4 ];
+        int thePos = writeLongSectionHeader( theSection, 0xCC, 0x0000, aVersion );
+        theSection[ thePos++ ] = 0x00; //protocol version
+        thePos = writeInt( theSection, thePos, ( aProgramNumber << 16 ) | ( ( aEvent + 1 ) << 2 ) | 0x02 );
+        System.arraycopy( theText, 0, theSection, thePos, theText.length );
+        thePos += theText.length;
+        return finishSection( theSection, thePos );
+    }
+
+    /**
+     * An English multiple_string_structure of one uncompressed Latin-1 segment
+     */
+    private static byte[] multipleString( String aText )
+    {
+        byte[] theText = aText.getBytes( Charset.forName( "ISO-8859-1" ) );
+        byte[] theString = new byte[ 8 + theText.length ];
+        theString[ 0 ] = 1; //number of strings
+        theString[ 1 ] = 'e';
+        theString[ 2 ] = 'n';
+        theString[ 3 ] = 'g';
+        theString[ 4 ] = 1; //number of segments
+        theString[ 5 ] = 0x00; //no compression
+        theString[ 6 ] = 0x00; //Latin-1
+        theString[ 7 ] = (byte) theText.length;
+        System.arraycopy( theText, 0, theString, 8, theText.length );
+        return theString;
+    }
+
+    private static int writeInt( byte[] aBuffer, int aPos, int aValue )
+    {
+        aBuffer[ aPos++ ] = (byte) ( aValue >> 24 );
+        aBuffer[ aPos++ ] = (byte) ( aValue >> 16 );
+        aBuffer[ aPos++ ] = (byte) ( aValue >> 8 );
+        aBuffer[ aPos++ ] = (byte) aValue;
+        return aPos;
+    }
+
+    private static int writeStream( byte[] aSection, int aPos, int aStreamType, int aPid )
+    {
+        aSection[ aPos++ ] = (byte) aStreamType;
+        aSection[ aPos++ ] = (byte) ( 0xE0 | ( aPid >> 8 ) );
+        aSection[ aPos++ ] = (byte) aPid;
+        aSection[ aPos++ ] = (byte) 0xF0;
+        aSection[ aPos++ ] = 0x00;
+        return aPos;
+    }
+
+    private static int writeLongSectionHeader( byte[] aSection, int aTableId, int aTableIdExtension, int aVersion )
+    {
+        aSection[ 0 ] = (byte) aTableId;
+        //section length is filled in by finishSection
+        aSection[ 3 ] = (byte) ( aTableIdExtension >> 8 );
+        aSection[ 4 ] = (byte) aTableIdExtension;
+        aSection[ 5 ] = (byte) ( 0xC1 | ( aVersion << 1 ) ); //current
+        aSection[ 6 ] = 0x00;
+        aSection[ 7 ] = 0x00;
+        return 8;
+    }
+
+    private static byte[] finishSection( byte[] aSection, int aPos )
+    {
+        int theSectionLength = aPos + 4 - 3;
+        aSection[ 1 ] = (byte) ( 0xB0 | ( theSectionLength >> 8 ) );
+        aSection[ 2 ] = (byte) theSectionLength;
+
+        int theCrc = mpegCrc( aSection, 0, aPos );
+        aSection[ aPos++ ] = (byte) ( theCrc >> 24 );
+        aSection[ aPos++ ] = (byte) ( theCrc >> 16 );
+        aSection[ aPos++ ] = (byte) ( theCrc >> 8 );
+        aSection[ aPos++ ] = (byte) theCrc;
+
+        return Arrays.copyOf( aSection, aPos );
+    }
+
+    /**
+     * Puts a short section in a single packet with the payload unit start flag set
+     */
+    static byte[] sectionPacket( int aPid, byte[] aSection )
+    {
+        return sectionPackets( aPid, aSection )[ 0 ];
+    }
+
+    /**
+     * Splits a section over as many packets as it takes, the first with the payload unit start
+     * flag set. The continuity counters are set as the packets are sent.
+     */
+    static byte[][] sectionPackets( int aPid, byte[] aSection )
+    {
+        int theFirstPayload = PACKET_SIZE - 5;
+        int theCount = 1 + Math.max( 0, ( aSection.length - theFirstPayload + PACKET_SIZE - 5 ) / ( PACKET_SIZE - 4 ) );
+        byte[][] thePackets = new byte[ theCount ][ PACKET_SIZE ];
+
+        int theOffset = 0;
+        for( int i = 0; i < theCount; i++ )
+        {
+            byte[] thePacket = thePackets[ i ];
+            Arrays.fill( thePacket, (byte) 0xFF );
+
+            thePacket[ 0 ] = 0x47;
+            thePacket[ 1 ] = (byte) ( ( i == 0 ? 0x40 : 0x00 ) | ( ( aPid >> 8 ) & 0x1F ) );
+            thePacket[ 2 ] = (byte) aPid;
+            thePacket[ 3 ] = 0x10;
+
+            int thePayload = 4;
+            if( i == 0 )
+            {
+                thePacket[ thePayload++ ] = 0x00; //pointer field
+            }
+
+            int theSize = Math.min( PACKET_SIZE - thePayload, aSection.length - theOffset );
+            System.arraycopy( aSection, theOffset, thePacket, thePayload, theSize );
+            theOffset += theSize;
+        }
+
+        return thePackets;
+    }
+
+    /**
+     * The CRC-32 used by MPEG-2 sections, polynomial 0x04C11DB7 with no reflection
+     */
+    static int mpegCrc( byte[] aBuffer, int aOffset, int aLength )
+    {
+        int theCrc = 0xFFFFFFFF;
+        for( int i = aOffset; i < aOffset + aLength; i++ )
+        {
+            theCrc ^= ( aBuffer[ i ] & 0xFF ) << 24;
+            for( int theBit = 0; theBit < 8; theBit++ )
+            {
+                theCrc = ( theCrc & 0x80000000 ) != 0 ? ( theCrc << 1 ) ^ 0x04C11DB7 : theCrc << 1;
+            }
+        }
+        return theCrc;
+    }
+}
@@ -0,0 +1,273 @@
+package com.zaren.hdhomerunsignalmeterlib.emulator;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+
+/**
+ * One emulated HDHomeRun bound to its own loopback address, answering discovery and get/set
+ * requests on port 65001 like the real device.
+ */
+public class VirtualDevice
+{
+    public static final int HDHOMERUN_PORT = 65001;
+
+    private static final int[] ID_LOOKUP = { 0xA, 0x5, 0xF, 0x6, 0x7, 0xC, 0x1, 0xB, 0x9, 0x2, 0x8, 0xD, 0x4, 0x3, 0xE, 0x0 };
+
+    private final HdhomerunEmulator mEmulator;
+    private final EmulatorConfig mConfig;
+    private final int mDeviceId;
+    private final InetAddress mAddress;
+    private final VirtualTuner[] mTuners;
+
+    private DatagramChannel mDiscoverChannel;
+    private ServerSocketChannel mControlChannel;
+    private DatagramChannel mStreamChannel;
+    private DatagramChannel mMulticastChannel;
+
+    public VirtualDevice( HdhomerunEmulator aEmulator, EmulatorConfig aConfig, int aIndex, InetAddress aAddress )
+    {
+        mEmulator = aEmulator;
+        mConfig = aConfig;
+        mAddress = aAddress;
+        mDeviceId = deviceId( aConfig.deviceIdPrefix, aIndex + 1 );
+
+        mTuners = new VirtualTuner[ aConfig.tunerCount ];
+        for( int i = 0; i < mTuners.length; i++ )
+        {
+            mTuners[ i ] = new VirtualTuner( this, i, aConfig );
+        }
+    }
+
+    /**
+     * Builds an id that passes hdhomerun_discover_validate_device_id, the low nibble is the checksum
+     */
+    public static int deviceId( int aPrefix, int aSerial )
+    {
+        int theId = ( aPrefix << 20 ) | ( ( aSerial & 0xFFFF ) << 4 );
+
+        int theChecksum = 0;
+        theChecksum ^= ID_LOOKUP[ ( theId >>> 28 ) & 0x0F ];
+        theChecksum ^= ( theId >>> 24 ) & 0x0F;
+        theChecksum ^= ID_LOOKUP[ ( theId >>> 20 ) & 0x0F ];
+        theChecksum ^= ( theId >>> 16 ) & 0x0F;
+        theChecksum ^= ID_LOOKUP[ ( theId >>> 12 ) & 0x0F ];
+        theChecksum ^= ( theId >>> 8 ) & 0x0F;
+        theChecksum ^= ID_LOOKUP[ ( theId >>> 4 ) & 0x0F ];
+
+        return theId | theChecksum;
+    }
+
+    public HdhomerunEmulator getEmulator()
+    {
+        return mEmulator;
+    }
+
+    public int getDeviceId()
+    {
+        return mDeviceId;
+    }
+
+    /**
+     * @return the id the way the library names devices, e.g. 1310001D
+     */
+    public String getDeviceIdString()
+    {
+        return String.format( "%08X", mDeviceId );
+    }
+
+    public InetAddress getAddress()
+    {
+        return mAddress;
+    }
+
+    public VirtualTuner getTuner( int aIndex )
+    {
+        return mTuners[ aIndex ];
+    }
+
+    public int getTunerCount()
+    {
+        return mTuners.length;
+    }
+
+    DatagramChannel getStreamChannel()
+    {
+        return mStreamChannel;
+    }
+
+    /**
+     * Sends to multicast targets. It isn't bound to the device's loopback address, which has no
+     * route to the groups, so the datagrams go out the default interface and loop back.
+     */
+    DatagramChannel getMulticastChannel()
+    {
+        return mMulticastChannel;
+    }
+
+    DatagramChannel getDiscoverChannel()
+    {
+        return mDiscoverChannel;
+    }
+
+    void open( Selector aSelector ) throws IOException
+    {
+        InetSocketAddress theAddress = new InetSocketAddress( mAddress, HDHOMERUN_PORT );
+
+        mDiscoverChannel = DatagramChannel.open();
+        mDiscoverChannel.socket().setReuseAddress( true );
+        mDiscoverChannel.socket().bind( theAddress );
+        mDiscoverChannel.configureBlocking( false );
+        mDiscoverChannel.register( aSelector, SelectionKey.OP_READ, this );
+
+        mControlChannel = ServerSocketChannel.open();
+        mControlChannel.socket().setReuseAddress( true );
+        mControlChannel.socket().bind( theAddress, 16 );
+        mControlChannel.configureBlocking( false );
+        mControlChannel.register( aSelector, SelectionKey.OP_ACCEPT, this );
+
+        mStreamChannel = DatagramChannel.open();
+        mStreamChannel.socket().bind( new InetSocketAddress( mAddress, 0 ) );
+
+        mMulticastChannel = DatagramChannel.open();
+    }
+
+    void close()
+    {
+        for( VirtualTuner theTuner : mTuners )
+        {
+            theTuner.stopStream();
+        }
+
+        closeQuietly( mDiscoverChannel );
+        closeQuietly( mControlChannel );
+        closeQuietly( mStreamChannel );
+        closeQuietly( mMulticastChannel );
+    }
+
+    private static void closeQuietly( java.nio.channels.Channel aChannel )
+    {
+        if( aChannel == null )
+        {
+            return;
+        }
+        try
+        {
+            aChannel.close();
+        }
+        catch( IOException e )
+        {
+            //nothing to do
+        }
+    }
+
+    boolean matchesDiscover( long aDeviceType, long aDeviceId )
+    {
+        if( aDeviceType != HdhomerunFrame.DEVICE_TYPE_WILDCARD && aDeviceType != HdhomerunFrame.DEVICE_TYPE_TUNER )
+        {
+            return false;
+        }
+        return aDeviceId == HdhomerunFrame.DEVICE_ID_WILDCARD || aDeviceId == ( mDeviceId & 0xFFFFFFFFL );
+    }
+
+    byte[] discoverReply()
+    {
+        return new HdhomerunFrame( HdhomerunFrame.TYPE_DISCOVER_RPY )
+                .writeU32( HdhomerunFrame.TAG_DEVICE_TYPE, HdhomerunFrame.DEVICE_TYPE_TUNER )
+                .writeU32( HdhomerunFrame.TAG_DEVICE_ID, mDeviceId & 0xFFFFFFFFL )
+                .writeU8( HdhomerunFrame.TAG_TUNER_COUNT, mTuners.length )
+                .seal();
+    }
+
+    /**
+     * Handles one get/set request
+     *
+     * @param aValue null for a get
+     * @param aLockkey 0 when the request has no lockkey tag
+     */
+    byte[] getSet( String aName, String aValue, long aLockkey, InetAddress aClient )
+    {
+        HdhomerunFrame theReply = new HdhomerunFrame( HdhomerunFrame.TYPE_GETSET_RPY );
+        theReply.writeString( HdhomerunFrame.TAG_GETSET_NAME, aName );
+
+        try
+        {
+            String theResult = lookup( aName, aValue, aLockkey, aClient );
+            if( theResult == null )
+            {
+                theReply.writeString( HdhomerunFrame.TAG_ERROR_MESSAGE, "ERROR: unknown getset variable" );
+            }
+            else
+            {
+                theReply.writeString( HdhomerunFrame.TAG_GETSET_VALUE, theResult );
+            }
+        }
+        catch( IllegalArgumentException e )
+        {
+            theReply.writeString( HdhomerunFrame.TAG_ERROR_MESSAGE, e.getMessage() );
+        }
+
+        return theReply.seal();
+    }
+
+    private String lookup( String aName, String aValue, long aLockkey, InetAddress aClient )
+    {
+        if( aName.startsWith( "/tuner" ) )
+        {
+            int theSlash = aName.indexOf( '/', 6 );
+            if( theSlash < 0 )
+            {
+                return null;
+            }
+
+            int theTuner;
+            try
+            {
+                theTuner = Integer.parseInt( aName.substring( 6, theSlash ) );
+            }
+            catch( NumberFormatException e )
+            {
+                return null;
+            }
+            if( theTuner < 0 || theTuner >= mTuners.length )
+            {
+                return null;
+            }
+
+            return mTuners[ theTuner ].getSet( aName.substring( theSlash + 1 ), aValue, aLockkey, aClient );
+        }
+
+        if( aValue != null )
+        {
+            //the system variables are read only here
+            return aName.equals( "/sys/restart" ) ? "self" : null;
+        }
+
+        if( aName.equals( "/sys/model" ) || aName.equals( "/sys/hwmodel" ) )
+        {
+            return mConfig.model;
+        }
+        else if( aName.equals( "/sys/version" ) )
+        {
+            return mConfig.firmwareVersion;
+        }
+        else if( aName.equals( "/sys/features" ) )
+        {
+            return ChannelMaps.features();
+        }
+        else if( aName.equals( "/sys/copyright" ) )
+        {
+            return "emulated device";
+        }
+        else if( aName.equals( "/card/status" ) )
+        {
+            return "card=ready auth=success oob=success act=success";
+        }
+
+        return null;
+    }
+}
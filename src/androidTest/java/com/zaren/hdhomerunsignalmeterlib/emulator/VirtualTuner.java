@@ -0,0 +1,612 @@
+package com.zaren.hdhomerunsignalmeterlib.emulator;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One tuner of a VirtualDevice, handles the /tunerN/ variables and streams to the target
+ */
+public class VirtualTuner
+{
+    private static final long STREAM_TICK_MS = 20;
+    private static final int RTP_HEADER_SIZE = 12;
+
+    private final VirtualDevice mDevice;
+    private final int mIndex;
+    private final EmulatorConfig mConfig;
+    private final Random mRandom;
+
+    private String mChannelMap;
+    private String mChannel = "none";
+    private int mChannelNumber = 0;
+    private String mModulation = "none";
+    private long mTuneTime = 0;
+    private int mProgram = 0;
+    private String mTarget = "none";
+    private String mFilter = "0x0000-0x1FFF";
+    private boolean[] mPidFilter;
+    private TransportStreamGenerator mGenerator;
+    private long mLockkey = 0;
+    private InetAddress mLockOwner;
+
+    private ScheduledFuture< ? > mStreamTask;
+    private long mDatagramsSent = 0;
+    private long mDatagramsDropped = 0;
+
+    public VirtualTuner( VirtualDevice aDevice, int aIndex, EmulatorConfig aConfig )
+    {
+        mDevice = aDevice;
+        mIndex = aIndex;
+        mConfig = aConfig;
+        mChannelMap = aConfig.defaultChannelMap;
+        mRandom = new Random( aConfig.randomSeed ^ ( (long) aDevice.getDeviceId() << 8 ) ^ aIndex );
+    }
+
+    public int getIndex()
+    {
+        return mIndex;
+    }
+
+    public synchronized long getDatagramsSent()
+    {
+        return mDatagramsSent;
+    }
+
+    public synchronized long getDatagramsDropped()
+    {
+        return mDatagramsDropped;
+    }
+
+    public synchronized boolean isLockkeyHeld()
+    {
+        return mLockkey != 0;
+    }
+
+    /**
+     * @return the value, or null when the variable is unknown
+     * @throws IllegalArgumentException with the error message sent back to the client
+     */
+    synchronized String getSet( String aVariable, String aValue, long aLockkey, InetAddress aClient )
+    {
+        if( aValue != null && !aVariable.equals( "lockkey" ) && mLockkey != 0 && aLockkey != mLockkey )
+        {
+            throw new IllegalArgumentException( "ERROR: resource locked by " + mLockOwner.getHostAddress() );
+        }
+
+        if( aVariable.equals( "status" ) )
+        {
+            return status();
+        }
+        else if( aVariable.equals( "streaminfo" ) )
+        {
+            return streamInfo();
+        }
+        else if( aVariable.equals( "channel" ) )
+        {
+            if( aValue != null )
+            {
+                setChannel( aValue );
+            }
+            return mChannel;
+        }
+        else if( aVariable.equals( "channelmap" ) )
+        {
+            if( aValue != null )
+            {
+                if( ChannelMaps.channelRanges( aValue ) == null )
+                {
+                    throw new IllegalArgumentException( "ERROR: invalid channelmap" );
+                }
+                mChannelMap = aValue;
+            }
+            return mChannelMap;
+        }
+        else if( aVariable.equals( "program" ) )
+        {
+            if( aValue != null )
+            {
+                mProgram = parseProgram( aValue );
+                restartStream();
+            }
+            return Integer.toString( mProgram );
+        }
+        else if( aVariable.equals( "target" ) )
+        {
+            if( aValue != null )
+            {
+                mTarget = aValue;
+                restartStream();
+            }
+            return mTarget;
+        }
+        else if( aVariable.equals( "filter" ) )
+        {
+            if( aValue != null )
+            {
+                mPidFilter = parseFilter( aValue );
+                mFilter = aValue;
+                if( mGenerator != null )
+                {
+                    mGenerator.setPidFilter( mPidFilter );
+                }
+            }
+            return mFilter;
+        }
+        else if( aVariable.equals( "lockkey" ) )
+        {
+            if( aValue != null )
+            {
+                setLockkey( aValue, aLockkey, aClient );
+            }
+            return mLockkey == 0 ? "none" : mLockOwner.getHostAddress();
+        }
+        else if( aVariable.equals( "vstatus" ) )
+        {
+            return "vch=none name=none auth=none cci=none cgms=none";
+        }
+        else if( aVariable.equals( "plotsample" ) )
+        {
+            return plotSample();
+        }
+        else if( aVariable.equals( "debug" ) )
+        {
+            return "tun: ch=" + mChannel + " lock=" + lockString() + "\nts: bps=" + bitsPerSecond() + "\n";
+        }
+
+        return null;
+    }
+
+    private void setChannel( String aValue )
+    {
+        stopStream();
+
+        if( aValue.equals( "none" ) )
+        {
+            mChannel = "none";
+            mChannelNumber = 0;
+            mModulation = "none";
+            return;
+        }
+
+        int theColon = aValue.indexOf( ':' );
+        if( theColon < 0 )
+        {
+            throw new IllegalArgumentException( "ERROR: invalid channel" );
+        }
+
+        String theModulation = aValue.substring( 0, theColon );
+        int theNumber;
+        try
+        {
+            theNumber = Integer.parseInt( aValue.substring( theColon + 1 ) );
+        }
+        catch( NumberFormatException e )
+        {
+            throw new IllegalArgumentException( "ERROR: invalid channel" );
+        }
+
+        if( theNumber > 1000 )
+        {
+            theNumber = ChannelMaps.frequencyToNumber( mChannelMap, theNumber );
+        }
+        else if( ChannelMaps.numberToFrequency( mChannelMap, theNumber ) == 0 )
+        {
+            theNumber = 0;
+        }
+
+        if( theNumber == 0 )
+        {
+            throw new IllegalArgumentException( "ERROR: invalid channel" );
+        }
+
+        mChannel = aValue;
+        mChannelNumber = theNumber;
+        if( theModulation.startsWith( "auto" ) )
+        {
+            mModulation = mChannelMap.endsWith( "bcast" ) ? "8vsb" : "qam256";
+        }
+        else
+        {
+            mModulation = theModulation;
+        }
+        mProgram = 0;
+        mTuneTime = System.currentTimeMillis();
+
+        restartStream();
+    }
+
+    private void setLockkey( String aValue, long aLockkey, InetAddress aClient )
+    {
+        if( aValue.equals( "force" ) )
+        {
+            mLockkey = 0;
+            mLockOwner = null;
+        }
+        else if( aValue.equals( "none" ) )
+        {
+            if( mLockkey != 0 && aLockkey != mLockkey )
+            {
+                throw new IllegalArgumentException( "ERROR: resource locked by " + mLockOwner.getHostAddress() );
+            }
+            mLockkey = 0;
+            mLockOwner = null;
+        }
+        else
+        {
+            long theKey;
+            try
+            {
+                theKey = Long.parseLong( aValue );
+            }
+            catch( NumberFormatException e )
+            {
+                throw new IllegalArgumentException( "ERROR: invalid lockkey" );
+            }
+
+            if( mLockkey != 0 && aLockkey != mLockkey )
+            {
+                throw new IllegalArgumentException( "ERROR: resource locked by " + mLockOwner.getHostAddress() );
+            }
+            mLockkey = theKey;
+            mLockOwner = aClient;
+        }
+    }
+
+    /**
+     * Parses the PIDs and PID ranges of /tunerN/filter, "0x0000-0x1FFF 0x1FFB" and the like
+     *
+     * @return null if every PID passes
+     */
+    private static boolean[] parseFilter( String aValue )
+    {
+        boolean[] theFilter = new boolean[ 0x2000 ];
+        int thePassed = 0;
+
+        for( String theRange : aValue.trim().split( "\\s+" ) )
+        {
+            if( theRange.length() == 0 )
+            {
+                continue;
+            }
+
+            int theDash = theRange.indexOf( '-' );
+            int theFirst;
+            int theLast;
+            try
+            {
+                theFirst = Integer.decode( theDash < 0 ? theRange : theRange.substring( 0, theDash ) );
+                theLast = theDash < 0 ? theFirst : Integer.decode( theRange.substring( theDash + 1 ) );
+            }
+            catch( NumberFormatException e )
+            {
+                throw new IllegalArgumentException( "ERROR: invalid filter" );
+            }
+            if( theFirst < 0 || theLast > 0x1FFF || theFirst > theLast )
+            {
+                throw new IllegalArgumentException( "ERROR: invalid filter" );
+            }
+
+            for( int thePid = theFirst; thePid <= theLast; thePid++ )
+            {
+                if( !theFilter[ thePid ] )
+                {
+                    theFilter[ thePid ] = true;
+                    thePassed++;
+                }
+            }
+        }
+
+        return thePassed == 0x2000 ? null : theFilter;
+    }
+
+    /**
+     * @return the generator of the stream being sent, null when not streaming
+     */
+    public synchronized TransportStreamGenerator getStreamGenerator()
+    {
+        return mGenerator;
+    }
+
+    private static int parseProgram( String aValue )
+    {
+        if( aValue.equals( "none" ) )
+        {
+            return 0;
+        }
+        try
+        {
+            return Integer.parseInt( aValue );
+        }
+        catch( NumberFormatException e )
+        {
+            throw new IllegalArgumentException( "ERROR: invalid program" );
+        }
+    }
+
+    private boolean hasSignal()
+    {
+        return mChannelNumber != 0 && mChannelNumber % Math.max( 1, mConfig.activeChannelEvery ) == 0;
+    }
+
+    private boolean isLocked()
+    {
+        return hasSignal() && System.currentTimeMillis() - mTuneTime >= mConfig.lockLatencyMs;
+    }
+
+    private String lockString()
+    {
+        if( mChannelNumber == 0 )
+        {
+            return "none";
+        }
+        return isLocked() ? mModulation : "none";
+    }
+
+    private int jitter( int aValue )
+    {
+        if( mConfig.signalJitter <= 0 )
+        {
+            return aValue;
+        }
+        int theValue = aValue + mRandom.nextInt( mConfig.signalJitter * 2 + 1 ) - mConfig.signalJitter;
+        return Math.max( 0, Math.min( 100, theValue ) );
+    }
+
+    private int bitsPerSecond()
+    {
+        if( !isLocked() )
+        {
+            return 0;
+        }
+        return mModulation.equals( "8vsb" ) ? 19394080 : 38810720;
+    }
+
+    private String status()
+    {
+        if( mChannelNumber == 0 )
+        {
+            return "ch=none lock=none ss=0 snq=0 seq=0 bps=0 pps=0";
+        }
+
+        int theStrength = hasSignal() ? jitter( mConfig.signalStrength ) : jitter( 20 );
+        int theSnq = isLocked() ? jitter( mConfig.snrQuality ) : 0;
+        int theSeq = isLocked() ? jitter( mConfig.symbolErrorQuality ) : 0;
+        int thePps = mStreamTask != null ? (int) ( datagramsPerTick() * TransportStreamGenerator.PACKETS_PER_DATAGRAM * ( 1000 / STREAM_TICK_MS ) ) : 0;
+
+        return "ch=" + mChannel + " lock=" + lockString() + " ss=" + theStrength + " snq=" + theSnq + " seq=" + theSeq
+               + " bps=" + bitsPerSecond() + " pps=" + thePps;
+    }
+
+    public int[] programNumbers()
+    {
+        int[] thePrograms = new int[ mConfig.programsPerChannel ];
+        for( int i = 0; i < thePrograms.length; i++ )
+        {
+            thePrograms[ i ] = i + 1;
+        }
+        return thePrograms;
+    }
+
+    public int tsid()
+    {
+        return 0x0800 + mChannelNumber;
+    }
+
+    private String streamInfo()
+    {
+        if( !isLocked() )
+        {
+            return "none\n";
+        }
+
+        StringBuilder theBuilder = new StringBuilder();
+        for( int theProgram : programNumbers() )
+        {
+            theBuilder.append( theProgram ).append( ": " ).append( mChannelNumber ).append( '.' ).append( theProgram )
+                      .append( ' ' ).append( TransportStreamGenerator.shortName( mChannelNumber, theProgram ) );
+            if( mConfig.encryptedEvery > 0 && theProgram % mConfig.encryptedEvery == 0 )
+            {
+                theBuilder.append( " (encrypted)" );
+            }
+            theBuilder.append( '\n' );
+        }
+        theBuilder.append( "tsid=0x" ).append( String.format( "%04X", tsid() ) ).append( '\n' );
+
+        return theBuilder.toString();
+    }
+
+    /**
+     * Random constellation points around the 16 corners a qam16/8vsb plot shows, 24 bits each
+     */
+    private String plotSample()
+    {
+        if( !isLocked() )
+        {
+            return "";
+        }
+
+        StringBuilder theBuilder = new StringBuilder( 512 * 7 );
+        for( int i = 0; i < 512; i++ )
+        {
+            int theReal = ( mRandom.nextInt( 4 ) * 2 - 3 ) * 256 + (int) ( mRandom.nextGaussian() * ( 110 - mConfig.snrQuality ) );
+            int theImag = ( mRandom.nextInt( 4 ) * 2 - 3 ) * 256 + (int) ( mRandom.nextGaussian() * ( 110 - mConfig.snrQuality ) );
+            int theRaw = ( ( theReal & 0x0FFF ) << 12 ) | ( theImag & 0x0FFF );
+            theBuilder.append( String.format( "%06x", theRaw ) ).append( ' ' );
+        }
+        return theBuilder.toString();
+    }
+
+    synchronized void stopStream()
+    {
+        if( mStreamTask != null )
+        {
+            mStreamTask.cancel( false );
+            mStreamTask = null;
+        }
+        mGenerator = null;
+    }
+
+    private void restartStream()
+    {
+        stopStream();
+
+        if( mChannelNumber == 0 || !hasSignal() || mTarget.equals( "none" ) )
+        {
+            return;
+        }
+
+        final InetSocketAddress theTarget;
+        final boolean theRtp;
+        try
+        {
+            theRtp = mTarget.startsWith( "rtp://" );
+            theTarget = parseTarget( mTarget );
+        }
+        catch( UnknownHostException e )
+        {
+            return;
+        }
+        if( theTarget == null )
+        {
+            return;
+        }
+
+        final DatagramChannel theChannel = theTarget.getAddress().isMulticastAddress() ? mDevice.getMulticastChannel() : mDevice.getStreamChannel();
+        ScheduledExecutorService theExecutor = mDevice.getEmulator().getStreamExecutor();
+        final TransportStreamGenerator theGenerator = new TransportStreamGenerator( tsid(), programNumbers(), mProgram );
+        final long theTuneTime = mTuneTime;
+        theGenerator.setPidFilter( mPidFilter );
+        if( mConfig.psip )
+        {
+            theGenerator.setVirtualChannels( mChannelNumber, mConfig.encryptedEvery );
+            if( mConfig.guide )
+            {
+                theGenerator.setGuide( theTuneTime / 1000, 0 );
+            }
+        }
+        mGenerator = theGenerator;
+
+        mStreamTask = theExecutor.scheduleAtFixedRate( new Runnable()
+        {
+            private final byte[] mDatagram = new byte[ RTP_HEADER_SIZE + TransportStreamGenerator.DATAGRAM_SIZE ];
+            private final ByteBuffer mBuffer = ByteBuffer.wrap( mDatagram );
+            private int mSequence = 0;
+
+            @Override
+            public void run()
+            {
+                if( System.currentTimeMillis() - theTuneTime < mConfig.lockLatencyMs )
+                {
+                    return;
+                }
+
+                //the multiplex runs at the full rate, a PID filter leaves fewer datagrams to send
+                int thePackets = datagramsPerTick() * TransportStreamGenerator.PACKETS_PER_DATAGRAM;
+                int theOffset = theRtp ? RTP_HEADER_SIZE : 0;
+
+                for( int i = 0; i < thePackets; i++ )
+                {
+                    if( !theGenerator.nextPacket( mDatagram, theOffset ) )
+                    {
+                        continue;
+                    }
+                    if( theRtp )
+                    {
+                        writeRtpHeader( mDatagram, mSequence, System.nanoTime() / 11111 );
+                    }
+                    mSequence = ( mSequence + 1 ) & 0xFFFF;
+
+                    if( mConfig.packetLoss > 0 && mRandom.nextDouble() < mConfig.packetLoss )
+                    {
+                        synchronized( VirtualTuner.this )
+                        {
+                            mDatagramsDropped++;
+                        }
+                        continue;
+                    }
+
+                    mBuffer.clear();
+                    mBuffer.limit( theOffset + TransportStreamGenerator.DATAGRAM_SIZE );
+                    try
+                    {
+                        theChannel.send( mBuffer, theTarget );
+                    }
+                    catch( IOException e )
+                    {
+                        //the client went away, keep streaming like the device does
+                    }
+                    synchronized( VirtualTuner.this )
+                    {
+                        mDatagramsSent++;
+                    }
+                }
+            }
+        }, 0, STREAM_TICK_MS, TimeUnit.MILLISECONDS );
+    }
+
+    private int datagramsPerTick()
+    {
+        double theBytesPerTick = mConfig.streamBitsPerSecond / 8.0 * STREAM_TICK_MS / 1000.0;
+        return Math.max( 1, (int) Math.round( theBytesPerTick / TransportStreamGenerator.DATAGRAM_SIZE ) );
+    }
+
+    private static void writeRtpHeader( byte[] aBuffer, int aSequence, long aTimestamp )
+    {
+        aBuffer[ 0 ] = (byte) 0x80; //version 2
+        aBuffer[ 1 ] = 33; //MP2T
+        aBuffer[ 2 ] = (byte) ( aSequence >> 8 );
+        aBuffer[ 3 ] = (byte) aSequence;
+        aBuffer[ 4 ] = (byte) ( aTimestamp >> 24 );
+        aBuffer[ 5 ] = (byte) ( aTimestamp >> 16 );
+        aBuffer[ 6 ] = (byte) ( aTimestamp >> 8 );
+        aBuffer[ 7 ] = (byte) aTimestamp;
+        aBuffer[ 8 ] = 0;
+        aBuffer[ 9 ] = 0;
+        aBuffer[ 10 ] = 0;
+        aBuffer[ 11 ] = 0;
+    }
+
+    /**
+     * Parses udp://ip:port and rtp://ip:port, the form hdhomerun_device_set_tuner_target uses
+     */
+    static InetSocketAddress parseTarget( String aTarget ) throws UnknownHostException
+    {
+        int theScheme = aTarget.indexOf( "://" );
+        if( theScheme < 0 )
+        {
+            return null;
+        }
+
+        String theHostPort = aTarget.substring( theScheme + 3 );
+        int theSpace = theHostPort.indexOf( ' ' );
+        if( theSpace >= 0 )
+        {
+            theHostPort = theHostPort.substring( 0, theSpace );
+        }
+
+        int theColon = theHostPort.lastIndexOf( ':' );
+        if( theColon < 0 )
+        {
+            return null;
+        }
+
+        try
+        {
+            int thePort = Integer.parseInt( theHostPort.substring( theColon + 1 ) );
+            return new InetSocketAddress( InetAddress.getByName( theHostPort.substring( 0, theColon ) ), thePort );
+        }
+        catch( NumberFormatException e )
+        {
+            return null;
+        }
+    }
+
+}
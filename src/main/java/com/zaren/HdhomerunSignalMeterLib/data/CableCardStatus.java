@@ -1,5 +1,7 @@
 package com.zaren.HdhomerunSignalMeterLib.data;
 
+import java.util.StringTokenizer;
+
 public class CableCardStatus
 {
     public static final String READY = "ready";
@@ -54,6 +56,43 @@ public class CableCardStatus
         mAct = aVal;
     }
 
+    /**
+     * Fills in the status from the key=value pairs returned by /card/status
+     */
+    public void parse( String aStatus )
+    {
+        StringTokenizer theKeyValPairs = new StringTokenizer( aStatus, " " );
+
+        while( theKeyValPairs.hasMoreTokens() )
+        {
+            String theKeyVal = theKeyValPairs.nextToken();
+
+            int theEqualsIndex = theKeyVal.indexOf( '=' );
+            if( theEqualsIndex != -1 )
+            {
+                String theKey = theKeyVal.substring( 0, theEqualsIndex );
+                String theVal = theKeyVal.substring( theEqualsIndex + 1, theKeyVal.length() );
+
+                if( theKey.equals( "card" ) )
+                {
+                    setCard( theVal );
+                }
+                else if( theKey.equals( "auth" ) )
+                {
+                    setAuth( theVal );
+                }
+                else if( theKey.equals( "oob" ) )
+                {
+                    setOob( theVal );
+                }
+                else if( theKey.equals( "val" ) )
+                {
+                    setVal( theVal );
+                }
+            }
+        }
+    }
+
     @Override
     public String toString()
     {
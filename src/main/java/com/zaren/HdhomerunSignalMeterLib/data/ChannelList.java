@@ -118,4 +118,22 @@ public class ChannelList
       return retNumber;
    }
    
+   /**
+    * @return the frequency of the channel, 0 if it isn't in the list
+    */
+   public int numberToFrequency(int number)
+   {
+      ChannelEntry entry = getHead();
+      while(entry != null)
+      {
+         if(entry.getChannelNumber() == number)
+         {
+            return entry.getFrequency();
+         }
+         entry = entry.getNext();
+      }
+      
+      return 0;
+   }
+   
 }
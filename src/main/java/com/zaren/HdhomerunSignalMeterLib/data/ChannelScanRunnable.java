@@ -4,6 +4,9 @@ import com.zaren.HdhomerunSignalMeterLib.util.HDHomerunLogger;
 
 public class ChannelScanRunnable implements Runnable
 {
+   //as long as waitForLock gave the streaminfo of an atsc tuner to settle
+   private static final int DETECT_PROGRAMS_TIMEOUT_MS = 4000;
+
    private volatile boolean mIsForward;
    private volatile boolean mIsRunning;
    private HdhomerunDevice mDevice;
@@ -161,22 +164,25 @@ public class ChannelScanRunnable implements Runnable
                }
             }                           
             
-            theResponse.setStatus( mDevice.waitForLock(theTunerStatus) );            
+            theResponse.setStatus( mDevice.waitForLock( theTunerStatus, false ) );
             HDHomerunLogger.d("Lock Status " + theResponse.getStatus() + " lock_supported " + theTunerStatus.lockSupported);
             
             mCntrl.notifyObserversTunerStatus( theResponse, theTunerStatus, null );            
+            mCntrl.recordSignalQuality( theTunerStatus );
             
             if( theTunerStatus.lockSupported )
             {                              
                mCntrl.notifyChannelLocked( theTunerStatus );
                
                thePrograms.clear();
-               mDevice.getTunerStreamInfo( thePrograms );
+               detectPrograms( thePrograms );
                
                if( mCntrl.isCableCardSetup() )
                {
-                  for( ChannelScanProgram theProgram : thePrograms )
+                  //indexed so refreshing the programs of every channel allocates no iterator
+                  for( int i = 0; i < thePrograms.size(); i++ )
                   {
+                     ChannelScanProgram theProgram = thePrograms.valueAt( i );
                      int theVchannel = theProgram.virtualMajor;
                      
                      mDevice.setTunerVChannel( "" + theVchannel );
@@ -195,7 +201,8 @@ public class ChannelScanRunnable implements Runnable
                   }
                }
                
-               mCntrl.notifyObserversProgramListChanged( thePrograms, theCurrentChannel );
+               //the list is refilled for the next channel while the UI thread reads this one
+               mCntrl.notifyObserversProgramListChanged( new ProgramsList( thePrograms ), theCurrentChannel );
                
                if( !mFullChannelScan )
                {
@@ -239,6 +246,27 @@ public class ChannelScanRunnable implements Runnable
       }      
    }
 
+   /**
+    * Reads the programs from the stream's tables, moving on as soon as they are all in, and
+    * falls back on the device's streaminfo if the stream couldn't be received
+    */
+   private void detectPrograms( ProgramsList thePrograms )
+   {
+      int theStatus = mDevice.startStreaming();
+      if( theStatus > 0 )
+      {
+         theStatus = mDevice.detectStreamPrograms( thePrograms, DETECT_PROGRAMS_TIMEOUT_MS );
+         mDevice.stopStreaming();
+      }
+
+      if( theStatus <= 0 )
+      {
+         HDHomerunLogger.d( "Programs not found in the stream, status " + theStatus + ", reading streaminfo" );
+         thePrograms.clear();
+         mDevice.getTunerStreamInfo( thePrograms );
+      }
+   }
+
    private boolean checkForEnd( int theCurrentChannel )
    {
       int theMinChannel = mChannelList.getMinNumber();
@@ -0,0 +1,107 @@
+package com.zaren.HdhomerunSignalMeterLib.data;
+
+import java.util.Arrays;
+
+/**
+ * A tuner's constellation plot samples, decoded natively into interleaved I/Q shorts: sample n is
+ * at getSamples()[ 2 * n ] and getSamples()[ 2 * n + 1 ], each a signed 12 bit value.
+ *
+ * Reuse an instance for every poll. If a poll returns more samples than fit, the extra ones are
+ * dropped and the array is grown, keeping the ones that fit, so after the first few polls nothing is
+ * allocated.
+ */
+public class ConstellationSamples
+{
+    /** what the devices send per poll */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private short[] mSamples;
+    private int mCount;
+    private long mTime;
+
+    //written by the native call
+    final int[] mAvailable = new int[ 1 ];
+
+    public ConstellationSamples()
+    {
+        this( DEFAULT_CAPACITY );
+    }
+
+    /**
+     * @param aCapacity samples that fit without growing
+     */
+    public ConstellationSamples( int aCapacity )
+    {
+        mSamples = new short[ Math.max( 1, aCapacity ) * 2 ];
+    }
+
+    /**
+     * @return the interleaved I/Q values, only the first 2 * getCount() are from the last poll
+     */
+    public short[] getSamples()
+    {
+        return mSamples;
+    }
+
+    public int getCount()
+    {
+        return mCount;
+    }
+
+    public int getI( int aSample )
+    {
+        return mSamples[ aSample * 2 ];
+    }
+
+    public int getQ( int aSample )
+    {
+        return mSamples[ aSample * 2 + 1 ];
+    }
+
+    /**
+     * @return the System.currentTimeMillis() of the poll
+     */
+    public long getTime()
+    {
+        return mTime;
+    }
+
+    public int getCapacity()
+    {
+        return mSamples.length / 2;
+    }
+
+    /**
+     * Copies the samples into aOther, growing its array if needed
+     */
+    public void copyTo( ConstellationSamples aOther )
+    {
+        if( aOther.mSamples.length < mCount * 2 )
+        {
+            aOther.mSamples = new short[ mSamples.length ];
+        }
+        System.arraycopy( mSamples, 0, aOther.mSamples, 0, mCount * 2 );
+        aOther.mCount = mCount;
+        aOther.mTime = mTime;
+    }
+
+    /**
+     * Takes the count the native call left in mAvailable
+     */
+    void polled( long aTime )
+    {
+        int theAvailable = mAvailable[ 0 ];
+        mCount = Math.min( theAvailable, getCapacity() );
+        mTime = aTime;
+
+        if( theAvailable > getCapacity() )
+        {
+            mSamples = Arrays.copyOf( mSamples, theAvailable * 2 );
+        }
+    }
+
+    void clear()
+    {
+        mCount = 0;
+    }
+}
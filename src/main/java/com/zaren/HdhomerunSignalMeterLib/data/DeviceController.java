@@ -3,6 +3,7 @@ package com.zaren.HdhomerunSignalMeterLib.data;
 import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import com.zaren.HdhomerunSignalMeterLib.events.DeviceControllerEvents;
 import com.zaren.HdhomerunSignalMeterLib.ui.IndeterminateProgressBarInt;
 import com.zaren.HdhomerunSignalMeterLib.util.ErrorHandler;
@@ -14,6 +15,8 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.UnknownHostException;
 import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * this class will monitor signal strength and perform higher level functions
@@ -47,6 +50,56 @@ public class DeviceController
     private volatile String mCurrentChannelMap;
     private Context mContext;
     private CableCardStatus mCableCardStatus;
+    private volatile SignalQualityHistory mQualityHistory;
+    private volatile SignalMetricsStore mMetricsStore;
+    private final TunerStatistics mStatistics = new TunerStatistics();
+    private final TunerStatistics mStatisticsSnapshot = new TunerStatistics();
+    private final AtomicBoolean mStatisticsPosted = new AtomicBoolean();
+    private volatile boolean mConstellationRunning;
+    private volatile boolean mConstellationOob;
+    private volatile long mConstellationInterval;
+    //filled by the device thread, the latest complete poll, and the one the observers read
+    private final Object mConstellationLock = new Object();
+    private ConstellationSamples mConstellationBack = new ConstellationSamples();
+    private ConstellationSamples mConstellationReady = new ConstellationSamples();
+    private ConstellationSamples mConstellationFront = new ConstellationSamples();
+    private boolean mConstellationFresh;
+    private final AtomicBoolean mConstellationPosted = new AtomicBoolean();
+    //bumped by every start and stop, a poll chain from an older one ends instead of posting again
+    private final AtomicInteger mConstellationGeneration = new AtomicInteger();
+    private volatile Runnable mConstellationRunnable;
+    private final Runnable mStatisticsNotifier = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            mStatisticsPosted.set( false );
+            getStatistics( mStatisticsSnapshot );
+            mEvents.notifyTunerStatisticsChanged( DeviceController.this, mStatisticsSnapshot );
+        }
+    };
+    private final Runnable mConstellationNotifier = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            mConstellationPosted.set( false );
+
+            synchronized( mConstellationLock )
+            {
+                if( !mConstellationFresh )
+                {
+                    return;
+                }
+                ConstellationSamples theFront = mConstellationFront;
+                mConstellationFront = mConstellationReady;
+                mConstellationReady = theFront;
+                mConstellationFresh = false;
+            }
+
+            mEvents.notifyConstellationChanged( DeviceController.this, mConstellationFront );
+        }
+    };
 
     public DeviceController( HdhomerunDiscoverDevice discoverDevice, IndeterminateProgressBarInt aProgressBar, Context aContext ) throws HdhomerunCommErrorException
     {
@@ -364,6 +417,53 @@ public class DeviceController
         }
     }
 
+    private class ConstellationRunnable implements Runnable
+    {
+        private final int mGeneration;
+
+        ConstellationRunnable( int aGeneration )
+        {
+            mGeneration = aGeneration;
+        }
+
+        @Override
+        public void run()
+        {
+            if( mStopNow == true || mGeneration != mConstellationGeneration.get() )
+            {
+                return;
+            }
+
+            long theStart = SystemClock.uptimeMillis();
+
+            int theStatus = mConstellationOob ? mDevice.getOobPlotsample( mConstellationBack ) : mDevice.getTunerPlotsample( mConstellationBack );
+            if( theStatus == DeviceResponse.SUCCESS )
+            {
+                synchronized( mConstellationLock )
+                {
+                    ConstellationSamples theReady = mConstellationReady;
+                    mConstellationReady = mConstellationBack;
+                    mConstellationBack = theReady;
+                    mConstellationFresh = true;
+                }
+
+                if( mConstellationPosted.compareAndSet( false, true ) )
+                {
+                    mUiHandler.post( mConstellationNotifier );
+                }
+            }
+
+            //stopped or restarted during the poll, the newer chain carries on on its own
+            if( mGeneration != mConstellationGeneration.get() )
+            {
+                return;
+            }
+
+            long theElapsed = SystemClock.uptimeMillis() - theStart;
+            mDeviceHandler.postDelayed( this, Math.max( 0, mConstellationInterval - theElapsed ) );
+        }
+    }
+
     private class TunerStatusRunnable implements Runnable
     {
         @Override
@@ -380,6 +480,28 @@ public class DeviceController
 
             HDHomerunLogger.v( "Update Tuner Status: return status " + mTunerStatus.returnStatus );
 
+            if( mTunerStatus.returnStatus == DeviceResponse.SUCCESS )
+            {
+                recordSignalQuality( mTunerStatus );
+
+                SignalMetricsStore theStore = mMetricsStore;
+                if( theStore != null )
+                {
+                    theStore.record( mDevice.getDeviceName(), System.currentTimeMillis(), mTunerStatus );
+                }
+
+                synchronized( mStatistics )
+                {
+                    mStatistics.record( mTunerStatus, System.currentTimeMillis() );
+                }
+
+                //one pending notification at a time, it reads the latest statistics when it runs
+                if( mStatisticsPosted.compareAndSet( false, true ) )
+                {
+                    mUiHandler.post( mStatisticsNotifier );
+                }
+            }
+
             final DeviceResponse theResponse = new DeviceResponse( mTunerStatus.returnStatus );
             theResponse.putString( DeviceResponse.KEY_ACTION, "Getting Tuner Status" );
 
@@ -694,6 +816,41 @@ public class DeviceController
         mTunerStatusTaskRunning = false;
     }
 
+    /**
+     * Polls the constellation plot samples and raises constellationChanged with them, at most once
+     * per UI frame however fast the polls come back
+     *
+     * @param aPollsPerSecond up to a few tens, each poll is a control request to the device
+     * @param aOob the cablecard out of band tuner instead of this tuner
+     */
+    public void startConstellationUpdates( int aPollsPerSecond, boolean aOob )
+    {
+        HDHomerunLogger.d( "startConstellationUpdates: " + aPollsPerSecond + "/s oob " + aOob );
+
+        mConstellationInterval = 1000 / Math.max( 1, Math.min( 1000, aPollsPerSecond ) );
+        mConstellationOob = aOob;
+        mConstellationRunning = true;
+
+        Runnable thePrevious = mConstellationRunnable;
+        if( thePrevious != null )
+        {
+            mDeviceHandler.removeCallbacks( thePrevious );
+        }
+        mConstellationRunnable = new ConstellationRunnable( mConstellationGeneration.incrementAndGet() );
+        mDeviceHandler.post( mConstellationRunnable );
+    }
+
+    public void stopConstellationUpdates()
+    {
+        mConstellationRunning = false;
+        mConstellationGeneration.incrementAndGet();
+    }
+
+    public boolean isConstellationUpdatesRunning()
+    {
+        return mConstellationRunning;
+    }
+
     public boolean isTunerStatusUpdatesRunning()
     {
         return mTunerStatusTaskRunning;
@@ -805,21 +962,9 @@ public class DeviceController
 
             int thePrevProgramNum = ParseProgram( thePrevProgramStr );
 
-            ChannelScanProgram thePrevProgram = null;
+            ChannelScanProgram thePrevProgram = thePrograms.get( thePrevProgramNum );
 
-            ChannelScanProgram theNewProgram = null;
-            for( ChannelScanProgram theProg : thePrograms )
-            {
-                if( theProg.programNumber == thePrevProgramNum )
-                {
-                    thePrevProgram = theProg;
-                }
-
-                if( theProg.programNumber == mProgram )
-                {
-                    theNewProgram = theProg;
-                }
-            }
+            ChannelScanProgram theNewProgram = thePrograms.get( mProgram );
 
             if( theStatus > 0 )
             {
@@ -876,6 +1021,63 @@ public class DeviceController
         return mCurrentChannelMap;
     }
 
+    /**
+     * @param aHistory receives every tuner status reading and channel scan lock result, null to stop recording
+     */
+    public void setQualityHistory( SignalQualityHistory aHistory )
+    {
+        mQualityHistory = aHistory;
+    }
+
+    public SignalQualityHistory getQualityHistory()
+    {
+        return mQualityHistory;
+    }
+
+    /**
+     * @param aStore receives every tuner status reading, null to stop recording
+     */
+    public void setMetricsStore( SignalMetricsStore aStore )
+    {
+        mMetricsStore = aStore;
+    }
+
+    public SignalMetricsStore getMetricsStore()
+    {
+        return mMetricsStore;
+    }
+
+    /**
+     * Copies the running statistics of the tuner's polls on its current channel into aStatistics
+     */
+    public void getStatistics( TunerStatistics aStatistics )
+    {
+        synchronized( mStatistics )
+        {
+            mStatistics.copyTo( aStatistics );
+        }
+    }
+
+    public void resetStatistics()
+    {
+        synchronized( mStatistics )
+        {
+            mStatistics.reset();
+        }
+    }
+
+    void recordSignalQuality( TunerStatus aTunerStatus )
+    {
+        SignalQualityHistory theHistory = mQualityHistory;
+        if( theHistory == null )
+        {
+            return;
+        }
+
+        int theFrequency = SignalQualityHistory.frequencyOf( mChannelList, aTunerStatus.channel );
+        theHistory.record( mDevice.getDeviceId(), mDevice.getTuner(), theFrequency, aTunerStatus );
+    }
+
     public void fillOutLockedResponse( DeviceResponse aResponse )
     {
         String theOwner = mDevice.getLockkeyOwner();
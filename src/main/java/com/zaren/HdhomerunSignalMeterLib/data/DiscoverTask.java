@@ -1,5 +1,7 @@
 package com.zaren.HdhomerunSignalMeterLib.data;
 
+import java.util.HashSet;
+
 import com.zaren.HdhomerunSignalMeterLib.data.HdhomerunDiscoverDeviceArray;
 import com.zaren.HdhomerunSignalMeterLib.ui.IndeterminateProgressBarInt;
 import com.zaren.HdhomerunSignalMeterLib.util.ErrorHandler;
@@ -9,8 +11,16 @@ import android.os.AsyncTask;
 public class DiscoverTask extends AsyncTask<Void, Void, HdhomerunDiscoverDeviceArray>
 {
 
+   /** how long to wait for the first replies when the DiscoveryService hasn't found anything yet */
+   private static final long SERVICE_TIMEOUT_MS = 2 * DiscoveryService.ROUND_WINDOW_MS;
+
    private IndeterminateProgressBarInt mProgressBar;
    private DeviceListInt mDeviceList;
+   private DiscoveryService mService;
+   private int[] mExpectedIds;
+   private int[] mTargetIps;
+   private int mTargetTimeoutMs;
+   private boolean mBroadcast = true;
 
    static
    {
@@ -27,12 +37,84 @@ public class DiscoverTask extends AsyncTask<Void, Void, HdhomerunDiscoverDeviceA
       mDeviceList = aDeviceList;
    }
 
-   private native HdhomerunDiscoverDeviceArray discover();
+   /**
+    * Reads the devices from a running DiscoveryService instead of discovering from scratch
+    */
+   public DiscoverTask(IndeterminateProgressBarInt aProgressBar, DeviceListInt aDeviceList, DiscoveryService aService)
+   {
+      this( aProgressBar, aDeviceList );
+      mService = aService;
+   }
+
+   /**
+    * Lets discovery finish as soon as all these devices have answered instead of waiting out the
+    * full timeout, typically the list from the previous discovery. Devices that aren't in it may
+    * be missed if they answer after the last expected one.
+    */
+   public void setExpectedDevices( HdhomerunDiscoverDeviceArray aPrevious )
+   {
+      HashSet< Long > theIds = new HashSet< Long >();
+      for( int i = 0; i < aPrevious.getCount(); i++ )
+      {
+         theIds.add( aPrevious.get( i ).id );
+      }
+
+      mExpectedIds = new int[ theIds.size() ];
+      int theIndex = 0;
+      for( Long theId : theIds )
+      {
+         mExpectedIds[ theIndex++ ] = (int) theId.longValue();
+      }
+   }
+
+   /**
+    * Also probes these addresses, see DiscoveryTargets.parse, the devices found are merged with the
+    * broadcast results
+    *
+    * @param aTimeoutMs how long to wait for each address to answer
+    */
+   public void setTargets( int[] aTargetIps, int aTimeoutMs )
+   {
+      mTargetIps = aTargetIps;
+      mTargetTimeoutMs = aTimeoutMs;
+   }
+
+   /**
+    * @param aBroadcast false to only probe the targets
+    */
+   public void setBroadcast( boolean aBroadcast )
+   {
+      mBroadcast = aBroadcast;
+   }
+
+   /**
+    * @param aExpectedIds device ids that end discovery early once all have answered, may be null
+    */
+   private native HdhomerunDiscoverDeviceArray discover( int[] aExpectedIds );
+
+   private native HdhomerunDiscoverDeviceArray discoverTargets( int[] aTargetIps, int aTimeoutMs );
    
    @Override
    protected HdhomerunDiscoverDeviceArray doInBackground(Void... params)
    {
-      HdhomerunDiscoverDeviceArray discoverDeviceArray = discover();
+      if( mService != null && mService.isRunning() )
+      {
+         try
+         {
+            return mService.awaitDevices( SERVICE_TIMEOUT_MS );
+         }
+         catch( InterruptedException e )
+         {
+            return mService.getDevices();
+         }
+      }
+
+      HdhomerunDiscoverDeviceArray discoverDeviceArray = mBroadcast ? discover( mExpectedIds ) : new HdhomerunDiscoverDeviceArray();
+      
+      if( mTargetIps != null && mTargetIps.length > 0 )
+      {
+         discoverDeviceArray.merge( discoverTargets( mTargetIps, mTargetTimeoutMs ) );
+      }
       
       return discoverDeviceArray;
    }
@@ -0,0 +1,42 @@
+package com.zaren.HdhomerunSignalMeterLib.data;
+
+/**
+ * A device in the DiscoveryService cache, one per device id whatever its tuner count
+ */
+public class DiscoveredDevice
+{
+    public final long id;
+    public long type;
+    public int ipAddr;
+    public int tunerCount;
+
+    /** when the device last answered, in DiscoveryService.now() milliseconds */
+    public long lastSeen;
+
+    public DiscoveredDevice( long aId, long aType, int aIpAddr, int aTunerCount, long aLastSeen )
+    {
+        id = aId;
+        type = aType;
+        ipAddr = aIpAddr;
+        tunerCount = aTunerCount;
+        lastSeen = aLastSeen;
+    }
+
+    /**
+     * Adds one HdhomerunDiscoverDevice per tuner, the way DiscoverTask reports them
+     */
+    public void addTunersTo( HdhomerunDiscoverDeviceArray aArray )
+    {
+        for( int theTuner = 0; theTuner < tunerCount; theTuner++ )
+        {
+            aArray.insert( ipAddr, type, id, theTuner );
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return Long.toHexString( id ) + " " + ( ( ipAddr >> 24 ) & 0xFF ) + "." + ( ( ipAddr >> 16 ) & 0xFF ) + "." +
+               ( ( ipAddr >> 8 ) & 0xFF ) + "." + ( ipAddr & 0xFF ) + " tuners " + tunerCount;
+    }
+}
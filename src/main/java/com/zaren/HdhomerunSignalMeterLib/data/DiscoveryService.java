@@ -0,0 +1,417 @@
+package com.zaren.HdhomerunSignalMeterLib.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import com.zaren.HdhomerunSignalMeterLib.events.DiscoveryEvents;
+import com.zaren.HdhomerunSignalMeterLib.util.HDHomerunLogger;
+
+/**
+ * Long lived device discovery.
+ *
+ * DiscoverTask creates the discovery sockets, broadcasts twice and tears everything down on
+ * every refresh. The service keeps one native discover instance open on its own thread instead,
+ * broadcasts every interval and listens in between, so the device list is always current and
+ * reading it costs nothing. Devices are cached by device id and dropped when they haven't
+ * answered for the time to live, DiscoveryEvents reports the additions, removals and address
+ * changes. The events are raised on the discovery thread, so the service doesn't need a Looper
+ * and runs on a plain JVM too.
+ */
+public class DiscoveryService
+{
+    /** ints per reply in the JNIreceive array: ip address, device type, device id, tuner count */
+    public static final int REPLY_FIELDS = 4;
+
+    public static final long DEFAULT_INTERVAL_MS = 10000;
+
+    /** replies are collected this long after a broadcast before devices are expired */
+    public static final long ROUND_WINDOW_MS = 400;
+
+    /** the request is sent again this long into the round in case it was lost, like hdhomerun_discover_find_devices does */
+    private static final long REPEAT_DELAY_MS = 200;
+
+    /** longest a native receive blocks, bounds how long refresh() and stop() take to be noticed */
+    private static final int RECEIVE_SLICE_MS = 50;
+
+    private static final int MAX_REPLIES = 64;
+
+    private final DiscoveryEvents mEvents = new DiscoveryEvents();
+
+    //only touched by the discovery thread
+    private final HashMap< Long, DiscoveredDevice > mDevices = new HashMap< Long, DiscoveredDevice >();
+    private boolean mNetworkError = false;
+
+    private volatile HdhomerunDiscoverDeviceArray mSnapshot = new HdhomerunDiscoverDeviceArray();
+    private volatile long mIntervalMs = DEFAULT_INTERVAL_MS;
+    private volatile long mTimeToLiveMs = 3 * DEFAULT_INTERVAL_MS + ROUND_WINDOW_MS;
+    private volatile int mTargetIp = 0;
+    private volatile boolean mRunning = false;
+
+    private final Object mLock = new Object();
+    private Thread mThread;
+    private boolean mRefreshRequested = false;
+    private long mCompletedRounds = 0;
+
+    static
+    {
+        System.loadLibrary( "hdhomerun" );
+    }
+
+    private native long JNIcreate();
+
+    private native void JNIdestroy( long cPointer );
+
+    private native int JNIsendRequest( long cPointer, int aTargetIp );
+
+    private native int JNIreceive( long cPointer, int aTimeoutMs, int[] aReplies );
+
+    public DiscoveryEvents getEvents()
+    {
+        return mEvents;
+    }
+
+    /**
+     * @param aIntervalMs time between broadcasts, the time to live is set to three intervals
+     */
+    public void setInterval( long aIntervalMs )
+    {
+        mIntervalMs = aIntervalMs;
+        mTimeToLiveMs = 3 * aIntervalMs + ROUND_WINDOW_MS;
+    }
+
+    public void setTimeToLive( long aTimeToLiveMs )
+    {
+        mTimeToLiveMs = aTimeToLiveMs;
+    }
+
+    /**
+     * @param aTargetIp address to send the requests to, 0 to broadcast on every local interface
+     */
+    public void setTargetIp( int aTargetIp )
+    {
+        mTargetIp = aTargetIp;
+    }
+
+    public boolean isRunning()
+    {
+        return mRunning;
+    }
+
+    public void start()
+    {
+        synchronized( mLock )
+        {
+            if( mThread != null )
+            {
+                return;
+            }
+
+            mRunning = true;
+            mThread = new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    discoveryLoop();
+                }
+            }, "DiscoveryService" );
+            mThread.setDaemon( true );
+            mThread.start();
+        }
+    }
+
+    public void stop()
+    {
+        Thread theThread;
+        synchronized( mLock )
+        {
+            mRunning = false;
+            theThread = mThread;
+            mThread = null;
+            mLock.notifyAll();
+        }
+
+        if( theThread != null && theThread != Thread.currentThread() )
+        {
+            try
+            {
+                theThread.join();
+            }
+            catch( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Broadcasts as soon as possible instead of waiting for the interval
+     */
+    public void refresh()
+    {
+        synchronized( mLock )
+        {
+            mRefreshRequested = true;
+        }
+    }
+
+    /**
+     * The current device list, one entry per tuner. It is replaced, not modified, when the
+     * devices change, so callers must not modify it either.
+     */
+    public HdhomerunDiscoverDeviceArray getDevices()
+    {
+        return mSnapshot;
+    }
+
+    /**
+     * @return the tuner named like HdhomerunDiscoverDevice.getName(), or null if it isn't on the network
+     */
+    public HdhomerunDiscoverDevice findTuner( String aName )
+    {
+        HdhomerunDiscoverDeviceArray theDevices = mSnapshot;
+        try
+        {
+            return theDevices.get( theDevices.find( aName ) );
+        }
+        catch( DeviceNotFoundException e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Starts a broadcast and waits for its replies, returns straight away with the cached list
+     * when devices are already known.
+     */
+    public HdhomerunDiscoverDeviceArray awaitDevices( long aTimeoutMs ) throws InterruptedException
+    {
+        if( mSnapshot.getCount() > 0 )
+        {
+            refresh();
+            return mSnapshot;
+        }
+
+        long theDeadline = now() + aTimeoutMs;
+        synchronized( mLock )
+        {
+            long theRound = mCompletedRounds;
+            mRefreshRequested = true;
+
+            while( mRunning && mCompletedRounds <= theRound )
+            {
+                long theWait = theDeadline - now();
+                if( theWait <= 0 )
+                {
+                    break;
+                }
+                mLock.wait( theWait );
+            }
+        }
+
+        return mSnapshot;
+    }
+
+    static long now()
+    {
+        return System.nanoTime() / 1000000;
+    }
+
+    private void discoveryLoop()
+    {
+        long theDs = JNIcreate();
+        if( theDs == 0 )
+        {
+            HDHomerunLogger.e( "DiscoveryService: couldn't create the discovery sockets" );
+            mNetworkError = true;
+            publish();
+            synchronized( mLock )
+            {
+                mRunning = false;
+                mThread = null;
+                mLock.notifyAll();
+            }
+            return;
+        }
+
+        try
+        {
+            int[] theReplies = new int[ MAX_REPLIES * REPLY_FIELDS ];
+            long theNextBroadcast = 0;
+            long theRepeatAt = -1;
+            long theRoundEnd = -1;
+
+            while( mRunning )
+            {
+                boolean theChanged = false;
+                long theNow = now();
+
+                if( theNow >= theNextBroadcast || takeRefreshRequest() )
+                {
+                    theChanged |= send( theDs );
+                    theNextBroadcast = theNow + mIntervalMs;
+                    theRepeatAt = theNow + REPEAT_DELAY_MS;
+                    theRoundEnd = theNow + ROUND_WINDOW_MS;
+                }
+                else if( theRepeatAt >= 0 && theNow >= theRepeatAt )
+                {
+                    theChanged |= send( theDs );
+                    theRepeatAt = -1;
+                }
+
+                int theCount = JNIreceive( theDs, RECEIVE_SLICE_MS, theReplies );
+                theNow = now();
+
+                for( int i = 0; i < theCount; i++ )
+                {
+                    int theOffset = i * REPLY_FIELDS;
+                    theChanged |= update( theReplies[ theOffset ],
+                                          theReplies[ theOffset + 1 ] & 0xFFFFFFFFL,
+                                          theReplies[ theOffset + 2 ] & 0xFFFFFFFFL,
+                                          theReplies[ theOffset + 3 ],
+                                          theNow );
+                }
+
+                boolean theRoundComplete = theRoundEnd >= 0 && theNow >= theRoundEnd;
+                if( theRoundComplete )
+                {
+                    theChanged |= expire( theNow );
+                    theRoundEnd = -1;
+                }
+
+                if( theChanged )
+                {
+                    publish();
+                }
+
+                if( theRoundComplete )
+                {
+                    synchronized( mLock )
+                    {
+                        mCompletedRounds++;
+                        mLock.notifyAll();
+                    }
+                }
+            }
+        }
+        finally
+        {
+            JNIdestroy( theDs );
+        }
+    }
+
+    private boolean takeRefreshRequest()
+    {
+        synchronized( mLock )
+        {
+            boolean theRequested = mRefreshRequested;
+            mRefreshRequested = false;
+            return theRequested;
+        }
+    }
+
+    /**
+     * @return true if the network error state changed
+     */
+    private boolean send( long aDs )
+    {
+        boolean theError = JNIsendRequest( aDs, mTargetIp ) < 0;
+        if( theError )
+        {
+            HDHomerunLogger.e( "DiscoveryService: couldn't send the discover request" );
+        }
+
+        boolean theChanged = theError != mNetworkError;
+        mNetworkError = theError;
+        return theChanged;
+    }
+
+    /**
+     * @return true if the device is new or changed
+     */
+    private boolean update( int aIpAddr, long aType, long aId, int aTunerCount, long aNow )
+    {
+        DiscoveredDevice theDevice = mDevices.get( aId );
+        if( theDevice == null )
+        {
+            theDevice = new DiscoveredDevice( aId, aType, aIpAddr, aTunerCount, aNow );
+            mDevices.put( aId, theDevice );
+            HDHomerunLogger.d( "DiscoveryService: added " + theDevice );
+            mEvents.notifyDeviceAdded( this, theDevice );
+            return true;
+        }
+
+        theDevice.lastSeen = aNow;
+
+        boolean theChanged = false;
+        if( theDevice.ipAddr != aIpAddr )
+        {
+            int theOldIpAddr = theDevice.ipAddr;
+            theDevice.ipAddr = aIpAddr;
+            HDHomerunLogger.d( "DiscoveryService: address changed " + theDevice );
+            mEvents.notifyDeviceAddressChanged( this, theDevice, theOldIpAddr );
+            theChanged = true;
+        }
+
+        if( theDevice.tunerCount != aTunerCount || theDevice.type != aType )
+        {
+            theDevice.tunerCount = aTunerCount;
+            theDevice.type = aType;
+            theChanged = true;
+        }
+
+        return theChanged;
+    }
+
+    /**
+     * @return true if any device was removed
+     */
+    private boolean expire( long aNow )
+    {
+        boolean theChanged = false;
+
+        Iterator< DiscoveredDevice > theDevices = mDevices.values().iterator();
+        while( theDevices.hasNext() )
+        {
+            DiscoveredDevice theDevice = theDevices.next();
+            if( aNow - theDevice.lastSeen > mTimeToLiveMs )
+            {
+                theDevices.remove();
+                HDHomerunLogger.d( "DiscoveryService: removed " + theDevice );
+                mEvents.notifyDeviceRemoved( this, theDevice );
+                theChanged = true;
+            }
+        }
+
+        return theChanged;
+    }
+
+    private void publish()
+    {
+        ArrayList< DiscoveredDevice > theDevices = new ArrayList< DiscoveredDevice >( mDevices.values() );
+        Collections.sort( theDevices, new Comparator< DiscoveredDevice >()
+        {
+            @Override
+            public int compare( DiscoveredDevice aLhs, DiscoveredDevice aRhs )
+            {
+                return aLhs.id < aRhs.id ? -1 : ( aLhs.id == aRhs.id ? 0 : 1 );
+            }
+        } );
+
+        HdhomerunDiscoverDeviceArray theSnapshot = new HdhomerunDiscoverDeviceArray();
+        for( DiscoveredDevice theDevice : theDevices )
+        {
+            theDevice.addTunersTo( theSnapshot );
+        }
+        if( mNetworkError )
+        {
+            theSnapshot.setError();
+        }
+
+        mSnapshot = theSnapshot;
+        mEvents.notifyDeviceListChanged( this, theSnapshot );
+    }
+}
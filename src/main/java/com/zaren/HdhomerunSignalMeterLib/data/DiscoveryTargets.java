@@ -0,0 +1,148 @@
+package com.zaren.HdhomerunSignalMeterLib.data;
+
+import java.util.Arrays;
+import java.util.StringTokenizer;
+
+/**
+ * Parses the addresses to probe with targeted discovery, for devices on other subnets or VLANs
+ * that broadcasts don't reach. A spec is a list of IPv4 addresses and CIDR ranges separated by
+ * commas or whitespace, e.g. "10.1.0.20, 10.2.5.0/24".
+ */
+public final class DiscoveryTargets
+{
+    /** a /16, more than that is almost certainly a typo and would take minutes to probe */
+    public static final int MAX_TARGETS = 65536;
+
+    private DiscoveryTargets()
+    {
+    }
+
+    /**
+     * @return the addresses in host byte order, sorted and without duplicates. The network and
+     *         broadcast addresses of ranges larger than /31 are left out.
+     * @throws IllegalArgumentException if the spec is malformed or covers more than MAX_TARGETS addresses
+     */
+    public static int[] parse( String aSpec )
+    {
+        StringTokenizer theTokens = new StringTokenizer( aSpec, ", \t\n" );
+        int[] theTargets = new int[ 16 ];
+        int theCount = 0;
+
+        while( theTokens.hasMoreTokens() )
+        {
+            String theToken = theTokens.nextToken();
+            int theSlash = theToken.indexOf( '/' );
+
+            long theFirst;
+            long theLast;
+            if( theSlash == -1 )
+            {
+                theFirst = parseAddress( theToken ) & 0xFFFFFFFFL;
+                theLast = theFirst;
+            }
+            else
+            {
+                int thePrefix = parsePrefix( theToken.substring( theSlash + 1 ) );
+                long theMask = thePrefix == 0 ? 0 : ( 0xFFFFFFFFL << ( 32 - thePrefix ) ) & 0xFFFFFFFFL;
+                theFirst = ( parseAddress( theToken.substring( 0, theSlash ) ) & 0xFFFFFFFFL ) & theMask;
+                theLast = theFirst | ( ~theMask & 0xFFFFFFFFL );
+
+                if( thePrefix < 31 )
+                {
+                    theFirst++;
+                    theLast--;
+                }
+            }
+
+            long theSize = theLast - theFirst + 1;
+            if( theCount + theSize > MAX_TARGETS )
+            {
+                throw new IllegalArgumentException( "More than " + MAX_TARGETS + " discovery targets in " + aSpec );
+            }
+
+            if( theCount + theSize > theTargets.length )
+            {
+                theTargets = Arrays.copyOf( theTargets, Math.max( theTargets.length * 2, (int) ( theCount + theSize ) ) );
+            }
+
+            for( long theAddress = theFirst; theAddress <= theLast; theAddress++ )
+            {
+                theTargets[ theCount++ ] = (int) theAddress;
+            }
+        }
+
+        return unique( theTargets, theCount );
+    }
+
+    /**
+     * @return the address in host byte order, the way the native library and HdhomerunDiscoverDevice.ip_addr use it
+     */
+    public static int parseAddress( String aAddress )
+    {
+        StringTokenizer theOctets = new StringTokenizer( aAddress, "." );
+        if( theOctets.countTokens() != 4 || aAddress.startsWith( "." ) || aAddress.endsWith( "." ) || aAddress.contains( ".." ) )
+        {
+            throw new IllegalArgumentException( "Not an IPv4 address: " + aAddress );
+        }
+
+        int theAddress = 0;
+        while( theOctets.hasMoreTokens() )
+        {
+            int theOctet = parseNumber( theOctets.nextToken(), 255, aAddress );
+            theAddress = ( theAddress << 8 ) | theOctet;
+        }
+        return theAddress;
+    }
+
+    private static int parsePrefix( String aPrefix )
+    {
+        return parseNumber( aPrefix, 32, aPrefix );
+    }
+
+    private static int parseNumber( String aNumber, int aMax, String aContext )
+    {
+        int theValue;
+        try
+        {
+            theValue = Integer.parseInt( aNumber );
+        }
+        catch( NumberFormatException e )
+        {
+            throw new IllegalArgumentException( "Bad number in " + aContext );
+        }
+
+        if( theValue < 0 || theValue > aMax )
+        {
+            throw new IllegalArgumentException( "Out of range number in " + aContext );
+        }
+        return theValue;
+    }
+
+    /**
+     * Sorts as unsigned addresses and removes duplicates
+     */
+    private static int[] unique( int[] aTargets, int aCount )
+    {
+        //flipping the sign bit makes the signed sort order the unsigned one
+        for( int i = 0; i < aCount; i++ )
+        {
+            aTargets[ i ] ^= 0x80000000;
+        }
+        Arrays.sort( aTargets, 0, aCount );
+
+        int theUnique = 0;
+        for( int i = 0; i < aCount; i++ )
+        {
+            if( theUnique == 0 || aTargets[ theUnique - 1 ] != aTargets[ i ] )
+            {
+                aTargets[ theUnique++ ] = aTargets[ i ];
+            }
+        }
+
+        for( int i = 0; i < theUnique; i++ )
+        {
+            aTargets[ i ] ^= 0x80000000;
+        }
+        return Arrays.copyOf( aTargets, theUnique );
+    }
+}
@@ -0,0 +1,104 @@
+package com.zaren.HdhomerunSignalMeterLib.data;
+
+import java.nio.charset.Charset;
+
+/**
+ * The program guide of one channel as collected from the stream's EITs and ETTs by the native
+ * library. Every event is a row of FIELD_COUNT ints in eventData, its title and text are offsets
+ * into text as UTF-8. Like StreamInfoTable the arrays only grow, so one table can be reused for
+ * every read without allocating.
+ */
+public class GuideTable
+{
+    //keep in sync with hdhomerun_signalMeter.c
+    public static final int FIELD_EVENT_ID = 0;
+    public static final int FIELD_START_TIME = 1;
+    public static final int FIELD_DURATION = 2;
+    public static final int FIELD_TITLE_OFFSET = 3;
+    public static final int FIELD_TITLE_LENGTH = 4;
+    public static final int FIELD_TEXT_OFFSET = 5;
+    public static final int FIELD_TEXT_LENGTH = 6;
+    public static final int FIELD_COUNT = 7;
+
+    public static final int SOURCE_ID_NONE = -1;
+
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    //written by JNIgetGuideEvents
+    int[] eventData = new int[ 16 * FIELD_COUNT ];
+    byte[] text = new byte[ 1024 ];
+    int eventCount = 0;
+    int tsid = StreamInfoParser.TSID_NONE;
+    int sourceId = SOURCE_ID_NONE;
+
+    public int getEventCount()
+    {
+        return eventCount;
+    }
+
+    /**
+     * @return the transport stream id of the channel, or StreamInfoParser.TSID_NONE if it wasn't found
+     */
+    public int getTsid()
+    {
+        return tsid;
+    }
+
+    /**
+     * @return the VCT source_id of the channel, or SOURCE_ID_NONE if it wasn't found
+     */
+    public int getSourceId()
+    {
+        return sourceId;
+    }
+
+    public int getEventId( int aIndex )
+    {
+        return field( aIndex, FIELD_EVENT_ID );
+    }
+
+    /**
+     * @return UTC seconds since 1970
+     */
+    public long getStartTime( int aIndex )
+    {
+        return field( aIndex, FIELD_START_TIME ) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return seconds
+     */
+    public int getDuration( int aIndex )
+    {
+        return field( aIndex, FIELD_DURATION );
+    }
+
+    public String getTitle( int aIndex )
+    {
+        return new String( text, field( aIndex, FIELD_TITLE_OFFSET ), field( aIndex, FIELD_TITLE_LENGTH ), UTF8 );
+    }
+
+    /**
+     * @return the description from the event's ETT, empty until it arrives
+     */
+    public String getText( int aIndex )
+    {
+        return new String( text, field( aIndex, FIELD_TEXT_OFFSET ), field( aIndex, FIELD_TEXT_LENGTH ), UTF8 );
+    }
+
+    public void clear()
+    {
+        eventCount = 0;
+        tsid = StreamInfoParser.TSID_NONE;
+        sourceId = SOURCE_ID_NONE;
+    }
+
+    private int field( int aIndex, int aField )
+    {
+        if( aIndex < 0 || aIndex >= eventCount )
+        {
+            throw new ArrayIndexOutOfBoundsException( aIndex );
+        }
+        return eventData[ aIndex * FIELD_COUNT + aField ];
+    }
+}
@@ -5,9 +5,7 @@ import com.zaren.HdhomerunSignalMeterLib.util.HDHomerunLogger;
 import com.zaren.HdhomerunSignalMeterLib.util.Utils;
 
 import java.io.Serializable;
-import java.util.Arrays;
-import java.util.List;
-import java.util.NoSuchElementException;
+import java.nio.ByteBuffer;
 import java.util.StringTokenizer;
 
 public class HdhomerunDevice implements Serializable
@@ -16,6 +14,7 @@ public class HdhomerunDevice implements Serializable
     public static final String DEVICE_CABLECARD = "cablecard";
     public static final String DEVICE_ATSC = "atsc";
     public static final String DEVICE_TC_ATSC = "tc_atsc";
+    public static final String DEVICE_MULTICAST = "multicast";
 
     //reset constants
     public static final String SELF = "self";
@@ -23,9 +22,12 @@ public class HdhomerunDevice implements Serializable
 
 
     private long cPointer;
+    private long recorderPointer;
+    private long programFilterPointer;
     private long deviceId;
     private int ipAddr;
     private int tuner;
+    private int multicastPort;
     private String[] channelMaps;
     private String[] transcodeProfiles;
     private String deviceName;
@@ -33,6 +35,7 @@ public class HdhomerunDevice implements Serializable
     private String prevChannelMap;
     private String deviceType;
     private transient ChannelList channelList = new ChannelList(); //this is transient because it is not serializable
+    private transient StreamInfoTable streamInfoTable; //reused by every streaminfo read, created lazily after deserializing
 
     /*
      * this is used to load the native library on application startup. The
@@ -89,6 +92,42 @@ public class HdhomerunDevice implements Serializable
         HDHomerunLogger.d( "Device type " + deviceType );
     }
 
+    private static native long JNIcreateMulticast( int multicastIp, int multicastPort );
+
+    private HdhomerunDevice( int aMulticastIp, int aMulticastPort, long aCPointer )
+    {
+        cPointer = aCPointer;
+        ipAddr = aMulticastIp;
+        multicastPort = aMulticastPort;
+        deviceName = Utils.HdHrIpAddressToString( aMulticastIp ) + ":" + aMulticastPort;
+        channelMaps = new String[ 0 ];
+        transcodeProfiles = new String[ 0 ];
+        deviceType = DEVICE_MULTICAST;
+
+        HDHomerunLogger.d( "Multicast device created: " + deviceName );
+    }
+
+    /**
+     * A receiver of a stream some tuner already sends to a multicast group, any number of hosts can
+     * receive the same group. It has no tuner to control, only the stream methods work:
+     * startStreaming joins the group, stopStreaming leaves it and getStreamStats has what this
+     * host received of it. Use one device per group.
+     *
+     * @param aMulticastIp the group, 224.0.0.0 to 239.255.255.255, in the byte order of getIpAddr
+     * @param aMulticastPort the port the tuner's target sends to
+     * @throws HdhomerunCommErrorException if the address isn't a multicast group or the port is 0
+     */
+    public static HdhomerunDevice createMulticast( int aMulticastIp, int aMulticastPort ) throws HdhomerunCommErrorException
+    {
+        long theCPointer = JNIcreateMulticast( aMulticastIp, aMulticastPort );
+        if( theCPointer == 0 )
+        {
+            throw new HdhomerunCommErrorException( "invalid multicast group " + Utils.HdHrIpAddressToString( aMulticastIp ) + ":" + aMulticastPort );
+        }
+
+        return new HdhomerunDevice( aMulticastIp, aMulticastPort, theCPointer );
+    }
+
     private void processSupportedString( String token )
     {
         StringTokenizer st = new StringTokenizer( token );
@@ -137,6 +176,8 @@ public class HdhomerunDevice implements Serializable
     public void destroy()
     {
         HDHomerunLogger.d( "Destroying device " + deviceName );
+        stopRecording();
+        clearProgramFilter();
         JNIdestroy( cPointer );
         cPointer = -1;
     }
@@ -207,7 +248,7 @@ public class HdhomerunDevice implements Serializable
         return status;
     }
 
-    private synchronized native int JNIcreateNewDevice( long deviceId, long ipAddr, int tuner );
+    private synchronized native long JNIcreateNewDevice( long deviceId, long ipAddr, int tuner );
 
     private synchronized native int JNIsetChannelMap( long cPointer, String channelMap );
 
@@ -215,121 +256,176 @@ public class HdhomerunDevice implements Serializable
 
     private synchronized native int JNIsetTunerVChannel( long cPointer, String channel );
 
-    private synchronized native int JNIwaitForLock( long cPointer, TunerStatus tunerStatus );
+    private synchronized native int JNIwaitForLock( long cPointer, TunerStatus tunerStatus, boolean detectPrograms );
 
     synchronized public int waitForLock( TunerStatus tunerStatus )
     {
-        int retVal = JNIwaitForLock( cPointer, tunerStatus );
+        return waitForLock( tunerStatus, true );
+    }
+
+    /**
+     * @param aDetectPrograms also wait for the device's streaminfo to stop changing, false when the
+     *                        programs are read from the stream with detectStreamPrograms instead
+     */
+    synchronized public int waitForLock( TunerStatus tunerStatus, boolean aDetectPrograms )
+    {
+        int retVal = JNIwaitForLock( cPointer, tunerStatus, aDetectPrograms );
 
         ErrorHandler.HandleError( retVal, "Wait for Lock" );
 
         return retVal;
     }
 
-    private synchronized native int JNIgetTunerStreamInfo( long cPointer, JniString streamInfo );
+    private synchronized native int JNIgetTunerStreamPrograms( long cPointer, StreamInfoTable aTable );
 
-    synchronized public int getTunerStreamInfo( ProgramsList thePrograms )
+    /**
+     * Reads and parses the streaminfo in native code, the table is reused by the next call
+     */
+    synchronized public int getTunerStreamPrograms( StreamInfoTable aTable )
     {
-        JniString streamInfo = new JniString();
-        int retVal = JNIgetTunerStreamInfo( cPointer, streamInfo );
+        int retVal = JNIgetTunerStreamPrograms( cPointer, aTable );
 
         ErrorHandler.HandleError( retVal, "Get Tuner Stream Info" );
 
+        return retVal;
+    }
+
+    //not synchronized, the wait would hold up every other call on the device
+    private native int JNIdetectStreamPrograms( long cPointer, StreamInfoTable aTable, StreamProgramsListener aListener, int timeoutMs );
+
+    /**
+     * Reads the programs from the PAT, PMTs and VCT of the stream itself rather than polling the
+     * device's streaminfo, returning as soon as the tables are complete. A stream without a VCT is
+     * complete half a second after its PMTs, its programs have virtual channel 0 and no name.
+     * Needs startStreaming after the channel was set, and it has to be done before destroy.
+     *
+     * @param aTable filled in like getTunerStreamPrograms, with what was found by the time this returns
+     * @param aListener told about every change of the tables as they arrive, may be null
+     * @return 1 when the tables are complete, 0 if aTimeoutMs ran out first, -1 if the stream can't be received
+     */
+    public int detectStreamPrograms( StreamInfoTable aTable, StreamProgramsListener aListener, int aTimeoutMs )
+    {
+        int retVal = JNIdetectStreamPrograms( cPointer, aTable, aListener, aTimeoutMs );
+
+        HDHomerunLogger.d( "detectStreamPrograms: return val " + retVal + ", " + aTable.getProgramCount() + " programs" );
+
+        return retVal;
+    }
+
+    /**
+     * detectStreamPrograms into thePrograms, which only gets the programs once the tables are complete
+     */
+    public int detectStreamPrograms( ProgramsList thePrograms, int aTimeoutMs )
+    {
+        StreamInfoTable theTable = new StreamInfoTable();
+
+        int retVal = detectStreamPrograms( theTable, null, aTimeoutMs );
+
         if( retVal > 0 )
         {
-            convertStreamInfoToPrograms( streamInfo.getString(), thePrograms );
+            theTable.toPrograms( thePrograms );
         }
 
         return retVal;
     }
 
-    private void convertStreamInfoToPrograms( String streamInfo, ProgramsList thePrograms )
+    synchronized public int getTunerStreamInfo( ProgramsList thePrograms )
     {
-        StringTokenizer theProgramStrings = new StringTokenizer( streamInfo, "\n" );
+        if( streamInfoTable == null )
+        {
+            streamInfoTable = new StreamInfoTable();
+        }
 
-        while( theProgramStrings.hasMoreTokens() )
+        int retVal = getTunerStreamPrograms( streamInfoTable );
+
+        if( retVal > 0 )
         {
-            try
-            {
-                String theProgramString = "";
+            streamInfoTable.toPrograms( thePrograms );
+        }
 
-                if( theProgramStrings.hasMoreTokens() )
-                {
-                    theProgramString = theProgramStrings.nextToken();
-                }
+        return retVal;
+    }
 
-                HDHomerunLogger.d( "Parsing program string: " + theProgramString );
+    private synchronized native int JNIenableGuide( long cPointer );
 
-                StringTokenizer theProgNumAndName = new StringTokenizer( theProgramString, ":" );
+    private synchronized native int JNIgetGuideEvents( long cPointer, int aProgramNumber, int aTsid, int aSourceId, long aFromTime, GuideTable aTable );
 
-                ChannelScanProgram theProgram = new ChannelScanProgram();
-                theProgram.programString = theProgramString;
+    private synchronized native void JNIexpireGuide( long cPointer, long aTime );
 
-                while( theProgNumAndName.hasMoreTokens() )
-                {
-                    theProgram.programNumber = Integer.parseInt( theProgNumAndName.nextToken() );
+    private synchronized native boolean JNIsaveGuide( long cPointer, String aPath );
 
-                    processProgramName( theProgNumAndName.nextToken(), theProgram );
-                }
+    private synchronized native boolean JNIloadGuide( long cPointer, String aPath );
 
-                thePrograms.append( theProgram.programNumber, theProgram );
-            }
-            catch( NumberFormatException e )
-            {
-                HDHomerunLogger.e( "Error Parsing String: " + e );
-            }
-            catch( NoSuchElementException e )
-            {
-                HDHomerunLogger.e( "NoSuchElementException: " + e );
-            }
-        }
-    }
+    /**
+     * Collects the program guide from the EITs and ETTs of whatever is streamed from now on, into a
+     * cache of events per channel kept over channel changes until destroy. It costs nothing between
+     * the guide's changes, a repeated section is skipped from its header.
+     *
+     * @return 1 if the guide is being collected, -1 if it couldn't be started
+     */
+    public synchronized int enableGuide()
+    {
+        int retVal = JNIenableGuide( cPointer );
 
-    private static final String[] theTypes = new String[]{ "control", "encrypted", "no data", "internet" };
+        HDHomerunLogger.d( "enableGuide: return val " + retVal );
 
-    private void processProgramName( String aProgramName, ChannelScanProgram aProgram )
+        return retVal;
+    }
+
+    /**
+     * The guide of a program of the channel being streamed, found by its VCT source_id. Collecting
+     * starts with enableGuide, or the first of these calls.
+     *
+     * @param aFromTime UTC seconds since 1970, only events that end later, 0 for all of them
+     * @return the number of events, 0 if the program isn't in the stream's VCT, -1 if the guide couldn't be started
+     */
+    public synchronized int getGuideEvents( int aProgramNumber, long aFromTime, GuideTable aTable )
     {
-        int theOpeningParen = aProgramName.indexOf( "(" );
-        int theClosingParen = aProgramName.indexOf( ")" );
+        return JNIgetGuideEvents( cPointer, aProgramNumber, 0, 0, aFromTime, aTable );
+    }
 
-        String theJustProgramName = aProgramName;
+    /**
+     * The cached guide of any channel, by the tsid and source_id an earlier read of it reported
+     *
+     * @see #getGuideEvents(int, long, GuideTable)
+     */
+    public synchronized int getGuideEvents( int aTsid, int aSourceId, long aFromTime, GuideTable aTable )
+    {
+        return JNIgetGuideEvents( cPointer, -1, aTsid, aSourceId, aFromTime, aTable );
+    }
 
-        if( theOpeningParen != -1 && theClosingParen != -1 )
-        {
-            //This is the string that says "control" or "encrypted" or "no data"
-            String theTypeString = aProgramName.substring( theOpeningParen + 1, theClosingParen );
-            List<String> theTypeStrings = Arrays.asList( theTypes );
+    /**
+     * Drops every cached event that ended before aTime, UTC seconds since 1970
+     */
+    public synchronized void expireGuide( long aTime )
+    {
+        JNIexpireGuide( cPointer, aTime );
+    }
 
-            if( theTypeStrings.contains( theTypeString ) )
-            {
-                aProgram.type = theTypeString;
-                theJustProgramName = aProgramName.substring( 0, theOpeningParen );
-            }
-        }
+    /**
+     * Writes the guide cache to aPath, replacing it only once written
+     */
+    public synchronized boolean saveGuide( String aPath )
+    {
+        boolean retVal = JNIsaveGuide( cPointer, aPath );
 
-        StringTokenizer theStrings = new StringTokenizer( theJustProgramName, " " );
-        String theChannelNumbers = theStrings.nextToken();
-        StringTokenizer theChannelStrings = new StringTokenizer( theChannelNumbers, "." );
-        aProgram.virtualMajor = Integer.parseInt( theChannelStrings.nextToken() );
+        HDHomerunLogger.d( "saveGuide: " + aPath + " " + retVal );
 
-        if( theChannelStrings.hasMoreTokens() )
-        {
-            aProgram.virtualMinor = Integer.parseInt( theChannelStrings.nextToken() );
-        }
+        return retVal;
+    }
 
-        StringBuilder theNameStringBuilder = new StringBuilder();
-        while( theStrings.hasMoreTokens() )
-        {
-            String theString = theStrings.nextToken();
+    /**
+     * Adds the events saved in aPath to the guide cache, where it has nothing for their times
+     *
+     * @return false if aPath isn't a saved guide, nothing is added then
+     */
+    public synchronized boolean loadGuide( String aPath )
+    {
+        boolean retVal = JNIloadGuide( cPointer, aPath );
 
-            if( theNameStringBuilder.length() > 0 )
-            {
-                theNameStringBuilder.append( " " );
-            }
-            theNameStringBuilder.append( theString );
-        }
+        HDHomerunLogger.d( "loadGuide: " + aPath + " " + retVal );
 
-        aProgram.name = theNameStringBuilder.toString();
+        return retVal;
     }
 
     private synchronized native TunerStatus JNIgetTunerStatus( long cPointer );
@@ -548,6 +644,14 @@ public class HdhomerunDevice implements Serializable
         return channelList.frequencyToNumber( frequency );
     }
 
+    /**
+     * @return the channel list of the current channel map
+     */
+    public ChannelList getChannelList()
+    {
+        return channelList;
+    }
+
     /**
      * @return the cPointer
      */
@@ -596,6 +700,22 @@ public class HdhomerunDevice implements Serializable
         return tuner;
     }
 
+    /**
+     * @return true if created by createMulticast, getIpAddr is then the group
+     */
+    public boolean isMulticast()
+    {
+        return multicastPort != 0;
+    }
+
+    /**
+     * @return the port of a multicast device's group, 0 for a tuner
+     */
+    public int getMulticastPort()
+    {
+        return multicastPort;
+    }
+
     /**
      * @return the deviceType
      */
@@ -701,6 +821,50 @@ public class HdhomerunDevice implements Serializable
         return retVal;
     }
 
+    private native void JNItunerLockkeyUseValue( long cPointer, int lockkey );
+
+    /**
+     * Shares a lock obtained by another object for this tuner, see PooledTuner.attach
+     */
+    public void tunerLockkeyUseValue( int lockkey )
+    {
+        JNItunerLockkeyUseValue( cPointer, lockkey );
+    }
+
+    private synchronized native int JNIgetPlotsample( long cPointer, boolean oob, short[] samples, int[] count );
+
+    /**
+     * Reads the tuner's constellation plot samples into aSamples, which is emptied on an error
+     */
+    public int getTunerPlotsample( ConstellationSamples aSamples )
+    {
+        return getPlotsample( aSamples, false );
+    }
+
+    /**
+     * Reads the cablecard out of band tuner's constellation plot samples into aSamples
+     */
+    public int getOobPlotsample( ConstellationSamples aSamples )
+    {
+        return getPlotsample( aSamples, true );
+    }
+
+    private int getPlotsample( ConstellationSamples aSamples, boolean aOob )
+    {
+        int status = JNIgetPlotsample( cPointer, aOob, aSamples.getSamples(), aSamples.mAvailable );
+
+        if( checkForError( status, "GetPlotsample" ) )
+        {
+            aSamples.clear();
+        }
+        else
+        {
+            aSamples.polled( System.currentTimeMillis() );
+        }
+
+        return status;
+    }
+
     private native int JNIgetTunerProgram( long cPointer, JniString program );
 
     public int getTunerProgram( JniString program )
@@ -736,12 +900,297 @@ public class HdhomerunDevice implements Serializable
 
     private native void JNIstreamStop( long cPointer );
 
+    /**
+     * Stops the stream, a thread blocked in streamRecv returns
+     */
     public void stopStreaming()
     {
         HDHomerunLogger.d( "Device: stopStreaming" );
         JNIstreamStop( cPointer );
     }
 
+    private native long JNIstartRecording( long cPointer, String path, long segmentSize, int blockCount );
+
+    private native void JNIstopRecording( long recorderPointer );
+
+    private native void JNIgetRecordingStats( long recorderPointer, long[] values );
+
+    private static native boolean JNIsetRecordingIoUring( boolean enable );
+
+    /**
+     * Has recordings started from now on write through one io_uring shared by all of them instead of a
+     * thread each, which costs less CPU with many recordings at once. Linux kernels or sandboxes that
+     * refuse io_uring get the write threads anyway, as do recordings whose ring later fails,
+     * RecordingStats.isIoUring tells which a recording got.
+     *
+     * @return false if the library was built without io_uring support or the kernel refuses it
+     */
+    public static boolean setRecordingIoUring( boolean aEnabled )
+    {
+        return JNIsetRecordingIoUring( aEnabled );
+    }
+
+    private static native boolean JNIsetVideoReactor( int threadCount, int[] cpus );
+
+    /**
+     * Has the streams started from now on received by aThreadCount shared threads, each waiting on
+     * the sockets given to it and waking only when data arrives, instead of a thread per stream that
+     * also wakes every 25ms. Worth it with many tuners streaming at once.
+     *
+     * @param aThreadCount threads for all the streams, 0 for a thread per stream (the default)
+     * @param aCpus CPUs to pin the threads to in turn, or null to leave them to the scheduler
+     * @return false if the library has no reactor on this platform. A change applies once the devices
+     *         that streamed on the reactor have all been destroyed
+     */
+    public static boolean setVideoReactor( int aThreadCount, int[] aCpus )
+    {
+        return JNIsetVideoReactor( aThreadCount, aCpus );
+    }
+
+    /**
+     * Records the tuner's stream to aPath until stopRecording. Tune the channel first.
+     */
+    public int startRecording( String aPath )
+    {
+        return startRecording( aPath, 0, 0 );
+    }
+
+    /**
+     * Records the tuner's stream, the stream can't be read with streamRecv meanwhile
+     *
+     * @param aSegmentSize start a new file after this many bytes, rounded up to whole RecordingStats.BLOCK_SIZE
+     *                     blocks, the files are aPath with -0000, -0001... before the extension. 0 for one file.
+     * @param aBlockCount blocks buffered for the writer, 0 for the default 8, about 4 seconds of HD
+     * @return 1 if recording, 0 if already recording, -1 if the stream couldn't be started
+     */
+    public synchronized int startRecording( String aPath, long aSegmentSize, int aBlockCount )
+    {
+        if( recorderPointer != 0 )
+        {
+            HDHomerunLogger.w( "startRecording: " + deviceName + " is already recording" );
+            return 0;
+        }
+
+        recorderPointer = JNIstartRecording( cPointer, aPath, aSegmentSize, aBlockCount );
+
+        HDHomerunLogger.d( "startRecording: " + aPath + " recorder " + recorderPointer );
+
+        return recorderPointer != 0 ? 1 : -1;
+    }
+
+    /**
+     * Stops the stream and waits for what was received to be written
+     */
+    public synchronized void stopRecording()
+    {
+        if( recorderPointer != 0 )
+        {
+            JNIstopRecording( recorderPointer );
+            recorderPointer = 0;
+        }
+    }
+
+    public synchronized boolean isRecording()
+    {
+        return recorderPointer != 0;
+    }
+
+    /**
+     * @return false, leaving aStats cleared, if there is no recording
+     */
+    public synchronized boolean getRecordingStats( RecordingStats aStats )
+    {
+        if( recorderPointer == 0 )
+        {
+            aStats.clear();
+            return false;
+        }
+
+        JNIgetRecordingStats( recorderPointer, aStats.mValues );
+        return true;
+    }
+
+    private native long JNIstartProgramFilter( long cPointer, int[] programs );
+
+    private native void JNIstopProgramFilter( long filterPointer );
+
+    private native int[] JNIgetProgramFilterPids( long filterPointer );
+
+    /**
+     * Has the tuner send only aPrograms, with the PAT and PSIP, instead of the whole multiplex. The
+     * PIDs come from the PAT and PMTs of the stream itself, so it takes effect once streaming, and the
+     * filter follows a PMT that changes its streams. Replaces any filter set before.
+     *
+     * @return 1 if the filter is following the stream, -1 if it couldn't be started
+     */
+    public synchronized int setProgramFilter( int[] aPrograms )
+    {
+        clearProgramFilter();
+
+        programFilterPointer = JNIstartProgramFilter( cPointer, aPrograms );
+
+        HDHomerunLogger.d( "setProgramFilter: " + aPrograms.length + " programs, filter " + programFilterPointer );
+
+        return programFilterPointer != 0 ? 1 : -1;
+    }
+
+    /**
+     * Lets the whole multiplex through again
+     */
+    public synchronized void clearProgramFilter()
+    {
+        if( programFilterPointer != 0 )
+        {
+            JNIstopProgramFilter( programFilterPointer );
+            programFilterPointer = 0;
+        }
+    }
+
+    /**
+     * @return the PIDs the tuner was last told to send, empty until the stream's PAT arrives, null without setProgramFilter
+     */
+    public synchronized int[] getProgramFilterPids()
+    {
+        if( programFilterPointer == 0 )
+        {
+            return null;
+        }
+
+        return JNIgetProgramFilterPids( programFilterPointer );
+    }
+
+    private native int JNIstreamStart( long cPointer );
+
+    /**
+     * Has the tuner stream to this device's own receive buffer, read it with streamRecv
+     */
+    public int startStreaming()
+    {
+        int retVal = JNIstreamStart( cPointer );
+
+        HDHomerunLogger.d( "startStreaming: return val " + retVal );
+
+        return retVal;
+    }
+
+    private native void JNIstreamSetNotifyThreshold( long cPointer, int threshold );
+
+    /**
+     * @param aThreshold bytes streamRecv waits for, rounded down to whole 1316 byte packets, one packet by default
+     */
+    public void setStreamNotifyThreshold( int aThreshold )
+    {
+        JNIstreamSetNotifyThreshold( cPointer, aThreshold );
+    }
+
+    //not synchronized, the wait would hold up every other call on the device
+    private native int JNIstreamRecv( long cPointer, byte[] buffer, int offset, int length, int timeoutMs );
+
+    private native int JNIstreamRecvDirect( long cPointer, ByteBuffer buffer, int position, int length, int timeoutMs );
+
+    /**
+     * Waits up to aTimeoutMs for the notify threshold of stream data, returning as soon as it arrives.
+     * Only one thread may read the stream, and it has to be done before destroy.
+     *
+     * @param aLength the most to read, less than one 1316 byte packet reads nothing
+     * @return the bytes read, a multiple of 1316, 0 on a timeout or stopStreaming, -1 if the receive socket couldn't be created
+     */
+    public int streamRecv( byte[] aBuffer, int aOffset, int aLength, int aTimeoutMs )
+    {
+        if( aOffset < 0 || aLength < 0 || aOffset + aLength > aBuffer.length )
+        {
+            throw new IndexOutOfBoundsException( "offset " + aOffset + " length " + aLength + " of " + aBuffer.length );
+        }
+
+        return JNIstreamRecv( cPointer, aBuffer, aOffset, aLength, aTimeoutMs );
+    }
+
+    /**
+     * streamRecv into a direct buffer, from its position up to its limit, advancing the position
+     */
+    public int streamRecv( ByteBuffer aBuffer, int aTimeoutMs )
+    {
+        if( !aBuffer.isDirect() )
+        {
+            throw new IllegalArgumentException( "streamRecv needs a direct buffer" );
+        }
+
+        int theRead = JNIstreamRecvDirect( cPointer, aBuffer, aBuffer.position(), aBuffer.remaining(), aTimeoutMs );
+        if( theRead > 0 )
+        {
+            aBuffer.position( aBuffer.position() + theRead );
+        }
+        return theRead;
+    }
+
+    private native ByteBuffer JNIstreamBuffer( long cPointer );
+
+    //not synchronized, it waits like JNIstreamRecv
+    private native long JNIstreamReleaseWait( long cPointer, long release, long seen, int timeoutMs );
+
+    /**
+     * The device's own receive buffer, for a reader that sends the stream on straight from it with
+     * streamWait instead of copying it out with streamRecv. The stream at position p is at
+     * p % capacity. It is only valid until destroy.
+     *
+     * @return null if the receive socket couldn't be created
+     */
+    public ByteBuffer getStreamBuffer()
+    {
+        return JNIstreamBuffer( cPointer );
+    }
+
+    /**
+     * Waits up to aTimeoutMs for the notify threshold of stream data past aSeen in getStreamBuffer.
+     * The data before aRelease is done with, the rest is kept however long the reader takes, and if
+     * the buffer fills the newest data is dropped. Positions count the bytes received since the
+     * receive socket was created. Don't mix with streamRecv.
+     *
+     * @return the position the data ends at, -1 if the receive socket couldn't be created
+     */
+    public long streamWait( long aRelease, long aSeen, int aTimeoutMs )
+    {
+        return JNIstreamReleaseWait( cPointer, aRelease, aSeen, aTimeoutMs );
+    }
+
+    private native int JNIjoinMulticastGroup( long cPointer, int multicastIp, int localIp );
+
+    private native void JNIleaveMulticastGroup( long cPointer, int multicastIp, int localIp );
+
+    private native void JNIgetStreamStats( long cPointer, long[] values );
+
+    /**
+     * Has the receive socket join a multicast group on one interface. startStreaming of a multicast
+     * device already joins its own group on the default interface, this is for the interface of a
+     * host with several, or for more groups sent to the same port. Their datagrams then share the
+     * stream and its statistics.
+     *
+     * @param aLocalIp the interface's address, 0 for the default, in the byte order of getIpAddr
+     * @return 1 if joined, -1 if the socket couldn't be created or the group joined
+     */
+    public int joinMulticastGroup( int aMulticastIp, int aLocalIp )
+    {
+        int theRetVal = JNIjoinMulticastGroup( cPointer, aMulticastIp, aLocalIp );
+
+        HDHomerunLogger.d( "joinMulticastGroup: " + Utils.HdHrIpAddressToString( aMulticastIp ) + " return val " + theRetVal );
+
+        return theRetVal;
+    }
+
+    public void leaveMulticastGroup( int aMulticastIp, int aLocalIp )
+    {
+        JNIleaveMulticastGroup( cPointer, aMulticastIp, aLocalIp );
+    }
+
+    /**
+     * Fills aStats with what the receive socket got since startStreaming, all zero before the
+     * first stream
+     */
+    public void getStreamStats( StreamStats aStats )
+    {
+        JNIgetStreamStats( cPointer, aStats.mValues );
+    }
+
     public CableCardStatus getCardStatus()
     {
         JniString theValue = new JniString();
@@ -756,44 +1205,10 @@ public class HdhomerunDevice implements Serializable
         if( theStatus == DeviceResponse.SUCCESS )
         {
             //process response
-            processCardStatus( theValue, theReturn );
+            theReturn.parse( theValue.getString() );
         }
 
         return theReturn;
     }
 
-    private void processCardStatus( JniString aValue, CableCardStatus aReturn )
-    {
-        StringTokenizer theKeyValPairs = new StringTokenizer( aValue.getString(), " " );
-
-        while( theKeyValPairs.hasMoreTokens() )
-        {
-            String theKeyVal = theKeyValPairs.nextToken();
-
-            int theEqualsIndex = theKeyVal.indexOf( '=' );
-            if( theEqualsIndex != -1 )
-            {
-                String theKey = theKeyVal.substring( 0, theEqualsIndex );
-                String theVal = theKeyVal.substring( theEqualsIndex + 1, theKeyVal.length() );
-
-                if( theKey.equals( "card" ) )
-                {
-                    aReturn.setCard( theVal );
-                }
-                else if( theKey.equals( "auth" ) )
-                {
-                    aReturn.setAuth( theVal );
-                }
-                else if( theKey.equals( "oob" ) )
-                {
-                    aReturn.setOob( theVal );
-                }
-                else if( theKey.equals( "val" ) )
-                {
-                    aReturn.setVal( theVal );
-                }
-            }
-        }
-    }
-
 } //end class HdhomerunDevice
@@ -1,6 +1,9 @@
 package com.zaren.HdhomerunSignalMeterLib.data;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 
 import com.zaren.HdhomerunSignalMeterLib.util.HDHomerunLogger;
 
@@ -9,9 +12,12 @@ public class HdhomerunDiscoverDeviceArray
    public static final String NO_ERROR = "none";
    public static final String NETWORK_ERROR = "Network Error";
    
-   public ArrayList<HdhomerunDiscoverDevice> mDiscoverDeviceArray;
+   private ArrayList<HdhomerunDiscoverDevice> mDiscoverDeviceArray;
    private String mError; 
    
+   //position of every tuner in mDiscoverDeviceArray by name, kept up to date by insert and clear
+   private HashMap<String, Integer> mIndexByName = new HashMap<String, Integer>();
+   
    public HdhomerunDiscoverDeviceArray()
    {
       mError = NO_ERROR;
@@ -20,9 +26,60 @@ public class HdhomerunDiscoverDeviceArray
    
    public void insert(int ip_addr_val, long type_val, long id_val, int tuner_id_val)
    {      
-	  mDiscoverDeviceArray.add(new HdhomerunDiscoverDevice(ip_addr_val,type_val,id_val,tuner_id_val));
+      HdhomerunDiscoverDevice theDevice = new HdhomerunDiscoverDevice(ip_addr_val,type_val,id_val,tuner_id_val);
+      
+      mIndexByName.put( theDevice.getName(), mDiscoverDeviceArray.size() );
+      mDiscoverDeviceArray.add(theDevice);
 	   
-      HDHomerunLogger.d(mDiscoverDeviceArray.get(mDiscoverDeviceArray.size()-1).toString() );
+      HDHomerunLogger.d(theDevice.toString() );
+   }
+
+   /**
+    * Adds every tuner of aCount devices in one go, called by the native discover with one array per field
+    */
+   public void insertAll( int[] aIpAddrs, int[] aTypes, int[] aIds, int[] aTunerCounts, int aCount )
+   {
+      int theTunerCount = 0;
+      for( int i = 0; i < aCount; i++ )
+      {
+         theTunerCount += aTunerCounts[ i ];
+      }
+      mDiscoverDeviceArray.ensureCapacity( mDiscoverDeviceArray.size() + theTunerCount );
+      
+      for( int i = 0; i < aCount; i++ )
+      {
+         long theType = aTypes[ i ] & 0xFFFFFFFFL;
+         long theId = aIds[ i ] & 0xFFFFFFFFL;
+         
+         for( int theTuner = 0; theTuner < aTunerCounts[ i ]; theTuner++ )
+         {
+            HdhomerunDiscoverDevice theDevice = new HdhomerunDiscoverDevice( aIpAddrs[ i ], theType, theId, theTuner );
+            mIndexByName.put( theDevice.getName(), mDiscoverDeviceArray.size() );
+            mDiscoverDeviceArray.add( theDevice );
+         }
+      }
+      
+      HDHomerunLogger.d( "Discovered " + aCount + " devices, " + theTunerCount + " tuners" );
+   }
+
+   /**
+    * Adds the tuners of aOther that aren't in this list yet, and its error if it has one
+    */
+   public void merge( HdhomerunDiscoverDeviceArray aOther )
+   {
+      for( HdhomerunDiscoverDevice theDevice : aOther.mDiscoverDeviceArray )
+      {
+         if( !mIndexByName.containsKey( theDevice.getName() ) )
+         {
+            mIndexByName.put( theDevice.getName(), mDiscoverDeviceArray.size() );
+            mDiscoverDeviceArray.add( theDevice );
+         }
+      }
+      
+      if( aOther.getError() != NO_ERROR )
+      {
+         setError();
+      }
    }
 
    public HdhomerunDiscoverDevice get( int aIndex )
@@ -40,24 +97,22 @@ public class HdhomerunDiscoverDeviceArray
    
    public int find( String aDeviceName ) throws DeviceNotFoundException
    {
-      for( int i=0; i < mDiscoverDeviceArray.size(); i++ )
+      Integer theIndex = mIndexByName.get( aDeviceName );
+      if( theIndex != null )
       {
-         HdhomerunDiscoverDevice theDevice = mDiscoverDeviceArray.get( i );
-         if( theDevice.getName().equals( aDeviceName ) )
-         {
-            return i;
-         }
+         return theIndex;
       }
       
       throw new DeviceNotFoundException( "Device " + aDeviceName + " not in discovery list" );
    }
 
    /**
-    * @return the discoverDeviceList
+    * @return a read only view of the tuners, add them through insert, insertAll or merge so find
+    *         stays in step
     */
-   public ArrayList<HdhomerunDiscoverDevice> getDiscoverDeviceList()
+   public List<HdhomerunDiscoverDevice> getDiscoverDeviceList()
    {
-      return mDiscoverDeviceArray;
+      return Collections.unmodifiableList( mDiscoverDeviceArray );
    }
 
    public String getError()
@@ -73,5 +128,6 @@ public class HdhomerunDiscoverDeviceArray
    public void clear()
    {
       mDiscoverDeviceArray.clear();
+      mIndexByName.clear();
    }
 }
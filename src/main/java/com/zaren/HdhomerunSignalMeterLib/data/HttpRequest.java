@@ -0,0 +1,125 @@
+package com.zaren.HdhomerunSignalMeterLib.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+
+/**
+ * The request line of an HTTP request read by a non-blocking connection of StreamRelay or
+ * TunerHttpServer, and the few responses they give
+ */
+final class HttpRequest
+{
+    /** a request head that doesn't fit is refused */
+    static final int MAX_SIZE = 4096;
+
+    /** a connection that hasn't sent its whole request by then is closed */
+    static final long TIMEOUT_MS = 5000;
+
+    static final String OK = "200 OK";
+    static final String BAD_REQUEST = "400 Bad Request";
+    static final String NOT_FOUND = "404 Not Found";
+    static final String METHOD_NOT_ALLOWED = "405 Method Not Allowed";
+    static final String REQUEST_TIMEOUT = "408 Request Timeout";
+    static final String SERVICE_UNAVAILABLE = "503 Service Unavailable";
+
+    static final Charset ASCII = Charset.forName( "US-ASCII" );
+
+    final String mMethod;
+    final String mPath;
+    final String mVersion;
+
+    private HttpRequest( String aMethod, String aPath, String aVersion )
+    {
+        mMethod = aMethod;
+        mPath = aPath;
+        mVersion = aVersion;
+    }
+
+    /**
+     * @param aRequest a heap buffer the request is being read into
+     * @return the request once its blank line has arrived, one that isValid() only if it is well formed, or null before
+     */
+    static HttpRequest parse( ByteBuffer aRequest )
+    {
+        byte[] theBytes = aRequest.array();
+        int theLineEnd = -1;
+        for( int i = 1; i < aRequest.position(); i++ )
+        {
+            if( theBytes[ i ] != '\n' || theBytes[ i - 1 ] != '\r' )
+            {
+                continue;
+            }
+            if( theLineEnd < 0 )
+            {
+                theLineEnd = i - 1;
+            }
+            if( i >= 3 && theBytes[ i - 2 ] == '\n' && theBytes[ i - 3 ] == '\r' )
+            {
+                String[] theLine = new String( theBytes, 0, theLineEnd, ASCII ).split( " " );
+                if( theLine.length != 3 || !theLine[ 1 ].startsWith( "/" ) || !theLine[ 2 ].startsWith( "HTTP/" ) )
+                {
+                    return new HttpRequest( null, null, null );
+                }
+                return new HttpRequest( theLine[ 0 ], theLine[ 1 ], theLine[ 2 ] );
+            }
+        }
+        return null;
+    }
+
+    boolean isValid()
+    {
+        return mMethod != null;
+    }
+
+    /**
+     * @return true if the client takes a chunked response, HTTP/1.0 ones don't
+     */
+    boolean isChunked()
+    {
+        return !mVersion.equals( "HTTP/1.0" );
+    }
+
+    /**
+     * The head of a video/mp2t response that lasts until the connection closes
+     */
+    static String streamHead( boolean aChunked )
+    {
+        return "HTTP/1.1 " + OK + "\r\nContent-Type: video/mp2t\r\nCache-Control: no-cache\r\n"
+            + ( aChunked ? "Transfer-Encoding: chunked\r\n" : "" ) + "Connection: close\r\n\r\n";
+    }
+
+    /**
+     * Answers with an empty aStatus response and closes aChannel. The response is far smaller than
+     * the socket's buffer, so one non-blocking write is enough.
+     */
+    static void respondAndClose( SocketChannel aChannel, String aStatus )
+    {
+        String theResponse = "HTTP/1.1 " + aStatus + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n";
+        try
+        {
+            aChannel.write( ByteBuffer.wrap( theResponse.getBytes( ASCII ) ) );
+        }
+        catch( IOException e )
+        {
+            //closed below either way
+        }
+        closeQuietly( aChannel );
+    }
+
+    static void closeQuietly( java.nio.channels.Channel aChannel )
+    {
+        if( aChannel != null )
+        {
+            try
+            {
+                aChannel.close();
+            }
+            catch( IOException e )
+            {
+                //closing anyway
+            }
+        }
+    }
+}
@@ -26,10 +26,14 @@ public class LineupXMLParser
     private int mProgramNum = 0;
 
     public ProgramsList parse( InputStream aLineupInput ) throws XmlPullParserException, IOException
+    {
+        return parse( Xml.newPullParser(), aLineupInput );
+    }
+
+    public ProgramsList parse( XmlPullParser theParser, InputStream aLineupInput ) throws XmlPullParserException, IOException
     {
         try
         {
-            XmlPullParser theParser = Xml.newPullParser();
             theParser.setFeature( XmlPullParser.FEATURE_PROCESS_NAMESPACES, false );
             theParser.setInput( aLineupInput, null );
             theParser.nextTag();
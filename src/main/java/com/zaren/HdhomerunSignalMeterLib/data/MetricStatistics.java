@@ -0,0 +1,206 @@
+package com.zaren.HdhomerunSignalMeterLib.data;
+
+/**
+ * Running statistics of one signal metric: an exponentially weighted average, min, max, mean and
+ * variance, and a histogram for percentiles. Recording a value allocates nothing.
+ *
+ * The histogram is laid out like an HdrHistogram: values below 128 get a bucket each, so the 0 to
+ * 100 qualities are exact, and every power of two above that is split into 64 buckets. A
+ * percentile is the top of its bucket, so one of a packet or bit rate is at most 1/64, about 1.6%,
+ * above the recorded value.
+ */
+public class MetricStatistics
+{
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+
+    //enough for every non negative int
+    private static final int BUCKET_COUNT = ( 31 - ( SUB_BUCKET_BITS - 1 ) + 1 ) * SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+
+    private final float mSmoothing;
+    private final int[] mCounts = new int[ BUCKET_COUNT ];
+
+    private long mCount;
+    private long mMin;
+    private long mMax;
+    private double mEwma;
+    private double mMean;
+    private double mSquaredDeviations;
+    private long mLast;
+
+    /**
+     * @param aSmoothing weight of a new value in the exponentially weighted average, 0 to 1
+     */
+    public MetricStatistics( float aSmoothing )
+    {
+        if( aSmoothing <= 0 || aSmoothing > 1 )
+        {
+            throw new IllegalArgumentException( "smoothing must be in (0, 1]: " + aSmoothing );
+        }
+
+        mSmoothing = aSmoothing;
+        reset();
+    }
+
+    /**
+     * @param aValue negative values are recorded as 0, values above Integer.MAX_VALUE as Integer.MAX_VALUE
+     */
+    public void record( long aValue )
+    {
+        long theValue = Math.max( 0, Math.min( Integer.MAX_VALUE, aValue ) );
+
+        mCount++;
+        mLast = theValue;
+        mMin = Math.min( mMin, theValue );
+        mMax = Math.max( mMax, theValue );
+
+        if( mCount == 1 )
+        {
+            mEwma = theValue;
+        }
+        else
+        {
+            mEwma += mSmoothing * ( theValue - mEwma );
+        }
+
+        //Welford, stays accurate over millions of polls
+        double theDelta = theValue - mMean;
+        mMean += theDelta / mCount;
+        mSquaredDeviations += theDelta * ( theValue - mMean );
+
+        mCounts[ bucketIndex( theValue ) ]++;
+    }
+
+    public void reset()
+    {
+        mCount = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = Long.MIN_VALUE;
+        mEwma = 0;
+        mMean = 0;
+        mSquaredDeviations = 0;
+        mLast = 0;
+        for( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            mCounts[ i ] = 0;
+        }
+    }
+
+    /**
+     * Copies everything into aOther, which can then be read while this keeps recording
+     */
+    public void copyTo( MetricStatistics aOther )
+    {
+        aOther.mCount = mCount;
+        aOther.mMin = mMin;
+        aOther.mMax = mMax;
+        aOther.mEwma = mEwma;
+        aOther.mMean = mMean;
+        aOther.mSquaredDeviations = mSquaredDeviations;
+        aOther.mLast = mLast;
+        System.arraycopy( mCounts, 0, aOther.mCounts, 0, BUCKET_COUNT );
+    }
+
+    public long getCount()
+    {
+        return mCount;
+    }
+
+    /**
+     * @return the last value recorded, 0 if there is none
+     */
+    public long getLast()
+    {
+        return mLast;
+    }
+
+    /**
+     * @return the smallest value recorded, 0 if there is none
+     */
+    public long getMin()
+    {
+        return mCount > 0 ? mMin : 0;
+    }
+
+    /**
+     * @return the largest value recorded, 0 if there is none
+     */
+    public long getMax()
+    {
+        return mCount > 0 ? mMax : 0;
+    }
+
+    public double getEwma()
+    {
+        return mEwma;
+    }
+
+    public double getMean()
+    {
+        return mMean;
+    }
+
+    /**
+     * @return the sample variance, 0 with fewer than two values
+     */
+    public double getVariance()
+    {
+        return mCount > 1 ? mSquaredDeviations / ( mCount - 1 ) : 0;
+    }
+
+    public double getStandardDeviation()
+    {
+        return Math.sqrt( getVariance() );
+    }
+
+    /**
+     * @param aPercentile 0 to 100, 50 is the median
+     * @return the smallest recorded value that aPercentile percent of the values are at or below,
+     *         within the histogram's precision, 0 if there are no values
+     */
+    public long getPercentile( double aPercentile )
+    {
+        if( mCount == 0 )
+        {
+            return 0;
+        }
+
+        double thePercentile = Math.max( 0, Math.min( 100, aPercentile ) );
+        long theTarget = Math.max( 1, (long) Math.ceil( thePercentile / 100 * mCount ) );
+
+        long theSeen = 0;
+        for( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            theSeen += mCounts[ i ];
+            if( theSeen >= theTarget )
+            {
+                return Math.max( mMin, Math.min( mMax, highestEquivalentValue( i ) ) );
+            }
+        }
+        return mMax;
+    }
+
+    static int bucketIndex( long aValue )
+    {
+        if( aValue < SUB_BUCKET_COUNT )
+        {
+            return (int) aValue;
+        }
+
+        int theShift = ( 63 - Long.numberOfLeadingZeros( aValue ) ) - ( SUB_BUCKET_BITS - 1 );
+        return theShift * SUB_BUCKET_HALF + (int) ( aValue >>> theShift );
+    }
+
+    static long highestEquivalentValue( int aIndex )
+    {
+        if( aIndex < SUB_BUCKET_COUNT )
+        {
+            return aIndex;
+        }
+
+        int theShift = aIndex / SUB_BUCKET_HALF - 1;
+        long theLowest = (long) ( aIndex - theShift * SUB_BUCKET_HALF ) << theShift;
+        return theLowest + ( 1L << theShift ) - 1;
+    }
+}
@@ -0,0 +1,100 @@
+package com.zaren.HdhomerunSignalMeterLib.data;
+
+/**
+ * A tuner locked for one user of a TunerPool, valid until it is released
+ */
+public class PooledTuner
+{
+    private final TunerPool mPool;
+    private final Object mOwner;
+    private final long mTunerPointer;
+    private final long mDeviceId;
+    private final int mIpAddr;
+    private final int mTuner;
+    private final String mName;
+    private final int mLockkey;
+    private volatile boolean mReleased = false;
+
+    PooledTuner( TunerPool aPool, Object aOwner, long aTunerPointer, long aDeviceId, int aIpAddr, int aTuner, String aName, int aLockkey )
+    {
+        mPool = aPool;
+        mOwner = aOwner;
+        mTunerPointer = aTunerPointer;
+        mDeviceId = aDeviceId;
+        mIpAddr = aIpAddr;
+        mTuner = aTuner;
+        mName = aName;
+        mLockkey = aLockkey;
+    }
+
+    public Object getOwner()
+    {
+        return mOwner;
+    }
+
+    public long getDeviceId()
+    {
+        return mDeviceId;
+    }
+
+    public int getIpAddr()
+    {
+        return mIpAddr;
+    }
+
+    public int getTuner()
+    {
+        return mTuner;
+    }
+
+    /**
+     * @return the name like HdhomerunDiscoverDevice.getName()
+     */
+    public String getName()
+    {
+        return mName;
+    }
+
+    public int getLockkey()
+    {
+        return mLockkey;
+    }
+
+    /**
+     * Makes aDevice use the pool's lock, the tuner rejects channel and target changes from a
+     * device without it. aDevice must be for this tuner.
+     */
+    public void attach( HdhomerunDevice aDevice )
+    {
+        aDevice.tunerLockkeyUseValue( mLockkey );
+    }
+
+    /**
+     * Releases the lock and hands the tuner back to the pool
+     */
+    public void release()
+    {
+        mPool.release( this );
+    }
+
+    public boolean isReleased()
+    {
+        return mReleased;
+    }
+
+    long getTunerPointer()
+    {
+        return mTunerPointer;
+    }
+
+    void setReleased()
+    {
+        mReleased = true;
+    }
+
+    @Override
+    public String toString()
+    {
+        return mName;
+    }
+}
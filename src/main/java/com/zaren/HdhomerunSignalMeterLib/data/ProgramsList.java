@@ -1,35 +1,322 @@
 package com.zaren.HdhomerunSignalMeterLib.data;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
-import android.util.SparseArray;
-
-public class ProgramsList extends SparseArray< ChannelScanProgram > implements Iterable< ChannelScanProgram >
+/**
+ * Programs of a channel keyed by program number.
+ *
+ * An open addressing hash map of int to ChannelScanProgram with linear probing, so lookups
+ * don't box and nothing is allocated per entry. keyAt/valueAt and iteration are in program
+ * number order like the SparseArray this used to extend, read from a sorted copy of the entries
+ * that put and delete keep up to date, so reading never modifies the list. clear() keeps the
+ * storage so a list can be refilled for every channel of a scan. Has no android dependencies so
+ * it can be used on the JVM too.
+ *
+ * Not synchronized, hand other threads a copy of a list that is still being filled.
+ */
+public class ProgramsList implements Iterable< ChannelScanProgram >
 {
-   @Override
-   public Iterator<ChannelScanProgram> iterator()
+   private static final int MIN_CAPACITY = 16;
+
+   //slots are empty when the value is null
+   private int[] mKeys;
+   private ChannelScanProgram[] mValues;
+   private int mSize = 0;
+
+   private int[] mSortedKeys;
+   private ChannelScanProgram[] mSortedValues;
+
+   public ProgramsList()
    {
-      return values().iterator();
+      this( MIN_CAPACITY / 2 );
    }
 
-   private Collection<ChannelScanProgram> values()
+   public ProgramsList( int aExpectedSize )
    {
-      Collection< ChannelScanProgram > thePrograms = new ArrayList<ChannelScanProgram>();
-      
-      for( int i = 0; i < size(); i++ )
+      int theCapacity = MIN_CAPACITY;
+      while( theCapacity < aExpectedSize * 2 )
       {
-         thePrograms.add( valueAt( i ) );
+         theCapacity <<= 1;
       }
-      
-      return thePrograms;
+
+      mKeys = new int[ theCapacity ];
+      mValues = new ChannelScanProgram[ theCapacity ];
+      mSortedKeys = new int[ theCapacity / 2 ];
+      mSortedValues = new ChannelScanProgram[ theCapacity / 2 ];
+   }
+
+   /**
+    * Copies the entries of aOther, the programs themselves are shared
+    */
+   public ProgramsList( ProgramsList aOther )
+   {
+      mKeys = aOther.mKeys.clone();
+      mValues = aOther.mValues.clone();
+      mSize = aOther.mSize;
+      mSortedKeys = aOther.mSortedKeys.clone();
+      mSortedValues = aOther.mSortedValues.clone();
+   }
+
+   public int size()
+   {
+      return mSize;
+   }
+
+   public boolean isEmpty()
+   {
+      return mSize == 0;
+   }
+
+   /**
+    * @return the program, or null if there isn't one with that number
+    */
+   public ChannelScanProgram get( int aProgramNumber )
+   {
+      return get( aProgramNumber, null );
+   }
+
+   public ChannelScanProgram get( int aProgramNumber, ChannelScanProgram aDefault )
+   {
+      int theSlot = findSlot( aProgramNumber );
+      return mValues[ theSlot ] != null ? mValues[ theSlot ] : aDefault;
+   }
+
+   public boolean containsKey( int aProgramNumber )
+   {
+      return mValues[ findSlot( aProgramNumber ) ] != null;
+   }
+
+   /**
+    * Adds or replaces the program, a null program removes it
+    */
+   public void put( int aProgramNumber, ChannelScanProgram aProgram )
+   {
+      if( aProgram == null )
+      {
+         delete( aProgramNumber );
+         return;
+      }
+
+      int theSlot = findSlot( aProgramNumber );
+      if( mValues[ theSlot ] == null )
+      {
+         if( ( mSize + 1 ) * 4 > mKeys.length * 3 )
+         {
+            resize( mKeys.length * 2 );
+            theSlot = findSlot( aProgramNumber );
+         }
+         mKeys[ theSlot ] = aProgramNumber;
+         mValues[ theSlot ] = aProgram;
+         insertSorted( aProgramNumber, aProgram );
+         mSize++;
+         return;
+      }
+      mValues[ theSlot ] = aProgram;
+      mSortedValues[ Arrays.binarySearch( mSortedKeys, 0, mSize, aProgramNumber ) ] = aProgram;
+   }
+
+   /**
+    * Same as put, kept from the SparseArray days
+    */
+   public void append( int aProgramNumber, ChannelScanProgram aProgram )
+   {
+      put( aProgramNumber, aProgram );
    }
-   
+
+   public void delete( int aProgramNumber )
+   {
+      int theSlot = findSlot( aProgramNumber );
+      if( mValues[ theSlot ] == null )
+      {
+         return;
+      }
+
+      //shift the rest of the probe run back instead of leaving a tombstone
+      int theMask = mKeys.length - 1;
+      int theHole = theSlot;
+      int theNext = ( theSlot + 1 ) & theMask;
+      while( mValues[ theNext ] != null )
+      {
+         int theHome = hash( mKeys[ theNext ] ) & theMask;
+         if( ( ( theNext - theHome ) & theMask ) >= ( ( theNext - theHole ) & theMask ) )
+         {
+            mKeys[ theHole ] = mKeys[ theNext ];
+            mValues[ theHole ] = mValues[ theNext ];
+            theHole = theNext;
+         }
+         theNext = ( theNext + 1 ) & theMask;
+      }
+      mValues[ theHole ] = null;
+
+      int theIndex = Arrays.binarySearch( mSortedKeys, 0, mSize, aProgramNumber );
+      System.arraycopy( mSortedKeys, theIndex + 1, mSortedKeys, theIndex, mSize - theIndex - 1 );
+      System.arraycopy( mSortedValues, theIndex + 1, mSortedValues, theIndex, mSize - theIndex - 1 );
+      mSize--;
+      mSortedValues[ mSize ] = null;
+   }
+
+   public void remove( int aProgramNumber )
+   {
+      delete( aProgramNumber );
+   }
+
+   /**
+    * Removes every program but keeps the storage for reuse
+    */
+   public void clear()
+   {
+      if( mSize > 0 )
+      {
+         Arrays.fill( mValues, null );
+         Arrays.fill( mSortedValues, null );
+         mSize = 0;
+      }
+   }
+
+   /**
+    * @return the program number of the aIndex'th program in program number order
+    */
+   public int keyAt( int aIndex )
+   {
+      checkIndex( aIndex );
+      return mSortedKeys[ aIndex ];
+   }
+
+   /**
+    * @return the aIndex'th program in program number order
+    */
+   public ChannelScanProgram valueAt( int aIndex )
+   {
+      checkIndex( aIndex );
+      return mSortedValues[ aIndex ];
+   }
+
+   /**
+    * @return the position of the program in program number order, or a negative number if it isn't in the list
+    */
+   public int indexOfKey( int aProgramNumber )
+   {
+      return Arrays.binarySearch( mSortedKeys, 0, mSize, aProgramNumber );
+   }
+
+   /**
+    * Iterates in program number order over the sorted entries, without copying them. Modifying the
+    * list while iterating isn't supported. Every call allocates an iterator, loops that run for
+    * every channel of a scan use size() and valueAt() instead.
+    */
+   @Override
+   public Iterator< ChannelScanProgram > iterator()
+   {
+      return new ProgramIterator();
+   }
+
+   /**
+    * @return a copy of the programs in program number order
+    */
    public List< ChannelScanProgram > toList()
    {
-      ArrayList< ChannelScanProgram > thePrograms = new ArrayList<ChannelScanProgram>( values() ); 
+      ArrayList< ChannelScanProgram > thePrograms = new ArrayList< ChannelScanProgram >( mSize );
+      for( int i = 0; i < mSize; i++ )
+      {
+         thePrograms.add( mSortedValues[ i ] );
+      }
       return thePrograms;
    }
+
+   /**
+    * Puts a new entry in its place in the sorted arrays, before mSize counts it
+    */
+   private void insertSorted( int aProgramNumber, ChannelScanProgram aProgram )
+   {
+      if( mSize == mSortedKeys.length )
+      {
+         mSortedKeys = Arrays.copyOf( mSortedKeys, mSize * 2 );
+         mSortedValues = Arrays.copyOf( mSortedValues, mSize * 2 );
+      }
+
+      int theIndex = -Arrays.binarySearch( mSortedKeys, 0, mSize, aProgramNumber ) - 1;
+      System.arraycopy( mSortedKeys, theIndex, mSortedKeys, theIndex + 1, mSize - theIndex );
+      System.arraycopy( mSortedValues, theIndex, mSortedValues, theIndex + 1, mSize - theIndex );
+      mSortedKeys[ theIndex ] = aProgramNumber;
+      mSortedValues[ theIndex ] = aProgram;
+   }
+
+   /**
+    * @return the slot holding aKey, or the empty slot where it would go
+    */
+   private int findSlot( int aKey )
+   {
+      int theMask = mKeys.length - 1;
+      int theSlot = hash( aKey ) & theMask;
+      while( mValues[ theSlot ] != null && mKeys[ theSlot ] != aKey )
+      {
+         theSlot = ( theSlot + 1 ) & theMask;
+      }
+      return theSlot;
+   }
+
+   private void resize( int aCapacity )
+   {
+      int[] theOldKeys = mKeys;
+      ChannelScanProgram[] theOldValues = mValues;
+
+      mKeys = new int[ aCapacity ];
+      mValues = new ChannelScanProgram[ aCapacity ];
+
+      for( int i = 0; i < theOldKeys.length; i++ )
+      {
+         if( theOldValues[ i ] != null )
+         {
+            int theSlot = findSlot( theOldKeys[ i ] );
+            mKeys[ theSlot ] = theOldKeys[ i ];
+            mValues[ theSlot ] = theOldValues[ i ];
+         }
+      }
+   }
+
+   private static int hash( int aKey )
+   {
+      //program numbers are small and sequential, spread them over the table
+      int theHash = aKey * 0x9E3779B9;
+      return theHash ^ ( theHash >>> 16 );
+   }
+
+   private void checkIndex( int aIndex )
+   {
+      if( aIndex < 0 || aIndex >= mSize )
+      {
+         throw new ArrayIndexOutOfBoundsException( aIndex );
+      }
+   }
+
+   private class ProgramIterator implements Iterator< ChannelScanProgram >
+   {
+      private int mIndex = 0;
+
+      @Override
+      public boolean hasNext()
+      {
+         return mIndex < mSize;
+      }
+
+      @Override
+      public ChannelScanProgram next()
+      {
+         if( mIndex >= mSize )
+         {
+            throw new NoSuchElementException();
+         }
+         return mSortedValues[ mIndex++ ];
+      }
+
+      @Override
+      public void remove()
+      {
+         throw new UnsupportedOperationException();
+      }
+   }
 }
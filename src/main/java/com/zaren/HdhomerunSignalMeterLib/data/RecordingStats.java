@@ -0,0 +1,124 @@
+package com.zaren.HdhomerunSignalMeterLib.data;
+
+/**
+ * How a recording started with HdhomerunDevice.startRecording is keeping up. The stream is
+ * gathered into a pool of blocks that a writer thread writes out; the backlog is the full blocks
+ * waiting for it. If the pool fills the device's own receive buffer takes the stream, and only
+ * when that overflows is data lost, counted by getOverflowErrorCount.
+ *
+ * Reuse an instance for every read, HdhomerunDevice.getRecordingStats fills it in place.
+ */
+public class RecordingStats
+{
+    //the order the native call writes them in
+    static final int BYTES_WRITTEN = 0;
+    static final int BLOCKS_WRITTEN = 1;
+    static final int SEGMENT_COUNT = 2;
+    static final int BLOCK_COUNT = 3;
+    static final int BACKLOG_BLOCKS = 4;
+    static final int BACKLOG_BLOCKS_MAX = 5;
+    static final int WRITE_TIME_TOTAL_US = 6;
+    static final int WRITE_TIME_MAX_US = 7;
+    static final int WRITE_ERROR_COUNT = 8;
+    static final int OVERFLOW_ERROR_COUNT = 9;
+    static final int IO_URING = 10;
+    static final int VALUE_COUNT = 11;
+
+    /** bytes in a block, a whole number of 4096 byte pages and of 1316 byte stream packets */
+    public static final int BLOCK_SIZE = 4096 * 329;
+
+    final long[] mValues = new long[ VALUE_COUNT ];
+
+    public long getBytesWritten()
+    {
+        return mValues[ BYTES_WRITTEN ];
+    }
+
+    public long getBlocksWritten()
+    {
+        return mValues[ BLOCKS_WRITTEN ];
+    }
+
+    /**
+     * @return the files written so far, including the open one
+     */
+    public int getSegmentCount()
+    {
+        return (int) mValues[ SEGMENT_COUNT ];
+    }
+
+    /**
+     * @return the blocks in the pool
+     */
+    public int getBlockCount()
+    {
+        return (int) mValues[ BLOCK_COUNT ];
+    }
+
+    /**
+     * @return full blocks waiting to be written
+     */
+    public int getBacklogBlocks()
+    {
+        return (int) mValues[ BACKLOG_BLOCKS ];
+    }
+
+    /**
+     * @return the most blocks that were ever waiting, near getBlockCount the disk isn't keeping up
+     */
+    public int getMaxBacklogBlocks()
+    {
+        return (int) mValues[ BACKLOG_BLOCKS_MAX ];
+    }
+
+    /**
+     * @return the average time from a block filling to its write completing, waiting for the writer included
+     */
+    public long getAverageWriteMicros()
+    {
+        long theBlocks = mValues[ BLOCKS_WRITTEN ];
+        return theBlocks > 0 ? mValues[ WRITE_TIME_TOTAL_US ] / theBlocks : 0;
+    }
+
+    public long getMaxWriteMicros()
+    {
+        return mValues[ WRITE_TIME_MAX_US ];
+    }
+
+    /**
+     * @return true if the blocks are written through the shared io_uring, see HdhomerunDevice.setRecordingIoUring
+     */
+    public boolean isIoUring()
+    {
+        return mValues[ IO_URING ] != 0;
+    }
+
+    /**
+     * @return blocks that couldn't be written, or files that couldn't be created
+     */
+    public long getWriteErrorCount()
+    {
+        return mValues[ WRITE_ERROR_COUNT ];
+    }
+
+    /**
+     * @return the overflow_error_count of the device's receive buffer, stream data that was lost
+     */
+    public long getOverflowErrorCount()
+    {
+        return mValues[ OVERFLOW_ERROR_COUNT ];
+    }
+
+    public void copyTo( RecordingStats aOther )
+    {
+        System.arraycopy( mValues, 0, aOther.mValues, 0, VALUE_COUNT );
+    }
+
+    void clear()
+    {
+        for( int i = 0; i < VALUE_COUNT; i++ )
+        {
+            mValues[ i ] = 0;
+        }
+    }
+}
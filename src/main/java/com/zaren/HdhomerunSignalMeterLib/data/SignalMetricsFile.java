@@ -0,0 +1,395 @@
+package com.zaren.HdhomerunSignalMeterLib.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.zaren.HdhomerunSignalMeterLib.util.HDHomerunLogger;
+
+/**
+ * The signal history of one tuner, a memory mapped file of four fixed record rings: every sample,
+ * and per second, minute and hour rollups with the min, average and max of each quality. A
+ * sample is written straight into the mapping and folded into the open rollup of each
+ * resolution, the rollup is written when a sample falls into the next second, minute or hour.
+ * Nothing is allocated per sample and the oldest records are overwritten once a ring is full.
+ *
+ * Timestamps must not go backwards, older ones are stored as the latest so the rings stay sorted
+ * for the range queries.
+ */
+public class SignalMetricsFile
+{
+    public static final int RESOLUTION_SAMPLE = 0;
+    public static final int RESOLUTION_SECOND = 1;
+    public static final int RESOLUTION_MINUTE = 2;
+    public static final int RESOLUTION_HOUR = 3;
+    public static final int RESOLUTION_COUNT = 4;
+
+    private static final long[] BUCKET_MS = { 0, 1000, 60 * 1000, 60 * 60 * 1000 };
+
+    private static final int MAGIC = 0x4844534D; //HDSM
+    private static final int VERSION = 1;
+
+    //header: magic, version, then capacity and records written for every ring
+    private static final int HEADER_SIZE = 64;
+    private static final int HEADER_RINGS = 8;
+    private static final int HEADER_RING_SIZE = 12;
+
+    /*
+     * sample: time, bps, pps, ss, snq, seq, lock code, reserved
+     */
+    static final int SAMPLE_SIZE = 24;
+    private static final int SAMPLE_BPS = 8;
+    private static final int SAMPLE_PPS = 12;
+    private static final int SAMPLE_SS = 16;
+    private static final int SAMPLE_SNQ = 17;
+    private static final int SAMPLE_SEQ = 18;
+    private static final int SAMPLE_LOCK = 19;
+
+    /*
+     * rollup: time, samples, locked samples, average bps and pps, min/avg/max of ss, snq and seq,
+     * last lock code, reserved
+     */
+    static final int ROLLUP_SIZE = 40;
+    private static final int ROLLUP_SAMPLES = 8;
+    private static final int ROLLUP_LOCKED = 12;
+    private static final int ROLLUP_BPS = 16;
+    private static final int ROLLUP_PPS = 20;
+    private static final int ROLLUP_SS = 24;
+    private static final int ROLLUP_SNQ = 27;
+    private static final int ROLLUP_SEQ = 30;
+    private static final int ROLLUP_LOCK = 33;
+
+    private static final int MIN = 0;
+    private static final int AVG = 1;
+    private static final int MAX = 2;
+
+    private final File mFile;
+    private final RandomAccessFile mRandomAccessFile;
+    private final MappedByteBuffer mBuffer;
+
+    private final int[] mCapacity = new int[ RESOLUTION_COUNT ];
+    private final int[] mRecordSize = new int[ RESOLUTION_COUNT ];
+    private final int[] mOffset = new int[ RESOLUTION_COUNT ];
+    private final long[] mWritten = new long[ RESOLUTION_COUNT ];
+    private long mLastTime = Long.MIN_VALUE;
+
+    //the open rollups, indexed by resolution, RESOLUTION_SAMPLE unused
+    private final long[] mBucket = new long[ RESOLUTION_COUNT ];
+    private final int[] mSamples = new int[ RESOLUTION_COUNT ];
+    private final int[] mLocked = new int[ RESOLUTION_COUNT ];
+    private final long[] mBpsSum = new long[ RESOLUTION_COUNT ];
+    private final long[] mPpsSum = new long[ RESOLUTION_COUNT ];
+    private final int[][] mSs = new int[ RESOLUTION_COUNT ][ 3 ];
+    private final int[][] mSnq = new int[ RESOLUTION_COUNT ][ 3 ];
+    private final int[][] mSeq = new int[ RESOLUTION_COUNT ][ 3 ];
+    private final int[] mLockCode = new int[ RESOLUTION_COUNT ];
+
+    /**
+     * Opens or creates the file. An existing file with other capacities is started over.
+     *
+     * @param aCapacities records kept per resolution, indexed by the RESOLUTION_ constants
+     */
+    public SignalMetricsFile( File aFile, int[] aCapacities ) throws IOException
+    {
+        mFile = aFile;
+
+        int theSize = HEADER_SIZE;
+        for( int i = 0; i < RESOLUTION_COUNT; i++ )
+        {
+            mCapacity[ i ] = Math.max( 1, aCapacities[ i ] );
+            mRecordSize[ i ] = i == RESOLUTION_SAMPLE ? SAMPLE_SIZE : ROLLUP_SIZE;
+            mOffset[ i ] = theSize;
+            theSize += mCapacity[ i ] * mRecordSize[ i ];
+            mBucket[ i ] = -1;
+        }
+
+        mRandomAccessFile = new RandomAccessFile( aFile, "rw" );
+        try
+        {
+            boolean theExisting = mRandomAccessFile.length() == theSize;
+            mRandomAccessFile.setLength( theSize );
+            mBuffer = mRandomAccessFile.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, theSize );
+
+            if( !theExisting || !readHeader() )
+            {
+                HDHomerunLogger.d( "SignalMetricsFile: starting " + aFile + " over" );
+                writeHeader();
+            }
+        }
+        catch( IOException e )
+        {
+            mRandomAccessFile.close();
+            throw e;
+        }
+    }
+
+    public File getFile()
+    {
+        return mFile;
+    }
+
+    public int getCapacity( int aResolution )
+    {
+        return mCapacity[ aResolution ];
+    }
+
+    /**
+     * @return the records held for the resolution, at most its capacity
+     */
+    public synchronized int getCount( int aResolution )
+    {
+        return (int) Math.min( mWritten[ aResolution ], mCapacity[ aResolution ] );
+    }
+
+    /**
+     * @param aQualities signal strength, snq and seq 0 to 100
+     * @param aLockCode see SignalMetricsStore.lockCode
+     */
+    public synchronized void append( long aTime, int aSignalStrength, int aSnrQuality, int aSymbolQuality,
+                                     int aBitsPerSecond, int aPacketsPerSecond, int aLockCode )
+    {
+        long theTime = Math.max( aTime, mLastTime );
+        mLastTime = theTime;
+
+        int theSs = clamp( aSignalStrength );
+        int theSnq = clamp( aSnrQuality );
+        int theSeq = clamp( aSymbolQuality );
+
+        int thePosition = position( RESOLUTION_SAMPLE, mWritten[ RESOLUTION_SAMPLE ] );
+        mBuffer.putLong( thePosition, theTime );
+        mBuffer.putInt( thePosition + SAMPLE_BPS, aBitsPerSecond );
+        mBuffer.putInt( thePosition + SAMPLE_PPS, aPacketsPerSecond );
+        mBuffer.put( thePosition + SAMPLE_SS, (byte) theSs );
+        mBuffer.put( thePosition + SAMPLE_SNQ, (byte) theSnq );
+        mBuffer.put( thePosition + SAMPLE_SEQ, (byte) theSeq );
+        mBuffer.put( thePosition + SAMPLE_LOCK, (byte) aLockCode );
+        written( RESOLUTION_SAMPLE );
+
+        for( int theResolution = RESOLUTION_SECOND; theResolution < RESOLUTION_COUNT; theResolution++ )
+        {
+            long theBucket = theTime - theTime % BUCKET_MS[ theResolution ];
+            if( theBucket != mBucket[ theResolution ] )
+            {
+                writeRollup( theResolution );
+                startRollup( theResolution, theBucket );
+            }
+
+            mSamples[ theResolution ]++;
+            if( aLockCode != SignalMetricsStore.LOCK_NONE )
+            {
+                mLocked[ theResolution ]++;
+            }
+            mBpsSum[ theResolution ] += aBitsPerSecond;
+            mPpsSum[ theResolution ] += aPacketsPerSecond;
+            accumulate( mSs[ theResolution ], theSs );
+            accumulate( mSnq[ theResolution ], theSnq );
+            accumulate( mSeq[ theResolution ], theSeq );
+            mLockCode[ theResolution ] = aLockCode;
+        }
+    }
+
+    /**
+     * Fills aSeries with the records of the resolution from aFrom to aTo inclusive, oldest first.
+     * The open rollups aren't included until they are written.
+     *
+     * @return the number of records
+     */
+    public synchronized int query( int aResolution, long aFrom, long aTo, SignalMetricsSeries aSeries )
+    {
+        aSeries.clear( aResolution );
+
+        int theCount = getCount( aResolution );
+        long theFirst = mWritten[ aResolution ] - theCount;
+
+        //first record at or after aFrom
+        int theLow = 0;
+        int theHigh = theCount;
+        while( theLow < theHigh )
+        {
+            int theMiddle = ( theLow + theHigh ) >>> 1;
+            if( mBuffer.getLong( position( aResolution, theFirst + theMiddle ) ) < aFrom )
+            {
+                theLow = theMiddle + 1;
+            }
+            else
+            {
+                theHigh = theMiddle;
+            }
+        }
+
+        for( int i = theLow; i < theCount; i++ )
+        {
+            int thePosition = position( aResolution, theFirst + i );
+            long theTime = mBuffer.getLong( thePosition );
+            if( theTime > aTo )
+            {
+                break;
+            }
+
+            if( aResolution == RESOLUTION_SAMPLE )
+            {
+                int theSs = mBuffer.get( thePosition + SAMPLE_SS ) & 0xFF;
+                int theSnq = mBuffer.get( thePosition + SAMPLE_SNQ ) & 0xFF;
+                int theSeq = mBuffer.get( thePosition + SAMPLE_SEQ ) & 0xFF;
+                int theLockCode = mBuffer.get( thePosition + SAMPLE_LOCK ) & 0xFF;
+                aSeries.add( theTime, 1, theLockCode != SignalMetricsStore.LOCK_NONE ? 1 : 0,
+                             theSs, theSs, theSs, theSnq, theSnq, theSnq, theSeq, theSeq, theSeq,
+                             mBuffer.getInt( thePosition + SAMPLE_BPS ), mBuffer.getInt( thePosition + SAMPLE_PPS ), theLockCode );
+            }
+            else
+            {
+                aSeries.add( theTime, mBuffer.getInt( thePosition + ROLLUP_SAMPLES ), mBuffer.getInt( thePosition + ROLLUP_LOCKED ),
+                             mBuffer.get( thePosition + ROLLUP_SS + MIN ) & 0xFF, mBuffer.get( thePosition + ROLLUP_SS + AVG ) & 0xFF, mBuffer.get( thePosition + ROLLUP_SS + MAX ) & 0xFF,
+                             mBuffer.get( thePosition + ROLLUP_SNQ + MIN ) & 0xFF, mBuffer.get( thePosition + ROLLUP_SNQ + AVG ) & 0xFF, mBuffer.get( thePosition + ROLLUP_SNQ + MAX ) & 0xFF,
+                             mBuffer.get( thePosition + ROLLUP_SEQ + MIN ) & 0xFF, mBuffer.get( thePosition + ROLLUP_SEQ + AVG ) & 0xFF, mBuffer.get( thePosition + ROLLUP_SEQ + MAX ) & 0xFF,
+                             mBuffer.getInt( thePosition + ROLLUP_BPS ), mBuffer.getInt( thePosition + ROLLUP_PPS ), mBuffer.get( thePosition + ROLLUP_LOCK ) & 0xFF );
+            }
+        }
+
+        return aSeries.getCount();
+    }
+
+    /**
+     * Writes the open rollups, a later sample in the same second, minute or hour starts a second
+     * record for it
+     */
+    public synchronized void flushRollups()
+    {
+        for( int theResolution = RESOLUTION_SECOND; theResolution < RESOLUTION_COUNT; theResolution++ )
+        {
+            writeRollup( theResolution );
+            mBucket[ theResolution ] = -1;
+        }
+    }
+
+    /**
+     * Writes the mapping out to the file
+     */
+    public synchronized void force()
+    {
+        mBuffer.force();
+    }
+
+    public synchronized void close() throws IOException
+    {
+        flushRollups();
+        mBuffer.force();
+        mRandomAccessFile.close();
+    }
+
+    private void startRollup( int aResolution, long aBucket )
+    {
+        mBucket[ aResolution ] = aBucket;
+        mSamples[ aResolution ] = 0;
+        mLocked[ aResolution ] = 0;
+        mBpsSum[ aResolution ] = 0;
+        mPpsSum[ aResolution ] = 0;
+        resetAccumulator( mSs[ aResolution ] );
+        resetAccumulator( mSnq[ aResolution ] );
+        resetAccumulator( mSeq[ aResolution ] );
+    }
+
+    private void writeRollup( int aResolution )
+    {
+        int theSamples = mSamples[ aResolution ];
+        if( mBucket[ aResolution ] < 0 || theSamples == 0 )
+        {
+            return;
+        }
+
+        int thePosition = position( aResolution, mWritten[ aResolution ] );
+        mBuffer.putLong( thePosition, mBucket[ aResolution ] );
+        mBuffer.putInt( thePosition + ROLLUP_SAMPLES, theSamples );
+        mBuffer.putInt( thePosition + ROLLUP_LOCKED, mLocked[ aResolution ] );
+        mBuffer.putInt( thePosition + ROLLUP_BPS, (int) ( mBpsSum[ aResolution ] / theSamples ) );
+        mBuffer.putInt( thePosition + ROLLUP_PPS, (int) ( mPpsSum[ aResolution ] / theSamples ) );
+        putAccumulator( thePosition + ROLLUP_SS, mSs[ aResolution ], theSamples );
+        putAccumulator( thePosition + ROLLUP_SNQ, mSnq[ aResolution ], theSamples );
+        putAccumulator( thePosition + ROLLUP_SEQ, mSeq[ aResolution ], theSamples );
+        mBuffer.put( thePosition + ROLLUP_LOCK, (byte) mLockCode[ aResolution ] );
+        written( aResolution );
+
+        mSamples[ aResolution ] = 0;
+    }
+
+    private static void resetAccumulator( int[] aAccumulator )
+    {
+        aAccumulator[ MIN ] = Integer.MAX_VALUE;
+        aAccumulator[ AVG ] = 0;
+        aAccumulator[ MAX ] = Integer.MIN_VALUE;
+    }
+
+    /**
+     * AVG holds the sum until the rollup is written
+     */
+    private static void accumulate( int[] aAccumulator, int aValue )
+    {
+        aAccumulator[ MIN ] = Math.min( aAccumulator[ MIN ], aValue );
+        aAccumulator[ AVG ] += aValue;
+        aAccumulator[ MAX ] = Math.max( aAccumulator[ MAX ], aValue );
+    }
+
+    private void putAccumulator( int aPosition, int[] aAccumulator, int aSamples )
+    {
+        mBuffer.put( aPosition + MIN, (byte) aAccumulator[ MIN ] );
+        mBuffer.put( aPosition + AVG, (byte) ( ( aAccumulator[ AVG ] + aSamples / 2 ) / aSamples ) );
+        mBuffer.put( aPosition + MAX, (byte) aAccumulator[ MAX ] );
+    }
+
+    private int position( int aResolution, long aRecord )
+    {
+        return mOffset[ aResolution ] + (int) ( aRecord % mCapacity[ aResolution ] ) * mRecordSize[ aResolution ];
+    }
+
+    private void written( int aResolution )
+    {
+        mWritten[ aResolution ]++;
+        mBuffer.putLong( HEADER_RINGS + aResolution * HEADER_RING_SIZE + 4, mWritten[ aResolution ] );
+    }
+
+    private boolean readHeader()
+    {
+        if( mBuffer.getInt( 0 ) != MAGIC || mBuffer.getInt( 4 ) != VERSION )
+        {
+            return false;
+        }
+
+        for( int i = 0; i < RESOLUTION_COUNT; i++ )
+        {
+            if( mBuffer.getInt( HEADER_RINGS + i * HEADER_RING_SIZE ) != mCapacity[ i ] )
+            {
+                return false;
+            }
+            mWritten[ i ] = mBuffer.getLong( HEADER_RINGS + i * HEADER_RING_SIZE + 4 );
+        }
+
+        //carry on after the newest record so the rings stay sorted
+        for( int i = 0; i < RESOLUTION_COUNT; i++ )
+        {
+            if( mWritten[ i ] > 0 )
+            {
+                mLastTime = Math.max( mLastTime, mBuffer.getLong( position( i, mWritten[ i ] - 1 ) ) );
+            }
+        }
+        return true;
+    }
+
+    private void writeHeader()
+    {
+        mBuffer.putInt( 0, MAGIC );
+        mBuffer.putInt( 4, VERSION );
+        for( int i = 0; i < RESOLUTION_COUNT; i++ )
+        {
+            mWritten[ i ] = 0;
+            mBuffer.putInt( HEADER_RINGS + i * HEADER_RING_SIZE, mCapacity[ i ] );
+            mBuffer.putLong( HEADER_RINGS + i * HEADER_RING_SIZE + 4, 0 );
+        }
+    }
+
+    private static int clamp( int aQuality )
+    {
+        return Math.max( 0, Math.min( 255, aQuality ) );
+    }
+}
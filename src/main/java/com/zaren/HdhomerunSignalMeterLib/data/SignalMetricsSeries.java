@@ -0,0 +1,128 @@
+package com.zaren.HdhomerunSignalMeterLib.data;
+
+/**
+ * The result of a SignalMetricsStore range query, one column array per value. Reuse a series
+ * between queries, the arrays only grow when a query returns more records than any before it.
+ *
+ * A raw sample is returned as a record of one sample with its min, average and max the same.
+ */
+public class SignalMetricsSeries
+{
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int mResolution;
+    private int mCount;
+
+    public long[] time = new long[ INITIAL_CAPACITY ];
+    public int[] samples = new int[ INITIAL_CAPACITY ];
+    public int[] lockedSamples = new int[ INITIAL_CAPACITY ];
+
+    public byte[] signalStrengthMin = new byte[ INITIAL_CAPACITY ];
+    public byte[] signalStrengthAvg = new byte[ INITIAL_CAPACITY ];
+    public byte[] signalStrengthMax = new byte[ INITIAL_CAPACITY ];
+    public byte[] snrQualityMin = new byte[ INITIAL_CAPACITY ];
+    public byte[] snrQualityAvg = new byte[ INITIAL_CAPACITY ];
+    public byte[] snrQualityMax = new byte[ INITIAL_CAPACITY ];
+    public byte[] symbolQualityMin = new byte[ INITIAL_CAPACITY ];
+    public byte[] symbolQualityAvg = new byte[ INITIAL_CAPACITY ];
+    public byte[] symbolQualityMax = new byte[ INITIAL_CAPACITY ];
+
+    public int[] bitsPerSecond = new int[ INITIAL_CAPACITY ];
+    public int[] packetsPerSecond = new int[ INITIAL_CAPACITY ];
+    public byte[] lockCode = new byte[ INITIAL_CAPACITY ];
+
+    /**
+     * @return the SignalMetricsFile.RESOLUTION_ of the last query
+     */
+    public int getResolution()
+    {
+        return mResolution;
+    }
+
+    public int getCount()
+    {
+        return mCount;
+    }
+
+    /** the quality columns hold 0 to 100, read them with these to skip the sign */
+    public static int unsigned( byte aValue )
+    {
+        return aValue & 0xFF;
+    }
+
+    void clear( int aResolution )
+    {
+        mResolution = aResolution;
+        mCount = 0;
+    }
+
+    void add( long aTime, int aSamples, int aLockedSamples,
+              int aSsMin, int aSsAvg, int aSsMax,
+              int aSnqMin, int aSnqAvg, int aSnqMax,
+              int aSeqMin, int aSeqAvg, int aSeqMax,
+              int aBitsPerSecond, int aPacketsPerSecond, int aLockCode )
+    {
+        if( mCount == time.length )
+        {
+            grow( mCount * 2 );
+        }
+
+        int i = mCount++;
+        time[ i ] = aTime;
+        samples[ i ] = aSamples;
+        lockedSamples[ i ] = aLockedSamples;
+        signalStrengthMin[ i ] = (byte) aSsMin;
+        signalStrengthAvg[ i ] = (byte) aSsAvg;
+        signalStrengthMax[ i ] = (byte) aSsMax;
+        snrQualityMin[ i ] = (byte) aSnqMin;
+        snrQualityAvg[ i ] = (byte) aSnqAvg;
+        snrQualityMax[ i ] = (byte) aSnqMax;
+        symbolQualityMin[ i ] = (byte) aSeqMin;
+        symbolQualityAvg[ i ] = (byte) aSeqAvg;
+        symbolQualityMax[ i ] = (byte) aSeqMax;
+        bitsPerSecond[ i ] = aBitsPerSecond;
+        packetsPerSecond[ i ] = aPacketsPerSecond;
+        lockCode[ i ] = (byte) aLockCode;
+    }
+
+    private void grow( int aCapacity )
+    {
+        time = copyOf( time, aCapacity );
+        samples = copyOf( samples, aCapacity );
+        lockedSamples = copyOf( lockedSamples, aCapacity );
+        signalStrengthMin = copyOf( signalStrengthMin, aCapacity );
+        signalStrengthAvg = copyOf( signalStrengthAvg, aCapacity );
+        signalStrengthMax = copyOf( signalStrengthMax, aCapacity );
+        snrQualityMin = copyOf( snrQualityMin, aCapacity );
+        snrQualityAvg = copyOf( snrQualityAvg, aCapacity );
+        snrQualityMax = copyOf( snrQualityMax, aCapacity );
+        symbolQualityMin = copyOf( symbolQualityMin, aCapacity );
+        symbolQualityAvg = copyOf( symbolQualityAvg, aCapacity );
+        symbolQualityMax = copyOf( symbolQualityMax, aCapacity );
+        bitsPerSecond = copyOf( bitsPerSecond, aCapacity );
+        packetsPerSecond = copyOf( packetsPerSecond, aCapacity );
+        lockCode = copyOf( lockCode, aCapacity );
+    }
+
+    //Arrays.copyOf is API level 9
+    private static long[] copyOf( long[] aArray, int aCapacity )
+    {
+        long[] theCopy = new long[ aCapacity ];
+        System.arraycopy( aArray, 0, theCopy, 0, aArray.length );
+        return theCopy;
+    }
+
+    private static int[] copyOf( int[] aArray, int aCapacity )
+    {
+        int[] theCopy = new int[ aCapacity ];
+        System.arraycopy( aArray, 0, theCopy, 0, aArray.length );
+        return theCopy;
+    }
+
+    private static byte[] copyOf( byte[] aArray, int aCapacity )
+    {
+        byte[] theCopy = new byte[ aCapacity ];
+        System.arraycopy( aArray, 0, theCopy, 0, aArray.length );
+        return theCopy;
+    }
+}
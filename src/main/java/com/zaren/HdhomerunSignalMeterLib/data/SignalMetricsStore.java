@@ -0,0 +1,212 @@
+package com.zaren.HdhomerunSignalMeterLib.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+
+import com.zaren.HdhomerunSignalMeterLib.util.HDHomerunLogger;
+
+/**
+ * Keeps the signal history of every tuner in a directory, one SignalMetricsFile named after the
+ * tuner, like "1013ABCD-0.ring". The files are opened as tuners first report and hold the last
+ * ten minutes of samples at 20 a second, an hour of seconds, a week of minutes and a year of
+ * hours unless other capacities are given.
+ *
+ * Recording a sample allocates nothing once its tuner's file is open, so a status poll of every
+ * tuner can record every time.
+ */
+public class SignalMetricsStore
+{
+    public static final int LOCK_NONE = 0;
+    public static final int LOCK_8VSB = 1;
+    public static final int LOCK_QAM64 = 2;
+    public static final int LOCK_QAM256 = 3;
+    public static final int LOCK_DVBT = 4;
+    public static final int LOCK_OTHER = 254;
+    public static final int LOCK_UNKNOWN = 255;
+
+    public static final int[] DEFAULT_CAPACITIES = { 10 * 60 * 20, 60 * 60, 7 * 24 * 60, 365 * 24 };
+
+    private static final String EXTENSION = ".ring";
+
+    private final File mDirectory;
+    private final int[] mCapacities;
+    private final HashMap< String, SignalMetricsFile > mFiles = new HashMap< String, SignalMetricsFile >();
+    private boolean mClosed;
+
+    public SignalMetricsStore( File aDirectory )
+    {
+        this( aDirectory, DEFAULT_CAPACITIES );
+    }
+
+    /**
+     * @param aCapacities records kept per resolution, indexed by the SignalMetricsFile.RESOLUTION_ constants
+     */
+    public SignalMetricsStore( File aDirectory, int[] aCapacities )
+    {
+        if( aCapacities.length != SignalMetricsFile.RESOLUTION_COUNT )
+        {
+            throw new IllegalArgumentException( "need " + SignalMetricsFile.RESOLUTION_COUNT + " capacities" );
+        }
+
+        mDirectory = aDirectory;
+        mCapacities = aCapacities.clone();
+    }
+
+    public File getDirectory()
+    {
+        return mDirectory;
+    }
+
+    /**
+     * Records a tuner status reading, a reading that isn't a SUCCESS is left out
+     *
+     * @param aTunerName the HdhomerunDevice.getDeviceName() of the tuner
+     * @return false if the tuner's file couldn't be opened
+     */
+    public boolean record( String aTunerName, long aTime, TunerStatus aStatus )
+    {
+        if( aStatus.returnStatus != DeviceResponse.SUCCESS )
+        {
+            return true;
+        }
+
+        int theLockCode = aStatus.signalPresent ? lockCode( aStatus.lockStr ) : LOCK_NONE;
+        return record( aTunerName, aTime, (int) aStatus.signalStrength, (int) aStatus.snrQuality, (int) aStatus.symbolErrorQuality,
+                       (int) aStatus.rawBitsPerSecond, (int) aStatus.packetsPerSecond, theLockCode );
+    }
+
+    public boolean record( String aTunerName, long aTime, int aSignalStrength, int aSnrQuality, int aSymbolQuality,
+                           int aBitsPerSecond, int aPacketsPerSecond, int aLockCode )
+    {
+        SignalMetricsFile theFile = getFile( aTunerName, true );
+        if( theFile == null )
+        {
+            return false;
+        }
+
+        theFile.append( aTime, aSignalStrength, aSnrQuality, aSymbolQuality, aBitsPerSecond, aPacketsPerSecond, aLockCode );
+        return true;
+    }
+
+    /**
+     * Fills aSeries with the tuner's records of the resolution from aFrom to aTo inclusive, oldest first.
+     * Seconds, minutes and hours still being recorded aren't included, flush() writes them.
+     *
+     * @param aResolution one of the SignalMetricsFile.RESOLUTION_ constants
+     * @return the number of records, 0 if the tuner has no history
+     */
+    public int query( String aTunerName, int aResolution, long aFrom, long aTo, SignalMetricsSeries aSeries )
+    {
+        SignalMetricsFile theFile = getFile( aTunerName, new File( mDirectory, aTunerName + EXTENSION ).exists() );
+        if( theFile == null )
+        {
+            aSeries.clear( aResolution );
+            return 0;
+        }
+
+        return theFile.query( aResolution, aFrom, aTo, aSeries );
+    }
+
+    /**
+     * Writes the open rollups and the mappings out to their files
+     */
+    public void flush()
+    {
+        for( SignalMetricsFile theFile : snapshot() )
+        {
+            theFile.flushRollups();
+            theFile.force();
+        }
+    }
+
+    public void close()
+    {
+        SignalMetricsFile[] theFiles;
+        synchronized( this )
+        {
+            mClosed = true;
+            theFiles = mFiles.values().toArray( new SignalMetricsFile[ mFiles.size() ] );
+            mFiles.clear();
+        }
+
+        for( SignalMetricsFile theFile : theFiles )
+        {
+            try
+            {
+                theFile.close();
+            }
+            catch( IOException e )
+            {
+                HDHomerunLogger.e( "SignalMetricsStore: closing " + theFile.getFile() + " failed: " + e.getMessage() );
+            }
+        }
+    }
+
+    /**
+     * @param aLockStr the lockStr of a TunerStatus
+     * @return the LOCK_ code stored for it
+     */
+    public static int lockCode( String aLockStr )
+    {
+        if( aLockStr == null )
+        {
+            return LOCK_UNKNOWN;
+        }
+        if( aLockStr.equals( "none" ) || aLockStr.length() == 0 )
+        {
+            return LOCK_NONE;
+        }
+        //DVB-T names its modulation too, like t8qam64, so it goes first
+        if( aLockStr.startsWith( "t8" ) || aLockStr.startsWith( "t7" ) || aLockStr.startsWith( "t6" ) )
+        {
+            return LOCK_DVBT;
+        }
+        if( aLockStr.contains( "8vsb" ) )
+        {
+            return LOCK_8VSB;
+        }
+        if( aLockStr.contains( "qam256" ) )
+        {
+            return LOCK_QAM256;
+        }
+        if( aLockStr.contains( "qam64" ) )
+        {
+            return LOCK_QAM64;
+        }
+        return LOCK_OTHER;
+    }
+
+    private synchronized SignalMetricsFile getFile( String aTunerName, boolean aCreate )
+    {
+        SignalMetricsFile theFile = mFiles.get( aTunerName );
+        if( theFile != null || !aCreate || mClosed )
+        {
+            return theFile;
+        }
+
+        if( !mDirectory.isDirectory() && !mDirectory.mkdirs() )
+        {
+            HDHomerunLogger.e( "SignalMetricsStore: can't create " + mDirectory );
+            return null;
+        }
+
+        try
+        {
+            theFile = new SignalMetricsFile( new File( mDirectory, aTunerName + EXTENSION ), mCapacities );
+        }
+        catch( IOException e )
+        {
+            HDHomerunLogger.e( "SignalMetricsStore: opening " + aTunerName + " failed: " + e.getMessage() );
+            return null;
+        }
+
+        mFiles.put( aTunerName, theFile );
+        return theFile;
+    }
+
+    private synchronized SignalMetricsFile[] snapshot()
+    {
+        return mFiles.values().toArray( new SignalMetricsFile[ mFiles.size() ] );
+    }
+}
@@ -0,0 +1,168 @@
+package com.zaren.HdhomerunSignalMeterLib.data;
+
+import java.util.HashMap;
+
+/**
+ * How well every tuner has received every frequency it was tuned to.
+ *
+ * Each (device, tuner, frequency) keeps an exponentially weighted average of the signal to noise
+ * quality and the symbol error quality of its tuner status readings. A reading without a lock
+ * counts as quality 0. The quality reported for selection fades back towards
+ * TunerPool.UNKNOWN_QUALITY as the readings get old, since reception changes with the weather and
+ * the antenna, so a tuner that did well yesterday doesn't beat one measured a minute ago.
+ */
+public class SignalQualityHistory
+{
+    public static final int QUALITY_UNKNOWN = -1;
+
+    /** weight of a new reading in the averages */
+    public static final float SMOOTHING = 0.2f;
+
+    public static final long DEFAULT_HALF_LIFE_MS = 6 * 60 * 60 * 1000L;
+
+    private final HashMap< Long, Entry > mEntries = new HashMap< Long, Entry >();
+    private long mHalfLifeMs = DEFAULT_HALF_LIFE_MS;
+
+    /**
+     * @param aHalfLifeMs how long it takes a reading to lose half its weight against an unknown tuner
+     */
+    public synchronized void setHalfLife( long aHalfLifeMs )
+    {
+        mHalfLifeMs = aHalfLifeMs;
+    }
+
+    /**
+     * Records a tuner status reading, ignored if the frequency isn't known
+     */
+    public void record( long aDeviceId, int aTuner, int aFrequency, TunerStatus aStatus )
+    {
+        boolean theLocked = aStatus.signalPresent && !aStatus.lockStr.equals( "none" );
+        record( aDeviceId, aTuner, aFrequency, (int) aStatus.snrQuality, (int) aStatus.symbolErrorQuality, theLocked );
+    }
+
+    public synchronized void record( long aDeviceId, int aTuner, int aFrequency, int aSnrQuality, int aSymbolQuality, boolean aLocked )
+    {
+        if( aFrequency <= 0 )
+        {
+            return;
+        }
+
+        Long theKey = key( aDeviceId, aTuner, aFrequency );
+        Entry theEntry = mEntries.get( theKey );
+        if( theEntry == null )
+        {
+            theEntry = new Entry();
+            mEntries.put( theKey, theEntry );
+        }
+
+        float theSnq = aLocked ? clamp( aSnrQuality ) : 0;
+        float theSeq = aLocked ? clamp( aSymbolQuality ) : 0;
+        if( theEntry.samples == 0 )
+        {
+            theEntry.snrQuality = theSnq;
+            theEntry.symbolQuality = theSeq;
+        }
+        else
+        {
+            theEntry.snrQuality += SMOOTHING * ( theSnq - theEntry.snrQuality );
+            theEntry.symbolQuality += SMOOTHING * ( theSeq - theEntry.symbolQuality );
+        }
+        theEntry.samples++;
+        theEntry.lastUpdate = DiscoveryService.now();
+    }
+
+    /**
+     * @return the averaged quality, 0 to 100, faded by its age, or QUALITY_UNKNOWN if the tuner never reported on this frequency
+     */
+    public synchronized int getQuality( long aDeviceId, int aTuner, int aFrequency )
+    {
+        return getQuality( aDeviceId, aTuner, aFrequency, DiscoveryService.now() );
+    }
+
+    synchronized int getQuality( long aDeviceId, int aTuner, int aFrequency, long aNow )
+    {
+        Entry theEntry = mEntries.get( key( aDeviceId, aTuner, aFrequency ) );
+        if( theEntry == null )
+        {
+            return QUALITY_UNKNOWN;
+        }
+
+        float theQuality = ( theEntry.snrQuality + theEntry.symbolQuality ) / 2;
+        double theWeight = Math.pow( 0.5, (double) Math.max( 0, aNow - theEntry.lastUpdate ) / mHalfLifeMs );
+        return Math.round( (float) ( TunerPool.UNKNOWN_QUALITY + ( theQuality - TunerPool.UNKNOWN_QUALITY ) * theWeight ) );
+    }
+
+    /**
+     * @return the averaged signal to noise quality without fading, QUALITY_UNKNOWN if there are no readings
+     */
+    public synchronized int getSnrQuality( long aDeviceId, int aTuner, int aFrequency )
+    {
+        Entry theEntry = mEntries.get( key( aDeviceId, aTuner, aFrequency ) );
+        return theEntry != null ? Math.round( theEntry.snrQuality ) : QUALITY_UNKNOWN;
+    }
+
+    /**
+     * @return the averaged symbol error quality without fading, QUALITY_UNKNOWN if there are no readings
+     */
+    public synchronized int getSymbolQuality( long aDeviceId, int aTuner, int aFrequency )
+    {
+        Entry theEntry = mEntries.get( key( aDeviceId, aTuner, aFrequency ) );
+        return theEntry != null ? Math.round( theEntry.symbolQuality ) : QUALITY_UNKNOWN;
+    }
+
+    public synchronized int getSampleCount( long aDeviceId, int aTuner, int aFrequency )
+    {
+        Entry theEntry = mEntries.get( key( aDeviceId, aTuner, aFrequency ) );
+        return theEntry != null ? theEntry.samples : 0;
+    }
+
+    public synchronized void clear()
+    {
+        mEntries.clear();
+    }
+
+    /**
+     * @param aChannel the channel of a TunerStatus, like "auto:647000000" or "qam:33"
+     * @return the frequency in Hz, 0 if there is no channel or it isn't in aChannelList
+     */
+    public static int frequencyOf( ChannelList aChannelList, String aChannel )
+    {
+        int theColon = aChannel.indexOf( ':' );
+        if( theColon == -1 )
+        {
+            return 0;
+        }
+
+        int theValue;
+        try
+        {
+            theValue = Integer.parseInt( aChannel.substring( theColon + 1 ) );
+        }
+        catch( NumberFormatException e )
+        {
+            return 0;
+        }
+
+        //small numbers are channel numbers, the same guess Utils.getChannelNumberFromTunerStatusChannel makes
+        return theValue > 1000 ? theValue : aChannelList.numberToFrequency( theValue );
+    }
+
+    private static Long key( long aDeviceId, int aTuner, int aFrequency )
+    {
+        //kHz fit in 24 bits up to 16GHz
+        return ( ( aDeviceId & 0xFFFFFFFFL ) << 32 ) | ( ( aTuner & 0xFFL ) << 24 ) | ( ( aFrequency / 1000 ) & 0xFFFFFFL );
+    }
+
+    private static float clamp( int aQuality )
+    {
+        return Math.max( 0, Math.min( 100, aQuality ) );
+    }
+
+    private static class Entry
+    {
+        float snrQuality;
+        float symbolQuality;
+        int samples;
+        long lastUpdate;
+    }
+}
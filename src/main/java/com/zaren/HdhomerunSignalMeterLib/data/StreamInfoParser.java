@@ -0,0 +1,243 @@
+package com.zaren.HdhomerunSignalMeterLib.data;
+
+import com.zaren.HdhomerunSignalMeterLib.util.HDHomerunLogger;
+
+/**
+ * Parses the /tuner<n>/streaminfo text returned by the device into ChannelScanPrograms.
+ *
+ * The text is scanned once, character by character, the only strings created are the
+ * programString and name kept in each ChannelScanProgram. Lines look like:
+ *
+ * <pre>
+ * 1: 2.1 KCBS-HD
+ * 3: 0 (encrypted)
+ * 4: 45.3 KCAL (no data)
+ * tsid=0x0F3A
+ * </pre>
+ */
+public final class StreamInfoParser
+{
+    public static final int TSID_NONE = -1;
+
+    /** longest number we accept, keeps the int from overflowing */
+    private static final int MAX_DIGITS = 9;
+
+    private static final String[] theTypes = new String[]{ ChannelScanProgram.PROGRAM_CONTROL,
+                                                           ChannelScanProgram.PROGRAM_ENCRYPTED,
+                                                           ChannelScanProgram.PROGRAM_NODATA,
+                                                           ChannelScanProgram.PROGRAM_INTERNET };
+
+    private static final String TSID = "tsid=0x";
+
+    private StreamInfoParser()
+    {
+    }
+
+    /**
+     * Appends a ChannelScanProgram to thePrograms for every program line of streamInfo
+     *
+     * @return the transport stream id, or TSID_NONE if the device didn't report one
+     */
+    public static int convertStreamInfoToPrograms( String streamInfo, ProgramsList thePrograms )
+    {
+        int theTsid = TSID_NONE;
+        int theLength = streamInfo.length();
+        int theLineStart = 0;
+
+        while( theLineStart < theLength )
+        {
+            int theLineEnd = theLineStart;
+            while( theLineEnd < theLength && streamInfo.charAt( theLineEnd ) != '\n' )
+            {
+                theLineEnd++;
+            }
+
+            if( streamInfo.startsWith( TSID, theLineStart ) )
+            {
+                theTsid = parseHex( streamInfo, theLineStart + TSID.length(), theLineEnd );
+            }
+            else if( theLineEnd > theLineStart )
+            {
+                ChannelScanProgram theProgram = parseProgramLine( streamInfo, theLineStart, theLineEnd );
+                if( theProgram != null )
+                {
+                    thePrograms.append( theProgram.programNumber, theProgram );
+                }
+            }
+
+            theLineStart = theLineEnd + 1;
+        }
+
+        return theTsid;
+    }
+
+    /**
+     * Fills in the virtual channel, type and name from the part of a program line after the colon
+     */
+    public static void processProgramName( String aProgramName, ChannelScanProgram aProgram )
+    {
+        if( !parseProgramName( aProgramName, 0, aProgramName.length(), aProgram ) )
+        {
+            HDHomerunLogger.e( "Error Parsing String: " + aProgramName );
+        }
+    }
+
+    /**
+     * @return the program, or null if the line isn't a program line
+     */
+    private static ChannelScanProgram parseProgramLine( String aText, int aStart, int aEnd )
+    {
+        int thePos = skipSpaces( aText, aStart, aEnd );
+        int theNumberEnd = skipDigits( aText, thePos, aEnd );
+
+        if( theNumberEnd == thePos || theNumberEnd - thePos > MAX_DIGITS || theNumberEnd >= aEnd || aText.charAt( theNumberEnd ) != ':' )
+        {
+            //"none" when the tuner isn't locked, or something we don't understand
+            return null;
+        }
+
+        ChannelScanProgram theProgram = new ChannelScanProgram();
+        theProgram.programNumber = parseDecimal( aText, thePos, theNumberEnd );
+
+        if( !parseProgramName( aText, theNumberEnd + 1, aEnd, theProgram ) )
+        {
+            HDHomerunLogger.e( "Error Parsing String: " + aText.substring( aStart, aEnd ) );
+            return null;
+        }
+
+        theProgram.programString = aText.substring( aStart, aEnd );
+
+        return theProgram;
+    }
+
+    /**
+     * Parses " 2.1 KCBS-HD (encrypted)" between aStart and aEnd
+     *
+     * @return false if there is no virtual channel number
+     */
+    private static boolean parseProgramName( String aText, int aStart, int aEnd, ChannelScanProgram aProgram )
+    {
+        int thePos = skipSpaces( aText, aStart, aEnd );
+
+        int theMajorEnd = skipDigits( aText, thePos, aEnd );
+        if( theMajorEnd == thePos || theMajorEnd - thePos > MAX_DIGITS )
+        {
+            return false;
+        }
+        aProgram.virtualMajor = parseDecimal( aText, thePos, theMajorEnd );
+        thePos = theMajorEnd;
+
+        if( thePos < aEnd && aText.charAt( thePos ) == '.' )
+        {
+            int theMinorEnd = skipDigits( aText, thePos + 1, aEnd );
+            if( theMinorEnd == thePos + 1 || theMinorEnd - thePos - 1 > MAX_DIGITS )
+            {
+                return false;
+            }
+            aProgram.virtualMinor = parseDecimal( aText, thePos + 1, theMinorEnd );
+            thePos = theMinorEnd;
+        }
+
+        int theNameStart = skipSpaces( aText, thePos, aEnd );
+        int theNameEnd = aEnd;
+
+        //the type is the first parenthesized word, anything else in parenthesis is part of the name
+        int theOpeningParen = indexOf( aText, '(', theNameStart, aEnd );
+        if( theOpeningParen != -1 )
+        {
+            int theClosingParen = indexOf( aText, ')', theOpeningParen + 1, aEnd );
+            if( theClosingParen != -1 )
+            {
+                String theType = matchType( aText, theOpeningParen + 1, theClosingParen );
+                if( theType != null )
+                {
+                    aProgram.type = theType;
+                    theNameEnd = theOpeningParen;
+                }
+            }
+        }
+
+        while( theNameEnd > theNameStart && aText.charAt( theNameEnd - 1 ) == ' ' )
+        {
+            theNameEnd--;
+        }
+
+        aProgram.name = theNameEnd > theNameStart ? aText.substring( theNameStart, theNameEnd ) : "";
+
+        return true;
+    }
+
+    private static String matchType( String aText, int aStart, int aEnd )
+    {
+        int theLength = aEnd - aStart;
+        for( String theType : theTypes )
+        {
+            if( theType.length() == theLength && aText.regionMatches( aStart, theType, 0, theLength ) )
+            {
+                return theType;
+            }
+        }
+        return null;
+    }
+
+    private static int indexOf( String aText, char aChar, int aStart, int aEnd )
+    {
+        for( int i = aStart; i < aEnd; i++ )
+        {
+            if( aText.charAt( i ) == aChar )
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipSpaces( String aText, int aPos, int aEnd )
+    {
+        while( aPos < aEnd && aText.charAt( aPos ) == ' ' )
+        {
+            aPos++;
+        }
+        return aPos;
+    }
+
+    private static int skipDigits( String aText, int aPos, int aEnd )
+    {
+        while( aPos < aEnd )
+        {
+            char theChar = aText.charAt( aPos );
+            if( theChar < '0' || theChar > '9' )
+            {
+                break;
+            }
+            aPos++;
+        }
+        return aPos;
+    }
+
+    private static int parseDecimal( String aText, int aStart, int aEnd )
+    {
+        int theValue = 0;
+        for( int i = aStart; i < aEnd; i++ )
+        {
+            theValue = theValue * 10 + ( aText.charAt( i ) - '0' );
+        }
+        return theValue;
+    }
+
+    private static int parseHex( String aText, int aStart, int aEnd )
+    {
+        int theValue = 0;
+        int theDigits = 0;
+        for( int i = aStart; i < aEnd && theDigits < 8; i++, theDigits++ )
+        {
+            int theDigit = Character.digit( aText.charAt( i ), 16 );
+            if( theDigit < 0 )
+            {
+                break;
+            }
+            theValue = ( theValue << 4 ) | theDigit;
+        }
+        return theDigits > 0 ? theValue : TSID_NONE;
+    }
+}
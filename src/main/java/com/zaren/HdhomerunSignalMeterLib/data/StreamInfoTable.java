@@ -0,0 +1,133 @@
+package com.zaren.HdhomerunSignalMeterLib.data;
+
+import java.nio.charset.Charset;
+
+/**
+ * The programs of /tuner<n>/streaminfo as parsed by the native library, or of the stream's own
+ * tables written out the same way by detectStreamPrograms. Every program is a row of
+ * FIELD_COUNT ints in programData, the program line and name are offsets into text, which holds
+ * the streaminfo exactly as the device sent it. The arrays only grow, so one table can be reused
+ * for every read without allocating.
+ */
+public class StreamInfoTable
+{
+    //keep in sync with hdhomerun_channelscan.h and hdhomerun_signalMeter.c
+    public static final int TYPE_NORMAL = 0;
+    public static final int TYPE_NODATA = 1;
+    public static final int TYPE_CONTROL = 2;
+    public static final int TYPE_ENCRYPTED = 3;
+    public static final int TYPE_INTERNET = 4;
+
+    public static final int FIELD_PROGRAM_NUMBER = 0;
+    public static final int FIELD_VIRTUAL_MAJOR = 1;
+    public static final int FIELD_VIRTUAL_MINOR = 2;
+    public static final int FIELD_TYPE = 3;
+    public static final int FIELD_LINE_OFFSET = 4;
+    public static final int FIELD_LINE_LENGTH = 5;
+    public static final int FIELD_NAME_OFFSET = 6;
+    public static final int FIELD_NAME_LENGTH = 7;
+    public static final int FIELD_COUNT = 8;
+
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    //written by JNIgetTunerStreamPrograms and JNIdetectStreamPrograms
+    int[] programData = new int[ 16 * FIELD_COUNT ];
+    byte[] text = new byte[ 512 ];
+    int programCount = 0;
+    int tsid = StreamInfoParser.TSID_NONE;
+
+    public int getProgramCount()
+    {
+        return programCount;
+    }
+
+    /**
+     * @return the transport stream id, or StreamInfoParser.TSID_NONE if the device didn't report one
+     */
+    public int getTsid()
+    {
+        return tsid;
+    }
+
+    public int getProgramNumber( int aIndex )
+    {
+        return field( aIndex, FIELD_PROGRAM_NUMBER );
+    }
+
+    public int getVirtualMajor( int aIndex )
+    {
+        return field( aIndex, FIELD_VIRTUAL_MAJOR );
+    }
+
+    public int getVirtualMinor( int aIndex )
+    {
+        return field( aIndex, FIELD_VIRTUAL_MINOR );
+    }
+
+    /**
+     * @return one of the TYPE_ constants
+     */
+    public int getType( int aIndex )
+    {
+        return field( aIndex, FIELD_TYPE );
+    }
+
+    public String getName( int aIndex )
+    {
+        return new String( text, field( aIndex, FIELD_NAME_OFFSET ), field( aIndex, FIELD_NAME_LENGTH ), UTF8 );
+    }
+
+    public String getProgramString( int aIndex )
+    {
+        return new String( text, field( aIndex, FIELD_LINE_OFFSET ), field( aIndex, FIELD_LINE_LENGTH ), UTF8 );
+    }
+
+    public void clear()
+    {
+        programCount = 0;
+        tsid = StreamInfoParser.TSID_NONE;
+    }
+
+    /**
+     * Appends a ChannelScanProgram to thePrograms for every program of the table
+     */
+    public void toPrograms( ProgramsList thePrograms )
+    {
+        for( int i = 0; i < programCount; i++ )
+        {
+            ChannelScanProgram theProgram = new ChannelScanProgram( getProgramString( i ),
+                                                                    getProgramNumber( i ),
+                                                                    getVirtualMajor( i ),
+                                                                    getVirtualMinor( i ),
+                                                                    typeName( getType( i ) ),
+                                                                    getName( i ) );
+            thePrograms.append( theProgram.programNumber, theProgram );
+        }
+    }
+
+    public static String typeName( int aType )
+    {
+        switch( aType )
+        {
+            case TYPE_NODATA:
+                return ChannelScanProgram.PROGRAM_NODATA;
+            case TYPE_CONTROL:
+                return ChannelScanProgram.PROGRAM_CONTROL;
+            case TYPE_ENCRYPTED:
+                return ChannelScanProgram.PROGRAM_ENCRYPTED;
+            case TYPE_INTERNET:
+                return ChannelScanProgram.PROGRAM_INTERNET;
+            default:
+                return ChannelScanProgram.PROGRAM_NORMAL;
+        }
+    }
+
+    private int field( int aIndex, int aField )
+    {
+        if( aIndex < 0 || aIndex >= programCount )
+        {
+            throw new ArrayIndexOutOfBoundsException( aIndex );
+        }
+        return programData[ aIndex * FIELD_COUNT + aField ];
+    }
+}
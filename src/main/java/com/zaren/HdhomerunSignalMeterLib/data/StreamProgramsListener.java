@@ -0,0 +1,15 @@
+package com.zaren.HdhomerunSignalMeterLib.data;
+
+/**
+ * Told about the programs of a stream as its PAT, PMTs and VCT arrive, see HdhomerunDevice.detectStreamPrograms
+ */
+public interface StreamProgramsListener
+{
+   /**
+    * Called on the thread detecting the programs every time the tables change. The table is
+    * reused, copy what is needed out of it before returning.
+    *
+    * @param aComplete true once every table has been received, this is the last call
+    */
+   void streamProgramsChanged( StreamInfoTable aTable, boolean aComplete );
+}
@@ -0,0 +1,803 @@
+package com.zaren.HdhomerunSignalMeterLib.data;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.zaren.HdhomerunSignalMeterLib.util.HDHomerunLogger;
+
+/**
+ * Serves one tuner's stream to many local clients.
+ *
+ * The tuner can only have one target, so every consumer of a channel used to need a tuner of its
+ * own. The relay streams the tuner into the device's receive buffer once and sends it on from
+ * there, the buffer wrapped as a direct ByteBuffer, without copying it anywhere. Clients, UDP
+ * targets like the tuner's own and HTTP connections answered with a chunked video/mp2t stream,
+ * each only keep a cursor into the buffer. One selector thread writes to all of them, with a
+ * gathering write of the chunk header, the buffer's data and the chunk's end for HTTP. A receive
+ * thread waits for the stream and frees the buffer up to the slowest client.
+ *
+ * A client that falls three quarters of the buffer behind is evicted, its connection closed, so
+ * one slow client never fills the buffer for the others. A new client starts at the live end.
+ */
+public class StreamRelay
+{
+    /** a datagram of the stream, 7 TS packets */
+    public static final int PACKET_SIZE = 1316;
+
+    /** the receive thread wakes the selector once this much has arrived */
+    private static final int NOTIFY_THRESHOLD = PACKET_SIZE * 8;
+
+    private static final int MAX_CHUNK = PACKET_SIZE * 48;
+    private static final int RECV_TIMEOUT_MS = 200;
+    private static final int SELECT_TIMEOUT_MS = 1000;
+
+    private final HdhomerunDevice mDevice;
+    private ByteBuffer mRing;
+    private int mRingSize;
+    private long mEvictLag;
+
+    //the stream position the device's buffer holds data up to, written only by the receive thread
+    private volatile long mHead = 0;
+    //everything before it has been sent to every client, written only by the selector thread
+    private volatile long mReleased = 0;
+
+    private final Object mLock = new Object();
+    private volatile boolean mRunning = false;
+    private Thread mReceiveThread;
+    private Thread mSelectorThread;
+    private Selector mSelector;
+    private final ConcurrentLinkedQueue< Client > mNewClients = new ConcurrentLinkedQueue< Client >();
+    private final ConcurrentLinkedQueue< Runnable > mTasks = new ConcurrentLinkedQueue< Runnable >();
+
+    //only touched by the selector thread
+    private ServerSocketChannel mServer;
+    private DatagramChannel mUdp;
+    private final ArrayList< Client > mClients = new ArrayList< Client >();
+    private final ArrayList< Client > mUdpClients = new ArrayList< Client >();
+    private final ByteBuffer mDiscard = ByteBuffer.allocate( 512 );
+
+    private final AtomicInteger mClientCount = new AtomicInteger();
+    private volatile long mEvictedCount = 0;
+
+    public StreamRelay( HdhomerunDevice aDevice )
+    {
+        mDevice = aDevice;
+    }
+
+    public HdhomerunDevice getDevice()
+    {
+        return mDevice;
+    }
+
+    /**
+     * Starts the tuner streaming to the device and relaying it. Tune the channel first, and stop
+     * the relay before destroying the device.
+     *
+     * @throws IOException if the stream or the selector couldn't be started
+     */
+    public void start() throws IOException
+    {
+        synchronized( mLock )
+        {
+            if( mRunning )
+            {
+                return;
+            }
+
+            mSelector = Selector.open();
+            mDevice.setStreamNotifyThreshold( NOTIFY_THRESHOLD );
+            ByteBuffer theRing = mDevice.startStreaming() == 1 ? mDevice.getStreamBuffer() : null;
+            if( theRing == null )
+            {
+                mDevice.stopStreaming();
+                mSelector.close();
+                throw new IOException( "the stream of " + mDevice.getDeviceName() + " couldn't be started" );
+            }
+
+            mRing = theRing;
+            mRingSize = theRing.capacity();
+            mEvictLag = mRingSize - mRingSize / 4;
+            mHead = mDevice.streamWait( 0, 0, 0 );
+            mReleased = mHead;
+
+            mRunning = true;
+            mReceiveThread = new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    receiveLoop();
+                }
+            }, "StreamRelay-recv-" + mDevice.getDeviceName() );
+            mSelectorThread = new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    selectorLoop();
+                }
+            }, "StreamRelay-" + mDevice.getDeviceName() );
+            mReceiveThread.setDaemon( true );
+            mSelectorThread.setDaemon( true );
+            mReceiveThread.start();
+            mSelectorThread.start();
+        }
+    }
+
+    /**
+     * Stops the tuner's stream and closes every client and the HTTP server
+     */
+    public void stop()
+    {
+        Thread theReceiveThread;
+        Thread theSelectorThread;
+        synchronized( mLock )
+        {
+            if( !mRunning )
+            {
+                return;
+            }
+
+            mRunning = false;
+            theReceiveThread = mReceiveThread;
+            theSelectorThread = mSelectorThread;
+            mReceiveThread = null;
+            mSelectorThread = null;
+        }
+
+        //wakes the receive thread out of streamWait
+        mDevice.stopStreaming();
+        mSelector.wakeup();
+
+        try
+        {
+            theReceiveThread.join();
+            theSelectorThread.join();
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        //added while stopping
+        closeNewClients();
+    }
+
+    public boolean isRunning()
+    {
+        return mRunning;
+    }
+
+    /**
+     * Accepts HTTP clients on aPort of every local address, any GET gets the stream
+     *
+     * @param aPort 0 for any free port
+     * @return the port listened on
+     */
+    public int listenHttp( int aPort ) throws IOException
+    {
+        return listenHttp( new InetSocketAddress( aPort ) );
+    }
+
+    public int listenHttp( InetSocketAddress aAddress ) throws IOException
+    {
+        final ServerSocketChannel theServer = ServerSocketChannel.open();
+        try
+        {
+            theServer.socket().setReuseAddress( true );
+            theServer.socket().bind( aAddress );
+            theServer.configureBlocking( false );
+        }
+        catch( IOException e )
+        {
+            theServer.close();
+            throw e;
+        }
+
+        runOnSelector( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    HttpRequest.closeQuietly( mServer );
+                    mServer = theServer;
+                    theServer.register( mSelector, SelectionKey.OP_ACCEPT );
+                }
+                catch( ClosedChannelException e )
+                {
+                    HttpRequest.closeQuietly( theServer );
+                }
+            }
+        } );
+
+        return theServer.socket().getLocalPort();
+    }
+
+    /**
+     * Streams to an HTTP connection whose request has already been read, from the live end
+     *
+     * @param aChannel a non-blocking channel, the relay closes it
+     * @param aChunked chunked transfer encoding, false for HTTP/1.0 clients
+     */
+    void addHttpClient( SocketChannel aChannel, boolean aChunked )
+    {
+        Client theClient = new Client( aChannel );
+        theClient.mChunked = aChunked;
+        mClientCount.incrementAndGet();
+        mNewClients.add( theClient );
+        wakeup();
+    }
+
+    /**
+     * Sends the stream to aTarget in datagrams of PACKET_SIZE, like a tuner target
+     */
+    public void addUdpClient( InetSocketAddress aTarget )
+    {
+        mClientCount.incrementAndGet();
+        mNewClients.add( new Client( aTarget ) );
+        wakeup();
+    }
+
+    public void removeUdpClient( final InetSocketAddress aTarget )
+    {
+        runOnSelector( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for( int i = 0; i < mUdpClients.size(); i++ )
+                {
+                    Client theClient = mUdpClients.get( i );
+                    if( theClient.mTarget.equals( aTarget ) )
+                    {
+                        remove( theClient );
+                        return;
+                    }
+                }
+            }
+        } );
+    }
+
+    /**
+     * @return the clients being sent the stream, HTTP connections still sending their request included
+     */
+    public int getClientCount()
+    {
+        return mClientCount.get();
+    }
+
+    /**
+     * @return clients dropped for falling too far behind
+     */
+    public long getEvictedCount()
+    {
+        return mEvictedCount;
+    }
+
+    /**
+     * @return the bytes the device has received since its receive socket was created
+     */
+    public long getBytesReceived()
+    {
+        return mHead;
+    }
+
+    /**
+     * @return the size of the device's receive buffer the clients share, 0 until started
+     */
+    public int getRingSize()
+    {
+        return mRingSize;
+    }
+
+    private void runOnSelector( Runnable aTask )
+    {
+        mTasks.add( aTask );
+        wakeup();
+    }
+
+    private void wakeup()
+    {
+        Selector theSelector = mSelector;
+        if( theSelector != null )
+        {
+            theSelector.wakeup();
+        }
+    }
+
+    private void receiveLoop()
+    {
+        while( mRunning )
+        {
+            long theHead = mDevice.streamWait( mReleased, mHead, RECV_TIMEOUT_MS );
+            if( theHead < 0 )
+            {
+                HDHomerunLogger.w( "StreamRelay: " + mDevice.getDeviceName() + " has no stream to relay" );
+                break;
+            }
+            if( theHead != mHead )
+            {
+                mHead = theHead;
+                mSelector.wakeup();
+            }
+        }
+    }
+
+    private void selectorLoop()
+    {
+        long theNextTimeoutCheck = System.currentTimeMillis() + SELECT_TIMEOUT_MS;
+
+        try
+        {
+            while( mRunning )
+            {
+                mSelector.select( SELECT_TIMEOUT_MS );
+
+                Runnable theTask;
+                while( ( theTask = mTasks.poll() ) != null )
+                {
+                    theTask.run();
+                }
+                Client theNew;
+                while( ( theNew = mNewClients.poll() ) != null )
+                {
+                    register( theNew );
+                }
+
+                Iterator< SelectionKey > theKeys = mSelector.selectedKeys().iterator();
+                while( theKeys.hasNext() )
+                {
+                    SelectionKey theKey = theKeys.next();
+                    theKeys.remove();
+
+                    if( !theKey.isValid() )
+                    {
+                        continue;
+                    }
+                    if( theKey.isAcceptable() )
+                    {
+                        accept();
+                    }
+                    else if( theKey.isReadable() && theKey.attachment() instanceof Client )
+                    {
+                        read( (Client) theKey.attachment() );
+                    }
+                }
+
+                //everyone that can take more gets what arrived, whether or not it woke us
+                send();
+
+                long theNow = System.currentTimeMillis();
+                if( theNow >= theNextTimeoutCheck )
+                {
+                    closeStalledRequests( theNow );
+                    theNextTimeoutCheck = theNow + SELECT_TIMEOUT_MS;
+                }
+            }
+        }
+        catch( IOException e )
+        {
+            HDHomerunLogger.e( "StreamRelay: selector failed, " + e );
+        }
+        finally
+        {
+            while( !mClients.isEmpty() )
+            {
+                remove( mClients.get( mClients.size() - 1 ) );
+            }
+            closeNewClients();
+            HttpRequest.closeQuietly( mServer );
+            HttpRequest.closeQuietly( mUdp );
+            mServer = null;
+            mUdp = null;
+            try
+            {
+                mSelector.close();
+            }
+            catch( IOException e )
+            {
+                //nothing more to release
+            }
+        }
+    }
+
+    private void closeNewClients()
+    {
+        Client theClient;
+        while( ( theClient = mNewClients.poll() ) != null )
+        {
+            mClientCount.decrementAndGet();
+            HttpRequest.closeQuietly( theClient.mChannel );
+        }
+    }
+
+    private void register( Client aClient )
+    {
+        try
+        {
+            if( aClient.mTarget != null )
+            {
+                if( mUdp == null )
+                {
+                    mUdp = DatagramChannel.open();
+                    mUdp.configureBlocking( false );
+                    mUdp.register( mSelector, 0 );
+                }
+                mUdpClients.add( aClient );
+            }
+            else
+            {
+                aClient.mKey = aClient.mChannel.register( mSelector, SelectionKey.OP_READ, aClient );
+            }
+        }
+        catch( IOException e )
+        {
+            HDHomerunLogger.w( "StreamRelay: couldn't add " + aClient + ", " + e );
+            mClientCount.decrementAndGet();
+            HttpRequest.closeQuietly( aClient.mChannel );
+            return;
+        }
+
+        mClients.add( aClient );
+        if( aClient.mRequest == null )
+        {
+            aClient.startStream( mHead );
+        }
+    }
+
+    private void accept()
+    {
+        SocketChannel theChannel;
+        try
+        {
+            theChannel = mServer.accept();
+            if( theChannel == null )
+            {
+                return;
+            }
+            theChannel.configureBlocking( false );
+            theChannel.socket().setTcpNoDelay( true );
+        }
+        catch( IOException e )
+        {
+            HDHomerunLogger.w( "StreamRelay: accept failed, " + e );
+            return;
+        }
+
+        Client theClient = new Client( theChannel );
+        theClient.mRequest = ByteBuffer.allocate( HttpRequest.MAX_SIZE );
+        mClientCount.incrementAndGet();
+        register( theClient );
+    }
+
+    private void read( Client aClient )
+    {
+        try
+        {
+            if( aClient.mRequest == null )
+            {
+                //streaming, anything more the client sends is ignored until it closes
+                while( true )
+                {
+                    mDiscard.clear();
+                    int theRead = aClient.mChannel.read( mDiscard );
+                    if( theRead < 0 )
+                    {
+                        remove( aClient );
+                        return;
+                    }
+                    if( theRead == 0 )
+                    {
+                        return;
+                    }
+                }
+            }
+
+            if( aClient.mChannel.read( aClient.mRequest ) < 0 )
+            {
+                remove( aClient );
+                return;
+            }
+        }
+        catch( IOException e )
+        {
+            remove( aClient );
+            return;
+        }
+
+        HttpRequest theRequest = HttpRequest.parse( aClient.mRequest );
+        if( theRequest == null )
+        {
+            if( !aClient.mRequest.hasRemaining() )
+            {
+                respondAndRemove( aClient, HttpRequest.BAD_REQUEST );
+            }
+        }
+        else if( !theRequest.isValid() )
+        {
+            respondAndRemove( aClient, HttpRequest.BAD_REQUEST );
+        }
+        else if( !theRequest.mMethod.equals( "GET" ) )
+        {
+            respondAndRemove( aClient, HttpRequest.METHOD_NOT_ALLOWED );
+        }
+        else
+        {
+            aClient.mRequest = null;
+            aClient.mChunked = theRequest.isChunked();
+            aClient.startStream( mHead );
+        }
+    }
+
+    private void send()
+    {
+        long theHead = mHead;
+        long theReleased = theHead;
+
+        for( int i = mClients.size() - 1; i >= 0; i-- )
+        {
+            Client theClient = mClients.get( i );
+            if( theClient.mRequest != null || theClient.mTarget != null )
+            {
+                continue;
+            }
+            if( theHead - theClient.mCursor > mEvictLag )
+            {
+                evict( theClient );
+                continue;
+            }
+
+            boolean theBlocked;
+            try
+            {
+                theBlocked = theClient.write( theHead );
+            }
+            catch( IOException e )
+            {
+                remove( theClient );
+                continue;
+            }
+            theClient.mKey.interestOps( theBlocked ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ );
+            theReleased = Math.min( theReleased, theClient.mCursor );
+        }
+
+        if( mUdp != null )
+        {
+            theReleased = Math.min( theReleased, sendUdp( theHead ) );
+        }
+
+        mReleased = theReleased;
+    }
+
+    /**
+     * @return the cursor of the UDP client furthest behind, aHead if there are none
+     */
+    private long sendUdp( long aHead )
+    {
+        boolean theBlocked = false;
+        long theReleased = aHead;
+
+        for( int i = mUdpClients.size() - 1; i >= 0; i-- )
+        {
+            Client theClient = mUdpClients.get( i );
+            if( aHead - theClient.mCursor > mEvictLag )
+            {
+                evict( theClient );
+                continue;
+            }
+
+            while( !theBlocked && theClient.mCursor < aHead )
+            {
+                int theSent;
+                try
+                {
+                    theSent = mUdp.send( theClient.slice( PACKET_SIZE ), theClient.mTarget );
+                }
+                catch( IOException e )
+                {
+                    //unreachable targets are an ICMP away, the datagram is lost like any other
+                    theSent = PACKET_SIZE;
+                }
+                if( theSent == 0 )
+                {
+                    theBlocked = true;
+                    break;
+                }
+                theClient.mCursor += PACKET_SIZE;
+            }
+            theReleased = Math.min( theReleased, theClient.mCursor );
+        }
+
+        mUdp.keyFor( mSelector ).interestOps( theBlocked ? SelectionKey.OP_WRITE : 0 );
+        return theReleased;
+    }
+
+    private void closeStalledRequests( long aNow )
+    {
+        for( int i = mClients.size() - 1; i >= 0; i-- )
+        {
+            Client theClient = mClients.get( i );
+            if( theClient.mRequest != null && aNow - theClient.mAccepted > HttpRequest.TIMEOUT_MS )
+            {
+                respondAndRemove( theClient, HttpRequest.REQUEST_TIMEOUT );
+            }
+        }
+    }
+
+    private void evict( Client aClient )
+    {
+        mEvictedCount++;
+        HDHomerunLogger.w( "StreamRelay: evicting " + aClient + ", " + ( mHead - aClient.mCursor ) + " bytes behind" );
+        remove( aClient );
+    }
+
+    private void respondAndRemove( Client aClient, String aStatus )
+    {
+        HttpRequest.respondAndClose( aClient.mChannel, aStatus );
+        remove( aClient );
+    }
+
+    private void remove( Client aClient )
+    {
+        if( mClients.remove( aClient ) )
+        {
+            mClientCount.decrementAndGet();
+        }
+        mUdpClients.remove( aClient );
+        HttpRequest.closeQuietly( aClient.mChannel );
+    }
+
+    /**
+     * A UDP target or an HTTP connection, and how far into the stream it has been sent
+     */
+    private class Client
+    {
+        final SocketChannel mChannel;
+        final InetSocketAddress mTarget;
+        final long mAccepted = System.currentTimeMillis();
+        SelectionKey mKey;
+        long mCursor;
+        boolean mChunked;
+
+        //the request being read by the relay's own server, null once streaming
+        ByteBuffer mRequest;
+
+        //what one gathering write sends: the response head, a chunk's size, its data as up to two
+        //pieces of the device's buffer and the chunk's end
+        private ByteBuffer mResponse;
+        private final ByteBuffer mChunkHead = ByteBuffer.allocateDirect( 16 );
+        private ByteBuffer mData;
+        private ByteBuffer mDataWrapped;
+        private final ByteBuffer mChunkEnd = ByteBuffer.allocateDirect( 2 );
+        private ByteBuffer[] mWrite;
+        private int mChunkLeft = 0;
+
+        Client( SocketChannel aChannel )
+        {
+            mChannel = aChannel;
+            mTarget = null;
+        }
+
+        Client( InetSocketAddress aTarget )
+        {
+            mChannel = null;
+            mTarget = aTarget;
+        }
+
+        /**
+         * Starts sending the stream from aCursor, after the response head for HTTP
+         */
+        void startStream( long aCursor )
+        {
+            mCursor = aCursor;
+            mData = mRing.duplicate();
+            if( mTarget != null )
+            {
+                return;
+            }
+
+            byte[] theHead = HttpRequest.streamHead( mChunked ).getBytes( HttpRequest.ASCII );
+            mResponse = ByteBuffer.allocateDirect( theHead.length );
+            mResponse.put( theHead );
+            mResponse.flip();
+
+            mDataWrapped = mRing.duplicate();
+            mData.limit( 0 );
+            mDataWrapped.limit( 0 );
+            mChunkHead.limit( 0 );
+            mChunkEnd.put( (byte) '\r' ).put( (byte) '\n' );
+            mChunkEnd.limit( 0 );
+            mWrite = new ByteBuffer[]{ mResponse, mChunkHead, mData, mDataWrapped, mChunkEnd };
+        }
+
+        /**
+         * The device's buffer at the cursor, aLength long, which doesn't wrap
+         */
+        ByteBuffer slice( int aLength )
+        {
+            int theOffset = (int) ( mCursor % mRingSize );
+            mData.limit( theOffset + aLength );
+            mData.position( theOffset );
+            return mData;
+        }
+
+        /**
+         * Writes the stream up to aHead, or as much of it as the socket takes
+         *
+         * @return true if the socket is full
+         */
+        boolean write( long aHead ) throws IOException
+        {
+            while( true )
+            {
+                if( mChunkLeft == 0 && !mChunkHead.hasRemaining() && !mChunkEnd.hasRemaining() )
+                {
+                    if( mCursor >= aHead )
+                    {
+                        if( mResponse.hasRemaining() )
+                        {
+                            mChannel.write( mResponse );
+                        }
+                        return mResponse.hasRemaining();
+                    }
+                    startChunk( (int) Math.min( aHead - mCursor, MAX_CHUNK ) );
+                }
+
+                //the chunk's data left, as one or two pieces of the buffer
+                int theOffset = (int) ( mCursor % mRingSize );
+                int theFirst = Math.min( mChunkLeft, mRingSize - theOffset );
+                mData.limit( theOffset + theFirst );
+                mData.position( theOffset );
+                mDataWrapped.limit( mChunkLeft - theFirst );
+                mDataWrapped.position( 0 );
+
+                //a gathering write is in order, the chunk's end only goes once its data has
+                mChannel.write( mWrite );
+
+                int theSent = mData.position() - theOffset + mDataWrapped.position();
+                mCursor += theSent;
+                mChunkLeft -= theSent;
+                if( mResponse.hasRemaining() || mChunkHead.hasRemaining() || mChunkLeft > 0 || mChunkEnd.hasRemaining() )
+                {
+                    return true;
+                }
+            }
+        }
+
+        private void startChunk( int aLength )
+        {
+            mChunkLeft = aLength;
+            mChunkHead.clear();
+            if( mChunked )
+            {
+                mChunkHead.put( Integer.toHexString( aLength ).getBytes( HttpRequest.ASCII ) ).put( (byte) '\r' ).put( (byte) '\n' );
+                mChunkEnd.limit( 2 );
+            }
+            mChunkHead.flip();
+            mChunkEnd.position( 0 );
+        }
+
+        @Override
+        public String toString()
+        {
+            if( mTarget != null )
+            {
+                return "udp " + mTarget;
+            }
+            return "http " + mChannel.socket().getRemoteSocketAddress();
+        }
+    }
+}
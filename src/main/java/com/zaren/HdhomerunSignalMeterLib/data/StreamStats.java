@@ -0,0 +1,72 @@
+package com.zaren.HdhomerunSignalMeterLib.data;
+
+/**
+ * What the device's receive socket got since the stream was started, the video statistics of
+ * hdhomerun_video. A multicast device has a socket of its own, so these are the statistics of its
+ * group.
+ *
+ * Reuse an instance for every read, HdhomerunDevice.getStreamStats fills it in place.
+ */
+public class StreamStats
+{
+    //the order the native call writes them in
+    static final int BYTE_COUNT = 0;
+    static final int PACKET_COUNT = 1;
+    static final int NETWORK_ERROR_COUNT = 2;
+    static final int TRANSPORT_ERROR_COUNT = 3;
+    static final int SEQUENCE_ERROR_COUNT = 4;
+    static final int OVERFLOW_ERROR_COUNT = 5;
+    static final int VALUE_COUNT = 6;
+
+    final long[] mValues = new long[ VALUE_COUNT ];
+
+    public long getByteCount()
+    {
+        return mValues[ BYTE_COUNT ];
+    }
+
+    /**
+     * @return the datagrams received, 7 TS packets each
+     */
+    public long getPacketCount()
+    {
+        return mValues[ PACKET_COUNT ];
+    }
+
+    /**
+     * @return datagrams missing from the RTP sequence, lost on the network
+     */
+    public long getNetworkErrorCount()
+    {
+        return mValues[ NETWORK_ERROR_COUNT ];
+    }
+
+    /**
+     * @return TS packets the tuner marked with the transport error indicator
+     */
+    public long getTransportErrorCount()
+    {
+        return mValues[ TRANSPORT_ERROR_COUNT ];
+    }
+
+    /**
+     * @return TS continuity counter jumps
+     */
+    public long getSequenceErrorCount()
+    {
+        return mValues[ SEQUENCE_ERROR_COUNT ];
+    }
+
+    /**
+     * @return datagrams dropped because the receive buffer was full, the reader didn't keep up
+     */
+    public long getOverflowErrorCount()
+    {
+        return mValues[ OVERFLOW_ERROR_COUNT ];
+    }
+
+    public void copyTo( StreamStats aOther )
+    {
+        System.arraycopy( mValues, 0, aOther.mValues, 0, VALUE_COUNT );
+    }
+}
@@ -0,0 +1,580 @@
+package com.zaren.HdhomerunSignalMeterLib.data;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.zaren.HdhomerunSignalMeterLib.util.HDHomerunLogger;
+
+/**
+ * Streams channels over HTTP the way the HDHomeRun's own web server does, at
+ * /tuner/{id}/auto/{channel}. {id} is a device id like 1012ABCD for any tuner of the device, or a
+ * tuner like 1012ABCD-1, and {channel} is the physical channel tuned as auto:{channel}.
+ *
+ * The first request for a channel locks a tuner from the TunerPool, tunes it and starts a
+ * StreamRelay, later requests for the same channel join that relay, so every client of a channel
+ * shares one tuner and the relay's zero copy sends. A request no free tuner can serve is answered
+ * 503. Once the last client of a channel has been gone for the idle time its relay is stopped and
+ * the tuner released.
+ *
+ * One selector thread reads the requests without blocking, tuning and the lockkey requests run on
+ * worker threads.
+ */
+public class TunerHttpServer
+{
+    /** how long a channel stays tuned after its last client left */
+    public static final long DEFAULT_IDLE_MS = 10000;
+
+    private static final int SELECT_TIMEOUT_MS = 250;
+
+    private static final Pattern PATH = Pattern.compile( "/tuner/([0-9A-Fa-f]{1,8})(?:-([0-9]))?/auto/([0-9]{1,4})" );
+
+    private final TunerPool mPool;
+    private volatile long mIdleMs = DEFAULT_IDLE_MS;
+
+    //the channels being streamed, by key
+    private final HashMap< String, Session > mSessions = new HashMap< String, Session >();
+
+    private final Object mLock = new Object();
+    private volatile boolean mRunning = false;
+    private Thread mThread;
+    private Selector mSelector;
+    private ServerSocketChannel mServer;
+    private ExecutorService mWorkers;
+
+    //requests still being read, only touched by the selector thread
+    private final ArrayList< Connection > mConnections = new ArrayList< Connection >();
+
+    /**
+     * @param aPool the tuners to stream from, the server only uses the ones that are free
+     */
+    public TunerHttpServer( TunerPool aPool )
+    {
+        mPool = aPool;
+    }
+
+    /**
+     * @param aIdleMs how long a channel stays tuned after its last client left
+     */
+    public void setIdleTime( long aIdleMs )
+    {
+        mIdleMs = aIdleMs;
+    }
+
+    /**
+     * Starts accepting requests
+     *
+     * @param aAddress port 0 for any free port
+     * @return the port listened on
+     */
+    public int start( InetSocketAddress aAddress ) throws IOException
+    {
+        synchronized( mLock )
+        {
+            if( mRunning )
+            {
+                return mServer.socket().getLocalPort();
+            }
+
+            mSelector = Selector.open();
+            mServer = ServerSocketChannel.open();
+            try
+            {
+                mServer.socket().setReuseAddress( true );
+                mServer.socket().bind( aAddress );
+                mServer.configureBlocking( false );
+                mServer.register( mSelector, SelectionKey.OP_ACCEPT );
+            }
+            catch( IOException e )
+            {
+                HttpRequest.closeQuietly( mServer );
+                mSelector.close();
+                throw e;
+            }
+
+            mWorkers = Executors.newCachedThreadPool( new ThreadFactory()
+            {
+                @Override
+                public Thread newThread( Runnable aRunnable )
+                {
+                    Thread theThread = new Thread( aRunnable, "TunerHttpServer-worker" );
+                    theThread.setDaemon( true );
+                    return theThread;
+                }
+            } );
+
+            mRunning = true;
+            mThread = new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    selectorLoop();
+                }
+            }, "TunerHttpServer" );
+            mThread.setDaemon( true );
+            mThread.start();
+
+            return mServer.socket().getLocalPort();
+        }
+    }
+
+    /**
+     * Closes every connection, stops the relays and releases their tuners
+     */
+    public void stop()
+    {
+        Thread theThread;
+        ExecutorService theWorkers;
+        synchronized( mLock )
+        {
+            if( !mRunning )
+            {
+                return;
+            }
+
+            mRunning = false;
+            theThread = mThread;
+            theWorkers = mWorkers;
+            mThread = null;
+        }
+
+        mSelector.wakeup();
+        try
+        {
+            theThread.join();
+            theWorkers.shutdown();
+            theWorkers.awaitTermination( 10, TimeUnit.SECONDS );
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        ArrayList< Session > theSessions;
+        synchronized( mLock )
+        {
+            theSessions = new ArrayList< Session >( mSessions.values() );
+            mSessions.clear();
+        }
+        for( Session theSession : theSessions )
+        {
+            theSession.close();
+        }
+    }
+
+    public boolean isRunning()
+    {
+        return mRunning;
+    }
+
+    /**
+     * @return the channels being streamed, each on a tuner of its own
+     */
+    public int getSessionCount()
+    {
+        synchronized( mLock )
+        {
+            return mSessions.size();
+        }
+    }
+
+    /**
+     * @return the clients being streamed to, over every channel
+     */
+    public int getClientCount()
+    {
+        int theCount = 0;
+        synchronized( mLock )
+        {
+            for( Session theSession : mSessions.values() )
+            {
+                StreamRelay theRelay = theSession.mRelay;
+                if( theRelay != null )
+                {
+                    theCount += theRelay.getClientCount();
+                }
+            }
+        }
+        return theCount;
+    }
+
+    private void selectorLoop()
+    {
+        long theNextCheck = System.currentTimeMillis() + SELECT_TIMEOUT_MS;
+
+        try
+        {
+            while( mRunning )
+            {
+                mSelector.select( SELECT_TIMEOUT_MS );
+
+                Iterator< SelectionKey > theKeys = mSelector.selectedKeys().iterator();
+                while( theKeys.hasNext() )
+                {
+                    SelectionKey theKey = theKeys.next();
+                    theKeys.remove();
+
+                    if( !theKey.isValid() )
+                    {
+                        continue;
+                    }
+                    if( theKey.isAcceptable() )
+                    {
+                        accept();
+                    }
+                    else if( theKey.isReadable() )
+                    {
+                        read( (Connection) theKey.attachment() );
+                    }
+                }
+
+                long theNow = System.currentTimeMillis();
+                if( theNow >= theNextCheck )
+                {
+                    closeStalledRequests( theNow );
+                    closeIdleSessions( theNow );
+                    theNextCheck = theNow + SELECT_TIMEOUT_MS;
+                }
+            }
+        }
+        catch( IOException e )
+        {
+            HDHomerunLogger.e( "TunerHttpServer: selector failed, " + e );
+        }
+        finally
+        {
+            for( Connection theConnection : mConnections )
+            {
+                HttpRequest.closeQuietly( theConnection.mChannel );
+            }
+            mConnections.clear();
+            HttpRequest.closeQuietly( mServer );
+            try
+            {
+                mSelector.close();
+            }
+            catch( IOException e )
+            {
+                //nothing more to release
+            }
+        }
+    }
+
+    private void accept()
+    {
+        SocketChannel theChannel;
+        try
+        {
+            theChannel = mServer.accept();
+            if( theChannel == null )
+            {
+                return;
+            }
+            theChannel.configureBlocking( false );
+            theChannel.socket().setTcpNoDelay( true );
+
+            Connection theConnection = new Connection( theChannel );
+            theConnection.mKey = theChannel.register( mSelector, SelectionKey.OP_READ, theConnection );
+            mConnections.add( theConnection );
+        }
+        catch( IOException e )
+        {
+            HDHomerunLogger.w( "TunerHttpServer: accept failed, " + e );
+        }
+    }
+
+    private void read( Connection aConnection )
+    {
+        try
+        {
+            if( aConnection.mChannel.read( aConnection.mRequest ) < 0 )
+            {
+                remove( aConnection );
+                HttpRequest.closeQuietly( aConnection.mChannel );
+                return;
+            }
+        }
+        catch( IOException e )
+        {
+            remove( aConnection );
+            HttpRequest.closeQuietly( aConnection.mChannel );
+            return;
+        }
+
+        HttpRequest theRequest = HttpRequest.parse( aConnection.mRequest );
+        if( theRequest == null )
+        {
+            if( !aConnection.mRequest.hasRemaining() )
+            {
+                respond( aConnection, HttpRequest.BAD_REQUEST );
+            }
+            return;
+        }
+        if( !theRequest.isValid() )
+        {
+            respond( aConnection, HttpRequest.BAD_REQUEST );
+            return;
+        }
+        if( !theRequest.mMethod.equals( "GET" ) )
+        {
+            respond( aConnection, HttpRequest.METHOD_NOT_ALLOWED );
+            return;
+        }
+
+        Matcher theMatch = PATH.matcher( theRequest.mPath );
+        if( !theMatch.matches() )
+        {
+            respond( aConnection, HttpRequest.NOT_FOUND );
+            return;
+        }
+
+        long theDeviceId = Long.parseLong( theMatch.group( 1 ), 16 );
+        int theTuner = theMatch.group( 2 ) != null ? Integer.parseInt( theMatch.group( 2 ) ) : -1;
+        int theChannel = Integer.parseInt( theMatch.group( 3 ) );
+
+        //the relay takes the connection over on its own selector
+        remove( aConnection );
+        serve( aConnection.mChannel, theRequest.isChunked(), theDeviceId, theTuner, theChannel );
+    }
+
+    /**
+     * Adds the connection to the channel's relay on a worker, tuning the channel first if needed
+     */
+    private void serve( final SocketChannel aConnection, final boolean aChunked, long aDeviceId, int aTuner, int aChannel )
+    {
+        final Session theSession;
+        synchronized( mLock )
+        {
+            String theKey = Long.toHexString( aDeviceId ) + ( aTuner >= 0 ? "-" + aTuner : "" ) + "/" + aChannel;
+            Session theExisting = mSessions.get( theKey );
+            if( theExisting == null )
+            {
+                theExisting = new Session( theKey, aDeviceId, aTuner, aChannel );
+                mSessions.put( theKey, theExisting );
+            }
+            theSession = theExisting;
+
+            //keeps the idle sweep away until the client has been added
+            theSession.mWaiting++;
+        }
+
+        mWorkers.execute( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                StreamRelay theRelay = theSession.open();
+                if( theRelay != null )
+                {
+                    theRelay.addHttpClient( aConnection, aChunked );
+                }
+
+                synchronized( mLock )
+                {
+                    theSession.mWaiting--;
+                    theSession.mLastUsed = System.currentTimeMillis();
+                    if( theRelay == null && theSession.mWaiting == 0 && theSession.mRelay == null )
+                    {
+                        mSessions.remove( theSession.mKey );
+                    }
+                }
+
+                if( theRelay == null )
+                {
+                    HttpRequest.respondAndClose( aConnection, HttpRequest.SERVICE_UNAVAILABLE );
+                }
+            }
+        } );
+    }
+
+    private void closeStalledRequests( long aNow )
+    {
+        for( int i = mConnections.size() - 1; i >= 0; i-- )
+        {
+            Connection theConnection = mConnections.get( i );
+            if( aNow - theConnection.mAccepted > HttpRequest.TIMEOUT_MS )
+            {
+                respond( theConnection, HttpRequest.REQUEST_TIMEOUT );
+            }
+        }
+    }
+
+    /**
+     * Stops the relays nobody has been listening to for the idle time, on a worker
+     */
+    private void closeIdleSessions( long aNow )
+    {
+        synchronized( mLock )
+        {
+            Iterator< Session > theSessions = mSessions.values().iterator();
+            while( theSessions.hasNext() )
+            {
+                final Session theSession = theSessions.next();
+                StreamRelay theRelay = theSession.mRelay;
+                if( theSession.mWaiting > 0 || theRelay == null )
+                {
+                    continue;
+                }
+
+                if( theRelay.getClientCount() > 0 )
+                {
+                    theSession.mLastUsed = aNow;
+                }
+                else if( aNow - theSession.mLastUsed >= mIdleMs )
+                {
+                    theSessions.remove();
+                    mWorkers.execute( new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            theSession.close();
+                        }
+                    } );
+                }
+            }
+        }
+    }
+
+    private void respond( Connection aConnection, String aStatus )
+    {
+        remove( aConnection );
+        HttpRequest.respondAndClose( aConnection.mChannel, aStatus );
+    }
+
+    private void remove( Connection aConnection )
+    {
+        mConnections.remove( aConnection );
+        aConnection.mKey.cancel();
+    }
+
+    /**
+     * A request being read
+     */
+    private static class Connection
+    {
+        final SocketChannel mChannel;
+        final ByteBuffer mRequest = ByteBuffer.allocate( HttpRequest.MAX_SIZE );
+        final long mAccepted = System.currentTimeMillis();
+        SelectionKey mKey;
+
+        Connection( SocketChannel aChannel )
+        {
+            mChannel = aChannel;
+        }
+    }
+
+    /**
+     * A channel streamed from one tuner to every client that asked for it
+     */
+    private class Session
+    {
+        final String mKey;
+        final long mDeviceId;
+        final int mTuner;
+        final int mChannel;
+
+        //guarded by the server's lock
+        int mWaiting = 0;
+        long mLastUsed = System.currentTimeMillis();
+
+        //set by open, which holds the session's own lock
+        volatile StreamRelay mRelay;
+        private PooledTuner mPooledTuner;
+        private HdhomerunDevice mDevice;
+
+        Session( String aKey, long aDeviceId, int aTuner, int aChannel )
+        {
+            mKey = aKey;
+            mDeviceId = aDeviceId;
+            mTuner = aTuner;
+            mChannel = aChannel;
+        }
+
+        /**
+         * Locks a tuner, tunes it and starts relaying, unless another request did already
+         *
+         * @return the relay, null if no tuner could be locked or tuned
+         */
+        synchronized StreamRelay open()
+        {
+            if( mRelay != null )
+            {
+                return mRelay;
+            }
+
+            PooledTuner theTuner = mPool.acquireOnDevice( this, mDeviceId, mTuner );
+            if( theTuner == null )
+            {
+                HDHomerunLogger.d( "TunerHttpServer: no free tuner for " + mKey );
+                return null;
+            }
+
+            HdhomerunDevice theDevice = null;
+            try
+            {
+                theDevice = new HdhomerunDevice( theTuner.getDeviceId(), theTuner.getIpAddr(), theTuner.getTuner() );
+                theTuner.attach( theDevice );
+                if( theDevice.setTunerChannel( "auto:" + mChannel ) != 1 )
+                {
+                    throw new IOException( "couldn't tune " + theTuner + " to auto:" + mChannel );
+                }
+
+                StreamRelay theRelay = new StreamRelay( theDevice );
+                theRelay.start();
+
+                mPooledTuner = theTuner;
+                mDevice = theDevice;
+                mRelay = theRelay;
+                return theRelay;
+            }
+            catch( HdhomerunCommErrorException e )
+            {
+                HDHomerunLogger.w( "TunerHttpServer: " + theTuner + " " + e.getError() );
+            }
+            catch( IOException e )
+            {
+                HDHomerunLogger.w( "TunerHttpServer: " + e.getMessage() );
+            }
+
+            if( theDevice != null )
+            {
+                theDevice.destroy();
+            }
+            theTuner.release();
+            return null;
+        }
+
+        /**
+         * Stops the relay, closing its clients, and releases the tuner
+         */
+        synchronized void close()
+        {
+            if( mRelay == null )
+            {
+                return;
+            }
+
+            mRelay.stop();
+            mDevice.destroy();
+            mPooledTuner.release();
+            mRelay = null;
+            mDevice = null;
+            mPooledTuner = null;
+        }
+    }
+}
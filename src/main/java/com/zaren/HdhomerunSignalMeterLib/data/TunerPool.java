@@ -0,0 +1,759 @@
+package com.zaren.HdhomerunSignalMeterLib.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+import com.zaren.HdhomerunSignalMeterLib.util.HDHomerunLogger;
+
+/**
+ * Hands out the tuners of every discovered device to concurrent users.
+ *
+ * hdhomerun_device_selector_choose_and_lock probes the tuners one after the other, with a lockkey
+ * request, a target read and a local port bind for each. The pool remembers instead which tuners
+ * it holds, which were found locked by someone else and the last signal quality of every tuner.
+ * Free tuners sit in one list per quality level, so the best one is taken in constant time and
+ * locked with a single lockkey request. Free tuners of the same quality are handed out least
+ * recently used first.
+ *
+ * Tuners that were locked by someone else or didn't answer go into a device selector. Only when
+ * no tuner is known to be free does acquire() fall back to the selector's full probe, and then
+ * over just those tuners.
+ *
+ * With a SignalQualityHistory, acquire( owner, frequency ) ranks the free tuners by how well each
+ * received that frequency recently instead, less LOAD_PENALTY for every tuner of the same device
+ * already in use, which spreads the jobs over the boxes and their network links.
+ */
+public class TunerPool
+{
+    /** qualities are 0 to 100 like TunerStatus.snrQuality */
+    public static final int QUALITY_LEVELS = 101;
+
+    /** quality of tuners that haven't reported one yet, ranks them between good and bad tuners */
+    public static final int UNKNOWN_QUALITY = 50;
+
+    /** quality points a candidate loses for every tuner of its device the pool has handed out */
+    public static final int LOAD_PENALTY = 10;
+
+    private static final int STATE_FREE = 0;
+    private static final int STATE_LOCKING = 1;
+    private static final int STATE_OWNED = 2;
+    private static final int STATE_RELEASING = 3;
+    private static final int STATE_UNAVAILABLE = 4;
+
+    private final HashMap< String, Entry > mEntries = new HashMap< String, Entry >();
+    private final HashMap< Long, Entry > mEntriesByPointer = new HashMap< Long, Entry >();
+
+    //free tuners, a least recently used list per quality level and a bit per non empty list
+    private final Entry[] mHeads = new Entry[ QUALITY_LEVELS ];
+    private final Entry[] mTails = new Entry[ QUALITY_LEVELS ];
+    private final long[] mNonEmptyLevels = new long[ ( QUALITY_LEVELS + 63 ) / 64 ];
+    private int mFreeCount = 0;
+    private int mOwnedCount = 0;
+    private final HashMap< Long, int[] > mOwnedPerDevice = new HashMap< Long, int[] >();
+    private SignalQualityHistory mHistory;
+
+    //unavailable tuners not yet added to the selector, the selector is only touched holding mProbeLock
+    private final ArrayList< Entry > mNewlyUnavailable = new ArrayList< Entry >();
+    private final Object mProbeLock = new Object();
+
+    //native calls running without the pool lock, close() waits for them
+    private int mInFlight = 0;
+    private boolean mClosed = false;
+
+    private long cPointer;
+
+    static
+    {
+        System.loadLibrary( "hdhomerun" );
+    }
+
+    private native long JNIcreate();
+
+    private native void JNIdestroy( long cPointer );
+
+    private native long JNIcreateTuner( long aDeviceId, int aIpAddr, int aTuner );
+
+    private native void JNIdestroyTuner( long aTunerPointer );
+
+    private native int JNIlock( long aTunerPointer );
+
+    private native int JNIgetLockkey( long aTunerPointer );
+
+    private native int JNIrelease( long aTunerPointer );
+
+    private native void JNIaddUnavailable( long cPointer, long aTunerPointer );
+
+    private native void JNIremoveUnavailable( long cPointer, long aTunerPointer );
+
+    private native long JNIchooseAndLock( long cPointer );
+
+    public TunerPool()
+    {
+        cPointer = JNIcreate();
+    }
+
+    /**
+     * Adds the tuners that are new and removes the ones that are gone. Tuners in use are removed
+     * when they are released.
+     */
+    public void setDevices( HdhomerunDiscoverDeviceArray aDevices )
+    {
+        synchronized( mProbeLock )
+        {
+            synchronized( this )
+            {
+                if( mClosed )
+                {
+                    return;
+                }
+
+                HashSet< String > theNames = new HashSet< String >();
+                for( int i = 0; i < aDevices.getCount(); i++ )
+                {
+                    HdhomerunDiscoverDevice theDevice = aDevices.get( i );
+                    theNames.add( theDevice.getName() );
+
+                    Entry theEntry = mEntries.get( theDevice.getName() );
+                    if( theEntry == null )
+                    {
+                        add( theDevice );
+                    }
+                    else if( theEntry.ipAddr != theDevice.ip_addr )
+                    {
+                        theEntry.newIpAddr = theDevice.ip_addr;
+                        if( theEntry.state == STATE_FREE || theEntry.state == STATE_UNAVAILABLE )
+                        {
+                            moveAddress( theEntry );
+                        }
+                    }
+                }
+
+                Iterator< Entry > theEntries = mEntries.values().iterator();
+                while( theEntries.hasNext() )
+                {
+                    Entry theEntry = theEntries.next();
+                    if( !theNames.contains( theEntry.name ) )
+                    {
+                        theEntries.remove();
+                        if( theEntry.state == STATE_FREE || theEntry.state == STATE_UNAVAILABLE )
+                        {
+                            destroy( theEntry );
+                        }
+                        else
+                        {
+                            theEntry.removed = true;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param aHistory where acquire( owner, frequency ) looks up the quality of the candidates, null for none
+     */
+    public synchronized void setQualityHistory( SignalQualityHistory aHistory )
+    {
+        mHistory = aHistory;
+    }
+
+    /**
+     * Locks the best free tuner for aOwner. Usually a single lockkey request, every tuner found
+     * locked by someone else costs one more.
+     *
+     * @return the tuner, or null if none could be locked
+     */
+    public PooledTuner acquire( Object aOwner )
+    {
+        return acquire( aOwner, 0 );
+    }
+
+    /**
+     * Locks the free tuner that receives aFrequency best, taking the load of its device into
+     * account. This looks at every free tuner, acquire( owner ) is constant time.
+     *
+     * @param aFrequency in Hz, 0 to choose by the overall quality
+     * @return the tuner, or null if none could be locked
+     */
+    public PooledTuner acquire( Object aOwner, int aFrequency )
+    {
+        while( true )
+        {
+            Entry theEntry;
+            synchronized( this )
+            {
+                if( mClosed )
+                {
+                    return null;
+                }
+
+                theEntry = aFrequency > 0 && mHistory != null ? takeBestFreeFor( aFrequency ) : takeBestFree();
+                if( theEntry == null )
+                {
+                    break;
+                }
+                theEntry.state = STATE_LOCKING;
+                mInFlight++;
+            }
+
+            int theResult = JNIlock( theEntry.tunerPointer );
+
+            synchronized( this )
+            {
+                mInFlight--;
+                notifyAll();
+
+                if( theResult > 0 )
+                {
+                    return own( theEntry, aOwner );
+                }
+
+                HDHomerunLogger.d( "TunerPool: " + theEntry.name + ( theResult == 0 ? " locked by someone else" : " not answering" ) );
+                setUnavailable( theEntry );
+            }
+        }
+
+        return probeUnavailable( aOwner );
+    }
+
+    /**
+     * Locks the best free tuner of one device for aOwner, or one tuner of it. Tuners that were
+     * found locked by someone else aren't probed for this.
+     *
+     * @param aTuner the tuner, -1 for any tuner of the device
+     * @return the tuner, or null if none could be locked
+     */
+    public PooledTuner acquireOnDevice( Object aOwner, long aDeviceId, int aTuner )
+    {
+        while( true )
+        {
+            Entry theEntry;
+            synchronized( this )
+            {
+                if( mClosed )
+                {
+                    return null;
+                }
+
+                theEntry = takeBestFreeOn( aDeviceId, aTuner );
+                if( theEntry == null )
+                {
+                    return null;
+                }
+                theEntry.state = STATE_LOCKING;
+                mInFlight++;
+            }
+
+            int theResult = JNIlock( theEntry.tunerPointer );
+
+            synchronized( this )
+            {
+                mInFlight--;
+                notifyAll();
+
+                if( theResult > 0 )
+                {
+                    return own( theEntry, aOwner );
+                }
+
+                HDHomerunLogger.d( "TunerPool: " + theEntry.name + ( theResult == 0 ? " locked by someone else" : " not answering" ) );
+                setUnavailable( theEntry );
+            }
+        }
+    }
+
+    /**
+     * Releases the lock, the tuner goes back to the end of the free tuners of its quality
+     */
+    public void release( PooledTuner aTuner )
+    {
+        Entry theEntry;
+        synchronized( this )
+        {
+            theEntry = mEntriesByPointer.get( aTuner.getTunerPointer() );
+            if( theEntry == null || theEntry.lease != aTuner )
+            {
+                return;
+            }
+
+            theEntry.lease = null;
+            theEntry.owner = null;
+            theEntry.state = STATE_RELEASING;
+            aTuner.setReleased();
+            mOwnedCount--;
+            mOwnedPerDevice.get( theEntry.deviceId )[ 0 ]--;
+            mInFlight++;
+        }
+
+        int theResult = JNIrelease( theEntry.tunerPointer );
+
+        synchronized( this )
+        {
+            mInFlight--;
+            notifyAll();
+
+            if( theEntry.removed )
+            {
+                destroy( theEntry );
+            }
+            else if( theEntry.newIpAddr != theEntry.ipAddr )
+            {
+                moveAddress( theEntry );
+            }
+            else if( theResult > 0 )
+            {
+                setFree( theEntry );
+            }
+            else
+            {
+                //the lock was lost, let the probe sort it out
+                setUnavailable( theEntry );
+            }
+        }
+    }
+
+    /**
+     * Records the latest signal quality of a tuner, 0 to 100, whether or not it is in use
+     */
+    public synchronized void updateQuality( String aName, int aQuality )
+    {
+        Entry theEntry = mEntries.get( aName );
+        if( theEntry == null )
+        {
+            return;
+        }
+
+        int theQuality = Math.max( 0, Math.min( QUALITY_LEVELS - 1, aQuality ) );
+        if( theEntry.state == STATE_FREE )
+        {
+            unlink( theEntry );
+            theEntry.quality = theQuality;
+            link( theEntry );
+        }
+        else
+        {
+            theEntry.quality = theQuality;
+        }
+    }
+
+    /**
+     * @return the names of the free tuners, best first for aFrequency the way acquire( owner, frequency ) ranks them
+     */
+    public synchronized List< String > rankFreeTuners( int aFrequency )
+    {
+        ArrayList< Entry > theFree = new ArrayList< Entry >( mFreeCount );
+        for( int theLevel = QUALITY_LEVELS - 1; theLevel >= 0; theLevel-- )
+        {
+            for( Entry theEntry = mHeads[ theLevel ]; theEntry != null; theEntry = theEntry.next )
+            {
+                theFree.add( theEntry );
+            }
+        }
+
+        final long theNow = DiscoveryService.now();
+        final HashMap< Entry, Integer > theScores = new HashMap< Entry, Integer >();
+        for( Entry theEntry : theFree )
+        {
+            theScores.put( theEntry, score( theEntry, aFrequency, theNow ) );
+        }
+
+        //stable, so equal scores stay least recently used first
+        Collections.sort( theFree, new Comparator< Entry >()
+        {
+            @Override
+            public int compare( Entry aLhs, Entry aRhs )
+            {
+                return theScores.get( aRhs ) - theScores.get( aLhs );
+            }
+        } );
+
+        ArrayList< String > theNames = new ArrayList< String >( theFree.size() );
+        for( Entry theEntry : theFree )
+        {
+            theNames.add( theEntry.name );
+        }
+        return theNames;
+    }
+
+    /**
+     * @return the last quality reported for the tuner, UNKNOWN_QUALITY if none was, -1 if the tuner isn't in the pool
+     */
+    public synchronized int getQuality( String aName )
+    {
+        Entry theEntry = mEntries.get( aName );
+        return theEntry != null ? theEntry.quality : -1;
+    }
+
+    /**
+     * @return who the pool handed the tuner to, null if the pool doesn't hold it
+     */
+    public synchronized Object getOwner( String aName )
+    {
+        Entry theEntry = mEntries.get( aName );
+        return theEntry != null ? theEntry.owner : null;
+    }
+
+    public synchronized int getTunerCount()
+    {
+        return mEntries.size();
+    }
+
+    /**
+     * @return the tuners that can be locked without probing
+     */
+    public synchronized int getFreeCount()
+    {
+        return mFreeCount;
+    }
+
+    public synchronized int getOwnedCount()
+    {
+        return mOwnedCount;
+    }
+
+    /**
+     * Releases every tuner still handed out and frees the native objects
+     */
+    public void close()
+    {
+        synchronized( mProbeLock )
+        {
+            synchronized( this )
+            {
+                if( mClosed )
+                {
+                    return;
+                }
+                mClosed = true;
+
+                while( mInFlight > 0 )
+                {
+                    try
+                    {
+                        wait();
+                    }
+                    catch( InterruptedException e )
+                    {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+
+                for( Entry theEntry : new ArrayList< Entry >( mEntriesByPointer.values() ) )
+                {
+                    if( theEntry.state == STATE_OWNED )
+                    {
+                        theEntry.lease.setReleased();
+                        JNIrelease( theEntry.tunerPointer );
+                    }
+                    destroy( theEntry );
+                }
+
+                mEntries.clear();
+                JNIdestroy( cPointer );
+                cPointer = 0;
+            }
+        }
+    }
+
+    /**
+     * Runs the device selector over the tuners that were found unavailable, one at a time
+     */
+    private PooledTuner probeUnavailable( Object aOwner )
+    {
+        synchronized( mProbeLock )
+        {
+            synchronized( this )
+            {
+                if( mClosed )
+                {
+                    return null;
+                }
+
+                for( Entry theEntry : mNewlyUnavailable )
+                {
+                    if( theEntry.state == STATE_UNAVAILABLE && !theEntry.inSelector )
+                    {
+                        JNIaddUnavailable( cPointer, theEntry.tunerPointer );
+                        theEntry.inSelector = true;
+                    }
+                }
+                mNewlyUnavailable.clear();
+                mInFlight++;
+            }
+
+            long theTunerPointer = JNIchooseAndLock( cPointer );
+
+            synchronized( this )
+            {
+                mInFlight--;
+                notifyAll();
+
+                Entry theEntry = mEntriesByPointer.get( theTunerPointer );
+                if( theEntry == null )
+                {
+                    return null;
+                }
+
+                JNIremoveUnavailable( cPointer, theTunerPointer );
+                theEntry.inSelector = false;
+                return own( theEntry, aOwner );
+            }
+        }
+    }
+
+    private Entry add( HdhomerunDiscoverDevice aDevice )
+    {
+        long theTunerPointer = JNIcreateTuner( aDevice.id, aDevice.ip_addr, aDevice.tuner_id );
+        if( theTunerPointer == 0 )
+        {
+            HDHomerunLogger.e( "TunerPool: couldn't create " + aDevice.getName() );
+            return null;
+        }
+
+        Entry theEntry = new Entry( aDevice, theTunerPointer );
+        mEntries.put( theEntry.name, theEntry );
+        mEntriesByPointer.put( theTunerPointer, theEntry );
+        setFree( theEntry );
+        return theEntry;
+    }
+
+    /**
+     * Replaces a tuner that isn't in use by one at its new address, keeping its quality.
+     * Unavailable tuners may be in the selector so it needs both locks for those.
+     */
+    private void moveAddress( Entry aEntry )
+    {
+        mEntries.remove( aEntry.name );
+        destroy( aEntry );
+
+        Entry theEntry = add( new HdhomerunDiscoverDevice( aEntry.newIpAddr, 0, aEntry.deviceId, aEntry.tuner ) );
+        if( theEntry != null )
+        {
+            unlink( theEntry );
+            theEntry.quality = aEntry.quality;
+            link( theEntry );
+        }
+    }
+
+    private void destroy( Entry aEntry )
+    {
+        if( aEntry.state == STATE_FREE )
+        {
+            unlink( aEntry );
+        }
+        if( aEntry.inSelector )
+        {
+            JNIremoveUnavailable( cPointer, aEntry.tunerPointer );
+            aEntry.inSelector = false;
+        }
+        mNewlyUnavailable.remove( aEntry );
+
+        aEntry.state = STATE_UNAVAILABLE;
+        mEntriesByPointer.remove( aEntry.tunerPointer );
+        JNIdestroyTuner( aEntry.tunerPointer );
+    }
+
+    private PooledTuner own( Entry aEntry, Object aOwner )
+    {
+        aEntry.state = STATE_OWNED;
+        aEntry.owner = aOwner;
+        int[] theDeviceCount = mOwnedPerDevice.get( aEntry.deviceId );
+        if( theDeviceCount == null )
+        {
+            theDeviceCount = new int[ 1 ];
+            mOwnedPerDevice.put( aEntry.deviceId, theDeviceCount );
+        }
+        theDeviceCount[ 0 ]++;
+        aEntry.lease = new PooledTuner( this, aOwner, aEntry.tunerPointer, aEntry.deviceId, aEntry.ipAddr, aEntry.tuner, aEntry.name, JNIgetLockkey( aEntry.tunerPointer ) );
+        mOwnedCount++;
+        return aEntry.lease;
+    }
+
+    private void setFree( Entry aEntry )
+    {
+        aEntry.state = STATE_FREE;
+        link( aEntry );
+    }
+
+    private void setUnavailable( Entry aEntry )
+    {
+        aEntry.state = STATE_UNAVAILABLE;
+        if( aEntry.removed )
+        {
+            destroy( aEntry );
+        }
+        else if( !aEntry.inSelector )
+        {
+            mNewlyUnavailable.add( aEntry );
+        }
+    }
+
+    private Entry takeBestFree()
+    {
+        for( int theWord = mNonEmptyLevels.length - 1; theWord >= 0; theWord-- )
+        {
+            long theBits = mNonEmptyLevels[ theWord ];
+            if( theBits != 0 )
+            {
+                Entry theEntry = mHeads[ theWord * 64 + 63 - Long.numberOfLeadingZeros( theBits ) ];
+                unlink( theEntry );
+                return theEntry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The best free tuner of aDeviceId, aTuner of it unless that is -1
+     */
+    private Entry takeBestFreeOn( long aDeviceId, int aTuner )
+    {
+        for( int theLevel = QUALITY_LEVELS - 1; theLevel >= 0; theLevel-- )
+        {
+            for( Entry theEntry = mHeads[ theLevel ]; theEntry != null; theEntry = theEntry.next )
+            {
+                if( theEntry.deviceId == aDeviceId && ( aTuner < 0 || theEntry.tuner == aTuner ) )
+                {
+                    unlink( theEntry );
+                    return theEntry;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The free tuner with the best score, the first in least recently used order among equals
+     */
+    private Entry takeBestFreeFor( int aFrequency )
+    {
+        long theNow = DiscoveryService.now();
+        Entry theBest = null;
+        int theBestScore = Integer.MIN_VALUE;
+
+        for( int theLevel = QUALITY_LEVELS - 1; theLevel >= 0; theLevel-- )
+        {
+            for( Entry theEntry = mHeads[ theLevel ]; theEntry != null; theEntry = theEntry.next )
+            {
+                int theScore = score( theEntry, aFrequency, theNow );
+                if( theScore > theBestScore )
+                {
+                    theBest = theEntry;
+                    theBestScore = theScore;
+                }
+            }
+        }
+
+        if( theBest != null )
+        {
+            unlink( theBest );
+        }
+        return theBest;
+    }
+
+    /**
+     * The quality of the tuner on aFrequency, or its last reported quality if it has no history
+     * there, less the load penalty of its device
+     */
+    private int score( Entry aEntry, int aFrequency, long aNow )
+    {
+        int theQuality = SignalQualityHistory.QUALITY_UNKNOWN;
+        if( mHistory != null && aFrequency > 0 )
+        {
+            theQuality = mHistory.getQuality( aEntry.deviceId, aEntry.tuner, aFrequency, aNow );
+        }
+        if( theQuality == SignalQualityHistory.QUALITY_UNKNOWN )
+        {
+            theQuality = aEntry.quality;
+        }
+
+        int[] theDeviceCount = mOwnedPerDevice.get( aEntry.deviceId );
+        return theQuality - ( theDeviceCount != null ? theDeviceCount[ 0 ] * LOAD_PENALTY : 0 );
+    }
+
+    private void link( Entry aEntry )
+    {
+        int theLevel = aEntry.quality;
+        aEntry.next = null;
+        aEntry.prev = mTails[ theLevel ];
+        if( aEntry.prev != null )
+        {
+            aEntry.prev.next = aEntry;
+        }
+        else
+        {
+            mHeads[ theLevel ] = aEntry;
+            mNonEmptyLevels[ theLevel >> 6 ] |= 1L << ( theLevel & 63 );
+        }
+        mTails[ theLevel ] = aEntry;
+        mFreeCount++;
+    }
+
+    private void unlink( Entry aEntry )
+    {
+        int theLevel = aEntry.quality;
+        if( aEntry.prev != null )
+        {
+            aEntry.prev.next = aEntry.next;
+        }
+        else
+        {
+            mHeads[ theLevel ] = aEntry.next;
+        }
+
+        if( aEntry.next != null )
+        {
+            aEntry.next.prev = aEntry.prev;
+        }
+        else
+        {
+            mTails[ theLevel ] = aEntry.prev;
+        }
+
+        if( mHeads[ theLevel ] == null )
+        {
+            mNonEmptyLevels[ theLevel >> 6 ] &= ~( 1L << ( theLevel & 63 ) );
+        }
+
+        aEntry.prev = null;
+        aEntry.next = null;
+        mFreeCount--;
+    }
+
+    private static class Entry
+    {
+        final String name;
+        final long deviceId;
+        final int ipAddr;
+        final int tuner;
+        final long tunerPointer;
+
+        int state;
+        int quality = UNKNOWN_QUALITY;
+        int newIpAddr;
+        boolean removed = false;
+        boolean inSelector = false;
+        Object owner;
+        PooledTuner lease;
+
+        //the free list of the quality level
+        Entry prev;
+        Entry next;
+
+        Entry( HdhomerunDiscoverDevice aDevice, long aTunerPointer )
+        {
+            name = aDevice.getName();
+            deviceId = aDevice.id;
+            ipAddr = aDevice.ip_addr;
+            newIpAddr = aDevice.ip_addr;
+            tuner = aDevice.tuner_id;
+            tunerPointer = aTunerPointer;
+        }
+    }
+}
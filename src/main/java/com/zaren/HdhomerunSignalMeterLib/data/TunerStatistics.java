@@ -0,0 +1,166 @@
+package com.zaren.HdhomerunSignalMeterLib.data;
+
+/**
+ * Running statistics of a tuner's status polls on its current channel: signal strength, signal to
+ * noise quality, symbol error quality and network packet rate, plus how many polls had a lock.
+ * They start over when the tuner moves to another channel, a mix of two channels says nothing.
+ *
+ * DeviceController keeps one per tuner, read it through DeviceController.getStatistics or the
+ * tunerStatisticsChanged event.
+ */
+public class TunerStatistics
+{
+    public static final int SIGNAL_STRENGTH = 0;
+    public static final int SNR_QUALITY = 1;
+    public static final int SYMBOL_QUALITY = 2;
+    public static final int PACKETS_PER_SECOND = 3;
+    public static final int METRIC_COUNT = 4;
+
+    public static final float DEFAULT_SMOOTHING = 0.2f;
+
+    private final MetricStatistics[] mMetrics = new MetricStatistics[ METRIC_COUNT ];
+    private String mChannel = "none";
+    private long mLockedCount;
+    private long mStartTime;
+    private long mLastTime;
+
+    public TunerStatistics()
+    {
+        this( DEFAULT_SMOOTHING );
+    }
+
+    /**
+     * @param aSmoothing weight of a new poll in the exponentially weighted averages
+     */
+    public TunerStatistics( float aSmoothing )
+    {
+        for( int i = 0; i < METRIC_COUNT; i++ )
+        {
+            mMetrics[ i ] = new MetricStatistics( aSmoothing );
+        }
+    }
+
+    /**
+     * Records a successful tuner status poll, starting over if the channel changed
+     */
+    public void record( TunerStatus aStatus, long aTime )
+    {
+        String theChannel = aStatus.channel != null ? aStatus.channel : "none";
+        if( !theChannel.equals( mChannel ) )
+        {
+            reset();
+            mChannel = theChannel;
+        }
+
+        if( mStartTime == 0 )
+        {
+            mStartTime = aTime;
+        }
+        mLastTime = aTime;
+
+        if( aStatus.signalPresent && aStatus.lockStr != null && !aStatus.lockStr.equals( "none" ) )
+        {
+            mLockedCount++;
+        }
+
+        mMetrics[ SIGNAL_STRENGTH ].record( aStatus.signalStrength );
+        mMetrics[ SNR_QUALITY ].record( aStatus.snrQuality );
+        mMetrics[ SYMBOL_QUALITY ].record( aStatus.symbolErrorQuality );
+        mMetrics[ PACKETS_PER_SECOND ].record( aStatus.packetsPerSecond );
+    }
+
+    public void reset()
+    {
+        for( int i = 0; i < METRIC_COUNT; i++ )
+        {
+            mMetrics[ i ].reset();
+        }
+        mChannel = "none";
+        mLockedCount = 0;
+        mStartTime = 0;
+        mLastTime = 0;
+    }
+
+    /**
+     * Copies everything into aOther, allocating nothing
+     */
+    public void copyTo( TunerStatistics aOther )
+    {
+        for( int i = 0; i < METRIC_COUNT; i++ )
+        {
+            mMetrics[ i ].copyTo( aOther.mMetrics[ i ] );
+        }
+        aOther.mChannel = mChannel;
+        aOther.mLockedCount = mLockedCount;
+        aOther.mStartTime = mStartTime;
+        aOther.mLastTime = mLastTime;
+    }
+
+    /**
+     * @param aMetric one of SIGNAL_STRENGTH, SNR_QUALITY, SYMBOL_QUALITY or PACKETS_PER_SECOND
+     */
+    public MetricStatistics get( int aMetric )
+    {
+        return mMetrics[ aMetric ];
+    }
+
+    public MetricStatistics getSignalStrength()
+    {
+        return mMetrics[ SIGNAL_STRENGTH ];
+    }
+
+    public MetricStatistics getSnrQuality()
+    {
+        return mMetrics[ SNR_QUALITY ];
+    }
+
+    public MetricStatistics getSymbolQuality()
+    {
+        return mMetrics[ SYMBOL_QUALITY ];
+    }
+
+    public MetricStatistics getPacketsPerSecond()
+    {
+        return mMetrics[ PACKETS_PER_SECOND ];
+    }
+
+    /**
+     * @return the channel of the polls, like "auto:647000000", "none" before the first
+     */
+    public String getChannel()
+    {
+        return mChannel;
+    }
+
+    public long getCount()
+    {
+        return mMetrics[ SIGNAL_STRENGTH ].getCount();
+    }
+
+    public long getLockedCount()
+    {
+        return mLockedCount;
+    }
+
+    /**
+     * @return the share of polls with a lock, 0 to 1
+     */
+    public float getLockedFraction()
+    {
+        long theCount = getCount();
+        return theCount > 0 ? (float) mLockedCount / theCount : 0;
+    }
+
+    /**
+     * @return when the first poll on the channel was recorded, 0 if none was
+     */
+    public long getStartTime()
+    {
+        return mStartTime;
+    }
+
+    public long getLastTime()
+    {
+        return mLastTime;
+    }
+}
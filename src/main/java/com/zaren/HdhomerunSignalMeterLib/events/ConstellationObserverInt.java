@@ -0,0 +1,12 @@
+package com.zaren.HdhomerunSignalMeterLib.events;
+
+import com.zaren.HdhomerunSignalMeterLib.data.ConstellationSamples;
+import com.zaren.HdhomerunSignalMeterLib.data.DeviceController;
+
+public interface ConstellationObserverInt
+{
+   /**
+    * @param aSamples reused for a later poll once this returns, copy it with ConstellationSamples.copyTo to keep it
+    */
+   void constellationChanged( DeviceController aDeviceController, ConstellationSamples aSamples );
+}
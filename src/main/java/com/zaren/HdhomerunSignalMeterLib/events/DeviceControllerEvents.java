@@ -1,15 +1,14 @@
 package com.zaren.HdhomerunSignalMeterLib.events;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-
-import android.database.Observable;
 
 import com.zaren.HdhomerunSignalMeterLib.data.ChannelScanProgram;
+import com.zaren.HdhomerunSignalMeterLib.data.ConstellationSamples;
 import com.zaren.HdhomerunSignalMeterLib.data.CurrentChannelAndProgram;
 import com.zaren.HdhomerunSignalMeterLib.data.DeviceController;
 import com.zaren.HdhomerunSignalMeterLib.data.DeviceResponse;
 import com.zaren.HdhomerunSignalMeterLib.data.ProgramsList;
+import com.zaren.HdhomerunSignalMeterLib.data.TunerStatistics;
 import com.zaren.HdhomerunSignalMeterLib.data.TunerStatus;
 
 public class DeviceControllerEvents implements Serializable
@@ -26,6 +25,8 @@ public class DeviceControllerEvents implements Serializable
    private ProgramListObserver mProgramListChanged;
    private ProgramObserver mProgramChanged;
    private TunerStatusObserver mTunerStatusChanged;
+   private TunerStatisticsObserver mTunerStatisticsChanged;
+   private ConstellationObserver mConstellationChanged;
 
    public DeviceControllerEvents()
    {
@@ -37,6 +38,8 @@ public class DeviceControllerEvents implements Serializable
       mProgramListChanged = new ProgramListObserver();
       mProgramChanged = new ProgramObserver();
       mTunerStatusChanged = new TunerStatusObserver();
+      mTunerStatisticsChanged = new TunerStatisticsObserver();
+      mConstellationChanged = new ConstellationObserver();
    }
 
    public void unregisterAll()
@@ -49,9 +52,11 @@ public class DeviceControllerEvents implements Serializable
       mProgramListChanged.unregisterAll();
       mProgramChanged.unregisterAll();
       mTunerStatusChanged.unregisterAll();      
+      mTunerStatisticsChanged.unregisterAll();
+      mConstellationChanged.unregisterAll();
    }
    
-   public Observable< ChannelMapObserverInt > channelMapChanged()
+   public ObservableWithCheck< ChannelMapObserverInt > channelMapChanged()
    {
       return mChannelMapChanged;
    }
@@ -61,7 +66,7 @@ public class DeviceControllerEvents implements Serializable
       mChannelMapChanged.raiseEvent( aResponse, aDeviceController, aNewChannelMap );
    }
    
-   public Observable< ChannelMapListChangedObserverInt > channelMapListChanged()
+   public ObservableWithCheck< ChannelMapListChangedObserverInt > channelMapListChanged()
    {
       return mChannelMapListChanged;
    }
@@ -71,7 +76,7 @@ public class DeviceControllerEvents implements Serializable
       mChannelMapListChanged.raiseEvent( aDeviceController, aChannelMapList );
    }
    
-   public Observable< ChannelChangedObserverInt > channelChanged()
+   public ObservableWithCheck< ChannelChangedObserverInt > channelChanged()
    {
       return mChannelChanged;
    }
@@ -81,7 +86,7 @@ public class DeviceControllerEvents implements Serializable
       mChannelChanged.raiseEvent( aResponse, aDeviceController, aNewChannel );
    }
 
-   public Observable< ChannelLockedObserverInt > channelLocked()
+   public ObservableWithCheck< ChannelLockedObserverInt > channelLocked()
    {
       return mChannelLocked;
    }
@@ -91,7 +96,7 @@ public class DeviceControllerEvents implements Serializable
       mChannelLocked.raiseEvent( aDeviceController, aTunerStatus );
    }
    
-   public Observable< ChannelScanCompleteObserverInt > channelScanComplete()
+   public ObservableWithCheck< ChannelScanCompleteObserverInt > channelScanComplete()
    {
       return mChannelScanComplete;
    }
@@ -101,7 +106,7 @@ public class DeviceControllerEvents implements Serializable
       mChannelScanComplete.raiseEvent( aResponse, aDeviceController );
    }
    
-   public Observable< ProgramListObserverInt > programListChanged()
+   public ObservableWithCheck< ProgramListObserverInt > programListChanged()
    {
       return mProgramListChanged;
    }
@@ -111,7 +116,7 @@ public class DeviceControllerEvents implements Serializable
       mProgramListChanged.raiseEvent( aDeviceController, thePrograms, aChannel );
    }
    
-   public Observable< ProgramObserverInt > programChanged()
+   public ObservableWithCheck< ProgramObserverInt > programChanged()
    {
       return mProgramChanged;
    }
@@ -121,7 +126,7 @@ public class DeviceControllerEvents implements Serializable
       mProgramChanged.raiseEvent( aResponse, aDeviceController, aProgram );
    }
    
-   public Observable< TunerStatusObserverInt > tunerStatusChanged()
+   public ObservableWithCheck< TunerStatusObserverInt > tunerStatusChanged()
    {
       return mTunerStatusChanged;
    }
@@ -131,6 +136,26 @@ public class DeviceControllerEvents implements Serializable
       mTunerStatusChanged.raiseEvent( aResponse, aDeviceController, aTunerStatus, aCurrentChannel );
    }
    
+   public ObservableWithCheck< TunerStatisticsObserverInt > tunerStatisticsChanged()
+   {
+      return mTunerStatisticsChanged;
+   }
+   
+   public void notifyTunerStatisticsChanged( DeviceController aDeviceController, TunerStatistics aStatistics )
+   {
+      mTunerStatisticsChanged.raiseEvent( aDeviceController, aStatistics );
+   }
+   
+   public ObservableWithCheck< ConstellationObserverInt > constellationChanged()
+   {
+      return mConstellationChanged;
+   }
+   
+   public void notifyConstellationChanged( DeviceController aDeviceController, ConstellationSamples aSamples )
+   {
+      mConstellationChanged.raiseEvent( aDeviceController, aSamples );
+   }
+   
    private class ChannelMapObservable extends ObservableWithCheck< ChannelMapObserverInt > implements Serializable
    {
       /**
@@ -140,7 +165,7 @@ public class DeviceControllerEvents implements Serializable
 
       public void raiseEvent( DeviceResponse aResponse, DeviceController aDeviceController, String aNewChannelMap )
       {
-         for( ChannelMapObserverInt theObserver : mObservers )
+         for( ChannelMapObserverInt theObserver : snapshot() )
          {
             theObserver.channelMapChanged(aResponse, aDeviceController, aNewChannelMap );
          }
@@ -156,7 +181,7 @@ public class DeviceControllerEvents implements Serializable
 
       public void raiseEvent( DeviceController aDeviceController, String[] aChannelMapList )
       {
-         for( ChannelMapListChangedObserverInt theObserver : mObservers )
+         for( ChannelMapListChangedObserverInt theObserver : snapshot() )
          {
             theObserver.channelMapListChanged( aDeviceController, aChannelMapList );
          }
@@ -172,7 +197,7 @@ public class DeviceControllerEvents implements Serializable
 
       public void raiseEvent( DeviceResponse aResponse, DeviceController aDeviceController, int aNewChannel )
       {
-         for( ChannelChangedObserverInt theObserver : mObservers )
+         for( ChannelChangedObserverInt theObserver : snapshot() )
          {
             theObserver.channelChanged( aResponse, aDeviceController, aNewChannel );
          }
@@ -188,13 +213,45 @@ public class DeviceControllerEvents implements Serializable
 
       public void raiseEvent( DeviceResponse aResponse, DeviceController aDeviceController, TunerStatus aTunerStatus, CurrentChannelAndProgram aCurrentChannel )
       {
-         for( TunerStatusObserverInt theObserver : mObservers )
+         for( TunerStatusObserverInt theObserver : snapshot() )
          {
             theObserver.tunerStatusChanged(aResponse, aDeviceController, aTunerStatus, aCurrentChannel);
          }
       }
    }
    
+   private class TunerStatisticsObserver extends ObservableWithCheck< TunerStatisticsObserverInt > implements Serializable
+   {
+      /**
+       * 
+       */
+      private static final long serialVersionUID = 3160582944709517213L;
+
+      public void raiseEvent( DeviceController aDeviceController, TunerStatistics aStatistics )
+      {
+         for( TunerStatisticsObserverInt theObserver : snapshot() )
+         {
+            theObserver.tunerStatisticsChanged( aDeviceController, aStatistics );
+         }
+      }
+   }
+   
+   private class ConstellationObserver extends ObservableWithCheck< ConstellationObserverInt > implements Serializable
+   {
+      /**
+       * 
+       */
+      private static final long serialVersionUID = -2419035570245530617L;
+
+      public void raiseEvent( DeviceController aDeviceController, ConstellationSamples aSamples )
+      {
+         for( ConstellationObserverInt theObserver : snapshot() )
+         {
+            theObserver.constellationChanged( aDeviceController, aSamples );
+         }
+      }
+   }
+   
    private class ProgramObserver extends ObservableWithCheck< ProgramObserverInt > implements Serializable
    {
       /**
@@ -204,10 +261,7 @@ public class DeviceControllerEvents implements Serializable
 
       public void raiseEvent( DeviceResponse aResponse, DeviceController aDeviceController, ChannelScanProgram aProgram )
       {
-         //workaround for concurrent exception while hitting play, the handler of this observer unregisters itself...
-         ArrayList< ProgramObserverInt > theObservers = new ArrayList< ProgramObserverInt >( mObservers );     
-         
-         for( ProgramObserverInt theObserver : theObservers )
+         for( ProgramObserverInt theObserver : snapshot() )
          {
             theObserver.programChanged( aResponse, aDeviceController, aProgram );
          }
@@ -223,7 +277,7 @@ public class DeviceControllerEvents implements Serializable
 
       public void raiseEvent( DeviceController aDeviceController, ProgramsList thePrograms, int aChannel )
       {
-         for( ProgramListObserverInt theObserver : mObservers )
+         for( ProgramListObserverInt theObserver : snapshot() )
          {
             theObserver.programListChanged( aDeviceController, thePrograms, aChannel );
          }
@@ -239,10 +293,7 @@ public class DeviceControllerEvents implements Serializable
 
       public void raiseEvent( DeviceResponse aResponse, DeviceController aDeviceController )
       {
-         //workaround for concurrent exception while hitting play, the handler of this observer unregisters itself...
-         ArrayList< ChannelScanCompleteObserverInt > theObservers = new ArrayList< ChannelScanCompleteObserverInt >( mObservers );
-         
-         for( ChannelScanCompleteObserverInt theObserver : theObservers )
+         for( ChannelScanCompleteObserverInt theObserver : snapshot() )
          {
             theObserver.channelScanComplete( aResponse, aDeviceController );
          }
@@ -258,7 +309,7 @@ public class DeviceControllerEvents implements Serializable
 
       public void raiseEvent( DeviceController aDeviceController, TunerStatus aTunerStatus )
       {
-         for( ChannelLockedObserverInt theObserver : mObservers )
+         for( ChannelLockedObserverInt theObserver : snapshot() )
          {
             theObserver.channelLocked( aDeviceController, aTunerStatus );
          }
@@ -0,0 +1,66 @@
+package com.zaren.HdhomerunSignalMeterLib.events;
+
+import com.zaren.HdhomerunSignalMeterLib.data.DiscoveredDevice;
+import com.zaren.HdhomerunSignalMeterLib.data.DiscoveryService;
+import com.zaren.HdhomerunSignalMeterLib.data.HdhomerunDiscoverDeviceArray;
+
+/**
+ * Events of a DiscoveryService. They are raised on the discovery thread, not the UI thread, each
+ * on a snapshot of the observers so they can unregister from their callbacks or other threads.
+ */
+public class DiscoveryEvents
+{
+   private DiscoveryObservable mDiscovery;
+
+   public DiscoveryEvents()
+   {
+      mDiscovery = new DiscoveryObservable();
+   }
+
+   public void unregisterAll()
+   {
+      mDiscovery.unregisterAll();
+   }
+
+   public ObservableWithCheck< DiscoveryObserverInt > discovery()
+   {
+      return mDiscovery;
+   }
+
+   public void notifyDeviceAdded( DiscoveryService aService, DiscoveredDevice aDevice )
+   {
+      for( DiscoveryObserverInt theObserver : mDiscovery.snapshot() )
+      {
+         theObserver.deviceAdded( aService, aDevice );
+      }
+   }
+
+   public void notifyDeviceRemoved( DiscoveryService aService, DiscoveredDevice aDevice )
+   {
+      for( DiscoveryObserverInt theObserver : mDiscovery.snapshot() )
+      {
+         theObserver.deviceRemoved( aService, aDevice );
+      }
+   }
+
+   public void notifyDeviceAddressChanged( DiscoveryService aService, DiscoveredDevice aDevice, int aOldIpAddr )
+   {
+      for( DiscoveryObserverInt theObserver : mDiscovery.snapshot() )
+      {
+         theObserver.deviceAddressChanged( aService, aDevice, aOldIpAddr );
+      }
+   }
+
+   public void notifyDeviceListChanged( DiscoveryService aService, HdhomerunDiscoverDeviceArray aDevices )
+   {
+      for( DiscoveryObserverInt theObserver : mDiscovery.snapshot() )
+      {
+         theObserver.deviceListChanged( aService, aDevices );
+      }
+   }
+
+   private class DiscoveryObservable extends ObservableWithCheck< DiscoveryObserverInt >
+   {
+      private static final long serialVersionUID = -2404127645153627398L;
+   }
+}
@@ -0,0 +1,22 @@
+package com.zaren.HdhomerunSignalMeterLib.events;
+
+import com.zaren.HdhomerunSignalMeterLib.data.DiscoveredDevice;
+import com.zaren.HdhomerunSignalMeterLib.data.DiscoveryService;
+import com.zaren.HdhomerunSignalMeterLib.data.HdhomerunDiscoverDeviceArray;
+
+/**
+ * Called on the DiscoveryService's own thread, post to a Handler before touching any views
+ */
+public interface DiscoveryObserverInt
+{
+   void deviceAdded( DiscoveryService aService, DiscoveredDevice aDevice );
+
+   void deviceRemoved( DiscoveryService aService, DiscoveredDevice aDevice );
+
+   void deviceAddressChanged( DiscoveryService aService, DiscoveredDevice aDevice, int aOldIpAddr );
+
+   /**
+    * Raised once after any of the above with the new list of tuners
+    */
+   void deviceListChanged( DiscoveryService aService, HdhomerunDiscoverDeviceArray aDevices );
+}
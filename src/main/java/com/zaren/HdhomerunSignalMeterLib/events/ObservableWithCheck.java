@@ -1,35 +1,65 @@
 package com.zaren.HdhomerunSignalMeterLib.events;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 
-import android.database.Observable;
-
-public class ObservableWithCheck< T > extends Observable< T > implements Serializable
+/**
+ * Observer list with the same contract as android.database.Observable, except that registering
+ * twice or unregistering an unknown observer is ignored. It does not depend on the android
+ * framework so the events can also be raised on a plain JVM.
+ */
+public class ObservableWithCheck< T > implements Serializable
 {
 
    /**
-    * 
+    *
     */
    private static final long serialVersionUID = 510868949221761073L;
 
-   @Override
+   protected final ArrayList< T > mObservers = new ArrayList< T >();
+
    public void unregisterObserver( T aObserver )
    {
-      if( mObservers.contains( aObserver ) )
+      synchronized( mObservers )
       {
-         super.unregisterObserver( aObserver );
+         mObservers.remove( aObserver );
       }
    }
 
-   @Override
    public void registerObserver( T aObserver )
    {
-      if( !mObservers.contains( aObserver ) )
+      if( aObserver == null )
+      {
+         throw new IllegalArgumentException( "The observer is null." );
+      }
+
+      synchronized( mObservers )
+      {
+         if( !mObservers.contains( aObserver ) )
+         {
+            mObservers.add( aObserver );
+         }
+      }
+   }
+
+   public void unregisterAll()
+   {
+      synchronized( mObservers )
       {
-         super.registerObserver( aObserver );
+         mObservers.clear();
       }
    }
-   
-   
-   
+
+   /**
+    * @return a copy of the observers to raise an event on, so they can register and unregister
+    *         from other threads or from their own callbacks
+    */
+   protected ArrayList< T > snapshot()
+   {
+      synchronized( mObservers )
+      {
+         return new ArrayList< T >( mObservers );
+      }
+   }
+
 }
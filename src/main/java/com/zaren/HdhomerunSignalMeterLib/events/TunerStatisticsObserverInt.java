@@ -0,0 +1,12 @@
+package com.zaren.HdhomerunSignalMeterLib.events;
+
+import com.zaren.HdhomerunSignalMeterLib.data.DeviceController;
+import com.zaren.HdhomerunSignalMeterLib.data.TunerStatistics;
+
+public interface TunerStatisticsObserverInt
+{
+   /**
+    * @param aStatistics a snapshot reused for the next event, copy it with TunerStatistics.copyTo to keep it
+    */
+   void tunerStatisticsChanged( DeviceController aDeviceController, TunerStatistics aStatistics );
+}
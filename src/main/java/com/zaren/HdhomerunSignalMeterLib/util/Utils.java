@@ -1,5 +1,6 @@
 package com.zaren.HdhomerunSignalMeterLib.util;
 
+import com.zaren.HdhomerunSignalMeterLib.data.ChannelList;
 import com.zaren.HdhomerunSignalMeterLib.data.HdhomerunDevice;
 
 public class Utils
@@ -96,6 +97,11 @@ public class Utils
    }
    
    public static int getChannelNumberFromTunerStatusChannel( HdhomerunDevice aDevice, String aChannel )
+   {
+      return getChannelNumberFromTunerStatusChannel( aDevice.getChannelList(), aChannel );
+   }
+   
+   public static int getChannelNumberFromTunerStatusChannel( ChannelList aChannelList, String aChannel )
    {
       HDHomerunLogger.v( "getChannelNumberFromTunerStatusChannel: "+aChannel );
       if( aChannel.equals( "none" ) )
@@ -113,7 +119,7 @@ public class Utils
                if( theChannelInt > 1000 )
                {
                   //this must be a frequency value
-                  theChannelInt = aDevice.frequencyToChannelNumber( theChannelInt );
+                  theChannelInt = aChannelList.frequencyToNumber( theChannelInt );
                   
                   if( theChannelInt == 0 )
                   {
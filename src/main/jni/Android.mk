@@ -13,7 +13,11 @@ LOCAL_SRC_FILES += hdhomerun_device.c
 LOCAL_SRC_FILES += hdhomerun_device_selector.c
 LOCAL_SRC_FILES += hdhomerun_discover.c
 LOCAL_SRC_FILES += hdhomerun_os_posix.c
+LOCAL_SRC_FILES += hdhomerun_guide.c
 LOCAL_SRC_FILES += hdhomerun_pkt.c
+LOCAL_SRC_FILES += hdhomerun_program_filter.c
+LOCAL_SRC_FILES += hdhomerun_psi.c
+LOCAL_SRC_FILES += hdhomerun_recorder.c
 LOCAL_SRC_FILES += hdhomerun_sock_posix.c
 LOCAL_SRC_FILES += hdhomerun_video.c
 LOCAL_SRC_FILES += logger.c
@@ -10,10 +10,18 @@ extern "C" {
 /*
  * Class:     com_zaren_HdhomerunSignalMeterLib_data_DiscoverTask
  * Method:    discover
- * Signature: ()Lcom/zaren/data/HdhomerunDiscoverDeviceArray;
+ * Signature: ([I)Lcom/zaren/HdhomerunSignalMeterLib/data/HdhomerunDiscoverDeviceArray;
  */
 JNIEXPORT jobject JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_DiscoverTask_discover
-  (JNIEnv *, jobject);
+  (JNIEnv *, jobject, jintArray);
+
+/*
+ * Class:     com_zaren_HdhomerunSignalMeterLib_data_DiscoverTask
+ * Method:    discoverTargets
+ * Signature: ([II)Lcom/zaren/HdhomerunSignalMeterLib/data/HdhomerunDiscoverDeviceArray;
+ */
+JNIEXPORT jobject JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_DiscoverTask_discoverTargets
+  (JNIEnv *, jobject, jintArray, jint);
 
 #ifdef __cplusplus
 }
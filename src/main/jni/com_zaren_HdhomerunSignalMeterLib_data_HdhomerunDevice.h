@@ -20,7 +20,7 @@ JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevi
 /*
  * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
  * Method:    JNIcreateNewDevice
- * Signature: (JJI)I
+ * Signature: (JJI)J
  */
 JNIEXPORT jlong JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIcreateNewDevice
   (JNIEnv *, jobject, jlong, jlong, jint);
@@ -52,19 +52,67 @@ JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevi
 /*
  * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
  * Method:    JNIwaitForLock
- * Signature: (ILcom/zaren/HdhomerunSignalMeterLib/data/TunerStatus;)I
+ * Signature: (JLcom/zaren/HdhomerunSignalMeterLib/data/TunerStatus;Z)I
  */
 JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIwaitForLock
-  (JNIEnv *, jobject, jlong, jobject);
+  (JNIEnv *, jobject, jlong, jobject, jboolean);
 
 /*
  * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
- * Method:    JNIgetTunerStreamInfo
- * Signature: (ILcom/zaren/HdhomerunSignalMeterLib/data/JniString;)I
+ * Method:    JNIgetTunerStreamPrograms
+ * Signature: (JLcom/zaren/HdhomerunSignalMeterLib/data/StreamInfoTable;)I
  */
-JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIgetTunerStreamInfo
+JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIgetTunerStreamPrograms
   (JNIEnv *, jobject, jlong, jobject);
 
+/*
+ * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
+ * Method:    JNIdetectStreamPrograms
+ * Signature: (JLcom/zaren/HdhomerunSignalMeterLib/data/StreamInfoTable;Lcom/zaren/HdhomerunSignalMeterLib/data/StreamProgramsListener;I)I
+ */
+JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIdetectStreamPrograms
+  (JNIEnv *, jobject, jlong, jobject, jobject, jint);
+
+/*
+ * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
+ * Method:    JNIenableGuide
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIenableGuide
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
+ * Method:    JNIgetGuideEvents
+ * Signature: (JIIIJLcom/zaren/HdhomerunSignalMeterLib/data/GuideTable;)I
+ */
+JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIgetGuideEvents
+  (JNIEnv *, jobject, jlong, jint, jint, jint, jlong, jobject);
+
+/*
+ * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
+ * Method:    JNIexpireGuide
+ * Signature: (JJ)V
+ */
+JNIEXPORT void JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIexpireGuide
+  (JNIEnv *, jobject, jlong, jlong);
+
+/*
+ * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
+ * Method:    JNIsaveGuide
+ * Signature: (JLjava/lang/String;)Z
+ */
+JNIEXPORT jboolean JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIsaveGuide
+  (JNIEnv *, jobject, jlong, jstring);
+
+/*
+ * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
+ * Method:    JNIloadGuide
+ * Signature: (JLjava/lang/String;)Z
+ */
+JNIEXPORT jboolean JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIloadGuide
+  (JNIEnv *, jobject, jlong, jstring);
+
 /*
  * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
  * Method:    JNIgetTunerStatus
@@ -81,6 +129,14 @@ JNIEXPORT jobject JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunD
 JNIEXPORT jstring JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIgetSupported
   (JNIEnv *, jobject, jlong);
 
+/*
+ * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
+ * Method:    JNIcreateMulticast
+ * Signature: (II)J
+ */
+JNIEXPORT jlong JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIcreateMulticast
+  (JNIEnv *, jclass, jint, jint);
+
 /*
  * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
  * Method:    JNIdestroy
@@ -209,6 +265,158 @@ JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevi
 JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNItunerLockeyForce
   (JNIEnv *, jobject, jlong);
 
+/*
+ * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
+ * Method:    JNItunerLockkeyUseValue
+ * Signature: (JI)V
+ */
+JNIEXPORT void JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNItunerLockkeyUseValue
+  (JNIEnv *, jobject, jlong, jint);
+
+/*
+ * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
+ * Method:    JNIsetRecordingIoUring
+ * Signature: (Z)Z
+ */
+JNIEXPORT jboolean JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIsetRecordingIoUring
+  (JNIEnv *, jclass, jboolean);
+
+/*
+ * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
+ * Method:    JNIsetVideoReactor
+ * Signature: (I[I)Z
+ */
+JNIEXPORT jboolean JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIsetVideoReactor
+  (JNIEnv *, jclass, jint, jintArray);
+
+/*
+ * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
+ * Method:    JNIstartProgramFilter
+ * Signature: (J[I)J
+ */
+JNIEXPORT jlong JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIstartProgramFilter
+  (JNIEnv *, jobject, jlong, jintArray);
+
+/*
+ * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
+ * Method:    JNIstopProgramFilter
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIstopProgramFilter
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
+ * Method:    JNIgetProgramFilterPids
+ * Signature: (J)[I
+ */
+JNIEXPORT jintArray JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIgetProgramFilterPids
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
+ * Method:    JNIstartRecording
+ * Signature: (JLjava/lang/String;JI)J
+ */
+JNIEXPORT jlong JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIstartRecording
+  (JNIEnv *, jobject, jlong, jstring, jlong, jint);
+
+/*
+ * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
+ * Method:    JNIstopRecording
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIstopRecording
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
+ * Method:    JNIgetRecordingStats
+ * Signature: (J[J)V
+ */
+JNIEXPORT void JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIgetRecordingStats
+  (JNIEnv *, jobject, jlong, jlongArray);
+
+/*
+ * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
+ * Method:    JNIstreamStart
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIstreamStart
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
+ * Method:    JNIstreamSetNotifyThreshold
+ * Signature: (JI)V
+ */
+JNIEXPORT void JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIstreamSetNotifyThreshold
+  (JNIEnv *, jobject, jlong, jint);
+
+/*
+ * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
+ * Method:    JNIstreamRecv
+ * Signature: (J[BIII)I
+ */
+JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIstreamRecv
+  (JNIEnv *, jobject, jlong, jbyteArray, jint, jint, jint);
+
+/*
+ * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
+ * Method:    JNIstreamRecvDirect
+ * Signature: (JLjava/nio/ByteBuffer;III)I
+ */
+JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIstreamRecvDirect
+  (JNIEnv *, jobject, jlong, jobject, jint, jint, jint);
+
+/*
+ * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
+ * Method:    JNIstreamBuffer
+ * Signature: (J)Ljava/nio/ByteBuffer;
+ */
+JNIEXPORT jobject JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIstreamBuffer
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
+ * Method:    JNIstreamReleaseWait
+ * Signature: (JJJI)J
+ */
+JNIEXPORT jlong JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIstreamReleaseWait
+  (JNIEnv *, jobject, jlong, jlong, jlong, jint);
+
+/*
+ * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
+ * Method:    JNIjoinMulticastGroup
+ * Signature: (JII)I
+ */
+JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIjoinMulticastGroup
+  (JNIEnv *, jobject, jlong, jint, jint);
+
+/*
+ * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
+ * Method:    JNIleaveMulticastGroup
+ * Signature: (JII)V
+ */
+JNIEXPORT void JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIleaveMulticastGroup
+  (JNIEnv *, jobject, jlong, jint, jint);
+
+/*
+ * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
+ * Method:    JNIgetStreamStats
+ * Signature: (J[J)V
+ */
+JNIEXPORT void JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIgetStreamStats
+  (JNIEnv *, jobject, jlong, jlongArray);
+
+/*
+ * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
+ * Method:    JNIgetPlotsample
+ * Signature: (JZ[S[I)I
+ */
+JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIgetPlotsample
+  (JNIEnv *, jobject, jlong, jboolean, jshortArray, jintArray);
+
 /*
  * Class:     com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice
  * Method:    JNIgetTunerProgram
@@ -25,11 +25,15 @@
 #include "hdhomerun_debug.h"
 #include "hdhomerun_discover.h"
 #include "hdhomerun_control.h"
+#include "hdhomerun_psi.h"
+#include "hdhomerun_guide.h"
 #include "hdhomerun_video.h"
 #include "hdhomerun_channels.h"
 #include "hdhomerun_channelscan.h"
 #include "hdhomerun_device.h"
 #include "hdhomerun_device_selector.h"
+#include "hdhomerun_recorder.h"
+#include "hdhomerun_program_filter.h"
 
 #include <jni.h>
 #include "logger.h"
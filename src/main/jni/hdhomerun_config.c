@@ -364,6 +364,9 @@ static int cmd_save(const char *tuner_str, const char *filename)
 		}
 	}
 
+	/* About 20ms of a full rate stream per write. */
+	hdhomerun_device_stream_set_notify_threshold(hd, VIDEO_DATA_PACKET_SIZE * 40);
+
 	int ret = hdhomerun_device_stream_start(hd);
 	if (ret <= 0) {
 		fprintf(stderr, "unable to start stream\n");
@@ -389,10 +392,10 @@ static int cmd_save(const char *tuner_str, const char *filename)
 			siginfo_flag = FALSE;
 		}
 
+		/* Wakes when the data arrives, the timeout only bounds how late the signal flags are seen. */
 		size_t actual_size;
-		uint8_t *ptr = hdhomerun_device_stream_recv(hd, VIDEO_DATA_BUFFER_SIZE_1S, &actual_size);
+		uint8_t *ptr = hdhomerun_device_stream_recv_wait(hd, VIDEO_DATA_BUFFER_SIZE_1S, &actual_size, 250);
 		if (!ptr) {
-			msleep_approx(64);
 			continue;
 		}
 
@@ -432,13 +435,6 @@ static int cmd_save(const char *tuner_str, const char *filename)
 			stats_old = stats_cur;
 			fflush(stderr);
 		}
-
-		int32_t delay = 64 - (int32_t)(getcurrenttime() - loop_start_time);
-		if (delay <= 0) {
-			continue;
-		}
-
-		msleep_approx(delay);
 	}
 
 	if (fp) {
@@ -313,6 +313,7 @@ void hdhomerun_debug_vprintf(struct hdhomerun_debug_t *dbg, const char *fmt, va_
 	}
 	
 	MY_LOGD((message->buffer));
+	free(message);
     return;
 
 	/*
@@ -359,17 +359,176 @@ uint32_t hdhomerun_device_get_local_machine_addr(struct hdhomerun_device_t *hd)
 	return 0;
 }
 
-static uint32_t hdhomerun_device_get_status_parse(const char *status_str, const char *tag)
+static bool_t hdhomerun_device_status_is_space(char c)
 {
-	const char *ptr = strstr(status_str, tag);
-	if (!ptr) {
+	/* the isspace() set, ' ' and '\t' to '\r' */
+	return (c == ' ') || ((unsigned char)(c - '\t') <= (unsigned char)('\r' - '\t'));
+}
+
+static void hdhomerun_device_status_copy(char *dst, size_t size, const char *src, size_t len)
+{
+	if (len >= size) {
+		len = size - 1;
+	}
+	memcpy(dst, src, len);
+	dst[len] = 0;
+}
+
+static uint32_t hdhomerun_device_status_parse_uint(const char *ptr, const char *end)
+{
+	/* same as sscanf %u, a minus sign wraps */
+	bool_t negative = FALSE;
+	if ((ptr < end) && ((*ptr == '-') || (*ptr == '+'))) {
+		negative = (*ptr == '-');
+		ptr++;
+	}
+
+	uint32_t value = 0;
+	while ((ptr < end) && (*ptr >= '0') && (*ptr <= '9')) {
+		value = value * 10 + (uint32_t)(*ptr - '0');
+		ptr++;
+	}
+
+	return negative ? (uint32_t)(0 - value) : value;
+}
+
+#define HDHOMERUN_DEVICE_STATUS_CH 0x01
+#define HDHOMERUN_DEVICE_STATUS_LOCK 0x02
+#define HDHOMERUN_DEVICE_STATUS_SS 0x04
+#define HDHOMERUN_DEVICE_STATUS_SNQ 0x08
+#define HDHOMERUN_DEVICE_STATUS_SEQ 0x10
+#define HDHOMERUN_DEVICE_STATUS_BPS 0x20
+#define HDHOMERUN_DEVICE_STATUS_PPS 0x40
+
+static int hdhomerun_device_status_key(const char *key, size_t len)
+{
+	switch (len) {
+	case 2:
+		if ((key[0] == 'c') && (key[1] == 'h')) {
+			return HDHOMERUN_DEVICE_STATUS_CH;
+		}
+		if ((key[0] == 's') && (key[1] == 's')) {
+			return HDHOMERUN_DEVICE_STATUS_SS;
+		}
 		return 0;
+
+	case 3:
+		if (memcmp(key, "snq", 3) == 0) {
+			return HDHOMERUN_DEVICE_STATUS_SNQ;
+		}
+		if (memcmp(key, "seq", 3) == 0) {
+			return HDHOMERUN_DEVICE_STATUS_SEQ;
+		}
+		if (memcmp(key, "bps", 3) == 0) {
+			return HDHOMERUN_DEVICE_STATUS_BPS;
+		}
+		if (memcmp(key, "pps", 3) == 0) {
+			return HDHOMERUN_DEVICE_STATUS_PPS;
+		}
+		return 0;
+
+	case 4:
+		if (memcmp(key, "lock", 4) == 0) {
+			return HDHOMERUN_DEVICE_STATUS_LOCK;
+		}
+		return 0;
+
+	default:
+		return 0;
+	}
+}
+
+void hdhomerun_device_parse_tuner_status(const char *status_str, struct hdhomerun_tuner_status_t *status)
+{
+	int seen = 0;
+	const char *ptr = status_str;
+
+	while (1) {
+		while (hdhomerun_device_status_is_space(*ptr)) {
+			ptr++;
+		}
+		if (*ptr == 0) {
+			return;
+		}
+
+		const char *key = ptr;
+		const char *equals = NULL;
+		while (*ptr && !hdhomerun_device_status_is_space(*ptr)) {
+			if ((*ptr == '=') && !equals) {
+				equals = ptr;
+			}
+			ptr++;
+		}
+
+		if (!equals || (equals == key)) {
+			continue;
+		}
+
+		size_t key_len = (size_t)(equals - key);
+		const char *value = equals + 1;
+		size_t value_len = (size_t)(ptr - value);
+
+		int field = hdhomerun_device_status_key(key, key_len);
+		if (field & seen) {
+			continue;
+		}
+		seen |= field;
+
+		switch (field) {
+		case HDHOMERUN_DEVICE_STATUS_CH:
+			hdhomerun_device_status_copy(status->channel, sizeof(status->channel), value, value_len);
+			break;
+
+		case HDHOMERUN_DEVICE_STATUS_LOCK:
+			hdhomerun_device_status_copy(status->lock_str, sizeof(status->lock_str), value, value_len);
+			break;
+
+		case HDHOMERUN_DEVICE_STATUS_SS:
+			status->signal_strength = (unsigned int)hdhomerun_device_status_parse_uint(value, ptr);
+			break;
+
+		case HDHOMERUN_DEVICE_STATUS_SNQ:
+			status->signal_to_noise_quality = (unsigned int)hdhomerun_device_status_parse_uint(value, ptr);
+			break;
+
+		case HDHOMERUN_DEVICE_STATUS_SEQ:
+			status->symbol_error_quality = (unsigned int)hdhomerun_device_status_parse_uint(value, ptr);
+			break;
+
+		case HDHOMERUN_DEVICE_STATUS_BPS:
+			status->raw_bits_per_second = hdhomerun_device_status_parse_uint(value, ptr);
+			break;
+
+		case HDHOMERUN_DEVICE_STATUS_PPS:
+			status->packets_per_second = hdhomerun_device_status_parse_uint(value, ptr);
+			break;
+
+		default:
+			if (status->extra_count >= HDHOMERUN_TUNER_STATUS_MAX_EXTRA) {
+				break;
+			}
+			struct hdhomerun_tuner_status_field_t *extra = &status->extra[status->extra_count];
+			hdhomerun_device_status_copy(extra->name, sizeof(extra->name), key, key_len);
+			if (hdhomerun_device_get_tuner_status_extra(status, extra->name)) {
+				break;
+			}
+			hdhomerun_device_status_copy(extra->value, sizeof(extra->value), value, value_len);
+			status->extra_count++;
+			break;
+		}
 	}
+}
 
-	unsigned int value = 0;
-	sscanf(ptr + strlen(tag), "%u", &value);
+const char *hdhomerun_device_get_tuner_status_extra(const struct hdhomerun_tuner_status_t *status, const char *name)
+{
+	int i;
+	for (i = 0; i < status->extra_count; i++) {
+		if (strcmp(status->extra[i].name, name) == 0) {
+			return status->extra[i].value;
+		}
+	}
 
-	return (uint32_t)value;
+	return NULL;
 }
 
 static bool_t hdhomerun_device_get_tuner_status_lock_is_bcast(struct hdhomerun_tuner_status_t *status)
@@ -461,21 +620,7 @@ int hdhomerun_device_get_tuner_status(struct hdhomerun_device_t *hd, char **psta
 	}
 
 	if (status) {
-		char *channel = strstr(status_str, "ch=");
-		if (channel) {
-			sscanf(channel + 3, "%31s", status->channel);
-		}
-
-		char *lock = strstr(status_str, "lock=");
-		if (lock) {
-			sscanf(lock + 5, "%31s", status->lock_str);
-		}
-
-		status->signal_strength = (unsigned int)hdhomerun_device_get_status_parse(status_str, "ss=");
-		status->signal_to_noise_quality = (unsigned int)hdhomerun_device_get_status_parse(status_str, "snq=");
-		status->symbol_error_quality = (unsigned int)hdhomerun_device_get_status_parse(status_str, "seq=");
-		status->raw_bits_per_second = hdhomerun_device_get_status_parse(status_str, "bps=");
-		status->packets_per_second = hdhomerun_device_get_status_parse(status_str, "pps=");
+		hdhomerun_device_parse_tuner_status(status_str, status);
 
 		status->signal_present = status->signal_strength >= 45;
 
@@ -511,18 +656,8 @@ int hdhomerun_device_get_oob_status(struct hdhomerun_device_t *hd, char **pstatu
 	}
 
 	if (status) {
-		char *channel = strstr(status_str, "ch=");
-		if (channel) {
-			sscanf(channel + 3, "%31s", status->channel);
-		}
+		hdhomerun_device_parse_tuner_status(status_str, status);
 
-		char *lock = strstr(status_str, "lock=");
-		if (lock) {
-			sscanf(lock + 5, "%31s", status->lock_str);
-		}
-
-		status->signal_strength = (unsigned int)hdhomerun_device_get_status_parse(status_str, "ss=");
-		status->signal_to_noise_quality = (unsigned int)hdhomerun_device_get_status_parse(status_str, "snq=");
 		status->signal_present = status->signal_strength >= 45;
 		status->lock_supported = (strcmp(status->lock_str, "none") != 0);
 	}
@@ -692,19 +827,44 @@ static int hdhomerun_device_get_tuner_plotsample_internal(struct hdhomerun_devic
 		return ret;
 	}
 
+	/*
+	 * Each sample is 6 hex digits and a space, decoded into the start of the same buffer.
+	 * Decoded inline rather than with sscanf, the plot is polled many times a second.
+	 */
 	struct hdhomerun_plotsample_t *samples = (struct hdhomerun_plotsample_t *)result;
 	*psamples = samples;
 	size_t count = 0;
+	const char *ptr = result;
 
 	while (1) {
-		char *ptr = strchr(result, ' ');
-		if (!ptr) {
+		unsigned int raw = 0;
+		int digits = 0;
+
+		while (1) {
+			char c = *ptr;
+			unsigned int value;
+			if ((c >= '0') && (c <= '9')) {
+				value = (unsigned int)(c - '0');
+			} else if ((c >= 'a') && (c <= 'f')) {
+				value = (unsigned int)(c - 'a' + 10);
+			} else if ((c >= 'A') && (c <= 'F')) {
+				value = (unsigned int)(c - 'A' + 10);
+			} else {
+				break;
+			}
+			raw = (raw << 4) | value;
+			digits++;
+			ptr++;
+		}
+
+		/* like the sscanf version, the last sample needs its trailing space */
+		if ((digits == 0) || (*ptr != ' ')) {
 			break;
 		}
-		*ptr++ = 0;
+		ptr++;
 
-		unsigned int raw;
-		if (sscanf(result, "%x", &raw) != 1) {
+		/* samples are written over the text already read, stop on tokens too short for that */
+		if ((const char *)(samples + 1) > ptr) {
 			break;
 		}
 
@@ -722,8 +882,6 @@ static int hdhomerun_device_get_tuner_plotsample_internal(struct hdhomerun_devic
 		samples->imag = (int16_t)imag;
 		samples++;
 		count++;
-
-		result = ptr;
 	}
 
 	*pcount = count;
@@ -1129,6 +1287,11 @@ void hdhomerun_device_tuner_lockkey_use_value(struct hdhomerun_device_t *hd, uin
 	hd->lockkey = lockkey;
 }
 
+uint32_t hdhomerun_device_get_tuner_lockkey(struct hdhomerun_device_t *hd)
+{
+	return hd->lockkey;
+}
+
 int hdhomerun_device_wait_for_lock(struct hdhomerun_device_t *hd, struct hdhomerun_tuner_status_t *status)
 {
 	/* Delay for SS reading to be valid (signal present). */
@@ -1199,6 +1362,26 @@ uint8_t *hdhomerun_device_stream_recv(struct hdhomerun_device_t *hd, size_t max_
 	return hdhomerun_video_recv(hd->vs, max_size, pactual_size);
 }
 
+uint8_t *hdhomerun_device_stream_recv_wait(struct hdhomerun_device_t *hd, size_t max_size, size_t *pactual_size, uint64_t timeout)
+{
+	if (!hd->vs) {
+		hdhomerun_debug_printf(hd->dbg, "hdhomerun_device_stream_recv_wait: video not initialized\n");
+		*pactual_size = 0;
+		return NULL;
+	}
+
+	return hdhomerun_video_recv_wait(hd->vs, max_size, pactual_size, timeout);
+}
+
+void hdhomerun_device_stream_set_notify_threshold(struct hdhomerun_device_t *hd, size_t threshold)
+{
+	if (!hdhomerun_device_get_video_sock(hd)) {
+		return;
+	}
+
+	hdhomerun_video_set_notify_threshold(hd->vs, threshold);
+}
+
 void hdhomerun_device_stream_flush(struct hdhomerun_device_t *hd)
 {
 	if (!hd->vs) {
@@ -1221,6 +1404,8 @@ void hdhomerun_device_stream_stop(struct hdhomerun_device_t *hd)
 	} else {
 		hdhomerun_device_set_tuner_target(hd, "none");
 	}
+
+	hdhomerun_video_wake(hd->vs);
 }
 
 int hdhomerun_device_channelscan_init(struct hdhomerun_device_t *hd, const char *channelmap)
@@ -121,6 +121,18 @@ extern LIBTYPE int hdhomerun_device_get_lineup_location(struct hdhomerun_device_
 extern LIBTYPE int hdhomerun_device_get_version(struct hdhomerun_device_t *hd, char **pversion_str, uint32_t *pversion_num);
 extern LIBTYPE int hdhomerun_device_get_supported(struct hdhomerun_device_t *hd, char *prefix, char **pstr);
 
+/*
+ * Parse a tuner or oob status string in one pass.
+ *
+ * Fills the known fields of the status and copies up to HDHOMERUN_TUNER_STATUS_MAX_EXTRA other
+ * name=value pairs the firmware reports into status->extra. Only the first of a repeated name is kept.
+ * Does not set signal_present, lock_supported or lock_unsupported.
+ *
+ * hdhomerun_device_get_tuner_status_extra returns the value of an extra field, NULL if it wasn't reported.
+ */
+extern LIBTYPE void hdhomerun_device_parse_tuner_status(const char *status_str, struct hdhomerun_tuner_status_t *status);
+extern LIBTYPE const char *hdhomerun_device_get_tuner_status_extra(const struct hdhomerun_tuner_status_t *status, const char *name);
+
 extern LIBTYPE uint32_t hdhomerun_device_get_tuner_status_ss_color(struct hdhomerun_tuner_status_t *status);
 extern LIBTYPE uint32_t hdhomerun_device_get_tuner_status_snq_color(struct hdhomerun_tuner_status_t *status);
 extern LIBTYPE uint32_t hdhomerun_device_get_tuner_status_seq_color(struct hdhomerun_tuner_status_t *status);
@@ -189,6 +201,13 @@ extern LIBTYPE int hdhomerun_device_tuner_lockkey_force(struct hdhomerun_device_
  */
 extern LIBTYPE void hdhomerun_device_tuner_lockkey_use_value(struct hdhomerun_device_t *hd, uint32_t lockkey);
 
+/*
+ * Get the lockkey held by the hdhomerun_device object, 0 if it doesn't hold a lock.
+ * Lets another hdhomerun_device object for the same tuner share the lock through
+ * hdhomerun_device_tuner_lockkey_use_value().
+ */
+extern LIBTYPE uint32_t hdhomerun_device_get_tuner_lockkey(struct hdhomerun_device_t *hd);
+
 /*
  * Wait for tuner lock after channel change.
  *
@@ -215,10 +234,16 @@ extern LIBTYPE int hdhomerun_device_wait_for_lock(struct hdhomerun_device_t *hd,
  * The hdhomerun_device_stream_recv function should be called periodically to receive the stream data.
  * The buffer can losslessly store 1 second of data, however a more typical call rate would be every 15ms.
  *
+ * The hdhomerun_device_stream_recv_wait function instead waits up to timeout ms for the amount of data set with
+ * hdhomerun_device_stream_set_notify_threshold, one packet by default, and wakes as soon as it has arrived.
+ * hdhomerun_device_stream_stop wakes a waiting reader.
+ *
  * The hdhomerun_device_stream_stop function tells the device to stop streaming data.
  */
 extern LIBTYPE int hdhomerun_device_stream_start(struct hdhomerun_device_t *hd);
 extern LIBTYPE uint8_t *hdhomerun_device_stream_recv(struct hdhomerun_device_t *hd, size_t max_size, size_t *pactual_size);
+extern LIBTYPE uint8_t *hdhomerun_device_stream_recv_wait(struct hdhomerun_device_t *hd, size_t max_size, size_t *pactual_size, uint64_t timeout);
+extern LIBTYPE void hdhomerun_device_stream_set_notify_threshold(struct hdhomerun_device_t *hd, size_t threshold);
 extern LIBTYPE void hdhomerun_device_stream_flush(struct hdhomerun_device_t *hd);
 extern LIBTYPE void hdhomerun_device_stream_stop(struct hdhomerun_device_t *hd);
 
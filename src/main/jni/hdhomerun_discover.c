@@ -21,6 +21,22 @@
 #include "hdhomerun.h"
 
 #define HDHOMERUN_DISOCVER_MAX_SOCK_COUNT 16
+#define HDHOMERUN_DISCOVER_INITIAL_COUNT 16
+
+/* Targets probed at once by hdhomerun_discover_find_devices_targets, bounds the send burst. */
+#define HDHOMERUN_DISCOVER_TARGET_WINDOW 64
+
+#define HDHOMERUN_DISCOVER_TARGET_PENDING 0
+#define HDHOMERUN_DISCOVER_TARGET_SENT 1
+#define HDHOMERUN_DISCOVER_TARGET_RETRIED 2
+#define HDHOMERUN_DISCOVER_TARGET_DONE 3
+
+struct hdhomerun_discover_target_t {
+	uint32_t ip_addr;
+	uint8_t state;
+	uint64_t retry_time;
+	uint64_t stop_time;
+};
 
 struct hdhomerun_discover_sock_t {
 	hdhomerun_sock_t sock;
@@ -351,8 +367,64 @@ static struct hdhomerun_discover_device_t *hdhomerun_discover_find_in_list(struc
 	return NULL;
 }
 
-int hdhomerun_discover_find_devices(struct hdhomerun_discover_t *ds, uint32_t target_ip, uint32_t device_type, uint32_t device_id, struct hdhomerun_discover_device_t result_list[], int max_count)
+static void hdhomerun_discover_wait_readable(struct hdhomerun_discover_t *ds, uint64_t stop_time)
 {
+	uint64_t current_time = getcurrenttime();
+	if (current_time >= stop_time) {
+		return;
+	}
+
+	hdhomerun_sock_t socks[HDHOMERUN_DISOCVER_MAX_SOCK_COUNT];
+	unsigned int i;
+	for (i = 0; i < ds->sock_count; i++) {
+		socks[i] = ds->socks[i].sock;
+	}
+
+	hdhomerun_sock_wait_readable(socks, ds->sock_count, stop_time - current_time);
+}
+
+/*
+ * Returns TRUE the first time device_id is seen if it is one of the expected ids.
+ */
+static bool_t hdhomerun_discover_mark_expected(const uint32_t expected_ids[], bool_t expected_seen[], int expected_count, uint32_t device_id)
+{
+	int index;
+	for (index = 0; index < expected_count; index++) {
+		if ((expected_ids[index] == device_id) && !expected_seen[index]) {
+			expected_seen[index] = TRUE;
+			return TRUE;
+		}
+	}
+
+	return FALSE;
+}
+
+/*
+ * With growable set the list is realloc'd to twice its size whenever it fills up, *presult_list
+ * and *pmax_count are updated to match. Otherwise it stops at *pmax_count devices.
+ *
+ * Discovery ends as soon as every one of the expected_count expected_ids has replied instead of
+ * waiting out both attempts. A specific device_id is always expected.
+ */
+static int hdhomerun_discover_find_devices_internal(struct hdhomerun_discover_t *ds, uint32_t target_ip, uint32_t device_type, uint32_t device_id, const uint32_t expected_ids[], int expected_count, struct hdhomerun_discover_device_t **presult_list, int *pmax_count, bool_t growable)
+{
+	struct hdhomerun_discover_device_t *result_list = *presult_list;
+	int max_count = *pmax_count;
+
+	if (device_id != HDHOMERUN_DEVICE_ID_WILDCARD) {
+		expected_ids = &device_id;
+		expected_count = 1;
+	}
+
+	bool_t *expected_seen = NULL;
+	int expected_remaining = 0;
+	if (expected_count > 0) {
+		expected_seen = (bool_t *)calloc(expected_count, sizeof(bool_t));
+		if (expected_seen) {
+			expected_remaining = expected_count;
+		}
+	}
+
    MY_LOGD("hdhomerun_discover_find_devices(): ENTER");
 	hdhomerun_discover_sock_detect(ds);
 
@@ -361,6 +433,7 @@ int hdhomerun_discover_find_devices(struct hdhomerun_discover_t *ds, uint32_t ta
 	for (attempt = 0; attempt < 2; attempt++) {
 		if (!hdhomerun_discover_send(ds, target_ip, device_type, device_id)) {
          MY_LOGD("hdhomerun_discover_find_devices(): Failed to send");
+			free(expected_seen);
 			return -1;
 		}
 
@@ -374,7 +447,7 @@ int hdhomerun_discover_find_devices(struct hdhomerun_discover_t *ds, uint32_t ta
                MY_LOGD("hdhomerun_discover_find_devices(): Discovery Timeout");
 					break;
 				}
-				msleep_approx(10);
+				hdhomerun_discover_wait_readable(ds, timeout);
 				continue;
 			}
 
@@ -404,16 +477,270 @@ int hdhomerun_discover_find_devices(struct hdhomerun_discover_t *ds, uint32_t ta
          
 			/* Add to list. */
 			count++;
+
+			if (expected_seen && hdhomerun_discover_mark_expected(expected_ids, expected_seen, expected_count, result->device_id)) {
+				expected_remaining--;
+				if (expected_remaining == 0) {
+					MY_LOGD("hdhomerun_discover_find_devices(): All %d expected devices found", expected_count);
+					free(expected_seen);
+					return count;
+				}
+			}
+
 			if (count >= max_count) {
-				return count;
+				if (!growable) {
+					free(expected_seen);
+					return count;
+				}
+
+				struct hdhomerun_discover_device_t *grown = (struct hdhomerun_discover_device_t *)realloc(result_list, max_count * 2 * sizeof(struct hdhomerun_discover_device_t));
+				if (!grown) {
+					MY_LOGD("hdhomerun_discover_find_devices(): Couldn't grow results list past %d", max_count);
+					free(expected_seen);
+					return count;
+				}
+
+				result_list = grown;
+				max_count *= 2;
+				*presult_list = result_list;
+				*pmax_count = max_count;
 			}
 		}
 	}
 
    MY_LOGD("hdhomerun_discover_find_devices(): Returning %d",count);
+	free(expected_seen);
+	return count;
+}
+
+int hdhomerun_discover_find_devices(struct hdhomerun_discover_t *ds, uint32_t target_ip, uint32_t device_type, uint32_t device_id, struct hdhomerun_discover_device_t result_list[], int max_count)
+{
+	return hdhomerun_discover_find_devices_internal(ds, target_ip, device_type, device_id, NULL, 0, &result_list, &max_count, FALSE);
+}
+
+int hdhomerun_discover_find_devices_alloc(struct hdhomerun_discover_t *ds, uint32_t target_ip, uint32_t device_type, uint32_t device_id, const uint32_t expected_ids[], int expected_count, struct hdhomerun_discover_device_t **presult_list)
+{
+	int max_count = HDHOMERUN_DISCOVER_INITIAL_COUNT;
+
+	*presult_list = (struct hdhomerun_discover_device_t *)malloc(max_count * sizeof(struct hdhomerun_discover_device_t));
+	if (!*presult_list) {
+		return -1;
+	}
+
+	int ret = hdhomerun_discover_find_devices_internal(ds, target_ip, device_type, device_id, expected_ids, expected_count, presult_list, &max_count, TRUE);
+	if (ret < 0) {
+		free(*presult_list);
+		*presult_list = NULL;
+	}
+
+	return ret;
+}
+
+bool_t hdhomerun_discover_send_request(struct hdhomerun_discover_t *ds, uint32_t target_ip, uint32_t device_type, uint32_t device_id)
+{
+	hdhomerun_discover_sock_detect(ds);
+	return hdhomerun_discover_send(ds, target_ip, device_type, device_id);
+}
+
+int hdhomerun_discover_recv_devices(struct hdhomerun_discover_t *ds, uint32_t device_type, uint32_t device_id, struct hdhomerun_discover_device_t result_list[], int max_count, uint64_t timeout_ms)
+{
+	int count = 0;
+	uint64_t timeout = getcurrenttime() + timeout_ms;
+
+	while (count < max_count) {
+		struct hdhomerun_discover_device_t *result = &result_list[count];
+		memset(result, 0, sizeof(struct hdhomerun_discover_device_t));
+
+		if (!hdhomerun_discover_recv(ds, result)) {
+			/* Hand over what has arrived rather than waiting for more. */
+			if ((count > 0) || (getcurrenttime() >= timeout)) {
+				break;
+			}
+			hdhomerun_discover_wait_readable(ds, timeout);
+			continue;
+		}
+
+		if ((device_type != HDHOMERUN_DEVICE_TYPE_WILDCARD) && (device_type != result->device_type)) {
+			continue;
+		}
+		if ((device_id != HDHOMERUN_DEVICE_ID_WILDCARD) && (device_id != result->device_id)) {
+			continue;
+		}
+
+		count++;
+	}
+
+	return count;
+}
+
+static int hdhomerun_discover_target_compare(const void *a, const void *b)
+{
+	uint32_t ip_a = ((const struct hdhomerun_discover_target_t *)a)->ip_addr;
+	uint32_t ip_b = ((const struct hdhomerun_discover_target_t *)b)->ip_addr;
+	return (ip_a < ip_b) ? -1 : (ip_a > ip_b) ? 1 : 0;
+}
+
+static struct hdhomerun_discover_target_t *hdhomerun_discover_target_find(struct hdhomerun_discover_target_t targets[], int count, uint32_t ip_addr)
+{
+	struct hdhomerun_discover_target_t lookup;
+	lookup.ip_addr = ip_addr;
+	return (struct hdhomerun_discover_target_t *)bsearch(&lookup, targets, count, sizeof(struct hdhomerun_discover_target_t), hdhomerun_discover_target_compare);
+}
+
+int hdhomerun_discover_find_devices_targets(struct hdhomerun_discover_t *ds, const uint32_t target_ips[], int target_count, uint32_t device_type, uint64_t target_timeout, struct hdhomerun_discover_device_t **presult_list)
+{
+	*presult_list = NULL;
+
+	struct hdhomerun_discover_target_t *targets = (struct hdhomerun_discover_target_t *)calloc(target_count > 0 ? target_count : 1, sizeof(struct hdhomerun_discover_target_t));
+	int max_count = HDHOMERUN_DISCOVER_INITIAL_COUNT;
+	struct hdhomerun_discover_device_t *result_list = (struct hdhomerun_discover_device_t *)malloc(max_count * sizeof(struct hdhomerun_discover_device_t));
+	if (!targets || !result_list) {
+		free(targets);
+		free(result_list);
+		return -1;
+	}
+
+	/* Sorted and without duplicates so replies can be matched with a binary search. */
+	int index;
+	for (index = 0; index < target_count; index++) {
+		targets[index].ip_addr = target_ips[index];
+	}
+	qsort(targets, target_count, sizeof(struct hdhomerun_discover_target_t), hdhomerun_discover_target_compare);
+
+	int unique_count = 0;
+	for (index = 0; index < target_count; index++) {
+		if ((unique_count > 0) && (targets[unique_count - 1].ip_addr == targets[index].ip_addr)) {
+			continue;
+		}
+		if (hdhomerun_discover_is_ip_multicast(targets[index].ip_addr) || (targets[index].ip_addr == 0)) {
+			continue;
+		}
+		targets[unique_count++] = targets[index];
+	}
+	target_count = unique_count;
+
+	hdhomerun_discover_sock_detect(ds);
+
+	int count = 0;
+	int first_active = 0;
+	int next_target = 0;
+	int in_flight = 0;
+
+	while ((next_target < target_count) || (in_flight > 0)) {
+		uint64_t current_time = getcurrenttime();
+
+		/* Keep the window full, each target gets its own timeout from when it is sent. */
+		while ((in_flight < HDHOMERUN_DISCOVER_TARGET_WINDOW) && (next_target < target_count)) {
+			struct hdhomerun_discover_target_t *target = &targets[next_target++];
+			target->retry_time = current_time + target_timeout / 2;
+			target->stop_time = current_time + target_timeout;
+			if (!hdhomerun_discover_send_target_ip(ds, target->ip_addr, device_type, HDHOMERUN_DEVICE_ID_WILDCARD)) {
+				target->state = HDHOMERUN_DISCOVER_TARGET_DONE;
+				continue;
+			}
+			target->state = HDHOMERUN_DISCOVER_TARGET_SENT;
+			in_flight++;
+		}
+
+		/* Targets are sent in order so everything before first_active is done. */
+		while ((first_active < next_target) && (targets[first_active].state == HDHOMERUN_DISCOVER_TARGET_DONE)) {
+			first_active++;
+		}
+
+		/* Retry once half way, expire the rest, find when the next of those is due. */
+		uint64_t wait_until = current_time + target_timeout;
+		for (index = first_active; index < next_target; index++) {
+			struct hdhomerun_discover_target_t *target = &targets[index];
+			if (target->state == HDHOMERUN_DISCOVER_TARGET_DONE) {
+				continue;
+			}
+
+			if (current_time >= target->stop_time) {
+				target->state = HDHOMERUN_DISCOVER_TARGET_DONE;
+				in_flight--;
+				continue;
+			}
+
+			if ((target->state == HDHOMERUN_DISCOVER_TARGET_SENT) && (current_time >= target->retry_time)) {
+				hdhomerun_discover_send_target_ip(ds, target->ip_addr, device_type, HDHOMERUN_DEVICE_ID_WILDCARD);
+				target->state = HDHOMERUN_DISCOVER_TARGET_RETRIED;
+			}
+
+			uint64_t due = (target->state == HDHOMERUN_DISCOVER_TARGET_SENT) ? target->retry_time : target->stop_time;
+			if (due < wait_until) {
+				wait_until = due;
+			}
+		}
+
+		if (in_flight == 0) {
+			continue;
+		}
+
+		/* Take every queued reply, then wait for the next one or the next deadline. */
+		while (1) {
+			struct hdhomerun_discover_device_t *result = &result_list[count];
+			memset(result, 0, sizeof(struct hdhomerun_discover_device_t));
+
+			if (!hdhomerun_discover_recv(ds, result)) {
+				break;
+			}
+
+			if ((device_type != HDHOMERUN_DEVICE_TYPE_WILDCARD) && (device_type != result->device_type)) {
+				continue;
+			}
+
+			struct hdhomerun_discover_target_t *target = hdhomerun_discover_target_find(targets, next_target, result->ip_addr);
+			if (!target || (target->state == HDHOMERUN_DISCOVER_TARGET_DONE)) {
+				continue;
+			}
+
+			target->state = HDHOMERUN_DISCOVER_TARGET_DONE;
+			in_flight--;
+
+			MY_LOGD("hdhomerun_discover_find_devices_targets(): Found device IP:%s ID:%X",
+				ipAddressToString(result->ip_addr),
+				result->device_id);
+
+			count++;
+			if (count >= max_count) {
+				struct hdhomerun_discover_device_t *grown = (struct hdhomerun_discover_device_t *)realloc(result_list, max_count * 2 * sizeof(struct hdhomerun_discover_device_t));
+				if (!grown) {
+					free(targets);
+					*presult_list = result_list;
+					return count;
+				}
+				result_list = grown;
+				max_count *= 2;
+			}
+		}
+
+		if (in_flight > 0) {
+			hdhomerun_discover_wait_readable(ds, wait_until);
+		}
+	}
+
+	free(targets);
+	*presult_list = result_list;
 	return count;
 }
 
+int hdhomerun_discover_find_devices_targets_custom(const uint32_t target_ips[], int target_count, uint32_t device_type, uint64_t target_timeout, struct hdhomerun_discover_device_t **presult_list)
+{
+	*presult_list = NULL;
+
+	struct hdhomerun_discover_t *ds = hdhomerun_discover_create(NULL);
+	if (!ds) {
+		MY_LOGD("hdhomerun_discover_find_devices_targets_custom(): Can't create discovery struct");
+		return -1;
+	}
+
+	int ret = hdhomerun_discover_find_devices_targets(ds, target_ips, target_count, device_type, target_timeout, presult_list);
+
+	hdhomerun_discover_destroy(ds);
+	MY_LOGD("hdhomerun_discover_find_devices_targets_custom(): returning %d", ret);
+	return ret;
+}
+
 int hdhomerun_discover_find_devices_custom(uint32_t target_ip, uint32_t device_type, uint32_t device_id, struct hdhomerun_discover_device_t result_list[], int max_count)
 {
    MY_LOGD("hdhomerun_discover_find_devices_custom(): ENTER");
@@ -435,6 +762,27 @@ int hdhomerun_discover_find_devices_custom(uint32_t target_ip, uint32_t device_t
 	return ret;
 }
 
+int hdhomerun_discover_find_devices_custom_alloc(uint32_t target_ip, uint32_t device_type, uint32_t device_id, const uint32_t expected_ids[], int expected_count, struct hdhomerun_discover_device_t **presult_list)
+{
+	*presult_list = NULL;
+
+	if (hdhomerun_discover_is_ip_multicast(target_ip)) {
+		return 0;
+	}
+
+	struct hdhomerun_discover_t *ds = hdhomerun_discover_create(NULL);
+	if (!ds) {
+		MY_LOGD("hdhomerun_discover_find_devices_custom_alloc(): Can't create discovery struct");
+		return -1;
+	}
+
+	int ret = hdhomerun_discover_find_devices_alloc(ds, target_ip, device_type, device_id, expected_ids, expected_count, presult_list);
+
+	hdhomerun_discover_destroy(ds);
+	MY_LOGD("hdhomerun_discover_find_devices_custom_alloc(): returning %d", ret);
+	return ret;
+}
+
 bool_t hdhomerun_discover_validate_device_id(uint32_t device_id)
 {
 	static uint32_t lookup_table[16] = {0xA, 0x5, 0xF, 0x6, 0x7, 0xC, 0x1, 0xB, 0x9, 0x2, 0x8, 0xD, 0x4, 0x3, 0xE, 0x0};
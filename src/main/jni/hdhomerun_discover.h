@@ -44,12 +44,53 @@ struct hdhomerun_discover_device_t {
  */
 extern LIBTYPE int hdhomerun_discover_find_devices_custom(uint32_t target_ip, uint32_t device_type, uint32_t device_id, struct hdhomerun_discover_device_t result_list[], int max_count);
 
+/*
+ * Find devices without a limit on their number.
+ *
+ * Same as hdhomerun_discover_find_devices_custom except that the result list is allocated and
+ * grown as devices are found. On success *presult_list must be released with free(), it is NULL
+ * when -1 is returned.
+ *
+ * Discovery returns as soon as all expected_count expected_ids have replied, typically the
+ * devices found last time. Pass NULL and 0 to always wait for both attempts.
+ */
+extern LIBTYPE int hdhomerun_discover_find_devices_custom_alloc(uint32_t target_ip, uint32_t device_type, uint32_t device_id, const uint32_t expected_ids[], int expected_count, struct hdhomerun_discover_device_t **presult_list);
+
+/*
+ * Probe a list of IP addresses, for devices on routed networks that broadcasts don't reach.
+ *
+ * Requests are sent to up to 64 targets at a time and all replies are handled by one receive
+ * loop. Each target gets target_timeout ms from when it is sent, with one resend half way.
+ * Duplicate and multicast addresses are skipped. The result list is allocated as for
+ * hdhomerun_discover_find_devices_custom_alloc and must be released with free().
+ *
+ * Returns the number of devices found.
+ * Returns -1 on error.
+ */
+extern LIBTYPE int hdhomerun_discover_find_devices_targets_custom(const uint32_t target_ips[], int target_count, uint32_t device_type, uint64_t target_timeout, struct hdhomerun_discover_device_t **presult_list);
+
 /*
  * Optional: persistent discover instance available for discover polling use.
  */
 extern LIBTYPE struct hdhomerun_discover_t *hdhomerun_discover_create(struct hdhomerun_debug_t *dbg);
 extern LIBTYPE void hdhomerun_discover_destroy(struct hdhomerun_discover_t *ds);
 extern LIBTYPE int hdhomerun_discover_find_devices(struct hdhomerun_discover_t *ds, uint32_t target_ip, uint32_t device_type, uint32_t device_id, struct hdhomerun_discover_device_t result_list[], int max_count);
+extern LIBTYPE int hdhomerun_discover_find_devices_alloc(struct hdhomerun_discover_t *ds, uint32_t target_ip, uint32_t device_type, uint32_t device_id, const uint32_t expected_ids[], int expected_count, struct hdhomerun_discover_device_t **presult_list);
+extern LIBTYPE int hdhomerun_discover_find_devices_targets(struct hdhomerun_discover_t *ds, const uint32_t target_ips[], int target_count, uint32_t device_type, uint64_t target_timeout, struct hdhomerun_discover_device_t **presult_list);
+
+/*
+ * Split discovery for a long lived discover instance.
+ *
+ * hdhomerun_discover_send_request re-detects the local interfaces and sends a single request
+ * without waiting for replies. Returns TRUE if the request was sent on at least one interface.
+ *
+ * hdhomerun_discover_recv_devices waits up to timeout_ms for replies and returns as soon as some
+ * have arrived, a timeout of zero only drains replies that are already queued. Replies are
+ * filtered by device_type and device_id but not de-duplicated. Returns the number of devices
+ * stored in result_list.
+ */
+extern LIBTYPE bool_t hdhomerun_discover_send_request(struct hdhomerun_discover_t *ds, uint32_t target_ip, uint32_t device_type, uint32_t device_id);
+extern LIBTYPE int hdhomerun_discover_recv_devices(struct hdhomerun_discover_t *ds, uint32_t device_type, uint32_t device_id, struct hdhomerun_discover_device_t result_list[], int max_count, uint64_t timeout_ms);
 
 /*
  * Verify that the device ID given is valid.
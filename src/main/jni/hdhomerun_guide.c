@@ -0,0 +1,1091 @@
+/*
+ * hdhomerun_guide.c
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+#include "hdhomerun.h"
+
+#define HDHOMERUN_GUIDE_SLOT_NONE 0xFF
+#define HDHOMERUN_GUIDE_SLOT_PSIP 0
+#define HDHOMERUN_GUIDE_SLOT_FIRST_EIT 1
+#define HDHOMERUN_GUIDE_SLOT_FIRST_ETT (HDHOMERUN_GUIDE_SLOT_FIRST_EIT + HDHOMERUN_GUIDE_EIT_MAX)
+#define HDHOMERUN_GUIDE_ASSEMBLERS_MAX (HDHOMERUN_GUIDE_SLOT_FIRST_ETT + HDHOMERUN_GUIDE_EIT_MAX)
+
+/* EIT-k instances followed at once, one per source_id of each EIT-k. */
+#define HDHOMERUN_GUIDE_INSTANCES_MAX (HDHOMERUN_GUIDE_EIT_MAX * HDHOMERUN_PSI_VCT_CHANNELS_MAX)
+
+#define HDHOMERUN_GUIDE_TABLE_ID_MGT 0xC7
+#define HDHOMERUN_GUIDE_TABLE_ID_EIT 0xCB
+#define HDHOMERUN_GUIDE_TABLE_ID_ETT 0xCC
+#define HDHOMERUN_GUIDE_TABLE_ID_STT 0xCD
+
+#define HDHOMERUN_GUIDE_TABLE_TYPE_EIT 0x0100
+#define HDHOMERUN_GUIDE_TABLE_TYPE_ETT 0x0200
+
+/* 1980-01-06T00:00:00Z, the start of GPS time, in seconds since 1970. */
+#define HDHOMERUN_GUIDE_GPS_EPOCH 315964800
+
+/* eit_index of an event loaded from a file, ett_version of one without an ETT. */
+#define HDHOMERUN_GUIDE_LOADED 0xFF
+#define HDHOMERUN_GUIDE_NO_VERSION 0xFF
+
+#define HDHOMERUN_GUIDE_FILE_MAGIC "HDGD"
+#define HDHOMERUN_GUIDE_FILE_VERSION 1
+
+/* A title is at most 255 bytes, 2 of UTF-8 for each Latin-1 one. */
+#define HDHOMERUN_GUIDE_TITLE_MAX 512
+#define HDHOMERUN_GUIDE_TEXT_MAX (2 * HDHOMERUN_PSI_PRIVATE_SECTION_MAX)
+
+struct hdhomerun_guide_cached_event_t {
+	uint16_t event_id;
+	uint8_t eit_index;
+	uint8_t eit_version;
+	uint8_t ett_version;
+	uint32_t start_time;
+	uint32_t duration;
+
+	/* One allocation, the text follows the NUL of the title. */
+	char *title;
+	char *text;
+};
+
+struct hdhomerun_guide_channel_t {
+	uint32_t key;
+	unsigned int event_count;
+	unsigned int event_capacity;
+	struct hdhomerun_guide_cached_event_t *events;
+};
+
+struct hdhomerun_guide_instance_t {
+	uint16_t source_id;
+	uint8_t eit_index;
+	uint8_t version;
+	uint8_t last_section;
+	uint32_t section_mask[256 / 32];
+};
+
+struct hdhomerun_guide_t {
+	pthread_mutex_t lock;
+	struct hdhomerun_debug_t *dbg;
+	struct hdhomerun_psi_t *psi;
+
+	/* The assembler of each followed PID, the PSIP PID's then the EIT-k and ETT-k PIDs by k. */
+	uint8_t pid_slot[0x2000];
+	uint16_t slot_pids[HDHOMERUN_GUIDE_ASSEMBLERS_MAX];
+	struct hdhomerun_psi_assembler_t assemblers[HDHOMERUN_GUIDE_ASSEMBLERS_MAX];
+	uint8_t assembler_buffers[HDHOMERUN_GUIDE_ASSEMBLERS_MAX][HDHOMERUN_PSI_PRIVATE_SECTION_MAX];
+
+	bool_t mgt_seen;
+	uint8_t mgt_version;
+	uint8_t gps_utc_offset;
+	bool_t tsid_known;
+	uint16_t transport_stream_id;
+
+	unsigned int instance_count;
+	struct hdhomerun_guide_instance_t instances[HDHOMERUN_GUIDE_INSTANCES_MAX];
+
+	/* Sorted by key, each channel's events by start_time. */
+	unsigned int channel_count;
+	unsigned int channel_capacity;
+	struct hdhomerun_guide_channel_t *channels;
+
+	uint32_t sections_parsed;
+	uint32_t sections_skipped;
+	uint32_t crc_error_count;
+	uint32_t change_count;
+
+	char title_buffer[HDHOMERUN_GUIDE_TITLE_MAX];
+	char text_buffer[HDHOMERUN_GUIDE_TEXT_MAX];
+};
+
+static uint32_t hdhomerun_guide_read_u32(const uint8_t *ptr)
+{
+	return ((uint32_t)ptr[0] << 24) | ((uint32_t)ptr[1] << 16) | ((uint32_t)ptr[2] << 8) | (uint32_t)ptr[3];
+}
+
+static void hdhomerun_guide_follow_pid(struct hdhomerun_guide_t *guide, unsigned int slot, uint16_t pid)
+{
+	uint16_t old_pid = guide->slot_pids[slot];
+	if (old_pid == pid) {
+		return;
+	}
+
+	if (old_pid != 0) {
+		guide->pid_slot[old_pid] = HDHOMERUN_GUIDE_SLOT_NONE;
+	}
+
+	/* PID 0 is the PAT's, so never a table's here. */
+	if ((pid != 0) && (guide->pid_slot[pid] == HDHOMERUN_GUIDE_SLOT_NONE)) {
+		guide->pid_slot[pid] = (uint8_t)slot;
+		hdhomerun_psi_assembler_init(&guide->assemblers[slot], pid, guide->assembler_buffers[slot], HDHOMERUN_PSI_PRIVATE_SECTION_MAX);
+		guide->slot_pids[slot] = pid;
+		return;
+	}
+
+	guide->slot_pids[slot] = 0;
+}
+
+static void hdhomerun_guide_clear(struct hdhomerun_guide_t *guide)
+{
+	memset(guide->pid_slot, HDHOMERUN_GUIDE_SLOT_NONE, sizeof(guide->pid_slot));
+	memset(guide->slot_pids, 0, sizeof(guide->slot_pids));
+	hdhomerun_guide_follow_pid(guide, HDHOMERUN_GUIDE_SLOT_PSIP, HDHOMERUN_PSI_PSIP_PID);
+
+	guide->mgt_seen = FALSE;
+	guide->tsid_known = FALSE;
+	guide->instance_count = 0;
+}
+
+struct hdhomerun_guide_t *hdhomerun_guide_create(struct hdhomerun_psi_t *psi, struct hdhomerun_debug_t *dbg)
+{
+	struct hdhomerun_guide_t *guide = (struct hdhomerun_guide_t *)calloc(1, sizeof(struct hdhomerun_guide_t));
+	if (!guide) {
+		hdhomerun_debug_printf(dbg, "hdhomerun_guide_create: failed to allocate guide object\n");
+		return NULL;
+	}
+
+	guide->dbg = dbg;
+	guide->psi = psi;
+	guide->gps_utc_offset = HDHOMERUN_GUIDE_GPS_UTC_OFFSET;
+	pthread_mutex_init(&guide->lock, NULL);
+	hdhomerun_guide_clear(guide);
+
+	return guide;
+}
+
+void hdhomerun_guide_destroy(struct hdhomerun_guide_t *guide)
+{
+	unsigned int i;
+	for (i = 0; i < guide->channel_count; i++) {
+		struct hdhomerun_guide_channel_t *channel = &guide->channels[i];
+		unsigned int j;
+		for (j = 0; j < channel->event_count; j++) {
+			free(channel->events[j].title);
+		}
+		free(channel->events);
+	}
+	free(guide->channels);
+	free(guide);
+}
+
+/*
+ * Returns the channel, creating it if create is set, or NULL.
+ */
+static struct hdhomerun_guide_channel_t *hdhomerun_guide_find_channel(struct hdhomerun_guide_t *guide, uint32_t key, bool_t create)
+{
+	unsigned int low = 0;
+	unsigned int high = guide->channel_count;
+	while (low < high) {
+		unsigned int mid = (low + high) / 2;
+		if (guide->channels[mid].key < key) {
+			low = mid + 1;
+		} else {
+			high = mid;
+		}
+	}
+
+	if ((low < guide->channel_count) && (guide->channels[low].key == key)) {
+		return &guide->channels[low];
+	}
+	if (!create) {
+		return NULL;
+	}
+
+	if (guide->channel_count == guide->channel_capacity) {
+		unsigned int capacity = guide->channel_capacity ? guide->channel_capacity * 2 : 16;
+		struct hdhomerun_guide_channel_t *channels = (struct hdhomerun_guide_channel_t *)realloc(guide->channels, capacity * sizeof(struct hdhomerun_guide_channel_t));
+		if (!channels) {
+			return NULL;
+		}
+		guide->channels = channels;
+		guide->channel_capacity = capacity;
+	}
+
+	memmove(&guide->channels[low + 1], &guide->channels[low], (guide->channel_count - low) * sizeof(struct hdhomerun_guide_channel_t));
+	guide->channel_count++;
+
+	struct hdhomerun_guide_channel_t *channel = &guide->channels[low];
+	memset(channel, 0, sizeof(struct hdhomerun_guide_channel_t));
+	channel->key = key;
+	return channel;
+}
+
+static void hdhomerun_guide_remove_event(struct hdhomerun_guide_channel_t *channel, unsigned int index)
+{
+	free(channel->events[index].title);
+	channel->event_count--;
+	memmove(&channel->events[index], &channel->events[index + 1], (channel->event_count - index) * sizeof(struct hdhomerun_guide_cached_event_t));
+}
+
+/*
+ * Inserts the event in order of start_time, taking its strings. Returns FALSE, freeing them, if
+ * out of memory.
+ */
+static bool_t hdhomerun_guide_insert_event(struct hdhomerun_guide_channel_t *channel, const struct hdhomerun_guide_cached_event_t *event)
+{
+	if (channel->event_count == channel->event_capacity) {
+		unsigned int capacity = channel->event_capacity ? channel->event_capacity * 2 : 16;
+		struct hdhomerun_guide_cached_event_t *events = (struct hdhomerun_guide_cached_event_t *)realloc(channel->events, capacity * sizeof(struct hdhomerun_guide_cached_event_t));
+		if (!events) {
+			free(event->title);
+			return FALSE;
+		}
+		channel->events = events;
+		channel->event_capacity = capacity;
+	}
+
+	unsigned int low = 0;
+	unsigned int high = channel->event_count;
+	while (low < high) {
+		unsigned int mid = (low + high) / 2;
+		if (channel->events[mid].start_time <= event->start_time) {
+			low = mid + 1;
+		} else {
+			high = mid;
+		}
+	}
+
+	memmove(&channel->events[low + 1], &channel->events[low], (channel->event_count - low) * sizeof(struct hdhomerun_guide_cached_event_t));
+	channel->events[low] = *event;
+	channel->event_count++;
+	return TRUE;
+}
+
+/*
+ * Gives the event its title and text in one allocation. Returns FALSE if out of memory.
+ */
+static bool_t hdhomerun_guide_set_strings(struct hdhomerun_guide_cached_event_t *event, const char *title, size_t title_length, const char *text, size_t text_length)
+{
+	char *strings = (char *)malloc(title_length + 1 + text_length + 1);
+	if (!strings) {
+		return FALSE;
+	}
+
+	memcpy(strings, title, title_length);
+	strings[title_length] = 0;
+	memcpy(strings + title_length + 1, text, text_length);
+	strings[title_length + 1 + text_length] = 0;
+
+	event->title = strings;
+	event->text = strings + title_length + 1;
+	return TRUE;
+}
+
+static bool_t hdhomerun_guide_overlaps(const struct hdhomerun_guide_cached_event_t *event, uint32_t start_time, uint32_t duration)
+{
+	return (event->start_time < start_time + duration) && (start_time < event->start_time + event->duration);
+}
+
+static char *hdhomerun_guide_utf8(char *pos, char *end, uint16_t c)
+{
+	if (c == 0) {
+		return pos;
+	}
+	if (c < 0x80) {
+		if (end - pos >= 1) {
+			*pos++ = (char)c;
+		}
+	} else if (c < 0x800) {
+		if (end - pos >= 2) {
+			*pos++ = (char)(0xC0 | (c >> 6));
+			*pos++ = (char)(0x80 | (c & 0x3F));
+		}
+	} else {
+		if (end - pos >= 3) {
+			*pos++ = (char)(0xE0 | (c >> 12));
+			*pos++ = (char)(0x80 | ((c >> 6) & 0x3F));
+			*pos++ = (char)(0x80 | (c & 0x3F));
+		}
+	}
+	return pos;
+}
+
+/*
+ * The first string of a multiple_string_structure as UTF-8, NUL terminated. Segments of modes
+ * 0x00 to 0x33 are the low bytes of Unicode characters in that page, of mode 0x3F UTF-16.
+ * Returns its length.
+ */
+static size_t hdhomerun_guide_mss(const uint8_t *ptr, const uint8_t *end, char *out, size_t size)
+{
+	char *pos = out;
+	char *out_end = out + size - 1;
+
+	if ((ptr + 5 <= end) && (ptr[0] > 0)) {
+		unsigned int number_segments = ptr[4];
+		ptr += 5;
+
+		while (number_segments > 0) {
+			if (ptr + 3 > end) {
+				break;
+			}
+			uint8_t compression_type = ptr[0];
+			uint8_t mode = ptr[1];
+			size_t number_bytes = ptr[2];
+			ptr += 3;
+			if (ptr + number_bytes > end) {
+				break;
+			}
+
+			size_t i;
+			if ((compression_type == 0) && (mode == 0x3F)) {
+				for (i = 0; i + 1 < number_bytes; i += 2) {
+					pos = hdhomerun_guide_utf8(pos, out_end, ((uint16_t)ptr[i] << 8) | (uint16_t)ptr[i + 1]);
+				}
+			} else if ((compression_type == 0) && (mode <= 0x33)) {
+				for (i = 0; i < number_bytes; i++) {
+					pos = hdhomerun_guide_utf8(pos, out_end, ((uint16_t)mode << 8) | (uint16_t)ptr[i]);
+				}
+			}
+
+			ptr += number_bytes;
+			number_segments--;
+		}
+	}
+
+	*pos = 0;
+	return (size_t)(pos - out);
+}
+
+static bool_t hdhomerun_guide_update_tsid(struct hdhomerun_guide_t *guide)
+{
+	if (guide->tsid_known) {
+		return TRUE;
+	}
+
+	struct hdhomerun_psi_status_t status;
+	if (hdhomerun_psi_get_programs(guide->psi, NULL, 0, &status) < 0) {
+		return FALSE;
+	}
+
+	guide->transport_stream_id = status.transport_stream_id;
+	guide->tsid_known = TRUE;
+	return TRUE;
+}
+
+static struct hdhomerun_guide_instance_t *hdhomerun_guide_find_instance(struct hdhomerun_guide_t *guide, unsigned int eit_index, uint16_t source_id)
+{
+	unsigned int i;
+	for (i = 0; i < guide->instance_count; i++) {
+		struct hdhomerun_guide_instance_t *instance = &guide->instances[i];
+		if ((instance->source_id == source_id) && (instance->eit_index == eit_index)) {
+			return instance;
+		}
+	}
+
+	if (guide->instance_count >= HDHOMERUN_GUIDE_INSTANCES_MAX) {
+		return NULL;
+	}
+
+	struct hdhomerun_guide_instance_t *instance = &guide->instances[guide->instance_count++];
+	memset(instance, 0, sizeof(struct hdhomerun_guide_instance_t));
+	instance->source_id = source_id;
+	instance->eit_index = (uint8_t)eit_index;
+	instance->version = HDHOMERUN_GUIDE_NO_VERSION;
+	return instance;
+}
+
+static bool_t hdhomerun_guide_instance_complete(struct hdhomerun_guide_instance_t *instance)
+{
+	unsigned int i;
+	for (i = 0; i <= instance->last_section; i++) {
+		if (!(instance->section_mask[i / 32] & (1U << (i % 32)))) {
+			return FALSE;
+		}
+	}
+	return TRUE;
+}
+
+/*
+ * Puts an event of EIT-k in the cache, in place of the same event_id from an earlier version and
+ * any loaded events it overlaps. The text of the earlier version is kept for its ETT.
+ */
+static void hdhomerun_guide_put_event(struct hdhomerun_guide_channel_t *channel, struct hdhomerun_guide_cached_event_t *event, const char *title, size_t title_length)
+{
+	const char *text = "";
+	char *old_strings = NULL;
+
+	unsigned int i = 0;
+	while (i < channel->event_count) {
+		struct hdhomerun_guide_cached_event_t *old = &channel->events[i];
+		if ((old->eit_index != HDHOMERUN_GUIDE_LOADED) && (old->event_id == event->event_id) && !old_strings) {
+			event->ett_version = old->ett_version;
+			old_strings = old->title;
+			text = old->text;
+			channel->event_count--;
+			memmove(old, old + 1, (channel->event_count - i) * sizeof(struct hdhomerun_guide_cached_event_t));
+			continue;
+		}
+		if ((old->eit_index == HDHOMERUN_GUIDE_LOADED) ? hdhomerun_guide_overlaps(old, event->start_time, event->duration) : (old->event_id == event->event_id)) {
+			hdhomerun_guide_remove_event(channel, i);
+			continue;
+		}
+		i++;
+	}
+
+	if (hdhomerun_guide_set_strings(event, title, title_length, text, strlen(text))) {
+		hdhomerun_guide_insert_event(channel, event);
+	}
+	free(old_strings);
+}
+
+static bool_t hdhomerun_guide_eit_section(struct hdhomerun_guide_t *guide, unsigned int eit_index, const uint8_t *section, size_t length)
+{
+	if ((section[0] != HDHOMERUN_GUIDE_TABLE_ID_EIT) || !hdhomerun_guide_update_tsid(guide)) {
+		return FALSE;
+	}
+
+	uint16_t source_id = ((uint16_t)section[3] << 8) | (uint16_t)section[4];
+	uint8_t version = (section[5] >> 1) & 0x1F;
+	uint8_t section_number = section[6];
+
+	struct hdhomerun_guide_instance_t *instance = hdhomerun_guide_find_instance(guide, eit_index, source_id);
+	if (!instance) {
+		return FALSE;
+	}
+
+	uint32_t bit = 1U << (section_number % 32);
+	if ((instance->version == version) && (instance->section_mask[section_number / 32] & bit)) {
+		guide->sections_skipped++;
+		return FALSE;
+	}
+
+	if (!hdhomerun_psi_crc_ok(section, length)) {
+		guide->crc_error_count++;
+		return FALSE;
+	}
+
+	if (instance->version != version) {
+		instance->version = version;
+		memset(instance->section_mask, 0, sizeof(instance->section_mask));
+	}
+	instance->last_section = section[7];
+	instance->section_mask[section_number / 32] |= bit;
+	guide->sections_parsed++;
+
+	uint32_t key = ((uint32_t)guide->transport_stream_id << 16) | (uint32_t)source_id;
+	struct hdhomerun_guide_channel_t *channel = hdhomerun_guide_find_channel(guide, key, TRUE);
+	if (!channel) {
+		return FALSE;
+	}
+
+	unsigned int num_events_in_section = section[9];
+	const uint8_t *ptr = section + 10;
+	const uint8_t *end = section + length - 4;
+	while ((num_events_in_section > 0) && (ptr + 10 <= end)) {
+		struct hdhomerun_guide_cached_event_t event;
+		memset(&event, 0, sizeof(event));
+		event.event_id = ((uint16_t)(ptr[0] & 0x3F) << 8) | (uint16_t)ptr[1];
+		event.start_time = hdhomerun_guide_read_u32(ptr + 2) + HDHOMERUN_GUIDE_GPS_EPOCH - guide->gps_utc_offset;
+		event.duration = ((uint32_t)(ptr[6] & 0x0F) << 16) | ((uint32_t)ptr[7] << 8) | (uint32_t)ptr[8];
+		event.eit_index = (uint8_t)eit_index;
+		event.eit_version = version;
+		event.ett_version = HDHOMERUN_GUIDE_NO_VERSION;
+
+		size_t title_length = ptr[9];
+		const uint8_t *title = ptr + 10;
+		if (title + title_length + 2 > end) {
+			break;
+		}
+		size_t descriptors_length = ((size_t)(title[title_length] & 0x0F) << 8) | (size_t)title[title_length + 1];
+
+		size_t utf8_length = hdhomerun_guide_mss(title, title + title_length, guide->title_buffer, sizeof(guide->title_buffer));
+		hdhomerun_guide_put_event(channel, &event, guide->title_buffer, utf8_length);
+
+		ptr = title + title_length + 2 + descriptors_length;
+		num_events_in_section--;
+	}
+
+	/* The instance's events that the new version no longer lists. */
+	if (hdhomerun_guide_instance_complete(instance)) {
+		unsigned int i = 0;
+		while (i < channel->event_count) {
+			struct hdhomerun_guide_cached_event_t *old = &channel->events[i];
+			if ((old->eit_index == eit_index) && (old->eit_version != version)) {
+				hdhomerun_guide_remove_event(channel, i);
+				continue;
+			}
+			i++;
+		}
+	}
+
+	return TRUE;
+}
+
+static bool_t hdhomerun_guide_ett_section(struct hdhomerun_guide_t *guide, const uint8_t *section, size_t length)
+{
+	if ((section[0] != HDHOMERUN_GUIDE_TABLE_ID_ETT) || (length < 17) || !hdhomerun_guide_update_tsid(guide)) {
+		return FALSE;
+	}
+
+	/* Only the ETMs of events, not of channels. */
+	uint32_t etm_id = hdhomerun_guide_read_u32(section + 9);
+	if ((etm_id & 0x03) != 0x02) {
+		return FALSE;
+	}
+
+	uint16_t source_id = (uint16_t)(etm_id >> 16);
+	uint16_t event_id = (uint16_t)((etm_id >> 2) & 0x3FFF);
+	uint8_t version = (section[5] >> 1) & 0x1F;
+
+	uint32_t key = ((uint32_t)guide->transport_stream_id << 16) | (uint32_t)source_id;
+	struct hdhomerun_guide_channel_t *channel = hdhomerun_guide_find_channel(guide, key, FALSE);
+	if (!channel) {
+		return FALSE;
+	}
+
+	/* Its event comes in an EIT, until then the ETT is left for its next repeat. */
+	struct hdhomerun_guide_cached_event_t *event = NULL;
+	unsigned int i;
+	for (i = 0; i < channel->event_count; i++) {
+		if ((channel->events[i].eit_index != HDHOMERUN_GUIDE_LOADED) && (channel->events[i].event_id == event_id)) {
+			event = &channel->events[i];
+			break;
+		}
+	}
+	if (!event) {
+		return FALSE;
+	}
+
+	if (event->ett_version == version) {
+		guide->sections_skipped++;
+		return FALSE;
+	}
+
+	if (!hdhomerun_psi_crc_ok(section, length)) {
+		guide->crc_error_count++;
+		return FALSE;
+	}
+	guide->sections_parsed++;
+
+	size_t text_length = hdhomerun_guide_mss(section + 13, section + length - 4, guide->text_buffer, sizeof(guide->text_buffer));
+	char *old_strings = event->title;
+	if (!hdhomerun_guide_set_strings(event, old_strings, strlen(old_strings), guide->text_buffer, text_length)) {
+		return FALSE;
+	}
+	free(old_strings);
+
+	event->ett_version = version;
+	return TRUE;
+}
+
+static void hdhomerun_guide_mgt_section(struct hdhomerun_guide_t *guide, const uint8_t *section, size_t length)
+{
+	uint8_t version = (section[5] >> 1) & 0x1F;
+	if (guide->mgt_seen && (guide->mgt_version == version)) {
+		guide->sections_skipped++;
+		return;
+	}
+
+	if ((length < 17) || !hdhomerun_psi_crc_ok(section, length)) {
+		guide->crc_error_count++;
+		return;
+	}
+	guide->sections_parsed++;
+
+	uint16_t eit_pids[HDHOMERUN_GUIDE_EIT_MAX];
+	uint16_t ett_pids[HDHOMERUN_GUIDE_EIT_MAX];
+	memset(eit_pids, 0, sizeof(eit_pids));
+	memset(ett_pids, 0, sizeof(ett_pids));
+
+	unsigned int tables_defined = ((unsigned int)section[9] << 8) | (unsigned int)section[10];
+	const uint8_t *ptr = section + 11;
+	const uint8_t *end = section + length - 4;
+	while ((tables_defined > 0) && (ptr + 11 <= end)) {
+		uint16_t table_type = ((uint16_t)ptr[0] << 8) | (uint16_t)ptr[1];
+		uint16_t pid = ((uint16_t)(ptr[2] & 0x1F) << 8) | (uint16_t)ptr[3];
+
+		if ((table_type >= HDHOMERUN_GUIDE_TABLE_TYPE_EIT) && (table_type < HDHOMERUN_GUIDE_TABLE_TYPE_EIT + HDHOMERUN_GUIDE_EIT_MAX)) {
+			eit_pids[table_type - HDHOMERUN_GUIDE_TABLE_TYPE_EIT] = pid;
+		} else if ((table_type >= HDHOMERUN_GUIDE_TABLE_TYPE_ETT) && (table_type < HDHOMERUN_GUIDE_TABLE_TYPE_ETT + HDHOMERUN_GUIDE_EIT_MAX)) {
+			ett_pids[table_type - HDHOMERUN_GUIDE_TABLE_TYPE_ETT] = pid;
+		}
+
+		size_t descriptors_length = ((size_t)(ptr[9] & 0x0F) << 8) | (size_t)ptr[10];
+		ptr += 11 + descriptors_length;
+		tables_defined--;
+	}
+
+	/* Let go of the old PIDs first, a table may have moved to one another had. */
+	unsigned int k;
+	for (k = 0; k < HDHOMERUN_GUIDE_EIT_MAX; k++) {
+		if (guide->slot_pids[HDHOMERUN_GUIDE_SLOT_FIRST_EIT + k] != eit_pids[k]) {
+			hdhomerun_guide_follow_pid(guide, HDHOMERUN_GUIDE_SLOT_FIRST_EIT + k, 0);
+		}
+		if (guide->slot_pids[HDHOMERUN_GUIDE_SLOT_FIRST_ETT + k] != ett_pids[k]) {
+			hdhomerun_guide_follow_pid(guide, HDHOMERUN_GUIDE_SLOT_FIRST_ETT + k, 0);
+		}
+	}
+	for (k = 0; k < HDHOMERUN_GUIDE_EIT_MAX; k++) {
+		hdhomerun_guide_follow_pid(guide, HDHOMERUN_GUIDE_SLOT_FIRST_EIT + k, eit_pids[k]);
+		hdhomerun_guide_follow_pid(guide, HDHOMERUN_GUIDE_SLOT_FIRST_ETT + k, ett_pids[k]);
+	}
+
+	guide->mgt_seen = TRUE;
+	guide->mgt_version = version;
+}
+
+/*
+ * Returns TRUE if the cache changed.
+ */
+static bool_t hdhomerun_guide_section(void *arg, uint16_t pid, const uint8_t *section, size_t length)
+{
+	struct hdhomerun_guide_t *guide = (struct hdhomerun_guide_t *)arg;
+
+	/* Long form, current, at least a header, protocol_version and CRC. */
+	if ((length < 13) || !(section[1] & 0x80) || !(section[5] & 0x01)) {
+		return FALSE;
+	}
+
+	uint8_t slot = guide->pid_slot[pid];
+
+	if (slot == HDHOMERUN_GUIDE_SLOT_PSIP) {
+		if (section[0] == HDHOMERUN_GUIDE_TABLE_ID_MGT) {
+			hdhomerun_guide_mgt_section(guide, section, length);
+		} else if ((section[0] == HDHOMERUN_GUIDE_TABLE_ID_STT) && (length >= 17) && hdhomerun_psi_crc_ok(section, length)) {
+			guide->gps_utc_offset = section[13];
+		}
+		return FALSE;
+	}
+
+	if (slot < HDHOMERUN_GUIDE_SLOT_FIRST_ETT) {
+		return hdhomerun_guide_eit_section(guide, slot - HDHOMERUN_GUIDE_SLOT_FIRST_EIT, section, length);
+	}
+
+	return hdhomerun_guide_ett_section(guide, section, length);
+}
+
+void hdhomerun_guide_process(struct hdhomerun_guide_t *guide, const uint8_t *packets, size_t count)
+{
+	bool_t changed = FALSE;
+
+	pthread_mutex_lock(&guide->lock);
+
+	size_t i;
+	for (i = 0; i < count; i++) {
+		const uint8_t *pkt = packets + i * TS_PACKET_SIZE;
+		uint16_t pid = ((uint16_t)(pkt[1] & 0x1F) << 8) | (uint16_t)pkt[2];
+
+		uint8_t slot = guide->pid_slot[pid];
+		if ((slot == HDHOMERUN_GUIDE_SLOT_NONE) || (pkt[0] != 0x47)) {
+			continue;
+		}
+
+		changed |= hdhomerun_psi_assembler_packet(&guide->assemblers[slot], pkt, hdhomerun_guide_section, guide);
+	}
+
+	if (changed) {
+		guide->change_count++;
+	}
+
+	pthread_mutex_unlock(&guide->lock);
+}
+
+void hdhomerun_guide_reset(struct hdhomerun_guide_t *guide)
+{
+	pthread_mutex_lock(&guide->lock);
+	hdhomerun_guide_clear(guide);
+	pthread_mutex_unlock(&guide->lock);
+}
+
+int hdhomerun_guide_get_events(struct hdhomerun_guide_t *guide, uint16_t transport_stream_id, uint16_t source_id, uint32_t from_time, struct hdhomerun_guide_event_t events[], unsigned int max_count, char *text, size_t text_size, size_t *text_needed)
+{
+	if (text_needed) {
+		*text_needed = 0;
+	}
+
+	pthread_mutex_lock(&guide->lock);
+
+	uint32_t key = ((uint32_t)transport_stream_id << 16) | (uint32_t)source_id;
+	struct hdhomerun_guide_channel_t *channel = hdhomerun_guide_find_channel(guide, key, FALSE);
+	if (!channel) {
+		pthread_mutex_unlock(&guide->lock);
+		return 0;
+	}
+
+	/* The first event starting at from_time or later, and any before it still on then. */
+	unsigned int low = 0;
+	unsigned int high = channel->event_count;
+	while (low < high) {
+		unsigned int mid = (low + high) / 2;
+		if (channel->events[mid].start_time < from_time) {
+			low = mid + 1;
+		} else {
+			high = mid;
+		}
+	}
+	while ((low > 0) && (channel->events[low - 1].start_time + channel->events[low - 1].duration > from_time)) {
+		low--;
+	}
+
+	char *pos = text;
+	char *end = text + text_size;
+	unsigned int count = 0;
+	unsigned int i;
+	for (i = low; i < channel->event_count; i++) {
+		const struct hdhomerun_guide_cached_event_t *cached = &channel->events[i];
+		if (cached->start_time + cached->duration <= from_time) {
+			continue;
+		}
+
+		if (count < max_count) {
+			struct hdhomerun_guide_event_t *event = &events[count];
+			event->event_id = cached->event_id;
+			event->start_time = cached->start_time;
+			event->duration = cached->duration;
+			event->title = "";
+			event->text = "";
+
+			size_t title_size = strlen(cached->title) + 1;
+			size_t text_length = strlen(cached->text) + 1;
+			if (text_needed) {
+				*text_needed += title_size + text_length;
+			}
+			if ((size_t)(end - pos) >= title_size + text_length) {
+				memcpy(pos, cached->title, title_size);
+				event->title = pos;
+				pos += title_size;
+				memcpy(pos, cached->text, text_length);
+				event->text = pos;
+				pos += text_length;
+			}
+		}
+		count++;
+	}
+
+	pthread_mutex_unlock(&guide->lock);
+	return (int)count;
+}
+
+void hdhomerun_guide_expire(struct hdhomerun_guide_t *guide, uint32_t time)
+{
+	pthread_mutex_lock(&guide->lock);
+
+	bool_t changed = FALSE;
+	unsigned int i;
+	for (i = 0; i < guide->channel_count; i++) {
+		struct hdhomerun_guide_channel_t *channel = &guide->channels[i];
+		unsigned int j = 0;
+		while (j < channel->event_count) {
+			if (channel->events[j].start_time + channel->events[j].duration < time) {
+				hdhomerun_guide_remove_event(channel, j);
+				changed = TRUE;
+				continue;
+			}
+			j++;
+		}
+	}
+
+	if (changed) {
+		guide->change_count++;
+	}
+
+	pthread_mutex_unlock(&guide->lock);
+}
+
+/*
+ * The file is the magic and version, then every channel's key and event count, each event its
+ * event_id, start_time less the one before it in the channel, duration, title and text, every
+ * number a little endian base 128 varint and every string its length then its bytes.
+ */
+struct hdhomerun_guide_file_buffer_t {
+	uint8_t *data;
+	size_t length;
+	size_t capacity;
+	bool_t failed;
+};
+
+static void hdhomerun_guide_write(struct hdhomerun_guide_file_buffer_t *buffer, const void *data, size_t length)
+{
+	if (buffer->length + length > buffer->capacity) {
+		size_t capacity = buffer->capacity ? buffer->capacity : 4096;
+		while (buffer->length + length > capacity) {
+			capacity *= 2;
+		}
+		uint8_t *grown = (uint8_t *)realloc(buffer->data, capacity);
+		if (!grown) {
+			buffer->failed = TRUE;
+			return;
+		}
+		buffer->data = grown;
+		buffer->capacity = capacity;
+	}
+
+	memcpy(buffer->data + buffer->length, data, length);
+	buffer->length += length;
+}
+
+static void hdhomerun_guide_write_varint(struct hdhomerun_guide_file_buffer_t *buffer, uint32_t value)
+{
+	uint8_t bytes[5];
+	size_t length = 0;
+	while (value >= 0x80) {
+		bytes[length++] = (uint8_t)((value & 0x7F) | 0x80);
+		value >>= 7;
+	}
+	bytes[length++] = (uint8_t)value;
+	hdhomerun_guide_write(buffer, bytes, length);
+}
+
+static void hdhomerun_guide_write_string(struct hdhomerun_guide_file_buffer_t *buffer, const char *str)
+{
+	size_t length = strlen(str);
+	hdhomerun_guide_write_varint(buffer, (uint32_t)length);
+	hdhomerun_guide_write(buffer, str, length);
+}
+
+bool_t hdhomerun_guide_save(struct hdhomerun_guide_t *guide, const char *path)
+{
+	struct hdhomerun_guide_file_buffer_t buffer;
+	memset(&buffer, 0, sizeof(buffer));
+
+	/* Written out after the lock is let go, the receive thread mustn't wait on storage. */
+	pthread_mutex_lock(&guide->lock);
+
+	uint8_t version = HDHOMERUN_GUIDE_FILE_VERSION;
+	hdhomerun_guide_write(&buffer, HDHOMERUN_GUIDE_FILE_MAGIC, 4);
+	hdhomerun_guide_write(&buffer, &version, 1);
+	hdhomerun_guide_write_varint(&buffer, guide->channel_count);
+
+	unsigned int i;
+	for (i = 0; i < guide->channel_count; i++) {
+		struct hdhomerun_guide_channel_t *channel = &guide->channels[i];
+		hdhomerun_guide_write_varint(&buffer, channel->key);
+		hdhomerun_guide_write_varint(&buffer, channel->event_count);
+
+		uint32_t previous_start = 0;
+		unsigned int j;
+		for (j = 0; j < channel->event_count; j++) {
+			struct hdhomerun_guide_cached_event_t *event = &channel->events[j];
+			hdhomerun_guide_write_varint(&buffer, event->event_id);
+			hdhomerun_guide_write_varint(&buffer, event->start_time - previous_start);
+			hdhomerun_guide_write_varint(&buffer, event->duration);
+			hdhomerun_guide_write_string(&buffer, event->title);
+			hdhomerun_guide_write_string(&buffer, event->text);
+			previous_start = event->start_time;
+		}
+	}
+
+	pthread_mutex_unlock(&guide->lock);
+
+	size_t path_length = strlen(path);
+	char *temp_path = (char *)malloc(path_length + 5);
+	if (buffer.failed || !temp_path) {
+		free(temp_path);
+		free(buffer.data);
+		return FALSE;
+	}
+	memcpy(temp_path, path, path_length);
+	memcpy(temp_path + path_length, ".tmp", 5);
+
+	bool_t ok = FALSE;
+	FILE *fp = fopen(temp_path, "wb");
+	if (fp) {
+		ok = (fwrite(buffer.data, 1, buffer.length, fp) == buffer.length);
+		if (fclose(fp) != 0) {
+			ok = FALSE;
+		}
+		if (ok && (rename(temp_path, path) != 0)) {
+			ok = FALSE;
+		}
+		if (!ok) {
+			remove(temp_path);
+		}
+	}
+	if (!ok) {
+		hdhomerun_debug_printf(guide->dbg, "hdhomerun_guide_save: failed to write %s\n", path);
+	}
+
+	free(temp_path);
+	free(buffer.data);
+	return ok;
+}
+
+static bool_t hdhomerun_guide_read_varint(const uint8_t **pptr, const uint8_t *end, uint32_t *pvalue)
+{
+	const uint8_t *ptr = *pptr;
+	uint32_t value = 0;
+	unsigned int shift = 0;
+	while (1) {
+		if ((ptr >= end) || (shift > 28)) {
+			return FALSE;
+		}
+		uint8_t c = *ptr++;
+		value |= (uint32_t)(c & 0x7F) << shift;
+		if (!(c & 0x80)) {
+			break;
+		}
+		shift += 7;
+	}
+
+	*pptr = ptr;
+	*pvalue = value;
+	return TRUE;
+}
+
+static bool_t hdhomerun_guide_read_string(const uint8_t **pptr, const uint8_t *end, const char **pstr, uint32_t *plength)
+{
+	if (!hdhomerun_guide_read_varint(pptr, end, plength)) {
+		return FALSE;
+	}
+	if (*plength > (uint32_t)(end - *pptr)) {
+		return FALSE;
+	}
+
+	*pstr = (const char *)*pptr;
+	*pptr += *plength;
+	return TRUE;
+}
+
+/*
+ * Walks a saved guide, merging its events into the cache if merge is set. Returns FALSE if it
+ * isn't one.
+ */
+static bool_t hdhomerun_guide_parse_file(struct hdhomerun_guide_t *guide, const uint8_t *ptr, const uint8_t *end, bool_t merge)
+{
+	if ((end - ptr < 5) || (memcmp(ptr, HDHOMERUN_GUIDE_FILE_MAGIC, 4) != 0) || (ptr[4] != HDHOMERUN_GUIDE_FILE_VERSION)) {
+		return FALSE;
+	}
+	ptr += 5;
+
+	uint32_t channel_count;
+	if (!hdhomerun_guide_read_varint(&ptr, end, &channel_count)) {
+		return FALSE;
+	}
+
+	while (channel_count > 0) {
+		uint32_t key;
+		uint32_t event_count;
+		if (!hdhomerun_guide_read_varint(&ptr, end, &key) || !hdhomerun_guide_read_varint(&ptr, end, &event_count)) {
+			return FALSE;
+		}
+
+		struct hdhomerun_guide_channel_t *channel = NULL;
+		if (merge) {
+			channel = hdhomerun_guide_find_channel(guide, key, TRUE);
+		}
+
+		uint32_t start_time = 0;
+		while (event_count > 0) {
+			uint32_t event_id;
+			uint32_t start_delta;
+			uint32_t duration;
+			const char *title;
+			uint32_t title_length;
+			const char *text;
+			uint32_t text_length;
+			if (!hdhomerun_guide_read_varint(&ptr, end, &event_id) || !hdhomerun_guide_read_varint(&ptr, end, &start_delta) ||
+			    !hdhomerun_guide_read_varint(&ptr, end, &duration) || !hdhomerun_guide_read_string(&ptr, end, &title, &title_length) ||
+			    !hdhomerun_guide_read_string(&ptr, end, &text, &text_length)) {
+				return FALSE;
+			}
+			start_time += start_delta;
+			event_count--;
+
+			if (!channel) {
+				continue;
+			}
+
+			/* What the cache has already is newer. */
+			bool_t overlapped = FALSE;
+			unsigned int i;
+			for (i = 0; i < channel->event_count; i++) {
+				if (hdhomerun_guide_overlaps(&channel->events[i], start_time, duration)) {
+					overlapped = TRUE;
+					break;
+				}
+			}
+			if (overlapped) {
+				continue;
+			}
+
+			struct hdhomerun_guide_cached_event_t event;
+			memset(&event, 0, sizeof(event));
+			event.event_id = (uint16_t)event_id;
+			event.start_time = start_time;
+			event.duration = duration;
+			event.eit_index = HDHOMERUN_GUIDE_LOADED;
+			event.eit_version = HDHOMERUN_GUIDE_NO_VERSION;
+			event.ett_version = HDHOMERUN_GUIDE_NO_VERSION;
+			if (hdhomerun_guide_set_strings(&event, title, title_length, text, text_length)) {
+				hdhomerun_guide_insert_event(channel, &event);
+			}
+		}
+
+		channel_count--;
+	}
+
+	return TRUE;
+}
+
+bool_t hdhomerun_guide_load(struct hdhomerun_guide_t *guide, const char *path)
+{
+	FILE *fp = fopen(path, "rb");
+	if (!fp) {
+		return FALSE;
+	}
+
+	fseek(fp, 0, SEEK_END);
+	long size = ftell(fp);
+	fseek(fp, 0, SEEK_SET);
+	if (size <= 0) {
+		fclose(fp);
+		return FALSE;
+	}
+
+	uint8_t *data = (uint8_t *)malloc((size_t)size);
+	if (!data) {
+		fclose(fp);
+		return FALSE;
+	}
+
+	bool_t ok = (fread(data, 1, (size_t)size, fp) == (size_t)size);
+	fclose(fp);
+
+	/* All of it checked before any of it is merged. */
+	if (ok) {
+		ok = hdhomerun_guide_parse_file(guide, data, data + size, FALSE);
+	}
+	if (ok) {
+		pthread_mutex_lock(&guide->lock);
+		hdhomerun_guide_parse_file(guide, data, data + size, TRUE);
+		guide->change_count++;
+		pthread_mutex_unlock(&guide->lock);
+	} else {
+		hdhomerun_debug_printf(guide->dbg, "hdhomerun_guide_load: %s isn't a saved guide\n", path);
+	}
+
+	free(data);
+	return ok;
+}
+
+void hdhomerun_guide_get_stats(struct hdhomerun_guide_t *guide, struct hdhomerun_guide_stats_t *stats)
+{
+	pthread_mutex_lock(&guide->lock);
+
+	memset(stats, 0, sizeof(struct hdhomerun_guide_stats_t));
+	stats->sections_parsed = guide->sections_parsed;
+	stats->sections_skipped = guide->sections_skipped;
+	stats->crc_error_count = guide->crc_error_count;
+	stats->channel_count = guide->channel_count;
+	stats->change_count = guide->change_count;
+
+	unsigned int i;
+	for (i = 0; i < guide->channel_count; i++) {
+		stats->event_count += guide->channels[i].event_count;
+	}
+
+	pthread_mutex_unlock(&guide->lock);
+}
@@ -0,0 +1,103 @@
+/*
+ * hdhomerun_guide.h
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+/* EIT-0 to EIT-7, each three hours, the next day of events. */
+#define HDHOMERUN_GUIDE_EIT_MAX 8
+
+/* The GPS_UTC_offset until the stream's STT gives it. */
+#define HDHOMERUN_GUIDE_GPS_UTC_OFFSET 18
+
+struct hdhomerun_guide_t;
+
+struct hdhomerun_guide_event_t {
+	uint16_t event_id;
+	uint32_t start_time;
+	uint32_t duration;
+	const char *title;
+	const char *text;
+};
+
+struct hdhomerun_guide_stats_t {
+	uint32_t sections_parsed;
+	uint32_t sections_skipped;
+	uint32_t crc_error_count;
+	unsigned int channel_count;
+	unsigned int event_count;
+	uint32_t change_count;
+};
+
+/*
+ * Collects the ATSC program guide, the EITs and event ETTs the MGT lists on the PSIP PID, into a
+ * cache of events per channel. A channel is a transport_stream_id and a VCT source_id, the tsid
+ * coming from the psi of the same stream. The video socket creates one when asked by
+ * hdhomerun_video_get_guide and feeds it every datagram it stores.
+ *
+ * Every EIT instance, one source_id of one EIT-k, is followed by version and section number, so
+ * a section seen before is skipped from its header without a CRC check or parse. A new version
+ * replaces the instance's events once all of its sections are in. An event's ETT is skipped the
+ * same way by its version.
+ *
+ * Times are UTC seconds since 1970, converted with the STT's GPS_UTC_offset. Titles and texts are
+ * UTF-8, from the first string of each multiple_string_structure, without Huffman compressed
+ * segments.
+ *
+ * The cache outlives the stream, a new channel only resets what is being followed, and can be
+ * saved to and loaded from a file. Loaded events give way to overlapping ones from a stream.
+ */
+extern LIBTYPE struct hdhomerun_guide_t *hdhomerun_guide_create(struct hdhomerun_psi_t *psi, struct hdhomerun_debug_t *dbg);
+extern LIBTYPE void hdhomerun_guide_destroy(struct hdhomerun_guide_t *guide);
+
+/*
+ * Feed TS packets, count of them at TS_PACKET_SIZE apart, after the psi has had them.
+ */
+extern LIBTYPE void hdhomerun_guide_process(struct hdhomerun_guide_t *guide, const uint8_t *packets, size_t count);
+
+/*
+ * Forget the tables being followed, for a new channel. The cache is kept.
+ */
+extern LIBTYPE void hdhomerun_guide_reset(struct hdhomerun_guide_t *guide);
+
+/*
+ * Copy the events of a channel that end after from_time, in order of start time. Their titles and
+ * texts are copied into text, an event whose strings don't fit gets empty ones. *text_needed, if
+ * not NULL, is set to the size text needs for the strings of the first max_count events.
+ *
+ * Returns the number of such events, which may be more than max_count.
+ */
+extern LIBTYPE int hdhomerun_guide_get_events(struct hdhomerun_guide_t *guide, uint16_t transport_stream_id, uint16_t source_id, uint32_t from_time, struct hdhomerun_guide_event_t events[], unsigned int max_count, char *text, size_t text_size, size_t *text_needed);
+
+/*
+ * Drop every event that ended before time.
+ */
+extern LIBTYPE void hdhomerun_guide_expire(struct hdhomerun_guide_t *guide, uint32_t time);
+
+/*
+ * Write the cache to path, through a temporary file renamed over it, or merge the events of such
+ * a file into the cache. Returns FALSE if the file couldn't be written or isn't a saved guide.
+ */
+extern LIBTYPE bool_t hdhomerun_guide_save(struct hdhomerun_guide_t *guide, const char *path);
+extern LIBTYPE bool_t hdhomerun_guide_load(struct hdhomerun_guide_t *guide, const char *path);
+
+extern LIBTYPE void hdhomerun_guide_get_stats(struct hdhomerun_guide_t *guide, struct hdhomerun_guide_stats_t *stats);
+
+#ifdef __cplusplus
+}
+#endif
@@ -96,6 +96,67 @@ void msleep_minimum(uint64_t ms)
 	}
 }
 
+void thread_cond_init(thread_cond_t *cond)
+{
+	cond->signalled = FALSE;
+	pthread_mutex_init(&cond->lock, NULL);
+	pthread_cond_init(&cond->cond, NULL);
+}
+
+void thread_cond_dispose(thread_cond_t *cond)
+{
+	pthread_cond_destroy(&cond->cond);
+	pthread_mutex_destroy(&cond->lock);
+}
+
+void thread_cond_signal(thread_cond_t *cond)
+{
+	pthread_mutex_lock(&cond->lock);
+
+	cond->signalled = TRUE;
+	pthread_cond_signal(&cond->cond);
+
+	pthread_mutex_unlock(&cond->lock);
+}
+
+void thread_cond_wait(thread_cond_t *cond)
+{
+	pthread_mutex_lock(&cond->lock);
+
+	while (!cond->signalled) {
+		pthread_cond_wait(&cond->cond, &cond->lock);
+	}
+
+	cond->signalled = FALSE;
+	pthread_mutex_unlock(&cond->lock);
+}
+
+bool_t thread_cond_wait_with_timeout(thread_cond_t *cond, uint64_t max_wait_time)
+{
+	/* pthread_cond_timedwait takes the realtime clock */
+	struct timeval tv;
+	gettimeofday(&tv, NULL);
+
+	uint64_t usec = (uint64_t)tv.tv_usec + (max_wait_time % 1000) * 1000;
+	struct timespec abstime;
+	abstime.tv_sec = tv.tv_sec + (time_t)(max_wait_time / 1000) + (time_t)(usec / 1000000);
+	abstime.tv_nsec = (long)(usec % 1000000) * 1000;
+
+	pthread_mutex_lock(&cond->lock);
+
+	while (!cond->signalled) {
+		if (pthread_cond_timedwait(&cond->cond, &cond->lock, &abstime) == ETIMEDOUT) {
+			break;
+		}
+	}
+
+	bool_t signalled = cond->signalled;
+	cond->signalled = FALSE;
+
+	pthread_mutex_unlock(&cond->lock);
+	return signalled;
+}
+
 bool_t hdhomerun_vsprintf(char *buffer, char *end, const char *fmt, va_list ap)
 {
 	if (buffer >= end) {
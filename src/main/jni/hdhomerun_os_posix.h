@@ -46,6 +46,12 @@ typedef int bool_t;
 #define console_printf printf
 #define THREAD_FUNC_PREFIX void *
 
+typedef struct {
+	pthread_mutex_t lock;
+	pthread_cond_t cond;
+	volatile bool_t signalled;
+} thread_cond_t;
+
 #ifdef __cplusplus
 extern "C" {
 #endif
@@ -55,6 +61,16 @@ extern LIBTYPE uint64_t getcurrenttime(void);
 extern LIBTYPE void msleep_approx(uint64_t ms);
 extern LIBTYPE void msleep_minimum(uint64_t ms);
 
+/*
+ * An auto reset event: a signal with nobody waiting wakes the next wait, each signal wakes one wait.
+ * thread_cond_wait_with_timeout returns FALSE if the time ran out.
+ */
+extern LIBTYPE void thread_cond_init(thread_cond_t *cond);
+extern LIBTYPE void thread_cond_dispose(thread_cond_t *cond);
+extern LIBTYPE void thread_cond_signal(thread_cond_t *cond);
+extern LIBTYPE void thread_cond_wait(thread_cond_t *cond);
+extern LIBTYPE bool_t thread_cond_wait_with_timeout(thread_cond_t *cond, uint64_t max_wait_time);
+
 extern LIBTYPE bool_t hdhomerun_vsprintf(char *buffer, char *end, const char *fmt, va_list ap);
 extern LIBTYPE bool_t hdhomerun_sprintf(char *buffer, char *end, const char *fmt, ...);
 
@@ -100,6 +100,31 @@ void pthread_mutex_unlock(pthread_mutex_t *mutex)
 	ReleaseMutex(*mutex);
 }
 
+void thread_cond_init(thread_cond_t *cond)
+{
+	*cond = CreateEvent(NULL, FALSE, FALSE, NULL);
+}
+
+void thread_cond_dispose(thread_cond_t *cond)
+{
+	CloseHandle(*cond);
+}
+
+void thread_cond_signal(thread_cond_t *cond)
+{
+	SetEvent(*cond);
+}
+
+void thread_cond_wait(thread_cond_t *cond)
+{
+	WaitForSingleObject(*cond, INFINITE);
+}
+
+bool_t thread_cond_wait_with_timeout(thread_cond_t *cond, uint64_t max_wait_time)
+{
+	return WaitForSingleObject(*cond, (DWORD)max_wait_time) == WAIT_OBJECT_0;
+}
+
 bool_t hdhomerun_vsprintf(char *buffer, char *end, const char *fmt, va_list ap)
 {
 	if (buffer >= end) {
@@ -52,6 +52,7 @@ typedef unsigned __int64 uint64_t;
 typedef void (*sig_t)(int);
 typedef HANDLE pthread_t;
 typedef HANDLE pthread_mutex_t;
+typedef HANDLE thread_cond_t;
 
 #if !defined(va_copy)
 #define va_copy(x, y) x = y
@@ -79,6 +80,12 @@ extern LIBTYPE void pthread_mutex_init(pthread_mutex_t *mutex, void *attr);
 extern LIBTYPE void pthread_mutex_lock(pthread_mutex_t *mutex);
 extern LIBTYPE void pthread_mutex_unlock(pthread_mutex_t *mutex);
 
+extern LIBTYPE void thread_cond_init(thread_cond_t *cond);
+extern LIBTYPE void thread_cond_dispose(thread_cond_t *cond);
+extern LIBTYPE void thread_cond_signal(thread_cond_t *cond);
+extern LIBTYPE void thread_cond_wait(thread_cond_t *cond);
+extern LIBTYPE bool_t thread_cond_wait_with_timeout(thread_cond_t *cond, uint64_t max_wait_time);
+
 extern LIBTYPE bool_t hdhomerun_vsprintf(char *buffer, char *end, const char *fmt, va_list ap);
 extern LIBTYPE bool_t hdhomerun_sprintf(char *buffer, char *end, const char *fmt, ...);
 
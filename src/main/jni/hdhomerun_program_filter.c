@@ -0,0 +1,255 @@
+/*
+ * hdhomerun_program_filter.c
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+#include "hdhomerun.h"
+
+/* A filter that couldn't be set is tried again after this long. */
+#define HDHOMERUN_PROGRAM_FILTER_RETRY_MS 1000
+
+struct hdhomerun_program_filter_t {
+	struct hdhomerun_device_t *hd;
+	struct hdhomerun_device_t *control;
+	struct hdhomerun_psi_t *psi;
+	struct hdhomerun_debug_t *dbg;
+
+	uint16_t program_numbers[HDHOMERUN_PSI_PROGRAMS_MAX];
+	unsigned int program_count;
+	struct hdhomerun_psi_program_t programs[HDHOMERUN_PSI_PROGRAMS_MAX];
+
+	pthread_t thread;
+	thread_cond_t change_cond;
+	volatile bool_t terminate;
+
+	pthread_mutex_t lock;
+	bool_t applied;
+	bool_t full_range;
+	unsigned char applied_array[0x2000];
+	unsigned char filter_array[0x2000];
+	struct hdhomerun_program_filter_stats_t stats;
+};
+
+static void hdhomerun_program_filter_changed(struct hdhomerun_psi_t *psi, void *arg)
+{
+	struct hdhomerun_program_filter_t *filter = (struct hdhomerun_program_filter_t *)arg;
+	thread_cond_signal(&filter->change_cond);
+}
+
+/*
+ * Returns FALSE if there is no PAT to build a filter from yet.
+ */
+static bool_t hdhomerun_program_filter_build(struct hdhomerun_program_filter_t *filter)
+{
+	int count = hdhomerun_psi_get_programs(filter->psi, filter->programs, HDHOMERUN_PSI_PROGRAMS_MAX, NULL);
+	if (count < 0) {
+		return FALSE;
+	}
+	if (count > HDHOMERUN_PSI_PROGRAMS_MAX) {
+		count = HDHOMERUN_PSI_PROGRAMS_MAX;
+	}
+
+	filter->full_range = FALSE;
+	memset(filter->filter_array, 0, sizeof(filter->filter_array));
+	filter->filter_array[HDHOMERUN_PSI_PAT_PID] = 1;
+	filter->filter_array[HDHOMERUN_PSI_PSIP_PID] = 1;
+
+	int i;
+	for (i = 0; i < count; i++) {
+		struct hdhomerun_psi_program_t *program = &filter->programs[i];
+
+		unsigned int chosen;
+		for (chosen = 0; chosen < filter->program_count; chosen++) {
+			if (filter->program_numbers[chosen] == program->program_number) {
+				break;
+			}
+		}
+		if (chosen == filter->program_count) {
+			continue;
+		}
+
+		filter->filter_array[program->pmt_pid] = 1;
+		if (!program->pmt_received) {
+			continue;
+		}
+
+		/* Its later streams aren't known, cutting them would lose audio or video. */
+		if (program->streams_truncated) {
+			filter->full_range = TRUE;
+			memset(filter->filter_array, 1, sizeof(filter->filter_array));
+			return TRUE;
+		}
+
+		/* 0x1FFF is a program without a PCR. */
+		if (program->pcr_pid < 0x1FFF) {
+			filter->filter_array[program->pcr_pid] = 1;
+		}
+		unsigned int stream;
+		for (stream = 0; stream < program->stream_count; stream++) {
+			filter->filter_array[program->stream_pids[stream]] = 1;
+		}
+	}
+
+	return TRUE;
+}
+
+static THREAD_FUNC_PREFIX hdhomerun_program_filter_execute(void *arg)
+{
+	struct hdhomerun_program_filter_t *filter = (struct hdhomerun_program_filter_t *)arg;
+
+	while (!filter->terminate) {
+		if (hdhomerun_program_filter_build(filter)) {
+			if (!filter->applied || (memcmp(filter->filter_array, filter->applied_array, sizeof(filter->filter_array)) != 0)) {
+				/* The device's lockkey may have been taken or changed since. */
+				hdhomerun_device_tuner_lockkey_use_value(filter->control, hdhomerun_device_get_tuner_lockkey(filter->hd));
+
+				int ret = hdhomerun_device_set_tuner_filter_by_array(filter->control, filter->filter_array);
+
+				pthread_mutex_lock(&filter->lock);
+				if (ret > 0) {
+					memcpy(filter->applied_array, filter->filter_array, sizeof(filter->filter_array));
+					filter->applied = TRUE;
+					filter->stats.apply_count++;
+					if (filter->full_range) {
+						hdhomerun_debug_printf(filter->dbg, "hdhomerun_program_filter_execute: a program has more than %u streams, passing every PID\n", HDHOMERUN_PSI_STREAMS_MAX);
+					}
+					filter->stats.pid_count = 0;
+					int pid;
+					for (pid = 0; pid < 0x2000; pid++) {
+						filter->stats.pid_count += filter->applied_array[pid];
+					}
+				} else {
+					hdhomerun_debug_printf(filter->dbg, "hdhomerun_program_filter_execute: failed to set filter (%d)\n", ret);
+					filter->applied = FALSE;
+					filter->stats.apply_error_count++;
+				}
+				pthread_mutex_unlock(&filter->lock);
+			}
+		}
+
+		thread_cond_wait_with_timeout(&filter->change_cond, HDHOMERUN_PROGRAM_FILTER_RETRY_MS);
+	}
+
+	return NULL;
+}
+
+struct hdhomerun_program_filter_t *hdhomerun_program_filter_create(struct hdhomerun_device_t *hd, const uint16_t program_numbers[], unsigned int program_count, struct hdhomerun_debug_t *dbg)
+{
+	if (hdhomerun_device_get_device_ip(hd) == 0) {
+		hdhomerun_debug_printf(dbg, "hdhomerun_program_filter_create: device has no control connection\n");
+		return NULL;
+	}
+
+	struct hdhomerun_program_filter_t *filter = (struct hdhomerun_program_filter_t *)calloc(1, sizeof(struct hdhomerun_program_filter_t));
+	if (!filter) {
+		hdhomerun_debug_printf(dbg, "hdhomerun_program_filter_create: failed to allocate filter object\n");
+		return NULL;
+	}
+
+	filter->hd = hd;
+	filter->dbg = dbg;
+	pthread_mutex_init(&filter->lock, NULL);
+	thread_cond_init(&filter->change_cond);
+
+	if (program_count > HDHOMERUN_PSI_PROGRAMS_MAX) {
+		program_count = HDHOMERUN_PSI_PROGRAMS_MAX;
+	}
+	memcpy(filter->program_numbers, program_numbers, program_count * sizeof(uint16_t));
+	filter->program_count = program_count;
+
+	struct hdhomerun_video_sock_t *vs = hdhomerun_device_get_video_sock(hd);
+	if (vs) {
+		filter->psi = hdhomerun_video_get_psi(vs);
+	}
+	if (!filter->psi) {
+		hdhomerun_debug_printf(dbg, "hdhomerun_program_filter_create: failed to follow the stream's tables\n");
+		goto error;
+	}
+
+	filter->control = hdhomerun_device_create(hdhomerun_device_get_device_id(hd), hdhomerun_device_get_device_ip(hd), hdhomerun_device_get_tuner(hd), dbg);
+	if (!filter->control) {
+		hdhomerun_debug_printf(dbg, "hdhomerun_program_filter_create: failed to create control device\n");
+		goto error;
+	}
+
+	if (!hdhomerun_psi_add_listener(filter->psi, hdhomerun_program_filter_changed, filter)) {
+		hdhomerun_debug_printf(dbg, "hdhomerun_program_filter_create: too many listeners on the stream's tables\n");
+		goto error;
+	}
+
+	if (pthread_create(&filter->thread, NULL, &hdhomerun_program_filter_execute, filter) != 0) {
+		hdhomerun_debug_printf(dbg, "hdhomerun_program_filter_create: failed to start thread\n");
+		hdhomerun_psi_remove_listener(filter->psi, hdhomerun_program_filter_changed, filter);
+		goto error;
+	}
+
+	return filter;
+
+error:
+	if (filter->control) {
+		hdhomerun_device_destroy(filter->control);
+	}
+	thread_cond_dispose(&filter->change_cond);
+	free(filter);
+	return NULL;
+}
+
+void hdhomerun_program_filter_destroy(struct hdhomerun_program_filter_t *filter)
+{
+	hdhomerun_psi_remove_listener(filter->psi, hdhomerun_program_filter_changed, filter);
+
+	filter->terminate = TRUE;
+	thread_cond_signal(&filter->change_cond);
+	pthread_join(filter->thread, NULL);
+
+	if (filter->stats.apply_count > 0) {
+		hdhomerun_device_tuner_lockkey_use_value(filter->control, hdhomerun_device_get_tuner_lockkey(filter->hd));
+		hdhomerun_device_set_tuner_filter(filter->control, "0x0000-0x1FFF");
+	}
+
+	hdhomerun_device_destroy(filter->control);
+	thread_cond_dispose(&filter->change_cond);
+	free(filter);
+}
+
+unsigned int hdhomerun_program_filter_get_pids(struct hdhomerun_program_filter_t *filter, uint16_t pids[], unsigned int max_count)
+{
+	unsigned int count = 0;
+
+	pthread_mutex_lock(&filter->lock);
+	if (filter->applied) {
+		int pid;
+		for (pid = 0; pid < 0x2000; pid++) {
+			if (!filter->applied_array[pid]) {
+				continue;
+			}
+			if (count < max_count) {
+				pids[count] = (uint16_t)pid;
+			}
+			count++;
+		}
+	}
+	pthread_mutex_unlock(&filter->lock);
+
+	return count;
+}
+
+void hdhomerun_program_filter_get_stats(struct hdhomerun_program_filter_t *filter, struct hdhomerun_program_filter_stats_t *stats)
+{
+	pthread_mutex_lock(&filter->lock);
+	*stats = filter->stats;
+	pthread_mutex_unlock(&filter->lock);
+}
@@ -0,0 +1,60 @@
+/*
+ * hdhomerun_program_filter.h
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+struct hdhomerun_program_filter_t;
+
+struct hdhomerun_program_filter_stats_t {
+	uint32_t apply_count;
+	uint32_t apply_error_count;
+	uint32_t pid_count;
+};
+
+/*
+ * Keep the tuner's PID filter (/tunerN/filter) to the chosen programs of the stream.
+ *
+ * The PAT and the chosen programs' PMTs are followed on the device's video socket, and whenever
+ * they change the filter is set to the PAT, the PSIP base PID 0x1FFB, and each program's PMT, PCR
+ * and elementary stream PIDs. Until the PAT arrives the whole multiplex passes. The PMT PIDs stay
+ * in the filter so a PMT that changes its streams is seen and the filter follows it. A program with
+ * more than HDHOMERUN_PSI_STREAMS_MAX streams lets the whole multiplex pass instead of losing some.
+ *
+ * A thread of the filter sets it over its own control connection, with the device's lockkey, so it
+ * doesn't contend with calls on the device. Stream with hdhomerun_device_stream_start as usual.
+ *
+ * Returns NULL if the device has no control connection (a multicast device) or on allocation failure.
+ */
+extern LIBTYPE struct hdhomerun_program_filter_t *hdhomerun_program_filter_create(struct hdhomerun_device_t *hd, const uint16_t program_numbers[], unsigned int program_count, struct hdhomerun_debug_t *dbg);
+
+/*
+ * Stop following the tables and let the whole multiplex through again.
+ */
+extern LIBTYPE void hdhomerun_program_filter_destroy(struct hdhomerun_program_filter_t *filter);
+
+/*
+ * Get the PIDs of the filter last set on the tuner, in order. Returns how many there are,
+ * which may be more than max_count, or 0 if none has been set yet.
+ */
+extern LIBTYPE unsigned int hdhomerun_program_filter_get_pids(struct hdhomerun_program_filter_t *filter, uint16_t pids[], unsigned int max_count);
+extern LIBTYPE void hdhomerun_program_filter_get_stats(struct hdhomerun_program_filter_t *filter, struct hdhomerun_program_filter_stats_t *stats);
+
+#ifdef __cplusplus
+}
+#endif
@@ -0,0 +1,775 @@
+/*
+ * hdhomerun_psi.c
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+#include "hdhomerun.h"
+
+#define HDHOMERUN_PSI_ASSEMBLERS_MAX (2 + HDHOMERUN_PSI_PROGRAMS_MAX)
+#define HDHOMERUN_PSI_SLOT_NONE 0xFF
+#define HDHOMERUN_PSI_SLOT_PAT 0
+#define HDHOMERUN_PSI_SLOT_PSIP 1
+#define HDHOMERUN_PSI_SLOT_FIRST_PMT 2
+
+#define HDHOMERUN_PSI_TABLE_ID_PAT 0x00
+#define HDHOMERUN_PSI_TABLE_ID_PMT 0x02
+#define HDHOMERUN_PSI_TABLE_ID_TVCT 0xC8
+#define HDHOMERUN_PSI_TABLE_ID_CVCT 0xC9
+
+#define HDHOMERUN_PSI_DESCRIPTOR_CA 0x09
+
+struct hdhomerun_psi_vct_channel_t {
+	uint8_t section_number;
+	uint16_t channel_tsid;
+	uint16_t program_number;
+	uint16_t virtual_major;
+	uint16_t virtual_minor;
+	uint16_t source_id;
+	uint8_t service_type;
+	bool_t access_controlled;
+	bool_t hidden;
+	char name[HDHOMERUN_PSI_NAME_MAX];
+};
+
+struct hdhomerun_psi_t {
+	pthread_mutex_t lock;
+	struct hdhomerun_debug_t *dbg;
+
+	/* The assembler of each followed PID, the PAT's is always the first. */
+	uint8_t pid_slot[0x2000];
+	struct hdhomerun_psi_assembler_t assemblers[HDHOMERUN_PSI_ASSEMBLERS_MAX];
+	uint8_t assembler_buffers[HDHOMERUN_PSI_ASSEMBLERS_MAX][HDHOMERUN_PSI_SECTION_MAX];
+	unsigned int assembler_count;
+
+	bool_t pat_received;
+	uint32_t pat_crc;
+	uint16_t transport_stream_id;
+	unsigned int program_count;
+	struct hdhomerun_psi_program_t programs[HDHOMERUN_PSI_PROGRAMS_MAX];
+	uint32_t pmt_crcs[HDHOMERUN_PSI_PROGRAMS_MAX];
+
+	/* The sections of the one VCT being followed, its first table_id and version. */
+	bool_t vct_seen;
+	uint8_t vct_table_id;
+	uint8_t vct_version;
+	uint8_t vct_last_section;
+	uint32_t vct_section_mask[256 / 32];
+	uint32_t vct_crcs[256];
+	unsigned int vct_channel_count;
+	struct hdhomerun_psi_vct_channel_t vct_channels[HDHOMERUN_PSI_VCT_CHANNELS_MAX];
+
+	uint64_t pmts_complete_time;
+	bool_t complete;
+	uint32_t change_count;
+
+	pthread_mutex_t listener_lock;
+	hdhomerun_psi_listener_t listeners[HDHOMERUN_PSI_LISTENERS_MAX];
+	void *listener_args[HDHOMERUN_PSI_LISTENERS_MAX];
+	unsigned int listener_count;
+};
+
+static void hdhomerun_psi_clear(struct hdhomerun_psi_t *psi)
+{
+	memset(psi->pid_slot, HDHOMERUN_PSI_SLOT_NONE, sizeof(psi->pid_slot));
+	psi->pid_slot[HDHOMERUN_PSI_PAT_PID] = HDHOMERUN_PSI_SLOT_PAT;
+	hdhomerun_psi_assembler_init(&psi->assemblers[HDHOMERUN_PSI_SLOT_PAT], HDHOMERUN_PSI_PAT_PID, psi->assembler_buffers[HDHOMERUN_PSI_SLOT_PAT], HDHOMERUN_PSI_SECTION_MAX);
+	psi->pid_slot[HDHOMERUN_PSI_PSIP_PID] = HDHOMERUN_PSI_SLOT_PSIP;
+	hdhomerun_psi_assembler_init(&psi->assemblers[HDHOMERUN_PSI_SLOT_PSIP], HDHOMERUN_PSI_PSIP_PID, psi->assembler_buffers[HDHOMERUN_PSI_SLOT_PSIP], HDHOMERUN_PSI_SECTION_MAX);
+	psi->assembler_count = HDHOMERUN_PSI_SLOT_FIRST_PMT;
+
+	psi->pat_received = FALSE;
+	psi->program_count = 0;
+
+	psi->vct_seen = FALSE;
+	memset(psi->vct_section_mask, 0, sizeof(psi->vct_section_mask));
+	psi->vct_channel_count = 0;
+
+	psi->pmts_complete_time = 0;
+	psi->complete = FALSE;
+}
+
+struct hdhomerun_psi_t *hdhomerun_psi_create(struct hdhomerun_debug_t *dbg)
+{
+	struct hdhomerun_psi_t *psi = (struct hdhomerun_psi_t *)calloc(1, sizeof(struct hdhomerun_psi_t));
+	if (!psi) {
+		hdhomerun_debug_printf(dbg, "hdhomerun_psi_create: failed to allocate psi object\n");
+		return NULL;
+	}
+
+	psi->dbg = dbg;
+	pthread_mutex_init(&psi->lock, NULL);
+	pthread_mutex_init(&psi->listener_lock, NULL);
+	hdhomerun_psi_clear(psi);
+
+	return psi;
+}
+
+void hdhomerun_psi_destroy(struct hdhomerun_psi_t *psi)
+{
+	free(psi);
+}
+
+static uint32_t hdhomerun_psi_read_u32(const uint8_t *ptr)
+{
+	return ((uint32_t)ptr[0] << 24) | ((uint32_t)ptr[1] << 16) | ((uint32_t)ptr[2] << 8) | (uint32_t)ptr[3];
+}
+
+/*
+ * The CRC-32 of MPEG-2 sections, polynomial 0x04C11DB7 with no reflection. Over a whole section
+ * including its CRC it comes out 0. Only sections that changed get here, so it goes bit by bit.
+ */
+bool_t hdhomerun_psi_crc_ok(const uint8_t *section, size_t length)
+{
+	uint32_t crc = 0xFFFFFFFF;
+	size_t i;
+	for (i = 0; i < length; i++) {
+		crc ^= (uint32_t)section[i] << 24;
+		int bit;
+		for (bit = 0; bit < 8; bit++) {
+			crc = (crc & 0x80000000) ? (crc << 1) ^ 0x04C11DB7 : (crc << 1);
+		}
+	}
+	return (crc == 0);
+}
+
+static void hdhomerun_psi_parse_pat(struct hdhomerun_psi_t *psi, const uint8_t *section, size_t length)
+{
+	struct hdhomerun_psi_program_t programs[HDHOMERUN_PSI_PROGRAMS_MAX];
+	uint32_t pmt_crcs[HDHOMERUN_PSI_PROGRAMS_MAX];
+	unsigned int program_count = 0;
+
+	const uint8_t *ptr = section + 8;
+	const uint8_t *end = section + length - 4;
+	while ((ptr + 4 <= end) && (program_count < HDHOMERUN_PSI_PROGRAMS_MAX)) {
+		uint16_t program_number = ((uint16_t)ptr[0] << 8) | (uint16_t)ptr[1];
+		uint16_t pmt_pid = ((uint16_t)(ptr[2] & 0x1F) << 8) | (uint16_t)ptr[3];
+		ptr += 4;
+
+		/* Program 0 is the network PID. */
+		if (program_number == 0) {
+			continue;
+		}
+
+		/* A program that kept its PMT PID keeps its PMT. */
+		struct hdhomerun_psi_program_t *program = &programs[program_count];
+		memset(program, 0, sizeof(struct hdhomerun_psi_program_t));
+		pmt_crcs[program_count] = 0;
+		unsigned int i;
+		for (i = 0; i < psi->program_count; i++) {
+			if ((psi->programs[i].program_number == program_number) && (psi->programs[i].pmt_pid == pmt_pid)) {
+				*program = psi->programs[i];
+				pmt_crcs[program_count] = psi->pmt_crcs[i];
+				break;
+			}
+		}
+		program->program_number = program_number;
+		program->pmt_pid = pmt_pid;
+		program_count++;
+	}
+
+	memcpy(psi->programs, programs, program_count * sizeof(struct hdhomerun_psi_program_t));
+	memcpy(psi->pmt_crcs, pmt_crcs, program_count * sizeof(uint32_t));
+	psi->program_count = program_count;
+
+	/* Follow each PMT PID once, programs may share one. */
+	unsigned int slot;
+	for (slot = HDHOMERUN_PSI_SLOT_FIRST_PMT; slot < psi->assembler_count; slot++) {
+		psi->pid_slot[psi->assemblers[slot].pid] = HDHOMERUN_PSI_SLOT_NONE;
+	}
+	psi->assembler_count = HDHOMERUN_PSI_SLOT_FIRST_PMT;
+
+	unsigned int i;
+	for (i = 0; i < program_count; i++) {
+		uint16_t pmt_pid = programs[i].pmt_pid;
+		if (psi->pid_slot[pmt_pid] != HDHOMERUN_PSI_SLOT_NONE) {
+			continue;
+		}
+
+		hdhomerun_psi_assembler_init(&psi->assemblers[psi->assembler_count], pmt_pid, psi->assembler_buffers[psi->assembler_count], HDHOMERUN_PSI_SECTION_MAX);
+		psi->pid_slot[pmt_pid] = (uint8_t)psi->assembler_count;
+		psi->assembler_count++;
+	}
+}
+
+/*
+ * Returns TRUE if the descriptor loop has a CA descriptor.
+ */
+static bool_t hdhomerun_psi_has_ca_descriptor(const uint8_t *ptr, const uint8_t *end)
+{
+	while (ptr + 2 <= end) {
+		if (ptr[0] == HDHOMERUN_PSI_DESCRIPTOR_CA) {
+			return TRUE;
+		}
+		ptr += 2 + ptr[1];
+	}
+	return FALSE;
+}
+
+static void hdhomerun_psi_parse_pmt(struct hdhomerun_psi_program_t *program, const uint8_t *section, size_t length)
+{
+	program->pmt_received = TRUE;
+	program->pmt_version = (section[5] >> 1) & 0x1F;
+	program->pcr_pid = ((uint16_t)(section[8] & 0x1F) << 8) | (uint16_t)section[9];
+	program->stream_count = 0;
+	program->streams_truncated = FALSE;
+
+	size_t program_info_length = ((size_t)(section[10] & 0x0F) << 8) | (size_t)section[11];
+	const uint8_t *ptr = section + 12 + program_info_length;
+	const uint8_t *end = section + length - 4;
+	if (ptr > end) {
+		ptr = end;
+	}
+	program->pmt_ca = hdhomerun_psi_has_ca_descriptor(section + 12, ptr);
+
+	/* Streams past the array are still walked so their CA descriptors count. */
+	while (ptr + 5 <= end) {
+		if (program->stream_count < HDHOMERUN_PSI_STREAMS_MAX) {
+			program->stream_types[program->stream_count] = ptr[0];
+			program->stream_pids[program->stream_count] = ((uint16_t)(ptr[1] & 0x1F) << 8) | (uint16_t)ptr[2];
+			program->stream_count++;
+		} else {
+			program->streams_truncated = TRUE;
+		}
+
+		size_t es_info_length = ((size_t)(ptr[3] & 0x0F) << 8) | (size_t)ptr[4];
+		const uint8_t *es_end = ptr + 5 + es_info_length;
+		if (es_end > end) {
+			es_end = end;
+		}
+		program->pmt_ca |= hdhomerun_psi_has_ca_descriptor(ptr + 5, es_end);
+		ptr = es_end;
+	}
+}
+
+/*
+ * The 7 UTF-16 characters of a short_name as UTF-8, up to the first NUL and without trailing spaces.
+ */
+static void hdhomerun_psi_short_name(char *name, const uint8_t *ptr)
+{
+	char *pos = name;
+	int i;
+	for (i = 0; i < 7; i++) {
+		uint16_t c = ((uint16_t)ptr[i * 2] << 8) | (uint16_t)ptr[i * 2 + 1];
+		if (c == 0) {
+			break;
+		}
+		if (c < 0x80) {
+			*pos++ = (char)c;
+		} else if (c < 0x800) {
+			*pos++ = (char)(0xC0 | (c >> 6));
+			*pos++ = (char)(0x80 | (c & 0x3F));
+		} else {
+			*pos++ = (char)(0xE0 | (c >> 12));
+			*pos++ = (char)(0x80 | ((c >> 6) & 0x3F));
+			*pos++ = (char)(0x80 | (c & 0x3F));
+		}
+	}
+	while ((pos > name) && (pos[-1] == ' ')) {
+		pos--;
+	}
+	*pos = 0;
+}
+
+/*
+ * Replaces the channels of one section of the VCT.
+ */
+static void hdhomerun_psi_parse_vct(struct hdhomerun_psi_t *psi, const uint8_t *section, size_t length)
+{
+	uint8_t section_number = section[6];
+
+	unsigned int i = 0;
+	while (i < psi->vct_channel_count) {
+		if (psi->vct_channels[i].section_number == section_number) {
+			psi->vct_channel_count--;
+			psi->vct_channels[i] = psi->vct_channels[psi->vct_channel_count];
+			continue;
+		}
+		i++;
+	}
+
+	unsigned int num_channels_in_section = section[9];
+	const uint8_t *ptr = section + 10;
+	const uint8_t *end = section + length - 4;
+	while ((num_channels_in_section > 0) && (ptr + 32 <= end) && (psi->vct_channel_count < HDHOMERUN_PSI_VCT_CHANNELS_MAX)) {
+		struct hdhomerun_psi_vct_channel_t *channel = &psi->vct_channels[psi->vct_channel_count++];
+		channel->section_number = section_number;
+		hdhomerun_psi_short_name(channel->name, ptr);
+		channel->virtual_major = ((uint16_t)(ptr[14] & 0x0F) << 6) | (uint16_t)(ptr[15] >> 2);
+		channel->virtual_minor = ((uint16_t)(ptr[15] & 0x03) << 8) | (uint16_t)ptr[16];
+		channel->channel_tsid = ((uint16_t)ptr[22] << 8) | (uint16_t)ptr[23];
+		channel->program_number = ((uint16_t)ptr[24] << 8) | (uint16_t)ptr[25];
+		channel->access_controlled = (ptr[26] & 0x20) ? TRUE : FALSE;
+		channel->hidden = (ptr[26] & 0x10) ? TRUE : FALSE;
+		channel->service_type = ptr[27] & 0x3F;
+		channel->source_id = ((uint16_t)ptr[28] << 8) | (uint16_t)ptr[29];
+
+		size_t descriptors_length = ((size_t)(ptr[30] & 0x03) << 8) | (size_t)ptr[31];
+		ptr += 32 + descriptors_length;
+		num_channels_in_section--;
+	}
+}
+
+/*
+ * Gives each program of the PAT what the VCT lists for it. A VCT may list the channels of other
+ * transport streams too, so a channel of this one is preferred over another with the same program.
+ */
+static void hdhomerun_psi_apply_vct(struct hdhomerun_psi_t *psi)
+{
+	unsigned int i;
+	for (i = 0; i < psi->program_count; i++) {
+		struct hdhomerun_psi_program_t *program = &psi->programs[i];
+		struct hdhomerun_psi_vct_channel_t *match = NULL;
+
+		unsigned int j;
+		for (j = 0; j < psi->vct_channel_count; j++) {
+			struct hdhomerun_psi_vct_channel_t *channel = &psi->vct_channels[j];
+			if (channel->program_number != program->program_number) {
+				continue;
+			}
+			if (channel->channel_tsid == psi->transport_stream_id) {
+				match = channel;
+				break;
+			}
+			if (!match) {
+				match = channel;
+			}
+		}
+
+		if (!match) {
+			program->vct_received = FALSE;
+			program->virtual_major = 0;
+			program->virtual_minor = 0;
+			program->source_id = 0;
+			program->service_type = 0;
+			program->access_controlled = FALSE;
+			program->hidden = FALSE;
+			program->name[0] = 0;
+			continue;
+		}
+
+		program->vct_received = TRUE;
+		program->virtual_major = match->virtual_major;
+		program->virtual_minor = match->virtual_minor;
+		program->source_id = match->source_id;
+		program->service_type = match->service_type;
+		program->access_controlled = match->access_controlled;
+		program->hidden = match->hidden;
+		strcpy(program->name, match->name);
+	}
+}
+
+static bool_t hdhomerun_psi_vct_complete(struct hdhomerun_psi_t *psi)
+{
+	if (!psi->vct_seen) {
+		return FALSE;
+	}
+
+	unsigned int section;
+	for (section = 0; section <= psi->vct_last_section; section++) {
+		if (!(psi->vct_section_mask[section / 32] & (1U << (section % 32)))) {
+			return FALSE;
+		}
+	}
+	return TRUE;
+}
+
+static bool_t hdhomerun_psi_vct_section(struct hdhomerun_psi_t *psi, const uint8_t *section, size_t length, uint32_t crc)
+{
+	uint8_t table_id = section[0];
+	uint8_t version = (section[5] >> 1) & 0x1F;
+	uint8_t section_number = section[6];
+	uint8_t last_section_number = section[7];
+
+	/* A cable multiplex could carry both, the first one seen is followed. */
+	if (psi->vct_seen && (table_id != psi->vct_table_id)) {
+		return FALSE;
+	}
+	if (section_number > last_section_number) {
+		return FALSE;
+	}
+
+	uint32_t section_bit = 1U << (section_number % 32);
+	bool_t same_table = psi->vct_seen && (version == psi->vct_version) && (last_section_number == psi->vct_last_section);
+	if (same_table && (psi->vct_section_mask[section_number / 32] & section_bit) && (crc == psi->vct_crcs[section_number])) {
+		return FALSE;
+	}
+	if (!hdhomerun_psi_crc_ok(section, length)) {
+		return FALSE;
+	}
+
+	/* A new version replaces every section. */
+	if (!same_table) {
+		memset(psi->vct_section_mask, 0, sizeof(psi->vct_section_mask));
+		psi->vct_channel_count = 0;
+		psi->vct_seen = TRUE;
+		psi->vct_table_id = table_id;
+		psi->vct_version = version;
+		psi->vct_last_section = last_section_number;
+	}
+
+	hdhomerun_psi_parse_vct(psi, section, length);
+	psi->vct_section_mask[section_number / 32] |= section_bit;
+	psi->vct_crcs[section_number] = crc;
+
+	hdhomerun_psi_apply_vct(psi);
+	return TRUE;
+}
+
+/*
+ * Returns TRUE if the tables changed.
+ */
+static bool_t hdhomerun_psi_section(void *arg, uint16_t pid, const uint8_t *section, size_t length)
+{
+	struct hdhomerun_psi_t *psi = (struct hdhomerun_psi_t *)arg;
+
+	/* Long form, current, at least a header and CRC. */
+	if ((length < 12) || !(section[1] & 0x80) || !(section[5] & 0x01)) {
+		return FALSE;
+	}
+
+	uint32_t crc = hdhomerun_psi_read_u32(section + length - 4);
+	uint16_t table_id_extension = ((uint16_t)section[3] << 8) | (uint16_t)section[4];
+
+	if (pid == HDHOMERUN_PSI_PAT_PID) {
+		/* Only single section PATs, which is what a tuner's multiplex carries. */
+		if ((section[0] != HDHOMERUN_PSI_TABLE_ID_PAT) || (section[6] != 0)) {
+			return FALSE;
+		}
+		if (psi->pat_received && (crc == psi->pat_crc)) {
+			return FALSE;
+		}
+		if (!hdhomerun_psi_crc_ok(section, length)) {
+			return FALSE;
+		}
+
+		hdhomerun_psi_parse_pat(psi, section, length);
+		psi->pat_received = TRUE;
+		psi->pat_crc = crc;
+		psi->transport_stream_id = table_id_extension;
+		hdhomerun_psi_apply_vct(psi);
+		return TRUE;
+	}
+
+	if ((pid == HDHOMERUN_PSI_PSIP_PID) && ((section[0] == HDHOMERUN_PSI_TABLE_ID_TVCT) || (section[0] == HDHOMERUN_PSI_TABLE_ID_CVCT))) {
+		if (length < 16) {
+			return FALSE;
+		}
+		return hdhomerun_psi_vct_section(psi, section, length, crc);
+	}
+
+	if ((section[0] != HDHOMERUN_PSI_TABLE_ID_PMT) || (length < 16)) {
+		return FALSE;
+	}
+
+	unsigned int i;
+	for (i = 0; i < psi->program_count; i++) {
+		struct hdhomerun_psi_program_t *program = &psi->programs[i];
+		if ((program->program_number != table_id_extension) || (program->pmt_pid != pid)) {
+			continue;
+		}
+
+		if (program->pmt_received && (crc == psi->pmt_crcs[i])) {
+			return FALSE;
+		}
+		if (!hdhomerun_psi_crc_ok(section, length)) {
+			return FALSE;
+		}
+
+		hdhomerun_psi_parse_pmt(program, section, length);
+		psi->pmt_crcs[i] = crc;
+		if (program->streams_truncated) {
+			hdhomerun_debug_printf(psi->dbg, "hdhomerun_psi: program %u has more than %u streams, only the first are listed\n", (unsigned int)program->program_number, HDHOMERUN_PSI_STREAMS_MAX);
+		}
+		return TRUE;
+	}
+
+	return FALSE;
+}
+
+void hdhomerun_psi_assembler_init(struct hdhomerun_psi_assembler_t *assembler, uint16_t pid, uint8_t *buffer, size_t buffer_size)
+{
+	memset(assembler, 0, sizeof(struct hdhomerun_psi_assembler_t));
+	assembler->pid = pid;
+	assembler->buffer = buffer;
+	assembler->buffer_size = buffer_size;
+}
+
+static bool_t hdhomerun_psi_append(struct hdhomerun_psi_assembler_t *assembler, const uint8_t *ptr, const uint8_t *end, hdhomerun_psi_section_func_t func, void *arg)
+{
+	bool_t changed = FALSE;
+
+	while (ptr < end) {
+		/* Stuffing after the last section of the packet. */
+		if ((assembler->length == 0) && (*ptr == 0xFF)) {
+			assembler->active = FALSE;
+			break;
+		}
+
+		size_t want = (assembler->total == 0) ? 3 - assembler->length : assembler->total - assembler->length;
+		size_t size = (size_t)(end - ptr);
+		if (size > want) {
+			size = want;
+		}
+		memcpy(assembler->buffer + assembler->length, ptr, size);
+		assembler->length += size;
+		ptr += size;
+
+		if (assembler->total == 0) {
+			if (assembler->length < 3) {
+				break;
+			}
+			assembler->total = 3 + (((size_t)(assembler->buffer[1] & 0x0F) << 8) | (size_t)assembler->buffer[2]);
+			if (assembler->total > assembler->buffer_size) {
+				assembler->active = FALSE;
+				break;
+			}
+			continue;
+		}
+
+		if (assembler->length == assembler->total) {
+			changed |= func(arg, assembler->pid, assembler->buffer, assembler->total);
+			assembler->length = 0;
+			assembler->total = 0;
+		}
+	}
+
+	return changed;
+}
+
+bool_t hdhomerun_psi_assembler_packet(struct hdhomerun_psi_assembler_t *assembler, const uint8_t *pkt, hdhomerun_psi_section_func_t func, void *arg)
+{
+	if (pkt[1] & 0x80) {
+		/* Transport error, the section in progress is lost. */
+		assembler->active = FALSE;
+		return FALSE;
+	}
+
+	uint8_t adaptation_field_control = (pkt[3] >> 4) & 0x03;
+	if (!(adaptation_field_control & 0x01)) {
+		return FALSE;
+	}
+
+	const uint8_t *ptr = pkt + 4;
+	const uint8_t *end = pkt + TS_PACKET_SIZE;
+	if (adaptation_field_control == 0x03) {
+		ptr += 1 + ptr[0];
+		if (ptr >= end) {
+			return FALSE;
+		}
+	}
+
+	uint8_t continuity = pkt[3] & 0x0F;
+	if (assembler->active) {
+		if (continuity == assembler->continuity) {
+			return FALSE;
+		}
+		if (continuity != ((assembler->continuity + 1) & 0x0F)) {
+			assembler->active = FALSE;
+		}
+	}
+	assembler->continuity = continuity;
+
+	if (!(pkt[1] & 0x40)) {
+		if (!assembler->active) {
+			return FALSE;
+		}
+		return hdhomerun_psi_append(assembler, ptr, end, func, arg);
+	}
+
+	/* The pointer field says where the first section starting in this packet begins. */
+	size_t pointer = *ptr++;
+	if (ptr + pointer >= end) {
+		assembler->active = FALSE;
+		return FALSE;
+	}
+
+	bool_t changed = FALSE;
+	if (assembler->active && (pointer > 0)) {
+		changed = hdhomerun_psi_append(assembler, ptr, ptr + pointer, func, arg);
+	}
+
+	assembler->active = TRUE;
+	assembler->length = 0;
+	assembler->total = 0;
+	changed |= hdhomerun_psi_append(assembler, ptr + pointer, end, func, arg);
+	return changed;
+}
+
+/*
+ * Returns TRUE if the tables became complete or stopped being so.
+ */
+static bool_t hdhomerun_psi_update_complete(struct hdhomerun_psi_t *psi)
+{
+	bool_t complete = FALSE;
+
+	unsigned int pmt_received_count = 0;
+	unsigned int i;
+	for (i = 0; i < psi->program_count; i++) {
+		if (psi->programs[i].pmt_received) {
+			pmt_received_count++;
+		}
+	}
+
+	if (psi->pat_received && (pmt_received_count == psi->program_count)) {
+		uint64_t current_time = getcurrenttime();
+		if (psi->pmts_complete_time == 0) {
+			psi->pmts_complete_time = current_time;
+		}
+
+		if (psi->vct_seen) {
+			complete = hdhomerun_psi_vct_complete(psi);
+		} else {
+			complete = (current_time >= psi->pmts_complete_time + HDHOMERUN_PSI_VCT_WAIT_MS);
+		}
+	} else {
+		psi->pmts_complete_time = 0;
+	}
+
+	if (complete == psi->complete) {
+		return FALSE;
+	}
+
+	psi->complete = complete;
+	return TRUE;
+}
+
+static void hdhomerun_psi_notify(struct hdhomerun_psi_t *psi)
+{
+	pthread_mutex_lock(&psi->listener_lock);
+	unsigned int i;
+	for (i = 0; i < psi->listener_count; i++) {
+		psi->listeners[i](psi, psi->listener_args[i]);
+	}
+	pthread_mutex_unlock(&psi->listener_lock);
+}
+
+void hdhomerun_psi_process(struct hdhomerun_psi_t *psi, const uint8_t *packets, size_t count)
+{
+	bool_t changed = FALSE;
+
+	pthread_mutex_lock(&psi->lock);
+
+	size_t i;
+	for (i = 0; i < count; i++) {
+		const uint8_t *pkt = packets + i * TS_PACKET_SIZE;
+		uint16_t pid = ((uint16_t)(pkt[1] & 0x1F) << 8) | (uint16_t)pkt[2];
+
+		uint8_t slot = psi->pid_slot[pid];
+		if ((slot == HDHOMERUN_PSI_SLOT_NONE) || (pkt[0] != 0x47)) {
+			continue;
+		}
+
+		changed |= hdhomerun_psi_assembler_packet(&psi->assemblers[slot], pkt, hdhomerun_psi_section, psi);
+	}
+
+	/* Nothing to look at once complete, until the tables change. */
+	if (changed || !psi->complete) {
+		changed |= hdhomerun_psi_update_complete(psi);
+	}
+
+	if (changed) {
+		psi->change_count++;
+	}
+
+	pthread_mutex_unlock(&psi->lock);
+
+	if (changed) {
+		hdhomerun_psi_notify(psi);
+	}
+}
+
+void hdhomerun_psi_reset(struct hdhomerun_psi_t *psi)
+{
+	pthread_mutex_lock(&psi->lock);
+	hdhomerun_psi_clear(psi);
+	psi->change_count++;
+	pthread_mutex_unlock(&psi->lock);
+
+	hdhomerun_psi_notify(psi);
+}
+
+int hdhomerun_psi_get_programs(struct hdhomerun_psi_t *psi, struct hdhomerun_psi_program_t programs[], unsigned int max_count, struct hdhomerun_psi_status_t *status)
+{
+	pthread_mutex_lock(&psi->lock);
+
+	if (status) {
+		memset(status, 0, sizeof(struct hdhomerun_psi_status_t));
+		status->pat_received = psi->pat_received;
+		status->transport_stream_id = psi->transport_stream_id;
+		status->program_count = psi->program_count;
+		status->vct_received = hdhomerun_psi_vct_complete(psi);
+		status->complete = psi->complete;
+		status->change_count = psi->change_count;
+
+		unsigned int i;
+		for (i = 0; i < psi->program_count; i++) {
+			if (psi->programs[i].pmt_received) {
+				status->pmt_received_count++;
+			}
+		}
+	}
+
+	if (!psi->pat_received) {
+		pthread_mutex_unlock(&psi->lock);
+		return -1;
+	}
+
+	unsigned int count = psi->program_count;
+	if (count > max_count) {
+		count = max_count;
+	}
+	if (count > 0) {
+		memcpy(programs, psi->programs, count * sizeof(struct hdhomerun_psi_program_t));
+	}
+
+	int ret = (int)psi->program_count;
+	pthread_mutex_unlock(&psi->lock);
+	return ret;
+}
+
+bool_t hdhomerun_psi_add_listener(struct hdhomerun_psi_t *psi, hdhomerun_psi_listener_t listener, void *arg)
+{
+	pthread_mutex_lock(&psi->listener_lock);
+
+	if (psi->listener_count >= HDHOMERUN_PSI_LISTENERS_MAX) {
+		pthread_mutex_unlock(&psi->listener_lock);
+		return FALSE;
+	}
+
+	psi->listeners[psi->listener_count] = listener;
+	psi->listener_args[psi->listener_count] = arg;
+	psi->listener_count++;
+
+	pthread_mutex_unlock(&psi->listener_lock);
+	return TRUE;
+}
+
+void hdhomerun_psi_remove_listener(struct hdhomerun_psi_t *psi, hdhomerun_psi_listener_t listener, void *arg)
+{
+	pthread_mutex_lock(&psi->listener_lock);
+
+	unsigned int i;
+	for (i = 0; i < psi->listener_count; i++) {
+		if ((psi->listeners[i] == listener) && (psi->listener_args[i] == arg)) {
+			psi->listener_count--;
+			psi->listeners[i] = psi->listeners[psi->listener_count];
+			psi->listener_args[i] = psi->listener_args[psi->listener_count];
+			break;
+		}
+	}
+
+	pthread_mutex_unlock(&psi->listener_lock);
+}
@@ -0,0 +1,158 @@
+/*
+ * hdhomerun_psi.h
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+#define HDHOMERUN_PSI_PROGRAMS_MAX 64
+#define HDHOMERUN_PSI_STREAMS_MAX 16
+#define HDHOMERUN_PSI_LISTENERS_MAX 4
+#define HDHOMERUN_PSI_VCT_CHANNELS_MAX 128
+
+/* The 7 UTF-16 characters of a VCT short_name as UTF-8. */
+#define HDHOMERUN_PSI_NAME_MAX 22
+
+/* VCT service_type of a channel with no audio or video. */
+#define HDHOMERUN_PSI_SERVICE_TYPE_DATA 0x04
+
+/* A TVCT repeats at least every 400ms, after this long without one the stream has none. */
+#define HDHOMERUN_PSI_VCT_WAIT_MS 500
+
+#define HDHOMERUN_PSI_PAT_PID 0x0000
+#define HDHOMERUN_PSI_PSIP_PID 0x1FFB
+
+/* A PAT, PMT or VCT section is at most 1024 bytes, an EIT or ETT 4096. */
+#define HDHOMERUN_PSI_SECTION_MAX 1024
+#define HDHOMERUN_PSI_PRIVATE_SECTION_MAX 4096
+
+struct hdhomerun_psi_t;
+
+/*
+ * Puts the sections of one PID back together from its TS packets, into a buffer of the caller's
+ * sized for the longest section expected. A longer one, or one broken by a lost packet, is dropped.
+ */
+struct hdhomerun_psi_assembler_t {
+	uint16_t pid;
+	bool_t active;
+	uint8_t continuity;
+	size_t length;
+	size_t total;
+	uint8_t *buffer;
+	size_t buffer_size;
+};
+
+/*
+ * Called with every whole section, before its CRC is checked. Returns TRUE if it changed anything.
+ */
+typedef bool_t (*hdhomerun_psi_section_func_t)(void *arg, uint16_t pid, const uint8_t *section, size_t length);
+
+struct hdhomerun_psi_program_t {
+	uint16_t program_number;
+	uint16_t pmt_pid;
+	bool_t pmt_received;
+	uint8_t pmt_version;
+	bool_t pmt_ca;
+	uint16_t pcr_pid;
+	unsigned int stream_count;
+	uint8_t stream_types[HDHOMERUN_PSI_STREAMS_MAX];
+	uint16_t stream_pids[HDHOMERUN_PSI_STREAMS_MAX];
+	/* The PMT lists more than HDHOMERUN_PSI_STREAMS_MAX streams, the later ones aren't above. */
+	bool_t streams_truncated;
+
+	/* From the TVCT or CVCT on the PSIP PID, if it lists the program. */
+	bool_t vct_received;
+	uint16_t virtual_major;
+	uint16_t virtual_minor;
+	uint16_t source_id;
+	uint8_t service_type;
+	bool_t access_controlled;
+	bool_t hidden;
+	char name[HDHOMERUN_PSI_NAME_MAX];
+};
+
+struct hdhomerun_psi_status_t {
+	bool_t pat_received;
+	uint16_t transport_stream_id;
+	unsigned int program_count;
+	unsigned int pmt_received_count;
+	bool_t vct_received;
+	bool_t complete;
+	uint32_t change_count;
+};
+
+/*
+ * Called on the receive thread after the tables change. It may read the tables, but must not
+ * block or add and remove listeners.
+ */
+typedef void (*hdhomerun_psi_listener_t)(struct hdhomerun_psi_t *psi, void *arg);
+
+/*
+ * Tracks the PAT, the PMTs it lists and the ATSC virtual channel table as the stream arrives.
+ *
+ * Only packets on the PIDs of tables being followed are looked at, and a repeat of a section
+ * is recognised by its CRC and skipped without being parsed. The video socket creates one
+ * when asked by hdhomerun_video_get_psi and feeds it every datagram it stores.
+ *
+ * The tables are complete once the PAT, every PMT it lists and every section of the VCT have
+ * been received, or the PAT and PMTs and no VCT within HDHOMERUN_PSI_VCT_WAIT_MS of them.
+ * Becoming complete is a change that calls the listeners like any other.
+ */
+extern LIBTYPE struct hdhomerun_psi_t *hdhomerun_psi_create(struct hdhomerun_debug_t *dbg);
+extern LIBTYPE void hdhomerun_psi_destroy(struct hdhomerun_psi_t *psi);
+
+/*
+ * Feed TS packets, count of them at TS_PACKET_SIZE apart.
+ */
+extern LIBTYPE void hdhomerun_psi_process(struct hdhomerun_psi_t *psi, const uint8_t *packets, size_t count);
+
+/*
+ * Section assembly on its own, for tables other than the ones hdhomerun_psi follows. Returns what
+ * func returned for the sections the packet completed, FALSE if it completed none.
+ */
+extern LIBTYPE void hdhomerun_psi_assembler_init(struct hdhomerun_psi_assembler_t *assembler, uint16_t pid, uint8_t *buffer, size_t buffer_size);
+extern LIBTYPE bool_t hdhomerun_psi_assembler_packet(struct hdhomerun_psi_assembler_t *assembler, const uint8_t *pkt, hdhomerun_psi_section_func_t func, void *arg);
+
+/*
+ * Returns TRUE if the CRC_32 at the end of the section is right.
+ */
+extern LIBTYPE bool_t hdhomerun_psi_crc_ok(const uint8_t *section, size_t length);
+
+/*
+ * Forget the tables, for a new channel. The listeners are called.
+ */
+extern LIBTYPE void hdhomerun_psi_reset(struct hdhomerun_psi_t *psi);
+
+/*
+ * Copy the programs of the PAT, with what their PMTs and the VCT list once received.
+ *
+ * Returns the number of programs in the PAT, which may be more than max_count, or -1 if no PAT has
+ * been received. programs may be NULL if max_count is 0. *status, if not NULL, is filled in from
+ * the same tables. Its change_count changes with every table change.
+ */
+extern LIBTYPE int hdhomerun_psi_get_programs(struct hdhomerun_psi_t *psi, struct hdhomerun_psi_program_t programs[], unsigned int max_count, struct hdhomerun_psi_status_t *status);
+
+/*
+ * Add/remove a listener called when the tables change. Returns FALSE if HDHOMERUN_PSI_LISTENERS_MAX
+ * are already added. Once hdhomerun_psi_remove_listener returns the listener isn't being called.
+ */
+extern LIBTYPE bool_t hdhomerun_psi_add_listener(struct hdhomerun_psi_t *psi, hdhomerun_psi_listener_t listener, void *arg);
+extern LIBTYPE void hdhomerun_psi_remove_listener(struct hdhomerun_psi_t *psi, hdhomerun_psi_listener_t listener, void *arg);
+
+#ifdef __cplusplus
+}
+#endif
@@ -0,0 +1,927 @@
+/*
+ * hdhomerun_recorder.c
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+#include "hdhomerun.h"
+
+#if defined(__linux__)
+#include <sys/syscall.h>
+#include <sys/mman.h>
+#include <sys/uio.h>
+#if defined(__NR_io_uring_setup) && defined(__has_include)
+#if __has_include(<linux/io_uring.h>)
+#include <linux/io_uring.h>
+#define HDHOMERUN_RECORDER_IO_URING
+#endif
+#endif
+#endif
+
+#define HDHOMERUN_RECORDER_PAGE_SIZE 4096
+#define HDHOMERUN_RECORDER_PREALLOCATE_BLOCKS 32
+#define HDHOMERUN_RECORDER_WAIT_MS 250
+#define HDHOMERUN_RECORDER_URING_ENTRIES 256
+
+struct hdhomerun_recorder_segment_t {
+	FILE *fp;
+	uint64_t submitted;
+	uint64_t preallocated;
+	unsigned int pending;
+	bool_t closing;
+	bool_t failed;
+};
+
+struct hdhomerun_recorder_block_t {
+	struct hdhomerun_recorder_t *rec;
+	struct hdhomerun_recorder_segment_t *segment;
+	uint8_t *data;
+	size_t size;
+	size_t done;
+	uint64_t offset;
+	uint64_t ready_time;
+	volatile bool_t busy;
+#if defined(HDHOMERUN_RECORDER_IO_URING)
+	struct iovec iov;
+#endif
+};
+
+struct hdhomerun_recorder_t {
+	struct hdhomerun_device_t *hd;
+	struct hdhomerun_debug_t *dbg;
+	char *path;
+	uint64_t segment_size;
+
+	uint8_t *pool;
+	struct hdhomerun_recorder_block_t *blocks;
+	unsigned int block_count;
+
+	pthread_mutex_t lock;
+	thread_cond_t full_cond;
+	thread_cond_t free_cond;
+	unsigned int fill_index;
+	unsigned int write_index;
+	volatile unsigned int full_count;
+
+	pthread_t receive_thread;
+	pthread_t write_thread;
+	bool_t write_thread_started;
+	volatile bool_t terminate;
+	volatile bool_t receive_done;
+
+	struct hdhomerun_recorder_uring_t *uring;
+	struct hdhomerun_recorder_segment_t *segment;
+
+	struct hdhomerun_recorder_stats_t stats;
+};
+
+static volatile bool_t hdhomerun_recorder_use_io_uring = FALSE;
+
+static uint64_t hdhomerun_recorder_time_us(void)
+{
+#if defined(_WIN32)
+	return getcurrenttime() * 1000;
+#else
+	struct timeval t;
+	gettimeofday(&t, NULL);
+	return ((uint64_t)t.tv_sec * 1000000) + t.tv_usec;
+#endif
+}
+
+static void hdhomerun_recorder_close_segment(struct hdhomerun_recorder_t *rec, struct hdhomerun_recorder_segment_t *segment)
+{
+#if defined(__linux__)
+	/* Give back what was reserved past the end. */
+	if (segment->preallocated > segment->submitted) {
+		if (ftruncate(fileno(segment->fp), (off_t)segment->submitted) != 0) {
+			hdhomerun_debug_printf(rec->dbg, "hdhomerun_recorder_close_segment: truncate failed (%d)\n", errno);
+		}
+	}
+#endif
+
+	fclose(segment->fp);
+	free(segment);
+}
+
+/*
+ * Stop adding to the current segment, it is closed once its last write completes.
+ */
+static void hdhomerun_recorder_retire_segment(struct hdhomerun_recorder_t *rec)
+{
+	struct hdhomerun_recorder_segment_t *segment = rec->segment;
+	if (!segment) {
+		return;
+	}
+	rec->segment = NULL;
+
+	pthread_mutex_lock(&rec->lock);
+	segment->closing = TRUE;
+	bool_t idle = (segment->pending == 0);
+	pthread_mutex_unlock(&rec->lock);
+
+	if (idle) {
+		hdhomerun_recorder_close_segment(rec, segment);
+	}
+}
+
+/*
+ * Reserve the next blocks of the file so it isn't fragmented by the other recordings,
+ * keeping the size so a recording that stops early isn't padded.
+ */
+static void hdhomerun_recorder_preallocate(struct hdhomerun_recorder_t *rec, struct hdhomerun_recorder_segment_t *segment)
+{
+	uint64_t length = (uint64_t)HDHOMERUN_RECORDER_BLOCK_SIZE * HDHOMERUN_RECORDER_PREALLOCATE_BLOCKS;
+	if ((rec->segment_size > 0) && (segment->preallocated + length > rec->segment_size)) {
+		length = rec->segment_size - segment->preallocated;
+	}
+	if (length == 0) {
+		return;
+	}
+
+#if defined(__linux__) && defined(__NR_fallocate)
+	if (syscall(__NR_fallocate, fileno(segment->fp), 0x01 /* FALLOC_FL_KEEP_SIZE */, (off_t)segment->preallocated, (off_t)length) != 0) {
+		hdhomerun_debug_printf(rec->dbg, "hdhomerun_recorder_preallocate: fallocate failed (%d)\n", errno);
+	}
+#endif
+
+	segment->preallocated += length;
+}
+
+static struct hdhomerun_recorder_segment_t *hdhomerun_recorder_open_segment(struct hdhomerun_recorder_t *rec)
+{
+	char name[1024];
+
+	/* An unsegmented recording only moves on after a failed write, to a numbered file rather than over itself. */
+	if ((rec->segment_size == 0) && (rec->stats.segment_count == 0)) {
+		hdhomerun_sprintf(name, name + sizeof(name), "%s", rec->path);
+	} else {
+		const char *slash = strrchr(rec->path, '/');
+		const char *dot = strrchr(rec->path, '.');
+		if (!dot || (slash && (dot < slash))) {
+			dot = rec->path + strlen(rec->path);
+		}
+		hdhomerun_sprintf(name, name + sizeof(name), "%.*s-%04u%s", (int)(dot - rec->path), rec->path, (unsigned int)rec->stats.segment_count, dot);
+	}
+
+	struct hdhomerun_recorder_segment_t *segment = (struct hdhomerun_recorder_segment_t *)calloc(1, sizeof(struct hdhomerun_recorder_segment_t));
+	if (!segment) {
+		return NULL;
+	}
+
+	segment->fp = fopen(name, "wb");
+	if (!segment->fp) {
+		hdhomerun_debug_printf(rec->dbg, "hdhomerun_recorder_open_segment: unable to create %s (%d)\n", name, errno);
+		free(segment);
+		return NULL;
+	}
+
+	/* Blocks are written whole, stdio buffering would only add a copy. */
+	setvbuf(segment->fp, NULL, _IONBF, 0);
+
+	pthread_mutex_lock(&rec->lock);
+	rec->stats.segment_count++;
+	pthread_mutex_unlock(&rec->lock);
+	return segment;
+}
+
+/*
+ * Give the block its place in the file, rotating and preallocating as needed.
+ */
+static bool_t hdhomerun_recorder_place_block(struct hdhomerun_recorder_t *rec, struct hdhomerun_recorder_block_t *block)
+{
+	if (rec->segment) {
+		pthread_mutex_lock(&rec->lock);
+		bool_t failed = rec->segment->failed;
+		pthread_mutex_unlock(&rec->lock);
+
+		/* After a failed write later blocks go to a new file rather than after a gap. */
+		if (failed || ((rec->segment_size > 0) && (rec->segment->submitted >= rec->segment_size))) {
+			hdhomerun_recorder_retire_segment(rec);
+		}
+	}
+	if (!rec->segment) {
+		rec->segment = hdhomerun_recorder_open_segment(rec);
+		if (!rec->segment) {
+			return FALSE;
+		}
+	}
+
+	struct hdhomerun_recorder_segment_t *segment = rec->segment;
+	if (segment->submitted + block->size > segment->preallocated) {
+		hdhomerun_recorder_preallocate(rec, segment);
+	}
+
+	block->segment = segment;
+	block->offset = segment->submitted;
+	block->done = 0;
+	segment->submitted += block->size;
+
+	pthread_mutex_lock(&rec->lock);
+	segment->pending++;
+	pthread_mutex_unlock(&rec->lock);
+	return TRUE;
+}
+
+/*
+ * The block's write finished, or failed, free it for the receive thread.
+ */
+static void hdhomerun_recorder_block_done(struct hdhomerun_recorder_t *rec, struct hdhomerun_recorder_block_t *block, bool_t success)
+{
+	struct hdhomerun_recorder_segment_t *segment = block->segment;
+	struct hdhomerun_recorder_segment_t *close_segment = NULL;
+	uint64_t elapsed = hdhomerun_recorder_time_us() - block->ready_time;
+
+	unsigned int bucket = 0;
+	while ((bucket < HDHOMERUN_RECORDER_HISTOGRAM_SIZE - 1) && ((elapsed >> bucket) != 0)) {
+		bucket++;
+	}
+
+	pthread_mutex_lock(&rec->lock);
+	rec->stats.bytes_written += block->done;
+	rec->stats.blocks_written++;
+	rec->stats.write_time_total_us += elapsed;
+	rec->stats.write_time_histogram[bucket]++;
+	if (elapsed > rec->stats.write_time_max_us) {
+		rec->stats.write_time_max_us = (uint32_t)elapsed;
+	}
+	if (!success) {
+		rec->stats.write_error_count++;
+	}
+
+	if (segment) {
+		if (!success) {
+			segment->failed = TRUE;
+		}
+		segment->pending--;
+		if (segment->closing && (segment->pending == 0)) {
+			close_segment = segment;
+		}
+	}
+
+	block->segment = NULL;
+	block->busy = FALSE;
+	rec->full_count--;
+	rec->stats.backlog_blocks = rec->full_count;
+	pthread_mutex_unlock(&rec->lock);
+
+	if (close_segment) {
+		hdhomerun_recorder_close_segment(rec, close_segment);
+	}
+
+	thread_cond_signal(&rec->free_cond);
+}
+
+#if defined(HDHOMERUN_RECORDER_IO_URING)
+/*
+ * One ring for every recorder: receive threads queue their blocks and a completion thread
+ * frees them. Whichever thread is submitting also submits what other recorders queue while
+ * it is in the system call, so writes that come due together go in together.
+ *
+ * If the kernel refuses a submission the ring is marked failed, what it still held is written
+ * directly and the recorders go back to write threads.
+ */
+struct hdhomerun_recorder_uring_t {
+	int fd;
+	pthread_mutex_t lock;
+	thread_cond_t space_cond;
+	thread_cond_t work_cond;
+	unsigned int in_flight;
+	unsigned int in_kernel;
+	unsigned int unsubmitted;
+	bool_t submitting;
+	bool_t failed;
+	unsigned int sq_entries;
+
+	void *sq_ring;
+	size_t sq_ring_size;
+	void *cq_ring;
+	size_t cq_ring_size;
+	struct io_uring_sqe *sqes;
+	size_t sqes_size;
+
+	unsigned *sq_tail;
+	unsigned *sq_mask;
+	unsigned *sq_array;
+	unsigned *cq_head;
+	unsigned *cq_tail;
+	unsigned *cq_mask;
+	struct io_uring_cqe *cqes;
+
+	pthread_t thread;
+	volatile bool_t terminate;
+	unsigned int users;
+};
+
+static pthread_mutex_t hdhomerun_recorder_uring_lock = PTHREAD_MUTEX_INITIALIZER;
+static struct hdhomerun_recorder_uring_t *hdhomerun_recorder_uring = NULL;
+
+static int hdhomerun_recorder_uring_enter(struct hdhomerun_recorder_uring_t *ring, unsigned int to_submit, unsigned int min_complete, unsigned int flags)
+{
+	return (int)syscall(__NR_io_uring_enter, ring->fd, to_submit, min_complete, flags, NULL, 0);
+}
+
+static bool_t hdhomerun_recorder_uring_failed(struct hdhomerun_recorder_uring_t *ring)
+{
+	pthread_mutex_lock(&ring->lock);
+	bool_t failed = ring->failed;
+	pthread_mutex_unlock(&ring->lock);
+	return failed;
+}
+
+/*
+ * Write the rest of the block without the ring, at its place in the file.
+ */
+static void hdhomerun_recorder_uring_write_direct(struct hdhomerun_recorder_block_t *block)
+{
+	int fd = fileno(block->segment->fp);
+	while (block->done < block->size) {
+		ssize_t ret = pwrite(fd, block->data + block->done, block->size - block->done, (off_t)(block->offset + block->done));
+		if (ret <= 0) {
+			if ((ret < 0) && (errno == EINTR)) {
+				continue;
+			}
+			hdhomerun_debug_printf(block->rec->dbg, "hdhomerun_recorder_uring_write_direct: write failed (%d)\n", errno);
+			break;
+		}
+		block->done += (size_t)ret;
+	}
+	hdhomerun_recorder_block_done(block->rec, block, (block->done == block->size));
+}
+
+/*
+ * Take back the entries the kernel refused and write their blocks directly. Called by the
+ * submitting thread with the lock held, once the ring is marked failed nothing else is queued.
+ */
+static void hdhomerun_recorder_uring_unwind(struct hdhomerun_recorder_uring_t *ring)
+{
+	unsigned int count = ring->unsubmitted;
+	unsigned tail = *ring->sq_tail - count;
+	__atomic_store_n(ring->sq_tail, tail, __ATOMIC_RELEASE);
+	ring->unsubmitted = 0;
+	ring->in_flight -= count;
+	ring->submitting = FALSE;
+	pthread_mutex_unlock(&ring->lock);
+	thread_cond_signal(&ring->space_cond);
+	thread_cond_signal(&ring->work_cond);
+
+	unsigned int i;
+	for (i = 0; i < count; i++) {
+		struct io_uring_sqe *sqe = &ring->sqes[(tail + i) & *ring->sq_mask];
+		hdhomerun_recorder_uring_write_direct((struct hdhomerun_recorder_block_t *)(unsigned long)sqe->user_data);
+	}
+}
+
+/*
+ * Queue a write of the rest of the block. The completion thread requeues a short write in the slot
+ * its completion leaves, so it never waits for space it is the one to make.
+ * Returns FALSE if the ring has failed, the caller writes the block some other way.
+ */
+static bool_t hdhomerun_recorder_uring_submit(struct hdhomerun_recorder_uring_t *ring, struct hdhomerun_recorder_block_t *block, bool_t reserved)
+{
+	pthread_mutex_lock(&ring->lock);
+
+	/*
+	 * Never more in flight than the submission queue holds. Those the kernel hasn't taken are
+	 * in flight too, so a slot is always free and a new entry can't overwrite one still queued.
+	 */
+	while (!reserved && !ring->failed && (ring->in_flight >= ring->sq_entries)) {
+		pthread_mutex_unlock(&ring->lock);
+		thread_cond_wait_with_timeout(&ring->space_cond, HDHOMERUN_RECORDER_WAIT_MS);
+		pthread_mutex_lock(&ring->lock);
+	}
+
+	if (ring->failed) {
+		if (reserved) {
+			ring->in_flight--;
+		}
+		pthread_mutex_unlock(&ring->lock);
+		thread_cond_signal(&ring->space_cond);
+		return FALSE;
+	}
+
+	if (!reserved) {
+		ring->in_flight++;
+	}
+
+	unsigned tail = *ring->sq_tail;
+	unsigned index = tail & *ring->sq_mask;
+	struct io_uring_sqe *sqe = &ring->sqes[index];
+	memset(sqe, 0, sizeof(struct io_uring_sqe));
+
+	block->iov.iov_base = block->data + block->done;
+	block->iov.iov_len = block->size - block->done;
+	sqe->opcode = IORING_OP_WRITEV;
+	sqe->fd = fileno(block->segment->fp);
+	sqe->addr = (unsigned long)&block->iov;
+	sqe->len = 1;
+	sqe->off = block->offset + block->done;
+	sqe->user_data = (unsigned long)block;
+
+	ring->sq_array[index] = index;
+	__atomic_store_n(ring->sq_tail, tail + 1, __ATOMIC_RELEASE);
+	ring->unsubmitted++;
+
+	if (ring->submitting) {
+		pthread_mutex_unlock(&ring->lock);
+		return TRUE;
+	}
+
+	ring->submitting = TRUE;
+	while (ring->unsubmitted > 0) {
+		unsigned int to_submit = ring->unsubmitted;
+		pthread_mutex_unlock(&ring->lock);
+
+		int ret = hdhomerun_recorder_uring_enter(ring, to_submit, 0, 0);
+		int error = errno;
+
+		pthread_mutex_lock(&ring->lock);
+		if (ret < 0) {
+			if ((error == EINTR) || (error == EAGAIN) || (error == EBUSY)) {
+				pthread_mutex_unlock(&ring->lock);
+				msleep_approx(1);
+				pthread_mutex_lock(&ring->lock);
+				continue;
+			}
+
+			hdhomerun_debug_printf(NULL, "hdhomerun_recorder_uring_submit: submit failed, leaving io_uring (%d)\n", error);
+			ring->failed = TRUE;
+			hdhomerun_recorder_use_io_uring = FALSE;
+			hdhomerun_recorder_uring_unwind(ring);
+			return TRUE;
+		}
+
+		ring->unsubmitted -= (unsigned int)ret;
+		ring->in_kernel += (unsigned int)ret;
+		thread_cond_signal(&ring->work_cond);
+	}
+	ring->submitting = FALSE;
+	pthread_mutex_unlock(&ring->lock);
+	return TRUE;
+}
+
+static THREAD_FUNC_PREFIX hdhomerun_recorder_uring_execute(void *arg)
+{
+	struct hdhomerun_recorder_uring_t *ring = (struct hdhomerun_recorder_uring_t *)arg;
+
+	while (1) {
+		/* Only wait in the kernel for writes it has, a refused submission never completes. */
+		pthread_mutex_lock(&ring->lock);
+		while (ring->in_kernel == 0) {
+			if (ring->terminate && (ring->in_flight == 0)) {
+				pthread_mutex_unlock(&ring->lock);
+				return NULL;
+			}
+			pthread_mutex_unlock(&ring->lock);
+			thread_cond_wait_with_timeout(&ring->work_cond, HDHOMERUN_RECORDER_WAIT_MS);
+			pthread_mutex_lock(&ring->lock);
+		}
+		pthread_mutex_unlock(&ring->lock);
+
+		if ((hdhomerun_recorder_uring_enter(ring, 0, 1, IORING_ENTER_GETEVENTS) < 0) && (errno != EINTR)) {
+			msleep_approx(HDHOMERUN_RECORDER_WAIT_MS);
+		}
+
+		unsigned head = *ring->cq_head;
+		unsigned tail = __atomic_load_n(ring->cq_tail, __ATOMIC_ACQUIRE);
+		while (head != tail) {
+			struct io_uring_cqe *cqe = &ring->cqes[head & *ring->cq_mask];
+			struct hdhomerun_recorder_block_t *block = (struct hdhomerun_recorder_block_t *)(unsigned long)cqe->user_data;
+			int res = cqe->res;
+			head++;
+			__atomic_store_n(ring->cq_head, head, __ATOMIC_RELEASE);
+
+			pthread_mutex_lock(&ring->lock);
+			ring->in_kernel--;
+			pthread_mutex_unlock(&ring->lock);
+
+			if (res > 0) {
+				block->done += res;
+				if (block->done < block->size) {
+					/* Short write, the rest goes again in the slot this completion held. */
+					if (!hdhomerun_recorder_uring_submit(ring, block, TRUE)) {
+						hdhomerun_recorder_uring_write_direct(block);
+					}
+					continue;
+				}
+			} else {
+				hdhomerun_debug_printf(block->rec->dbg, "hdhomerun_recorder_uring_execute: write failed (%d)\n", -res);
+			}
+
+			pthread_mutex_lock(&ring->lock);
+			ring->in_flight--;
+			pthread_mutex_unlock(&ring->lock);
+			thread_cond_signal(&ring->space_cond);
+
+			hdhomerun_recorder_block_done(block->rec, block, (res > 0));
+		}
+	}
+}
+
+static void hdhomerun_recorder_uring_free(struct hdhomerun_recorder_uring_t *ring)
+{
+	if (ring->sqes && (ring->sqes != MAP_FAILED)) {
+		munmap(ring->sqes, ring->sqes_size);
+	}
+	if (ring->cq_ring && (ring->cq_ring != MAP_FAILED)) {
+		munmap(ring->cq_ring, ring->cq_ring_size);
+	}
+	if (ring->sq_ring && (ring->sq_ring != MAP_FAILED)) {
+		munmap(ring->sq_ring, ring->sq_ring_size);
+	}
+	if (ring->fd >= 0) {
+		close(ring->fd);
+	}
+	thread_cond_dispose(&ring->space_cond);
+	thread_cond_dispose(&ring->work_cond);
+	free(ring);
+}
+
+static struct hdhomerun_recorder_uring_t *hdhomerun_recorder_uring_create(struct hdhomerun_debug_t *dbg)
+{
+	struct hdhomerun_recorder_uring_t *ring = (struct hdhomerun_recorder_uring_t *)calloc(1, sizeof(struct hdhomerun_recorder_uring_t));
+	if (!ring) {
+		return NULL;
+	}
+	pthread_mutex_init(&ring->lock, NULL);
+	thread_cond_init(&ring->space_cond);
+	thread_cond_init(&ring->work_cond);
+
+	struct io_uring_params params;
+	memset(&params, 0, sizeof(params));
+	ring->fd = (int)syscall(__NR_io_uring_setup, HDHOMERUN_RECORDER_URING_ENTRIES, &params);
+	if (ring->fd < 0) {
+		hdhomerun_debug_printf(dbg, "hdhomerun_recorder_uring_create: io_uring unavailable (%d)\n", errno);
+		hdhomerun_recorder_uring_free(ring);
+		return NULL;
+	}
+
+	ring->sq_ring_size = params.sq_off.array + params.sq_entries * sizeof(unsigned);
+	ring->cq_ring_size = params.cq_off.cqes + params.cq_entries * sizeof(struct io_uring_cqe);
+	ring->sqes_size = params.sq_entries * sizeof(struct io_uring_sqe);
+	ring->sq_ring = mmap(NULL, ring->sq_ring_size, PROT_READ | PROT_WRITE, MAP_SHARED | MAP_POPULATE, ring->fd, IORING_OFF_SQ_RING);
+	ring->cq_ring = mmap(NULL, ring->cq_ring_size, PROT_READ | PROT_WRITE, MAP_SHARED | MAP_POPULATE, ring->fd, IORING_OFF_CQ_RING);
+	ring->sqes = (struct io_uring_sqe *)mmap(NULL, ring->sqes_size, PROT_READ | PROT_WRITE, MAP_SHARED | MAP_POPULATE, ring->fd, IORING_OFF_SQES);
+	if ((ring->sq_ring == MAP_FAILED) || (ring->cq_ring == MAP_FAILED) || (ring->sqes == MAP_FAILED)) {
+		hdhomerun_debug_printf(dbg, "hdhomerun_recorder_uring_create: failed to map rings (%d)\n", errno);
+		hdhomerun_recorder_uring_free(ring);
+		return NULL;
+	}
+
+	ring->sq_tail = (unsigned *)((uint8_t *)ring->sq_ring + params.sq_off.tail);
+	ring->sq_mask = (unsigned *)((uint8_t *)ring->sq_ring + params.sq_off.ring_mask);
+	ring->sq_array = (unsigned *)((uint8_t *)ring->sq_ring + params.sq_off.array);
+	ring->cq_head = (unsigned *)((uint8_t *)ring->cq_ring + params.cq_off.head);
+	ring->cq_tail = (unsigned *)((uint8_t *)ring->cq_ring + params.cq_off.tail);
+	ring->cq_mask = (unsigned *)((uint8_t *)ring->cq_ring + params.cq_off.ring_mask);
+	ring->cqes = (struct io_uring_cqe *)((uint8_t *)ring->cq_ring + params.cq_off.cqes);
+	ring->sq_entries = params.sq_entries;
+
+	if (pthread_create(&ring->thread, NULL, &hdhomerun_recorder_uring_execute, ring) != 0) {
+		hdhomerun_debug_printf(dbg, "hdhomerun_recorder_uring_create: failed to start completion thread\n");
+		hdhomerun_recorder_uring_free(ring);
+		return NULL;
+	}
+
+	return ring;
+}
+
+static struct hdhomerun_recorder_uring_t *hdhomerun_recorder_uring_acquire(struct hdhomerun_debug_t *dbg)
+{
+	pthread_mutex_lock(&hdhomerun_recorder_uring_lock);
+	if (!hdhomerun_recorder_uring) {
+		hdhomerun_recorder_uring = hdhomerun_recorder_uring_create(dbg);
+	}
+	struct hdhomerun_recorder_uring_t *ring = hdhomerun_recorder_uring;
+	if (ring && hdhomerun_recorder_uring_failed(ring)) {
+		/* Its last users haven't let go yet, a new recorder gets a write thread. */
+		ring = NULL;
+	}
+	if (ring) {
+		ring->users++;
+	}
+	pthread_mutex_unlock(&hdhomerun_recorder_uring_lock);
+	return ring;
+}
+
+static void hdhomerun_recorder_uring_release(struct hdhomerun_recorder_uring_t *ring)
+{
+	pthread_mutex_lock(&hdhomerun_recorder_uring_lock);
+	if (--ring->users > 0) {
+		pthread_mutex_unlock(&hdhomerun_recorder_uring_lock);
+		return;
+	}
+	hdhomerun_recorder_uring = NULL;
+	pthread_mutex_unlock(&hdhomerun_recorder_uring_lock);
+
+	ring->terminate = TRUE;
+	thread_cond_signal(&ring->work_cond);
+	pthread_join(ring->thread, NULL);
+	hdhomerun_recorder_uring_free(ring);
+}
+#endif
+
+static void hdhomerun_recorder_write_block(struct hdhomerun_recorder_t *rec, struct hdhomerun_recorder_block_t *block)
+{
+	if (!hdhomerun_recorder_place_block(rec, block)) {
+		hdhomerun_recorder_block_done(rec, block, FALSE);
+		return;
+	}
+
+#if defined(HDHOMERUN_RECORDER_IO_URING)
+	if (rec->uring) {
+		if (!hdhomerun_recorder_uring_submit(rec->uring, block, FALSE)) {
+			hdhomerun_recorder_uring_write_direct(block);
+		}
+		return;
+	}
+#endif
+
+	block->done = fwrite(block->data, 1, block->size, block->segment->fp);
+	if (block->done != block->size) {
+		hdhomerun_debug_printf(rec->dbg, "hdhomerun_recorder_write_block: write failed (%d)\n", errno);
+		/* Later blocks go to a new file rather than after a gap. */
+		hdhomerun_recorder_retire_segment(rec);
+	}
+	hdhomerun_recorder_block_done(rec, block, block->done == block->size);
+}
+
+static THREAD_FUNC_PREFIX hdhomerun_recorder_write_execute(void *arg)
+{
+	struct hdhomerun_recorder_t *rec = (struct hdhomerun_recorder_t *)arg;
+
+	while (1) {
+		pthread_mutex_lock(&rec->lock);
+		while (rec->full_count == 0) {
+			if (rec->receive_done) {
+				pthread_mutex_unlock(&rec->lock);
+				hdhomerun_recorder_retire_segment(rec);
+				return NULL;
+			}
+			pthread_mutex_unlock(&rec->lock);
+			thread_cond_wait_with_timeout(&rec->full_cond, HDHOMERUN_RECORDER_WAIT_MS);
+			pthread_mutex_lock(&rec->lock);
+		}
+		unsigned int index = rec->write_index;
+		rec->write_index = (index + 1) % rec->block_count;
+		pthread_mutex_unlock(&rec->lock);
+
+		hdhomerun_recorder_write_block(rec, &rec->blocks[index]);
+	}
+}
+
+#if defined(HDHOMERUN_RECORDER_IO_URING)
+/*
+ * The shared ring failed, hand the writes to a write thread of the recorder's own.
+ */
+static void hdhomerun_recorder_uring_fallback(struct hdhomerun_recorder_t *rec)
+{
+	hdhomerun_debug_printf(rec->dbg, "hdhomerun_recorder_uring_fallback: io_uring failed, starting a write thread\n");
+
+	/* The write thread takes the blocks in order, wait until none are out. */
+	while (rec->full_count > 0) {
+		thread_cond_wait_with_timeout(&rec->free_cond, HDHOMERUN_RECORDER_WAIT_MS);
+	}
+
+	/* Its writes go at the file position, which the ring's writes didn't move. */
+	if (rec->segment && (fseeko(rec->segment->fp, (off_t)rec->segment->submitted, SEEK_SET) != 0)) {
+		hdhomerun_recorder_retire_segment(rec);
+	}
+	hdhomerun_recorder_uring_release(rec->uring);
+	rec->uring = NULL;
+
+	pthread_mutex_lock(&rec->lock);
+	rec->write_index = rec->fill_index;
+	rec->stats.io_uring = 0;
+	pthread_mutex_unlock(&rec->lock);
+
+	if (pthread_create(&rec->write_thread, NULL, &hdhomerun_recorder_write_execute, rec) != 0) {
+		hdhomerun_debug_printf(rec->dbg, "hdhomerun_recorder_uring_fallback: failed to start write thread, writing on the receive thread\n");
+		return;
+	}
+	rec->write_thread_started = TRUE;
+}
+#endif
+
+static THREAD_FUNC_PREFIX hdhomerun_recorder_receive_execute(void *arg)
+{
+	struct hdhomerun_recorder_t *rec = (struct hdhomerun_recorder_t *)arg;
+
+	while (!rec->terminate) {
+		/* Wait for the writer to free a block, the device buffer holds the stream meanwhile. */
+		struct hdhomerun_recorder_block_t *block = &rec->blocks[rec->fill_index];
+		while (block->busy && !rec->terminate) {
+			thread_cond_wait_with_timeout(&rec->free_cond, HDHOMERUN_RECORDER_WAIT_MS);
+		}
+
+		size_t fill = 0;
+		while ((fill < HDHOMERUN_RECORDER_BLOCK_SIZE) && !rec->terminate) {
+			size_t actual_size;
+			uint8_t *data = hdhomerun_device_stream_recv_wait(rec->hd, HDHOMERUN_RECORDER_BLOCK_SIZE - fill, &actual_size, HDHOMERUN_RECORDER_WAIT_MS);
+			if (!data) {
+				continue;
+			}
+			memcpy(block->data + fill, data, actual_size);
+			fill += actual_size;
+		}
+
+		if (fill == 0) {
+			continue;
+		}
+
+		block->size = fill;
+		block->ready_time = hdhomerun_recorder_time_us();
+		block->busy = TRUE;
+		rec->fill_index = (rec->fill_index + 1) % rec->block_count;
+
+		pthread_mutex_lock(&rec->lock);
+		rec->full_count++;
+		rec->stats.backlog_blocks = rec->full_count;
+		if (rec->full_count > rec->stats.backlog_blocks_max) {
+			rec->stats.backlog_blocks_max = rec->full_count;
+		}
+		pthread_mutex_unlock(&rec->lock);
+
+		if (rec->write_thread_started) {
+			thread_cond_signal(&rec->full_cond);
+			continue;
+		}
+
+		hdhomerun_recorder_write_block(rec, block);
+#if defined(HDHOMERUN_RECORDER_IO_URING)
+		if (rec->uring && hdhomerun_recorder_uring_failed(rec->uring)) {
+			hdhomerun_recorder_uring_fallback(rec);
+		}
+#endif
+	}
+
+	return NULL;
+}
+
+bool_t hdhomerun_recorder_set_io_uring(bool_t enable)
+{
+#if defined(HDHOMERUN_RECORDER_IO_URING)
+	if (enable) {
+		/* Built in isn't enough, the kernel or its sandbox may refuse it. */
+		struct io_uring_params params;
+		memset(&params, 0, sizeof(params));
+		int fd = (int)syscall(__NR_io_uring_setup, 1, &params);
+		if (fd < 0) {
+			hdhomerun_recorder_use_io_uring = FALSE;
+			return FALSE;
+		}
+		close(fd);
+	}
+	hdhomerun_recorder_use_io_uring = enable;
+	return TRUE;
+#else
+	hdhomerun_recorder_use_io_uring = enable;
+	return FALSE;
+#endif
+}
+
+struct hdhomerun_recorder_t *hdhomerun_recorder_create(struct hdhomerun_device_t *hd, const char *path, uint64_t segment_size, unsigned int block_count, struct hdhomerun_debug_t *dbg)
+{
+	struct hdhomerun_recorder_t *rec = (struct hdhomerun_recorder_t *)calloc(1, sizeof(struct hdhomerun_recorder_t));
+	if (!rec) {
+		return NULL;
+	}
+
+	rec->hd = hd;
+	rec->dbg = dbg;
+	rec->block_count = (block_count > 1) ? block_count : HDHOMERUN_RECORDER_BLOCK_COUNT_DEFAULT;
+	rec->segment_size = ((segment_size + HDHOMERUN_RECORDER_BLOCK_SIZE - 1) / HDHOMERUN_RECORDER_BLOCK_SIZE) * HDHOMERUN_RECORDER_BLOCK_SIZE;
+	rec->stats.block_count = rec->block_count;
+
+	rec->path = strdup(path);
+	rec->pool = (uint8_t *)malloc((size_t)HDHOMERUN_RECORDER_BLOCK_SIZE * rec->block_count + HDHOMERUN_RECORDER_PAGE_SIZE);
+	rec->blocks = (struct hdhomerun_recorder_block_t *)calloc(rec->block_count, sizeof(struct hdhomerun_recorder_block_t));
+	if (!rec->path || !rec->pool || !rec->blocks) {
+		hdhomerun_debug_printf(rec->dbg, "hdhomerun_recorder_create: failed to allocate %u blocks\n", rec->block_count);
+		goto error_free;
+	}
+
+	uint8_t *aligned = (uint8_t *)(((size_t)rec->pool + HDHOMERUN_RECORDER_PAGE_SIZE - 1) & ~(size_t)(HDHOMERUN_RECORDER_PAGE_SIZE - 1));
+	unsigned int i;
+	for (i = 0; i < rec->block_count; i++) {
+		rec->blocks[i].rec = rec;
+		rec->blocks[i].data = aligned + (size_t)i * HDHOMERUN_RECORDER_BLOCK_SIZE;
+	}
+
+	pthread_mutex_init(&rec->lock, NULL);
+	thread_cond_init(&rec->full_cond);
+	thread_cond_init(&rec->free_cond);
+
+	/* Wake for a quarter block at a time rather than every packet. */
+	hdhomerun_device_stream_set_notify_threshold(hd, HDHOMERUN_RECORDER_BLOCK_SIZE / 4);
+
+	if (hdhomerun_device_stream_start(hd) <= 0) {
+		hdhomerun_debug_printf(rec->dbg, "hdhomerun_recorder_create: failed to start stream\n");
+		goto error_dispose;
+	}
+
+#if defined(HDHOMERUN_RECORDER_IO_URING)
+	if (hdhomerun_recorder_use_io_uring) {
+		rec->uring = hdhomerun_recorder_uring_acquire(dbg);
+	}
+#endif
+
+	if (rec->uring) {
+		rec->stats.io_uring = 1;
+	} else if (pthread_create(&rec->write_thread, NULL, &hdhomerun_recorder_write_execute, rec) != 0) {
+		hdhomerun_debug_printf(rec->dbg, "hdhomerun_recorder_create: failed to start write thread\n");
+		goto error_stop;
+	} else {
+		rec->write_thread_started = TRUE;
+	}
+
+	if (pthread_create(&rec->receive_thread, NULL, &hdhomerun_recorder_receive_execute, rec) != 0) {
+		hdhomerun_debug_printf(rec->dbg, "hdhomerun_recorder_create: failed to start receive thread\n");
+		if (rec->write_thread_started) {
+			rec->receive_done = TRUE;
+			thread_cond_signal(&rec->full_cond);
+			pthread_join(rec->write_thread, NULL);
+		}
+		goto error_stop;
+	}
+
+	return rec;
+
+error_stop:
+#if defined(HDHOMERUN_RECORDER_IO_URING)
+	if (rec->uring) {
+		hdhomerun_recorder_uring_release(rec->uring);
+	}
+#endif
+	hdhomerun_device_stream_stop(hd);
+error_dispose:
+	thread_cond_dispose(&rec->full_cond);
+	thread_cond_dispose(&rec->free_cond);
+error_free:
+	free(rec->blocks);
+	free(rec->pool);
+	free(rec->path);
+	free(rec);
+	return NULL;
+}
+
+void hdhomerun_recorder_destroy(struct hdhomerun_recorder_t *rec)
+{
+	rec->terminate = TRUE;
+	hdhomerun_device_stream_stop(rec->hd);
+	thread_cond_signal(&rec->free_cond);
+	pthread_join(rec->receive_thread, NULL);
+
+#if defined(HDHOMERUN_RECORDER_IO_URING)
+	if (rec->uring) {
+		/* Wait out the writes in flight. */
+		while (rec->full_count > 0) {
+			thread_cond_wait_with_timeout(&rec->free_cond, HDHOMERUN_RECORDER_WAIT_MS);
+		}
+		hdhomerun_recorder_retire_segment(rec);
+		hdhomerun_recorder_uring_release(rec->uring);
+	}
+#endif
+
+	if (rec->write_thread_started) {
+		/* The writer finishes the blocks already received. */
+		pthread_mutex_lock(&rec->lock);
+		rec->receive_done = TRUE;
+		pthread_mutex_unlock(&rec->lock);
+		thread_cond_signal(&rec->full_cond);
+		pthread_join(rec->write_thread, NULL);
+	} else {
+		/* Written on the receive thread, or the ring's segment already went above. */
+		hdhomerun_recorder_retire_segment(rec);
+	}
+
+	thread_cond_dispose(&rec->full_cond);
+	thread_cond_dispose(&rec->free_cond);
+	free(rec->blocks);
+	free(rec->pool);
+	free(rec->path);
+	free(rec);
+}
+
+void hdhomerun_recorder_get_stats(struct hdhomerun_recorder_t *rec, struct hdhomerun_recorder_stats_t *stats)
+{
+	struct hdhomerun_video_stats_t video_stats;
+	hdhomerun_device_get_video_stats(rec->hd, &video_stats);
+
+	pthread_mutex_lock(&rec->lock);
+	*stats = rec->stats;
+	pthread_mutex_unlock(&rec->lock);
+
+	stats->overflow_error_count = video_stats.overflow_error_count;
+}
@@ -0,0 +1,91 @@
+/*
+ * hdhomerun_recorder.h
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+/*
+ * Blocks are a whole number of both 4096 byte pages and 1316 byte stream packets,
+ * so every write is page aligned and every block and segment starts on a TS packet.
+ */
+#define HDHOMERUN_RECORDER_BLOCK_SIZE (4096 * 329)
+#define HDHOMERUN_RECORDER_BLOCK_COUNT_DEFAULT 8
+#define HDHOMERUN_RECORDER_HISTOGRAM_SIZE 24
+
+struct hdhomerun_recorder_t;
+
+struct hdhomerun_recorder_stats_t {
+	uint64_t bytes_written;
+	uint32_t blocks_written;
+	uint32_t segment_count;
+	uint32_t block_count;
+	uint32_t backlog_blocks;
+	uint32_t backlog_blocks_max;
+	uint64_t write_time_total_us;
+	uint32_t write_time_max_us;
+	uint32_t write_error_count;
+	uint32_t overflow_error_count;
+	uint32_t io_uring;
+	/* Blocks by write time, bucket n is under 2^n us and at least 2^(n-1) us, the last takes the rest. */
+	uint32_t write_time_histogram[HDHOMERUN_RECORDER_HISTOGRAM_SIZE];
+};
+
+/*
+ * Create a recorder and start streaming to it.
+ *
+ * The tuner must already be tuned. A receive thread gathers the stream into a pool of
+ * HDHOMERUN_RECORDER_BLOCK_SIZE blocks and a writer thread writes each full block with one
+ * write, so a slow disk fills the pool instead of the device's 2 second receive buffer.
+ *
+ * const char *path: The file to record to.
+ * uint64_t segment_size: Start a new file after this many bytes, rounded up to whole blocks. With 0
+ *	everything goes to path, otherwise the files are path with -0000, -0001... before the extension.
+ *	A failed write also starts a new file, with 0 the ones after path are numbered from -0001.
+ * unsigned int block_count: Blocks in the pool, 0 for HDHOMERUN_RECORDER_BLOCK_COUNT_DEFAULT (about 4 seconds of HD).
+ *
+ * Returns NULL if the stream couldn't be started or the pool allocated. The recorder reads the
+ * device's stream, nothing else may call hdhomerun_device_stream_recv until it is destroyed.
+ */
+extern LIBTYPE struct hdhomerun_recorder_t *hdhomerun_recorder_create(struct hdhomerun_device_t *hd, const char *path, uint64_t segment_size, unsigned int block_count, struct hdhomerun_debug_t *dbg);
+
+/*
+ * Have recorders created from now on write through one io_uring shared by all of them, instead of
+ * a write thread each. With many recordings the writes no longer contend as separate blocking
+ * threads, and they are submitted together when they come due together.
+ *
+ * A recorder falls back to its write thread if the kernel or its sandbox refuses io_uring, or
+ * later refuses a submission, the io_uring stat says which it got. Returns FALSE if io_uring
+ * support wasn't built in or the kernel refuses to set up a ring.
+ */
+extern LIBTYPE bool_t hdhomerun_recorder_set_io_uring(bool_t enable);
+
+/*
+ * Stop the stream, write out what was received and close the file.
+ */
+extern LIBTYPE void hdhomerun_recorder_destroy(struct hdhomerun_recorder_t *rec);
+
+/*
+ * Get the write statistics. backlog_blocks are full blocks waiting for the writer,
+ * overflow_error_count is the device receive buffer's, data it dropped because the pool was full.
+ * A write time runs from a block filling to its write completing, waiting for the writer included.
+ */
+extern LIBTYPE void hdhomerun_recorder_get_stats(struct hdhomerun_recorder_t *rec, struct hdhomerun_recorder_stats_t *stats);
+
+#ifdef __cplusplus
+}
+#endif
@@ -2,6 +2,8 @@
 #include "hdhomerun.h"
 #include "com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice.h"
 #include "com_zaren_HdhomerunSignalMeterLib_data_DiscoverTask.h"
+#include "com_zaren_HdhomerunSignalMeterLib_data_DiscoveryService.h"
+#include "com_zaren_HdhomerunSignalMeterLib_data_TunerPool.h"
 
 JavaVM *gJavaVM;
 
@@ -25,50 +27,330 @@ jint JNI_OnLoad(JavaVM* vm, void* reserved)
    return JNI_VERSION_1_4;
 }
 
-jobject
-Java_com_zaren_HdhomerunSignalMeterLib_data_DiscoverTask_discover( JNIEnv* env,
-                                                  jobject thiz )
+static jintArray newIntArray(JNIEnv *env, const jint *values, int count)
+{
+   jintArray array = (*env)->NewIntArray(env, count);
+   if(array)
+   {
+      (*env)->SetIntArrayRegion(env, array, 0, count, values);
+   }
+   return array;
+}
+
+/*
+ * Builds the HdhomerunDiscoverDeviceArray for a discover result, num_found -1 sets its error
+ */
+static jobject newDiscoverDeviceArray(JNIEnv *env, struct hdhomerun_discover_device_t *discover_list, int num_found)
 {
-	struct hdhomerun_discover_device_t discover_array[10];
-   int num_found = 0;
    int i = 0;
-   int j = 0;
 
    jclass discoverDeviceArrayClass = (*env)->FindClass(env,"com/zaren/HdhomerunSignalMeterLib/data/HdhomerunDiscoverDeviceArray");
    jmethodID constructorId = (*env)->GetMethodID(env,discoverDeviceArrayClass,"<init>","()V");
-   jmethodID insertId = (*env)->GetMethodID(env,discoverDeviceArrayClass,"insert","(IJJI)V");   
+   jmethodID insertAllId = (*env)->GetMethodID(env,discoverDeviceArrayClass,"insertAll","([I[I[I[II)V");
    jobject retObj = (*env)->NewObject(env, discoverDeviceArrayClass, constructorId);
 
-	num_found = hdhomerun_discover_find_devices_custom(0, HDHOMERUN_DEVICE_TYPE_TUNER, HDHOMERUN_DEVICE_ID_WILDCARD, discover_array, 10);
+   if(num_found == -1)
+   {
+      MY_LOGD("Error discovering devices");
+      jmethodID setErrorId = (*env)->GetMethodID(env,discoverDeviceArrayClass,"setError","()V");
+      (*env)->CallVoidMethod(env,retObj, setErrorId );
+      return retObj;
+   }
 
-	MY_LOGD("discover(): num_found %d",num_found );
-	
-	if(num_found == -1)
-	{
-	   MY_LOGD("Error discovering devices");
-		jmethodID setErrorId = (*env)->GetMethodID(env,discoverDeviceArrayClass,"setError","()V");
-	   (*env)->CallVoidMethod(env,retObj, setErrorId );				
-	}
-		
-	for(i=0; i<num_found; i++)
-	{
-		MY_LOGD("Found %d devices, IP:%s, ID: %X, type: %d",
-			num_found,
-			ipAddressToString(discover_array[0].ip_addr),
-			discover_array[0].device_id,
-			discover_array[0].device_type);
-
-		 for(j=0; j<discover_array[i].tuner_count; j++)
-		 {
-			(*env)->CallVoidMethod(env, retObj, insertId,
-					(jint)discover_array[i].ip_addr,
-					(jlong)discover_array[i].device_type,
-					(jlong)discover_array[i].device_id,
-					(jint)j);
-		 }
-	}
-	
-	return retObj;
+   if(num_found > 0)
+   {
+      /* one column per field so they go to java as four bulk copies */
+      jint *columns = (jint *)malloc(4 * num_found * sizeof(jint));
+      if(columns)
+      {
+         for(i=0; i<num_found; i++)
+         {
+            columns[i] = (jint)discover_list[i].ip_addr;
+            columns[num_found + i] = (jint)discover_list[i].device_type;
+            columns[2 * num_found + i] = (jint)discover_list[i].device_id;
+            columns[3 * num_found + i] = (jint)discover_list[i].tuner_count;
+         }
+
+         jintArray ipAddrs = newIntArray(env, columns, num_found);
+         jintArray types = newIntArray(env, columns + num_found, num_found);
+         jintArray ids = newIntArray(env, columns + 2 * num_found, num_found);
+         jintArray tunerCounts = newIntArray(env, columns + 3 * num_found, num_found);
+
+         if(ipAddrs && types && ids && tunerCounts)
+         {
+            (*env)->CallVoidMethod(env, retObj, insertAllId, ipAddrs, types, ids, tunerCounts, (jint)num_found);
+         }
+
+         free(columns);
+      }
+   }
+
+   return retObj;
+}
+
+/*
+ * Copies a java int array into a malloc'd uint32_t array, *count is 0 if there is none
+ */
+static uint32_t *copyIpArray(JNIEnv *env, jintArray array, int *count)
+{
+   uint32_t *values = NULL;
+
+   *count = 0;
+   if(array)
+   {
+      *count = (*env)->GetArrayLength(env, array);
+      values = (uint32_t *)malloc((*count > 0 ? *count : 1) * sizeof(uint32_t));
+      if(values)
+      {
+         (*env)->GetIntArrayRegion(env, array, 0, *count, (jint *)values);
+      }
+      else
+      {
+         *count = 0;
+      }
+   }
+
+   return values;
+}
+
+jobject
+Java_com_zaren_HdhomerunSignalMeterLib_data_DiscoverTask_discover( JNIEnv* env,
+                                                  jobject thiz,
+                                                  jintArray expectedIds )
+{
+   struct hdhomerun_discover_device_t *discover_list = NULL;
+   int expected_count = 0;
+   uint32_t *expected_ids = copyIpArray(env, expectedIds, &expected_count);
+
+   int num_found = hdhomerun_discover_find_devices_custom_alloc(0, HDHOMERUN_DEVICE_TYPE_TUNER, HDHOMERUN_DEVICE_ID_WILDCARD, expected_ids, expected_count, &discover_list);
+
+   free(expected_ids);
+
+   MY_LOGD("discover(): num_found %d",num_found );
+
+   jobject retObj = newDiscoverDeviceArray(env, discover_list, num_found);
+   free(discover_list);
+
+   return retObj;
+}
+
+jobject
+Java_com_zaren_HdhomerunSignalMeterLib_data_DiscoverTask_discoverTargets( JNIEnv* env,
+                                                  jobject thiz,
+                                                  jintArray targetIps,
+                                                  jint timeoutMs )
+{
+   struct hdhomerun_discover_device_t *discover_list = NULL;
+   int target_count = 0;
+   uint32_t *target_ips = copyIpArray(env, targetIps, &target_count);
+
+   int num_found = -1;
+   if(target_ips)
+   {
+      num_found = hdhomerun_discover_find_devices_targets_custom(target_ips, target_count, HDHOMERUN_DEVICE_TYPE_TUNER, (uint64_t)timeoutMs, &discover_list);
+      free(target_ips);
+   }
+
+   MY_LOGD("discoverTargets(): %d targets, num_found %d", target_count, num_found );
+
+   jobject retObj = newDiscoverDeviceArray(env, discover_list, num_found);
+   free(discover_list);
+
+   return retObj;
+}
+
+#define DISCOVERY_REPLY_FIELDS com_zaren_HdhomerunSignalMeterLib_data_DiscoveryService_REPLY_FIELDS
+#define DISCOVERY_MAX_REPLIES 64
+
+JNIEXPORT jlong JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_DiscoveryService_JNIcreate
+  (JNIEnv * env, jobject thiz)
+{
+   struct hdhomerun_discover_t *ds = hdhomerun_discover_create(NULL);
+
+   MY_LOGD("C: discovery create: %p", ds);
+
+   return (jlong) (intptr_t) ds;
+}
+
+JNIEXPORT void JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_DiscoveryService_JNIdestroy
+  (JNIEnv * env, jobject thiz, jlong cPointer)
+{
+   struct hdhomerun_discover_t *ds = (struct hdhomerun_discover_t *)(intptr_t)cPointer;
+
+   MY_LOGD("C: discovery destroy: %p", ds);
+
+   hdhomerun_discover_destroy(ds);
+}
+
+JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_DiscoveryService_JNIsendRequest
+  (JNIEnv * env, jobject thiz, jlong cPointer, jint targetIp)
+{
+   struct hdhomerun_discover_t *ds = (struct hdhomerun_discover_t *)(intptr_t)cPointer;
+
+   if(hdhomerun_discover_is_ip_multicast((uint32_t)targetIp))
+   {
+      return 0;
+   }
+
+   if(!hdhomerun_discover_send_request(ds, (uint32_t)targetIp, HDHOMERUN_DEVICE_TYPE_TUNER, HDHOMERUN_DEVICE_ID_WILDCARD))
+   {
+      MY_LOGD("C: discovery send failed");
+      return -1;
+   }
+
+   return 1;
+}
+
+/*
+ * Copies the replies received within timeoutMs into replies, DISCOVERY_REPLY_FIELDS ints each:
+ * ip address, device type, device id, tuner count. Returns the number of replies.
+ */
+JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_DiscoveryService_JNIreceive
+  (JNIEnv * env, jobject thiz, jlong cPointer, jint timeoutMs, jintArray replies)
+{
+   struct hdhomerun_discover_t *ds = (struct hdhomerun_discover_t *)(intptr_t)cPointer;
+   struct hdhomerun_discover_device_t result_list[DISCOVERY_MAX_REPLIES];
+   jint fields[DISCOVERY_MAX_REPLIES * DISCOVERY_REPLY_FIELDS];
+   int max_count = (*env)->GetArrayLength(env, replies) / DISCOVERY_REPLY_FIELDS;
+   int i;
+
+   if(max_count > DISCOVERY_MAX_REPLIES)
+   {
+      max_count = DISCOVERY_MAX_REPLIES;
+   }
+
+   int count = hdhomerun_discover_recv_devices(ds, HDHOMERUN_DEVICE_TYPE_TUNER, HDHOMERUN_DEVICE_ID_WILDCARD,
+                                               result_list, max_count, (uint64_t)timeoutMs);
+
+   for(i = 0; i < count; i++)
+   {
+      fields[i * DISCOVERY_REPLY_FIELDS + 0] = (jint)result_list[i].ip_addr;
+      fields[i * DISCOVERY_REPLY_FIELDS + 1] = (jint)result_list[i].device_type;
+      fields[i * DISCOVERY_REPLY_FIELDS + 2] = (jint)result_list[i].device_id;
+      fields[i * DISCOVERY_REPLY_FIELDS + 3] = (jint)result_list[i].tuner_count;
+   }
+
+   if(count > 0)
+   {
+      (*env)->SetIntArrayRegion(env, replies, 0, count * DISCOVERY_REPLY_FIELDS, fields);
+   }
+
+   return count;
+}
+
+/*
+ * The tuner pool keeps its state in java, the selector only holds the tuners that were found
+ * locked by someone else or unreachable so hdhomerun_device_selector_choose_and_lock() probes
+ * just those when no tuner is known to be free.
+ */
+JNIEXPORT jlong JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_TunerPool_JNIcreate
+  (JNIEnv * env, jobject thiz)
+{
+   struct hdhomerun_device_selector_t *hds = hdhomerun_device_selector_create(NULL);
+
+   MY_LOGD("C: tuner pool create: %p", hds);
+
+   return (jlong) (intptr_t) hds;
+}
+
+JNIEXPORT void JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_TunerPool_JNIdestroy
+  (JNIEnv * env, jobject thiz, jlong cPointer)
+{
+   struct hdhomerun_device_selector_t *hds = (struct hdhomerun_device_selector_t *)(intptr_t)cPointer;
+
+   MY_LOGD("C: tuner pool destroy: %p", hds);
+
+   /* the tuners are destroyed one by one by JNIdestroyTuner */
+   hdhomerun_device_selector_destroy(hds, FALSE);
+}
+
+JNIEXPORT jlong JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_TunerPool_JNIcreateTuner
+  (JNIEnv * env, jobject thiz, jlong deviceId, jint ipAddr, jint tuner)
+{
+   struct hdhomerun_device_t *device = hdhomerun_device_create((uint32_t)deviceId, (uint32_t)ipAddr, (unsigned int)tuner, NULL);
+
+   MY_LOGD("C: tuner pool create tuner %X-%d: %p", (unsigned int)deviceId, tuner, device);
+
+   return (jlong) (intptr_t) device;
+}
+
+JNIEXPORT void JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_TunerPool_JNIdestroyTuner
+  (JNIEnv * env, jobject thiz, jlong tunerPointer)
+{
+   struct hdhomerun_device_t *device = (struct hdhomerun_device_t *)(intptr_t)tunerPointer;
+
+   hdhomerun_device_destroy(device);
+}
+
+/*
+ * A single lockkey request, 1 if the lock was obtained, 0 if someone else holds it, -1 on a
+ * communication error
+ */
+JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_TunerPool_JNIlock
+  (JNIEnv * env, jobject thiz, jlong tunerPointer)
+{
+   struct hdhomerun_device_t *device = (struct hdhomerun_device_t *)(intptr_t)tunerPointer;
+   char *error = NULL;
+
+   int retVal = hdhomerun_device_tuner_lockkey_request(device, &error);
+
+   MY_LOGD("C: tuner pool lock %s: %d %s", hdhomerun_device_get_name(device), retVal, error ? error : "");
+
+   return retVal;
+}
+
+JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_TunerPool_JNIgetLockkey
+  (JNIEnv * env, jobject thiz, jlong tunerPointer)
+{
+   struct hdhomerun_device_t *device = (struct hdhomerun_device_t *)(intptr_t)tunerPointer;
+
+   return (jint)hdhomerun_device_get_tuner_lockkey(device);
+}
+
+JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_TunerPool_JNIrelease
+  (JNIEnv * env, jobject thiz, jlong tunerPointer)
+{
+   struct hdhomerun_device_t *device = (struct hdhomerun_device_t *)(intptr_t)tunerPointer;
+
+   int retVal = hdhomerun_device_tuner_lockkey_release(device);
+
+   MY_LOGD("C: tuner pool release %s: %d", hdhomerun_device_get_name(device), retVal);
+
+   return retVal;
+}
+
+JNIEXPORT void JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_TunerPool_JNIaddUnavailable
+  (JNIEnv * env, jobject thiz, jlong cPointer, jlong tunerPointer)
+{
+   struct hdhomerun_device_selector_t *hds = (struct hdhomerun_device_selector_t *)(intptr_t)cPointer;
+   struct hdhomerun_device_t *device = (struct hdhomerun_device_t *)(intptr_t)tunerPointer;
+
+   hdhomerun_device_selector_add_device(hds, device);
+}
+
+JNIEXPORT void JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_TunerPool_JNIremoveUnavailable
+  (JNIEnv * env, jobject thiz, jlong cPointer, jlong tunerPointer)
+{
+   struct hdhomerun_device_selector_t *hds = (struct hdhomerun_device_selector_t *)(intptr_t)cPointer;
+   struct hdhomerun_device_t *device = (struct hdhomerun_device_t *)(intptr_t)tunerPointer;
+
+   hdhomerun_device_selector_remove_device(hds, device);
+}
+
+/*
+ * The full probe of the unavailable tuners, including taking over the locks of dead local
+ * targets. Returns the tuner that was locked, 0 if none could be.
+ */
+JNIEXPORT jlong JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_TunerPool_JNIchooseAndLock
+  (JNIEnv * env, jobject thiz, jlong cPointer)
+{
+   struct hdhomerun_device_selector_t *hds = (struct hdhomerun_device_selector_t *)(intptr_t)cPointer;
+
+   struct hdhomerun_device_t *device = hdhomerun_device_selector_choose_and_lock(hds, NULL);
+
+   MY_LOGD("C: tuner pool choose and lock: %s", device ? hdhomerun_device_get_name(device) : "none");
+
+   return (jlong) (intptr_t) device;
 }
 
 JNIEXPORT jlong JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIcreateNewDevice
@@ -88,6 +370,20 @@ JNIEXPORT jlong JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDev
    return (jlong) (intptr_t) device;
 }
 
+JNIEXPORT jlong JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIcreateMulticast
+  (JNIEnv * env, jclass clazz, jint multicastIp, jint multicastPort)
+{
+   struct hdhomerun_device_t* device;
+
+   MY_LOGD("C: createMulticast");
+
+   device = hdhomerun_device_create_multicast((uint32_t)multicastIp, (uint16_t)multicastPort, NULL);
+
+   MY_LOGD("Multicast device created: %p", device);
+
+   return (jlong) (intptr_t) device;
+}
+
 JNIEXPORT void JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIdestroy
   (JNIEnv * env, jobject thiz, jlong cPointer)
 {
@@ -201,83 +497,701 @@ JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevi
              (jlong)tuner_status.packets_per_second,
              (jint)status);
 
-   return status;
+   return status;
+}
+
+JNIEXPORT jstring JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIgetSupported
+  (JNIEnv * env, jobject thiz, jlong cPointer)
+{
+   struct hdhomerun_device_t* device = (struct hdhomerun_device_t*)(intptr_t)cPointer;
+   char supportedBuf[100];
+   char* supported = supportedBuf;
+   int status = 0;
+
+   MY_LOGD("C: getSupported");
+
+   status = hdhomerun_device_get_supported(device, NULL, &supported);
+   
+   if(status == 1)
+   {
+		return (*env)->NewStringUTF(env, supported);
+   }
+   else if( status == 0)
+   {
+	   return (*env)->NewStringUTF(env, "rejected");
+   }
+   else
+   {
+	   return (*env)->NewStringUTF(env, "Network failure");
+   }
+}
+
+JNIEXPORT jstring JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIgetChannelMap
+  (JNIEnv * env, jobject thiz, jlong cPointer)
+{
+   struct hdhomerun_device_t* device = (struct hdhomerun_device_t*)(intptr_t)cPointer;
+   char channelMapBuf[100];
+   char* channelMap = channelMapBuf;
+   int status = 0;
+
+   MY_LOGD("C: getChannelMap");
+
+   status = hdhomerun_device_get_tuner_channelmap(device, &channelMap);
+
+   if(status == 1)
+   {
+		return (*env)->NewStringUTF(env, channelMap);
+   }
+   else if( status == 0)
+   {
+	   return (*env)->NewStringUTF(env, "rejected");
+   }
+   else
+   {
+	   return (*env)->NewStringUTF(env, "Network failure");
+   }
+   
+}
+
+/*
+ * Layout of one program in StreamInfoTable.programData, keep in sync with StreamInfoTable.java.
+ * The offsets index StreamInfoTable.text, which holds the raw streaminfo.
+ */
+#define STREAMINFO_PROGRAM_NUMBER 0
+#define STREAMINFO_VIRTUAL_MAJOR 1
+#define STREAMINFO_VIRTUAL_MINOR 2
+#define STREAMINFO_TYPE 3
+#define STREAMINFO_LINE_OFFSET 4
+#define STREAMINFO_LINE_LENGTH 5
+#define STREAMINFO_NAME_OFFSET 6
+#define STREAMINFO_NAME_LENGTH 7
+#define STREAMINFO_FIELD_COUNT 8
+
+/* HDHOMERUN_CHANNELSCAN_PROGRAM_* plus the types only the java side knew about */
+#define STREAMINFO_PROGRAM_INTERNET 4
+
+#define STREAMINFO_STACK_PROGRAMS 64
+
+static const char *skipSpaces(const char *pos, const char *end)
+{
+   while(pos < end && *pos == ' ')
+   {
+      pos++;
+   }
+   return pos;
+}
+
+static const char *parseUnsigned(const char *pos, const char *end, jint *pvalue)
+{
+   uint32_t value = 0;
+   int digits = 0;
+
+   while(pos < end && *pos >= '0' && *pos <= '9' && digits < 9)
+   {
+      value = value * 10 + (uint32_t)(*pos - '0');
+      pos++;
+      digits++;
+   }
+
+   *pvalue = (jint)value;
+   return (digits > 0) ? pos : NULL;
+}
+
+static jint matchProgramType(const char *start, size_t length)
+{
+   if(length == 7 && strncmp(start, "control", 7) == 0)
+   {
+      return HDHOMERUN_CHANNELSCAN_PROGRAM_CONTROL;
+   }
+   if(length == 9 && strncmp(start, "encrypted", 9) == 0)
+   {
+      return HDHOMERUN_CHANNELSCAN_PROGRAM_ENCRYPTED;
+   }
+   if(length == 7 && strncmp(start, "no data", 7) == 0)
+   {
+      return HDHOMERUN_CHANNELSCAN_PROGRAM_NODATA;
+   }
+   if(length == 8 && strncmp(start, "internet", 8) == 0)
+   {
+      return STREAMINFO_PROGRAM_INTERNET;
+   }
+   return -1;
+}
+
+/*
+ * Parses one "1: 2.1 KCBS-HD (encrypted)" line into fields, returns FALSE if it isn't a program line.
+ */
+static bool_t parseStreamInfoLine(const char *text, const char *line, const char *end, jint *fields)
+{
+   const char *pos = skipSpaces(line, end);
+
+   pos = parseUnsigned(pos, end, &fields[STREAMINFO_PROGRAM_NUMBER]);
+   if(!pos || pos >= end || *pos != ':')
+   {
+      return FALSE;
+   }
+
+   pos = skipSpaces(pos + 1, end);
+   pos = parseUnsigned(pos, end, &fields[STREAMINFO_VIRTUAL_MAJOR]);
+   if(!pos)
+   {
+      return FALSE;
+   }
+
+   fields[STREAMINFO_VIRTUAL_MINOR] = 0;
+   if(pos < end && *pos == '.')
+   {
+      pos = parseUnsigned(pos + 1, end, &fields[STREAMINFO_VIRTUAL_MINOR]);
+      if(!pos)
+      {
+         return FALSE;
+      }
+   }
+
+   const char *name = skipSpaces(pos, end);
+   const char *name_end = end;
+
+   fields[STREAMINFO_TYPE] = HDHOMERUN_CHANNELSCAN_PROGRAM_NORMAL;
+
+   const char *open_paren = memchr(name, '(', end - name);
+   if(open_paren)
+   {
+      const char *close_paren = memchr(open_paren, ')', end - open_paren);
+      if(close_paren)
+      {
+         jint type = matchProgramType(open_paren + 1, close_paren - open_paren - 1);
+         if(type >= 0)
+         {
+            fields[STREAMINFO_TYPE] = type;
+            name_end = open_paren;
+         }
+      }
+   }
+
+   while(name_end > name && name_end[-1] == ' ')
+   {
+      name_end--;
+   }
+
+   fields[STREAMINFO_LINE_OFFSET] = (jint)(line - text);
+   fields[STREAMINFO_LINE_LENGTH] = (jint)(end - line);
+   fields[STREAMINFO_NAME_OFFSET] = (jint)(name - text);
+   fields[STREAMINFO_NAME_LENGTH] = (jint)(name_end - name);
+
+   return TRUE;
+}
+
+/*
+ * Replaces the array in field_name with a bigger one if it can't hold length elements.
+ */
+static jarray ensureArrayField(JNIEnv *env, jobject obj, jfieldID field, jsize length, bool_t is_int)
+{
+   jarray array = (jarray)(*env)->GetObjectField(env, obj, field);
+   if(array && (*env)->GetArrayLength(env, array) >= length)
+   {
+      return array;
+   }
+
+   jsize capacity = length + length / 2;
+   if(array)
+   {
+      (*env)->DeleteLocalRef(env, array);
+   }
+   array = is_int ? (jarray)(*env)->NewIntArray(env, capacity) : (jarray)(*env)->NewByteArray(env, capacity);
+   if(array)
+   {
+      (*env)->SetObjectField(env, obj, field, array);
+   }
+   return array;
+}
+
+/*
+ * Fills a StreamInfoTable from streaminfo text, a NULL streaminfo just empties it.
+ * Returns -1 if the table's arrays couldn't be grown.
+ */
+static int fillStreamInfoTable(JNIEnv *env, jobject table, const char *streaminfo)
+{
+   jint stack_fields[STREAMINFO_STACK_PROGRAMS * STREAMINFO_FIELD_COUNT];
+   jint *fields = stack_fields;
+   int retVal = 1;
+
+   jclass tableClass = (*env)->GetObjectClass(env, table);
+   jfieldID programDataId = (*env)->GetFieldID(env, tableClass, "programData", "[I");
+   jfieldID textId = (*env)->GetFieldID(env, tableClass, "text", "[B");
+   jfieldID programCountId = (*env)->GetFieldID(env, tableClass, "programCount", "I");
+   jfieldID tsidId = (*env)->GetFieldID(env, tableClass, "tsid", "I");
+
+   (*env)->SetIntField(env, table, programCountId, 0);
+   (*env)->SetIntField(env, table, tsidId, -1);
+
+   if(!streaminfo)
+   {
+      return 1;
+   }
+
+   size_t text_length = strlen(streaminfo);
+   const char *text_end = streaminfo + text_length;
+
+   /* one program per line at most */
+   int max_programs = 1;
+   const char *pos;
+   for(pos = streaminfo; pos < text_end; pos++)
+   {
+      if(*pos == '\n')
+      {
+         max_programs++;
+      }
+   }
+
+   if(max_programs > STREAMINFO_STACK_PROGRAMS)
+   {
+      fields = (jint *)malloc(max_programs * STREAMINFO_FIELD_COUNT * sizeof(jint));
+      if(!fields)
+      {
+         return -1;
+      }
+   }
+
+   int program_count = 0;
+   jint tsid = -1;
+   const char *line = streaminfo;
+   while(line < text_end)
+   {
+      const char *line_end = memchr(line, '\n', text_end - line);
+      if(!line_end)
+      {
+         line_end = text_end;
+      }
+
+      if(strncmp(line, "tsid=0x", 7) == 0)
+      {
+         tsid = (jint)strtoul(line + 7, NULL, 16);
+      }
+      else if(parseStreamInfoLine(streaminfo, line, line_end, &fields[program_count * STREAMINFO_FIELD_COUNT]))
+      {
+         program_count++;
+      }
+
+      line = line_end + 1;
+   }
+
+   jintArray programData = (jintArray)ensureArrayField(env, table, programDataId, program_count * STREAMINFO_FIELD_COUNT, TRUE);
+   jbyteArray text = (jbyteArray)ensureArrayField(env, table, textId, (jsize)text_length, FALSE);
+
+   if(programData && text)
+   {
+      (*env)->SetIntArrayRegion(env, programData, 0, program_count * STREAMINFO_FIELD_COUNT, fields);
+      (*env)->SetByteArrayRegion(env, text, 0, (jsize)text_length, (const jbyte *)streaminfo);
+      (*env)->SetIntField(env, table, programCountId, program_count);
+      (*env)->SetIntField(env, table, tsidId, tsid);
+   }
+   else
+   {
+      retVal = -1;
+   }
+
+   if(fields != stack_fields)
+   {
+      free(fields);
+   }
+
+   return retVal;
+}
+
+JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIgetTunerStreamPrograms
+  (JNIEnv * env, jobject thiz, jlong cPointer, jobject table)
+{
+   struct hdhomerun_device_t* device = (struct hdhomerun_device_t*)(intptr_t)cPointer;
+   char *streaminfo;
+
+   MY_LOGD("C: getTunerStreamPrograms");
+
+   fillStreamInfoTable(env, table, NULL);
+
+   int retVal = hdhomerun_device_get_tuner_streaminfo(device, &streaminfo);
+   if(retVal <= 0)
+   {
+      return retVal;
+   }
+
+   if(fillStreamInfoTable(env, table, streaminfo) < 0)
+   {
+      return -1;
+   }
+
+   return retVal;
+}
+
+/* Room for HDHOMERUN_PSI_PROGRAMS_MAX lines of streaminfo and the tsid. */
+#define STREAM_PROGRAMS_TEXT_MAX 4096
+
+/*
+ * Writes the programs found in the stream's tables as the device's streaminfo lists them, so they
+ * parse into a StreamInfoTable the same way. A program the VCT doesn't list has virtual channel 0.
+ */
+static void formatStreamPrograms(const struct hdhomerun_psi_program_t *programs, int count, const struct hdhomerun_psi_status_t *status, char *text, size_t size)
+{
+   char *pos = text;
+   char *end = text + size;
+   int i;
+
+   text[0] = 0;
+   for(i = 0; i < count; i++)
+   {
+      const struct hdhomerun_psi_program_t *program = &programs[i];
+
+      hdhomerun_sprintf(pos, end, "%u: %u", program->program_number, program->virtual_major);
+      pos = strchr(pos, 0);
+      if(program->virtual_minor != 0)
+      {
+         hdhomerun_sprintf(pos, end, ".%u", program->virtual_minor);
+         pos = strchr(pos, 0);
+      }
+      if(program->name[0])
+      {
+         hdhomerun_sprintf(pos, end, " %s", program->name);
+         pos = strchr(pos, 0);
+      }
+
+      if(program->access_controlled || program->pmt_ca)
+      {
+         hdhomerun_sprintf(pos, end, " (encrypted)");
+      }
+      else if(program->hidden || (program->service_type == HDHOMERUN_PSI_SERVICE_TYPE_DATA))
+      {
+         hdhomerun_sprintf(pos, end, " (control)");
+      }
+      pos = strchr(pos, 0);
+
+      hdhomerun_sprintf(pos, end, "\n");
+      pos = strchr(pos, 0);
+   }
+
+   hdhomerun_sprintf(pos, end, "tsid=0x%04X\n", status->transport_stream_id);
+}
+
+static void detectStreamProgramsChanged(struct hdhomerun_psi_t *psi, void *arg)
+{
+   thread_cond_signal((thread_cond_t *)arg);
+}
+
+JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIdetectStreamPrograms
+  (JNIEnv * env, jobject thiz, jlong cPointer, jobject table, jobject listener, jint timeoutMs)
+{
+   struct hdhomerun_device_t* device = (struct hdhomerun_device_t*)(intptr_t)cPointer;
+   struct hdhomerun_video_sock_t* vs;
+   struct hdhomerun_psi_t* psi;
+   struct hdhomerun_psi_program_t* programs;
+   struct hdhomerun_psi_status_t status;
+   jmethodID changedId = NULL;
+   thread_cond_t changed;
+   char text[STREAM_PROGRAMS_TEXT_MAX];
+   int retVal = 0;
+
+   MY_LOGD("C: detectStreamPrograms: timeout %d", (int)timeoutMs);
+
+   fillStreamInfoTable(env, table, NULL);
+
+   vs = hdhomerun_device_get_video_sock(device);
+   psi = vs ? hdhomerun_video_get_psi(vs) : NULL;
+   if(!psi)
+   {
+      return -1;
+   }
+
+   if(listener)
+   {
+      jclass listenerClass = (*env)->GetObjectClass(env, listener);
+      changedId = (*env)->GetMethodID(env, listenerClass, "streamProgramsChanged", "(Lcom/zaren/HdhomerunSignalMeterLib/data/StreamInfoTable;Z)V");
+      if(!changedId)
+      {
+         return -1;
+      }
+   }
+
+   programs = (struct hdhomerun_psi_program_t *)malloc(HDHOMERUN_PSI_PROGRAMS_MAX * sizeof(struct hdhomerun_psi_program_t));
+   if(!programs)
+   {
+      return -1;
+   }
+
+   thread_cond_init(&changed);
+   if(!hdhomerun_psi_add_listener(psi, detectStreamProgramsChanged, &changed))
+   {
+      thread_cond_dispose(&changed);
+      free(programs);
+      return -1;
+   }
+
+   uint64_t timeout = getcurrenttime() + (uint64_t)(timeoutMs > 0 ? timeoutMs : 0);
+   uint32_t reported_change_count = 0;
+   bool_t reported = FALSE;
+
+   while(1)
+   {
+      int count = hdhomerun_psi_get_programs(psi, programs, HDHOMERUN_PSI_PROGRAMS_MAX, &status);
+      if(count > HDHOMERUN_PSI_PROGRAMS_MAX)
+      {
+         count = HDHOMERUN_PSI_PROGRAMS_MAX;
+      }
+
+      /* Only the tables as they change, nothing before the PAT. */
+      if((count >= 0) && (!reported || (status.change_count != reported_change_count)))
+      {
+         reported = TRUE;
+         reported_change_count = status.change_count;
+
+         formatStreamPrograms(programs, count, &status, text, sizeof(text));
+         if(fillStreamInfoTable(env, table, text) < 0)
+         {
+            retVal = -1;
+            break;
+         }
+
+         if(changedId)
+         {
+            (*env)->CallVoidMethod(env, listener, changedId, table, (jboolean)status.complete);
+            if((*env)->ExceptionCheck(env))
+            {
+               break;
+            }
+         }
+
+         if(status.complete)
+         {
+            retVal = 1;
+            break;
+         }
+      }
+
+      uint64_t current_time = getcurrenttime();
+      if(current_time >= timeout)
+      {
+         break;
+      }
+      thread_cond_wait_with_timeout(&changed, timeout - current_time);
+   }
+
+   hdhomerun_psi_remove_listener(psi, detectStreamProgramsChanged, &changed);
+   thread_cond_dispose(&changed);
+   free(programs);
+
+   MY_LOGD("C: detectStreamPrograms: return %d, %u of %u PMTs, vct %d", retVal, status.pmt_received_count, status.program_count, status.vct_received);
+   return retVal;
 }
 
-JNIEXPORT jstring JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIgetSupported
-  (JNIEnv * env, jobject thiz, jlong cPointer)
+/* Keep in sync with GuideTable.java */
+#define GUIDE_EVENT_ID 0
+#define GUIDE_START_TIME 1
+#define GUIDE_DURATION 2
+#define GUIDE_TITLE_OFFSET 3
+#define GUIDE_TITLE_LENGTH 4
+#define GUIDE_TEXT_OFFSET 5
+#define GUIDE_TEXT_LENGTH 6
+#define GUIDE_FIELD_COUNT 7
+
+/*
+ * The guide of the device's video socket, created and collecting from the first call.
+ */
+static struct hdhomerun_guide_t *getGuide(struct hdhomerun_device_t *device)
 {
-   struct hdhomerun_device_t* device = (struct hdhomerun_device_t*)(intptr_t)cPointer;
-   char supportedBuf[100];
-   char* supported = supportedBuf;
-   int status = 0;
+   struct hdhomerun_video_sock_t* vs = hdhomerun_device_get_video_sock(device);
+   return vs ? hdhomerun_video_get_guide(vs) : NULL;
+}
 
-   MY_LOGD("C: getSupported");
+/*
+ * The tsid and source_id of a program of the stream being received, from its PAT and VCT.
+ */
+static bool_t findGuideChannel(struct hdhomerun_device_t *device, int program_number, uint16_t *ptsid, uint16_t *psource_id)
+{
+   struct hdhomerun_video_sock_t* vs = hdhomerun_device_get_video_sock(device);
+   struct hdhomerun_psi_t* psi = vs ? hdhomerun_video_get_psi(vs) : NULL;
+   struct hdhomerun_psi_program_t* programs;
+   struct hdhomerun_psi_status_t status;
+   bool_t found = FALSE;
 
-   status = hdhomerun_device_get_supported(device, NULL, &supported);
-   
-   if(status == 1)
+   if(!psi)
    {
-		return (*env)->NewStringUTF(env, supported);
+      return FALSE;
    }
-   else if( status == 0)
+
+   programs = (struct hdhomerun_psi_program_t *)malloc(HDHOMERUN_PSI_PROGRAMS_MAX * sizeof(struct hdhomerun_psi_program_t));
+   if(!programs)
    {
-	   return (*env)->NewStringUTF(env, "rejected");
+      return FALSE;
    }
-   else
+
+   int count = hdhomerun_psi_get_programs(psi, programs, HDHOMERUN_PSI_PROGRAMS_MAX, &status);
+   if(count > HDHOMERUN_PSI_PROGRAMS_MAX)
    {
-	   return (*env)->NewStringUTF(env, "Network failure");
+      count = HDHOMERUN_PSI_PROGRAMS_MAX;
+   }
+
+   int i;
+   for(i = 0; i < count; i++)
+   {
+      if((programs[i].program_number == program_number) && programs[i].vct_received)
+      {
+         *ptsid = status.transport_stream_id;
+         *psource_id = programs[i].source_id;
+         found = TRUE;
+         break;
+      }
    }
+
+   free(programs);
+   return found;
 }
 
-JNIEXPORT jstring JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIgetChannelMap
+JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIenableGuide
   (JNIEnv * env, jobject thiz, jlong cPointer)
 {
    struct hdhomerun_device_t* device = (struct hdhomerun_device_t*)(intptr_t)cPointer;
-   char channelMapBuf[100];
-   char* channelMap = channelMapBuf;
-   int status = 0;
 
-   MY_LOGD("C: getChannelMap");
+   MY_LOGD("C: enableGuide");
 
-   status = hdhomerun_device_get_tuner_channelmap(device, &channelMap);
+   return getGuide(device) ? 1 : -1;
+}
 
-   if(status == 1)
+JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIgetGuideEvents
+  (JNIEnv * env, jobject thiz, jlong cPointer, jint programNumber, jint tsid, jint sourceId, jlong fromTime, jobject table)
+{
+   struct hdhomerun_device_t* device = (struct hdhomerun_device_t*)(intptr_t)cPointer;
+   struct hdhomerun_guide_t* guide;
+   struct hdhomerun_guide_event_t* events = NULL;
+   jint* fields = NULL;
+   char* text = NULL;
+   size_t text_size = 0;
+   uint16_t channel_tsid = (uint16_t)tsid;
+   uint16_t channel_source_id = (uint16_t)sourceId;
+   int retVal = -1;
+
+   jclass tableClass = (*env)->GetObjectClass(env, table);
+   jfieldID eventDataId = (*env)->GetFieldID(env, tableClass, "eventData", "[I");
+   jfieldID textId = (*env)->GetFieldID(env, tableClass, "text", "[B");
+   jfieldID eventCountId = (*env)->GetFieldID(env, tableClass, "eventCount", "I");
+   jfieldID tsidId = (*env)->GetFieldID(env, tableClass, "tsid", "I");
+   jfieldID sourceIdId = (*env)->GetFieldID(env, tableClass, "sourceId", "I");
+
+   (*env)->SetIntField(env, table, eventCountId, 0);
+   (*env)->SetIntField(env, table, tsidId, -1);
+   (*env)->SetIntField(env, table, sourceIdId, -1);
+
+   guide = getGuide(device);
+   if(!guide)
    {
-		return (*env)->NewStringUTF(env, channelMap);
+      return -1;
    }
-   else if( status == 0)
+
+   if((programNumber >= 0) && !findGuideChannel(device, programNumber, &channel_tsid, &channel_source_id))
    {
-	   return (*env)->NewStringUTF(env, "rejected");
+      return 0;
    }
-   else
+
+   (*env)->SetIntField(env, table, tsidId, channel_tsid);
+   (*env)->SetIntField(env, table, sourceIdId, channel_source_id);
+
+   /* How many events, how much text they need, then the events and their text. */
+   uint32_t from_time = (fromTime > 0) ? (uint32_t)fromTime : 0;
+   int count = hdhomerun_guide_get_events(guide, channel_tsid, channel_source_id, from_time, NULL, 0, NULL, 0, NULL);
+   if(count <= 0)
    {
-	   return (*env)->NewStringUTF(env, "Network failure");
+      return 0;
    }
-   
+
+   events = (struct hdhomerun_guide_event_t *)malloc(count * sizeof(struct hdhomerun_guide_event_t));
+   fields = (jint *)malloc(count * GUIDE_FIELD_COUNT * sizeof(jint));
+   if(events && fields)
+   {
+      hdhomerun_guide_get_events(guide, channel_tsid, channel_source_id, from_time, events, (unsigned int)count, NULL, 0, &text_size);
+      text = (char *)malloc(text_size + 1);
+   }
+
+   if(text)
+   {
+      int copied = hdhomerun_guide_get_events(guide, channel_tsid, channel_source_id, from_time, events, (unsigned int)count, text, text_size + 1, NULL);
+      if(copied < count)
+      {
+         count = copied;
+      }
+
+      int i;
+      for(i = 0; i < count; i++)
+      {
+         jint *event_fields = &fields[i * GUIDE_FIELD_COUNT];
+         size_t title_length = strlen(events[i].title);
+         size_t text_length = strlen(events[i].text);
+         event_fields[GUIDE_EVENT_ID] = events[i].event_id;
+         event_fields[GUIDE_START_TIME] = (jint)events[i].start_time;
+         event_fields[GUIDE_DURATION] = (jint)events[i].duration;
+         event_fields[GUIDE_TITLE_OFFSET] = title_length ? (jint)(events[i].title - text) : 0;
+         event_fields[GUIDE_TITLE_LENGTH] = (jint)title_length;
+         event_fields[GUIDE_TEXT_OFFSET] = text_length ? (jint)(events[i].text - text) : 0;
+         event_fields[GUIDE_TEXT_LENGTH] = (jint)text_length;
+      }
+
+      jintArray eventData = (jintArray)ensureArrayField(env, table, eventDataId, count * GUIDE_FIELD_COUNT, TRUE);
+      jbyteArray textArray = (jbyteArray)ensureArrayField(env, table, textId, (jsize)text_size, FALSE);
+      if(eventData && textArray)
+      {
+         (*env)->SetIntArrayRegion(env, eventData, 0, count * GUIDE_FIELD_COUNT, fields);
+         (*env)->SetByteArrayRegion(env, textArray, 0, (jsize)text_size, (const jbyte *)text);
+         (*env)->SetIntField(env, table, eventCountId, count);
+         retVal = count;
+      }
+   }
+
+   free(text);
+   free(fields);
+   free(events);
+
+   return retVal;
 }
 
-JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIgetTunerStreamInfo
-  (JNIEnv * env, jobject thiz, jlong cPointer, jobject streamInfo)
+JNIEXPORT void JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIexpireGuide
+  (JNIEnv * env, jobject thiz, jlong cPointer, jlong time)
 {
    struct hdhomerun_device_t* device = (struct hdhomerun_device_t*)(intptr_t)cPointer;
-   int retVal = 1;
-   char buffer[1000];
-   char* streamNfo = buffer;
-   
-   jclass jniStringsClass = (*env)->FindClass(env,"com/zaren/HdhomerunSignalMeterLib/data/JniString");
-   jmethodID setStringId = (*env)->GetMethodID(env,jniStringsClass,"setString","(Ljava/lang/String;)V");
-   
-   MY_LOGD("C: getTunerStreamInfo");
-   
-   memset(buffer,0,sizeof(char)*1000);
-   
-   retVal = hdhomerun_device_get_tuner_streaminfo(device, &streamNfo);
-   
-   (*env)->CallVoidMethod(env, streamInfo, setStringId,
-                         (*env)->NewStringUTF(env, streamNfo));
-   
-   return retVal;
+   struct hdhomerun_guide_t* guide = getGuide(device);
+
+   if(guide)
+   {
+      hdhomerun_guide_expire(guide, (time > 0) ? (uint32_t)time : 0);
+   }
+}
+
+JNIEXPORT jboolean JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIsaveGuide
+  (JNIEnv * env, jobject thiz, jlong cPointer, jstring pathStr)
+{
+   struct hdhomerun_device_t* device = (struct hdhomerun_device_t*)(intptr_t)cPointer;
+   struct hdhomerun_guide_t* guide = getGuide(device);
+   bool_t retVal = FALSE;
+
+   if(guide)
+   {
+      const char *path = (*env)->GetStringUTFChars(env, pathStr, 0);
+      retVal = hdhomerun_guide_save(guide, path);
+      (*env)->ReleaseStringUTFChars(env, pathStr, path);
+   }
+
+   return retVal ? JNI_TRUE : JNI_FALSE;
+}
+
+JNIEXPORT jboolean JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIloadGuide
+  (JNIEnv * env, jobject thiz, jlong cPointer, jstring pathStr)
+{
+   struct hdhomerun_device_t* device = (struct hdhomerun_device_t*)(intptr_t)cPointer;
+   struct hdhomerun_guide_t* guide = getGuide(device);
+   bool_t retVal = FALSE;
+
+   if(guide)
+   {
+      const char *path = (*env)->GetStringUTFChars(env, pathStr, 0);
+      retVal = hdhomerun_guide_load(guide, path);
+      (*env)->ReleaseStringUTFChars(env, pathStr, path);
+   }
+
+   return retVal ? JNI_TRUE : JNI_FALSE;
 }
 
 //TODO USE REAL LIBRARY CHANNEL SCAN
@@ -370,7 +1284,7 @@ int detectPrograms( struct hdhomerun_device_t* device, struct hdhomerun_channels
 }
 
 JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIwaitForLock
-  (JNIEnv *env, jobject thiz, jlong cPointer, jobject tunerStatus)
+  (JNIEnv *env, jobject thiz, jlong cPointer, jobject tunerStatus, jboolean detect)
 {
    struct hdhomerun_device_t* device = (struct hdhomerun_device_t*)(intptr_t)cPointer;
    int retVal = 1;
@@ -410,9 +1324,9 @@ JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevi
          msleep_approx(250);
       }
       
-      if( retVal > 0 )
+      /* Detect programs from streaminfo, unless the caller reads them from the stream. */
+      if( retVal > 0 && detect )
       {
-         /* Detect programs. */
          result.program_count = 0;
 
          uint64_t timeout;
@@ -808,6 +1722,55 @@ JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevi
    return retVal;
 }
 
+JNIEXPORT void JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNItunerLockkeyUseValue
+  (JNIEnv * env, jobject thiz, jlong cPointer, jint lockkey)
+{
+   struct hdhomerun_device_t* device = (struct hdhomerun_device_t*)(intptr_t)cPointer;
+   
+   MY_LOGD("C: tunerLockkeyUseValue");
+   
+   hdhomerun_device_tuner_lockkey_use_value(device, (uint32_t)lockkey);
+}
+
+JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIgetPlotsample
+  (JNIEnv * env, jobject thiz, jlong cPointer, jboolean oob, jshortArray javaSamples, jintArray javaCount)
+{
+   struct hdhomerun_device_t* device = (struct hdhomerun_device_t*)(intptr_t)cPointer;
+   struct hdhomerun_plotsample_t* samples;
+   size_t count = 0;
+   jint available;
+   jsize capacity;
+   jsize copied;
+   int retVal;
+
+   if( oob )
+   {
+      retVal = hdhomerun_device_get_oob_plotsample(device, &samples, &count);
+   }
+   else
+   {
+      retVal = hdhomerun_device_get_tuner_plotsample(device, &samples, &count);
+   }
+
+   if( retVal <= 0 )
+   {
+      count = 0;
+   }
+   else
+   {
+      // a sample is an I and a Q int16_t, so the samples copy straight into the interleaved array
+      capacity = (*env)->GetArrayLength(env, javaSamples) / 2;
+      copied = (jsize)count < capacity ? (jsize)count : capacity;
+      (*env)->SetShortArrayRegion(env, javaSamples, 0, copied * 2, (const jshort*)samples);
+   }
+
+   // the full count so the caller can grow its array for the next poll
+   available = (jint)count;
+   (*env)->SetIntArrayRegion(env, javaCount, 0, 1, &available);
+
+   return retVal;
+}
+
 JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIgetTunerProgram
   (JNIEnv * env, jobject thiz, jlong cPointer, jobject javaProgString)
 {
@@ -872,6 +1835,311 @@ JNIEXPORT void JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevi
    hdhomerun_device_stream_stop(device);
 }
 
+JNIEXPORT jboolean JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIsetRecordingIoUring
+  (JNIEnv * env, jclass clazz, jboolean enable)
+{
+   return hdhomerun_recorder_set_io_uring(enable ? TRUE : FALSE) ? JNI_TRUE : JNI_FALSE;
+}
+
+JNIEXPORT jboolean JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIsetVideoReactor
+  (JNIEnv * env, jclass clazz, jint threadCount, jintArray cpus)
+{
+   int cpuValues[HDHOMERUN_VIDEO_REACTOR_THREADS_MAX];
+   jsize cpuCount = 0;
+
+   if (threadCount < 0)
+   {
+      threadCount = 0;
+   }
+
+   if (cpus != NULL)
+   {
+      cpuCount = (*env)->GetArrayLength(env, cpus);
+      if (cpuCount > HDHOMERUN_VIDEO_REACTOR_THREADS_MAX)
+      {
+         cpuCount = HDHOMERUN_VIDEO_REACTOR_THREADS_MAX;
+      }
+      (*env)->GetIntArrayRegion(env, cpus, 0, cpuCount, (jint*)cpuValues);
+   }
+
+   return hdhomerun_video_set_reactor((unsigned int)threadCount, cpuCount > 0 ? cpuValues : NULL, (unsigned int)cpuCount) ? JNI_TRUE : JNI_FALSE;
+}
+
+JNIEXPORT jlong JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIstartProgramFilter
+  (JNIEnv * env, jobject thiz, jlong cPointer, jintArray programs)
+{
+   struct hdhomerun_device_t* device = (struct hdhomerun_device_t*)(intptr_t)cPointer;
+   struct hdhomerun_program_filter_t* filter;
+   jint programValues[HDHOMERUN_PSI_PROGRAMS_MAX];
+   uint16_t programNumbers[HDHOMERUN_PSI_PROGRAMS_MAX];
+   jsize programCount;
+   int i;
+
+   programCount = (*env)->GetArrayLength(env, programs);
+   if (programCount > HDHOMERUN_PSI_PROGRAMS_MAX)
+   {
+      programCount = HDHOMERUN_PSI_PROGRAMS_MAX;
+   }
+   (*env)->GetIntArrayRegion(env, programs, 0, programCount, programValues);
+
+   for (i = 0; i < programCount; i++)
+   {
+      programNumbers[i] = (uint16_t)programValues[i];
+   }
+
+   MY_LOGD("C: startProgramFilter: %d programs", (int)programCount);
+   filter = hdhomerun_program_filter_create(device, programNumbers, (unsigned int)programCount, NULL);
+
+   return (jlong) (intptr_t) filter;
+}
+
+JNIEXPORT void JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIstopProgramFilter
+  (JNIEnv * env, jobject thiz, jlong filterPointer)
+{
+   struct hdhomerun_program_filter_t* filter = (struct hdhomerun_program_filter_t*)(intptr_t)filterPointer;
+
+   MY_LOGD("C: stopProgramFilter: %p", filter);
+   hdhomerun_program_filter_destroy(filter);
+}
+
+JNIEXPORT jintArray JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIgetProgramFilterPids
+  (JNIEnv * env, jobject thiz, jlong filterPointer)
+{
+   struct hdhomerun_program_filter_t* filter = (struct hdhomerun_program_filter_t*)(intptr_t)filterPointer;
+   uint16_t pids[0x2000];
+   unsigned int count;
+   unsigned int i;
+   jintArray result;
+   jint* pidValues;
+
+   count = hdhomerun_program_filter_get_pids(filter, pids, 0x2000);
+
+   result = (*env)->NewIntArray(env, (jsize)count);
+   if (result == NULL)
+   {
+      return NULL;
+   }
+
+   pidValues = (*env)->GetIntArrayElements(env, result, NULL);
+   if (pidValues != NULL)
+   {
+      for (i = 0; i < count; i++)
+      {
+         pidValues[i] = pids[i];
+      }
+      (*env)->ReleaseIntArrayElements(env, result, pidValues, 0);
+   }
+   return result;
+}
+
+JNIEXPORT jlong JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIstartRecording
+  (JNIEnv * env, jobject thiz, jlong cPointer, jstring path, jlong segmentSize, jint blockCount)
+{
+   struct hdhomerun_device_t* device = (struct hdhomerun_device_t*)(intptr_t)cPointer;
+   struct hdhomerun_recorder_t* recorder;
+
+   const char* pathStr = (*env)->GetStringUTFChars(env, path, NULL);
+   if( !pathStr )
+   {
+      return 0;
+   }
+
+   MY_LOGD("C: startRecording: %s", pathStr);
+   recorder = hdhomerun_recorder_create(device, pathStr, segmentSize > 0 ? (uint64_t)segmentSize : 0, blockCount > 0 ? (unsigned int)blockCount : 0, NULL);
+
+   (*env)->ReleaseStringUTFChars(env, path, pathStr);
+
+   return (jlong) (intptr_t) recorder;
+}
+
+JNIEXPORT void JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIstopRecording
+  (JNIEnv * env, jobject thiz, jlong recorderPointer)
+{
+   struct hdhomerun_recorder_t* recorder = (struct hdhomerun_recorder_t*)(intptr_t)recorderPointer;
+
+   MY_LOGD("C: stopRecording: %p", recorder);
+   hdhomerun_recorder_destroy(recorder);
+}
+
+JNIEXPORT void JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIgetRecordingStats
+  (JNIEnv * env, jobject thiz, jlong recorderPointer, jlongArray values)
+{
+   struct hdhomerun_recorder_t* recorder = (struct hdhomerun_recorder_t*)(intptr_t)recorderPointer;
+   struct hdhomerun_recorder_stats_t stats;
+   jlong statValues[11];
+
+   hdhomerun_recorder_get_stats(recorder, &stats);
+
+   //the order of the RecordingStats constants
+   statValues[0] = (jlong)stats.bytes_written;
+   statValues[1] = stats.blocks_written;
+   statValues[2] = stats.segment_count;
+   statValues[3] = stats.block_count;
+   statValues[4] = stats.backlog_blocks;
+   statValues[5] = stats.backlog_blocks_max;
+   statValues[6] = (jlong)stats.write_time_total_us;
+   statValues[7] = stats.write_time_max_us;
+   statValues[8] = stats.write_error_count;
+   statValues[9] = stats.overflow_error_count;
+   statValues[10] = stats.io_uring;
+
+   (*env)->SetLongArrayRegion(env, values, 0, 11, statValues);
+}
+
+JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIstreamStart
+  (JNIEnv * env, jobject thiz, jlong cPointer)
+{
+   struct hdhomerun_device_t* device = (struct hdhomerun_device_t*)(intptr_t)cPointer;
+
+   MY_LOGD("C: streamStart: pointer: %p", device);
+   return hdhomerun_device_stream_start(device);
+}
+
+JNIEXPORT void JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIstreamSetNotifyThreshold
+  (JNIEnv * env, jobject thiz, jlong cPointer, jint threshold)
+{
+   struct hdhomerun_device_t* device = (struct hdhomerun_device_t*)(intptr_t)cPointer;
+
+   hdhomerun_device_stream_set_notify_threshold(device, threshold > 0 ? (size_t)threshold : 0);
+}
+
+/*
+ * Waits for the stream and returns where the data is, NULL with *size 0 on a timeout,
+ * NULL with *size -1 if the receive socket couldn't be created
+ */
+static uint8_t* stream_recv_wait(struct hdhomerun_device_t* device, jint length, jint timeoutMs, jint* size)
+{
+   size_t actual_size = 0;
+   uint8_t* data;
+
+   if( !hdhomerun_device_get_video_sock(device) )
+   {
+      *size = -1;
+      return NULL;
+   }
+
+   data = hdhomerun_device_stream_recv_wait(device, length > 0 ? (size_t)length : 0, &actual_size, timeoutMs > 0 ? (uint64_t)timeoutMs : 0);
+   *size = data ? (jint)actual_size : 0;
+   return data;
+}
+
+JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIstreamRecv
+  (JNIEnv * env, jobject thiz, jlong cPointer, jbyteArray buffer, jint offset, jint length, jint timeoutMs)
+{
+   struct hdhomerun_device_t* device = (struct hdhomerun_device_t*)(intptr_t)cPointer;
+   jint size;
+
+   uint8_t* data = stream_recv_wait(device, length, timeoutMs, &size);
+   if( data )
+   {
+      (*env)->SetByteArrayRegion(env, buffer, offset, size, (const jbyte*)data);
+   }
+
+   return size;
+}
+
+JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIstreamRecvDirect
+  (JNIEnv * env, jobject thiz, jlong cPointer, jobject buffer, jint position, jint length, jint timeoutMs)
+{
+   struct hdhomerun_device_t* device = (struct hdhomerun_device_t*)(intptr_t)cPointer;
+   jint size;
+
+   uint8_t* address = (uint8_t*)(*env)->GetDirectBufferAddress(env, buffer);
+   if( !address )
+   {
+      return -1;
+   }
+
+   uint8_t* data = stream_recv_wait(device, length, timeoutMs, &size);
+   if( data )
+   {
+      memcpy(address + position, data, size);
+   }
+
+   return size;
+}
+
+JNIEXPORT jobject JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIstreamBuffer
+  (JNIEnv * env, jobject thiz, jlong cPointer)
+{
+   struct hdhomerun_device_t* device = (struct hdhomerun_device_t*)(intptr_t)cPointer;
+   size_t size;
+
+   struct hdhomerun_video_sock_t* vs = hdhomerun_device_get_video_sock(device);
+   if( !vs )
+   {
+      return NULL;
+   }
+
+   uint8_t* buffer = hdhomerun_video_get_buffer(vs, &size);
+   return (*env)->NewDirectByteBuffer(env, buffer, (jlong)size);
+}
+
+JNIEXPORT jlong JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIstreamReleaseWait
+  (JNIEnv * env, jobject thiz, jlong cPointer, jlong release, jlong seen, jint timeoutMs)
+{
+   struct hdhomerun_device_t* device = (struct hdhomerun_device_t*)(intptr_t)cPointer;
+
+   struct hdhomerun_video_sock_t* vs = hdhomerun_device_get_video_sock(device);
+   if( !vs )
+   {
+      return -1;
+   }
+
+   return (jlong)hdhomerun_video_release_wait(vs, (uint64_t)release, (uint64_t)seen, timeoutMs > 0 ? (uint64_t)timeoutMs : 0);
+}
+
+JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIjoinMulticastGroup
+  (JNIEnv * env, jobject thiz, jlong cPointer, jint multicastIp, jint localIp)
+{
+   struct hdhomerun_device_t* device = (struct hdhomerun_device_t*)(intptr_t)cPointer;
+
+   struct hdhomerun_video_sock_t* vs = hdhomerun_device_get_video_sock(device);
+   if( !vs )
+   {
+      return -1;
+   }
+
+   MY_LOGD("C: joinMulticastGroup: %p %08X", device, (unsigned int)multicastIp);
+   return (jint)hdhomerun_video_join_multicast_group(vs, (uint32_t)multicastIp, (uint32_t)localIp);
+}
+
+JNIEXPORT void JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIleaveMulticastGroup
+  (JNIEnv * env, jobject thiz, jlong cPointer, jint multicastIp, jint localIp)
+{
+   struct hdhomerun_device_t* device = (struct hdhomerun_device_t*)(intptr_t)cPointer;
+
+   struct hdhomerun_video_sock_t* vs = hdhomerun_device_get_video_sock(device);
+   if( !vs )
+   {
+      return;
+   }
+
+   MY_LOGD("C: leaveMulticastGroup: %p %08X", device, (unsigned int)multicastIp);
+   hdhomerun_video_leave_multicast_group(vs, (uint32_t)multicastIp, (uint32_t)localIp);
+}
+
+JNIEXPORT void JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIgetStreamStats
+  (JNIEnv * env, jobject thiz, jlong cPointer, jlongArray values)
+{
+   struct hdhomerun_device_t* device = (struct hdhomerun_device_t*)(intptr_t)cPointer;
+   struct hdhomerun_video_stats_t stats;
+   jlong statValues[6];
+
+   //all zero before the stream's socket is created
+   hdhomerun_device_get_video_stats(device, &stats);
+
+   //the order of the StreamStats constants
+   statValues[0] = (jlong)stats.byte_count;
+   statValues[1] = stats.packet_count;
+   statValues[2] = stats.network_error_count;
+   statValues[3] = stats.transport_error_count;
+   statValues[4] = stats.sequence_error_count;
+   statValues[5] = stats.overflow_error_count;
+
+   (*env)->SetLongArrayRegion(env, values, 0, 6, statValues);
+}
+
 JNIEXPORT jint JNICALL Java_com_zaren_HdhomerunSignalMeterLib_data_HdhomerunDevice_JNIgetTunerChannel
   (JNIEnv * env, jobject thiz, jlong cPointer, jobject javaChannelString)
 {
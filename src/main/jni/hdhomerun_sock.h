@@ -54,6 +54,15 @@ extern LIBTYPE bool_t hdhomerun_sock_sendto(hdhomerun_sock_t sock, uint32_t remo
 extern LIBTYPE bool_t hdhomerun_sock_recv(hdhomerun_sock_t sock, void *data, size_t *length, uint64_t timeout);
 extern LIBTYPE bool_t hdhomerun_sock_recvfrom(hdhomerun_sock_t sock, uint32_t *remote_addr, uint16_t *remote_port, void *data, size_t *length, uint64_t timeout);
 
+/*
+ * Wait until at least one of the sockets has data to read.
+ *
+ * Returns TRUE if a socket is readable.
+ * Returns FALSE on timeout or error.
+ */
+#define HDHOMERUN_SOCK_WAIT_MAX_COUNT 32
+extern LIBTYPE bool_t hdhomerun_sock_wait_readable(hdhomerun_sock_t socks[], unsigned int count, uint64_t timeout);
+
 #ifdef __cplusplus
 }
 #endif
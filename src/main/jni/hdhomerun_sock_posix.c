@@ -255,6 +255,12 @@ bool_t hdhomerun_sock_join_multicast_group(hdhomerun_sock_t sock, uint32_t multi
 	imr.imr_multiaddr.s_addr  = htonl(multicast_ip);
 	imr.imr_interface.s_addr  = htonl(local_ip);
 
+#if defined(IP_MULTICAST_ALL)
+	/* Only the groups this socket joined, not every group joined on the port. */
+	int multicast_all = 0;
+	setsockopt(sock, IPPROTO_IP, IP_MULTICAST_ALL, (char *)&multicast_all, sizeof(multicast_all));
+#endif
+
 	if (setsockopt(sock, IPPROTO_IP, IP_ADD_MEMBERSHIP, (const char *)&imr, sizeof(imr)) != 0) {
 		return FALSE;
 	}
@@ -319,6 +325,34 @@ static bool_t hdhomerun_sock_wait_for_event(hdhomerun_sock_t sock, short event_t
 	return TRUE;
 }
 
+bool_t hdhomerun_sock_wait_readable(hdhomerun_sock_t socks[], unsigned int count, uint64_t timeout)
+{
+	struct pollfd poll_events[HDHOMERUN_SOCK_WAIT_MAX_COUNT];
+	unsigned int i;
+
+	if (count > HDHOMERUN_SOCK_WAIT_MAX_COUNT) {
+		count = HDHOMERUN_SOCK_WAIT_MAX_COUNT;
+	}
+
+	for (i = 0; i < count; i++) {
+		poll_events[i].fd = socks[i];
+		poll_events[i].events = POLLIN;
+		poll_events[i].revents = 0;
+	}
+
+	if (poll(poll_events, count, (int)timeout) <= 0) {
+		return FALSE;
+	}
+
+	for (i = 0; i < count; i++) {
+		if (poll_events[i].revents & POLLIN) {
+			return TRUE;
+		}
+	}
+
+	return FALSE;
+}
+
 bool_t hdhomerun_sock_connect(hdhomerun_sock_t sock, uint32_t remote_addr, uint16_t remote_port, uint64_t timeout)
 {
 	struct sockaddr_in sock_addr;
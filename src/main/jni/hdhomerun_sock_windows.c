@@ -333,6 +333,44 @@ static bool_t hdhomerun_sock_wait_for_event(hdhomerun_sock_t sock, long event_ty
 	return TRUE;
 }
 
+bool_t hdhomerun_sock_wait_readable(hdhomerun_sock_t socks[], unsigned int count, uint64_t timeout)
+{
+	unsigned int i;
+
+	if (count > HDHOMERUN_SOCK_WAIT_MAX_COUNT) {
+		count = HDHOMERUN_SOCK_WAIT_MAX_COUNT;
+	}
+
+	WSAEVENT wsa_event = WSACreateEvent();
+	if (wsa_event == WSA_INVALID_EVENT) {
+		return FALSE;
+	}
+
+	for (i = 0; i < count; i++) {
+		if (WSAEventSelect(socks[i], wsa_event, FD_READ) == SOCKET_ERROR) {
+			break;
+		}
+	}
+
+	DWORD ret = WAIT_FAILED;
+	if (i == count) {
+		ret = WaitForSingleObjectEx(wsa_event, (DWORD)timeout, FALSE);
+	}
+
+	/* Detach the sockets before closing the event, otherwise they stay tied to a handle that can be reused. */
+	while (i > 0) {
+		i--;
+		WSAEventSelect(socks[i], NULL, 0);
+	}
+	WSACloseEvent(wsa_event);
+
+	if (ret != WAIT_OBJECT_0) {
+		return FALSE;
+	}
+
+	return TRUE;
+}
+
 bool_t hdhomerun_sock_send(hdhomerun_sock_t sock, const void *data, size_t length, uint64_t timeout)
 {
 	uint64_t stop_time = getcurrenttime() + timeout;
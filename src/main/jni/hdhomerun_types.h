@@ -26,6 +26,13 @@
 struct hdhomerun_device_t;
 struct hdhomerun_device_allocation_t;
 
+#define HDHOMERUN_TUNER_STATUS_MAX_EXTRA 8
+
+struct hdhomerun_tuner_status_field_t {
+	char name[16];
+	char value[32];
+};
+
 struct hdhomerun_tuner_status_t {
 	char channel[32];
 	char lock_str[32];
@@ -37,6 +44,8 @@ struct hdhomerun_tuner_status_t {
 	unsigned int symbol_error_quality;
 	uint32_t raw_bits_per_second;
 	uint32_t packets_per_second;
+	int extra_count;
+	struct hdhomerun_tuner_status_field_t extra[HDHOMERUN_TUNER_STATUS_MAX_EXTRA];
 };
 
 struct hdhomerun_tuner_vstatus_t {
@@ -18,8 +18,25 @@
  * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
  */
 
+#if defined(__linux__) && !defined(_GNU_SOURCE)
+/* CPU_SET for the reactor threads' affinity. */
+#define _GNU_SOURCE
+#endif
+
 #include "hdhomerun.h"
 
+#if defined(__linux__)
+#include <sys/epoll.h>
+#include <sched.h>
+#define HDHOMERUN_VIDEO_REACTOR
+#endif
+
+#define HDHOMERUN_VIDEO_REACTOR_EVENTS 32
+#define HDHOMERUN_VIDEO_REACTOR_DRAIN 64
+#define HDHOMERUN_VIDEO_REACTOR_WAKE 0xFFFFFFFFFFFFFFFFULL
+
+struct hdhomerun_video_reactor_thread_t;
+
 struct hdhomerun_video_sock_t {
 	pthread_mutex_t lock;
 	struct hdhomerun_debug_t *dbg;
@@ -30,10 +47,24 @@ struct hdhomerun_video_sock_t {
 	uint8_t *buffer;
 	size_t buffer_size;
 	size_t advance;
+	volatile uint64_t stored;
+	uint64_t flush_position;
 
 	pthread_t thread;
 	volatile bool_t terminate;
 
+	struct hdhomerun_video_reactor_thread_t *reactor_thread;
+	unsigned int reactor_slot;
+
+	struct hdhomerun_psi_t *volatile psi;
+	struct hdhomerun_guide_t *volatile guide;
+
+	thread_cond_t data_cond;
+	size_t notify_threshold;
+	volatile uint64_t wait_position;
+	volatile bool_t waiting;
+	volatile uint32_t wake_count;
+
 	volatile uint32_t packet_count;
 	volatile uint32_t transport_error_count;
 	volatile uint32_t network_error_count;
@@ -46,6 +77,46 @@ struct hdhomerun_video_sock_t {
 
 static THREAD_FUNC_PREFIX hdhomerun_video_thread_execute(void *arg);
 
+#if defined(HDHOMERUN_VIDEO_REACTOR)
+/*
+ * The reactor receives every video socket created while it is enabled, instead of a thread each.
+ * Each of its threads waits on its own epoll set and a socket belongs to one thread, so a
+ * socket's datagrams are still stored in order by one thread at a time.
+ *
+ * A socket's epoll data is its slot in its thread's table. Removing a socket clears the slot
+ * under dispatch_lock, so an event the thread already took for it finds the slot empty, or a
+ * newer socket in it that the non-blocking recv finds nothing on.
+ */
+struct hdhomerun_video_reactor_thread_t {
+	struct hdhomerun_video_reactor_t *reactor;
+	pthread_t thread;
+	bool_t started;
+	int epoll_fd;
+	int cpu;
+
+	pthread_mutex_t dispatch_lock;
+	struct hdhomerun_video_sock_t **socks;
+	unsigned int slot_count;
+	unsigned int sock_count;
+};
+
+struct hdhomerun_video_reactor_t {
+	unsigned int users;
+	int wake_fds[2];
+	unsigned int thread_count;
+	struct hdhomerun_video_reactor_thread_t threads[HDHOMERUN_VIDEO_REACTOR_THREADS_MAX];
+};
+
+static pthread_mutex_t hdhomerun_video_reactor_lock = PTHREAD_MUTEX_INITIALIZER;
+static struct hdhomerun_video_reactor_t *hdhomerun_video_reactor = NULL;
+static unsigned int hdhomerun_video_reactor_thread_count = 0;
+static int hdhomerun_video_reactor_cpus[HDHOMERUN_VIDEO_REACTOR_THREADS_MAX];
+static unsigned int hdhomerun_video_reactor_cpu_count = 0;
+
+static bool_t hdhomerun_video_reactor_add(struct hdhomerun_video_sock_t *vs);
+static void hdhomerun_video_reactor_remove(struct hdhomerun_video_sock_t *vs);
+#endif
+
 struct hdhomerun_video_sock_t *hdhomerun_video_create(uint16_t listen_port, bool_t allow_port_reuse, size_t buffer_size, struct hdhomerun_debug_t *dbg)
 {
 	/* Create object. */
@@ -58,6 +129,8 @@ struct hdhomerun_video_sock_t *hdhomerun_video_create(uint16_t listen_port, bool
 	vs->dbg = dbg;
 	vs->sock = HDHOMERUN_SOCK_INVALID;
 	pthread_mutex_init(&vs->lock, NULL);
+	thread_cond_init(&vs->data_cond);
+	vs->notify_threshold = VIDEO_DATA_PACKET_SIZE;
 
 	/* Reset sequence tracking. */
 	hdhomerun_video_flush(vs);
@@ -94,6 +167,13 @@ struct hdhomerun_video_sock_t *hdhomerun_video_create(uint16_t listen_port, bool
 		goto error;
 	}
 
+#if defined(HDHOMERUN_VIDEO_REACTOR)
+	/* Receive on the reactor, or a thread of its own if it isn't enabled or can't start. */
+	if (hdhomerun_video_reactor_add(vs)) {
+		return vs;
+	}
+#endif
+
 	/* Start thread. */
 	if (pthread_create(&vs->thread, NULL, &hdhomerun_video_thread_execute, vs) != 0) {
 		hdhomerun_debug_printf(dbg, "hdhomerun_video_create: failed to start thread\n");
@@ -110,6 +190,7 @@ error:
 	if (vs->buffer) {
 		free(vs->buffer);
 	}
+	thread_cond_dispose(&vs->data_cond);
 	free(vs);
 	return NULL;
 }
@@ -117,10 +198,26 @@ error:
 void hdhomerun_video_destroy(struct hdhomerun_video_sock_t *vs)
 {
 	vs->terminate = TRUE;
+	thread_cond_signal(&vs->data_cond);
+#if defined(HDHOMERUN_VIDEO_REACTOR)
+	if (vs->reactor_thread) {
+		hdhomerun_video_reactor_remove(vs);
+	} else {
+		pthread_join(vs->thread, NULL);
+	}
+#else
 	pthread_join(vs->thread, NULL);
+#endif
 
 	hdhomerun_sock_destroy(vs->sock);
 	free(vs->buffer);
+	thread_cond_dispose(&vs->data_cond);
+	if (vs->guide) {
+		hdhomerun_guide_destroy(vs->guide);
+	}
+	if (vs->psi) {
+		hdhomerun_psi_destroy(vs->psi);
+	}
 
 	free(vs);
 }
@@ -158,6 +255,18 @@ void hdhomerun_video_leave_multicast_group(struct hdhomerun_video_sock_t *vs, ui
 	}
 }
 
+static size_t hdhomerun_video_fill(struct hdhomerun_video_sock_t *vs)
+{
+	size_t head = vs->head;
+	size_t tail = vs->tail;
+
+	if (head >= tail) {
+		return head - tail;
+	}
+
+	return vs->buffer_size - tail + head;
+}
+
 static void hdhomerun_video_stats_ts_pkt(struct hdhomerun_video_sock_t *vs, uint8_t *ptr)
 {
 	uint16_t packet_identifier = ((uint16_t)(ptr[1] & 0x1F) << 8) | (uint16_t)ptr[2];
@@ -219,6 +328,70 @@ static void hdhomerun_video_parse_rtp(struct hdhomerun_video_sock_t *vs, struct
 	}
 }
 
+static void hdhomerun_video_store(struct hdhomerun_video_sock_t *vs, struct hdhomerun_pkt_t *pkt, size_t length)
+{
+	pkt->end += length;
+
+	if (length == VIDEO_RTP_DATA_PACKET_SIZE) {
+		hdhomerun_video_parse_rtp(vs, pkt);
+		length = (int)(pkt->end - pkt->pos);
+	}
+
+	if (length != VIDEO_DATA_PACKET_SIZE) {
+		/* Data received but not valid - ignore. */
+		return;
+	}
+
+	pthread_mutex_lock(&vs->lock);
+
+	/* Store in ring buffer. */
+	size_t head = vs->head;
+	uint8_t *ptr = vs->buffer + head;
+	memcpy(ptr, pkt->pos, length);
+
+	/* Stats. */
+	vs->packet_count++;
+	hdhomerun_video_stats_ts_pkt(vs, ptr + TS_PACKET_SIZE * 0);
+	hdhomerun_video_stats_ts_pkt(vs, ptr + TS_PACKET_SIZE * 1);
+	hdhomerun_video_stats_ts_pkt(vs, ptr + TS_PACKET_SIZE * 2);
+	hdhomerun_video_stats_ts_pkt(vs, ptr + TS_PACKET_SIZE * 3);
+	hdhomerun_video_stats_ts_pkt(vs, ptr + TS_PACKET_SIZE * 4);
+	hdhomerun_video_stats_ts_pkt(vs, ptr + TS_PACKET_SIZE * 5);
+	hdhomerun_video_stats_ts_pkt(vs, ptr + TS_PACKET_SIZE * 6);
+
+	/* Calculate new head. */
+	head += length;
+	if (head >= vs->buffer_size) {
+		head -= vs->buffer_size;
+	}
+
+	/* Check for buffer overflow. */
+	if (head == vs->tail) {
+		vs->overflow_error_count++;
+		pthread_mutex_unlock(&vs->lock);
+		return;
+	}
+
+	vs->head = head;
+	vs->stored += length;
+
+	/* Wake a waiting reader once there is enough data for it. */
+	if (vs->waiting && (vs->stored >= vs->wait_position)) {
+		vs->waiting = FALSE;
+		thread_cond_signal(&vs->data_cond);
+	}
+
+	pthread_mutex_unlock(&vs->lock);
+
+	/* Only the receive thread writes the buffer, so the datagram stays put until it comes round again. */
+	if (vs->psi) {
+		hdhomerun_psi_process(vs->psi, ptr, VIDEO_DATA_PACKET_SIZE / TS_PACKET_SIZE);
+	}
+	if (vs->guide) {
+		hdhomerun_guide_process(vs->guide, ptr, VIDEO_DATA_PACKET_SIZE / TS_PACKET_SIZE);
+	}
+}
+
 static THREAD_FUNC_PREFIX hdhomerun_video_thread_execute(void *arg)
 {
 	struct hdhomerun_video_sock_t *vs = (struct hdhomerun_video_sock_t *)arg;
@@ -234,54 +407,286 @@ static THREAD_FUNC_PREFIX hdhomerun_video_thread_execute(void *arg)
 			continue;
 		}
 
-		pkt->end += length;
+		hdhomerun_video_store(vs, pkt, length);
+	}
 
-		if (length == VIDEO_RTP_DATA_PACKET_SIZE) {
-			hdhomerun_video_parse_rtp(vs, pkt);
-			length = (int)(pkt->end - pkt->pos);
+	return NULL;
+}
+
+#if defined(HDHOMERUN_VIDEO_REACTOR)
+static THREAD_FUNC_PREFIX hdhomerun_video_reactor_execute(void *arg)
+{
+	struct hdhomerun_video_reactor_thread_t *rt = (struct hdhomerun_video_reactor_thread_t *)arg;
+	struct epoll_event events[HDHOMERUN_VIDEO_REACTOR_EVENTS];
+	struct hdhomerun_pkt_t pkt_inst;
+	bool_t terminate = FALSE;
+
+#if defined(CPU_SET)
+	if (rt->cpu >= 0) {
+		cpu_set_t cpus;
+		CPU_ZERO(&cpus);
+		CPU_SET(rt->cpu, &cpus);
+		sched_setaffinity(0, sizeof(cpus), &cpus);
+	}
+#endif
+
+	while (!terminate) {
+		/* No timeout, the thread only wakes for data or the wake pipe. */
+		int count = epoll_wait(rt->epoll_fd, events, HDHOMERUN_VIDEO_REACTOR_EVENTS, -1);
+		if (count < 0) {
+			if (errno == EINTR) {
+				continue;
+			}
+			break;
 		}
 
-		if (length != VIDEO_DATA_PACKET_SIZE) {
-			/* Data received but not valid - ignore. */
-			continue;
+		pthread_mutex_lock(&rt->dispatch_lock);
+
+		int i;
+		for (i = 0; i < count; i++) {
+			if (events[i].data.u64 == HDHOMERUN_VIDEO_REACTOR_WAKE) {
+				terminate = TRUE;
+				continue;
+			}
+
+			struct hdhomerun_video_sock_t *vs = rt->socks[events[i].data.u64];
+			if (!vs) {
+				continue;
+			}
+
+			/* Take what is waiting up to a limit, epoll reports the rest again after the other sockets. */
+			int n;
+			for (n = 0; n < HDHOMERUN_VIDEO_REACTOR_DRAIN; n++) {
+				struct hdhomerun_pkt_t *pkt = &pkt_inst;
+				hdhomerun_pkt_reset(pkt);
+
+				int ret = recv(vs->sock, pkt->end, VIDEO_RTP_DATA_PACKET_SIZE, MSG_DONTWAIT);
+				if (ret <= 0) {
+					break;
+				}
+
+				hdhomerun_video_store(vs, pkt, (size_t)ret);
+			}
 		}
 
-		pthread_mutex_lock(&vs->lock);
+		pthread_mutex_unlock(&rt->dispatch_lock);
+	}
+
+	return NULL;
+}
 
-		/* Store in ring buffer. */
-		size_t head = vs->head;
-		uint8_t *ptr = vs->buffer + head;
-		memcpy(ptr, pkt->pos, length);
-
-		/* Stats. */
-		vs->packet_count++;
-		hdhomerun_video_stats_ts_pkt(vs, ptr + TS_PACKET_SIZE * 0);
-		hdhomerun_video_stats_ts_pkt(vs, ptr + TS_PACKET_SIZE * 1);
-		hdhomerun_video_stats_ts_pkt(vs, ptr + TS_PACKET_SIZE * 2);
-		hdhomerun_video_stats_ts_pkt(vs, ptr + TS_PACKET_SIZE * 3);
-		hdhomerun_video_stats_ts_pkt(vs, ptr + TS_PACKET_SIZE * 4);
-		hdhomerun_video_stats_ts_pkt(vs, ptr + TS_PACKET_SIZE * 5);
-		hdhomerun_video_stats_ts_pkt(vs, ptr + TS_PACKET_SIZE * 6);
-
-		/* Calculate new head. */
-		head += length;
-		if (head >= vs->buffer_size) {
-			head -= vs->buffer_size;
+static void hdhomerun_video_reactor_free(struct hdhomerun_video_reactor_t *reactor)
+{
+	/* The wake pipe is never read, so one byte wakes every thread for good. */
+	if (reactor->wake_fds[1] >= 0) {
+		uint8_t wake = 0;
+		while ((write(reactor->wake_fds[1], &wake, 1) < 0) && (errno == EINTR)) {
 		}
+	}
 
-		/* Check for buffer overflow. */
-		if (head == vs->tail) {
-			vs->overflow_error_count++;
-			pthread_mutex_unlock(&vs->lock);
-			continue;
+	unsigned int i;
+	for (i = 0; i < reactor->thread_count; i++) {
+		struct hdhomerun_video_reactor_thread_t *rt = &reactor->threads[i];
+		if (rt->started) {
+			pthread_join(rt->thread, NULL);
+		}
+		if (rt->epoll_fd >= 0) {
+			close(rt->epoll_fd);
 		}
+		pthread_mutex_destroy(&rt->dispatch_lock);
+		free(rt->socks);
+	}
+
+	if (reactor->wake_fds[0] >= 0) {
+		close(reactor->wake_fds[0]);
+		close(reactor->wake_fds[1]);
+	}
+	free(reactor);
+}
 
-		vs->head = head;
+static struct hdhomerun_video_reactor_t *hdhomerun_video_reactor_create(struct hdhomerun_debug_t *dbg)
+{
+	struct hdhomerun_video_reactor_t *reactor = (struct hdhomerun_video_reactor_t *)calloc(1, sizeof(struct hdhomerun_video_reactor_t));
+	if (!reactor) {
+		return NULL;
+	}
 
-		pthread_mutex_unlock(&vs->lock);
+	reactor->wake_fds[0] = -1;
+	reactor->wake_fds[1] = -1;
+	reactor->thread_count = hdhomerun_video_reactor_thread_count;
+
+	unsigned int i;
+	for (i = 0; i < reactor->thread_count; i++) {
+		struct hdhomerun_video_reactor_thread_t *rt = &reactor->threads[i];
+		rt->reactor = reactor;
+		rt->epoll_fd = -1;
+		rt->cpu = (hdhomerun_video_reactor_cpu_count > 0) ? hdhomerun_video_reactor_cpus[i % hdhomerun_video_reactor_cpu_count] : -1;
+		pthread_mutex_init(&rt->dispatch_lock, NULL);
 	}
 
-	return NULL;
+	if (pipe(reactor->wake_fds) != 0) {
+		hdhomerun_debug_printf(dbg, "hdhomerun_video_reactor_create: failed to create wake pipe (%d)\n", errno);
+		reactor->wake_fds[0] = -1;
+		reactor->wake_fds[1] = -1;
+		hdhomerun_video_reactor_free(reactor);
+		return NULL;
+	}
+
+	for (i = 0; i < reactor->thread_count; i++) {
+		struct hdhomerun_video_reactor_thread_t *rt = &reactor->threads[i];
+
+		rt->epoll_fd = epoll_create(HDHOMERUN_VIDEO_REACTOR_EVENTS);
+		if (rt->epoll_fd < 0) {
+			hdhomerun_debug_printf(dbg, "hdhomerun_video_reactor_create: epoll_create failed (%d)\n", errno);
+			hdhomerun_video_reactor_free(reactor);
+			return NULL;
+		}
+
+		struct epoll_event event;
+		memset(&event, 0, sizeof(event));
+		event.events = EPOLLIN;
+		event.data.u64 = HDHOMERUN_VIDEO_REACTOR_WAKE;
+		if (epoll_ctl(rt->epoll_fd, EPOLL_CTL_ADD, reactor->wake_fds[0], &event) != 0) {
+			hdhomerun_debug_printf(dbg, "hdhomerun_video_reactor_create: epoll_ctl failed (%d)\n", errno);
+			hdhomerun_video_reactor_free(reactor);
+			return NULL;
+		}
+
+		if (pthread_create(&rt->thread, NULL, &hdhomerun_video_reactor_execute, rt) != 0) {
+			hdhomerun_debug_printf(dbg, "hdhomerun_video_reactor_create: failed to start thread\n");
+			hdhomerun_video_reactor_free(reactor);
+			return NULL;
+		}
+		rt->started = TRUE;
+	}
+
+	return reactor;
+}
+
+static bool_t hdhomerun_video_reactor_add(struct hdhomerun_video_sock_t *vs)
+{
+	pthread_mutex_lock(&hdhomerun_video_reactor_lock);
+
+	struct hdhomerun_video_reactor_t *reactor = hdhomerun_video_reactor;
+	if (!reactor) {
+		if (hdhomerun_video_reactor_thread_count == 0) {
+			pthread_mutex_unlock(&hdhomerun_video_reactor_lock);
+			return FALSE;
+		}
+		reactor = hdhomerun_video_reactor_create(vs->dbg);
+		if (!reactor) {
+			pthread_mutex_unlock(&hdhomerun_video_reactor_lock);
+			return FALSE;
+		}
+		hdhomerun_video_reactor = reactor;
+	}
+
+	/* The thread with the fewest sockets. */
+	struct hdhomerun_video_reactor_thread_t *rt = &reactor->threads[0];
+	unsigned int i;
+	for (i = 1; i < reactor->thread_count; i++) {
+		if (reactor->threads[i].sock_count < rt->sock_count) {
+			rt = &reactor->threads[i];
+		}
+	}
+
+	pthread_mutex_lock(&rt->dispatch_lock);
+
+	unsigned int slot;
+	for (slot = 0; slot < rt->slot_count; slot++) {
+		if (!rt->socks[slot]) {
+			break;
+		}
+	}
+	if (slot == rt->slot_count) {
+		unsigned int slot_count = (rt->slot_count > 0) ? rt->slot_count * 2 : 16;
+		struct hdhomerun_video_sock_t **socks = (struct hdhomerun_video_sock_t **)realloc(rt->socks, slot_count * sizeof(struct hdhomerun_video_sock_t *));
+		if (!socks) {
+			pthread_mutex_unlock(&rt->dispatch_lock);
+			pthread_mutex_unlock(&hdhomerun_video_reactor_lock);
+			return FALSE;
+		}
+		memset(socks + rt->slot_count, 0, (slot_count - rt->slot_count) * sizeof(struct hdhomerun_video_sock_t *));
+		rt->socks = socks;
+		rt->slot_count = slot_count;
+	}
+	rt->socks[slot] = vs;
+	rt->sock_count++;
+
+	pthread_mutex_unlock(&rt->dispatch_lock);
+
+	struct epoll_event event;
+	memset(&event, 0, sizeof(event));
+	event.events = EPOLLIN;
+	event.data.u64 = slot;
+	if (epoll_ctl(rt->epoll_fd, EPOLL_CTL_ADD, vs->sock, &event) != 0) {
+		hdhomerun_debug_printf(vs->dbg, "hdhomerun_video_reactor_add: epoll_ctl failed (%d)\n", errno);
+		pthread_mutex_lock(&rt->dispatch_lock);
+		rt->socks[slot] = NULL;
+		rt->sock_count--;
+		pthread_mutex_unlock(&rt->dispatch_lock);
+		pthread_mutex_unlock(&hdhomerun_video_reactor_lock);
+		return FALSE;
+	}
+
+	reactor->users++;
+	vs->reactor_thread = rt;
+	vs->reactor_slot = slot;
+
+	pthread_mutex_unlock(&hdhomerun_video_reactor_lock);
+	return TRUE;
+}
+
+static void hdhomerun_video_reactor_remove(struct hdhomerun_video_sock_t *vs)
+{
+	struct hdhomerun_video_reactor_thread_t *rt = vs->reactor_thread;
+	struct hdhomerun_video_reactor_t *reactor = rt->reactor;
+
+	pthread_mutex_lock(&hdhomerun_video_reactor_lock);
+
+	epoll_ctl(rt->epoll_fd, EPOLL_CTL_DEL, vs->sock, NULL);
+
+	/* Once the slot is clear the thread is done with the socket. */
+	pthread_mutex_lock(&rt->dispatch_lock);
+	rt->socks[vs->reactor_slot] = NULL;
+	rt->sock_count--;
+	pthread_mutex_unlock(&rt->dispatch_lock);
+
+	vs->reactor_thread = NULL;
+
+	if (--reactor->users > 0) {
+		pthread_mutex_unlock(&hdhomerun_video_reactor_lock);
+		return;
+	}
+	hdhomerun_video_reactor = NULL;
+	pthread_mutex_unlock(&hdhomerun_video_reactor_lock);
+
+	hdhomerun_video_reactor_free(reactor);
+}
+#endif
+
+bool_t hdhomerun_video_set_reactor(unsigned int thread_count, const int *cpus, unsigned int cpu_count)
+{
+#if defined(HDHOMERUN_VIDEO_REACTOR)
+	if (thread_count > HDHOMERUN_VIDEO_REACTOR_THREADS_MAX) {
+		thread_count = HDHOMERUN_VIDEO_REACTOR_THREADS_MAX;
+	}
+	if (cpu_count > HDHOMERUN_VIDEO_REACTOR_THREADS_MAX) {
+		cpu_count = HDHOMERUN_VIDEO_REACTOR_THREADS_MAX;
+	}
+
+	pthread_mutex_lock(&hdhomerun_video_reactor_lock);
+	hdhomerun_video_reactor_thread_count = thread_count;
+	hdhomerun_video_reactor_cpu_count = cpus ? cpu_count : 0;
+	unsigned int i;
+	for (i = 0; i < hdhomerun_video_reactor_cpu_count; i++) {
+		hdhomerun_video_reactor_cpus[i] = cpus[i];
+	}
+	pthread_mutex_unlock(&hdhomerun_video_reactor_lock);
+	return TRUE;
+#else
+	return FALSE;
+#endif
 }
 
 uint8_t *hdhomerun_video_recv(struct hdhomerun_video_sock_t *vs, size_t max_size, size_t *pactual_size)
@@ -332,6 +737,156 @@ uint8_t *hdhomerun_video_recv(struct hdhomerun_video_sock_t *vs, size_t max_size
 	return result;
 }
 
+uint8_t *hdhomerun_video_recv_wait(struct hdhomerun_video_sock_t *vs, size_t max_size, size_t *pactual_size, uint64_t timeout)
+{
+	uint64_t stop_time = getcurrenttime() + timeout;
+
+	size_t threshold = (max_size / VIDEO_DATA_PACKET_SIZE) * VIDEO_DATA_PACKET_SIZE;
+	if (threshold > vs->notify_threshold) {
+		threshold = vs->notify_threshold;
+	}
+
+	pthread_mutex_lock(&vs->lock);
+
+	uint32_t wake_count = vs->wake_count;
+
+	/* The data returned by the last recv is done with, count it out of the fill. */
+	if (vs->advance > 0) {
+		size_t tail = vs->tail + vs->advance;
+		if (tail >= vs->buffer_size) {
+			tail -= vs->buffer_size;
+		}
+		vs->tail = tail;
+		vs->advance = 0;
+	}
+
+	while (threshold > 0) {
+		if (hdhomerun_video_fill(vs) >= threshold) {
+			break;
+		}
+		if (vs->terminate || (vs->wake_count != wake_count)) {
+			break;
+		}
+
+		uint64_t current_time = getcurrenttime();
+		if (current_time >= stop_time) {
+			break;
+		}
+
+		vs->wait_position = vs->stored - hdhomerun_video_fill(vs) + threshold;
+		vs->waiting = TRUE;
+		pthread_mutex_unlock(&vs->lock);
+
+		thread_cond_wait_with_timeout(&vs->data_cond, stop_time - current_time);
+
+		pthread_mutex_lock(&vs->lock);
+	}
+
+	vs->waiting = FALSE;
+	pthread_mutex_unlock(&vs->lock);
+
+	return hdhomerun_video_recv(vs, max_size, pactual_size);
+}
+
+uint8_t *hdhomerun_video_get_buffer(struct hdhomerun_video_sock_t *vs, size_t *psize)
+{
+	*psize = vs->buffer_size;
+	return vs->buffer;
+}
+
+uint64_t hdhomerun_video_release_wait(struct hdhomerun_video_sock_t *vs, uint64_t release, uint64_t seen, uint64_t timeout)
+{
+	uint64_t stop_time = getcurrenttime() + timeout;
+
+	pthread_mutex_lock(&vs->lock);
+
+	uint32_t wake_count = vs->wake_count;
+
+	/* The head is always at stored in the buffer, so the tail can be put at any position in between. */
+	uint64_t tail_position = vs->stored - hdhomerun_video_fill(vs);
+	if ((release > tail_position) && (release <= vs->stored)) {
+		vs->tail = (size_t)(release % vs->buffer_size);
+	}
+	vs->advance = 0;
+
+	while (vs->stored < seen + vs->notify_threshold) {
+		if (vs->terminate || (vs->wake_count != wake_count)) {
+			break;
+		}
+
+		uint64_t current_time = getcurrenttime();
+		if (current_time >= stop_time) {
+			break;
+		}
+
+		vs->wait_position = seen + vs->notify_threshold;
+		vs->waiting = TRUE;
+		pthread_mutex_unlock(&vs->lock);
+
+		thread_cond_wait_with_timeout(&vs->data_cond, stop_time - current_time);
+
+		pthread_mutex_lock(&vs->lock);
+	}
+
+	vs->waiting = FALSE;
+	uint64_t stored = vs->stored;
+	pthread_mutex_unlock(&vs->lock);
+
+	return stored;
+}
+
+void hdhomerun_video_set_notify_threshold(struct hdhomerun_video_sock_t *vs, size_t threshold)
+{
+	/* Whole packets, at least one and no more than the buffer can hold. */
+	threshold = (threshold / VIDEO_DATA_PACKET_SIZE) * VIDEO_DATA_PACKET_SIZE;
+	if (threshold < VIDEO_DATA_PACKET_SIZE) {
+		threshold = VIDEO_DATA_PACKET_SIZE;
+	}
+	if (threshold > vs->buffer_size - VIDEO_DATA_PACKET_SIZE) {
+		threshold = vs->buffer_size - VIDEO_DATA_PACKET_SIZE;
+	}
+
+	pthread_mutex_lock(&vs->lock);
+	vs->notify_threshold = threshold;
+	pthread_mutex_unlock(&vs->lock);
+}
+
+void hdhomerun_video_wake(struct hdhomerun_video_sock_t *vs)
+{
+	pthread_mutex_lock(&vs->lock);
+	vs->wake_count++;
+	pthread_mutex_unlock(&vs->lock);
+
+	thread_cond_signal(&vs->data_cond);
+}
+
+struct hdhomerun_psi_t *hdhomerun_video_get_psi(struct hdhomerun_video_sock_t *vs)
+{
+	pthread_mutex_lock(&vs->lock);
+	if (!vs->psi) {
+		vs->psi = hdhomerun_psi_create(vs->dbg);
+	}
+	pthread_mutex_unlock(&vs->lock);
+
+	return vs->psi;
+}
+
+struct hdhomerun_guide_t *hdhomerun_video_get_guide(struct hdhomerun_video_sock_t *vs)
+{
+	struct hdhomerun_psi_t *psi = hdhomerun_video_get_psi(vs);
+	if (!psi) {
+		return NULL;
+	}
+
+	pthread_mutex_lock(&vs->lock);
+	if (!vs->guide) {
+		vs->guide = hdhomerun_guide_create(psi, vs->dbg);
+	}
+	pthread_mutex_unlock(&vs->lock);
+
+	return vs->guide;
+}
+
 void hdhomerun_video_flush(struct hdhomerun_video_sock_t *vs)
 {
 	pthread_mutex_lock(&vs->lock);
@@ -351,8 +906,17 @@ void hdhomerun_video_flush(struct hdhomerun_video_sock_t *vs)
 	vs->network_error_count = 0;
 	vs->sequence_error_count = 0;
 	vs->overflow_error_count = 0;
+	vs->flush_position = vs->stored;
 
 	pthread_mutex_unlock(&vs->lock);
+
+	/* The tables are for whatever was tuned before. */
+	if (vs->psi) {
+		hdhomerun_psi_reset(vs->psi);
+	}
+	if (vs->guide) {
+		hdhomerun_guide_reset(vs->guide);
+	}
 }
 
 void hdhomerun_video_debug_print_stats(struct hdhomerun_video_sock_t *vs)
@@ -378,6 +942,7 @@ void hdhomerun_video_get_stats(struct hdhomerun_video_sock_t *vs, struct hdhomer
 	stats->transport_error_count = vs->transport_error_count;
 	stats->sequence_error_count = vs->sequence_error_count;
 	stats->overflow_error_count = vs->overflow_error_count;
+	stats->byte_count = vs->stored - vs->flush_position;
 
 	pthread_mutex_unlock(&vs->lock);
 }
@@ -29,6 +29,7 @@ struct hdhomerun_video_stats_t {
 	uint32_t transport_error_count;
 	uint32_t sequence_error_count;
 	uint32_t overflow_error_count;
+	uint64_t byte_count;
 };
 
 #define TS_PACKET_SIZE 188
@@ -37,6 +38,8 @@ struct hdhomerun_video_stats_t {
 
 #define VIDEO_RTP_DATA_PACKET_SIZE ((188 * 7) + 12)
 
+#define HDHOMERUN_VIDEO_REACTOR_THREADS_MAX 16
+
 /*
  * Create a video/data socket.
  *
@@ -51,6 +54,22 @@ struct hdhomerun_video_stats_t {
 extern LIBTYPE struct hdhomerun_video_sock_t *hdhomerun_video_create(uint16_t listen_port, bool_t allow_port_reuse, size_t buffer_size, struct hdhomerun_debug_t *dbg);
 extern LIBTYPE void hdhomerun_video_destroy(struct hdhomerun_video_sock_t *vs);
 
+/*
+ * Receive the video sockets created from now on with a shared reactor instead of a thread each.
+ *
+ * The reactor's threads wait on epoll sets holding the sockets and only wake when datagrams
+ * arrive, where a socket's own thread wakes every 25ms on its receive timeout even when idle.
+ * Each socket is given to the thread with the fewest, and stays on it.
+ *
+ * unsigned int thread_count: Reactor threads, 0 for a thread per socket (the default). At most HDHOMERUN_VIDEO_REACTOR_THREADS_MAX.
+ * const int *cpus: CPUs to pin the reactor threads to, thread n to cpus[n % cpu_count]. May be NULL to leave them unpinned.
+ *
+ * The reactor starts with the first socket that uses it and stops when its last socket is destroyed,
+ * a change takes effect from the next start. A socket falls back to its own thread if the reactor
+ * can't start. Returns FALSE if the reactor isn't built for this platform.
+ */
+extern LIBTYPE bool_t hdhomerun_video_set_reactor(unsigned int thread_count, const int *cpus, unsigned int cpu_count);
+
 /*
  * Get the port the socket is listening on.
  *
@@ -83,6 +102,52 @@ extern LIBTYPE void hdhomerun_video_leave_multicast_group(struct hdhomerun_video
  */
 extern LIBTYPE uint8_t *hdhomerun_video_recv(struct hdhomerun_video_sock_t *vs, size_t max_size, size_t *pactual_size);
 
+/*
+ * Read data from buffer, waiting for it.
+ *
+ * Waits until the buffer holds the notify threshold (or max_size if smaller), the timeout in ms
+ * runs out or hdhomerun_video_wake is called, then returns like hdhomerun_video_recv, which may
+ * be less than the threshold or NULL. The reader wakes when the data arrives, not on a poll interval.
+ * Only one thread may read a video socket.
+ *
+ * hdhomerun_video_set_notify_threshold sets the amount of data in bytes to wait for, rounded down
+ * to whole VIDEO_DATA_PACKET_SIZE packets, default one packet.
+ *
+ * hdhomerun_video_wake makes a waiting hdhomerun_video_recv_wait return now.
+ */
+extern LIBTYPE uint8_t *hdhomerun_video_recv_wait(struct hdhomerun_video_sock_t *vs, size_t max_size, size_t *pactual_size, uint64_t timeout);
+extern LIBTYPE void hdhomerun_video_set_notify_threshold(struct hdhomerun_video_sock_t *vs, size_t threshold);
+extern LIBTYPE void hdhomerun_video_wake(struct hdhomerun_video_sock_t *vs);
+
+/*
+ * Read data in place, for a reader that sends it on straight from the buffer instead of copying
+ * it out with hdhomerun_video_recv, and may hold on to it for a while.
+ *
+ * hdhomerun_video_get_buffer returns the ring buffer and its size in *psize. Data is found by its
+ * position, the count of bytes stored since the socket was created, at position % size.
+ *
+ * hdhomerun_video_release_wait frees the data before release, which is kept until then however
+ * long the reader takes. A full buffer drops new datagrams as overflow errors. It then waits like
+ * hdhomerun_video_recv_wait for the notify threshold of data past seen, and returns the position
+ * the data ends at. A release outside the data held, from before a flush, frees nothing.
+ * Don't mix with hdhomerun_video_recv.
+ */
+extern LIBTYPE uint8_t *hdhomerun_video_get_buffer(struct hdhomerun_video_sock_t *vs, size_t *psize);
+extern LIBTYPE uint64_t hdhomerun_video_release_wait(struct hdhomerun_video_sock_t *vs, uint64_t release, uint64_t seen, uint64_t timeout);
+
+/*
+ * Get the socket's PSI tables, following them from now on. Created on first use and fed every
+ * datagram the socket stores, reset by hdhomerun_video_flush. Returns NULL if it can't be allocated.
+ */
+extern LIBTYPE struct hdhomerun_psi_t *hdhomerun_video_get_psi(struct hdhomerun_video_sock_t *vs);
+
+/*
+ * Get the socket's program guide, collecting it from now on along with the PSI tables it needs.
+ * Created on first use and fed every datagram the socket stores, reset by hdhomerun_video_flush
+ * with its cache kept. Returns NULL if it can't be allocated.
+ */
+extern LIBTYPE struct hdhomerun_guide_t *hdhomerun_video_get_guide(struct hdhomerun_video_sock_t *vs);
+
 /*
  * Flush the buffer.
  */
@@ -0,0 +1,58 @@
+package com.zaren.hdhomerunsignalmeterlib.benchmark;
+
+import com.zaren.HdhomerunSignalMeterLib.data.ChannelList;
+import com.zaren.HdhomerunSignalMeterLib.util.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frequency to channel number lookups done when converting the tuner status channel
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+public class ChannelLookupBenchmark
+{
+    @Param( { "2", "80", "158" } )
+    public int channelNumber;
+
+    private ChannelList mChannelList;
+    private int mFrequency;
+    private String mFrequencyChannel;
+    private String mNumberChannel;
+
+    @Setup
+    public void setup()
+    {
+        mChannelList = Fixtures.cableChannelList();
+        mFrequency = Fixtures.cableFrequency( channelNumber );
+        mFrequencyChannel = "qam:" + mFrequency;
+        mNumberChannel = "auto:" + channelNumber;
+    }
+
+    @Benchmark
+    public int frequencyToNumber()
+    {
+        return mChannelList.frequencyToNumber( mFrequency );
+    }
+
+    @Benchmark
+    public int channelNumberFromFrequencyChannel()
+    {
+        return Utils.getChannelNumberFromTunerStatusChannel( mChannelList, mFrequencyChannel );
+    }
+
+    @Benchmark
+    public int channelNumberFromNumberChannel()
+    {
+        return Utils.getChannelNumberFromTunerStatusChannel( mChannelList, mNumberChannel );
+    }
+}
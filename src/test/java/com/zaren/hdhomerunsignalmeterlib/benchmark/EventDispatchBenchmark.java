@@ -0,0 +1,82 @@
+package com.zaren.hdhomerunsignalmeterlib.benchmark;
+
+import com.zaren.HdhomerunSignalMeterLib.data.ChannelScanProgram;
+import com.zaren.HdhomerunSignalMeterLib.data.CurrentChannelAndProgram;
+import com.zaren.HdhomerunSignalMeterLib.data.DeviceController;
+import com.zaren.HdhomerunSignalMeterLib.data.DeviceResponse;
+import com.zaren.HdhomerunSignalMeterLib.data.TunerStatus;
+import com.zaren.HdhomerunSignalMeterLib.events.DeviceControllerEvents;
+import com.zaren.HdhomerunSignalMeterLib.events.ProgramObserverInt;
+import com.zaren.HdhomerunSignalMeterLib.events.TunerStatusObserverInt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of raising DeviceControllerEvents to a typical number of registered observers
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+public class EventDispatchBenchmark
+{
+    @Param( { "1", "8" } )
+    public int observerCount;
+
+    private DeviceControllerEvents mEvents;
+    private DeviceResponse mResponse;
+    private TunerStatus mTunerStatus;
+    private CurrentChannelAndProgram mCurrentChannel;
+    private ChannelScanProgram mProgram;
+
+    @Setup
+    public void setup( final Blackhole aBlackhole )
+    {
+        mEvents = new DeviceControllerEvents();
+        mResponse = new DeviceResponse( DeviceResponse.SUCCESS );
+        mTunerStatus = new TunerStatus( "qam:99000000", "qam256", true, true, false, 88, 92, 100, 38810720, 3200, 1 );
+        mCurrentChannel = new CurrentChannelAndProgram( null, 3, "qam256:15" );
+        mProgram = new ChannelScanProgram();
+
+        for( int i = 0; i < observerCount; i++ )
+        {
+            mEvents.tunerStatusChanged().registerObserver( new TunerStatusObserverInt()
+            {
+                @Override
+                public void tunerStatusChanged( DeviceResponse aResponse, DeviceController aDeviceController, TunerStatus aTunerStatus, CurrentChannelAndProgram aCurrentChannel )
+                {
+                    aBlackhole.consume( aTunerStatus );
+                }
+            } );
+
+            mEvents.programChanged().registerObserver( new ProgramObserverInt()
+            {
+                @Override
+                public void programChanged( DeviceResponse aResponse, DeviceController aDeviceController, ChannelScanProgram aChannelScanProgram )
+                {
+                    aBlackhole.consume( aChannelScanProgram );
+                }
+            } );
+        }
+    }
+
+    @Benchmark
+    public void notifyTunerStatusChanged()
+    {
+        mEvents.notifyTunerStatusChanged( mResponse, null, mTunerStatus, mCurrentChannel );
+    }
+
+    @Benchmark
+    public void notifyProgramChanged()
+    {
+        mEvents.notifyProgramChanged( mResponse, null, mProgram );
+    }
+}
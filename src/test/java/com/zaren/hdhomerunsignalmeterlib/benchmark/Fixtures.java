@@ -0,0 +1,136 @@
+package com.zaren.hdhomerunsignalmeterlib.benchmark;
+
+import com.zaren.HdhomerunSignalMeterLib.data.ChannelEntry;
+import com.zaren.HdhomerunSignalMeterLib.data.ChannelList;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * Deterministic inputs shaped like what real devices return, so benchmark runs are comparable.
+ */
+public final class Fixtures
+{
+    private static final long SEED = 0x4844484CL;
+
+    private static final String[] CALL_SIGNS = { "KCBS", "KNBC", "KTLA", "KABC", "KCAL", "KTTV", "KCOP", "KOCE",
+                                                 "KCET", "KVEA", "KWHY", "KMEX", "KFTR", "KXLA", "KDOC", "KJLA" };
+
+    private static final String[] TAGS = { "favorite", "hd", "drm", "sports", "news", "kids" };
+
+    private Fixtures()
+    {
+    }
+
+    /**
+     * Builds a /tuner0/streaminfo reply for a cable multiplex, a mix of clear, encrypted, no data
+     * and control programs like a busy QAM256 channel reports.
+     */
+    public static String cableStreamInfo( int aProgramCount )
+    {
+        Random theRandom = new Random( SEED );
+        StringBuilder theBuilder = new StringBuilder( aProgramCount * 24 );
+
+        for( int i = 1; i <= aProgramCount; i++ )
+        {
+            int theMajor = 2 + theRandom.nextInt( 98 );
+            int theMinor = 1 + theRandom.nextInt( 9 );
+            String theName = CALL_SIGNS[ theRandom.nextInt( CALL_SIGNS.length ) ] + ( theMinor == 1 ? "-HD" : "-SD" );
+
+            theBuilder.append( i ).append( ": " );
+
+            switch( i % 10 )
+            {
+                case 3:
+                case 7:
+                    theBuilder.append( "0 (encrypted)" );
+                    break;
+                case 5:
+                    theBuilder.append( theMajor ).append( '.' ).append( theMinor ).append( ' ' ).append( theName ).append( " (no data)" );
+                    break;
+                case 9:
+                    theBuilder.append( "0 (control)" );
+                    break;
+                default:
+                    theBuilder.append( theMajor ).append( '.' ).append( theMinor ).append( ' ' ).append( theName );
+                    break;
+            }
+            theBuilder.append( '\n' );
+        }
+
+        theBuilder.append( "tsid=0x" ).append( Integer.toHexString( 0x0F00 + aProgramCount ) ).append( '\n' );
+
+        return theBuilder.toString();
+    }
+
+    public static String cardStatus()
+    {
+        return "card=ready auth=success oob=success act=success val=success";
+    }
+
+    /**
+     * Builds an HDHomeRun Prime style lineup.xml
+     */
+    public static byte[] lineupXml( int aProgramCount )
+    {
+        Random theRandom = new Random( SEED );
+        StringBuilder theBuilder = new StringBuilder( aProgramCount * 160 );
+
+        theBuilder.append( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Lineup>\n" );
+        for( int i = 0; i < aProgramCount; i++ )
+        {
+            int theNumber = 2 + i;
+            theBuilder.append( "<Program>\n" );
+            theBuilder.append( "<GuideNumber>" ).append( theNumber );
+            if( i % 4 == 0 )
+            {
+                theBuilder.append( '.' ).append( 1 + theRandom.nextInt( 4 ) );
+            }
+            theBuilder.append( "</GuideNumber>\n" );
+            theBuilder.append( "<GuideName>" ).append( CALL_SIGNS[ i % CALL_SIGNS.length ] ).append( "DT" ).append( "</GuideName>\n" );
+            theBuilder.append( "<URL>http://192.168.1.100:5004/auto/v" ).append( theNumber ).append( "</URL>\n" );
+            if( i % 3 == 0 )
+            {
+                theBuilder.append( "<Tags>" ).append( TAGS[ theRandom.nextInt( TAGS.length ) ] ).append( ',' )
+                          .append( TAGS[ theRandom.nextInt( TAGS.length ) ] ).append( "</Tags>\n" );
+            }
+            theBuilder.append( "</Program>\n" );
+        }
+        theBuilder.append( "</Lineup>\n" );
+
+        return theBuilder.toString().getBytes( Charset.forName( "UTF-8" ) );
+    }
+
+    /**
+     * Builds a us-cable style channel map, channels 2-158 at 6MHz spacing
+     */
+    public static ChannelList cableChannelList()
+    {
+        ChannelList theList = new ChannelList();
+        ChannelEntry thePrevious = null;
+
+        for( int theNumber = 2; theNumber <= 158; theNumber++ )
+        {
+            ChannelEntry theEntry = new ChannelEntry( "us-cable:" + theNumber, cableFrequency( theNumber ), theNumber );
+            if( thePrevious == null )
+            {
+                theList.setHead( theEntry );
+            }
+            else
+            {
+                thePrevious.setNext( theEntry );
+                theEntry.setPrev( thePrevious );
+            }
+            thePrevious = theEntry;
+        }
+        theList.setTail( thePrevious );
+        theList.findMaxAndMin();
+
+        return theList;
+    }
+
+    public static int cableFrequency( int aChannelNumber )
+    {
+        return 57000000 + ( aChannelNumber - 2 ) * 6000000;
+    }
+}
@@ -0,0 +1,45 @@
+package com.zaren.hdhomerunsignalmeterlib.benchmark;
+
+import com.zaren.HdhomerunSignalMeterLib.data.LineupXMLParser;
+import com.zaren.HdhomerunSignalMeterLib.data.ProgramsList;
+import org.kxml2.io.KXmlParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the lineup.xml downloaded from an HDHomeRun Prime before a cablecard scan.
+ * android.util.Xml is not available on the JVM so kxml2, the parser android uses, is passed in.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+public class LineupXMLParserBenchmark
+{
+    @Param( { "100", "600" } )
+    public int programCount;
+
+    private byte[] mLineup;
+
+    @Setup
+    public void setup()
+    {
+        mLineup = Fixtures.lineupXml( programCount );
+    }
+
+    @Benchmark
+    public ProgramsList parse() throws XmlPullParserException, IOException
+    {
+        return new LineupXMLParser().parse( new KXmlParser(), new ByteArrayInputStream( mLineup ) );
+    }
+}
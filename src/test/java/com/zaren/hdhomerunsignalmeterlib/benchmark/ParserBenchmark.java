@@ -0,0 +1,62 @@
+package com.zaren.hdhomerunsignalmeterlib.benchmark;
+
+import com.zaren.HdhomerunSignalMeterLib.data.CableCardStatus;
+import com.zaren.HdhomerunSignalMeterLib.data.ChannelScanProgram;
+import com.zaren.HdhomerunSignalMeterLib.data.ProgramsList;
+import com.zaren.HdhomerunSignalMeterLib.data.StreamInfoParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaminfo and card status parsing, run on every status tick and scan step
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+public class ParserBenchmark
+{
+    @Param( { "10", "100" } )
+    public int programCount;
+
+    private String mStreamInfo;
+    private String mCardStatus;
+
+    @Setup
+    public void setup()
+    {
+        mStreamInfo = Fixtures.cableStreamInfo( programCount );
+        mCardStatus = Fixtures.cardStatus();
+    }
+
+    @Benchmark
+    public ProgramsList convertStreamInfoToPrograms()
+    {
+        ProgramsList thePrograms = new ProgramsList();
+        StreamInfoParser.convertStreamInfoToPrograms( mStreamInfo, thePrograms );
+        return thePrograms;
+    }
+
+    @Benchmark
+    public ChannelScanProgram processProgramName()
+    {
+        ChannelScanProgram theProgram = new ChannelScanProgram();
+        StreamInfoParser.processProgramName( " 45.3 KCAL-HD (encrypted)", theProgram );
+        return theProgram;
+    }
+
+    @Benchmark
+    public CableCardStatus processCardStatus()
+    {
+        CableCardStatus theStatus = new CableCardStatus();
+        theStatus.parse( mCardStatus );
+        return theStatus;
+    }
+}
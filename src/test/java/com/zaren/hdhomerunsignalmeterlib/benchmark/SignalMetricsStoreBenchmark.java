@@ -0,0 +1,91 @@
+package com.zaren.hdhomerunsignalmeterlib.benchmark;
+
+import com.zaren.HdhomerunSignalMeterLib.data.SignalMetricsFile;
+import com.zaren.HdhomerunSignalMeterLib.data.SignalMetricsSeries;
+import com.zaren.HdhomerunSignalMeterLib.data.SignalMetricsStore;
+import com.zaren.HdhomerunSignalMeterLib.data.TunerStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording the status of 100 tuners at 20 Hz, one record() per tuner every 50ms of simulated
+ * time, and reading back an hour of seconds. Run with -prof gc to see the write path allocate nothing.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+public class SignalMetricsStoreBenchmark
+{
+    private static final int TUNERS = 100;
+
+    private File mDirectory;
+    private SignalMetricsStore mStore;
+    private String[] mNames;
+    private TunerStatus mStatus;
+    private SignalMetricsSeries mSeries;
+    private long mTime;
+    private int mNext;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        mDirectory = File.createTempFile( "metrics", "" );
+        mDirectory.delete();
+        mStore = new SignalMetricsStore( mDirectory );
+
+        mNames = new String[ TUNERS ];
+        mStatus = new TunerStatus( "qam:99000000", "qam256", true, true, false, 88, 92, 100, 38810720, 3200, 1 );
+        mTime = 1000000000000L;
+        for( int i = 0; i < TUNERS; i++ )
+        {
+            mNames[ i ] = Integer.toHexString( 0x10000000 + i / 4 ).toUpperCase() + "-" + i % 4;
+            //a full hour so every ring has records
+            for( int theSample = 0; theSample < 60 * 60 * 20; theSample++ )
+            {
+                mStore.record( mNames[ i ], mTime + theSample * 50L, mStatus );
+            }
+        }
+        mTime += 60 * 60 * 20 * 50L;
+        mSeries = new SignalMetricsSeries();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        mStore.close();
+        for( File theFile : mDirectory.listFiles() )
+        {
+            theFile.delete();
+        }
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public boolean recordStatus()
+    {
+        String theName = mNames[ mNext ];
+        if( ++mNext == TUNERS )
+        {
+            mNext = 0;
+            mTime += 50;
+        }
+        mStatus.snrQuality = 80 + ( mTime & 15 );
+        return mStore.record( theName, mTime, mStatus );
+    }
+
+    @Benchmark
+    public int queryHourOfSeconds()
+    {
+        return mStore.query( mNames[ 0 ], SignalMetricsFile.RESOLUTION_SECOND, mTime - 60 * 60 * 1000L, mTime, mSeries );
+    }
+}
@@ -0,0 +1,62 @@
+package com.zaren.hdhomerunsignalmeterlib.benchmark;
+
+import com.zaren.HdhomerunSignalMeterLib.data.TunerStatistics;
+import com.zaren.HdhomerunSignalMeterLib.data.TunerStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The statistics DeviceController keeps for every tuner status poll, and reading them back
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+public class TunerStatisticsBenchmark
+{
+    private TunerStatistics mStatistics;
+    private TunerStatistics mSnapshot;
+    private TunerStatus mStatus;
+    private long mTime;
+
+    @Setup
+    public void setup()
+    {
+        mStatistics = new TunerStatistics();
+        mSnapshot = new TunerStatistics();
+        mStatus = new TunerStatus( "qam:99000000", "qam256", true, true, false, 88, 92, 100, 38810720, 3200, 1 );
+        for( int i = 0; i < 10000; i++ )
+        {
+            record();
+        }
+    }
+
+    @Benchmark
+    public long record()
+    {
+        mTime += 500;
+        mStatus.snrQuality = 80 + ( mTime & 15 );
+        mStatus.packetsPerSecond = 3100 + ( mTime & 255 );
+        mStatistics.record( mStatus, mTime );
+        return mStatistics.getCount();
+    }
+
+    @Benchmark
+    public long percentile99()
+    {
+        return mStatistics.getPacketsPerSecond().getPercentile( 99 );
+    }
+
+    @Benchmark
+    public TunerStatistics snapshot()
+    {
+        mStatistics.copyTo( mSnapshot );
+        return mSnapshot;
+    }
+}
@@ -0,0 +1,60 @@
+package com.zaren.hdhomerunsignalmeterlib.benchmark;
+
+import com.zaren.HdhomerunSignalMeterLib.data.TunerStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The compare and copy done by DeviceController for every tuner status update
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+public class TunerStatusBenchmark
+{
+    private TunerStatus mCurrent;
+    private TunerStatus mSame;
+    private TunerStatus mChanged;
+    private TunerStatus mPrevious;
+
+    @Setup
+    public void setup()
+    {
+        mCurrent = new TunerStatus( "qam:99000000", "qam256", true, true, false, 88, 92, 100, 38810720, 3200, 1 );
+        mSame = new TunerStatus( "qam:99000000", "qam256", true, true, false, 88, 92, 100, 38810720, 3200, 1 );
+        mChanged = new TunerStatus( "qam:99000000", "qam256", true, true, false, 88, 91, 100, 38810720, 3188, 1 );
+        mPrevious = new TunerStatus();
+    }
+
+    @Benchmark
+    public boolean equalsUnchanged()
+    {
+        return mCurrent.equals( mSame );
+    }
+
+    @Benchmark
+    public boolean equalsChanged()
+    {
+        return mCurrent.equals( mChanged );
+    }
+
+    @Benchmark
+    public int hashCodeStatus()
+    {
+        return mCurrent.hashCode();
+    }
+
+    @Benchmark
+    public TunerStatus cloneStatus()
+    {
+        mPrevious.clone( mCurrent );
+        return mPrevious;
+    }
+}
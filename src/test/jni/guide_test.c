@@ -0,0 +1,478 @@
+/*
+ * guide_test.c
+ *
+ * Checks hdhomerun_guide on a generated PSIP stream: the events of a two section EIT and their
+ * ETT texts, that repeated sections are skipped without being parsed, that a new EIT version
+ * replaces its events only once complete, and that a saved cache loads back. Then feeds it random
+ * sections with good CRCs and loads random files to catch reads or writes out of bounds. Build
+ * with make test.
+ */
+
+#include "hdhomerun.h"
+
+#define FUZZ_ITERATIONS 100000
+#define TSID 0x0BEE
+#define SOURCE_ID 3
+#define EIT0_PID 0x1D00
+#define ETT0_PID 0x1E00
+#define GPS_START 1300000000
+#define UTC_START (GPS_START + 315964800 - 18)
+#define SAVE_PATH "guide_test.bin"
+
+static int failures = 0;
+static uint32_t random_state = 0x2545F491;
+static uint8_t continuity[0x2000];
+
+static uint32_t next_random(void)
+{
+	/* xorshift32, the same input every run */
+	random_state ^= random_state << 13;
+	random_state ^= random_state >> 17;
+	random_state ^= random_state << 5;
+	return random_state;
+}
+
+static void check(bool_t condition, const char *what)
+{
+	if (!condition) {
+		failures++;
+		if (failures <= 20) {
+			printf("FAIL %s\n", what);
+		}
+	}
+}
+
+static uint32_t section_crc(const uint8_t *ptr, size_t length)
+{
+	uint32_t crc = 0xFFFFFFFF;
+	size_t i;
+	for (i = 0; i < length; i++) {
+		crc ^= (uint32_t)ptr[i] << 24;
+		int bit;
+		for (bit = 0; bit < 8; bit++) {
+			crc = (crc & 0x80000000) ? (crc << 1) ^ 0x04C11DB7 : (crc << 1);
+		}
+	}
+	return crc;
+}
+
+static uint8_t *put_u32(uint8_t *ptr, uint32_t value)
+{
+	*ptr++ = (uint8_t)(value >> 24);
+	*ptr++ = (uint8_t)(value >> 16);
+	*ptr++ = (uint8_t)(value >> 8);
+	*ptr++ = (uint8_t)value;
+	return ptr;
+}
+
+static uint8_t *section_header(uint8_t *section, uint8_t table_id, uint16_t extension, uint8_t version, uint8_t number, uint8_t last_number)
+{
+	section[0] = table_id;
+	section[3] = (uint8_t)(extension >> 8);
+	section[4] = (uint8_t)extension;
+	section[5] = 0xC1 | (uint8_t)(version << 1);
+	section[6] = number;
+	section[7] = last_number;
+	return section + 8;
+}
+
+/*
+ * Fills in the section_length and CRC, returns the length of the whole section.
+ */
+static size_t section_finish(uint8_t *section, uint8_t *end)
+{
+	size_t section_length = (size_t)(end - section) + 4 - 3;
+	section[1] = 0xF0 | (uint8_t)(section_length >> 8);
+	section[2] = (uint8_t)section_length;
+
+	put_u32(end, section_crc(section, (size_t)(end - section)));
+	return (size_t)(end - section) + 4;
+}
+
+/*
+ * Splits a section into as many packets as it takes and feeds them to the psi then the guide,
+ * as the video socket does.
+ */
+static void feed_section(struct hdhomerun_psi_t *psi, struct hdhomerun_guide_t *guide, uint16_t pid, const uint8_t *section, size_t length)
+{
+	uint8_t packets[TS_PACKET_SIZE * 32];
+	size_t count = 0;
+	size_t offset = 0;
+
+	while ((offset < length) && (count < 32)) {
+		uint8_t *pkt = packets + count * TS_PACKET_SIZE;
+		memset(pkt, 0xFF, TS_PACKET_SIZE);
+		pkt[0] = 0x47;
+		pkt[1] = (uint8_t)(pid >> 8) & 0x1F;
+		pkt[2] = (uint8_t)pid;
+		pkt[3] = 0x10 | continuity[pid];
+		continuity[pid] = (continuity[pid] + 1) & 0x0F;
+
+		uint8_t *ptr = pkt + 4;
+		if (offset == 0) {
+			pkt[1] |= 0x40;
+			*ptr++ = 0;
+		}
+
+		size_t size = (size_t)(pkt + TS_PACKET_SIZE - ptr);
+		if (size > length - offset) {
+			size = length - offset;
+		}
+		memcpy(ptr, section + offset, size);
+		offset += size;
+		count++;
+	}
+
+	hdhomerun_psi_process(psi, packets, count);
+	hdhomerun_guide_process(guide, packets, count);
+}
+
+static void feed_pat(struct hdhomerun_psi_t *psi, struct hdhomerun_guide_t *guide)
+{
+	uint8_t section[32];
+	uint8_t *ptr = section_header(section, 0x00, TSID, 0, 0, 0);
+	*ptr++ = 0x00;
+	*ptr++ = 0x01;
+	*ptr++ = 0xE0;
+	*ptr++ = 0x30;
+	feed_section(psi, guide, HDHOMERUN_PSI_PAT_PID, section, section_finish(section, ptr));
+}
+
+static void feed_mgt(struct hdhomerun_psi_t *psi, struct hdhomerun_guide_t *guide, uint8_t version)
+{
+	static const uint16_t table_types[] = { 0x0000, 0x0100, 0x0200 };
+	static const uint16_t pids[] = { HDHOMERUN_PSI_PSIP_PID, EIT0_PID, ETT0_PID };
+
+	uint8_t section[128];
+	uint8_t *ptr = section_header(section, 0xC7, 0x0000, version, 0, 0);
+	*ptr++ = 0;
+	*ptr++ = 0;
+	*ptr++ = 3;
+
+	int i;
+	for (i = 0; i < 3; i++) {
+		*ptr++ = (uint8_t)(table_types[i] >> 8);
+		*ptr++ = (uint8_t)table_types[i];
+		*ptr++ = 0xE0 | (uint8_t)(pids[i] >> 8);
+		*ptr++ = (uint8_t)pids[i];
+		*ptr++ = 0xE0;
+		ptr = put_u32(ptr, 100);
+		*ptr++ = 0xF0;
+		*ptr++ = 0x00;
+	}
+	*ptr++ = 0xF0;
+	*ptr++ = 0x00;
+
+	feed_section(psi, guide, HDHOMERUN_PSI_PSIP_PID, section, section_finish(section, ptr));
+}
+
+static void feed_stt(struct hdhomerun_psi_t *psi, struct hdhomerun_guide_t *guide, uint8_t gps_utc_offset)
+{
+	uint8_t section[32];
+	uint8_t *ptr = section_header(section, 0xCD, 0x0000, 0, 0, 0);
+	*ptr++ = 0;
+	ptr = put_u32(ptr, GPS_START);
+	*ptr++ = gps_utc_offset;
+	*ptr++ = 0x00;
+	*ptr++ = 0x00;
+	*ptr++ = 0xF0;
+	*ptr++ = 0x00;
+	feed_section(psi, guide, HDHOMERUN_PSI_PSIP_PID, section, section_finish(section, ptr));
+}
+
+/*
+ * A multiple_string_structure of one uncompressed string in one segment of mode.
+ */
+static uint8_t *put_mss(uint8_t *ptr, uint8_t mode, const uint8_t *bytes, size_t length)
+{
+	*ptr++ = 1;
+	*ptr++ = 'e';
+	*ptr++ = 'n';
+	*ptr++ = 'g';
+	*ptr++ = 1;
+	*ptr++ = 0;
+	*ptr++ = mode;
+	*ptr++ = (uint8_t)length;
+	memcpy(ptr, bytes, length);
+	return ptr + length;
+}
+
+struct test_event_t {
+	uint16_t event_id;
+	uint32_t offset;
+	uint32_t duration;
+	const char *title;
+};
+
+static void feed_eit(struct hdhomerun_psi_t *psi, struct hdhomerun_guide_t *guide, uint8_t version, uint8_t number, uint8_t last_number, const struct test_event_t *events, int event_count)
+{
+	uint8_t section[1024];
+	uint8_t *ptr = section_header(section, 0xCB, SOURCE_ID, version, number, last_number);
+	*ptr++ = 0;
+	*ptr++ = (uint8_t)event_count;
+
+	int i;
+	for (i = 0; i < event_count; i++) {
+		*ptr++ = 0xC0 | (uint8_t)(events[i].event_id >> 8);
+		*ptr++ = (uint8_t)events[i].event_id;
+		ptr = put_u32(ptr, GPS_START + events[i].offset);
+		*ptr++ = 0xD0 | (uint8_t)(events[i].duration >> 16);
+		*ptr++ = (uint8_t)(events[i].duration >> 8);
+		*ptr++ = (uint8_t)events[i].duration;
+		uint8_t *title_length = ptr++;
+		ptr = put_mss(ptr, 0x00, (const uint8_t *)events[i].title, strlen(events[i].title));
+		*title_length = (uint8_t)(ptr - title_length - 1);
+		/* a content_advisory descriptor to step over */
+		*ptr++ = 0xF0;
+		*ptr++ = 3;
+		*ptr++ = 0x87;
+		*ptr++ = 1;
+		*ptr++ = 0;
+	}
+
+	feed_section(psi, guide, EIT0_PID, section, section_finish(section, ptr));
+}
+
+static void feed_ett(struct hdhomerun_psi_t *psi, struct hdhomerun_guide_t *guide, uint8_t version, uint16_t event_id, uint8_t mode, const uint8_t *text, size_t length)
+{
+	uint8_t section[1024];
+	uint8_t *ptr = section_header(section, 0xCC, 0x0000, version, 0, 0);
+	*ptr++ = 0;
+	ptr = put_u32(ptr, ((uint32_t)SOURCE_ID << 16) | ((uint32_t)event_id << 2) | 0x02);
+	ptr = put_mss(ptr, mode, text, length);
+	feed_section(psi, guide, ETT0_PID, section, section_finish(section, ptr));
+}
+
+static const struct test_event_t first_section[] = {
+	{ 1, 0, 1800, "News" },
+	{ 2, 1800, 1800, "Weather" },
+};
+
+static const struct test_event_t second_section[] = {
+	{ 3, 3600, 3600, "Caf\xE9" },
+	{ 4, 7200, 1800, "Sports" },
+};
+
+static void feed_schedule(struct hdhomerun_psi_t *psi, struct hdhomerun_guide_t *guide)
+{
+	static const uint8_t description[] = { 0x00, 'H', 0x00, 'e', 0x00, 'a', 0x00, 'd', 0x04, 0x3B, 0x00, 'i', 0x00, 'n', 0x00, 'e', 0x00, 's' };
+
+	feed_pat(psi, guide);
+	feed_stt(psi, guide, 18);
+	feed_mgt(psi, guide, 0);
+	feed_eit(psi, guide, 0, 0, 1, first_section, 2);
+	feed_eit(psi, guide, 0, 1, 1, second_section, 2);
+	feed_ett(psi, guide, 0, 1, 0x3F, description, sizeof(description));
+}
+
+static void test_events(void)
+{
+	struct hdhomerun_psi_t *psi = hdhomerun_psi_create(NULL);
+	struct hdhomerun_guide_t *guide = hdhomerun_guide_create(psi, NULL);
+	struct hdhomerun_guide_event_t events[8];
+	struct hdhomerun_guide_stats_t stats;
+	char text[1024];
+
+	/* Nothing before the MGT gives the EIT PID. */
+	feed_eit(psi, guide, 0, 0, 1, first_section, 2);
+	check(hdhomerun_guide_get_events(guide, TSID, SOURCE_ID, 0, events, 8, text, sizeof(text), NULL) == 0, "no events before the MGT");
+
+	feed_schedule(psi, guide);
+	int count = hdhomerun_guide_get_events(guide, TSID, SOURCE_ID, 0, events, 8, text, sizeof(text), NULL);
+	check(count == 4, "four events");
+	check((events[0].event_id == 1) && (events[0].start_time == UTC_START) && (events[0].duration == 1800), "first event");
+	check(strcmp(events[0].title, "News") == 0, "first title");
+	check(strcmp(events[0].text, "Head\xD0\xBBines") == 0, "UTF-16 ETT text");
+	check(strcmp(events[2].title, "Caf\xC3\xA9") == 0, "Latin-1 title");
+	check((events[3].event_id == 4) && (events[3].start_time == UTC_START + 7200) && (events[3].text[0] == 0), "last event without text");
+	check(hdhomerun_guide_get_events(guide, TSID + 1, SOURCE_ID, 0, events, 8, text, sizeof(text), NULL) == 0, "no events of another tsid");
+
+	/* From a time, the event still on then and the ones after. */
+	count = hdhomerun_guide_get_events(guide, TSID, SOURCE_ID, UTC_START + 2000, events, 8, text, sizeof(text), NULL);
+	check((count == 3) && (events[0].event_id == 2), "events from a time");
+
+	/* Strings that don't fit come back empty. */
+	size_t needed;
+	count = hdhomerun_guide_get_events(guide, TSID, SOURCE_ID, 0, events, 2, text, 20, &needed);
+	check((count == 4) && (strcmp(events[0].title, "News") == 0) && (events[1].title[0] == 0), "strings that don't fit");
+	check(needed == 16 + 9, "text needed");
+
+	/* Repeats are skipped from their headers. */
+	hdhomerun_guide_get_stats(guide, &stats);
+	uint32_t parsed = stats.sections_parsed;
+	uint32_t changes = stats.change_count;
+	feed_schedule(psi, guide);
+	hdhomerun_guide_get_stats(guide, &stats);
+	check(stats.sections_parsed == parsed, "repeats not parsed");
+	check(stats.sections_skipped >= 4, "repeats skipped");
+	check(stats.change_count == changes, "repeats change nothing");
+	check((stats.channel_count == 1) && (stats.event_count == 4), "stats counts");
+
+	/* A new version keeps the old events until all of its sections are in. */
+	static const struct test_event_t new_first[] = {
+		{ 1, 0, 1800, "Late News" },
+	};
+	feed_eit(psi, guide, 1, 0, 1, new_first, 1);
+	count = hdhomerun_guide_get_events(guide, TSID, SOURCE_ID, 0, events, 8, text, sizeof(text), NULL);
+	check((count == 4) && (strcmp(events[0].title, "Late News") == 0), "new version half in");
+	check(strcmp(events[0].text, "Head\xD0\xBBines") == 0, "text kept for the new version");
+	feed_eit(psi, guide, 1, 1, 1, second_section, 2);
+	count = hdhomerun_guide_get_events(guide, TSID, SOURCE_ID, 0, events, 8, text, sizeof(text), NULL);
+	check((count == 3) && (events[1].event_id == 3), "event dropped by the new version");
+
+	/* A new channel resets what is followed, not the cache. */
+	hdhomerun_guide_reset(guide);
+	hdhomerun_guide_get_stats(guide, &stats);
+	check(stats.event_count == 3, "cache kept over reset");
+	feed_eit(psi, guide, 2, 0, 0, new_first, 1);
+	hdhomerun_guide_get_stats(guide, &stats);
+	check(stats.event_count == 3, "EIT ignored until the MGT after reset");
+
+	hdhomerun_guide_expire(guide, UTC_START + 3600);
+	check(hdhomerun_guide_get_events(guide, TSID, SOURCE_ID, 0, events, 8, text, sizeof(text), NULL) == 2, "expired");
+
+	hdhomerun_guide_destroy(guide);
+	hdhomerun_psi_destroy(psi);
+	printf("events: checked\n");
+}
+
+static void test_save_load(void)
+{
+	struct hdhomerun_psi_t *psi = hdhomerun_psi_create(NULL);
+	struct hdhomerun_guide_t *guide = hdhomerun_guide_create(psi, NULL);
+	struct hdhomerun_guide_event_t saved[8];
+	struct hdhomerun_guide_event_t loaded[8];
+	struct hdhomerun_guide_stats_t stats;
+	char saved_text[1024];
+	char loaded_text[1024];
+
+	feed_schedule(psi, guide);
+	check(hdhomerun_guide_save(guide, SAVE_PATH), "saved");
+	int saved_count = hdhomerun_guide_get_events(guide, TSID, SOURCE_ID, 0, saved, 8, saved_text, sizeof(saved_text), NULL);
+
+	FILE *fp = fopen(SAVE_PATH, "rb");
+	uint8_t data[1024];
+	size_t size = fread(data, 1, sizeof(data), fp);
+	fclose(fp);
+	check(size < 100, "compact");
+
+	struct hdhomerun_psi_t *other_psi = hdhomerun_psi_create(NULL);
+	struct hdhomerun_guide_t *other = hdhomerun_guide_create(other_psi, NULL);
+	check(hdhomerun_guide_load(other, SAVE_PATH), "loaded");
+	int count = hdhomerun_guide_get_events(other, TSID, SOURCE_ID, 0, loaded, 8, loaded_text, sizeof(loaded_text), NULL);
+	check(count == saved_count, "loaded count");
+	int i;
+	for (i = 0; (i < count) && (i < saved_count); i++) {
+		check((loaded[i].event_id == saved[i].event_id) && (loaded[i].start_time == saved[i].start_time) && (loaded[i].duration == saved[i].duration), "loaded event");
+		check((strcmp(loaded[i].title, saved[i].title) == 0) && (strcmp(loaded[i].text, saved[i].text) == 0), "loaded strings");
+	}
+
+	/* Loading again adds nothing, an event from the stream replaces the loaded one it overlaps. */
+	check(hdhomerun_guide_load(other, SAVE_PATH), "loaded again");
+	hdhomerun_guide_get_stats(other, &stats);
+	check(stats.event_count == 4, "loaded once");
+	static const struct test_event_t replacement[] = {
+		{ 9, 0, 3600, "Marathon" },
+	};
+	feed_pat(other_psi, other);
+	feed_mgt(other_psi, other, 0);
+	feed_eit(other_psi, other, 0, 0, 0, replacement, 1);
+	count = hdhomerun_guide_get_events(other, TSID, SOURCE_ID, 0, loaded, 8, loaded_text, sizeof(loaded_text), NULL);
+	check((count == 3) && (loaded[0].event_id == 9) && (loaded[1].event_id == 3), "stream event replaces loaded ones");
+
+	/* A broken file merges nothing. */
+	fp = fopen(SAVE_PATH, "wb");
+	fwrite(data, 1, size - 3, fp);
+	fclose(fp);
+	struct hdhomerun_guide_t *empty = hdhomerun_guide_create(other_psi, NULL);
+	check(!hdhomerun_guide_load(empty, SAVE_PATH), "truncated file refused");
+	hdhomerun_guide_get_stats(empty, &stats);
+	check(stats.event_count == 0, "nothing merged from a truncated file");
+
+	/* Random files, most of them with the magic. */
+	for (i = 0; i < 2000; i++) {
+		size_t length = 5 + next_random() % 200;
+		size_t j;
+		for (j = 0; j < length; j++) {
+			data[j] = (next_random() & 1) ? (uint8_t)next_random() : (uint8_t)(next_random() % 4);
+		}
+		if (next_random() % 8) {
+			memcpy(data, "HDGD\x01", 5);
+		}
+		fp = fopen(SAVE_PATH, "wb");
+		fwrite(data, 1, length, fp);
+		fclose(fp);
+		hdhomerun_guide_load(empty, SAVE_PATH);
+	}
+	remove(SAVE_PATH);
+
+	hdhomerun_guide_destroy(empty);
+	hdhomerun_guide_destroy(other);
+	hdhomerun_psi_destroy(other_psi);
+	hdhomerun_guide_destroy(guide);
+	hdhomerun_psi_destroy(psi);
+	printf("save/load: %u bytes for 4 events\n", (unsigned int)size);
+}
+
+static void test_random_sections(void)
+{
+	static const uint8_t table_ids[] = { 0xC7, 0xCB, 0xCC, 0xCD };
+	static const uint16_t pids[] = { HDHOMERUN_PSI_PSIP_PID, EIT0_PID, ETT0_PID, 0x1D01 };
+
+	struct hdhomerun_psi_t *psi = hdhomerun_psi_create(NULL);
+	struct hdhomerun_guide_t *guide = hdhomerun_guide_create(psi, NULL);
+	struct hdhomerun_guide_event_t events[16];
+	char text[4096];
+
+	feed_pat(psi, guide);
+
+	int iteration;
+	for (iteration = 0; iteration < FUZZ_ITERATIONS; iteration++) {
+		/* Keep the EIT and ETT PIDs followed between the random MGTs. */
+		if ((iteration % 64) == 0) {
+			feed_mgt(psi, guide, (uint8_t)(iteration / 64));
+		}
+
+		uint8_t section[4096];
+		size_t body = 5 + next_random() % ((next_random() & 1) ? 200 : (sizeof(section) - 8 - 4 - 5));
+		uint8_t *ptr = section_header(section, table_ids[next_random() % 4], (uint16_t)(next_random() % 3), (uint8_t)(next_random() % 3), (uint8_t)(next_random() % 3), (uint8_t)(next_random() % 3));
+		size_t i;
+		for (i = 0; i < body; i++) {
+			ptr[i] = (next_random() & 1) ? (uint8_t)next_random() : (uint8_t)(next_random() % 8);
+		}
+		feed_section(psi, guide, pids[next_random() % 4], section, section_finish(section, ptr + body));
+
+		int count = hdhomerun_guide_get_events(guide, TSID, (uint16_t)(next_random() % 3), 0, events, 16, text, sizeof(text), NULL);
+		for (i = 0; (i < (size_t)count) && (i < 16); i++) {
+			check((events[i].title >= text) && (events[i].title < text + sizeof(text)), "title in text");
+			check(i == 0 || events[i].start_time >= events[i - 1].start_time, "events in order");
+		}
+	}
+
+	struct hdhomerun_guide_stats_t stats;
+	hdhomerun_guide_get_stats(guide, &stats);
+	check(hdhomerun_guide_save(guide, SAVE_PATH), "fuzzed cache saved");
+	struct hdhomerun_guide_t *other = hdhomerun_guide_create(psi, NULL);
+	check(hdhomerun_guide_load(other, SAVE_PATH), "fuzzed cache loaded");
+	remove(SAVE_PATH);
+
+	hdhomerun_guide_destroy(other);
+	hdhomerun_guide_destroy(guide);
+	hdhomerun_psi_destroy(psi);
+	printf("random: %d sections, %u events of %u channels\n", FUZZ_ITERATIONS, stats.event_count, stats.channel_count);
+}
+
+int main(int argc, char *argv[])
+{
+	test_events();
+	test_save_load();
+	test_random_sections();
+
+	if (failures > 0) {
+		printf("%d failures\n", failures);
+		return 1;
+	}
+
+	printf("passed\n");
+	return 0;
+}
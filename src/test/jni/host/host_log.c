@@ -0,0 +1,21 @@
+/*
+ * host_log.c
+ *
+ * Host stand-ins for the android log and logger.c, the tests don't need the library's debug output.
+ */
+
+#include <jni.h>
+#include "android/log.h"
+
+int __android_log_print(int prio, const char *tag, const char *fmt, ...)
+{
+	return 0;
+}
+
+void setLoggerVM(JavaVM *_gJavaVM)
+{
+}
+
+void my_log_print(const android_LogPriority level, const char *format, ...)
+{
+}
@@ -0,0 +1,449 @@
+/*
+ * psi_test.c
+ *
+ * Checks hdhomerun_psi on a generated multiplex: the programs of the PAT, what their PMTs and a
+ * two section TVCT list, when the tables count as complete with and without a VCT, and that a
+ * repeated section changes nothing. Then feeds it random sections with good CRCs to catch reads
+ * or writes out of bounds. Build with make test.
+ */
+
+#include "hdhomerun.h"
+
+#define FUZZ_ITERATIONS 100000
+#define PMT_PID(program) (0x0030 + (program) * 0x10)
+
+static int failures = 0;
+static uint32_t random_state = 0x2545F491;
+static uint8_t continuity[0x2000];
+static int listener_calls = 0;
+
+static uint32_t next_random(void)
+{
+	/* xorshift32, the same input every run */
+	random_state ^= random_state << 13;
+	random_state ^= random_state >> 17;
+	random_state ^= random_state << 5;
+	return random_state;
+}
+
+static void check(bool_t condition, const char *what)
+{
+	if (!condition) {
+		failures++;
+		if (failures <= 20) {
+			printf("FAIL %s\n", what);
+		}
+	}
+}
+
+static void count_listener_calls(struct hdhomerun_psi_t *psi, void *arg)
+{
+	listener_calls++;
+}
+
+static uint32_t section_crc(const uint8_t *ptr, size_t length)
+{
+	uint32_t crc = 0xFFFFFFFF;
+	size_t i;
+	for (i = 0; i < length; i++) {
+		crc ^= (uint32_t)ptr[i] << 24;
+		int bit;
+		for (bit = 0; bit < 8; bit++) {
+			crc = (crc & 0x80000000) ? (crc << 1) ^ 0x04C11DB7 : (crc << 1);
+		}
+	}
+	return crc;
+}
+
+static uint8_t *section_header(uint8_t *section, uint8_t table_id, uint16_t extension, uint8_t version, uint8_t number, uint8_t last_number)
+{
+	section[0] = table_id;
+	section[3] = (uint8_t)(extension >> 8);
+	section[4] = (uint8_t)extension;
+	section[5] = 0xC1 | (uint8_t)(version << 1);
+	section[6] = number;
+	section[7] = last_number;
+	return section + 8;
+}
+
+/*
+ * Fills in the section_length and CRC, returns the length of the whole section.
+ */
+static size_t section_finish(uint8_t *section, uint8_t *end)
+{
+	size_t section_length = (size_t)(end - section) + 4 - 3;
+	section[1] = 0xB0 | (uint8_t)(section_length >> 8);
+	section[2] = (uint8_t)section_length;
+
+	uint32_t crc = section_crc(section, (size_t)(end - section));
+	end[0] = (uint8_t)(crc >> 24);
+	end[1] = (uint8_t)(crc >> 16);
+	end[2] = (uint8_t)(crc >> 8);
+	end[3] = (uint8_t)crc;
+	return (size_t)(end - section) + 4;
+}
+
+/*
+ * Splits a section into as many packets as it takes and feeds them in one call.
+ */
+static void feed_section(struct hdhomerun_psi_t *psi, uint16_t pid, const uint8_t *section, size_t length)
+{
+	uint8_t packets[TS_PACKET_SIZE * 32];
+	size_t count = 0;
+	size_t offset = 0;
+
+	while ((offset < length) && (count < 32)) {
+		uint8_t *pkt = packets + count * TS_PACKET_SIZE;
+		memset(pkt, 0xFF, TS_PACKET_SIZE);
+		pkt[0] = 0x47;
+		pkt[1] = (uint8_t)(pid >> 8) & 0x1F;
+		pkt[2] = (uint8_t)pid;
+		pkt[3] = 0x10 | continuity[pid];
+		continuity[pid] = (continuity[pid] + 1) & 0x0F;
+
+		uint8_t *ptr = pkt + 4;
+		if (offset == 0) {
+			pkt[1] |= 0x40;
+			*ptr++ = 0;
+		}
+
+		size_t size = (size_t)(pkt + TS_PACKET_SIZE - ptr);
+		if (size > length - offset) {
+			size = length - offset;
+		}
+		memcpy(ptr, section + offset, size);
+		offset += size;
+		count++;
+	}
+
+	hdhomerun_psi_process(psi, packets, count);
+}
+
+static void feed_pat(struct hdhomerun_psi_t *psi, uint16_t tsid, const uint16_t *program_numbers, int program_count)
+{
+	uint8_t section[HDHOMERUN_PSI_PROGRAMS_MAX * 4 + 16];
+	uint8_t *ptr = section_header(section, 0x00, tsid, 0, 0, 0);
+
+	int i;
+	for (i = 0; i < program_count; i++) {
+		uint16_t pmt_pid = PMT_PID(program_numbers[i]);
+		*ptr++ = (uint8_t)(program_numbers[i] >> 8);
+		*ptr++ = (uint8_t)program_numbers[i];
+		*ptr++ = 0xE0 | (uint8_t)(pmt_pid >> 8);
+		*ptr++ = (uint8_t)pmt_pid;
+	}
+
+	feed_section(psi, HDHOMERUN_PSI_PAT_PID, section, section_finish(section, ptr));
+}
+
+/*
+ * Video and audio, with a CA descriptor on the audio when scrambled.
+ */
+static void feed_pmt(struct hdhomerun_psi_t *psi, uint16_t program_number, bool_t scrambled)
+{
+	uint8_t section[64];
+	uint16_t pmt_pid = PMT_PID(program_number);
+	uint8_t *ptr = section_header(section, 0x02, program_number, 0, 0, 0);
+
+	*ptr++ = 0xE0 | (uint8_t)((pmt_pid + 1) >> 8);
+	*ptr++ = (uint8_t)(pmt_pid + 1);
+	*ptr++ = 0xF0;
+	*ptr++ = 0x00;
+
+	*ptr++ = 0x02;
+	*ptr++ = 0xE0 | (uint8_t)((pmt_pid + 1) >> 8);
+	*ptr++ = (uint8_t)(pmt_pid + 1);
+	*ptr++ = 0xF0;
+	*ptr++ = 0x00;
+
+	*ptr++ = 0x81;
+	*ptr++ = 0xE0 | (uint8_t)((pmt_pid + 4) >> 8);
+	*ptr++ = (uint8_t)(pmt_pid + 4);
+	*ptr++ = 0xF0;
+	if (scrambled) {
+		*ptr++ = 6;
+		*ptr++ = 0x09;
+		*ptr++ = 4;
+		*ptr++ = 0x47;
+		*ptr++ = 0x49;
+		*ptr++ = 0xE1;
+		*ptr++ = 0x00;
+	} else {
+		*ptr++ = 0x00;
+	}
+
+	feed_section(psi, pmt_pid, section, section_finish(section, ptr));
+}
+
+/*
+ * More streams than a program keeps, with a CA descriptor on the last.
+ */
+static void feed_pmt_many_streams(struct hdhomerun_psi_t *psi, uint16_t program_number, int stream_count)
+{
+	uint8_t section[HDHOMERUN_PSI_SECTION_MAX];
+	uint16_t pmt_pid = PMT_PID(program_number);
+	uint8_t *ptr = section_header(section, 0x02, program_number, 0, 0, 0);
+
+	*ptr++ = 0xE0 | (uint8_t)((pmt_pid + 1) >> 8);
+	*ptr++ = (uint8_t)(pmt_pid + 1);
+	*ptr++ = 0xF0;
+	*ptr++ = 0x00;
+
+	int i;
+	for (i = 0; i < stream_count; i++) {
+		uint16_t pid = pmt_pid + 1 + i;
+		*ptr++ = (i == 0) ? 0x02 : 0x81;
+		*ptr++ = 0xE0 | (uint8_t)(pid >> 8);
+		*ptr++ = (uint8_t)pid;
+		*ptr++ = 0xF0;
+		if (i == stream_count - 1) {
+			*ptr++ = 6;
+			*ptr++ = 0x09;
+			*ptr++ = 4;
+			*ptr++ = 0x47;
+			*ptr++ = 0x49;
+			*ptr++ = 0xE1;
+			*ptr++ = 0x00;
+		} else {
+			*ptr++ = 0x00;
+		}
+	}
+
+	feed_section(psi, pmt_pid, section, section_finish(section, ptr));
+}
+
+struct test_channel_t {
+	uint16_t program_number;
+	uint16_t major;
+	uint16_t minor;
+	const uint16_t *name;
+	bool_t access_controlled;
+};
+
+static void feed_tvct(struct hdhomerun_psi_t *psi, uint16_t tsid, uint8_t version, uint8_t number, uint8_t last_number, const struct test_channel_t *channels, int channel_count)
+{
+	uint8_t section[1024];
+	uint8_t *ptr = section_header(section, 0xC8, tsid, version, number, last_number);
+	*ptr++ = 0;
+	*ptr++ = (uint8_t)channel_count;
+
+	int i;
+	for (i = 0; i < channel_count; i++) {
+		const struct test_channel_t *channel = &channels[i];
+		memset(ptr, 0, 14);
+		int c;
+		for (c = 0; (c < 7) && channel->name[c]; c++) {
+			ptr[c * 2] = (uint8_t)(channel->name[c] >> 8);
+			ptr[c * 2 + 1] = (uint8_t)channel->name[c];
+		}
+		ptr[14] = 0xF0 | (uint8_t)(channel->major >> 6);
+		ptr[15] = (uint8_t)(channel->major << 2) | (uint8_t)(channel->minor >> 8);
+		ptr[16] = (uint8_t)channel->minor;
+		ptr[17] = 0x04;
+		memset(ptr + 18, 0, 4);
+		ptr[22] = (uint8_t)(tsid >> 8);
+		ptr[23] = (uint8_t)tsid;
+		ptr[24] = (uint8_t)(channel->program_number >> 8);
+		ptr[25] = (uint8_t)channel->program_number;
+		ptr[26] = 0x0D | (channel->access_controlled ? 0x20 : 0x00);
+		ptr[27] = 0xC2;
+		ptr[28] = 0x00;
+		ptr[29] = (uint8_t)(i + 1);
+		ptr[30] = 0xFC;
+		ptr[31] = 0x00;
+		ptr += 32;
+	}
+	*ptr++ = 0xFC;
+	*ptr++ = 0x00;
+
+	feed_section(psi, HDHOMERUN_PSI_PSIP_PID, section, section_finish(section, ptr));
+}
+
+static const struct hdhomerun_psi_program_t *find_program(const struct hdhomerun_psi_program_t *programs, int count, uint16_t program_number)
+{
+	int i;
+	for (i = 0; i < count; i++) {
+		if (programs[i].program_number == program_number) {
+			return &programs[i];
+		}
+	}
+	return NULL;
+}
+
+static void test_tables(void)
+{
+	static const uint16_t kabc[] = { 'K', 'A', 'B', 'C', '-', 'H', 'D' };
+	static const uint16_t cafe[] = { 'C', 'a', 'f', 0x00E9, ' ', ' ', 0 };
+	static const uint16_t data[] = { 'D', 'A', 'T', 'A', 0, 0, 0 };
+	static const uint16_t program_numbers[] = { 1, 2, 3 };
+	struct test_channel_t section0[] = { { 1, 7, 1, kabc, FALSE }, { 2, 7, 2, cafe, TRUE } };
+	struct test_channel_t section1[] = { { 3, 7, 10, data, FALSE } };
+
+	struct hdhomerun_psi_t *psi = hdhomerun_psi_create(NULL);
+	struct hdhomerun_psi_program_t programs[HDHOMERUN_PSI_PROGRAMS_MAX];
+	struct hdhomerun_psi_status_t status;
+	hdhomerun_psi_add_listener(psi, count_listener_calls, NULL);
+	listener_calls = 0;
+
+	check(hdhomerun_psi_get_programs(psi, programs, HDHOMERUN_PSI_PROGRAMS_MAX, &status) == -1, "no PAT yet");
+	check(!status.pat_received && !status.complete, "empty status");
+
+	feed_pat(psi, 0x0805, program_numbers, 3);
+	feed_pmt(psi, 1, FALSE);
+	feed_pmt(psi, 2, TRUE);
+	feed_pmt(psi, 3, FALSE);
+	feed_tvct(psi, 0x0805, 0, 0, 1, section0, 2);
+
+	int count = hdhomerun_psi_get_programs(psi, programs, HDHOMERUN_PSI_PROGRAMS_MAX, &status);
+	check(count == 3, "three programs");
+	check(status.transport_stream_id == 0x0805, "tsid");
+	check(status.pmt_received_count == 3, "every PMT");
+	check(!status.vct_received && !status.complete, "incomplete without the second VCT section");
+
+	feed_tvct(psi, 0x0805, 0, 1, 1, section1, 1);
+	count = hdhomerun_psi_get_programs(psi, programs, HDHOMERUN_PSI_PROGRAMS_MAX, &status);
+	check(status.vct_received && status.complete, "complete with both VCT sections");
+
+	const struct hdhomerun_psi_program_t *program = find_program(programs, count, 1);
+	check(program && program->vct_received && (program->virtual_major == 7) && (program->virtual_minor == 1), "program 1 channel");
+	check(program && (strcmp(program->name, "KABC-HD") == 0), "program 1 name");
+	check(program && !program->access_controlled && !program->pmt_ca, "program 1 clear");
+	check(program && (program->stream_count == 2) && (program->stream_pids[1] == PMT_PID(1) + 4), "program 1 streams");
+
+	program = find_program(programs, count, 2);
+	check(program && (strcmp(program->name, "Caf\xC3\xA9") == 0), "program 2 UTF-8 name without trailing spaces");
+	check(program && program->access_controlled && program->pmt_ca, "program 2 scrambled");
+
+	program = find_program(programs, count, 3);
+	check(program && (program->virtual_minor == 10) && (program->source_id == 1) && (program->service_type == 0x02), "program 3 channel");
+
+	/* The tables as they repeat in the stream. */
+	int calls = listener_calls;
+	uint32_t change_count = status.change_count;
+	feed_pat(psi, 0x0805, program_numbers, 3);
+	feed_pmt(psi, 2, TRUE);
+	feed_tvct(psi, 0x0805, 0, 0, 1, section0, 2);
+	feed_tvct(psi, 0x0805, 0, 1, 1, section1, 1);
+	hdhomerun_psi_get_programs(psi, programs, HDHOMERUN_PSI_PROGRAMS_MAX, &status);
+	check((status.change_count == change_count) && (listener_calls == calls), "repeats change nothing");
+
+	/* A new version replaces every section, it is complete again once they are all back. */
+	section0[0].major = 8;
+	feed_tvct(psi, 0x0805, 1, 0, 1, section0, 2);
+	count = hdhomerun_psi_get_programs(psi, programs, HDHOMERUN_PSI_PROGRAMS_MAX, &status);
+	check(!status.complete, "incomplete during a new VCT version");
+	program = find_program(programs, count, 3);
+	check(program && !program->vct_received, "program 3 dropped with the old version");
+	feed_tvct(psi, 0x0805, 1, 1, 1, section1, 1);
+	count = hdhomerun_psi_get_programs(psi, programs, HDHOMERUN_PSI_PROGRAMS_MAX, &status);
+	program = find_program(programs, count, 1);
+	check(status.complete && program && (program->virtual_major == 8), "new VCT version");
+	check(listener_calls > calls, "listener called on changes");
+
+	hdhomerun_psi_reset(psi);
+	check(hdhomerun_psi_get_programs(psi, programs, HDHOMERUN_PSI_PROGRAMS_MAX, &status) == -1, "reset");
+	check(!status.complete && !status.vct_received, "reset status");
+
+	hdhomerun_psi_remove_listener(psi, count_listener_calls, NULL);
+	hdhomerun_psi_destroy(psi);
+	printf("tables: checked\n");
+}
+
+static void test_without_vct(void)
+{
+	static const uint16_t program_numbers[] = { 4 };
+	struct hdhomerun_psi_t *psi = hdhomerun_psi_create(NULL);
+	struct hdhomerun_psi_program_t programs[HDHOMERUN_PSI_PROGRAMS_MAX];
+	struct hdhomerun_psi_status_t status;
+
+	feed_pat(psi, 0x0001, program_numbers, 1);
+	feed_pmt(psi, 4, FALSE);
+	hdhomerun_psi_get_programs(psi, programs, HDHOMERUN_PSI_PROGRAMS_MAX, &status);
+	check(!status.complete, "waits for a VCT");
+
+	msleep_minimum(HDHOMERUN_PSI_VCT_WAIT_MS + 50);
+	feed_pmt(psi, 4, FALSE);
+	int count = hdhomerun_psi_get_programs(psi, programs, HDHOMERUN_PSI_PROGRAMS_MAX, &status);
+	check(status.complete && !status.vct_received, "complete without a VCT");
+	check((count == 1) && !programs[0].vct_received && (programs[0].name[0] == 0), "no channel without a VCT");
+
+	hdhomerun_psi_destroy(psi);
+	printf("without VCT: checked\n");
+}
+
+static void test_many_streams(void)
+{
+	static const uint16_t program_numbers[] = { 5, 6 };
+	struct hdhomerun_psi_t *psi = hdhomerun_psi_create(NULL);
+	struct hdhomerun_psi_program_t programs[HDHOMERUN_PSI_PROGRAMS_MAX];
+
+	feed_pat(psi, 0x0001, program_numbers, 2);
+	feed_pmt_many_streams(psi, 5, HDHOMERUN_PSI_STREAMS_MAX);
+	feed_pmt_many_streams(psi, 6, HDHOMERUN_PSI_STREAMS_MAX + 4);
+	int count = hdhomerun_psi_get_programs(psi, programs, HDHOMERUN_PSI_PROGRAMS_MAX, NULL);
+
+	const struct hdhomerun_psi_program_t *program = find_program(programs, count, 5);
+	check(program && (program->stream_count == HDHOMERUN_PSI_STREAMS_MAX) && !program->streams_truncated, "as many streams as fit");
+
+	program = find_program(programs, count, 6);
+	check(program && (program->stream_count == HDHOMERUN_PSI_STREAMS_MAX) && program->streams_truncated, "more streams than fit flagged");
+	check(program && (program->stream_pids[HDHOMERUN_PSI_STREAMS_MAX - 1] == PMT_PID(6) + HDHOMERUN_PSI_STREAMS_MAX), "first streams kept");
+	check(program && program->pmt_ca, "CA descriptor of a stream past the array");
+
+	hdhomerun_psi_destroy(psi);
+	printf("many streams: checked\n");
+}
+
+static void test_random_sections(void)
+{
+	static const uint8_t table_ids[] = { 0x00, 0x02, 0xC8, 0xC9 };
+	static const uint16_t pids[] = { HDHOMERUN_PSI_PAT_PID, HDHOMERUN_PSI_PSIP_PID, PMT_PID(1), PMT_PID(2) };
+	static const uint16_t program_numbers[] = { 1, 2 };
+
+	struct hdhomerun_psi_t *psi = hdhomerun_psi_create(NULL);
+	struct hdhomerun_psi_program_t programs[HDHOMERUN_PSI_PROGRAMS_MAX];
+	struct hdhomerun_psi_status_t status;
+
+	int iteration;
+	for (iteration = 0; iteration < FUZZ_ITERATIONS; iteration++) {
+		/* Keep PMT PIDs followed between the random PATs. */
+		if ((iteration % 64) == 0) {
+			feed_pat(psi, 0x0001, program_numbers, 2);
+		}
+
+		uint8_t section[1024];
+		size_t body = 5 + next_random() % (sizeof(section) - 8 - 4 - 5);
+		uint8_t *ptr = section_header(section, table_ids[next_random() % 4], (uint16_t)(next_random() % 3), (uint8_t)(next_random() % 3), (uint8_t)(next_random() % 3), (uint8_t)(next_random() % 3));
+		size_t i;
+		for (i = 0; i < body; i++) {
+			ptr[i] = (next_random() & 1) ? (uint8_t)next_random() : (uint8_t)(next_random() % 8);
+		}
+		feed_section(psi, pids[next_random() % 4], section, section_finish(section, ptr + body));
+
+		int count = hdhomerun_psi_get_programs(psi, programs, HDHOMERUN_PSI_PROGRAMS_MAX, &status);
+		check(count <= HDHOMERUN_PSI_PROGRAMS_MAX, "program count");
+		for (i = 0; i < (size_t)count; i++) {
+			check(programs[i].stream_count <= HDHOMERUN_PSI_STREAMS_MAX, "stream count");
+			check(memchr(programs[i].name, 0, sizeof(programs[i].name)) != NULL, "name terminated");
+		}
+	}
+
+	hdhomerun_psi_destroy(psi);
+	printf("random: %d sections\n", FUZZ_ITERATIONS);
+}
+
+int main(int argc, char *argv[])
+{
+	test_tables();
+	test_without_vct();
+	test_many_streams();
+	test_random_sections();
+
+	if (failures > 0) {
+		printf("%d failures\n", failures);
+		return 1;
+	}
+
+	printf("passed\n");
+	return 0;
+}
@@ -0,0 +1,130 @@
+/*
+ * recorder_bench.c
+ *
+ * Records simultaneous streams with each recorder's own write thread and then through the shared
+ * io_uring, and compares the CPU they take and their write time percentiles. A sender thread
+ * streams HD rate TS to multicast devices' ports on the loopback, so no device is needed.
+ *
+ *   make bench-recorder
+ *   ./recorder_bench [streams] [seconds] [directory]
+ */
+
+#include "hdhomerun.h"
+#include <sys/resource.h>
+#include "stream_sender.h"
+
+#define FIRST_PORT 25000
+#define MULTICAST_IP 0xEFFF4844
+
+static uint32_t histogram_percentile(const uint32_t *histogram, uint64_t count, double percentile)
+{
+	uint64_t target = (uint64_t)(count * percentile / 100.0 + 0.5);
+	uint64_t seen = 0;
+	int i;
+	for (i = 0; i < HDHOMERUN_RECORDER_HISTOGRAM_SIZE; i++) {
+		seen += histogram[i];
+		if (seen >= target) {
+			return (i == 0) ? 0 : (1U << i);
+		}
+	}
+	return 1U << (HDHOMERUN_RECORDER_HISTOGRAM_SIZE - 1);
+}
+
+static int bench_run(const char *name, bool_t io_uring, int stream_count, int seconds, const char *directory)
+{
+	struct hdhomerun_device_t **devices = (struct hdhomerun_device_t **)calloc(stream_count, sizeof(struct hdhomerun_device_t *));
+	struct hdhomerun_recorder_t **recorders = (struct hdhomerun_recorder_t **)calloc(stream_count, sizeof(struct hdhomerun_recorder_t *));
+	int i;
+
+	hdhomerun_recorder_set_io_uring(io_uring);
+
+	for (i = 0; i < stream_count; i++) {
+		char path[512];
+		snprintf(path, sizeof(path), "%s/recorder_bench_%d.ts", directory, i);
+		devices[i] = hdhomerun_device_create_multicast(MULTICAST_IP, FIRST_PORT + i, NULL);
+		recorders[i] = devices[i] ? hdhomerun_recorder_create(devices[i], path, 0, 0, NULL) : NULL;
+		if (!recorders[i]) {
+			printf("%s: can't record stream %d\n", name, i);
+			return 1;
+		}
+	}
+
+	struct stream_sender_t sender;
+	uint64_t cpu_start = stream_sender_cpu_us(RUSAGE_SELF);
+	uint64_t start = stream_sender_now_us();
+	stream_sender_start(&sender, FIRST_PORT, stream_count, STREAM_SENDER_BITS_PER_SECOND);
+
+	msleep_minimum(seconds * 1000);
+
+	struct hdhomerun_recorder_stats_t total;
+	memset(&total, 0, sizeof(total));
+	for (i = 0; i < stream_count; i++) {
+		struct hdhomerun_recorder_stats_t stats;
+		hdhomerun_recorder_get_stats(recorders[i], &stats);
+		total.bytes_written += stats.bytes_written;
+		total.blocks_written += stats.blocks_written;
+		total.write_time_total_us += stats.write_time_total_us;
+		total.overflow_error_count += stats.overflow_error_count;
+		total.write_error_count += stats.write_error_count;
+		total.io_uring += stats.io_uring;
+		if (stats.write_time_max_us > total.write_time_max_us) {
+			total.write_time_max_us = stats.write_time_max_us;
+		}
+		if (stats.backlog_blocks_max > total.backlog_blocks_max) {
+			total.backlog_blocks_max = stats.backlog_blocks_max;
+		}
+		int bucket;
+		for (bucket = 0; bucket < HDHOMERUN_RECORDER_HISTOGRAM_SIZE; bucket++) {
+			total.write_time_histogram[bucket] += stats.write_time_histogram[bucket];
+		}
+	}
+
+	uint64_t elapsed = stream_sender_now_us() - start;
+	uint64_t cpu = stream_sender_cpu_us(RUSAGE_SELF) - cpu_start;
+
+	stream_sender_stop(&sender);
+	cpu -= sender.cpu_us;
+
+	for (i = 0; i < stream_count; i++) {
+		char path[512];
+		hdhomerun_recorder_destroy(recorders[i]);
+		hdhomerun_device_destroy(devices[i]);
+		snprintf(path, sizeof(path), "%s/recorder_bench_%d.ts", directory, i);
+		unlink(path);
+	}
+	free(recorders);
+	free(devices);
+
+	if (total.blocks_written == 0) {
+		printf("%s: nothing was written\n", name);
+		return 1;
+	}
+
+	printf("%-9s %2d streams  %6.1f MB/s  cpu %5.1f%% (sender excluded)  io_uring %u/%d\n",
+		name, stream_count, total.bytes_written / (double)elapsed, 100.0 * cpu / elapsed, total.io_uring, stream_count);
+	printf("          write us: avg %llu  p50 <%u  p99 <%u  p99.9 <%u  max %u  backlog max %u  overflow %u  errors %u\n",
+		(unsigned long long)(total.write_time_total_us / total.blocks_written),
+		histogram_percentile(total.write_time_histogram, total.blocks_written, 50),
+		histogram_percentile(total.write_time_histogram, total.blocks_written, 99),
+		histogram_percentile(total.write_time_histogram, total.blocks_written, 99.9),
+		total.write_time_max_us, total.backlog_blocks_max, total.overflow_error_count, total.write_error_count);
+
+	return 0;
+}
+
+int main(int argc, char *argv[])
+{
+	int stream_count = (argc > 1) ? atoi(argv[1]) : 12;
+	int seconds = (argc > 2) ? atoi(argv[2]) : 10;
+	const char *directory = (argc > 3) ? argv[3] : ".";
+
+	if (!hdhomerun_recorder_set_io_uring(FALSE)) {
+		printf("built without io_uring, only the write threads run\n");
+	}
+
+	int ret = bench_run("threads", FALSE, stream_count, seconds, directory);
+	if (hdhomerun_recorder_set_io_uring(TRUE)) {
+		ret |= bench_run("io_uring", TRUE, stream_count, seconds, directory);
+	}
+	return ret;
+}
@@ -0,0 +1,92 @@
+/*
+ * stream_sender.c
+ */
+
+/* RUSAGE_THREAD */
+#define _GNU_SOURCE
+#include "hdhomerun.h"
+#include <sys/resource.h>
+#include "stream_sender.h"
+
+uint64_t stream_sender_now_us(void)
+{
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return (uint64_t)ts.tv_sec * 1000000ULL + (uint64_t)ts.tv_nsec / 1000;
+}
+
+uint64_t stream_sender_cpu_us(int who)
+{
+	struct rusage usage;
+	getrusage(who, &usage);
+	return (uint64_t)(usage.ru_utime.tv_sec + usage.ru_stime.tv_sec) * 1000000ULL + usage.ru_utime.tv_usec + usage.ru_stime.tv_usec;
+}
+
+uint64_t stream_sender_context_switches(int who)
+{
+	struct rusage usage;
+	getrusage(who, &usage);
+	return (uint64_t)usage.ru_nvcsw + (uint64_t)usage.ru_nivcsw;
+}
+
+static void *stream_sender_execute(void *arg)
+{
+	struct stream_sender_t *sender = (struct stream_sender_t *)arg;
+	uint8_t datagram[VIDEO_DATA_PACKET_SIZE];
+	uint64_t *sent = (uint64_t *)calloc(sender->stream_count, sizeof(uint64_t));
+
+	int i;
+	memset(datagram, 0xFF, sizeof(datagram));
+	for (i = 0; i < 7; i++) {
+		datagram[i * TS_PACKET_SIZE] = 0x47;
+		datagram[i * TS_PACKET_SIZE + 1] = 0x1F;
+		datagram[i * TS_PACKET_SIZE + 2] = 0xFF;
+		datagram[i * TS_PACKET_SIZE + 3] = 0x10;
+	}
+
+	int sock = socket(AF_INET, SOCK_DGRAM, 0);
+	int tx_size = 4 * 1024 * 1024;
+	setsockopt(sock, SOL_SOCKET, SO_SNDBUF, &tx_size, sizeof(tx_size));
+
+	struct sockaddr_in addr;
+	memset(&addr, 0, sizeof(addr));
+	addr.sin_family = AF_INET;
+	addr.sin_addr.s_addr = htonl(INADDR_LOOPBACK);
+
+	uint64_t start = stream_sender_now_us();
+	uint64_t cpu_start = stream_sender_cpu_us(RUSAGE_THREAD);
+	uint64_t switches_start = stream_sender_context_switches(RUSAGE_THREAD);
+	while (!sender->terminate) {
+		uint64_t due = (stream_sender_now_us() - start) * (sender->bits_per_second / 8) / 1000000 / VIDEO_DATA_PACKET_SIZE;
+		for (i = 0; i < sender->stream_count; i++) {
+			addr.sin_port = htons(sender->first_port + i);
+			while (sent[i] < due) {
+				sendto(sock, datagram, sizeof(datagram), 0, (struct sockaddr *)&addr, sizeof(addr));
+				sent[i]++;
+				sender->datagrams++;
+			}
+		}
+		msleep_approx(2);
+	}
+	sender->cpu_us = stream_sender_cpu_us(RUSAGE_THREAD) - cpu_start;
+	sender->context_switches = stream_sender_context_switches(RUSAGE_THREAD) - switches_start;
+
+	close(sock);
+	free(sent);
+	return NULL;
+}
+
+void stream_sender_start(struct stream_sender_t *sender, uint16_t first_port, int stream_count, uint64_t bits_per_second)
+{
+	memset(sender, 0, sizeof(struct stream_sender_t));
+	sender->first_port = first_port;
+	sender->stream_count = stream_count;
+	sender->bits_per_second = bits_per_second;
+	pthread_create(&sender->thread, NULL, stream_sender_execute, sender);
+}
+
+void stream_sender_stop(struct stream_sender_t *sender)
+{
+	sender->terminate = TRUE;
+	pthread_join(sender->thread, NULL);
+}
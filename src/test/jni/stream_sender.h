@@ -0,0 +1,34 @@
+/*
+ * stream_sender.h
+ *
+ * Streams HD rate TS datagrams from a thread to consecutive loopback ports, for the benchmarks
+ * that need streams without a device.
+ */
+
+#define STREAM_SENDER_BITS_PER_SECOND 19392658
+
+struct stream_sender_t {
+	uint16_t first_port;
+	int stream_count;
+	uint64_t bits_per_second;
+	volatile bool_t terminate;
+	pthread_t thread;
+	uint64_t cpu_us;
+	uint64_t context_switches;
+	uint64_t datagrams;
+};
+
+extern uint64_t stream_sender_now_us(void);
+
+/*
+ * CPU time and context switches of RUSAGE_SELF or RUSAGE_THREAD.
+ */
+extern uint64_t stream_sender_cpu_us(int who);
+extern uint64_t stream_sender_context_switches(int who);
+
+/*
+ * Start sending stream_count streams to first_port onwards. stream_sender_stop fills in the
+ * sender thread's own CPU time and context switches so they can be taken out of the process's.
+ */
+extern void stream_sender_start(struct stream_sender_t *sender, uint16_t first_port, int stream_count, uint64_t bits_per_second);
+extern void stream_sender_stop(struct stream_sender_t *sender);
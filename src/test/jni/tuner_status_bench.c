@@ -0,0 +1,76 @@
+/*
+ * tuner_status_bench.c
+ *
+ * Times hdhomerun_device_parse_tuner_status against the strstr/sscanf parse it replaced, over the
+ * recorded status strings in the file given. Build with make bench.
+ */
+
+#include "hdhomerun.h"
+#include "tuner_status_reference.h"
+
+#define MAX_LINES 256
+#define ROUNDS 200000
+
+static char lines[MAX_LINES][256];
+static int line_count = 0;
+
+static uint64_t now_ns(void)
+{
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return (uint64_t)ts.tv_sec * 1000000000ULL + (uint64_t)ts.tv_nsec;
+}
+
+static double time_parser(void (*parse)(const char *, struct hdhomerun_tuner_status_t *), uint32_t *checksum)
+{
+	struct hdhomerun_tuner_status_t status;
+	uint64_t start = now_ns();
+
+	int round;
+	for (round = 0; round < ROUNDS; round++) {
+		int i;
+		for (i = 0; i < line_count; i++) {
+			/* the library clears the struct before every parse as well */
+			memset(&status, 0, sizeof(status));
+			parse(lines[i], &status);
+			*checksum += status.signal_strength + status.raw_bits_per_second + (uint32_t)status.channel[0];
+		}
+	}
+
+	return (double)(now_ns() - start) / ((double)ROUNDS * line_count);
+}
+
+int main(int argc, char *argv[])
+{
+	if (argc < 2) {
+		printf("usage: %s <recorded status strings>\n", argv[0]);
+		return 2;
+	}
+
+	FILE *fp = fopen(argv[1], "r");
+	if (!fp) {
+		printf("can't open %s\n", argv[1]);
+		return 2;
+	}
+	while ((line_count < MAX_LINES) && fgets(lines[line_count], sizeof(lines[line_count]), fp)) {
+		char *end = strchr(lines[line_count], '\n');
+		if (end) {
+			*end = 0;
+		}
+		line_count++;
+	}
+	fclose(fp);
+
+	uint32_t checksum = 0;
+	/* warm up */
+	time_parser(reference_parse_tuner_status, &checksum);
+
+	double reference = time_parser(reference_parse_tuner_status, &checksum);
+	double single_pass = time_parser(hdhomerun_device_parse_tuner_status, &checksum);
+
+	printf("%d status strings x %d rounds\n", line_count, ROUNDS);
+	printf("strstr/sscanf: %8.1f ns/status\n", reference);
+	printf("single pass:   %8.1f ns/status\n", single_pass);
+	printf("(checksum %u)\n", checksum);
+	return 0;
+}
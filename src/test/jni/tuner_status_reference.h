@@ -0,0 +1,38 @@
+/*
+ * tuner_status_reference.h
+ *
+ * The strstr/sscanf tuner status parse hdhomerun_device_parse_tuner_status replaced,
+ * kept to check and time the new one against.
+ */
+
+static uint32_t reference_status_parse(const char *status_str, const char *tag)
+{
+	const char *ptr = strstr(status_str, tag);
+	if (!ptr) {
+		return 0;
+	}
+
+	unsigned int value = 0;
+	sscanf(ptr + strlen(tag), "%u", &value);
+
+	return (uint32_t)value;
+}
+
+static void reference_parse_tuner_status(const char *status_str, struct hdhomerun_tuner_status_t *status)
+{
+	const char *channel = strstr(status_str, "ch=");
+	if (channel) {
+		sscanf(channel + 3, "%31s", status->channel);
+	}
+
+	const char *lock = strstr(status_str, "lock=");
+	if (lock) {
+		sscanf(lock + 5, "%31s", status->lock_str);
+	}
+
+	status->signal_strength = (unsigned int)reference_status_parse(status_str, "ss=");
+	status->signal_to_noise_quality = (unsigned int)reference_status_parse(status_str, "snq=");
+	status->symbol_error_quality = (unsigned int)reference_status_parse(status_str, "seq=");
+	status->raw_bits_per_second = reference_status_parse(status_str, "bps=");
+	status->packets_per_second = reference_status_parse(status_str, "pps=");
+}
@@ -0,0 +1,199 @@
+/*
+ * tuner_status_test.c
+ *
+ * Checks hdhomerun_device_parse_tuner_status against the strstr/sscanf parse it replaced, on the
+ * recorded status strings in the file given and on generated well formed strings, then feeds it
+ * random bytes to catch reads or writes out of bounds. Build with make test.
+ */
+
+#include "hdhomerun.h"
+#include "tuner_status_reference.h"
+
+#define FUZZ_ITERATIONS 200000
+
+static int failures = 0;
+static uint32_t random_state = 0x2545F491;
+
+static uint32_t next_random(void)
+{
+	/* xorshift32, the same input every run */
+	random_state ^= random_state << 13;
+	random_state ^= random_state >> 17;
+	random_state ^= random_state << 5;
+	return random_state;
+}
+
+static void check(bool_t condition, const char *what, const char *status_str)
+{
+	if (!condition) {
+		failures++;
+		if (failures <= 20) {
+			printf("FAIL %s: \"%s\"\n", what, status_str);
+		}
+	}
+}
+
+static void check_against_reference(const char *status_str)
+{
+	struct hdhomerun_tuner_status_t status;
+	struct hdhomerun_tuner_status_t reference;
+	memset(&status, 0, sizeof(status));
+	memset(&reference, 0, sizeof(reference));
+
+	hdhomerun_device_parse_tuner_status(status_str, &status);
+	reference_parse_tuner_status(status_str, &reference);
+
+	check(strcmp(status.channel, reference.channel) == 0, "channel", status_str);
+	check(strcmp(status.lock_str, reference.lock_str) == 0, "lock", status_str);
+	check(status.signal_strength == reference.signal_strength, "ss", status_str);
+	check(status.signal_to_noise_quality == reference.signal_to_noise_quality, "snq", status_str);
+	check(status.symbol_error_quality == reference.symbol_error_quality, "seq", status_str);
+	check(status.raw_bits_per_second == reference.raw_bits_per_second, "bps", status_str);
+	check(status.packets_per_second == reference.packets_per_second, "pps", status_str);
+}
+
+static int test_recorded(const char *filename)
+{
+	FILE *fp = fopen(filename, "r");
+	if (!fp) {
+		printf("can't open %s\n", filename);
+		return -1;
+	}
+
+	int count = 0;
+	char line[1024];
+	while (fgets(line, sizeof(line), fp)) {
+		char *end = strchr(line, '\n');
+		if (end) {
+			*end = 0;
+		}
+		check_against_reference(line);
+		count++;
+	}
+	fclose(fp);
+
+	printf("recorded: %d status strings\n", count);
+	return count;
+}
+
+static void test_extra_fields(void)
+{
+	const char *status_str = "ch=qam:75000000 lock=qam256 ss=100 snq=100 seq=100 bps=38810720 pps=3686 dbg=-219-4318 sig=-3.2dBmV snr=36.8dB dbg=2";
+	struct hdhomerun_tuner_status_t status;
+	memset(&status, 0, sizeof(status));
+	hdhomerun_device_parse_tuner_status(status_str, &status);
+
+	const char *dbg = hdhomerun_device_get_tuner_status_extra(&status, "dbg");
+	const char *snr = hdhomerun_device_get_tuner_status_extra(&status, "snr");
+	check(status.extra_count == 3, "extra count", status_str);
+	check(dbg && (strcmp(dbg, "-219-4318") == 0), "first dbg kept", status_str);
+	check(snr && (strcmp(snr, "36.8dB") == 0), "snr", status_str);
+	check(hdhomerun_device_get_tuner_status_extra(&status, "ss") == NULL, "known fields aren't extra", status_str);
+	check(hdhomerun_device_get_tuner_status_extra(&status, "lcn") == NULL, "missing extra", status_str);
+}
+
+static void append_random_word(char **pptr, int max_len)
+{
+	static const char chars[] = "abcdefghijklmnopqrstuvwxyz0123456789:()-.";
+	int len = 1 + (int)(next_random() % (uint32_t)max_len);
+	int i;
+	for (i = 0; i < len; i++) {
+		*(*pptr)++ = chars[next_random() % (sizeof(chars) - 1)];
+	}
+}
+
+static void test_generated(void)
+{
+	static const char *known[] = { "ch", "lock", "ss", "snq", "seq", "bps", "pps" };
+	/* names that don't end in a known one, or the strstr parse would match inside them */
+	static const char *extra[] = { "dbg", "lcn", "plp", "sig", "snr", "tsid", "prog", "verylongfieldname" };
+
+	int iteration;
+	for (iteration = 0; iteration < FUZZ_ITERATIONS; iteration++) {
+		char status_str[1024];
+		char *ptr = status_str;
+
+		int fields = 1 + (int)(next_random() % 12);
+		int i;
+		for (i = 0; i < fields; i++) {
+			if (ptr != status_str) {
+				*ptr++ = ' ';
+			}
+
+			bool_t is_known = (next_random() % 3) != 0;
+			const char *name = is_known ? known[next_random() % 7] : extra[next_random() % 8];
+			ptr += snprintf(ptr, (size_t)(status_str + sizeof(status_str) - ptr), "%s=", name);
+
+			if (is_known && (name[0] != 'c') && (name[0] != 'l')) {
+				ptr += snprintf(ptr, (size_t)(status_str + sizeof(status_str) - ptr), "%u", next_random() % ((next_random() & 1) ? 101 : 0xFFFFFFFF));
+			} else {
+				append_random_word(&ptr, 40);
+			}
+		}
+		if (next_random() & 1) {
+			*ptr++ = '\n';
+		}
+		*ptr = 0;
+
+		check_against_reference(status_str);
+	}
+
+	printf("generated: %d status strings\n", FUZZ_ITERATIONS);
+}
+
+static void test_random_bytes(void)
+{
+	static const char chars[] = "ch=lock=ss=snq= \t\n=ab09-:\x01\xff";
+
+	int iteration;
+	for (iteration = 0; iteration < FUZZ_ITERATIONS; iteration++) {
+		/* exactly sized so AddressSanitizer sees a read past the end */
+		size_t len = next_random() % 300;
+		char *status_str = (char *)malloc(len + 1);
+		size_t i;
+		for (i = 0; i < len; i++) {
+			status_str[i] = (next_random() & 3) ? chars[next_random() % (sizeof(chars) - 1)] : (char)(next_random() % 255 + 1);
+		}
+		status_str[len] = 0;
+
+		struct hdhomerun_tuner_status_t status;
+		memset(&status, 0, sizeof(status));
+		hdhomerun_device_parse_tuner_status(status_str, &status);
+
+		check(memchr(status.channel, 0, sizeof(status.channel)) != NULL, "channel terminated", "random");
+		check(memchr(status.lock_str, 0, sizeof(status.lock_str)) != NULL, "lock terminated", "random");
+		check((status.extra_count >= 0) && (status.extra_count <= HDHOMERUN_TUNER_STATUS_MAX_EXTRA), "extra count", "random");
+		int e;
+		for (e = 0; e < status.extra_count; e++) {
+			check(status.extra[e].name[0] != 0, "extra name", "random");
+			check(memchr(status.extra[e].value, 0, sizeof(status.extra[e].value)) != NULL, "extra terminated", "random");
+		}
+
+		free(status_str);
+	}
+
+	printf("random: %d inputs\n", FUZZ_ITERATIONS);
+}
+
+int main(int argc, char *argv[])
+{
+	if (argc < 2) {
+		printf("usage: %s <recorded status strings>\n", argv[0]);
+		return 2;
+	}
+
+	if (test_recorded(argv[1]) < 0) {
+		return 2;
+	}
+	test_extra_fields();
+	test_generated();
+	test_random_bytes();
+
+	if (failures > 0) {
+		printf("%d failures\n", failures);
+		return 1;
+	}
+
+	printf("passed\n");
+	return 0;
+}
@@ -0,0 +1,132 @@
+/*
+ * video_reactor_bench.c
+ *
+ * Receives many video sockets with a thread each and then with the shared epoll reactor, idle and
+ * with HD rate streams arriving, and compares the CPU they take and how often they switch context.
+ * A sender thread streams TS to the sockets' ports on the loopback, so no device is needed.
+ *
+ *   make bench-reactor
+ *   ./video_reactor_bench [sockets] [seconds] [reactor threads] [Mbps per socket]
+ */
+
+#include "hdhomerun.h"
+#include <sys/resource.h>
+#include "stream_sender.h"
+
+#define FIRST_PORT 26000
+#define READ_INTERVAL_MS 100
+
+struct bench_result_t {
+	uint64_t elapsed_us;
+	uint64_t cpu_us;
+	uint64_t context_switches;
+	uint64_t bytes;
+	uint32_t overflow_error_count;
+	uint32_t network_error_count;
+};
+
+static void bench_phase(struct hdhomerun_video_sock_t **socks, int sock_count, int seconds, uint64_t bits_per_second, struct bench_result_t *result)
+{
+	struct stream_sender_t sender;
+	memset(result, 0, sizeof(struct bench_result_t));
+
+	/* Drain what is left from the last phase. */
+	int i;
+	for (i = 0; i < sock_count; i++) {
+		hdhomerun_video_flush(socks[i]);
+	}
+
+	uint64_t start = stream_sender_now_us();
+	uint64_t cpu_start = stream_sender_cpu_us(RUSAGE_SELF);
+	uint64_t switches_start = stream_sender_context_switches(RUSAGE_SELF);
+	if (bits_per_second > 0) {
+		stream_sender_start(&sender, FIRST_PORT, sock_count, bits_per_second);
+	}
+
+	/* One reader for all the sockets, the same in both modes. */
+	uint64_t stop = start + (uint64_t)seconds * 1000000;
+	while (stream_sender_now_us() < stop) {
+		for (i = 0; i < sock_count; i++) {
+			size_t actual;
+			while (hdhomerun_video_recv(socks[i], VIDEO_DATA_BUFFER_SIZE_1S, &actual)) {
+				result->bytes += actual;
+			}
+		}
+		msleep_approx(READ_INTERVAL_MS);
+	}
+
+	result->elapsed_us = stream_sender_now_us() - start;
+	result->cpu_us = stream_sender_cpu_us(RUSAGE_SELF) - cpu_start;
+	result->context_switches = stream_sender_context_switches(RUSAGE_SELF) - switches_start;
+	if (bits_per_second > 0) {
+		stream_sender_stop(&sender);
+		result->cpu_us -= sender.cpu_us;
+		result->context_switches -= sender.context_switches;
+	}
+
+	for (i = 0; i < sock_count; i++) {
+		struct hdhomerun_video_stats_t stats;
+		hdhomerun_video_get_stats(socks[i], &stats);
+		result->overflow_error_count += stats.overflow_error_count;
+		result->network_error_count += stats.network_error_count;
+	}
+}
+
+static void bench_print(const char *name, const char *phase, struct bench_result_t *result)
+{
+	double seconds = result->elapsed_us / 1000000.0;
+	printf("%-12s %-6s cpu %5.1f%%  context switches %7.0f/s  %7.1f Mbps  overflow %u\n",
+		name, phase, 100.0 * result->cpu_us / result->elapsed_us, result->context_switches / seconds,
+		result->bytes * 8 / seconds / 1000000, result->overflow_error_count);
+}
+
+static int bench_run(const char *name, unsigned int reactor_threads, int sock_count, int seconds, uint64_t bits_per_second)
+{
+	struct hdhomerun_video_sock_t **socks = (struct hdhomerun_video_sock_t **)calloc(sock_count, sizeof(struct hdhomerun_video_sock_t *));
+	struct bench_result_t result;
+	int i;
+
+	int cpu = 0;
+	hdhomerun_video_set_reactor(reactor_threads, &cpu, 1);
+
+	for (i = 0; i < sock_count; i++) {
+		socks[i] = hdhomerun_video_create(FIRST_PORT + i, FALSE, VIDEO_DATA_BUFFER_SIZE_1S * 2, NULL);
+		if (!socks[i]) {
+			printf("%s: can't create socket %d\n", name, i);
+			return 1;
+		}
+	}
+
+	bench_phase(socks, sock_count, seconds, 0, &result);
+	bench_print(name, "idle", &result);
+
+	bench_phase(socks, sock_count, seconds, bits_per_second, &result);
+	bench_print(name, "stream", &result);
+
+	for (i = 0; i < sock_count; i++) {
+		hdhomerun_video_destroy(socks[i]);
+	}
+	free(socks);
+
+	return (result.bytes == 0) ? 1 : 0;
+}
+
+int main(int argc, char *argv[])
+{
+	int sock_count = (argc > 1) ? atoi(argv[1]) : 40;
+	int seconds = (argc > 2) ? atoi(argv[2]) : 5;
+	unsigned int reactor_threads = (argc > 3) ? (unsigned int)atoi(argv[3]) : 1;
+	uint64_t bits_per_second = (argc > 4) ? (uint64_t)atoi(argv[4]) * 1000000 : STREAM_SENDER_BITS_PER_SECOND;
+
+	printf("%d sockets, %.1f Mbps each\n", sock_count, bits_per_second / 1000000.0);
+
+	int ret = bench_run("threads", 0, sock_count, seconds, bits_per_second);
+	if (hdhomerun_video_set_reactor(reactor_threads, NULL, 0)) {
+		char name[32];
+		snprintf(name, sizeof(name), "reactor x%u", reactor_threads);
+		ret |= bench_run(name, reactor_threads, sock_count, seconds, bits_per_second);
+	} else {
+		printf("built without the reactor, only the threads run\n");
+	}
+	return ret;
+}